@@ -0,0 +1,80 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of telemetry messages sent to the IoT Hub together. Over HTTPS the batch is sent as a single batch request,
+ * over AMQPS as a single batched delivery, and over MQTT as pipelined publishes of its messages.
+ */
+public final class BatchMessage extends Message
+{
+    private final List<Message> nestedMessages;
+
+    /**
+     * Constructor.
+     *
+     * @param messages the telemetry messages of the batch, in the order they shall be sent.
+     * @throws IllegalArgumentException if messages is null or empty, or contains a null message or a message that is
+     * not telemetry.
+     */
+    public BatchMessage(Collection<Message> messages) throws IllegalArgumentException
+    {
+        super();
+
+        if (messages == null || messages.isEmpty())
+        {
+            // Codes_SRS_BATCHMESSAGE_41_001: [If messages is null or empty, the constructor shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("A batch must contain at least one message.");
+        }
+
+        for (Message message : messages)
+        {
+            if (message == null || message instanceof BatchMessage
+                    || (message.getMessageType() != null && message.getMessageType() != MessageType.DEVICE_TELEMETRY))
+            {
+                // Codes_SRS_BATCHMESSAGE_41_002: [If any of the messages is null, a batch or not a telemetry message,
+                // the constructor shall throw an IllegalArgumentException.]
+                throw new IllegalArgumentException("A batch can only contain telemetry messages.");
+            }
+        }
+
+        // Codes_SRS_BATCHMESSAGE_41_003: [The constructor shall save a copy of the messages and set the message type
+        // of the batch to DEVICE_TELEMETRY.]
+        this.nestedMessages = Collections.unmodifiableList(new ArrayList<>(messages));
+        this.setMessageType(MessageType.DEVICE_TELEMETRY);
+    }
+
+    /**
+     * Getter for the messages of the batch.
+     *
+     * @return the unmodifiable list of the messages of the batch, in the order they shall be sent.
+     */
+    public List<Message> getNestedMessages()
+    {
+        // Codes_SRS_BATCHMESSAGE_41_004: [This function shall return the messages of the batch in order.]
+        return this.nestedMessages;
+    }
+
+    /**
+     * Sets the connection string of the batch and of all its messages.
+     *
+     * @param iotHubConnectionString the connection string of the device the batch is sent from.
+     */
+    @Override
+    public void setIotHubConnectionString(IotHubConnectionString iotHubConnectionString)
+    {
+        // Codes_SRS_BATCHMESSAGE_41_005: [This function shall set the connection string of the batch and of each of
+        // its messages.]
+        super.setIotHubConnectionString(iotHubConnectionString);
+        for (Message message : this.nestedMessages)
+        {
+            message.setIotHubConnectionString(iotHubConnectionString);
+        }
+    }
+}
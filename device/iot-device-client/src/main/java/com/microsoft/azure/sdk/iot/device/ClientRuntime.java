@@ -0,0 +1,207 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.transport.HashedWheelTimer;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttEventLoopGroup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threads shared by the clients it is set on, with the "SetClientRuntime" option of {@link DeviceClient} or
+ * the {@link TransportClient} constructor, so that the number of threads scales with the number of cores instead of
+ * the number of clients. A runtime provides:
+ * <ul>
+ *     <li>a scheduler for the periodic tasks of the clients: sending, receiving and token renewal;</li>
+ *     <li>a worker executor for the callbacks of sent messages, and for the event driven transport tasks, which
+ *     only run while their client has work to process;</li>
+ *     <li>a file upload executor of at most 10 threads, so that blocking blob uploads do not hold up the callbacks;
+ *     its threads end when no upload runs;</li>
+ *     <li>a connection executor for the tasks that run for the lifetime of a connection, such as the AMQP reactor.
+ *     Each of these tasks keeps one thread busy, so an executor of lightweight threads, such as a virtual thread
+ *     executor, is the best fit for it;</li>
+ *     <li>a timer for message retries and expiries;</li>
+ *     <li>the event loops of the MQTT connections of the clients with the "SetMqttEventLoop" option, one per core,
+ *     created when the first of these connections opens.</li>
+ * </ul>
+ *
+ * Executors supplied by the caller stay owned by the caller. The runtime must outlive the clients using it, and
+ * {@link #close()} shall only be called once all of them are closed.
+ */
+public final class ClientRuntime implements Closeable
+{
+    private static final long TIMER_TICK_MILLIS = 10;
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
+    private static final int MAX_FILE_UPLOAD_THREADS = 10;
+    private static final long FILE_UPLOAD_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workerExecutor;
+    private final ExecutorService connectionExecutor;
+    private final ThreadPoolExecutor fileUploadExecutor;
+    private final boolean isSchedulerOwned;
+    private final boolean isWorkerExecutorOwned;
+    private final boolean isConnectionExecutorOwned;
+    private final HashedWheelTimer timer = new HashedWheelTimer(TIMER_TICK_MILLIS, TIMER_TICKS_PER_WHEEL);
+    private MqttEventLoopGroup mqttEventLoopGroup;
+    private boolean isClosed;
+
+    /**
+     * Constructor for a runtime with a scheduler and a worker pool of one thread per core, and a connection executor
+     * that creates threads as needed.
+     */
+    public ClientRuntime()
+    {
+        this(null, null, null);
+    }
+
+    /**
+     * Constructor for a runtime using the provided executors. The runtime creates the executors that are not
+     * provided, as {@link #ClientRuntime()} does.
+     *
+     * @param scheduler the scheduler for the periodic tasks of the clients. Can be {@code null}.
+     * @param workerExecutor the executor for callbacks. Can be {@code null}.
+     * @param connectionExecutor the executor for the tasks that run for the lifetime of a connection. Can be
+     *                           {@code null}.
+     */
+    public ClientRuntime(ScheduledExecutorService scheduler, ExecutorService workerExecutor, ExecutorService connectionExecutor)
+    {
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        // Codes_SRS_CLIENTRUNTIME_41_001: [The constructor shall save the provided executors, and create the ones
+        // not provided: a scheduler and a worker pool of one thread per core, and a cached connection thread pool.]
+        this.isSchedulerOwned = (scheduler == null);
+        this.scheduler = this.isSchedulerOwned ? Executors.newScheduledThreadPool(cores) : scheduler;
+        this.isWorkerExecutorOwned = (workerExecutor == null);
+        this.workerExecutor = this.isWorkerExecutorOwned ? Executors.newFixedThreadPool(cores) : workerExecutor;
+        this.isConnectionExecutorOwned = (connectionExecutor == null);
+        this.connectionExecutor = this.isConnectionExecutorOwned ? Executors.newCachedThreadPool() : connectionExecutor;
+
+        // Codes_SRS_CLIENTRUNTIME_41_004: [The constructor shall create a file upload pool of at most 10 threads,
+        // whose idle threads end.]
+        this.fileUploadExecutor = new ThreadPoolExecutor(MAX_FILE_UPLOAD_THREADS, MAX_FILE_UPLOAD_THREADS,
+                FILE_UPLOAD_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        this.fileUploadExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Getter for the scheduler of the periodic tasks of the clients. Tasks run on it must be short.
+     *
+     * @return the scheduler.
+     */
+    public ScheduledExecutorService getScheduler()
+    {
+        return this.scheduler;
+    }
+
+    /**
+     * Getter for the executor of the callbacks of sent messages and of the event driven transport tasks.
+     *
+     * @return the worker executor.
+     */
+    public ExecutorService getWorkerExecutor()
+    {
+        return this.workerExecutor;
+    }
+
+    /**
+     * Getter for the executor of the file uploads. Uploads block a thread each, so they do not run on the worker
+     * executor.
+     *
+     * @return the file upload executor.
+     */
+    public ExecutorService getFileUploadExecutor()
+    {
+        return this.fileUploadExecutor;
+    }
+
+    /**
+     * Getter for the executor of the tasks that run for the lifetime of a connection.
+     *
+     * @return the connection executor.
+     */
+    public ExecutorService getConnectionExecutor()
+    {
+        return this.connectionExecutor;
+    }
+
+    /**
+     * Getter for the timer of message retries and expiries.
+     *
+     * @return the timer.
+     */
+    public HashedWheelTimer getTimer()
+    {
+        return this.timer;
+    }
+
+    /**
+     * Getter for the event loops of the MQTT connections served without a thread of their own. The event loops are
+     * created on the first call.
+     *
+     * @return the MQTT event loop group, with one event loop per core.
+     * @throws IOException if the event loops cannot be created.
+     * @throws IllegalStateException if the runtime is closed.
+     */
+    public synchronized MqttEventLoopGroup getMqttEventLoopGroup() throws IOException
+    {
+        if (this.isClosed)
+        {
+            throw new IllegalStateException("The client runtime is closed");
+        }
+
+        // Codes_SRS_CLIENTRUNTIME_41_003: [This function shall create the MQTT event loop group on its first call,
+        // with one event loop per core, and return the same group afterwards.]
+        if (this.mqttEventLoopGroup == null)
+        {
+            this.mqttEventLoopGroup = new MqttEventLoopGroup(Runtime.getRuntime().availableProcessors());
+        }
+
+        return this.mqttEventLoopGroup;
+    }
+
+    /**
+     * Shuts down the executors created by this runtime, letting the tasks already submitted run, and stops the
+     * timer and the MQTT event loops. Executors supplied by the caller are left running.
+     */
+    @Override
+    public synchronized void close()
+    {
+        this.isClosed = true;
+
+        // Codes_SRS_CLIENTRUNTIME_41_002: [This function shall shut down the executors created by the runtime,
+        // including the file upload executor, and stop the timer and the MQTT event loops.]
+        if (this.isSchedulerOwned)
+        {
+            this.scheduler.shutdown();
+        }
+
+        if (this.isWorkerExecutorOwned)
+        {
+            this.workerExecutor.shutdown();
+        }
+
+        if (this.isConnectionExecutorOwned)
+        {
+            this.connectionExecutor.shutdown();
+        }
+
+        this.fileUploadExecutor.shutdown();
+
+        this.timer.stop();
+
+        if (this.mqttEventLoopGroup != null)
+        {
+            this.mqttEventLoopGroup.close();
+            this.mqttEventLoopGroup = null;
+        }
+    }
+}
@@ -40,6 +40,11 @@ public class CustomLogger {
         }
     }
 
+    public boolean isTraceEnabled()
+    {
+        return logger.isEnabledFor(Level.TRACE);
+    }
+
     public void LogTrace(String message, Object...params)
     {
         if(logger.isEnabledFor(Level.TRACE))
@@ -0,0 +1,187 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A {@link PayloadCodec} compressing message bodies in the gzip format (RFC 1952) or the deflate format (the zlib
+ * format of RFC 1950, as the deflate HTTP content encoding).
+ *
+ * The deflaters and their output buffers are pooled and reused from one message to the next, so compressing a body
+ * only allocates the compressed body. The pool holds one deflater per thread compressing at the same time.
+ */
+public final class DeflatePayloadCodec implements PayloadCodec
+{
+    /** The content encoding of bodies compressed in the gzip format. */
+    public static final String GZIP = "gzip";
+
+    /** The content encoding of bodies compressed in the zlib format. */
+    public static final String DEFLATE = "deflate";
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int GZIP_TRAILER_LENGTH = 8;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final boolean isGzip;
+    private final int level;
+    private final Queue<Compressor> compressors = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Constructor for a codec compressing at the default level.
+     *
+     * @param contentEncoding {@link #GZIP} or {@link #DEFLATE}.
+     * @throws IllegalArgumentException if the content encoding is not supported.
+     */
+    public DeflatePayloadCodec(String contentEncoding) throws IllegalArgumentException
+    {
+        this(contentEncoding, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param contentEncoding {@link #GZIP} or {@link #DEFLATE}.
+     * @param level the compression level, from 0 to 9, or -1 for the default level.
+     * @throws IllegalArgumentException if the content encoding is not supported or the level is out of range.
+     */
+    public DeflatePayloadCodec(String contentEncoding, int level) throws IllegalArgumentException
+    {
+        if (!GZIP.equals(contentEncoding) && !DEFLATE.equals(contentEncoding))
+        {
+            // Codes_SRS_DEFLATEPAYLOADCODEC_41_001: [If the content encoding is not gzip or deflate, the constructor
+            // shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("Unsupported content encoding " + contentEncoding);
+        }
+
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+        {
+            // Codes_SRS_DEFLATEPAYLOADCODEC_41_002: [If the level is not between -1 and 9, the constructor shall
+            // throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("Compression level must be between -1 and 9");
+        }
+
+        this.isGzip = GZIP.equals(contentEncoding);
+        this.level = level;
+    }
+
+    @Override
+    public String getContentEncoding()
+    {
+        // Codes_SRS_DEFLATEPAYLOADCODEC_41_003: [This function shall return the content encoding the codec was
+        // created with.]
+        return this.isGzip ? GZIP : DEFLATE;
+    }
+
+    /**
+     * Compresses a message body.
+     *
+     * @param body the body to compress.
+     * @return the compressed body.
+     * @throws IllegalArgumentException if the body is null.
+     */
+    @Override
+    public byte[] encode(byte[] body) throws IllegalArgumentException
+    {
+        if (body == null)
+        {
+            // Codes_SRS_DEFLATEPAYLOADCODEC_41_004: [If the body is null, this function shall throw an
+            // IllegalArgumentException.]
+            throw new IllegalArgumentException("body cannot be null");
+        }
+
+        // Codes_SRS_DEFLATEPAYLOADCODEC_41_005: [This function shall compress the body with a pooled deflater and
+        // output buffer, creating them if none is free, and return them to the pool once done.]
+        Compressor compressor = this.compressors.poll();
+        if (compressor == null)
+        {
+            compressor = new Compressor(this.level, this.isGzip);
+        }
+
+        try
+        {
+            // Codes_SRS_DEFLATEPAYLOADCODEC_41_006: [This function shall return the body compressed in the format of
+            // the content encoding.]
+            return compressor.compress(body);
+        }
+        finally
+        {
+            compressor.reset();
+            this.compressors.offer(compressor);
+        }
+    }
+
+    /* A deflater with its output buffer, used by one thread at a time */
+    private static final class Compressor
+    {
+        private final Deflater deflater;
+        private final CRC32 crc;
+        private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+        Compressor(int level, boolean isGzip)
+        {
+            // The gzip format wraps raw deflate data in its own header and trailer
+            this.deflater = new Deflater(level, isGzip);
+            this.crc = isGzip ? new CRC32() : null;
+        }
+
+        byte[] compress(byte[] body)
+        {
+            int length = 0;
+            if (this.crc != null)
+            {
+                System.arraycopy(GZIP_HEADER, 0, this.buffer, 0, GZIP_HEADER.length);
+                length = GZIP_HEADER.length;
+                this.crc.update(body, 0, body.length);
+            }
+
+            this.deflater.setInput(body, 0, body.length);
+            this.deflater.finish();
+            while (!this.deflater.finished())
+            {
+                if (length == this.buffer.length)
+                {
+                    this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+                }
+
+                length += this.deflater.deflate(this.buffer, length, this.buffer.length - length);
+            }
+
+            if (this.crc != null)
+            {
+                if (length + GZIP_TRAILER_LENGTH > this.buffer.length)
+                {
+                    this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+                }
+
+                length = writeIntLittleEndian(this.buffer, length, (int) this.crc.getValue());
+                length = writeIntLittleEndian(this.buffer, length, body.length);
+            }
+
+            return Arrays.copyOf(this.buffer, length);
+        }
+
+        void reset()
+        {
+            this.deflater.reset();
+            if (this.crc != null)
+            {
+                this.crc.reset();
+            }
+        }
+
+        private static int writeIntLittleEndian(byte[] buffer, int offset, int value)
+        {
+            buffer[offset] = (byte) value;
+            buffer[offset + 1] = (byte) (value >> 8);
+            buffer[offset + 2] = (byte) (value >> 16);
+            buffer[offset + 3] = (byte) (value >> 24);
+            return offset + 4;
+        }
+    }
+}
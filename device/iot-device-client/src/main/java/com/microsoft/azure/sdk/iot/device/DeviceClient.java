@@ -15,8 +15,10 @@ import java.io.*;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import static com.microsoft.azure.sdk.iot.device.IotHubClientProtocol.AMQPS;
 import static com.microsoft.azure.sdk.iot.device.IotHubClientProtocol.AMQPS_WS;
@@ -102,6 +104,25 @@ public final class DeviceClient implements Closeable
     private static final String SET_SEND_INTERVAL = "SetSendInterval";
     private static final String SET_CERTIFICATE_PATH = "SetCertificatePath";
     private static final String SET_SAS_TOKEN_EXPIRY_TIME = "SetSASTokenExpiryTime";
+    private static final String SET_EVENT_DRIVEN_TRANSPORT = "SetEventDrivenTransport";
+    private static final String SET_OUTBOUND_QUEUE_MAX_MESSAGES = "SetOutboundQueueMaxMessages";
+    private static final String SET_OUTBOUND_QUEUE_MAX_BYTES = "SetOutboundQueueMaxBytes";
+    private static final String SET_OUTBOUND_QUEUE_FULL_POLICY = "SetOutboundQueueFullPolicy";
+    private static final String SET_OUTBOUND_QUEUE_BLOCK_TIMEOUT = "SetOutboundQueueBlockTimeout";
+    private static final String SET_OUTBOUND_QUEUE_PRIORITY_WEIGHTS = "SetOutboundQueuePriorityWeights";
+    private static final String SET_RECEIVE_BATCH_SIZE = "SetReceiveBatchSize";
+    private static final String SET_SEND_WINDOW_CEILING = "SetSendWindowCeiling";
+    private static final String SET_MQTT_MAX_IN_FLIGHT = "SetMqttMaxInFlight";
+    private static final String SET_TELEMETRY_DELIVERY_MODE = "SetTelemetryDeliveryMode";
+    private static final String SET_MQTT_DIRECT_DISPATCH = "SetMqttDirectDispatch";
+    private static final String SET_MQTT_EVENT_LOOP = "SetMqttEventLoop";
+    private static final String SET_REPORTED_PROPERTIES_COALESCING_INTERVAL = "SetReportedPropertiesCoalescingInterval";
+    private static final String SET_PAYLOAD_CODEC = "SetPayloadCodec";
+    private static final String SET_PAYLOAD_COMPRESSION_THRESHOLD = "SetPayloadCompressionThreshold";
+    private static final String SET_CALLBACK_EXECUTOR = "SetCallbackExecutor";
+    private static final String SET_PERSISTENT_QUEUE_DIRECTORY = "SetPersistentQueueDirectory";
+    private static final String SET_PERSISTENT_QUEUE_SYNC_POLICY = "SetPersistentQueueSyncPolicy";
+    private static final String SET_CLIENT_RUNTIME = "SetClientRuntime";
 
     private DeviceClientConfig config;
     private DeviceIO deviceIO;
@@ -412,6 +433,8 @@ public final class DeviceClient implements Closeable
             /* Codes_SRS_DEVICECLIENT_21_042: [The closeNow shall closeNow the deviceIO connection.] */
             /* Codes_SRS_DEVICECLIENT_21_043: [If the closing a connection via deviceIO is not successful, the closeNow shall throw IOException.] */
             this.deviceIO.close();
+
+            closeDeviceTwin();
         }
 
         logger.LogInfo("Connection closed with success, method name is %s ", logger.getMethodName());
@@ -449,6 +472,8 @@ public final class DeviceClient implements Closeable
             /* Codes_SRS_DEVICECLIENT_21_009: [If the closing a connection via deviceIO is not successful, the closeNow shall throw IOException.] */
             this.deviceIO.close();
 
+            closeDeviceTwin();
+
             /* Codes_SRS_DEVICECLIENT_21_054: [If the fileUpload is not null, the closeNow shall call closeNow on fileUpload.] */
             closeFileUpload();
         }
@@ -474,11 +499,123 @@ public final class DeviceClient implements Closeable
         /* Codes_SRS_DEVICECLIENT_21_010: [The sendEventAsync shall asynchronously send the message using the deviceIO connection.] */
         /* Codes_SRS_DEVICECLIENT_21_011: [If starting to send via deviceIO is not successful, the sendEventAsync shall bypass the threw exception.] */
         /* Codes_SRS_DEVICECLIENT_12_001: [The function shall call deviceIO.sendEventAsync with the client's config parameter to enable multiplexing.] */
+        /* Codes_SRS_DEVICECLIENT_41_039: [If a payload codec is set, the sendEventAsync shall encode the body of the message with it before sending it.] */
+        this.encodePayload(message);
         deviceIO.sendEventAsync(message, callback, callbackContext, this.config.getIotHubConnectionString());
 
         logger.LogInfo("Message with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", message.getMessageId(), logger.getMethodName());
     }
 
+    /**
+     * Asynchronously sends an event message to the IoT Hub. The returned future is completed with the status of the
+     * message by the thread that would otherwise invoke its callback.
+     *
+     * @param message the message to be sent.
+     * @return the future completed with the status of the message.
+     *
+     * @throws IllegalArgumentException if the message provided is {@code null}.
+     * @throws IllegalStateException if the client has not been opened yet or is
+     * already closed.
+     */
+    public IotHubStatusFuture sendEventAsync(Message message)
+    {
+        // Codes_SRS_DEVICECLIENT_41_024: [The function shall send the message with a new future as its callback, and
+        // return that future.]
+        IotHubStatusFuture future = new IotHubStatusFuture();
+        this.sendEventAsync(message, future, null);
+        return future;
+    }
+
+    /**
+     * Asynchronously sends a batch of event messages to the IoT Hub. Over HTTPS the messages are sent in a single
+     * batch request and over AMQPS in a single batched delivery, so they succeed or fail together. Over MQTT they are
+     * published one after the other without waiting for each acknowledgement, and each gets its own result.
+     *
+     * The callback is invoked once per message with that message and its result. Over HTTPS and AMQPS the results are
+     * reported in the order of the collection. Over MQTT each message is retried and completed on its own, so the
+     * results are reported as the messages complete, in any order.
+     *
+     * @param messages the telemetry messages to be sent.
+     * @param callback the callback to be invoked for each message when a response is received.
+     * Can be {@code null}.
+     * @param callbackContext a context to be passed to the callback. Can be
+     * {@code null} if no callback is provided.
+     *
+     * @throws IllegalArgumentException if the collection is {@code null} or empty, or contains a {@code null} or
+     * non telemetry message.
+     * @throws IllegalStateException if the client has not been opened yet or is
+     * already closed.
+     */
+    public void sendEventBatchAsync(Collection<Message> messages, IotHubBatchEventCallback callback, Object callbackContext)
+    {
+        // Codes_SRS_DEVICECLIENT_41_022: [The function shall build a BatchMessage from the messages, which throws an
+        // IllegalArgumentException if they cannot be batched.]
+        BatchMessage batchMessage = new BatchMessage(messages);
+
+        // Codes_SRS_DEVICECLIENT_41_040: [If a payload codec is set, the function shall encode the body of each
+        // message of the batch with it.]
+        for (Message message : batchMessage.getNestedMessages())
+        {
+            this.encodePayload(message);
+        }
+
+        // Codes_SRS_DEVICECLIENT_41_023: [The function shall call deviceIO.sendEventAsync with the batch message and
+        // the client's connection string.]
+        deviceIO.sendEventAsync(batchMessage, callback, callbackContext, this.config.getIotHubConnectionString());
+
+        logger.LogInfo("Batch of %d messages with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", messages.size(), batchMessage.getMessageId(), logger.getMethodName());
+    }
+
+    /*
+        Encodes the body of a telemetry message with the payload codec of the config, if any. Bodies are encoded before
+        being queued so that the outbound queue limits apply to the bytes actually sent.
+     */
+    private void encodePayload(Message message)
+    {
+        PayloadCodec payloadCodec = this.config.getPayloadCodec();
+        if (payloadCodec != null && message != null)
+        {
+            message.encodeBody(payloadCodec, this.config.getPayloadCompressionThreshold());
+        }
+    }
+
+    /**
+     * Getter for the number of messages waiting to be sent. Applications can use it, together with
+     * {@link #getOutboundQueueSizeInBytes()}, to adapt how often they send messages.
+     *
+     * @return the number of messages in the outbound queue.
+     * @throws IllegalStateException if the client uses a TransportClient that has not been opened yet.
+     */
+    public int getOutboundQueueSize()
+    {
+        if (this.deviceIO == null)
+        {
+            // Codes_SRS_DEVICECLIENT_41_009: [If the deviceIO is not set, the function shall throw an IllegalStateException.]
+            throw new IllegalStateException("The outbound queue is not available until the transport client is opened");
+        }
+
+        // Codes_SRS_DEVICECLIENT_41_010: [The function shall return the outbound queue size of the deviceIO.]
+        return this.deviceIO.getOutboundQueueSize();
+    }
+
+    /**
+     * Getter for the total size of the bodies of the messages waiting to be sent.
+     *
+     * @return the total size in bytes of the messages in the outbound queue.
+     * @throws IllegalStateException if the client uses a TransportClient that has not been opened yet.
+     */
+    public long getOutboundQueueSizeInBytes()
+    {
+        if (this.deviceIO == null)
+        {
+            // Codes_SRS_DEVICECLIENT_41_009: [If the deviceIO is not set, the function shall throw an IllegalStateException.]
+            throw new IllegalStateException("The outbound queue is not available until the transport client is opened");
+        }
+
+        // Codes_SRS_DEVICECLIENT_41_011: [The function shall return the outbound queue size in bytes of the deviceIO.]
+        return this.deviceIO.getOutboundQueueSizeInBytes();
+    }
+
     /**
      * Sets the message callback.
      *
@@ -606,6 +743,34 @@ public final class DeviceClient implements Closeable
     }
 
     public void getDeviceTwin() throws IOException
+    {
+        this.verifyTwinStartedAndOpen();
+
+        /*
+         **Codes_SRS_DEVICECLIENT_21_042: [**The function shall get all desired properties by calling getDeviceTwin.**]**
+         */
+        this.deviceTwin.getDeviceTwin();
+    }
+
+    /**
+     * Gets the twin of the device. The properties are reported to the property callbacks given when starting the twin,
+     * and the status of the request to the returned future instead of the twin status callback.
+     *
+     * @return the future completed with the status of the request.
+     * @throws IOException if called when client is not opened or called before starting twin.
+     */
+    public IotHubStatusFuture getDeviceTwinAsync() throws IOException
+    {
+        this.verifyTwinStartedAndOpen();
+
+        // Codes_SRS_DEVICECLIENT_41_025: [The function shall get the twin by calling getDeviceTwin on the twin
+        // object with a new future, and return that future.]
+        IotHubStatusFuture future = new IotHubStatusFuture();
+        this.deviceTwin.getDeviceTwin(future);
+        return future;
+    }
+
+    private void verifyTwinStartedAndOpen() throws IOException
     {
         if (this.deviceTwin == null)
         {
@@ -622,11 +787,6 @@ public final class DeviceClient implements Closeable
              */
             throw new IOException("Open the client connection before using it.");
         }
-
-        /*
-         **Codes_SRS_DEVICECLIENT_21_042: [**The function shall get all desired properties by calling getDeviceTwin.**]**
-         */
-        this.deviceTwin.getDeviceTwin();
     }
 
     /**
@@ -732,6 +892,33 @@ public final class DeviceClient implements Closeable
 
     }
 
+    /**
+     * Sends reported properties. The status of the update is reported to the returned future instead of the twin
+     * status callback.
+     *
+     * @param reportedProperties the Set for desired properties and their corresponding callback and context. Cannot be {@code null}.
+     * @return the future completed with the status of the update.
+     *
+     * @throws IOException if called when client is not opened or called before starting twin.
+     * @throws IllegalArgumentException if reportedProperties is null or empty.
+     */
+    public IotHubStatusFuture sendReportedPropertiesAsync(Set<Property> reportedProperties) throws IOException
+    {
+        this.verifyTwinStartedAndOpen();
+
+        if (reportedProperties == null || reportedProperties.isEmpty())
+        {
+            // Codes_SRS_DEVICECLIENT_41_026: [If reportedProperties is null or empty, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("Reported properties set cannot be null or empty.");
+        }
+
+        // Codes_SRS_DEVICECLIENT_41_027: [The function shall send the reported properties by calling
+        // updateReportedProperties on the twin object with a new future, and return that future.]
+        IotHubStatusFuture future = new IotHubStatusFuture();
+        this.deviceTwin.updateReportedProperties(reportedProperties, null, future);
+        return future;
+    }
+
     /**
      * Sends reported properties
      *
@@ -884,6 +1071,29 @@ public final class DeviceClient implements Closeable
         this.fileUpload.uploadToBlobAsync(destinationBlobName, inputStream, streamLength, callback, callbackContext);
     }
 
+    /**
+     * Asynchronously upload a stream to the IoT Hub.
+     *
+     * @param destinationBlobName is a string with the name of the file in the storage.
+     * @param inputStream is a InputStream with the stream to upload in the blob.
+     * @param streamLength is a long with the number of bytes in the stream to upload.
+     * @return the future completed with the status of the upload.
+     *
+     * @throws IllegalArgumentException if the provided blob name, or the file path is {@code null},
+     *          empty or not valid.
+     * @throws IOException if the client cannot create a instance of the FileUpload or the transport.
+     * @throws UnsupportedOperationException if this method is called when using x509 authentication
+     */
+    public IotHubStatusFuture uploadToBlobAsync(String destinationBlobName, InputStream inputStream, long streamLength)
+            throws IllegalArgumentException, IOException
+    {
+        // Codes_SRS_DEVICECLIENT_41_028: [The function shall upload the stream with a new future as its callback, and
+        // return that future.]
+        IotHubStatusFuture future = new IotHubStatusFuture();
+        this.uploadToBlobAsync(destinationBlobName, inputStream, streamLength, future, null);
+        return future;
+    }
+
     @SuppressWarnings("unused")
     protected DeviceClient()
     {
@@ -1043,6 +1253,305 @@ public final class DeviceClient implements Closeable
         }
     }
 
+    private void setOption_SetEventDrivenTransport(Object value)
+    {
+        logger.LogInfo("Setting EventDrivenTransport as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_002: ["SetEventDrivenTransport" needs to have value type boolean.]
+        if (value instanceof Boolean)
+        {
+            this.config.setUseEventDrivenTransport((boolean) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not boolean = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundQueueMaxMessages(Object value)
+    {
+        logger.LogInfo("Setting OutboundQueueMaxMessages as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_005: ["SetOutboundQueueMaxMessages" needs to have value type integer.]
+        if (value instanceof Integer)
+        {
+            this.config.setOutboundQueueMaxMessages((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundQueueMaxBytes(Object value)
+    {
+        logger.LogInfo("Setting OutboundQueueMaxBytes as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_006: ["SetOutboundQueueMaxBytes" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            this.config.setOutboundQueueMaxBytes((long) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundQueueFullPolicy(Object value)
+    {
+        logger.LogInfo("Setting OutboundQueueFullPolicy as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_007: ["SetOutboundQueueFullPolicy" needs to have value type OutboundQueueFullPolicy.]
+        if (value instanceof OutboundQueueFullPolicy)
+        {
+            this.config.setOutboundQueueFullPolicy((OutboundQueueFullPolicy) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not OutboundQueueFullPolicy = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundQueueBlockTimeout(Object value)
+    {
+        logger.LogInfo("Setting OutboundQueueBlockTimeout as %s milliseconds, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_008: ["SetOutboundQueueBlockTimeout" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            this.config.setOutboundQueueBlockTimeoutMillis((long) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundQueuePriorityWeights(Object value)
+    {
+        logger.LogInfo("Setting OutboundQueuePriorityWeights, method name is %s ", logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_021: ["SetOutboundQueuePriorityWeights" needs to have value type int[].]
+        if (value instanceof int[])
+        {
+            this.config.setOutboundQueuePriorityWeights((int[]) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int[] = " + value);
+        }
+    }
+
+    private void setOption_SetReceiveBatchSize(Object value)
+    {
+        logger.LogInfo("Setting ReceiveBatchSize as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_013: ["SetReceiveBatchSize" needs to have value type integer.]
+        if (value instanceof Integer)
+        {
+            this.config.setReceiveBatchSize((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetSendWindowCeiling(Object value)
+    {
+        logger.LogInfo("Setting SendWindowCeiling as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_032: ["SetSendWindowCeiling" needs to have value type integer.]
+        if (value instanceof Integer)
+        {
+            this.config.setSendWindowCeiling((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetMqttMaxInFlight(Object value)
+    {
+        logger.LogInfo("Setting MqttMaxInFlight as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_042: ["SetMqttMaxInFlight" needs to have value type integer.]
+        if (value instanceof Integer)
+        {
+            this.config.setMqttMaxInFlightCount((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetTelemetryDeliveryMode(Object value)
+    {
+        logger.LogInfo("Setting TelemetryDeliveryMode as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_044: ["SetTelemetryDeliveryMode" needs to have value type MessageDeliveryMode.]
+        if (value instanceof MessageDeliveryMode)
+        {
+            this.config.setTelemetryDeliveryMode((MessageDeliveryMode) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not MessageDeliveryMode = " + value);
+        }
+    }
+
+    private void setOption_SetMqttDirectDispatch(Object value)
+    {
+        logger.LogInfo("Setting MqttDirectDispatch as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_046: ["SetMqttDirectDispatch" needs to have value type boolean.]
+        if (value instanceof Boolean)
+        {
+            this.config.setMqttDirectDispatch((boolean) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not boolean = " + value);
+        }
+    }
+
+    private void setOption_SetMqttEventLoop(Object value)
+    {
+        logger.LogInfo("Setting MqttEventLoop as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_048: ["SetMqttEventLoop" needs to have value type boolean.]
+        if (value instanceof Boolean)
+        {
+            this.config.setMqttEventLoop((boolean) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not boolean = " + value);
+        }
+    }
+
+    private void setOption_SetReportedPropertiesCoalescingInterval(Object value)
+    {
+        logger.LogInfo("Setting ReportedPropertiesCoalescingInterval as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_034: ["SetReportedPropertiesCoalescingInterval" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            this.config.setReportedPropertiesCoalescingIntervalMillis((long) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetPayloadCodec(Object value)
+    {
+        logger.LogInfo("Setting PayloadCodec as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_036: ["SetPayloadCodec" needs to have value type PayloadCodec.]
+        if (value instanceof PayloadCodec)
+        {
+            this.config.setPayloadCodec((PayloadCodec) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not PayloadCodec = " + value);
+        }
+    }
+
+    private void setOption_SetPayloadCompressionThreshold(Object value)
+    {
+        logger.LogInfo("Setting PayloadCompressionThreshold as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_038: ["SetPayloadCompressionThreshold" needs to have value type integer.]
+        if (value instanceof Integer)
+        {
+            this.config.setPayloadCompressionThreshold((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetCallbackExecutor(Object value)
+    {
+        logger.LogInfo("Setting CallbackExecutor as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_015: ["SetCallbackExecutor" needs to have value type ExecutorService or integer.]
+        if (value instanceof ExecutorService)
+        {
+            this.config.setCallbackExecutor((ExecutorService) value);
+        }
+        else if (value instanceof Integer)
+        {
+            this.config.setCallbackThreadPoolSize((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not ExecutorService or int = " + value);
+        }
+    }
+
+    private void setOption_SetPersistentQueueDirectory(Object value)
+    {
+        logger.LogInfo("Setting PersistentQueueDirectory as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_018: ["SetPersistentQueueDirectory" needs to have value type String.]
+        if (value instanceof String)
+        {
+            this.config.setPersistentQueueDirectory((String) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not String = " + value);
+        }
+    }
+
+    private void setOption_SetPersistentQueueSyncPolicy(Object value)
+    {
+        logger.LogInfo("Setting PersistentQueueSyncPolicy as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_019: ["SetPersistentQueueSyncPolicy" needs to have value type PersistentQueueSyncPolicy.]
+        if (value instanceof PersistentQueueSyncPolicy)
+        {
+            this.config.setPersistentQueueSyncPolicy((PersistentQueueSyncPolicy) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not PersistentQueueSyncPolicy = " + value);
+        }
+    }
+
+    private void setOption_SetClientRuntime(Object value)
+    {
+        logger.LogInfo("Setting ClientRuntime as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_41_030: ["SetClientRuntime" needs to have value type ClientRuntime.]
+        if (value instanceof ClientRuntime)
+        {
+            this.config.setClientRuntime((ClientRuntime) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not ClientRuntime = " + value);
+        }
+    }
+
+    private boolean isTransportOpen()
+    {
+        if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+        {
+            return this.transportClient.getTransportClientState() == TransportClient.TransportClientState.OPENED;
+        }
+
+        return (this.deviceIO != null) && this.deviceIO.isOpen();
+    }
+
     /**
      * Sets a runtime option identified by parameter {@code optionName}
      * to {@code value}.
@@ -1062,6 +1571,148 @@ public final class DeviceClient implements Closeable
      *         SASToken expires. If the transport is already open then setting this
      *         option will restart the transport with the updated expiry time. The
      *         value is expected to be of type {@code long}.
+     *      - <b>SetEventDrivenTransport</b> - this option is applicable for all
+     *         protocols and can only be set while the client is closed. When
+     *         enabled, messages are sent and callbacks are invoked as soon as
+     *         they are queued instead of on every <b>SetSendInterval</b> tick,
+     *         and no periodic task runs while the client is idle. Messages
+     *         received over HTTP are still polled every
+     *         <b>SetMinimumPollingInterval</b>. The value is expected to be of
+     *         type {@code boolean}.
+     *      - <b>SetOutboundQueueMaxMessages</b> - this option is applicable for
+     *         all protocols. It specifies the maximum number of messages waiting
+     *         to be sent, 0 meaning no limit (the default). The value is
+     *         expected to be of type {@code int}.
+     *      - <b>SetOutboundQueueMaxBytes</b> - this option is applicable for
+     *         all protocols. It specifies the maximum total size in bytes of the
+     *         bodies of the messages waiting to be sent, 0 meaning no limit (the
+     *         default). The value is expected to be of type {@code long}.
+     *      - <b>SetOutboundQueueFullPolicy</b> - this option specifies what
+     *         happens to a new message when the outbound queue is full, see
+     *         {@link OutboundQueueFullPolicy}. Messages that are not queued, or
+     *         that are dropped from the queue, are reported to their callback
+     *         with status MESSAGE_CANCELLED_QUEUE_FULL, or MESSAGE_EXPIRED for
+     *         expired messages. Defaults to REJECT. The value is expected to be
+     *         of type {@link OutboundQueueFullPolicy}.
+     *      - <b>SetOutboundQueueBlockTimeout</b> - this option specifies, in
+     *         milliseconds, how long sendEventAsync waits for room in a full
+     *         outbound queue when the policy is BLOCK. Defaults to 10 seconds.
+     *         The value is expected to be of type {@code long}.
+     *      - <b>SetOutboundQueuePriorityWeights</b> - this option is applicable
+     *         for all protocols and can only be set while the client is closed.
+     *         Outgoing messages wait in one lane per {@link MessagePriority}:
+     *         twin and method messages in the HIGH lane, other messages in the
+     *         NORMAL lane, unless set otherwise with
+     *         {@link Message#setPriority(MessagePriority)}. By default a message
+     *         is only sent when no message of a higher priority is waiting.
+     *         This option gives instead the number of messages each lane sends
+     *         in a row before the next lane gets its turn, so that lower
+     *         priority lanes keep draining. The value is expected to be of type
+     *         {@code int[]}, with one positive weight per priority, in
+     *         {@link MessagePriority} order.
+     *      - <b>SetReceiveBatchSize</b> - this option is applicable for all
+     *         protocols. It specifies the maximum number of received messages
+     *         handed to their callbacks each time the client checks for
+     *         received messages. Defaults to 10. The value is expected to be
+     *         of type {@code int}.
+     *      - <b>SetSendWindowCeiling</b> - this option is applicable for all
+     *         protocols. It specifies the maximum number of messages sent and
+     *         not acknowledged yet. Under it, the client adapts how many
+     *         messages it sends at a time to the window of the protocol, such
+     *         as the AMQP link credit, and to the acknowledgement latency.
+     *         Defaults to 1000. The value is expected to be of type {@code int}.
+     *      - <b>SetMqttMaxInFlight</b> - this option is applicable for MQTT
+     *         and MQTT_WS and can only be set while the client is closed. It
+     *         specifies the maximum number of publishes waiting for their
+     *         acknowledgement on the connection. Messages are published without
+     *         waiting while the window has room, and each acknowledgement
+     *         reopens the window for the next message. Defaults to 10. The
+     *         value is expected to be of type {@code int}.
+     *      - <b>SetTelemetryDeliveryMode</b> - this option is applicable for
+     *         MQTT and MQTT_WS and can only be set while the client is closed.
+     *         It specifies the {@link MessageDeliveryMode} of the telemetry
+     *         messages that do not set their own. AT_MOST_ONCE messages are
+     *         published with QoS 0 and their callback runs once they are
+     *         written to the connection, so they hold an in flight slot only
+     *         until then. Twin and method messages are always published with
+     *         QoS 1. Defaults to AT_LEAST_ONCE. The value is expected to be of
+     *         type {@link MessageDeliveryMode}.
+     *      - <b>SetMqttDirectDispatch</b> - this option is applicable for MQTT
+     *         and MQTT_WS and can only be set while the client is closed. If
+     *         true, each message received from the service, including twin
+     *         and method messages, is handed to its callback on the MQTT
+     *         callback thread as soon as it arrives, and acknowledged as soon
+     *         as the callback returns, instead of waiting for the next receive
+     *         period. Callbacks then delay the following arrivals and the
+     *         acknowledgements of sent messages, so they should return
+     *         quickly. Defaults to false. The value is expected to be of type
+     *         {@code boolean}.
+     *      - <b>SetMqttEventLoop</b> - this option is applicable for MQTT and
+     *         can only be set while the client is closed. If true, the
+     *         connection runs on a non-blocking socket served by a shared
+     *         event loop instead of the threads of a Paho client: the event
+     *         loops of the client runtime set with "SetClientRuntime", one per
+     *         core, or an event loop of the client's own without a runtime.
+     *         MQTT_WS connections are not affected. Defaults to false. The
+     *         value is expected to be of type {@code boolean}.
+     *      - <b>SetReportedPropertiesCoalescingInterval</b> - this option is
+     *         applicable for all protocols. It specifies, in milliseconds, the
+     *         minimum time between two patches of reported properties. The
+     *         reported properties updated in the meantime, or while a patch is
+     *         in flight, are merged into the next patch, the last update of a
+     *         property winning. The callback of every merged update is still
+     *         called, with the status of the patch. Updates with a version are
+     *         sent on their own. Defaults to 0, which sends each update on its
+     *         own. The value is expected to be of type {@code long}.
+     *      - <b>SetPayloadCodec</b> - this option is applicable for all
+     *         protocols. It specifies the codec, such as a
+     *         {@link DeflatePayloadCodec}, encoding the bodies of the telemetry
+     *         messages at least as long as the payload compression threshold.
+     *         The encoding is recorded in the {@code content-encoding}
+     *         application property of the message, and bodies that would not
+     *         get shorter are sent as is. By default the bodies are sent as is.
+     *         The value is expected to be of type
+     *         {@link PayloadCodec}.
+     *      - <b>SetPayloadCompressionThreshold</b> - this option is applicable
+     *         for all protocols. It specifies the minimum length in bytes of
+     *         the telemetry message bodies encoded with the payload codec.
+     *         Defaults to 1024. The value is expected to be of type {@code int}.
+     *      - <b>SetCallbackExecutor</b> - this option is applicable for all
+     *         protocols and can only be set while the client is closed. It
+     *         specifies where the callbacks of sent messages run, so that slow
+     *         callbacks do not delay sending. The value is either an
+     *         {@code ExecutorService} owned by the caller, or an {@code int}
+     *         size of a thread pool the client creates on open and shuts down
+     *         on close. 0, the default, runs callbacks on the sending thread.
+     *         Callbacks sharing the same callback context always run one at a
+     *         time, in order.
+     *      - <b>SetPersistentQueueDirectory</b> - this option is applicable for
+     *         all protocols and can only be set while the client is closed. It
+     *         specifies a directory where telemetry messages are persisted from
+     *         sendEventAsync until the service acknowledges them, so that they
+     *         are sent again after the client is reopened, including in a new
+     *         process. Messages are sent again without their callback.
+     *         Messages cancelled because the client closed stay persisted; all
+     *         other outcomes, including failures, remove them. Each client
+     *         needs its own directory: opening a client on a directory used
+     *         by another open client fails. Not set by default. The value is
+     *         expected to be of type {@code String}.
+     *      - <b>SetPersistentQueueSyncPolicy</b> - this option specifies when
+     *         the persistent queue forces its writes to the storage device, see
+     *         {@link PersistentQueueSyncPolicy}. Defaults to NONE. The value is
+     *         expected to be of type {@link PersistentQueueSyncPolicy}.
+     *      - <b>SetClientRuntime</b> - this option is applicable for all
+     *         protocols and can only be set while the client is closed. It
+     *         specifies a {@link ClientRuntime} whose threads the client
+     *         shares with the other clients it is set on, instead of creating
+     *         its own. A callback thread pool size set with
+     *         SetCallbackExecutor then only selects running the callbacks on
+     *         the worker executor of the runtime. Not set by default. The
+     *         value is expected to be of type {@link ClientRuntime}.
+     *
+     *      When using a TransportClient, the outbound queue, receive batch
+     *      size, callback executor and persistent queue options of the first
+     *      registered client apply to all of its clients.
      *
      * @param optionName the option name to modify
      * @param value an object of the appropriate type for the option's value
@@ -1197,6 +1848,179 @@ public final class DeviceClient implements Closeable
                     }
                     break;
                 }
+                // Codes_SRS_DEVICECLIENT_41_001: ["SetEventDrivenTransport" - true to drain the transport on demand instead of periodically.]
+                case SET_EVENT_DRIVEN_TRANSPORT:
+                {
+                    if (this.isTransportOpen())
+                    {
+                        // Codes_SRS_DEVICECLIENT_41_003: ["SetEventDrivenTransport" shall throw if the transportClient or deviceIO already open.]
+                        throw new IllegalStateException("setOption " + SET_EVENT_DRIVEN_TRANSPORT + " only works when the transport is closed");
+                    }
+
+                    setOption_SetEventDrivenTransport(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_004: [The outbound queue options shall be saved in the config, and shall apply
+                // to the next messages sent.]
+                case SET_OUTBOUND_QUEUE_MAX_MESSAGES:
+                {
+                    setOption_SetOutboundQueueMaxMessages(value);
+                    break;
+                }
+                case SET_OUTBOUND_QUEUE_MAX_BYTES:
+                {
+                    setOption_SetOutboundQueueMaxBytes(value);
+                    break;
+                }
+                case SET_OUTBOUND_QUEUE_FULL_POLICY:
+                {
+                    setOption_SetOutboundQueueFullPolicy(value);
+                    break;
+                }
+                case SET_OUTBOUND_QUEUE_BLOCK_TIMEOUT:
+                {
+                    setOption_SetOutboundQueueBlockTimeout(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_014: ["SetCallbackExecutor" - where the callbacks of sent messages run.]
+                case SET_CALLBACK_EXECUTOR:
+                {
+                    if (this.isTransportOpen())
+                    {
+                        // Codes_SRS_DEVICECLIENT_41_016: ["SetCallbackExecutor" shall throw if the transportClient or deviceIO already open.]
+                        throw new IllegalStateException("setOption " + SET_CALLBACK_EXECUTOR + " only works when the transport is closed");
+                    }
+
+                    setOption_SetCallbackExecutor(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_017: ["SetPersistentQueueDirectory" and "SetPersistentQueueSyncPolicy" shall
+                // throw if the transportClient or deviceIO already open.]
+                case SET_PERSISTENT_QUEUE_DIRECTORY:
+                {
+                    if (this.isTransportOpen())
+                    {
+                        throw new IllegalStateException("setOption " + SET_PERSISTENT_QUEUE_DIRECTORY + " only works when the transport is closed");
+                    }
+
+                    setOption_SetPersistentQueueDirectory(value);
+                    break;
+                }
+                case SET_PERSISTENT_QUEUE_SYNC_POLICY:
+                {
+                    if (this.isTransportOpen())
+                    {
+                        throw new IllegalStateException("setOption " + SET_PERSISTENT_QUEUE_SYNC_POLICY + " only works when the transport is closed");
+                    }
+
+                    setOption_SetPersistentQueueSyncPolicy(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_020: ["SetOutboundQueuePriorityWeights" - how the priority lanes share the
+                // sending. Shall throw if the transportClient or deviceIO already open.]
+                case SET_OUTBOUND_QUEUE_PRIORITY_WEIGHTS:
+                {
+                    if (this.isTransportOpen())
+                    {
+                        throw new IllegalStateException("setOption " + SET_OUTBOUND_QUEUE_PRIORITY_WEIGHTS + " only works when the transport is closed");
+                    }
+
+                    setOption_SetOutboundQueuePriorityWeights(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_029: ["SetClientRuntime" - the threads shared with other clients. Shall
+                // throw if the transportClient or deviceIO already open.]
+                case SET_CLIENT_RUNTIME:
+                {
+                    if (this.isTransportOpen())
+                    {
+                        throw new IllegalStateException("setOption " + SET_CLIENT_RUNTIME + " only works when the transport is closed");
+                    }
+
+                    setOption_SetClientRuntime(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_041: ["SetMqttMaxInFlight" - maximum number of MQTT publishes waiting for their
+                // acknowledgement. Shall throw if the transportClient or deviceIO already open.]
+                case SET_MQTT_MAX_IN_FLIGHT:
+                {
+                    if (this.isTransportOpen())
+                    {
+                        throw new IllegalStateException("setOption " + SET_MQTT_MAX_IN_FLIGHT + " only works when the transport is closed");
+                    }
+
+                    setOption_SetMqttMaxInFlight(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_043: ["SetTelemetryDeliveryMode" - delivery mode of the telemetry messages
+                // that do not set their own. Shall throw if the transportClient or deviceIO already open.]
+                case SET_TELEMETRY_DELIVERY_MODE:
+                {
+                    if (this.isTransportOpen())
+                    {
+                        throw new IllegalStateException("setOption " + SET_TELEMETRY_DELIVERY_MODE + " only works when the transport is closed");
+                    }
+
+                    setOption_SetTelemetryDeliveryMode(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_045: ["SetMqttDirectDispatch" - whether MQTT arrivals are handed to their
+                // callbacks as soon as they arrive. Shall throw if the transportClient or deviceIO already open.]
+                case SET_MQTT_DIRECT_DISPATCH:
+                {
+                    if (this.isTransportOpen())
+                    {
+                        throw new IllegalStateException("setOption " + SET_MQTT_DIRECT_DISPATCH + " only works when the transport is closed");
+                    }
+
+                    setOption_SetMqttDirectDispatch(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_047: ["SetMqttEventLoop" - whether the MQTT connection is served by a
+                // shared event loop. Shall throw if the transportClient or deviceIO already open.]
+                case SET_MQTT_EVENT_LOOP:
+                {
+                    if (this.isTransportOpen())
+                    {
+                        throw new IllegalStateException("setOption " + SET_MQTT_EVENT_LOOP + " only works when the transport is closed");
+                    }
+
+                    setOption_SetMqttEventLoop(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_012: ["SetReceiveBatchSize" - maximum number of received messages handled at a time.]
+                case SET_RECEIVE_BATCH_SIZE:
+                {
+                    setOption_SetReceiveBatchSize(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_031: ["SetSendWindowCeiling" - maximum number of messages sent and not
+                // acknowledged yet.]
+                case SET_SEND_WINDOW_CEILING:
+                {
+                    setOption_SetSendWindowCeiling(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_033: ["SetReportedPropertiesCoalescingInterval" - minimum time between two
+                // patches of reported properties.]
+                case SET_REPORTED_PROPERTIES_COALESCING_INTERVAL:
+                {
+                    setOption_SetReportedPropertiesCoalescingInterval(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_035: ["SetPayloadCodec" - codec of the telemetry message bodies.]
+                case SET_PAYLOAD_CODEC:
+                {
+                    setOption_SetPayloadCodec(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_41_037: ["SetPayloadCompressionThreshold" - minimum length of the encoded
+                // telemetry message bodies.]
+                case SET_PAYLOAD_COMPRESSION_THRESHOLD:
+                {
+                    setOption_SetPayloadCompressionThreshold(value);
+                    break;
+                }
                 default:
                 {
                     throw new IllegalArgumentException("optionName is unknown = " + optionName);
@@ -1288,6 +2112,19 @@ public final class DeviceClient implements Closeable
         }
     }
 
+    /**
+     * Closes the DeviceTwin object if it is initialized.
+     */
+    void closeDeviceTwin()
+    {
+        if (this.deviceTwin != null)
+        {
+            // Codes_SRS_DEVICECLIENT_41_049: [If the device twin is started, the close shall cancel its reported
+            // properties patches in flight or waiting to be sent.]
+            this.deviceTwin.close();
+        }
+    }
+
     /**
      * Getter for the device client config.
      *
@@ -11,6 +11,7 @@ import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProviderTpm;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProviderX509;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Configuration settings for an IoT Hub client. Validates all user-defined
@@ -25,8 +26,70 @@ public final class DeviceClientConfig
 
     private static final long DEFAULT_OPERATION_TIMEOUT = 4 * 60 * 1000; //4 minutes
 
+    /** The default value for receiveBatchSize. */
+    private static final int DEFAULT_RECEIVE_BATCH_SIZE = 10;
+
+    /** The default value for outboundQueueBlockTimeoutMillis. */
+    private static final long DEFAULT_OUTBOUND_QUEUE_BLOCK_TIMEOUT_MILLIS = 10 * 1000;
+
+    /** The default value for sendWindowCeiling. */
+    private static final int DEFAULT_SEND_WINDOW_CEILING = 1000;
+
+    /** The default value for mqttMaxInFlightCount, the limit of Paho when it is not configured. */
+    private static final int DEFAULT_MQTT_MAX_IN_FLIGHT_COUNT = 10;
+
+    /* Bodies shorter than this rarely shrink enough to pay for the compression */
+    private static final int DEFAULT_PAYLOAD_COMPRESSION_THRESHOLD = 1024;
+
     private boolean useWebsocket;
 
+    /* If true, the transport is drained on demand by a single worker instead of by fixed rate send/receive tasks */
+    private boolean useEventDrivenTransport;
+
+    /* Capacity of the queue of messages waiting to be sent. 0 means no limit */
+    private int outboundQueueMaxMessages;
+    private long outboundQueueMaxBytes;
+    private OutboundQueueFullPolicy outboundQueueFullPolicy = OutboundQueueFullPolicy.REJECT;
+    private long outboundQueueBlockTimeoutMillis = DEFAULT_OUTBOUND_QUEUE_BLOCK_TIMEOUT_MILLIS;
+    /* Number of messages each priority lane sends in a row, indexed by MessagePriority. null for strict priority */
+    private int[] outboundQueuePriorityWeights;
+
+    /* Executor for the callbacks of sent messages. If null and the pool size is 0, callbacks run on the sending thread */
+    private ExecutorService callbackExecutor;
+    private int callbackThreadPoolSize;
+
+    /* Maximum number of received messages handed to their callbacks each time the transport handles received messages */
+    private int receiveBatchSize = DEFAULT_RECEIVE_BATCH_SIZE;
+
+    /* Maximum number of messages sent and not acknowledged yet. The transport adapts its send window under it */
+    private int sendWindowCeiling = DEFAULT_SEND_WINDOW_CEILING;
+
+    /* Maximum number of MQTT publishes in flight on the connection, the window the MQTT send window follows */
+    private int mqttMaxInFlightCount = DEFAULT_MQTT_MAX_IN_FLIGHT_COUNT;
+
+    /* Delivery mode of the telemetry messages that do not set their own. Only MQTT honors AT_MOST_ONCE */
+    private MessageDeliveryMode telemetryDeliveryMode = MessageDeliveryMode.AT_LEAST_ONCE;
+
+    /* If true, MQTT arrivals are handed to their callbacks on the Paho callback thread instead of being queued */
+    private boolean mqttDirectDispatch;
+
+    /* If true, the MQTT connection is served by a shared NIO event loop instead of the threads of a Paho client */
+    private boolean mqttEventLoop;
+
+    /* Minimum time between two reported properties patches when they are coalesced. 0 means no coalescing */
+    private long reportedPropertiesCoalescingIntervalMillis;
+
+    /* Codec of the telemetry bodies at least payloadCompressionThreshold bytes long. Null means no encoding */
+    private PayloadCodec payloadCodec;
+    private int payloadCompressionThreshold = DEFAULT_PAYLOAD_COMPRESSION_THRESHOLD;
+
+    /* Directory of the persistent outbound queue, or null to keep queued messages in memory only */
+    private String persistentQueueDirectory;
+    private PersistentQueueSyncPolicy persistentQueueSyncPolicy = PersistentQueueSyncPolicy.NONE;
+
+    /* Threads shared with other clients, or null for the client to create its own */
+    private ClientRuntime clientRuntime;
+
     private IotHubX509AuthenticationProvider x509Authentication;
     private IotHubSasTokenAuthenticationProvider sasTokenAuthentication;
 
@@ -293,6 +356,531 @@ public final class DeviceClientConfig
         this.useWebsocket = useWebsocket;
     }
 
+    /**
+     * Getter for the event driven transport mode
+     * @return true if the transport queues are drained on demand, false if they are polled periodically
+     */
+    public boolean isUseEventDrivenTransport()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_001: [The function shall return true if the event driven transport is enabled, false otherwise.]
+        return this.useEventDrivenTransport;
+    }
+
+    /**
+     * Setter for the event driven transport mode. When enabled, sending, receiving and callback execution are triggered
+     * by the transport when work is queued, instead of by tasks scheduled at a fixed rate.
+     * @param useEventDrivenTransport true to drain the transport queues on demand, false to poll them periodically
+     */
+    public void setUseEventDrivenTransport(boolean useEventDrivenTransport)
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_002: [The function shall save useEventDrivenTransport.]
+        this.useEventDrivenTransport = useEventDrivenTransport;
+    }
+
+    /**
+     * Getter for the maximum number of messages waiting to be sent
+     * @return the maximum number of queued outgoing messages, or 0 if there is no limit
+     */
+    public int getOutboundQueueMaxMessages()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_003: [The function shall return the saved maximum number of queued outgoing messages.]
+        return this.outboundQueueMaxMessages;
+    }
+
+    /**
+     * Setter for the maximum number of messages waiting to be sent
+     * @param outboundQueueMaxMessages the maximum number of queued outgoing messages, or 0 for no limit
+     * @throws IllegalArgumentException if outboundQueueMaxMessages is negative
+     */
+    public void setOutboundQueueMaxMessages(int outboundQueueMaxMessages) throws IllegalArgumentException
+    {
+        if (outboundQueueMaxMessages < 0)
+        {
+            //Codes_SRS_DEVICECLIENTCONFIG_41_004: [If the provided value is negative, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("outboundQueueMaxMessages cannot be negative");
+        }
+
+        //Codes_SRS_DEVICECLIENTCONFIG_41_005: [The function shall save the maximum number of queued outgoing messages.]
+        this.outboundQueueMaxMessages = outboundQueueMaxMessages;
+    }
+
+    /**
+     * Getter for the maximum total size of the bodies of the messages waiting to be sent
+     * @return the maximum size in bytes, or 0 if there is no limit
+     */
+    public long getOutboundQueueMaxBytes()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_006: [The function shall return the saved maximum size of the queued outgoing messages.]
+        return this.outboundQueueMaxBytes;
+    }
+
+    /**
+     * Setter for the maximum total size of the bodies of the messages waiting to be sent
+     * @param outboundQueueMaxBytes the maximum size in bytes, or 0 for no limit
+     * @throws IllegalArgumentException if outboundQueueMaxBytes is negative
+     */
+    public void setOutboundQueueMaxBytes(long outboundQueueMaxBytes) throws IllegalArgumentException
+    {
+        if (outboundQueueMaxBytes < 0)
+        {
+            //Codes_SRS_DEVICECLIENTCONFIG_41_007: [If the provided value is negative, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("outboundQueueMaxBytes cannot be negative");
+        }
+
+        //Codes_SRS_DEVICECLIENTCONFIG_41_008: [The function shall save the maximum size of the queued outgoing messages.]
+        this.outboundQueueMaxBytes = outboundQueueMaxBytes;
+    }
+
+    /**
+     * Getter for what to do with new messages when the outbound queue is full
+     * @return the outbound queue full policy. REJECT by default
+     */
+    public OutboundQueueFullPolicy getOutboundQueueFullPolicy()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_009: [The function shall return the saved outbound queue full policy.]
+        return this.outboundQueueFullPolicy;
+    }
+
+    /**
+     * Setter for what to do with new messages when the outbound queue is full
+     * @param outboundQueueFullPolicy the outbound queue full policy
+     * @throws IllegalArgumentException if outboundQueueFullPolicy is null
+     */
+    public void setOutboundQueueFullPolicy(OutboundQueueFullPolicy outboundQueueFullPolicy) throws IllegalArgumentException
+    {
+        if (outboundQueueFullPolicy == null)
+        {
+            //Codes_SRS_DEVICECLIENTCONFIG_41_010: [If the provided policy is null, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("outboundQueueFullPolicy cannot be null");
+        }
+
+        //Codes_SRS_DEVICECLIENTCONFIG_41_011: [The function shall save the outbound queue full policy.]
+        this.outboundQueueFullPolicy = outboundQueueFullPolicy;
+    }
+
+    /**
+     * Getter for how long a caller waits for room in a full outbound queue when the policy is BLOCK
+     * @return the block timeout in milliseconds
+     */
+    public long getOutboundQueueBlockTimeoutMillis()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_012: [The function shall return the saved outbound queue block timeout.]
+        return this.outboundQueueBlockTimeoutMillis;
+    }
+
+    /**
+     * Setter for how long a caller waits for room in a full outbound queue when the policy is BLOCK
+     * @param outboundQueueBlockTimeoutMillis the block timeout in milliseconds
+     * @throws IllegalArgumentException if outboundQueueBlockTimeoutMillis is negative
+     */
+    public void setOutboundQueueBlockTimeoutMillis(long outboundQueueBlockTimeoutMillis) throws IllegalArgumentException
+    {
+        if (outboundQueueBlockTimeoutMillis < 0)
+        {
+            //Codes_SRS_DEVICECLIENTCONFIG_41_013: [If the provided value is negative, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("outboundQueueBlockTimeoutMillis cannot be negative");
+        }
+
+        //Codes_SRS_DEVICECLIENTCONFIG_41_014: [The function shall save the outbound queue block timeout.]
+        this.outboundQueueBlockTimeoutMillis = outboundQueueBlockTimeoutMillis;
+    }
+
+    /**
+     * Getter for the maximum number of received messages handled each time the transport handles received messages
+     * @return the receive batch size
+     */
+    public int getReceiveBatchSize()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_015: [The function shall return the saved receive batch size.]
+        return this.receiveBatchSize;
+    }
+
+    /**
+     * Setter for the maximum number of received messages handled each time the transport handles received messages
+     * @param receiveBatchSize the receive batch size
+     * @throws IllegalArgumentException if receiveBatchSize is less than 1
+     */
+    public void setReceiveBatchSize(int receiveBatchSize) throws IllegalArgumentException
+    {
+        if (receiveBatchSize < 1)
+        {
+            //Codes_SRS_DEVICECLIENTCONFIG_41_016: [If the provided value is less than 1, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("receiveBatchSize must be at least 1");
+        }
+
+        //Codes_SRS_DEVICECLIENTCONFIG_41_017: [The function shall save the receive batch size.]
+        this.receiveBatchSize = receiveBatchSize;
+    }
+
+    /**
+     * Getter for the maximum number of messages sent to the IoT Hub and not acknowledged yet
+     * @return the send window ceiling
+     */
+    public int getSendWindowCeiling()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_033: [The function shall return the saved send window ceiling.]
+        return this.sendWindowCeiling;
+    }
+
+    /**
+     * Setter for the maximum number of messages sent to the IoT Hub and not acknowledged yet. The transport grows and
+     * shrinks its send window under this ceiling, following the window of the protocol and the acknowledgement latency
+     * @param sendWindowCeiling the send window ceiling
+     * @throws IllegalArgumentException if sendWindowCeiling is less than 1
+     */
+    public void setSendWindowCeiling(int sendWindowCeiling) throws IllegalArgumentException
+    {
+        if (sendWindowCeiling < 1)
+        {
+            //Codes_SRS_DEVICECLIENTCONFIG_41_034: [If the provided value is less than 1, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("sendWindowCeiling must be at least 1");
+        }
+
+        //Codes_SRS_DEVICECLIENTCONFIG_41_035: [The function shall save the send window ceiling.]
+        this.sendWindowCeiling = sendWindowCeiling;
+    }
+
+    /**
+     * Getter for the minimum time between two patches of reported properties
+     * @return the coalescing interval in milliseconds, or 0 if reported properties are not coalesced
+     */
+    public long getReportedPropertiesCoalescingIntervalMillis()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_036: [The function shall return the saved reported properties coalescing interval.]
+        return this.reportedPropertiesCoalescingIntervalMillis;
+    }
+
+    /**
+     * Setter for the minimum time between two patches of reported properties. When set, the reported properties
+     * updated while a patch is in flight or within the interval are merged into the next patch
+     * @param reportedPropertiesCoalescingIntervalMillis the coalescing interval in milliseconds, or 0 to send each
+     *                                                   update on its own
+     * @throws IllegalArgumentException if reportedPropertiesCoalescingIntervalMillis is negative
+     */
+    public void setReportedPropertiesCoalescingIntervalMillis(long reportedPropertiesCoalescingIntervalMillis) throws IllegalArgumentException
+    {
+        if (reportedPropertiesCoalescingIntervalMillis < 0)
+        {
+            //Codes_SRS_DEVICECLIENTCONFIG_41_037: [If the provided value is negative, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("reportedPropertiesCoalescingIntervalMillis cannot be negative");
+        }
+
+        //Codes_SRS_DEVICECLIENTCONFIG_41_038: [The function shall save the reported properties coalescing interval.]
+        this.reportedPropertiesCoalescingIntervalMillis = reportedPropertiesCoalescingIntervalMillis;
+    }
+
+    /**
+     * Getter for the codec of the telemetry message bodies
+     * @return the payload codec, or null if the bodies are sent as is
+     */
+    public PayloadCodec getPayloadCodec()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_039: [The function shall return the saved payload codec.]
+        return this.payloadCodec;
+    }
+
+    /**
+     * Setter for the codec of the telemetry message bodies. The bodies at least as long as the payload compression
+     * threshold are encoded with it before being queued
+     * @param payloadCodec the payload codec, or null to send the bodies as is
+     */
+    public void setPayloadCodec(PayloadCodec payloadCodec)
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_040: [The function shall save the payload codec.]
+        this.payloadCodec = payloadCodec;
+    }
+
+    /**
+     * Getter for the minimum length of the telemetry message bodies encoded with the payload codec
+     * @return the payload compression threshold in bytes
+     */
+    public int getPayloadCompressionThreshold()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_041: [The function shall return the saved payload compression threshold.]
+        return this.payloadCompressionThreshold;
+    }
+
+    /**
+     * Setter for the minimum length of the telemetry message bodies encoded with the payload codec
+     * @param payloadCompressionThreshold the payload compression threshold in bytes
+     * @throws IllegalArgumentException if payloadCompressionThreshold is negative
+     */
+    public void setPayloadCompressionThreshold(int payloadCompressionThreshold) throws IllegalArgumentException
+    {
+        if (payloadCompressionThreshold < 0)
+        {
+            //Codes_SRS_DEVICECLIENTCONFIG_41_042: [If the provided value is negative, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("payloadCompressionThreshold cannot be negative");
+        }
+
+        //Codes_SRS_DEVICECLIENTCONFIG_41_043: [The function shall save the payload compression threshold.]
+        this.payloadCompressionThreshold = payloadCompressionThreshold;
+    }
+
+    /**
+     * Getter for the maximum number of MQTT publishes waiting for their acknowledgement
+     * @return the MQTT in flight window
+     */
+    public int getMqttMaxInFlightCount()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_044: [The function shall return the saved MQTT in flight window.]
+        return this.mqttMaxInFlightCount;
+    }
+
+    /**
+     * Setter for the maximum number of MQTT publishes waiting for their acknowledgement. It is applied to the
+     * connection when it is opened
+     * @param mqttMaxInFlightCount the MQTT in flight window
+     * @throws IllegalArgumentException if mqttMaxInFlightCount is less than 1
+     */
+    public void setMqttMaxInFlightCount(int mqttMaxInFlightCount) throws IllegalArgumentException
+    {
+        if (mqttMaxInFlightCount < 1)
+        {
+            //Codes_SRS_DEVICECLIENTCONFIG_41_045: [If the provided value is less than 1, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("mqttMaxInFlightCount must be at least 1");
+        }
+
+        //Codes_SRS_DEVICECLIENTCONFIG_41_046: [The function shall save the MQTT in flight window.]
+        this.mqttMaxInFlightCount = mqttMaxInFlightCount;
+    }
+
+    /**
+     * Getter for the delivery mode of the telemetry messages that do not set their own
+     * @return the telemetry delivery mode
+     */
+    public MessageDeliveryMode getTelemetryDeliveryMode()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_047: [The function shall return the saved telemetry delivery mode.]
+        return this.telemetryDeliveryMode;
+    }
+
+    /**
+     * Setter for the delivery mode of the telemetry messages that do not set their own. It is applied to the
+     * connection when it is opened
+     * @param telemetryDeliveryMode the telemetry delivery mode
+     * @throws IllegalArgumentException if telemetryDeliveryMode is null
+     */
+    public void setTelemetryDeliveryMode(MessageDeliveryMode telemetryDeliveryMode) throws IllegalArgumentException
+    {
+        if (telemetryDeliveryMode == null)
+        {
+            //Codes_SRS_DEVICECLIENTCONFIG_41_048: [If the provided value is null, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("telemetryDeliveryMode cannot be null");
+        }
+
+        //Codes_SRS_DEVICECLIENTCONFIG_41_049: [The function shall save the telemetry delivery mode.]
+        this.telemetryDeliveryMode = telemetryDeliveryMode;
+    }
+
+    /**
+     * Getter for whether MQTT arrivals are dispatched directly to their callbacks
+     * @return true if the arrivals are dispatched on the Paho callback thread, false if they are queued for the
+     * receive task
+     */
+    public boolean isMqttDirectDispatch()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_050: [The function shall return the saved MQTT direct dispatch flag.]
+        return this.mqttDirectDispatch;
+    }
+
+    /**
+     * Setter for whether MQTT arrivals are dispatched directly to their callbacks. It is applied to the connection when
+     * it is opened
+     * @param mqttDirectDispatch true to dispatch the arrivals on the Paho callback thread, false to queue them for the
+     * receive task
+     */
+    public void setMqttDirectDispatch(boolean mqttDirectDispatch)
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_051: [The function shall save the MQTT direct dispatch flag.]
+        this.mqttDirectDispatch = mqttDirectDispatch;
+    }
+
+    /**
+     * Getter for whether the MQTT connection is served by an event loop
+     * @return true if the connection runs on a shared NIO event loop, false if it runs on a Paho client
+     */
+    public boolean isMqttEventLoop()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_052: [The function shall return the saved MQTT event loop flag.]
+        return this.mqttEventLoop;
+    }
+
+    /**
+     * Setter for whether the MQTT connection is served by an event loop. It is applied when the connection is created
+     * @param mqttEventLoop true to run the connection on a shared NIO event loop, false to run it on a Paho client
+     */
+    public void setMqttEventLoop(boolean mqttEventLoop)
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_053: [The function shall save the MQTT event loop flag.]
+        this.mqttEventLoop = mqttEventLoop;
+    }
+
+    /**
+     * Getter for the caller supplied executor the callbacks of sent messages run on
+     * @return the callback executor, or null if none was supplied
+     */
+    public ExecutorService getCallbackExecutor()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_018: [The function shall return the saved callback executor.]
+        return this.callbackExecutor;
+    }
+
+    /**
+     * Setter for the executor the callbacks of sent messages run on. The caller keeps ownership of the executor and
+     * is responsible for shutting it down.
+     * @param callbackExecutor the callback executor, or null to not use a caller supplied executor
+     */
+    public void setCallbackExecutor(ExecutorService callbackExecutor)
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_019: [The function shall save the callback executor and reset the callback
+        // thread pool size to 0.]
+        this.callbackExecutor = callbackExecutor;
+        this.callbackThreadPoolSize = 0;
+    }
+
+    /**
+     * Getter for the size of the thread pool the callbacks of sent messages run on
+     * @return the callback thread pool size, or 0 if callbacks do not run on a pool created by the client
+     */
+    public int getCallbackThreadPoolSize()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_020: [The function shall return the saved callback thread pool size.]
+        return this.callbackThreadPoolSize;
+    }
+
+    /**
+     * Setter for the size of the thread pool the callbacks of sent messages run on. The pool is created when the
+     * client is opened and shut down when the client is closed.
+     * @param callbackThreadPoolSize the callback thread pool size, or 0 to run callbacks on the sending thread
+     * @throws IllegalArgumentException if callbackThreadPoolSize is negative
+     */
+    public void setCallbackThreadPoolSize(int callbackThreadPoolSize) throws IllegalArgumentException
+    {
+        if (callbackThreadPoolSize < 0)
+        {
+            //Codes_SRS_DEVICECLIENTCONFIG_41_021: [If the provided value is negative, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("callbackThreadPoolSize cannot be negative");
+        }
+
+        //Codes_SRS_DEVICECLIENTCONFIG_41_022: [The function shall save the callback thread pool size and clear the
+        // callback executor.]
+        this.callbackThreadPoolSize = callbackThreadPoolSize;
+        this.callbackExecutor = null;
+    }
+
+    /**
+     * Getter for how the priority lanes of the outbound queue share the sending
+     * @return the number of messages each lane sends in a row, indexed by {@link MessagePriority} ordinal, or null
+     * for strict priority
+     */
+    public int[] getOutboundQueuePriorityWeights()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_028: [The function shall return a copy of the saved priority weights.]
+        return this.outboundQueuePriorityWeights == null ? null : this.outboundQueuePriorityWeights.clone();
+    }
+
+    /**
+     * Setter for how the priority lanes of the outbound queue share the sending. With strict priority, the default,
+     * a message is only sent when no message of a higher priority is waiting.
+     * @param outboundQueuePriorityWeights the number of messages each lane sends in a row, indexed by
+     * {@link MessagePriority} ordinal, or null for strict priority
+     * @throws IllegalArgumentException if outboundQueuePriorityWeights does not have one positive weight per priority
+     */
+    public void setOutboundQueuePriorityWeights(int[] outboundQueuePriorityWeights) throws IllegalArgumentException
+    {
+        if (outboundQueuePriorityWeights != null)
+        {
+            if (outboundQueuePriorityWeights.length != MessagePriority.values().length)
+            {
+                //Codes_SRS_DEVICECLIENTCONFIG_41_029: [If the provided weights are not null and do not have one
+                // positive weight per priority, the function shall throw an IllegalArgumentException.]
+                throw new IllegalArgumentException("outboundQueuePriorityWeights must have one weight per priority");
+            }
+
+            for (int weight : outboundQueuePriorityWeights)
+            {
+                if (weight < 1)
+                {
+                    throw new IllegalArgumentException("outboundQueuePriorityWeights must be positive");
+                }
+            }
+        }
+
+        //Codes_SRS_DEVICECLIENTCONFIG_41_030: [The function shall save a copy of the priority weights.]
+        this.outboundQueuePriorityWeights = outboundQueuePriorityWeights == null ? null : outboundQueuePriorityWeights.clone();
+    }
+
+    /**
+     * Getter for the directory where outgoing messages are persisted until they are acknowledged
+     * @return the persistent queue directory, or null if outgoing messages are not persisted
+     */
+    public String getPersistentQueueDirectory()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_023: [The function shall return the saved persistent queue directory.]
+        return this.persistentQueueDirectory;
+    }
+
+    /**
+     * Setter for the directory where outgoing messages are persisted until they are acknowledged. Messages that were
+     * not acknowledged when the client was closed or the process stopped are sent again when the client is opened.
+     * The directory is locked while the client is open, so each client needs its own directory.
+     * @param persistentQueueDirectory the persistent queue directory, or null to not persist outgoing messages
+     */
+    public void setPersistentQueueDirectory(String persistentQueueDirectory)
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_024: [The function shall save the persistent queue directory.]
+        this.persistentQueueDirectory = persistentQueueDirectory;
+    }
+
+    /**
+     * Getter for when the persistent queue forces its writes to the storage device
+     * @return the persistent queue sync policy
+     */
+    public PersistentQueueSyncPolicy getPersistentQueueSyncPolicy()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_025: [The function shall return the saved persistent queue sync policy.]
+        return this.persistentQueueSyncPolicy;
+    }
+
+    /**
+     * Setter for when the persistent queue forces its writes to the storage device
+     * @param persistentQueueSyncPolicy the persistent queue sync policy
+     * @throws IllegalArgumentException if persistentQueueSyncPolicy is null
+     */
+    public void setPersistentQueueSyncPolicy(PersistentQueueSyncPolicy persistentQueueSyncPolicy) throws IllegalArgumentException
+    {
+        if (persistentQueueSyncPolicy == null)
+        {
+            //Codes_SRS_DEVICECLIENTCONFIG_41_026: [If the provided policy is null, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("persistentQueueSyncPolicy cannot be null");
+        }
+
+        //Codes_SRS_DEVICECLIENTCONFIG_41_027: [The function shall save the persistent queue sync policy.]
+        this.persistentQueueSyncPolicy = persistentQueueSyncPolicy;
+    }
+
+    /**
+     * Getter for the runtime whose threads the client shares with other clients
+     * @return the client runtime, or null if the client creates its own threads
+     */
+    public ClientRuntime getClientRuntime()
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_031: [The function shall return the saved client runtime.]
+        return this.clientRuntime;
+    }
+
+    /**
+     * Setter for the runtime whose threads the client shares with other clients. The caller keeps ownership of the
+     * runtime and is responsible for closing it.
+     * @param clientRuntime the client runtime, or null for the client to create its own threads
+     */
+    public void setClientRuntime(ClientRuntime clientRuntime)
+    {
+        //Codes_SRS_DEVICECLIENTCONFIG_41_032: [The function shall save the client runtime.]
+        this.clientRuntime = clientRuntime;
+    }
+
     /**
      * Setter for the message callback. Can be {@code null}.
      * @param callback the message callback. Can be {@code null}.
@@ -4,6 +4,7 @@
 package com.microsoft.azure.sdk.iot.device;
 
 import com.microsoft.azure.sdk.iot.device.exceptions.DeviceClientException;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubEventDrivenTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
@@ -11,8 +12,11 @@ import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /*
@@ -82,9 +86,14 @@ public final class DeviceIO
     private DeviceClientConfig config;
     private IotHubSendTask sendTask = null;
     private IotHubReceiveTask receiveTask = null;
+    private IotHubEventDrivenTask eventDrivenTask = null;
     private IotHubClientProtocol protocol = null;
 
     private ScheduledExecutorService taskScheduler;
+    /* False if the scheduler belongs to a client runtime shared with other clients, and must not be shut down */
+    private boolean isTaskSchedulerOwned;
+    private ScheduledFuture<?> sendTaskFuture;
+    private ScheduledFuture<?> receiveTaskFuture;
     private IotHubClientState state;
 
     private List<DeviceClientConfig> deviceClientConfigs = new LinkedList<>();
@@ -189,19 +198,58 @@ public final class DeviceIO
      */
     private void commonOpenSetup()
     {
-        this.sendTask = new IotHubSendTask(this.transport);
-        this.receiveTask = new IotHubReceiveTask(this.transport);
-
-        this.taskScheduler = Executors.newScheduledThreadPool(2);
-        // the scheduler waits until each execution is finished before
-        // scheduling the next one, so executions of a given task
-        // will never overlap.
-        /* Codes_SRS_DEVICE_IO_21_013: [The open shall schedule send tasks to run every SEND_PERIOD_MILLIS milliseconds.] */
-        this.taskScheduler.scheduleAtFixedRate(this.sendTask, 0,
-                sendPeriodInMilliseconds, TimeUnit.MILLISECONDS);
-        /* Codes_SRS_DEVICE_IO_21_014: [The open shall schedule receive tasks to run every receivePeriodInMilliseconds milliseconds.] */
-        this.taskScheduler.scheduleAtFixedRate(this.receiveTask, 0,
-                receivePeriodInMilliseconds, TimeUnit.MILLISECONDS);
+        ClientRuntime clientRuntime = this.config.getClientRuntime();
+        if (clientRuntime != null)
+        {
+            /* Codes_SRS_DEVICE_IO_41_007: [If the config has a client runtime, the open shall schedule the tasks on the
+             * scheduler of the runtime, and run the event driven task on its worker executor.] */
+            this.taskScheduler = clientRuntime.getScheduler();
+            this.isTaskSchedulerOwned = false;
+        }
+        else
+        {
+            this.taskScheduler = Executors.newScheduledThreadPool(2);
+            this.isTaskSchedulerOwned = true;
+        }
+
+        if (this.config.isUseEventDrivenTransport())
+        {
+            // HTTPS has no way to push messages to the device, so the service still needs to be polled for them
+            boolean isReceivePollingRequired = (this.protocol == IotHubClientProtocol.HTTPS);
+
+            /* Codes_SRS_DEVICE_IO_41_001: [If the config uses the event driven transport, the open shall create a single
+             * event driven task that sends messages and invokes callbacks whenever the transport signals work, set it
+             * on the transport and signal it once for the messages queued before the open.] */
+            Executor eventDrivenExecutor = (clientRuntime != null) ? clientRuntime.getWorkerExecutor() : this.taskScheduler;
+            this.eventDrivenTask = new IotHubEventDrivenTask(this.transport, !isReceivePollingRequired,
+                    eventDrivenExecutor, this.taskScheduler);
+            this.transport.setEventDrivenTask(this.eventDrivenTask);
+            this.eventDrivenTask.signalWorkAvailable();
+
+            if (isReceivePollingRequired)
+            {
+                /* Codes_SRS_DEVICE_IO_41_002: [If the config uses the event driven transport and the protocol is HTTPS,
+                 * the open shall schedule receive tasks to run every receivePeriodInMilliseconds milliseconds.] */
+                this.receiveTask = new IotHubReceiveTask(this.transport);
+                this.receiveTaskFuture = this.taskScheduler.scheduleAtFixedRate(this.receiveTask, 0,
+                        receivePeriodInMilliseconds, TimeUnit.MILLISECONDS);
+            }
+        }
+        else
+        {
+            this.sendTask = new IotHubSendTask(this.transport);
+            this.receiveTask = new IotHubReceiveTask(this.transport);
+
+            // the scheduler waits until each execution is finished before
+            // scheduling the next one, so executions of a given task
+            // will never overlap.
+            /* Codes_SRS_DEVICE_IO_21_013: [The open shall schedule send tasks to run every SEND_PERIOD_MILLIS milliseconds.] */
+            this.sendTaskFuture = this.taskScheduler.scheduleAtFixedRate(this.sendTask, 0,
+                    sendPeriodInMilliseconds, TimeUnit.MILLISECONDS);
+            /* Codes_SRS_DEVICE_IO_21_014: [The open shall schedule receive tasks to run every receivePeriodInMilliseconds milliseconds.] */
+            this.receiveTaskFuture = this.taskScheduler.scheduleAtFixedRate(this.receiveTask, 0,
+                    receivePeriodInMilliseconds, TimeUnit.MILLISECONDS);
+        }
 
         /* Codes_SRS_DEVICE_IO_21_016: [The open shall set the `state` as `CONNECTED`.] */
         this.state = IotHubClientState.OPEN;
@@ -223,9 +271,26 @@ public final class DeviceIO
             return;
         }
 
+        if (this.eventDrivenTask != null)
+        {
+            /* Codes_SRS_DEVICE_IO_41_003: [The close shall stop the event driven task if there is one, and remove it
+             * from the transport.] */
+            this.eventDrivenTask.stop();
+            this.transport.setEventDrivenTask(null);
+            this.eventDrivenTask = null;
+        }
+
         /* Codes_SRS_DEVICE_IO_21_017: [The close shall finish all ongoing tasks.] */
         /* Codes_SRS_DEVICE_IO_21_018: [The close shall cancel all recurring tasks.] */
-        this.taskScheduler.shutdown();
+        cancelScheduledTask(this.sendTaskFuture);
+        cancelScheduledTask(this.receiveTaskFuture);
+        this.sendTaskFuture = null;
+        this.receiveTaskFuture = null;
+        if (this.isTaskSchedulerOwned)
+        {
+            this.taskScheduler.shutdown();
+        }
+        this.taskScheduler = null;
 
         /* Codes_SRS_DEVICE_IO_21_019: [The close shall close the transport.] */
         try
@@ -337,7 +402,8 @@ public final class DeviceIO
                 throw new IOException("transport receive task not set");
             }
 
-            this.taskScheduler.scheduleAtFixedRate(this.receiveTask, 0,
+            cancelScheduledTask(this.receiveTaskFuture);
+            this.receiveTaskFuture = this.taskScheduler.scheduleAtFixedRate(this.receiveTask, 0,
                     this.receivePeriodInMilliseconds, TimeUnit.MILLISECONDS);
         }
     }
@@ -371,6 +437,12 @@ public final class DeviceIO
         /* Codes_SRS_DEVICE_IO_21_033: [The setSendPeriodInMilliseconds shall store the new send period in milliseconds.] */
         this.sendPeriodInMilliseconds = newIntervalInMilliseconds;
 
+        /* Codes_SRS_DEVICE_IO_41_004: [If the event driven task is running, the setSendPeriodInMilliseconds shall not schedule any send task.] */
+        if (this.eventDrivenTask != null)
+        {
+            return;
+        }
+
         /* Codes_SRS_DEVICE_IO_21_034: [If the task scheduler already exists, the setSendPeriodInMilliseconds shall change the `scheduleAtFixedRate` for the sendTask to the new value.] */
         if(this.taskScheduler != null)
         {
@@ -380,11 +452,59 @@ public final class DeviceIO
                 throw new IOException("transport send task not set");
             }
 
-            this.taskScheduler.scheduleAtFixedRate(this.sendTask, 0,
+            cancelScheduledTask(this.sendTaskFuture);
+            this.sendTaskFuture = this.taskScheduler.scheduleAtFixedRate(this.sendTask, 0,
                     this.sendPeriodInMilliseconds, TimeUnit.MILLISECONDS);
         }
     }
 
+    /**
+     * Runs the task once, after the delay, on the scheduler of the connection.
+     *
+     * @param task the task to run.
+     * @param delayInMilliseconds the delay before running the task.
+     * @return the future of the scheduled task, or {@code null} if the connection is closed.
+     * @throws IllegalArgumentException if the task is null.
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delayInMilliseconds) throws IllegalArgumentException
+    {
+        if (task == null)
+        {
+            /* Codes_SRS_DEVICE_IO_41_008: [If the task is null, the schedule shall throw IllegalArgumentException.] */
+            throw new IllegalArgumentException("task cannot be null");
+        }
+
+        ScheduledExecutorService scheduler = this.taskScheduler;
+        if (scheduler == null)
+        {
+            /* Codes_SRS_DEVICE_IO_41_009: [If the connection is closed, the schedule shall return null.] */
+            return null;
+        }
+
+        try
+        {
+            /* Codes_SRS_DEVICE_IO_41_010: [The schedule shall run the task once after the delay on the task scheduler.] */
+            return scheduler.schedule(task, delayInMilliseconds, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            /* Codes_SRS_DEVICE_IO_41_009: [If the connection is closed, the schedule shall return null.] */
+            return null;
+        }
+    }
+
+    /*
+        Cancels a recurring task, letting its ongoing execution finish. The scheduler may be shared with other clients,
+        so the tasks of this client are cancelled one by one instead of shutting it down.
+     */
+    private static void cancelScheduledTask(ScheduledFuture<?> taskFuture)
+    {
+        if (taskFuture != null)
+        {
+            taskFuture.cancel(false);
+        }
+    }
+
     /**
      * Getter for the transport protocol.
      *
@@ -417,6 +537,26 @@ public final class DeviceIO
         return this.transport.isEmpty();
     }
 
+    /**
+     * Getter for the number of messages waiting to be sent.
+     * @return the number of messages in the transport outbound queue.
+     */
+    public int getOutboundQueueSize()
+    {
+        /* Codes_SRS_DEVICE_IO_41_005: [The getOutboundQueueSize shall return the number of messages waiting in the transport to be sent.] */
+        return this.transport.getOutboundQueueSize();
+    }
+
+    /**
+     * Getter for the total size of the messages waiting to be sent.
+     * @return the total size in bytes of the message bodies in the transport outbound queue.
+     */
+    public long getOutboundQueueSizeInBytes()
+    {
+        /* Codes_SRS_DEVICE_IO_41_006: [The getOutboundQueueSizeInBytes shall return the total size of the messages waiting in the transport to be sent.] */
+        return this.transport.getOutboundQueueSizeInBytes();
+    }
+
     /**
      * Registers a callback with the configured transport to be executed whenever the connection to the device is lost or established.
      *
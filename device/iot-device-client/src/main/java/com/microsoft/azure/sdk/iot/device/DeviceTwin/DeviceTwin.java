@@ -10,11 +10,17 @@ import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static com.microsoft.azure.sdk.iot.device.IotHubMessageResult.ABANDON;
 import static com.microsoft.azure.sdk.iot.device.IotHubMessageResult.COMPLETE;
@@ -47,6 +53,25 @@ public class DeviceTwin
     private ConcurrentSkipListMap<String, Pair<PropertyCallBack<String, Object>, Object>> onDesiredPropertyChangeMap;
     private ConcurrentSkipListMap<String, Pair<TwinPropertyCallBack, Object>> onDesiredTwinPropertyChangeMap;
 
+    /*
+        Futures of the requests waiting for their response, by request id and by correlation id, as MQTT
+        correlates responses by the former and AMQP by the latter. Guarded by DEVICE_TWIN_LOCK.
+     */
+    private final Map<String, IotHubStatusFuture> pendingOperations = new HashMap<>();
+
+    /*
+        Reported properties waiting to be sent when coalescing, merged from the updates made while a patch was in
+        flight or within the coalescing interval, and the futures of those updates, null for the updates reported on
+        the status callback. The patch in flight is bounded by the operation timeout. Guarded by DEVICE_TWIN_LOCK.
+     */
+    private TwinCollection pendingReportedProperties;
+    private List<IotHubStatusFuture> pendingReportedPropertiesUpdates = new ArrayList<>();
+    private boolean isReportedPropertiesPatchInFlight;
+    private IotHubStatusFuture reportedPropertiesPatchFuture;
+    private ScheduledFuture<?> reportedPropertiesPatchTimeout;
+    private boolean isReportedPropertiesFlushScheduled;
+    private long lastReportedPropertiesPatchNanos;
+
     /*
         Callback invoked when a response to device twin operation is issued by iothub
      */
@@ -87,7 +112,7 @@ public class DeviceTwin
                          **Codes_SRS_DEVICETWIN_25_029: [**If the message is of type DEVICE_TWIN and DEVICE_OPERATION_TWIN_GET_RESPONSE then the user call with a valid status is triggered.**]**
                          */
 
-                        deviceTwinStatusCallback.execute(iotHubStatus, deviceTwinStatusCallbackContext);
+                        completeOperation(dtMessage, iotHubStatus);
 
                         if (iotHubStatus == IotHubStatusCode.OK)
                         {
@@ -115,7 +140,7 @@ public class DeviceTwin
                         /*
                          **Codes_SRS_DEVICETWIN_25_027: [**If the message is of type DEVICE_TWIN and DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE then the user call with a valid status is triggered.**]**
                          */
-                        deviceTwinStatusCallback.execute(iotHubStatus, deviceTwinStatusCallbackContext);
+                        completeOperation(dtMessage, iotHubStatus);
 
                         break;
                     }
@@ -142,6 +167,61 @@ public class DeviceTwin
         }
     }
 
+    /*
+        Completes the future of the request the response answers if there is one, or else calls the user status callback
+     */
+    private void completeOperation(IotHubTransportMessage response, IotHubStatusCode iotHubStatus)
+    {
+        IotHubStatusFuture future = null;
+        synchronized (DEVICE_TWIN_LOCK)
+        {
+            if (response.getRequestId() != null)
+            {
+                future = this.pendingOperations.get(response.getRequestId());
+            }
+            if (future == null && response.getCorrelationId() != null)
+            {
+                future = this.pendingOperations.get(response.getCorrelationId());
+            }
+        }
+
+        if (future != null)
+        {
+            /*
+             **Codes_SRS_DEVICETWIN_41_001: [**If the response answers a request sent with a future, the future shall be completed with the status instead of calling the user status callback.**]**
+             */
+            future.execute(iotHubStatus, null);
+        }
+        else
+        {
+            deviceTwinStatusCallback.execute(iotHubStatus, deviceTwinStatusCallbackContext);
+        }
+    }
+
+    /*
+        Saves the future of the request until its response, and forgets it once completed, cancelled included
+     */
+    private void addPendingOperation(IotHubTransportMessage request, final IotHubStatusFuture future)
+    {
+        synchronized (DEVICE_TWIN_LOCK)
+        {
+            this.pendingOperations.put(request.getRequestId(), future);
+            this.pendingOperations.put(request.getCorrelationId(), future);
+        }
+
+        future.whenComplete(new IotHubEventCallback()
+        {
+            @Override
+            public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+            {
+                synchronized (DEVICE_TWIN_LOCK)
+                {
+                    pendingOperations.values().removeAll(Collections.singleton(future));
+                }
+            }
+        }, null);
+    }
+
     private void OnDesiredPropertyChanged(TwinCollection desiredPropertyMap)
     {
         synchronized (DEVICE_TWIN_LOCK)
@@ -227,7 +307,17 @@ public class DeviceTwin
                  */
                 if((responseStatus != IotHubStatusCode.OK) && (responseStatus != IotHubStatusCode.OK_EMPTY))
                 {
-                    deviceTwinStatusCallback.execute(responseStatus, deviceTwinStatusCallbackContext);
+                    if (callbackContext instanceof IotHubStatusFuture)
+                    {
+                        /*
+                         **Codes_SRS_DEVICETWIN_41_002: [**If a request sent with a future fails, the future shall be completed with the failure status instead of calling the user status callback.**]**
+                         */
+                        ((IotHubStatusFuture) callbackContext).execute(responseStatus, null);
+                    }
+                    else
+                    {
+                        deviceTwinStatusCallback.execute(responseStatus, deviceTwinStatusCallbackContext);
+                    }
                 }
             }
         }
@@ -290,6 +380,11 @@ public class DeviceTwin
     }
 
     public void getDeviceTwin()
+    {
+        this.getDeviceTwin(null);
+    }
+
+    public void getDeviceTwin(IotHubStatusFuture operationFuture)
     {
         /*
          **Codes_SRS_DEVICETWIN_25_005: [**The method shall create a device twin message with empty payload to be sent IotHub.**]**
@@ -299,7 +394,7 @@ public class DeviceTwin
         /*
          **Codes_SRS_DEVICETWIN_25_007: [**This method shall set the request id for the message by calling setRequestId .**]**
          */
-        getTwinRequestMessage.setRequestId(String.valueOf(requestId++));
+        getTwinRequestMessage.setRequestId(this.nextRequestId());
 
         /*
          **Codes_SRS_DEVICETWIN_25_006: [**This method shall set the message type as DEVICE_OPERATION_TWIN_GET_REQUEST by calling setDeviceOperationType.**]**
@@ -309,7 +404,15 @@ public class DeviceTwin
         /*
          **Codes_SRS_DEVICETWIN_25_008: [**This method shall send the message to the lower transport layers by calling sendEventAsync.**]**
          */
-        this.deviceIO.sendEventAsync(getTwinRequestMessage, new deviceTwinRequestMessageCallback(), null, this.config.getIotHubConnectionString());
+        if (operationFuture != null)
+        {
+            /*
+             **Codes_SRS_DEVICETWIN_41_003: [**If a future is provided, this method shall save it until the response to the request, and pass it as context of the sendEventAsync call.**]**
+             */
+            this.addPendingOperation(getTwinRequestMessage, operationFuture);
+        }
+
+        this.deviceIO.sendEventAsync(getTwinRequestMessage, new deviceTwinRequestMessageCallback(), operationFuture, this.config.getIotHubConnectionString());
     }
 
     public synchronized void updateReportedProperties(Set<Property> reportedProperties) throws IOException
@@ -318,6 +421,11 @@ public class DeviceTwin
     }
 
     public synchronized void updateReportedProperties(Set<Property> reportedProperties, Integer version) throws IOException
+    {
+        this.updateReportedProperties(reportedProperties, version, null);
+    }
+
+    public synchronized void updateReportedProperties(Set<Property> reportedProperties, Integer version, IotHubStatusFuture operationFuture) throws IOException
     {
         if (reportedProperties == null)
         {
@@ -335,6 +443,34 @@ public class DeviceTwin
         {
             reportedPropertiesMap.put(p.getKey(), p.getValue());
         }
+
+        if (version == null && this.config.getReportedPropertiesCoalescingIntervalMillis() > 0)
+        {
+            /*
+             **Codes_SRS_DEVICETWIN_41_004: [**If coalescing is configured and no version is provided, this method shall merge the properties into the pending patch, the last update of a property winning, and flush the pending patch.**]**
+             */
+            synchronized (DEVICE_TWIN_LOCK)
+            {
+                if (this.pendingReportedProperties == null)
+                {
+                    this.pendingReportedProperties = new TwinCollection();
+                }
+                mergeReportedProperties(this.pendingReportedProperties, reportedPropertiesMap);
+                this.pendingReportedPropertiesUpdates.add(operationFuture);
+            }
+
+            this.flushReportedProperties();
+            return;
+        }
+
+        this.sendReportedProperties(reportedPropertiesMap, version, operationFuture);
+    }
+
+    /*
+        Sends a patch of the reported properties, tracking its response with the future if there is one
+     */
+    private void sendReportedProperties(TwinCollection reportedPropertiesMap, Integer version, IotHubStatusFuture operationFuture)
+    {
         String serializedReportedProperties = reportedPropertiesMap.toJsonElement().toString();
 
         if (serializedReportedProperties == null)
@@ -350,7 +486,7 @@ public class DeviceTwin
         /*
          **Codes_SRS_DEVICETWIN_25_014: [**This method shall set the request id for the message by calling setRequestId .**]**
          */
-        updateReportedPropertiesRequest.setRequestId(String.valueOf(requestId++));
+        updateReportedPropertiesRequest.setRequestId(this.nextRequestId());
 
         if(version != null)
         {
@@ -368,8 +504,222 @@ public class DeviceTwin
         /*
          **Codes_SRS_DEVICETWIN_25_015: [**This method shall send the message to the lower transport layers by calling sendEventAsync.**]**
          */
-        this.deviceIO.sendEventAsync(updateReportedPropertiesRequest, new deviceTwinRequestMessageCallback(), null, this.config.getIotHubConnectionString());
+        if (operationFuture != null)
+        {
+            /*
+             **Codes_SRS_DEVICETWIN_41_003: [**If a future is provided, this method shall save it until the response to the request, and pass it as context of the sendEventAsync call.**]**
+             */
+            this.addPendingOperation(updateReportedPropertiesRequest, operationFuture);
+        }
+
+        this.deviceIO.sendEventAsync(updateReportedPropertiesRequest, new deviceTwinRequestMessageCallback(), operationFuture, this.config.getIotHubConnectionString());
+    }
+
+    /*
+        Sends the pending reported properties as one patch, unless a patch is in flight, in which case they are sent
+        once it completes, or unless the last patch was sent less than the coalescing interval ago, in which case the
+        flush is scheduled for the end of the interval.
+     */
+    private void flushReportedProperties()
+    {
+        TwinCollection patch;
+        final List<IotHubStatusFuture> mergedUpdates;
+        final IotHubStatusFuture patchFuture = new IotHubStatusFuture();
+        synchronized (DEVICE_TWIN_LOCK)
+        {
+            if (this.pendingReportedProperties == null || this.isReportedPropertiesPatchInFlight)
+            {
+                return;
+            }
+
+            long intervalNanos = TimeUnit.MILLISECONDS.toNanos(this.config.getReportedPropertiesCoalescingIntervalMillis());
+            long waitNanos = this.lastReportedPropertiesPatchNanos + intervalNanos - System.nanoTime();
+            if (this.lastReportedPropertiesPatchNanos != 0 && waitNanos > 0)
+            {
+                if (!this.isReportedPropertiesFlushScheduled)
+                {
+                    /*
+                     **Codes_SRS_DEVICETWIN_41_005: [**If the last patch was sent less than the coalescing interval ago, the pending patch shall be sent at the end of the interval.**]**
+                     */
+                    this.isReportedPropertiesFlushScheduled = this.deviceIO.schedule(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            synchronized (DEVICE_TWIN_LOCK)
+                            {
+                                isReportedPropertiesFlushScheduled = false;
+                            }
+                            flushReportedProperties();
+                        }
+                    }, TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1) != null;
+                }
+
+                if (this.isReportedPropertiesFlushScheduled)
+                {
+                    return;
+                }
+            }
+
+            patch = this.pendingReportedProperties;
+            mergedUpdates = this.pendingReportedPropertiesUpdates;
+            this.pendingReportedProperties = null;
+            this.pendingReportedPropertiesUpdates = new ArrayList<>();
+            this.isReportedPropertiesPatchInFlight = true;
+            this.reportedPropertiesPatchFuture = patchFuture;
+            this.lastReportedPropertiesPatchNanos = System.nanoTime();
+        }
+
+        /*
+         **Codes_SRS_DEVICETWIN_41_006: [**When the patch completes, the future of each merged update shall be completed, or the user status callback called for each merged update without a future, with the status of the patch, and the updates merged in the meantime shall be flushed.**]**
+         */
+        patchFuture.whenComplete(new IotHubEventCallback()
+        {
+            @Override
+            public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+            {
+                for (IotHubStatusFuture mergedUpdate : mergedUpdates)
+                {
+                    if (mergedUpdate != null)
+                    {
+                        mergedUpdate.execute(responseStatus, null);
+                    }
+                    else
+                    {
+                        deviceTwinStatusCallback.execute(responseStatus, deviceTwinStatusCallbackContext);
+                    }
+                }
+
+                synchronized (DEVICE_TWIN_LOCK)
+                {
+                    if (reportedPropertiesPatchFuture == patchFuture)
+                    {
+                        isReportedPropertiesPatchInFlight = false;
+                        reportedPropertiesPatchFuture = null;
+                        if (reportedPropertiesPatchTimeout != null)
+                        {
+                            reportedPropertiesPatchTimeout.cancel(false);
+                            reportedPropertiesPatchTimeout = null;
+                        }
+                    }
+                }
+                flushReportedProperties();
+            }
+        }, null);
+
+        /*
+         **Codes_SRS_DEVICETWIN_41_008: [**If the patch gets no response within the operation timeout, the merged updates shall be completed with MESSAGE_EXPIRED.**]**
+         */
+        ScheduledFuture<?> patchTimeout = this.deviceIO.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                patchFuture.execute(IotHubStatusCode.MESSAGE_EXPIRED, null);
+            }
+        }, this.config.getOperationTimeout());
+        synchronized (DEVICE_TWIN_LOCK)
+        {
+            this.reportedPropertiesPatchTimeout = patchTimeout;
+        }
 
+        try
+        {
+            this.sendReportedProperties(patch, null, patchFuture);
+        }
+        catch (RuntimeException e)
+        {
+            /*
+             **Codes_SRS_DEVICETWIN_41_007: [**If the patch cannot be sent, the merged updates shall be completed with ERROR.**]**
+             */
+            patchFuture.execute(IotHubStatusCode.ERROR, null);
+        }
+    }
+
+    /**
+     * Cancels the reported properties patch in flight and the coalesced updates waiting to be sent, completing them
+     * with {@link IotHubStatusCode#MESSAGE_CANCELLED_ONCLOSE}. Called when the client is closed.
+     */
+    public void close()
+    {
+        IotHubStatusFuture patchFuture;
+        List<IotHubStatusFuture> pendingUpdates;
+        synchronized (DEVICE_TWIN_LOCK)
+        {
+            /*
+             **Codes_SRS_DEVICETWIN_41_009: [**This method shall drop the pending patch and clear the patch in flight, so that the updates made after the client is opened again are sent.**]**
+             */
+            patchFuture = this.reportedPropertiesPatchFuture;
+            pendingUpdates = this.pendingReportedPropertiesUpdates;
+            this.pendingReportedProperties = null;
+            this.pendingReportedPropertiesUpdates = new ArrayList<>();
+            this.isReportedPropertiesPatchInFlight = false;
+            this.reportedPropertiesPatchFuture = null;
+            if (this.reportedPropertiesPatchTimeout != null)
+            {
+                this.reportedPropertiesPatchTimeout.cancel(false);
+                this.reportedPropertiesPatchTimeout = null;
+            }
+        }
+
+        /*
+         **Codes_SRS_DEVICETWIN_41_010: [**This method shall complete the updates merged into the dropped patch and the patch in flight with MESSAGE_CANCELLED_ONCLOSE.**]**
+         */
+        if (patchFuture != null)
+        {
+            patchFuture.execute(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, null);
+        }
+        for (IotHubStatusFuture pendingUpdate : pendingUpdates)
+        {
+            if (pendingUpdate != null)
+            {
+                pendingUpdate.execute(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, null);
+            }
+            else
+            {
+                this.deviceTwinStatusCallback.execute(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, this.deviceTwinStatusCallbackContext);
+            }
+        }
+    }
+
+    /*
+        Request ids are taken by the threads of the user, and by the client threads flushing coalesced patches
+     */
+    private String nextRequestId()
+    {
+        synchronized (DEVICE_TWIN_LOCK)
+        {
+            return String.valueOf(this.requestId++);
+        }
+    }
+
+    /*
+        Merges the patch into the target, the values of the patch winning, except for nested collections which are
+        merged the same way
+     */
+    @SuppressWarnings("unchecked")
+    private static void mergeReportedProperties(Map<String, Object> target, Map<String, Object> patch)
+    {
+        for (Map.Entry<String, Object> property : patch.entrySet())
+        {
+            Object currentValue = target.get(property.getKey());
+            if (currentValue instanceof Map && property.getValue() instanceof Map)
+            {
+                mergeReportedProperties((Map<String, Object>) currentValue, (Map<String, Object>) property.getValue());
+            }
+            else if (property.getValue() instanceof Map)
+            {
+                // Later patches are merged into the pending patch, which must not share its nested maps with the
+                // properties of the user
+                Map<String, Object> copy = new TwinCollection();
+                mergeReportedProperties(copy, (Map<String, Object>) property.getValue());
+                target.put(property.getKey(), copy);
+            }
+            else
+            {
+                target.put(property.getKey(), property.getValue());
+            }
+        }
     }
 
     public void subscribeDesiredPropertiesNotification(Map<Property, Pair<PropertyCallBack<String, Object>, Object>> onDesiredPropertyChange)
@@ -0,0 +1,23 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * An IoT Hub event callback for the messages of a batch, which also receives the message each result belongs to.
+ *
+ * When a callback implementing this interface is provided to send a batch, the transport calls
+ * {@link #execute(Message, IotHubStatusCode, Object)} once per message of the batch instead of
+ * {@link IotHubEventCallback#execute(IotHubStatusCode, Object)}.
+ */
+public interface IotHubBatchEventCallback extends IotHubEventCallback
+{
+    /**
+     * Executes the callback.
+     *
+     * @param message the message of the batch the status belongs to.
+     * @param responseStatus the response status code.
+     * @param callbackContext a custom context given by the developer.
+     */
+    void execute(Message message, IotHubStatusCode responseStatus, Object callbackContext);
+}
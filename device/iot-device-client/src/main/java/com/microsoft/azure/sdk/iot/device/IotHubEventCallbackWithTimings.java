@@ -0,0 +1,23 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * An IoT Hub event callback that also receives the lifecycle timings of the message.
+ *
+ * When a callback implementing this interface is provided to send a message, the transport calls
+ * {@link #execute(IotHubStatusCode, IotHubMessageTimings, Object)} instead of
+ * {@link IotHubEventCallback#execute(IotHubStatusCode, Object)}.
+ */
+public interface IotHubEventCallbackWithTimings extends IotHubEventCallback
+{
+    /**
+     * Executes the callback.
+     *
+     * @param responseStatus the response status code.
+     * @param timings the lifecycle timings of the message. Only valid for the duration of the call.
+     * @param callbackContext a custom context given by the developer.
+     */
+    void execute(IotHubStatusCode responseStatus, IotHubMessageTimings timings, Object callbackContext);
+}
@@ -0,0 +1,46 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * Lifecycle timings of a sent message, passed to an {@link IotHubEventCallbackWithTimings}.
+ *
+ * Times are {@link System#nanoTime()} values: they are only meaningful relative to each other, for example
+ * {@code getFirstSendTimeNanos() - getEnqueueTimeNanos()} is the time the message spent queued before being sent.
+ * A time is 0 if the message never reached that stage, for example if it expired while queued.
+ */
+public interface IotHubMessageTimings
+{
+    /**
+     * @return the time the message was queued by the client.
+     */
+    long getEnqueueTimeNanos();
+
+    /**
+     * @return the time the message was first handed to the connection, or 0 if it never was.
+     */
+    long getFirstSendTimeNanos();
+
+    /**
+     * @return the time the message was last handed to the connection, which differs from the first send time if the
+     * message was retried, or 0 if it never was.
+     */
+    long getLastSendTimeNanos();
+
+    /**
+     * @return the time the final status of the message was known, for example when the service acknowledged it.
+     */
+    long getCompletionTimeNanos();
+
+    /**
+     * @return the number of times sending the message was retried.
+     */
+    int getRetryCount();
+
+    /**
+     * @return an identifier of the connection the message was last sent over, or null if it never was. Each
+     * connection opened by a client, including on reconnection, gets a new identifier.
+     */
+    String getConnectionId();
+}
@@ -23,7 +23,8 @@ public enum IotHubStatusCode
     SERVER_BUSY,
     ERROR,
     MESSAGE_EXPIRED,
-    MESSAGE_CANCELLED_ONCLOSE;
+    MESSAGE_CANCELLED_ONCLOSE,
+    MESSAGE_CANCELLED_QUEUE_FULL;
 
     public static IotHubServiceException getConnectionStatusException(IotHubStatusCode statusCode, String statusDescription)
     {
@@ -33,6 +34,7 @@ public enum IotHubStatusCode
             case OK:
             case OK_EMPTY:
             case MESSAGE_CANCELLED_ONCLOSE:
+            case MESSAGE_CANCELLED_QUEUE_FULL:
             case MESSAGE_EXPIRED:
                 transportException = null;
                 break;
@@ -0,0 +1,199 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending status of an asynchronous client operation, such as sending a message.
+ *
+ * The future is completed by the thread that learns the status of the operation, which is the thread that would
+ * otherwise have executed a callback for it. Completion callbacks registered with
+ * {@link #whenComplete(IotHubEventCallback, Object)} run on that thread, so they must be short and not block.
+ *
+ * Cancelling the future does not stop the operation: the request may still reach the IoT Hub.
+ */
+public final class IotHubStatusFuture implements Future<IotHubStatusCode>, IotHubEventCallback
+{
+    private IotHubStatusCode status;
+    private boolean isCancelled;
+    private List<Pair<IotHubEventCallback, Object>> completionCallbacks;
+
+    /**
+     * Completes the future with the provided status. Called by the client when the status of the operation is known.
+     * Only the first completion has effect.
+     *
+     * @param responseStatus the status of the operation.
+     * @param callbackContext ignored.
+     */
+    @Override
+    public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+    {
+        // Codes_SRS_IOTHUBSTATUSFUTURE_41_001: [If the future is not done, this function shall complete it with the
+        // provided status, wake the waiting threads and run the completion callbacks. Otherwise it shall do nothing.]
+        this.complete(responseStatus, false);
+    }
+
+    /**
+     * Registers a callback to run once the future completes, with the status of the operation and the provided
+     * context. If the future is already complete, the callback runs immediately on the calling thread. A cancelled
+     * future runs its callbacks with a null status.
+     *
+     * @param callback the callback to run.
+     * @param callbackContext the context to pass to the callback. Can be {@code null}.
+     * @return this future.
+     * @throws IllegalArgumentException if the callback is null.
+     */
+    public IotHubStatusFuture whenComplete(IotHubEventCallback callback, Object callbackContext) throws IllegalArgumentException
+    {
+        if (callback == null)
+        {
+            // Codes_SRS_IOTHUBSTATUSFUTURE_41_002: [If the callback is null, this function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("callback cannot be null");
+        }
+
+        synchronized (this)
+        {
+            if (!this.isDone())
+            {
+                // Codes_SRS_IOTHUBSTATUSFUTURE_41_003: [If the future is not done, this function shall save the
+                // callback to run it on completion.]
+                if (this.completionCallbacks == null)
+                {
+                    this.completionCallbacks = new ArrayList<>(1);
+                }
+                this.completionCallbacks.add(new Pair<>(callback, callbackContext));
+                return this;
+            }
+        }
+
+        // Codes_SRS_IOTHUBSTATUSFUTURE_41_004: [If the future is done, this function shall run the callback with the
+        // status and context.]
+        callback.execute(this.status, callbackContext);
+        return this;
+    }
+
+    /**
+     * Cancels the future: threads waiting for it are released with a {@link CancellationException}. The operation
+     * itself is not stopped.
+     *
+     * @param mayInterruptIfRunning ignored.
+     * @return {@code true} if the future was cancelled, {@code false} if it was already done.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        // Codes_SRS_IOTHUBSTATUSFUTURE_41_005: [If the future is not done, this function shall complete it as
+        // cancelled and return true. Otherwise it shall return false.]
+        return this.complete(null, true);
+    }
+
+    @Override
+    public synchronized boolean isCancelled()
+    {
+        return this.isCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone()
+    {
+        return this.status != null || this.isCancelled;
+    }
+
+    /**
+     * Waits for the operation to complete.
+     *
+     * @return the status of the operation.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     * @throws CancellationException if the future was cancelled.
+     */
+    @Override
+    public synchronized IotHubStatusCode get() throws InterruptedException, CancellationException
+    {
+        // Codes_SRS_IOTHUBSTATUSFUTURE_41_006: [This function shall wait until the future is done and return the
+        // status, or throw a CancellationException if it was cancelled.]
+        while (!this.isDone())
+        {
+            this.wait();
+        }
+
+        return this.getStatus();
+    }
+
+    /**
+     * Waits at most the provided time for the operation to complete.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return the status of the operation.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     * @throws TimeoutException if the operation did not complete in time.
+     * @throws CancellationException if the future was cancelled.
+     */
+    @Override
+    public synchronized IotHubStatusCode get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException, CancellationException
+    {
+        long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        long remainingNanos;
+        while (!this.isDone())
+        {
+            remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0)
+            {
+                // Codes_SRS_IOTHUBSTATUSFUTURE_41_007: [If the future is not done within the timeout, this function
+                // shall throw a TimeoutException.]
+                throw new TimeoutException("The operation did not complete in " + timeout + " " + unit);
+            }
+
+            TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+        }
+
+        return this.getStatus();
+    }
+
+    private IotHubStatusCode getStatus() throws CancellationException
+    {
+        if (this.isCancelled)
+        {
+            throw new CancellationException("The operation was cancelled");
+        }
+
+        return this.status;
+    }
+
+    private boolean complete(IotHubStatusCode status, boolean isCancelled)
+    {
+        List<Pair<IotHubEventCallback, Object>> callbacks;
+        synchronized (this)
+        {
+            if (this.isDone() || (status == null && !isCancelled))
+            {
+                return false;
+            }
+
+            this.status = status;
+            this.isCancelled = isCancelled;
+            callbacks = this.completionCallbacks;
+            this.completionCallbacks = null;
+            this.notifyAll();
+        }
+
+        if (callbacks != null)
+        {
+            for (Pair<IotHubEventCallback, Object> callback : callbacks)
+            {
+                callback.getKey().execute(status, callback.getValue());
+            }
+        }
+
+        return true;
+    }
+}
@@ -5,9 +5,9 @@ package com.microsoft.azure.sdk.iot.device;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.UUID;
@@ -39,11 +39,6 @@ public class Message
     /// </summary>
     private long expiryTime;
 
-    /// <summary>
-    /// Used by receiver to Abandon, Reject or Complete the message
-    /// </summary>
-    private String lockToken;
-
     /// <summary>
     /// Used in message responses and feedback
     /// </summary>
@@ -117,21 +112,42 @@ public class Message
 
     private String deliveryAcknowledgement;
 
+    /// <summary>
+    /// [Optional] The outbound queue lane of the message. If null, it depends on the message type.
+    /// </summary>
+    private MessagePriority priority;
+
+    /// <summary>
+    /// [Optional] How the message is delivered. If null, it is the telemetry delivery mode of the client.
+    /// </summary>
+    private MessageDeliveryMode deliveryMode;
+
     /**
-     * User-defined properties.
+     * User-defined properties, in the first propertyCount slots of the array. Messages carry a handful of
+     * properties, so a linear search by name is faster than a map.
      */
-    private ArrayList<MessageProperty> properties;
+    private MessageProperty[] properties;
+    private int propertyCount;
+
+    /**
+     * The template the message was created from, as long as its properties are the ones of the template. The
+     * properties array is then shared with the template and is copied before any change.
+     */
+    private MessageTemplate template;
 
     /// <summary>
-    /// The message body
+    /// The message body, from position 0 to the limit of the buffer
     /// </summary>
-    private byte[] body;
+    private ByteBuffer body;
 
     /**
      * Stream that will provide the bytes for the body of the
      */
     private ByteArrayInputStream bodyStream;
-    private CustomLogger logger;
+    private static final MessageProperty[] NO_PROPERTIES = new MessageProperty[0];
+    private static final int INITIAL_PROPERTIES_CAPACITY = 4;
+
+    private static final CustomLogger logger = new CustomLogger(Message.class);
 
     // ----- Constructors -----
 
@@ -167,7 +183,7 @@ public class Message
         initialize();
 
         // Codes_SRS_MESSAGE_11_024: [The constructor shall save the message body.]
-        this.body = body;
+        this.body = ByteBuffer.wrap(body);
     }
 
     /**
@@ -183,7 +199,27 @@ public class Message
 
         initialize();
 
-        this.body = body.getBytes(DEFAULT_IOTHUB_MESSAGE_CHARSET);
+        this.body = ByteBuffer.wrap(body.getBytes(DEFAULT_IOTHUB_MESSAGE_CHARSET));
+    }
+
+    /**
+     * Constructor for a message whose body is the content of a buffer between its position and its limit. The body
+     * shares that content instead of copying it, so it must not change until the message is sent. The buffer may be
+     * a heap or a direct buffer, and its position and limit are left unchanged.
+     * @param body The buffer holding the body of the new Message instance.
+     */
+    public Message(ByteBuffer body)
+    {
+        // Codes_SRS_MESSAGE_41_004: [If the message body is null, the constructor shall throw an IllegalArgumentException.]
+        if (body == null)
+        {
+            throw new IllegalArgumentException("Message body cannot be 'null'.");
+        }
+
+        initialize();
+
+        // Codes_SRS_MESSAGE_41_005: [The constructor shall save the content of the buffer between its position and its limit, without copying it.]
+        this.body = body.slice();
     }
 
     
@@ -207,12 +243,24 @@ public class Message
         byte[] bodyClone = null;
 
         if (this.body != null) {
-            bodyClone = Arrays.copyOf(this.body, this.body.length);
+            bodyClone = new byte[this.body.limit()];
+            this.body.duplicate().get(bodyClone);
         }
 
         return bodyClone;
     }
 
+    /**
+     * The byte content of the body, without copying it. The content of the returned buffer is the body itself, so it
+     * must not be modified, but its position and limit can be changed.
+     * @return A buffer holding this Message body between its position and its limit, or null if the message has no body.
+     */
+    public ByteBuffer getBodyBuffer()
+    {
+        // Codes_SRS_MESSAGE_41_007: [The function shall return a new buffer sharing the content of the body, or null if the message has no body.]
+        return (this.body == null) ? null : this.body.duplicate();
+    }
+
     /**
      * Gets the values of user-defined properties of this Message.
      * @param name Name of the user-defined property to search for.
@@ -220,24 +268,15 @@ public class Message
      */
     public String getProperty(String name)
     {
-        MessageProperty messageProperty = null;
-
-        for (MessageProperty currentMessageProperty: this.properties)
-        {
-            if (currentMessageProperty.hasSameName(name))
-            {
-                messageProperty = currentMessageProperty;
-                break;
-            }
-        }
+        int index = this.indexOfProperty(name);
 
         // Codes_SRS_MESSAGE_11_034: [If no value associated with the property name is found, the function shall return null.]
-        if (messageProperty == null) {
+        if (index < 0) {
             return null;
         }
 
         // Codes_SRS_MESSAGE_11_032: [The function shall return the value associated with the message property name, where the name can be either the HTTPS or AMQPS property name.]
-        return messageProperty.getValue();
+        return this.properties[index].getValue();
     }
 
     /**
@@ -261,24 +300,31 @@ public class Message
         }
 
         // Codes_SRS_MESSAGE_11_026: [The function shall set the message property to the given value.]
-        MessageProperty messageProperty = null;
+        MessageProperty messageProperty = new MessageProperty(name, value);
+        if (logger.isTraceEnabled())
+        {
+            logger.LogTrace("Setting message property with name=%s and value=%s, method name is %s ", name, value, logger.getMethodName());
+        }
 
-        for (MessageProperty currentMessageProperty: this.properties)
+        if (this.template != null)
         {
-            if (currentMessageProperty.hasSameName(name))
-            {
-                messageProperty = currentMessageProperty;
-                break;
-            }
+            // Codes_SRS_MESSAGE_41_009: [If the message was created from a template, the function shall detach the message from the template without changing the template.]
+            this.properties = Arrays.copyOf(this.properties, this.propertyCount + 1);
+            this.template = null;
         }
 
-        if (messageProperty != null)
+        int index = this.indexOfProperty(name);
+        if (index < 0)
         {
-            this.properties.remove(messageProperty);
+            if (this.propertyCount == this.properties.length)
+            {
+                this.properties = Arrays.copyOf(this.properties, Math.max(INITIAL_PROPERTIES_CAPACITY, 2 * this.propertyCount));
+            }
+
+            index = this.propertyCount++;
         }
 
-        logger.LogInfo("Setting message property with name=%s and value=%s, method name is %s ", name, value, logger.getMethodName());
-        this.properties.add(new MessageProperty(name, value));
+        this.properties[index] = messageProperty;
     }
 
     /**
@@ -288,7 +334,62 @@ public class Message
      */
     public MessageProperty[] getProperties() {
         // Codes_SRS_MESSAGE_11_033: [The function shall return a copy of the message properties.]
-        return properties.toArray(new MessageProperty[this.properties.size()]);
+        return Arrays.copyOf(this.properties, this.propertyCount);
+    }
+
+    /**
+     * Getter for the template the message was created from.
+     *
+     * @return the template, or null if the message was not created from a template or its properties were changed
+     * since.
+     */
+    public MessageTemplate getTemplate()
+    {
+        // Codes_SRS_MESSAGE_41_010: [The function shall return the template the message was created from, or null if the message was not created from a template or was detached from it.]
+        return this.template;
+    }
+
+    void setTemplate(MessageTemplate template, MessageProperty[] properties)
+    {
+        this.template = template;
+        this.properties = properties;
+        this.propertyCount = properties.length;
+        this.priority = template.getPriority();
+        this.deliveryMode = template.getDeliveryMode();
+        this.messageType = template.getMessageType();
+    }
+
+    /**
+     * Replaces the body by its encoding with the codec, if the body is at least minimumLength bytes long, is not
+     * encoded yet and gets shorter once encoded, and records the encoding in the content encoding property.
+     *
+     * @param codec the codec to encode the body with.
+     * @param minimumLength the length under which the body is left as is.
+     * @return true if the body was encoded.
+     */
+    boolean encodeBody(PayloadCodec codec, int minimumLength)
+    {
+        // Codes_SRS_MESSAGE_41_016: [If the body is shorter than minimumLength, or the message already has a content
+        // encoding, the function shall leave the message unchanged and return false.]
+        if (this.body == null || this.body.limit() < minimumLength
+                || this.getProperty(PayloadCodec.CONTENT_ENCODING_PROPERTY) != null)
+        {
+            return false;
+        }
+
+        byte[] encodedBody = codec.encode(this.getBytes());
+        if (encodedBody == null || encodedBody.length >= this.body.limit())
+        {
+            // Codes_SRS_MESSAGE_41_017: [If the encoded body is not shorter than the body, the function shall leave
+            // the message unchanged and return false.]
+            return false;
+        }
+
+        // Codes_SRS_MESSAGE_41_018: [The function shall replace the body by the encoded body, set the content
+        // encoding property to the encoding of the codec, and return true.]
+        this.body = ByteBuffer.wrap(encodedBody);
+        this.setProperty(PayloadCodec.CONTENT_ENCODING_PROPERTY, codec.getContentEncoding());
+        return true;
     }
 
     // ----- Private Methods -----
@@ -297,13 +398,25 @@ public class Message
      * Internal initializer method for a new Message instance.
      */
     private void initialize() {
-        this.lockToken = UUID.randomUUID().toString();
+        // Codes_SRS_MESSAGE_41_008: [The message id and correlation id shall be initialized to distinct random version 4 UUIDs.]
         this.messageId = UUID.randomUUID().toString();
         this.correlationId = UUID.randomUUID().toString();
         this.feedbackStatusCode = FeedbackStatusCodeEnum.none;
         this.ack = FeedbackStatusCodeEnum.none;
-        this.properties = new ArrayList<>();
-        this.logger = new CustomLogger(this.getClass());
+        this.properties = NO_PROPERTIES;
+    }
+
+    private int indexOfProperty(String name)
+    {
+        for (int i = 0; i < this.propertyCount; i++)
+        {
+            if (this.properties[i].hasSameName(name))
+            {
+                return i;
+            }
+        }
+
+        return -1;
     }
 
     /**
@@ -389,6 +502,16 @@ public class Message
         logger.LogInfo("The message with messageid %s has expiry time as %s milliseconds and the message will expire on %s, method name is %s ", this.getMessageId(), timeOut, new Date(this.expiryTime), logger.getMethodName());
     }
 
+    /**
+     * Getter for the expiryTime property
+     * @return the time the message expires, in milliseconds since the epoch, or 0 if it never expires
+     */
+    public long getExpiryTime()
+    {
+        // Codes_SRS_MESSAGE_41_001: [The function shall return the message's expiry time.]
+        return this.expiryTime;
+    }
+
     /**
      * Setter for the expiryTime property using absolute time
      * @param absoluteTimeout The time out for the message, in milliseconds.
@@ -406,6 +529,48 @@ public class Message
         logger.LogInfo("The message with messageid %s has expiry time as %s milliseconds and the message will expire on %s, method name is %s ", this.getMessageId(), absoluteTimeout, new Date(this.expiryTime), logger.getMethodName());
     }
 
+    /**
+     * Getter for the priority property
+     * @return the priority lane the message is queued in, or null if it depends on the message type
+     */
+    public MessagePriority getPriority()
+    {
+        // Codes_SRS_MESSAGE_41_002: [The function shall return the message's priority.]
+        return this.priority;
+    }
+
+    /**
+     * Setter for the priority property. By default twin and method messages are queued with
+     * {@link MessagePriority#HIGH} priority and other messages with {@link MessagePriority#NORMAL} priority.
+     * @param priority the priority lane to queue the message in, or null to use the default of the message type
+     */
+    public void setPriority(MessagePriority priority)
+    {
+        // Codes_SRS_MESSAGE_41_003: [The function shall set the message's priority.]
+        this.priority = priority;
+    }
+
+    /**
+     * Getter for the delivery mode property
+     * @return how the message is delivered, or null if it is the telemetry delivery mode of the client
+     */
+    public MessageDeliveryMode getDeliveryMode()
+    {
+        // Codes_SRS_MESSAGE_41_011: [The function shall return the message's delivery mode.]
+        return this.deliveryMode;
+    }
+
+    /**
+     * Setter for the delivery mode property. Only telemetry messages sent over MQTT or MQTT_WS can be delivered
+     * {@link MessageDeliveryMode#AT_MOST_ONCE}.
+     * @param deliveryMode how to deliver the message, or null to use the telemetry delivery mode of the client
+     */
+    public void setDeliveryMode(MessageDeliveryMode deliveryMode)
+    {
+        // Codes_SRS_MESSAGE_41_012: [The function shall set the message's delivery mode.]
+        this.deliveryMode = deliveryMode;
+    }
+
     /**
      * Getter for the Message type
      * @return the Message type value
@@ -436,6 +601,16 @@ public class Message
         return this.to;
     }
 
+    /**
+     * Setter for the To system property
+     * @param to the destination of the message, or null
+     */
+    public void setTo(String to)
+    {
+        // Codes_SRS_MESSAGE_41_013: [The function shall set the message's To value.]
+        this.to = to;
+    }
+
     /**
      * Getter for the delivery acknowledgement system property
      * @return the delivery acknowledgement value
@@ -446,6 +621,16 @@ public class Message
         return this.deliveryAcknowledgement;
     }
 
+    /**
+     * Setter for the delivery acknowledgement system property
+     * @param deliveryAcknowledgement the delivery acknowledgement value, or null
+     */
+    public void setDeliveryAcknowledgement(String deliveryAcknowledgement)
+    {
+        // Codes_SRS_MESSAGE_41_014: [The function shall set the message's DeliveryAcknowledgement.]
+        this.deliveryAcknowledgement = deliveryAcknowledgement;
+    }
+
     /**
      * Getter for the User ID system property
      * @return the User ID value
@@ -456,6 +641,16 @@ public class Message
         return this.userId;
     }
 
+    /**
+     * Setter for the User ID system property
+     * @param userId the User ID value, or null
+     */
+    public void setUserId(String userId)
+    {
+        // Codes_SRS_MESSAGE_41_015: [The function shall set the message's user ID.]
+        this.userId = userId;
+    }
+
     /**
      * Getter for the iotHubConnectionString property
      * @return the iotHubConnectionString value
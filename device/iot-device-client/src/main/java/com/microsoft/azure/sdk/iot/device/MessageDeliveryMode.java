@@ -0,0 +1,19 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * How a telemetry message is delivered to the IoT Hub. Only MQTT and MQTT_WS honor it; the other protocols always
+ * deliver messages at least once.
+ */
+public enum MessageDeliveryMode
+{
+    /** The message is published with QoS 1, and its callback runs once the IoT Hub acknowledges it. */
+    AT_LEAST_ONCE,
+    /**
+     * The message is published with QoS 0, and its callback runs once it is written to the connection. It is lost if
+     * the connection drops before it reaches the IoT Hub, but it takes no in flight slot and needs no acknowledgement.
+     */
+    AT_MOST_ONCE
+}
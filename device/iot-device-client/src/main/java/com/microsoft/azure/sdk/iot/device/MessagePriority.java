@@ -0,0 +1,18 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * The priority lane an outgoing message is queued in. Messages in higher priority lanes are sent first, or more
+ * often when the outbound queue uses weighted priorities.
+ */
+public enum MessagePriority
+{
+    /** The lane of twin and method messages by default. */
+    HIGH,
+    /** The lane of telemetry messages by default. */
+    NORMAL,
+    /** For bulk messages that can wait for all the others. */
+    LOW
+}
@@ -43,7 +43,7 @@ public final class MessageProperty {
     private String name;
     /** The property value. */
     private String value;
-    private CustomLogger logger;
+    private static final CustomLogger logger = new CustomLogger(MessageProperty.class);
     
     /**
      * Constructor.
@@ -56,7 +56,6 @@ public final class MessageProperty {
      * A message property name cannot be one of the reserved property names.
      */
     public MessageProperty(String name, String value) {
-        this.logger = new CustomLogger(this.getClass());
         if (name == null) {
             logger.LogError("Property argument 'name' cannot be null, method name is %s ", logger.getMethodName());
             throw new IllegalArgumentException("Property argument 'name' cannot be null.");
@@ -183,14 +182,15 @@ public final class MessageProperty {
      * @return whether the string only uses US-ASCII 
      */
     private static boolean usesValidChars(String s) {
-        boolean isValid = false;
-
-        if (s.matches("\\p{ASCII}*"))
+        for (int i = 0; i < s.length(); i++)
         {
-            isValid = true;
+            if (s.charAt(i) > 0x7F)
+            {
+                return false;
+            }
         }
 
-        return isValid;
+        return true;
     }
 
     @SuppressWarnings("unused")
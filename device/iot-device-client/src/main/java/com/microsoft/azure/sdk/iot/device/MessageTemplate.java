@@ -0,0 +1,159 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable template for messages that share the same properties and only differ in their body and message id.
+ *
+ * <p>The template captures the properties, priority, delivery mode and message type of a prototype message once, together with
+ * their encoded forms for the transports, so that messages created from the template don't have to encode their
+ * properties again when they are sent. Changing a property of a message created from the template detaches the
+ * message from it, and the message is then sent like any other message.</p>
+ */
+public final class MessageTemplate
+{
+    private static final char PROPERTY_SEPARATOR = '&';
+    private static final char PROPERTY_KEY_VALUE_SEPARATOR = '=';
+
+    private final MessageProperty[] properties;
+    private final MessagePriority priority;
+    private final MessageDeliveryMode deliveryMode;
+    private final MessageType messageType;
+    private final String propertiesQueryString;
+    private final Map<String, Object> applicationProperties;
+
+    /**
+     * Constructor.
+     *
+     * @param prototype the message to take the properties, priority, delivery mode and message type from. Cannot be {@code null}.
+     * @throws IllegalArgumentException if the prototype is {@code null}.
+     */
+    public MessageTemplate(Message prototype)
+    {
+        if (prototype == null)
+        {
+            // Codes_SRS_MESSAGETEMPLATE_41_001: [If the prototype is null, the constructor shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("Prototype message cannot be null");
+        }
+
+        // Codes_SRS_MESSAGETEMPLATE_41_002: [The constructor shall save a copy of the properties of the prototype, its priority, its delivery mode and its message type.]
+        this.properties = prototype.getProperties();
+        this.priority = prototype.getPriority();
+        this.deliveryMode = prototype.getDeliveryMode();
+        this.messageType = prototype.getMessageType();
+
+        // Codes_SRS_MESSAGETEMPLATE_41_003: [The constructor shall encode the properties as a query string of name=value pairs separated by '&'.]
+        // Codes_SRS_MESSAGETEMPLATE_41_004: [The constructor shall save the properties that are not reserved property names in an unmodifiable map.]
+        StringBuilder queryString = new StringBuilder();
+        Map<String, Object> userProperties = new HashMap<>(this.properties.length);
+        for (MessageProperty property : this.properties)
+        {
+            if (queryString.length() > 0)
+            {
+                queryString.append(PROPERTY_SEPARATOR);
+            }
+
+            queryString.append(property.getName());
+            queryString.append(PROPERTY_KEY_VALUE_SEPARATOR);
+            queryString.append(property.getValue());
+
+            if (!MessageProperty.RESERVED_PROPERTY_NAMES.contains(property.getName()))
+            {
+                userProperties.put(property.getName(), property.getValue());
+            }
+        }
+
+        this.propertiesQueryString = queryString.toString();
+        this.applicationProperties = Collections.unmodifiableMap(userProperties);
+    }
+
+    /**
+     * Creates a message with the given body and the properties, priority, delivery mode and message type of the
+     * template.
+     *
+     * @param body the body of the new message. Cannot be {@code null}.
+     * @return the new message, with a new message id and correlation id.
+     * @throws IllegalArgumentException if the body is {@code null}.
+     */
+    public Message newMessage(byte[] body)
+    {
+        // Codes_SRS_MESSAGETEMPLATE_41_005: [If the body is null, the function shall throw an IllegalArgumentException.]
+        // Codes_SRS_MESSAGETEMPLATE_41_006: [The function shall return a new message with the given body, attached to this template.]
+        Message message = new Message(body);
+        message.setTemplate(this, this.properties);
+        return message;
+    }
+
+    /**
+     * Creates a message whose body shares the content of the buffer between its position and its limit, with the
+     * properties, priority, delivery mode and message type of the template.
+     *
+     * @param body the buffer holding the body of the new message. Cannot be {@code null}.
+     * @return the new message, with a new message id and correlation id.
+     * @throws IllegalArgumentException if the body is {@code null}.
+     */
+    public Message newMessage(ByteBuffer body)
+    {
+        // Codes_SRS_MESSAGETEMPLATE_41_005: [If the body is null, the function shall throw an IllegalArgumentException.]
+        // Codes_SRS_MESSAGETEMPLATE_41_006: [The function shall return a new message with the given body, attached to this template.]
+        Message message = new Message(body);
+        message.setTemplate(this, this.properties);
+        return message;
+    }
+
+    /**
+     * Getter for the properties of the template.
+     *
+     * @return a copy of the properties of the template.
+     */
+    public MessageProperty[] getProperties()
+    {
+        // Codes_SRS_MESSAGETEMPLATE_41_007: [The function shall return a copy of the properties of the template.]
+        return Arrays.copyOf(this.properties, this.properties.length);
+    }
+
+    /**
+     * Getter for the properties encoded as a query string, in the form
+     * {@code <name>=<value>&<name>=<value>...}.
+     *
+     * @return the encoded properties, or an empty string if the template has no properties.
+     */
+    public String getPropertiesQueryString()
+    {
+        // Codes_SRS_MESSAGETEMPLATE_41_008: [The function shall return the encoded properties.]
+        return this.propertiesQueryString;
+    }
+
+    /**
+     * Getter for the properties that are not reserved property names, as application properties.
+     *
+     * @return an unmodifiable map from property name to property value.
+     */
+    public Map<String, Object> getApplicationProperties()
+    {
+        // Codes_SRS_MESSAGETEMPLATE_41_009: [The function shall return the unmodifiable map of the properties that are not reserved.]
+        return this.applicationProperties;
+    }
+
+    MessagePriority getPriority()
+    {
+        return this.priority;
+    }
+
+    MessageDeliveryMode getDeliveryMode()
+    {
+        return this.deliveryMode;
+    }
+
+    MessageType getMessageType()
+    {
+        return this.messageType;
+    }
+}
@@ -0,0 +1,19 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * What the client does with a new outgoing message when its outbound queue is full.
+ */
+public enum OutboundQueueFullPolicy
+{
+    /** The caller waits until there is room in the queue, up to the configured block timeout. */
+    BLOCK,
+    /** The new message is not queued. */
+    REJECT,
+    /** The oldest queued messages are removed to make room for the new message. */
+    DROP_OLDEST,
+    /** Expired queued messages are removed first, then the oldest ones, to make room for the new message. */
+    DROP_EXPIRED_FIRST
+}
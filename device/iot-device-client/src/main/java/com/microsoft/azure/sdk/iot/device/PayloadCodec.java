@@ -0,0 +1,34 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * Encodes the bodies of outgoing telemetry messages, set with the "SetPayloadCodec" option of {@link DeviceClient}.
+ * The client encodes the bodies at least as long as the "SetPayloadCompressionThreshold" option, and records the
+ * encoding in the {@link #CONTENT_ENCODING_PROPERTY} application property of the message, so that back-end
+ * consumers can decode them.
+ *
+ * Implementations are called from the threads sending messages, and must be safe to call from several threads.
+ */
+public interface PayloadCodec
+{
+    /** The application property holding the content encoding of an encoded message body. */
+    String CONTENT_ENCODING_PROPERTY = "content-encoding";
+
+    /**
+     * Getter for the name of the encoding, such as "gzip", stored in the content encoding property of the encoded
+     * messages.
+     *
+     * @return the content encoding.
+     */
+    String getContentEncoding();
+
+    /**
+     * Encodes a message body.
+     *
+     * @param body the body to encode. It must not be modified.
+     * @return the encoded body.
+     */
+    byte[] encode(byte[] body);
+}
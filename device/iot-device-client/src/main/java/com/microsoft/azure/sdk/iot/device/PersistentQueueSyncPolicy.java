@@ -0,0 +1,17 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * When the persistent outbound queue forces its writes to the storage device.
+ */
+public enum PersistentQueueSyncPolicy
+{
+    /** Writes are left to the operating system. Queued messages survive a process restart but not a power loss. */
+    NONE,
+    /** Writes are forced within a second, when a segment is full, and when the client is closed. */
+    PERIODIC,
+    /** Writes are forced after every queued and every acknowledged message. */
+    ALWAYS
+}
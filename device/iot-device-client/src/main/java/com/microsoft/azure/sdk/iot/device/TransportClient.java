@@ -31,6 +31,7 @@ public class TransportClient
     private TransportClientState transportClientState;
 
     private ArrayList<DeviceClient> deviceClientList;
+    private ClientRuntime clientRuntime;
 
     private CustomLogger logger;
 
@@ -74,6 +75,29 @@ public class TransportClient
         logger.LogInfo("TransportClient object is created successfully, method name is %s ", logger.getMethodName());
     }
 
+    /**
+     * Constructor that takes a protocol and the runtime whose threads the connection shares with other clients.
+     *
+     * @param protocol the communication protocol used (i.e. AMQPS or AMQPS_WS).
+     * @param clientRuntime the runtime set on all the registered device clients when the transport client is opened.
+     *                      The caller keeps ownership of the runtime and is responsible for closing it.
+     *
+     * @throws IllegalArgumentException if other protocol given, or if clientRuntime is null.
+     */
+    public TransportClient(IotHubClientProtocol protocol, ClientRuntime clientRuntime)
+    {
+        this(protocol);
+
+        if (clientRuntime == null)
+        {
+            // Codes_SRS_TRANSPORTCLIENT_41_001: [If the `clientRuntime` is null, the constructor shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("clientRuntime cannot be null");
+        }
+
+        // Codes_SRS_TRANSPORTCLIENT_41_002: [The constructor shall store the provided client runtime.]
+        this.clientRuntime = clientRuntime;
+    }
+
     /**
      * Creates a deviceIO and sets it to all the device client.
      * Verifies all device client's SAS tokens and renew them if it is necessary.
@@ -101,6 +125,16 @@ public class TransportClient
             }
         }
 
+        if (this.clientRuntime != null)
+        {
+            // Codes_SRS_TRANSPORTCLIENT_41_003: [If the transport client has a client runtime, the function shall set
+            // it on each device client configuration.]
+            for (DeviceClient deviceClient : this.deviceClientList)
+            {
+                deviceClient.getConfig().setClientRuntime(this.clientRuntime);
+            }
+        }
+
         // Codes_SRS_TRANSPORTCLIENT_12_009: [The function shall do nothing if the the registration list is empty.]
         if (this.deviceClientList.size() > 0)
         {
@@ -141,6 +175,7 @@ public class TransportClient
         for (int i = 0; i < this.deviceClientList.size(); i++)
         {
             deviceClientList.get(i).closeFileUpload();
+            deviceClientList.get(i).closeDeviceTwin();
         }
 
         // Codes_SRS_TRANSPORTCLIENT_12_014: [If the deviceIO not null the function shall call multiplexClose on the deviceIO and set the deviceIO to null.]
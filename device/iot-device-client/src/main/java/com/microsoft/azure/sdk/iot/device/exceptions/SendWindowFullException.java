@@ -0,0 +1,38 @@
+/*
+ *  Copyright (c) Microsoft. All rights reserved.
+ *  Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.device.exceptions;
+
+/**
+ * Exception thrown by a connection that has no free slot to send a message, for example because its in flight
+ * window is full. This is backpressure from the client itself, not a failure: the message is sent again once the
+ * connection frees a slot, without counting a retry.
+ */
+public class SendWindowFullException extends TransportException
+{
+    public SendWindowFullException()
+    {
+        super();
+        this.isRetryable = true;
+    }
+
+    public SendWindowFullException(String message)
+    {
+        super(message);
+        this.isRetryable = true;
+    }
+
+    public SendWindowFullException(String message, Throwable cause)
+    {
+        super(message, cause);
+        this.isRetryable = true;
+    }
+
+    public SendWindowFullException(Throwable cause)
+    {
+        super(cause);
+        this.isRetryable = true;
+    }
+}
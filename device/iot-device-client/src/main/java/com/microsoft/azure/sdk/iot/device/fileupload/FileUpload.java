@@ -12,9 +12,9 @@ import com.microsoft.azure.sdk.iot.device.transport.https.HttpsTransportManager;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Queue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Provide means to upload file in the Azure Storage using the IoTHub.
@@ -25,9 +25,11 @@ public final class FileUpload
 
     private HttpsTransportManager httpsTransportManager;
     private static CustomLogger logger;
-    private ScheduledExecutorService taskScheduler;
+    private ExecutorService taskScheduler;
+    /* False if the uploads run on the file upload executor of a client runtime, which must not be shut down */
+    private boolean isTaskSchedulerOwned;
     private FileUploadStatusCallBack fileUploadStatusCallBack;
-    private static Queue<FileUploadInProgress> fileUploadInProgressesSet;
+    private Queue<FileUploadInProgress> fileUploadInProgressesSet;
 
     /**
      * CONSTRUCTOR
@@ -51,15 +53,25 @@ public final class FileUpload
         /* Codes_SRS_FILEUPLOAD_21_003: [If the constructor fail to create the new instance of the `HttpsTransportManager`, it shall throw IllegalArgumentException, threw by the HttpsTransportManager constructor.] */
         this.httpsTransportManager = new HttpsTransportManager(config);
 
-        try
+        if (config.getClientRuntime() != null)
         {
-            /* Codes_SRS_FILEUPLOAD_21_012: [The constructor shall create an pool of 10 threads to execute the uploads in parallel.] */
-            taskScheduler = Executors.newScheduledThreadPool(MAX_UPLOAD_PARALLEL);
+            /* Codes_SRS_FILEUPLOAD_41_001: [If the config has a client runtime, the constructor shall execute the uploads on the file upload executor of the runtime.] */
+            taskScheduler = config.getClientRuntime().getFileUploadExecutor();
+            isTaskSchedulerOwned = false;
         }
-        catch (IllegalArgumentException | NullPointerException e)
+        else
         {
-            /* Codes_SRS_FILEUPLOAD_21_015: [If create the executor failed, the constructor shall throws IOException.] */
-            throw new IOException("Cannot create a pool of threads to manager uploads: " + e);
+            try
+            {
+                /* Codes_SRS_FILEUPLOAD_21_012: [The constructor shall create an pool of 10 threads to execute the uploads in parallel.] */
+                taskScheduler = Executors.newScheduledThreadPool(MAX_UPLOAD_PARALLEL);
+                isTaskSchedulerOwned = true;
+            }
+            catch (IllegalArgumentException | NullPointerException e)
+            {
+                /* Codes_SRS_FILEUPLOAD_21_015: [If create the executor failed, the constructor shall throws IOException.] */
+                throw new IOException("Cannot create a pool of threads to manager uploads: " + e);
+            }
         }
         /* Codes_SRS_FILEUPLOAD_21_013: [The constructor shall create a list `fileUploadInProgressesSet` to control the pending uploads.] */
         fileUploadInProgressesSet = new LinkedBlockingDeque<FileUploadInProgress>();
@@ -168,8 +180,19 @@ public final class FileUpload
      */
     public void closeNow() throws IOException
     {
-        /* Codes_SRS_FILEUPLOAD_21_017: [The closeNow shall shutdown the thread pool by calling `shutdownNow`.] */
-        taskScheduler.shutdownNow();
+        if (isTaskSchedulerOwned)
+        {
+            /* Codes_SRS_FILEUPLOAD_21_017: [The closeNow shall shutdown the thread pool by calling `shutdownNow`.] */
+            taskScheduler.shutdownNow();
+        }
+        else
+        {
+            /* Codes_SRS_FILEUPLOAD_41_002: [If the uploads run on the file upload executor of a client runtime, the closeNow shall cancel the pending uploads of this client instead of shutting it down.] */
+            for (FileUploadInProgress uploadInProgress : fileUploadInProgressesSet)
+            {
+                uploadInProgress.cancel();
+            }
+        }
 
         /* Codes_SRS_FILEUPLOAD_21_018: [If there is pending file uploads, the closeNow shall cancel the upload, and call the `statusCallback` reporting ERROR.] */
         for (FileUploadInProgress uploadInProgress : fileUploadInProgressesSet)
@@ -67,6 +67,18 @@ public final class FileUploadInProgress
         statusCallback.execute(iotHubStatusCode, statusCallbackContext);
     }
 
+    /**
+     * Cancels the task, interrupting it if it is running.
+     */
+    void cancel()
+    {
+        /* Codes_SRS_FILEUPLOADINPROGRESS_41_001: [If the `task` is not null, the cancel shall cancel it, interrupting it if it is running.] */
+        if(task != null)
+        {
+            this.task.cancel(true);
+        }
+    }
+
     /**
      * Getter for the task cancellation.
      * 
@@ -0,0 +1,329 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timer for large numbers of short lived timeouts, such as message retries and expiries. Scheduling and cancelling a
+ * timeout are O(1): timeouts are kept in a circular array of buckets (the wheel), each bucket being a linked list of
+ * the timeouts due in the same tick. Timeouts fire with a precision of one tick.
+ *
+ * A single worker thread advances the wheel and runs the expired tasks, so tasks must be short. The worker is started
+ * when a timeout is scheduled and waits without ticking while no timeout is pending. {@link #stop()} ends the worker;
+ * the timer can be used again afterwards.
+ */
+public final class HashedWheelTimer
+{
+    private static final String THREAD_NAME = "azure-iot-sdk-HashedWheelTimer";
+
+    private final long tickNanos;
+    private final Timeout[] wheel;
+    private final int mask;
+
+    // All the fields below are guarded by this
+    private long startNanos;
+    private long currentTick;
+    private int pendingTimeouts;
+    private Thread worker;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * A task scheduled on a {@link HashedWheelTimer}.
+     */
+    public final class Timeout
+    {
+        private final Runnable task;
+        private final long deadlineTick;
+        private Timeout previous;
+        private Timeout next;
+        private boolean isInWheel;
+
+        private Timeout(Runnable task, long deadlineTick)
+        {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Cancels this timeout if it has not fired yet.
+         *
+         * @return {@code true} if the timeout was cancelled, {@code false} if it already fired or was cancelled.
+         */
+        public boolean cancel()
+        {
+            synchronized (HashedWheelTimer.this)
+            {
+                if (!this.isInWheel)
+                {
+                    return false;
+                }
+
+                // Codes_SRS_HASHEDWHEELTIMER_41_005: [If the timeout is pending, this function shall remove it from
+                // the wheel and return true. Otherwise it shall return false.]
+                unlink(this);
+                return true;
+            }
+        }
+
+        /**
+         * @return the task this timeout runs.
+         */
+        public Runnable getTask()
+        {
+            return this.task;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tickMillis the duration of a tick, which is the precision of the timer.
+     * @param ticksPerWheel the number of buckets in the wheel, rounded up to a power of 2. Timeouts further than
+     *                      tickMillis * ticksPerWheel are kept for several turns of the wheel.
+     * @throws IllegalArgumentException if tickMillis or ticksPerWheel is not positive, or ticksPerWheel is above 2^30.
+     */
+    public HashedWheelTimer(long tickMillis, int ticksPerWheel) throws IllegalArgumentException
+    {
+        if (tickMillis <= 0 || ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+        {
+            // Codes_SRS_HASHEDWHEELTIMER_41_001: [If tickMillis or ticksPerWheel is not positive, or ticksPerWheel is
+            // above 2^30, the constructor shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("tickMillis and ticksPerWheel must be positive, and ticksPerWheel at most 2^30");
+        }
+
+        // Codes_SRS_HASHEDWHEELTIMER_41_002: [The constructor shall create a wheel of ticksPerWheel buckets rounded up to a power of 2.]
+        int size = 1;
+        while (size < ticksPerWheel)
+        {
+            size <<= 1;
+        }
+
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new Timeout[size];
+        this.mask = size - 1;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Schedules the provided task to run once the provided delay has elapsed.
+     *
+     * @param task the task to run.
+     * @param delayMillis the delay in milliseconds. Negative delays are treated as 0.
+     * @return the timeout, which can be used to cancel the task.
+     * @throws IllegalArgumentException if task is null.
+     */
+    public Timeout schedule(Runnable task, long delayMillis) throws IllegalArgumentException
+    {
+        if (task == null)
+        {
+            // Codes_SRS_HASHEDWHEELTIMER_41_003: [If the task is null, this function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("task cannot be null");
+        }
+
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+
+        synchronized (this)
+        {
+            if (this.worker == null)
+            {
+                this.startWorker();
+            }
+
+            // A timeout always fires on a later tick than the current one, so it never fires early
+            long deadlineTick = Math.max(this.currentTick + 1, ceilDiv(deadlineNanos - this.startNanos, this.tickNanos));
+
+            // Codes_SRS_HASHEDWHEELTIMER_41_004: [This function shall add a timeout for the task to the bucket of its
+            // deadline tick, and start the worker thread if it is not running.]
+            Timeout timeout = new Timeout(task, deadlineTick);
+            int bucket = (int) (deadlineTick & this.mask);
+            timeout.next = this.wheel[bucket];
+            if (timeout.next != null)
+            {
+                timeout.next.previous = timeout;
+            }
+            this.wheel[bucket] = timeout;
+            timeout.isInWheel = true;
+
+            if (this.pendingTimeouts++ == 0)
+            {
+                // the worker may be idle
+                this.notifyAll();
+            }
+
+            return timeout;
+        }
+    }
+
+    /**
+     * Getter for the number of timeouts waiting to fire.
+     *
+     * @return the number of pending timeouts.
+     */
+    public synchronized int getPendingTimeouts()
+    {
+        // Codes_SRS_HASHEDWHEELTIMER_41_006: [This function shall return the number of pending timeouts.]
+        return this.pendingTimeouts;
+    }
+
+    /**
+     * Stops the worker thread and removes all pending timeouts without running them.
+     *
+     * @return the pending timeouts, which were not run.
+     */
+    public List<Timeout> stop()
+    {
+        List<Timeout> unprocessed = new ArrayList<>();
+
+        synchronized (this)
+        {
+            // Codes_SRS_HASHEDWHEELTIMER_41_007: [This function shall remove all the pending timeouts, stop the worker
+            // thread and return the removed timeouts.]
+            for (int i = 0; i < this.wheel.length; i++)
+            {
+                Timeout timeout = this.wheel[i];
+                while (timeout != null)
+                {
+                    Timeout next = timeout.next;
+                    unlink(timeout);
+                    unprocessed.add(timeout);
+                    timeout = next;
+                }
+            }
+
+            this.worker = null;
+            this.notifyAll();
+        }
+
+        return unprocessed;
+    }
+
+    private void startWorker()
+    {
+        if (this.pendingTimeouts == 0)
+        {
+            // Idle periods are skipped instead of ticked through
+            this.startNanos = System.nanoTime();
+            this.currentTick = 0;
+        }
+
+        this.worker = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                work();
+            }
+        }, THREAD_NAME);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    private void work()
+    {
+        Thread self = Thread.currentThread();
+        List<Timeout> expired = new ArrayList<>();
+
+        while (true)
+        {
+            synchronized (this)
+            {
+                try
+                {
+                    while (this.worker == self && this.pendingTimeouts == 0)
+                    {
+                        this.wait();
+                    }
+
+                    long waitNanos;
+                    while (this.worker == self
+                            && (waitNanos = this.startNanos + (this.currentTick + 1) * this.tickNanos - System.nanoTime()) > 0)
+                    {
+                        TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    this.worker = null;
+                    Thread.currentThread().interrupt();
+                }
+
+                if (this.worker != self)
+                {
+                    return;
+                }
+
+                // Codes_SRS_HASHEDWHEELTIMER_41_008: [On each tick, the worker shall remove the timeouts of the current
+                // bucket whose deadline has been reached, and run their tasks.]
+                this.currentTick++;
+                Timeout timeout = this.wheel[(int) (this.currentTick & this.mask)];
+                while (timeout != null)
+                {
+                    Timeout next = timeout.next;
+                    if (timeout.deadlineTick <= this.currentTick)
+                    {
+                        unlink(timeout);
+                        expired.add(timeout);
+                    }
+                    timeout = next;
+                }
+
+                if (this.pendingTimeouts == 0)
+                {
+                    // Next schedule restarts the ticks from its own time
+                    this.startNanos = System.nanoTime();
+                    this.currentTick = 0;
+                }
+            }
+
+            for (Timeout timeout : expired)
+            {
+                try
+                {
+                    timeout.task.run();
+                }
+                catch (Throwable t)
+                {
+                    // Codes_SRS_HASHEDWHEELTIMER_41_009: [An exception thrown by a task shall not stop the worker.]
+                    logger.LogError(t.toString() + ": " + t.getMessage());
+                    logger.LogDebug("Exception on running timer task", t);
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    // must hold the lock
+    private void unlink(Timeout timeout)
+    {
+        if (timeout.previous != null)
+        {
+            timeout.previous.next = timeout.next;
+        }
+        else
+        {
+            this.wheel[(int) (timeout.deadlineTick & this.mask)] = timeout.next;
+        }
+
+        if (timeout.next != null)
+        {
+            timeout.next.previous = timeout.previous;
+        }
+
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.isInWheel = false;
+        this.pendingTimeouts--;
+    }
+
+    private static long ceilDiv(long dividend, long divisor)
+    {
+        return (dividend + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,171 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends queued messages, invokes callbacks on completed requests and handles received messages whenever the transport
+ * signals that there is work to do. Unlike {@link IotHubSendTask} and {@link IotHubReceiveTask}, this task does not
+ * poll, and does not keep a thread while the transport is idle: each signal submits a single run to the executor,
+ * unless one is already scheduled, and the run returns once the transport has no more pending work.
+ */
+public final class IotHubEventDrivenTask implements Runnable
+{
+    private static final String THREAD_NAME = "azure-iot-sdk-IotHubEventDrivenTask";
+
+    /* After a failure, pending work is retried after this delay instead of waiting for the next signal */
+    private static final long RETRY_AFTER_FAILURE_MILLIS = 10L;
+
+    private final IotHubTransport transport;
+    private final boolean handleReceivedMessages;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+
+    /* Set while a run is submitted to the executor or running, so that a single run drains the transport at a time */
+    private final AtomicBoolean isScheduled = new AtomicBoolean();
+
+    /* Set by each signal, so that the work signalled while a run drains the transport is not missed */
+    private final AtomicBoolean isWorkSignalled = new AtomicBoolean();
+
+    private volatile boolean isStopped;
+
+    /**
+     * Private logger for class
+     */
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructor.
+     *
+     * @param transport the transport to drain.
+     * @param handleReceivedMessages if received messages shall be handled by this task. Protocols that need to poll
+     *                               the service for messages (HTTPS) shall keep using an {@link IotHubReceiveTask}.
+     * @param executor the executor to run this task on whenever work is signalled.
+     * @param scheduler the scheduler to retry the pending work on after a failure.
+     */
+    public IotHubEventDrivenTask(IotHubTransport transport, boolean handleReceivedMessages, Executor executor, ScheduledExecutorService scheduler)
+    {
+        if (transport == null || executor == null || scheduler == null)
+        {
+            // Codes_SRS_IOTHUBEVENTDRIVENTASK_41_001: [If the provided transport, executor or scheduler is null, the constructor shall throw an IllegalArgumentException.]
+            logger.LogError("IotHubEventDrivenTask constructor called with null value for parameter transport, executor or scheduler");
+            throw new IllegalArgumentException("Parameters 'transport', 'executor' and 'scheduler' must not be null");
+        }
+
+        // Codes_SRS_IOTHUBEVENTDRIVENTASK_41_002: [The constructor shall save the transport, the handleReceivedMessages flag, the executor and the scheduler.]
+        this.transport = transport;
+        this.handleReceivedMessages = handleReceivedMessages;
+        this.executor = executor;
+        this.scheduler = scheduler;
+    }
+
+    public void run()
+    {
+        Thread.currentThread().setName(THREAD_NAME);
+
+        // Codes_SRS_IOTHUBEVENTDRIVENTASK_41_009: [If work is signalled while the function drains the transport, the
+        // function shall drain it again before returning, unless another run was scheduled meanwhile.]
+        do
+        {
+            this.isWorkSignalled.set(false);
+            this.drain();
+            this.isScheduled.set(false);
+        }
+        while (!this.isStopped && this.isWorkSignalled.get() && this.isScheduled.compareAndSet(false, true));
+    }
+
+    /**
+     * Submits a run of this task to the executor, unless one is already scheduled or the task is stopped. Never
+     * blocks.
+     */
+    public void signalWorkAvailable()
+    {
+        // Codes_SRS_IOTHUBEVENTDRIVENTASK_41_010: [If the task is stopped, the function shall do nothing.]
+        if (this.isStopped)
+        {
+            return;
+        }
+
+        // Codes_SRS_IOTHUBEVENTDRIVENTASK_41_008: [If no run is scheduled, the function shall submit a single run
+        // of this task to the executor.]
+        this.isWorkSignalled.set(true);
+        if (this.isScheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                this.executor.execute(this);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the executor is shutting down, as the client or its runtime is closing
+                this.isScheduled.set(false);
+                logger.LogError(e);
+            }
+        }
+    }
+
+    /**
+     * Requests the task not to run anymore. A run in progress returns once it finishes its current iteration.
+     */
+    public void stop()
+    {
+        // Codes_SRS_IOTHUBEVENTDRIVENTASK_41_007: [The function shall mark this task as stopped, so that it is not scheduled anymore.]
+        this.isStopped = true;
+    }
+
+    private void drain()
+    {
+        try
+        {
+            // Codes_SRS_IOTHUBEVENTDRIVENTASK_41_004: [The function shall send queued messages, invoke queued
+            // callbacks and, if configured to, handle received messages until the transport has no more pending work.]
+            do
+            {
+                this.transport.sendMessages();
+                this.transport.invokeCallbacks();
+
+                if (this.handleReceivedMessages)
+                {
+                    this.transport.handleMessage();
+                }
+            }
+            while (!this.isStopped && this.transport.hasPendingWork());
+        }
+        // Codes_SRS_IOTHUBEVENTDRIVENTASK_41_006: [The function shall not crash because of any error or exception
+        // thrown by the transport, and shall retry any pending work after RETRY_AFTER_FAILURE_MILLIS.]
+        catch (Throwable e)
+        {
+            logger.LogError(e.toString() + ": " + e.getMessage());
+            logger.LogDebug("Exception on processing queued work for IoT Hub", e);
+            this.scheduleRetry();
+        }
+    }
+
+    private void scheduleRetry()
+    {
+        try
+        {
+            this.scheduler.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    signalWorkAvailable();
+                }
+            }, RETRY_AFTER_FAILURE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the scheduler is shutting down, as the client or its runtime is closing
+            logger.LogError(e);
+        }
+    }
+}
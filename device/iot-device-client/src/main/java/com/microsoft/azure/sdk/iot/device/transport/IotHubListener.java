@@ -41,4 +41,10 @@ public interface IotHubListener
      * Callback to be fired when the connection has been successfully established
      */
     void onConnectionEstablished();
+
+    /**
+     * Callback to be fired when the connection is granted room to send more messages without any message being
+     * acknowledged, for example when the service grants more link credit
+     */
+    void onSendWindowOpened();
 }
@@ -13,13 +13,20 @@ import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.exceptions.AmqpUnauthorizedAccessException;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttIotHubConnection;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.exceptions.MqttUnauthorizedException;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
@@ -29,16 +36,24 @@ import static java.util.concurrent.TimeUnit.NANOSECONDS;
  */
 public class IotHubTransport implements IotHubListener
 {
-    private static final int MAX_MESSAGES_TO_SEND_PER_THREAD = 10;
+    private static final long TIMER_TICK_MILLIS = 10;
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
     private IotHubConnectionStatus connectionStatus;
     private IotHubTransportConnection iotHubTransportConnection;
 
+    /* Identifies each connection opened in this process, for the timings of the messages it sends */
+    private static final AtomicLong connectionCount = new AtomicLong();
+    private String connectionId;
+
     /* Messages waiting to be sent to the IoT Hub. */
-    private final Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+    private final OutboundPacketQueue waitingPacketsQueue = new OutboundPacketQueue();
 
     /* Messages which are sent to the IoT Hub but did not receive ack yet. */
     private final Map<String, IotHubTransportPacket> inProgressPackets = new ConcurrentHashMap<>();
 
+    /* Limits the number of in progress messages, following the acknowledgement latency */
+    private final SendWindow sendWindow = new SendWindow();
+
     /* Messages received from the IoT Hub */
     private final Queue<IotHubTransportMessage> receivedMessagesQueue = new ConcurrentLinkedQueue<>();
 
@@ -61,12 +76,31 @@ public class IotHubTransport implements IotHubListener
 
     private int currentReconnectionAttempt;
     private long reconnectionAttemptStartTimeMillis;
-    private ScheduledExecutorService taskScheduler;
+
+    /* Schedules message retries and expiries. Shared with other transports if the config has a client runtime */
+    private final HashedWheelTimer ownedTimer = new HashedWheelTimer(TIMER_TICK_MILLIS, TIMER_TICKS_PER_WHEEL);
+    private HashedWheelTimer timer = this.ownedTimer;
+    /* Retries scheduled on a shared timer, which cannot be stopped on close */
+    private final Map<MessageRetryRunnable, HashedWheelTimer.Timeout> sharedTimerRetries = new ConcurrentHashMap<>();
+
+    /* Runs the callbacks of completed packets off the sending thread, or null to run them inline */
+    private OrderedCallbackDispatcher callbackDispatcher;
+    /* Callback executor created by this transport, if any, to be shut down on close */
+    private ExecutorService ownedCallbackExecutor;
+
+    /* Persists outgoing telemetry until it is acknowledged, or null if not configured. Read once per use, as it is
+     * nulled on close while acknowledgements may still arrive on the I/O threads */
+    private volatile PersistentMessageStore persistentStore;
+    /* Forces the writes of the persistent message store every second under the PERIODIC sync policy */
+    private volatile HashedWheelTimer.Timeout persistentStoreSyncTimeout;
 
     private final CustomLogger logger;
 
     final private Object reconnectionLock = new Object();
 
+    //Task scheduled whenever there is work to process, if the event driven transport is used
+    private volatile IotHubEventDrivenTask eventDrivenTask;
+
     /**
      * Constructor for an IotHubTransport object with default values
      * @param defaultConfig the config used for opening connections, retrieving retry policy, and checking protocol
@@ -114,6 +148,11 @@ public class IotHubTransport implements IotHubListener
         {
             if (e == null)
             {
+                //Codes_SRS_IOTHUBTRANSPORT_41_038: [If there was a packet in the inProgressPackets queue tied to the
+                // provided message, and the provided throwable is null, this function shall record the time since the
+                // packet was last sent as an acknowledgement latency of the send window.]
+                this.sendWindow.onAcknowledged(System.nanoTime() - packet.getLastSendTimeNanos());
+
                 //Codes_SRS_IOTHUBTRANSPORT_34_005: [If there was a packet in the inProgressPackets queue tied to the
                 // provided message, and the provided throwable is null, this function shall set the status of that
                 // packet to OK_EMPTY and add it to the callbacks queue.]
@@ -144,6 +183,10 @@ public class IotHubTransport implements IotHubListener
             logger.LogError("Message with message id %s was delivered to IoTHub, but was never sent, " +
                     "method name is %s ", message.getMessageId(), logger.getMethodName());
         }
+
+        //Codes_SRS_IOTHUBTRANSPORT_41_039: [This function shall signal that there is work available, since the send
+        // window has room for one more message.]
+        this.signalWorkAvailable();
     }
 
     @Override
@@ -164,7 +207,20 @@ public class IotHubTransport implements IotHubListener
             // exception, this function shall add that message to the receivedMessagesQueue.]
             logger.LogInfo("Message with hashcode %s is received from IotHub on %s, method name is %s ",
                     message.hashCode(), new Date(), logger.getMethodName());
+
+            if (this.isMqttDirectDispatch())
+            {
+                //Codes_SRS_IOTHUBTRANSPORT_41_043: [If MQTT arrivals are dispatched directly, this function shall
+                // execute the callback of the message and acknowledge it on the calling thread.]
+                this.dispatchReceivedMessage(message);
+                return;
+            }
+
             this.receivedMessagesQueue.add(message);
+
+            //Codes_SRS_IOTHUBTRANSPORT_41_001: [If this function is called with a non-null message and a null
+            // exception, this function shall signal that there is work available.]
+            this.signalWorkAvailable();
         }
         else if (e != null)
         {
@@ -204,6 +260,14 @@ public class IotHubTransport implements IotHubListener
         }
     }
 
+    @Override
+    public void onSendWindowOpened()
+    {
+        //Codes_SRS_IOTHUBTRANSPORT_41_049: [This function shall signal the transport worker that there is work
+        // available, so that the packets waiting for the send window are sent.]
+        this.signalWorkAvailable();
+    }
+
     @Override
     public void onConnectionEstablished()
     {
@@ -258,7 +322,17 @@ public class IotHubTransport implements IotHubListener
 
         this.deviceClientConfigs = new LinkedBlockingQueue<>(deviceClientConfigs);
         this.defaultConfig = this.deviceClientConfigs.peek();
-        this.taskScheduler = Executors.newScheduledThreadPool(1);
+
+        //Codes_SRS_IOTHUBTRANSPORT_41_035: [If the default config has a client runtime, this function shall schedule
+        // message retries and expiries on the timer of the runtime.]
+        ClientRuntime clientRuntime = this.defaultConfig.getClientRuntime();
+        this.timer = (clientRuntime != null) ? clientRuntime.getTimer() : this.ownedTimer;
+        this.createCallbackDispatcher();
+
+        //Codes_SRS_IOTHUBTRANSPORT_41_032: [This function shall apply the outbound queue priority weights of the
+        // default config to the waiting queue.]
+        this.waitingPacketsQueue.setPriorityWeights(this.defaultConfig.getOutboundQueuePriorityWeights());
+        this.openPersistentStore();
 
         //Codes_SRS_IOTHUBTRANSPORT_34_019: [This function shall open the invoke the method openConnection.]
         openConnection();
@@ -290,12 +364,44 @@ public class IotHubTransport implements IotHubListener
             return;
         }
 
+        //Codes_SRS_IOTHUBTRANSPORT_41_023: [This function shall stop the timer, and add the packets whose retry was
+        // scheduled to the callback queue with status MESSAGE_CANCELLED_ONCLOSE.]
+        for (HashedWheelTimer.Timeout timeout : this.stopTimer())
+        {
+            if (timeout.getTask() instanceof MessageRetryRunnable)
+            {
+                IotHubTransportPacket retryPacket = ((MessageRetryRunnable) timeout.getTask()).transportPacket;
+                retryPacket.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE);
+                this.addToCallbackQueue(retryPacket);
+            }
+        }
+
         this.cancelPendingPackets();
 
         //Codes_SRS_IOTHUBTRANSPORT_34_023: [This function shall invoke all callbacks.]
         this.invokeCallbacks();
 
-        this.taskScheduler.shutdown();
+        if (this.ownedCallbackExecutor != null)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_018: [This function shall shut down the callback executor created by this
+            // transport, letting the callbacks already dispatched run.]
+            this.ownedCallbackExecutor.shutdown();
+            this.ownedCallbackExecutor = null;
+        }
+
+        PersistentMessageStore persistentStore = this.persistentStore;
+        if (persistentStore != null)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_027: [This function shall close the persistent message store, keeping the
+            // messages cancelled on close persisted, and stop forcing its writes periodically.]
+            this.persistentStore = null;
+            if (this.persistentStoreSyncTimeout != null)
+            {
+                this.persistentStoreSyncTimeout.cancel();
+                this.persistentStoreSyncTimeout = null;
+            }
+            persistentStore.close();
+        }
 
         //Codes_SRS_IOTHUBTRANSPORT_34_024: [This function shall close the connection.]
         this.iotHubTransportConnection.close();
@@ -306,7 +412,9 @@ public class IotHubTransport implements IotHubListener
     }
 
     /**
-     * Adds a message to the transport queue.
+     * Adds a message to the transport queue. If the queue is full, the outbound queue policy of the default config
+     * decides whether this call waits for room, drops queued messages, or does not queue the message. Messages that end
+     * up not being sent are reported to their callback with status MESSAGE_CANCELLED_QUEUE_FULL.
      *
      * @param message the message to be sent.
      * @param callback the callback to be invoked when a response for the
@@ -323,10 +431,86 @@ public class IotHubTransport implements IotHubListener
             throw new IllegalStateException("Cannot add a message when the transport is closed.");
         }
 
+        if (message instanceof BatchMessage && !isBatchingSupported(this.defaultConfig.getProtocol()))
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_033: [If the message is a batch and the protocol has no batched send, this
+            // function shall add each message of the batch on its own, so they are pipelined on the connection.]
+            for (Message nestedMessage : ((BatchMessage) message).getNestedMessages())
+            {
+                this.addMessage(nestedMessage, callback, callbackContext);
+            }
+            return;
+        }
+
         //Codes_SRS_IOTHUBTRANSPORT_34_042: [This function shall build a transport packet from the provided message,
         // callback, and context and then add that packet to the waiting queue.]
         IotHubTransportPacket packet = new IotHubTransportPacket(message, callback, callbackContext, null, System.currentTimeMillis());
-        this.waitingPacketsQueue.add(packet);
+
+        PersistentMessageStore persistentStore = this.persistentStore;
+        if (persistentStore != null && message.getClass() == Message.class)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_028: [If a persistent message store is open, this function shall persist
+            // telemetry messages before queueing them.]
+            try
+            {
+                String deviceId = message.getIotHubConnectionString() == null ? null : message.getIotHubConnectionString().getDeviceId();
+                packet.setPersistentHandle(persistentStore.append(message, deviceId));
+            }
+            catch (IOException e)
+            {
+                logger.LogWarn("Could not persist the message with id %s, it will be lost on restart: %s, method name is %s ",
+                        message.getMessageId(), e.getMessage(), logger.getMethodName());
+            }
+        }
+
+        //Codes_SRS_IOTHUBTRANSPORT_41_010: [This function shall admit the packet to the waiting queue according to the
+        // outbound queue capacity and policy of the default config.]
+        Collection<IotHubTransportPacket> droppedPackets = new ArrayList<>();
+        boolean isAdmitted;
+        try
+        {
+            isAdmitted = this.waitingPacketsQueue.admit(packet,
+                    this.defaultConfig.getOutboundQueueMaxMessages(),
+                    this.defaultConfig.getOutboundQueueMaxBytes(),
+                    this.defaultConfig.getOutboundQueueFullPolicy(),
+                    this.defaultConfig.getOutboundQueueBlockTimeoutMillis(),
+                    droppedPackets);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            isAdmitted = false;
+        }
+
+        for (IotHubTransportPacket droppedPacket : droppedPackets)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_011: [Packets dropped from the waiting queue to make room for the new packet
+            // shall be added to the callback queue with status MESSAGE_EXPIRED if their message expired, and
+            // MESSAGE_CANCELLED_QUEUE_FULL otherwise.]
+            droppedPacket.setStatus(droppedPacket.getMessage().isExpired() ?
+                    IotHubStatusCode.MESSAGE_EXPIRED : IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+            this.addToCallbackQueue(droppedPacket);
+        }
+
+        if (isAdmitted)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_024: [If the packet was admitted and its message has an expiry time, this
+            // function shall schedule the expiry of the packet at that time.]
+            this.scheduleExpiry(packet);
+        }
+
+        if (!isAdmitted)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_012: [If the packet was not admitted to the waiting queue, this function
+            // shall add it to the callback queue with status MESSAGE_CANCELLED_QUEUE_FULL.]
+            logger.LogWarn("Outbound queue is full, the message with id %s is not queued, method name is %s ",
+                    message.getMessageId(), logger.getMethodName());
+            packet.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+            this.addToCallbackQueue(packet);
+        }
+
+        //Codes_SRS_IOTHUBTRANSPORT_41_002: [This function shall signal that there is work available.]
+        this.signalWorkAvailable();
     }
 
     /**
@@ -343,22 +527,32 @@ public class IotHubTransport implements IotHubListener
             return;
         }
 
-        int timeSlice = MAX_MESSAGES_TO_SEND_PER_THREAD;
+        //Codes_SRS_IOTHUBTRANSPORT_41_040: [This function shall send at most as many packets as the send window
+        // allows, given the configured ceiling, the packets in progress and the window of the connection.]
+        int budget = this.getSendBudget();
 
-        while (this.connectionStatus == IotHubConnectionStatus.CONNECTED && timeSlice-- > 0)
+        while (this.connectionStatus == IotHubConnectionStatus.CONNECTED && budget-- > 0)
         {
             IotHubTransportPacket packet = waitingPacketsQueue.poll();
-            if (packet != null)
+            if (packet == null)
             {
-                logger.LogInfo("Get the message from waiting message queue to be sent to IoT Hub, method name is %s ",
-                        logger.getMethodName());
-                Message message = packet.getMessage();
+                //Codes_SRS_IOTHUBTRANSPORT_41_003: [This function shall stop dequeueing packets once the waiting queue is empty.]
+                break;
+            }
+
+            logger.LogInfo("Get the message from waiting message queue to be sent to IoT Hub, method name is %s ",
+                    logger.getMethodName());
+            Message message = packet.getMessage();
 
-                if (message != null && this.isMessageValid(packet))
+            if (message != null && this.isMessageValid(packet))
+            {
+                //Codes_SRS_IOTHUBTRANSPORT_34_044: [This function continue to dequeue packets saved in the waiting
+                // queue and send them until connection status isn't CONNECTED or until the send budget is spent]
+                if (!sendPacket(packet))
                 {
-                    //Codes_SRS_IOTHUBTRANSPORT_34_044: [This function continue to dequeue packets saved in the waiting
-                    // queue and send them until connection status isn't CONNECTED or until 10 messages have been sent]
-                    sendPacket(packet);
+                    //Codes_SRS_IOTHUBTRANSPORT_41_047: [This function shall stop dequeueing packets once the connection
+                    // has no free slot to send a packet.]
+                    break;
                 }
             }
         }
@@ -379,9 +573,27 @@ public class IotHubTransport implements IotHubListener
             logger.LogInfo("Invoking the callback function for sent message, IoT Hub responded to message with " +
                     "status %s, method name is %s ", status.name(), logger.getMethodName());
 
-            //Codes_SRS_IOTHUBTRANSPORT_34_045: [This function shall dequeue each packet in the callback queue and
-            // execute their saved callback with their saved status and context]
-            callback.execute(status, context);
+            //Codes_SRS_IOTHUBTRANSPORT_41_034: [If the message of the packet is a batch, its callback shall be
+            // executed once per message of the batch, in order, with that message and the status of the batch.]
+            Message message = packet.getMessage();
+            List<Message> messages = message instanceof BatchMessage ?
+                    ((BatchMessage) message).getNestedMessages() : Collections.singletonList(message);
+
+            for (Message completedMessage : messages)
+            {
+                if (this.callbackDispatcher == null)
+                {
+                    //Codes_SRS_IOTHUBTRANSPORT_34_045: [This function shall dequeue each packet in the callback queue and
+                    // execute their saved callback with their saved status and context]
+                    executeCallback(callback, completedMessage, status, packet, context);
+                }
+                else
+                {
+                    //Codes_SRS_IOTHUBTRANSPORT_41_016: [If a callback executor is configured, this function shall dispatch
+                    // each callback to it, preserving the order of the callbacks that share the same context.]
+                    this.callbackDispatcher.dispatch(context, new CallbackRunnable(callback, completedMessage, status, packet, context));
+                }
+            }
 
             packet = this.callbackPacketsQueue.poll();
         }
@@ -412,9 +624,18 @@ public class IotHubTransport implements IotHubListener
                 addReceivedMessagesOverHttpToReceivedQueue();
             }
 
-            IotHubTransportMessage receivedMessage = this.receivedMessagesQueue.poll();
-            if (receivedMessage != null)
+            //Codes_SRS_IOTHUBTRANSPORT_41_015: [This function shall handle up to the receive batch size of the default
+            // config received messages, and at least one, stopping early if the received messages queue is empty or if
+            // the connection status is no longer CONNECTED.]
+            int budget = Math.max(1, this.defaultConfig.getReceiveBatchSize());
+            while (this.connectionStatus == IotHubConnectionStatus.CONNECTED && budget-- > 0)
             {
+                IotHubTransportMessage receivedMessage = this.receivedMessagesQueue.poll();
+                if (receivedMessage == null)
+                {
+                    break;
+                }
+
                 //Codes_SRS_IOTHUBTRANSPORT_34_048: [If this object's connection status is CONNECTED and there is a
                 // received message in the queue, this function shall acknowledge the received message
                 this.acknowledgeReceivedMessage(receivedMessage);
@@ -439,6 +660,92 @@ public class IotHubTransport implements IotHubListener
         }
     }
 
+    /**
+     * Getter for the number of messages waiting to be sent. Messages sent but not acknowledged yet are not counted.
+     *
+     * @return the number of messages in the waiting queue
+     */
+    public int getOutboundQueueSize()
+    {
+        //Codes_SRS_IOTHUBTRANSPORT_41_013: [This function shall return the number of packets in the waiting queue.]
+        return this.waitingPacketsQueue.size();
+    }
+
+    /**
+     * Getter for the total size of the bodies of the messages waiting to be sent.
+     *
+     * @return the total size in bytes of the messages in the waiting queue
+     */
+    public long getOutboundQueueSizeInBytes()
+    {
+        //Codes_SRS_IOTHUBTRANSPORT_41_014: [This function shall return the total size of the packets in the waiting queue.]
+        return this.waitingPacketsQueue.getTotalBytes();
+    }
+
+    /**
+     * Returns {@code true} if there are packets that can be sent, callbacks that can be invoked, or received messages
+     * that can be handled right now. Packets and received messages are only considered while connected. Messages
+     * received over HTTPS are not considered, since they are only handled when the service is polled.
+     *
+     * @return {@code true} if calling sendMessages, invokeCallbacks or handleMessage would make progress
+     */
+    public boolean hasPendingWork()
+    {
+        //Codes_SRS_IOTHUBTRANSPORT_41_004: [This function shall return true if the callback queue is not empty, or if
+        // the connection status is CONNECTED and either the waiting queue is not empty and the send window is open or,
+        // if not using HTTPS, the received messages queue is not empty.]
+        if (!this.callbackPacketsQueue.isEmpty())
+        {
+            return true;
+        }
+
+        if (this.connectionStatus != IotHubConnectionStatus.CONNECTED)
+        {
+            return false;
+        }
+
+        return (!this.waitingPacketsQueue.isEmpty() && this.getSendBudget() > 0)
+                || (!(this.iotHubTransportConnection instanceof HttpsIotHubConnection) && !this.receivedMessagesQueue.isEmpty());
+    }
+
+    /**
+     * Returns how many packets can be sent now, given the configured ceiling, the packets in progress and the window
+     * of the connection
+     *
+     * @return the number of packets to send
+     */
+    private int getSendBudget()
+    {
+        IotHubTransportConnection connection = this.iotHubTransportConnection;
+        int transportWindow = (connection == null) ? 0 : connection.getSendWindow();
+        return this.sendWindow.getBudget(this.defaultConfig.getSendWindowCeiling(), this.inProgressPackets.size(), transportWindow);
+    }
+
+    /**
+     * Sets the task to schedule whenever there is work to process.
+     *
+     * @param eventDrivenTask the task to schedule, or {@code null} if the transport is polled instead.
+     */
+    public void setEventDrivenTask(IotHubEventDrivenTask eventDrivenTask)
+    {
+        //Codes_SRS_IOTHUBTRANSPORT_41_005: [This function shall save the provided event driven task.]
+        this.eventDrivenTask = eventDrivenTask;
+    }
+
+    /**
+     * Schedules the event driven task, if there is one, to process the work available. Never blocks.
+     */
+    public void signalWorkAvailable()
+    {
+        //Codes_SRS_IOTHUBTRANSPORT_41_007: [This function shall signal the saved event driven task, if any, that
+        // there is work available.]
+        IotHubEventDrivenTask eventDrivenTask = this.eventDrivenTask;
+        if (eventDrivenTask != null)
+        {
+            eventDrivenTask.signalWorkAvailable();
+        }
+    }
+
     /**
      * Registers a callback to be executed whenever the connection to the IoT Hub is lost or established.
      *
@@ -543,6 +850,45 @@ public class IotHubTransport implements IotHubListener
         }
     }
 
+    /**
+     * Returns true if the received messages are handed to their callbacks on the thread of the MQTT connection
+     * instead of being queued for the receive task
+     */
+    private boolean isMqttDirectDispatch()
+    {
+        IotHubClientProtocol protocol = this.defaultConfig.getProtocol();
+        return this.defaultConfig.isMqttDirectDispatch()
+                && (protocol == IotHubClientProtocol.MQTT || protocol == IotHubClientProtocol.MQTT_WS);
+    }
+
+    /**
+     * Executes the callback of a received message and acknowledges it on the calling thread. Nothing is thrown back
+     * to the connection, which would otherwise drop the connection
+     * @param receivedMessage the message received from the service
+     */
+    private void dispatchReceivedMessage(IotHubTransportMessage receivedMessage)
+    {
+        try
+        {
+            this.acknowledgeReceivedMessage(receivedMessage);
+        }
+        catch (TransportException e)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_044: [If the dispatched message cannot be acknowledged, this function shall
+            // log the exception and signal that there is work available, so that the receive task acknowledges it.]
+            this.logger.LogError("Failed to acknowledge received message, method name is %s", this.logger.getMethodName());
+            this.logger.LogError(e);
+            this.signalWorkAvailable();
+        }
+        catch (RuntimeException e)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_045: [If the callback of the dispatched message throws, this function shall
+            // log the exception.]
+            this.logger.LogError("Exception thrown by the callback of a received message, method name is %s", this.logger.getMethodName());
+            this.logger.LogError(e);
+        }
+    }
+
     /**
      * Checks if any messages were received over HTTP and adds all of them to the received messages queue
      * @throws TransportException if an exception occurs while receiving messages over HTTP connection
@@ -608,6 +954,14 @@ public class IotHubTransport implements IotHubListener
                 this.iotHubTransportConnection = new HttpsIotHubConnection(defaultConfig);
                 break;
             case MQTT:
+                if (defaultConfig.isMqttEventLoop())
+                {
+                    //Codes_SRS_IOTHUBTRANSPORT_41_046: [If the default config's protocol is MQTT and its MQTT event loop
+                    // flag is set, this function shall set this object's iotHubTransportConnection to a new
+                    // MqttNioIotHubConnection object.]
+                    this.iotHubTransportConnection = new MqttNioIotHubConnection(defaultConfig);
+                    break;
+                }
             case MQTT_WS:
                 //Codes_SRS_IOTHUBTRANSPORT_34_036: [If the default config's protocol is MQTT or MQTT_WS, this function
                 // shall set this object's iotHubTransportConnection to a new MqttIotHubConnection object.]
@@ -623,6 +977,10 @@ public class IotHubTransport implements IotHubListener
                 throw new TransportException("Protocol not supported");
         }
 
+        //Codes_SRS_IOTHUBTRANSPORT_41_019: [This function shall give the new connection an identifier made of the
+        // protocol and of a counter unique in the process.]
+        this.connectionId = defaultConfig.getProtocol() + "-" + connectionCount.incrementAndGet();
+
         //Codes_SRS_IOTHUBTRANSPORT_34_038: [This function shall set this object as the listener of the iotHubTransportConnection object.]
         this.iotHubTransportConnection.setListener(this);
 
@@ -758,6 +1116,130 @@ public class IotHubTransport implements IotHubListener
         return null;
     }
 
+    /**
+     * Task for invoking the callback of a completed packet on the callback executor
+     */
+    private static final class CallbackRunnable implements Runnable
+    {
+        final IotHubEventCallback callback;
+        final Message message;
+        final IotHubStatusCode status;
+        final IotHubMessageTimings timings;
+        final Object context;
+
+        CallbackRunnable(IotHubEventCallback callback, Message message, IotHubStatusCode status, IotHubMessageTimings timings, Object context)
+        {
+            this.callback = callback;
+            this.message = message;
+            this.status = status;
+            this.timings = timings;
+            this.context = context;
+        }
+
+        @Override
+        public void run()
+        {
+            executeCallback(this.callback, this.message, this.status, this.timings, this.context);
+        }
+    }
+
+    /**
+     * Checks if the provided protocol sends a batch of messages as a single request or delivery
+     * @param protocol the protocol to check
+     * @return true if the protocol is HTTPS, AMQPS or AMQPS_WS
+     */
+    private static boolean isBatchingSupported(IotHubClientProtocol protocol)
+    {
+        return protocol == IotHubClientProtocol.HTTPS
+                || protocol == IotHubClientProtocol.AMQPS
+                || protocol == IotHubClientProtocol.AMQPS_WS;
+    }
+
+    /**
+     * Executes the provided callback, passing it the message of a batch or the timings of the message if it accepts them
+     */
+    private static void executeCallback(IotHubEventCallback callback, Message message, IotHubStatusCode status, IotHubMessageTimings timings, Object context)
+    {
+        if (callback instanceof IotHubBatchEventCallback)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_051: [If the callback is a batch callback, it shall be executed with the
+            // message, the status and the context.]
+            ((IotHubBatchEventCallback) callback).execute(message, status, context);
+        }
+        else if (callback instanceof IotHubEventCallbackWithTimings)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_022: [If the callback accepts timings, it shall be executed with the status,
+            // the packet timings and the context.]
+            ((IotHubEventCallbackWithTimings) callback).execute(status, timings, context);
+        }
+        else
+        {
+            callback.execute(status, context);
+        }
+    }
+
+    /**
+     * Removes the retries and expiries this transport scheduled from the timer. A timer shared with other transports
+     * is not stopped: only the retries of this transport are cancelled, and its expiries are left to fire on packets
+     * that are no longer waiting.
+     * @return the timeouts removed from the timer
+     */
+    private Collection<HashedWheelTimer.Timeout> stopTimer()
+    {
+        if (this.timer == this.ownedTimer)
+        {
+            return this.timer.stop();
+        }
+
+        //Codes_SRS_IOTHUBTRANSPORT_41_036: [If the timer is shared, this function shall cancel the retries this
+        // transport scheduled on it instead of stopping it.]
+        Collection<HashedWheelTimer.Timeout> cancelledRetries = new ArrayList<>();
+        for (HashedWheelTimer.Timeout retryTimeout : this.sharedTimerRetries.values())
+        {
+            if (retryTimeout.cancel())
+            {
+                cancelledRetries.add(retryTimeout);
+            }
+        }
+        this.sharedTimerRetries.clear();
+
+        return cancelledRetries;
+    }
+
+    /**
+     * Creates the dispatcher for the callbacks of completed packets from the default config. Callbacks are invoked
+     * inline if no callback executor is configured.
+     */
+    private void createCallbackDispatcher()
+    {
+        ExecutorService callbackExecutor = this.defaultConfig.getCallbackExecutor();
+        int callbackThreadPoolSize = this.defaultConfig.getCallbackThreadPoolSize();
+
+        if (callbackExecutor != null)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_017: [This function shall dispatch callbacks to the executor supplied in the
+            // default config if any, or else to a new pool of the configured size if it is greater than 0, or else
+            // invoke them inline.]
+            this.callbackDispatcher = new OrderedCallbackDispatcher(callbackExecutor);
+        }
+        else if (callbackThreadPoolSize > 0 && this.defaultConfig.getClientRuntime() != null)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_037: [If the callbacks shall run on a pool and the default config has a
+            // client runtime, this function shall dispatch them to the worker executor of the runtime instead of
+            // creating a pool.]
+            this.callbackDispatcher = new OrderedCallbackDispatcher(this.defaultConfig.getClientRuntime().getWorkerExecutor());
+        }
+        else if (callbackThreadPoolSize > 0)
+        {
+            this.ownedCallbackExecutor = Executors.newFixedThreadPool(callbackThreadPoolSize);
+            this.callbackDispatcher = new OrderedCallbackDispatcher(this.ownedCallbackExecutor);
+        }
+        else
+        {
+            this.callbackDispatcher = null;
+        }
+    }
+
     /**
      * Task for adding a packet back to the waiting queue. Used for delaying message retry
      */
@@ -765,6 +1247,7 @@ public class IotHubTransport implements IotHubListener
     {
         final IotHubTransportPacket transportPacket;
         final Queue<IotHubTransportPacket> waitingPacketsQueue;
+        private volatile boolean hasRun;
 
         public MessageRetryRunnable(Queue<IotHubTransportPacket> waitingPacketsQueue, IotHubTransportPacket transportPacket)
         {
@@ -775,7 +1258,141 @@ public class IotHubTransport implements IotHubListener
         @Override
         public void run()
         {
+            this.hasRun = true;
+            sharedTimerRetries.remove(this);
             this.waitingPacketsQueue.add(this.transportPacket);
+            signalWorkAvailable();
+        }
+    }
+
+    /**
+     * Task forcing the writes of the persistent message store, which schedules itself again until the store is closed
+     */
+    private final class PersistentStoreSyncRunnable implements Runnable
+    {
+        private final PersistentMessageStore store;
+
+        private PersistentStoreSyncRunnable(PersistentMessageStore store)
+        {
+            this.store = store;
+        }
+
+        @Override
+        public void run()
+        {
+            if (persistentStore != this.store)
+            {
+                // the transport closed this store
+                return;
+            }
+
+            this.store.sync();
+            persistentStoreSyncTimeout = timer.schedule(this, PersistentMessageStore.PERIODIC_SYNC_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * Schedules the expiry of the provided packet if its message has an expiry time
+     * @param packet the packet waiting to be sent
+     */
+    private void scheduleExpiry(IotHubTransportPacket packet)
+    {
+        long expiryTime = packet.getMessage().getExpiryTime();
+        if (expiryTime != 0)
+        {
+            packet.setExpiryTimeout(this.timer.schedule(new MessageExpiryRunnable(packet), expiryTime - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Opens the persistent message store if the default config has a persistent queue directory, and queues the
+     * messages it recovered
+     * @throws TransportException if the persistent message store cannot be opened
+     */
+    private void openPersistentStore() throws TransportException
+    {
+        String directory = this.defaultConfig.getPersistentQueueDirectory();
+        if (directory == null)
+        {
+            return;
+        }
+
+        PersistentMessageStore persistentStore;
+        try
+        {
+            persistentStore = new PersistentMessageStore(new File(directory),
+                    this.defaultConfig.getPersistentQueueSyncPolicy(), PersistentMessageStore.DEFAULT_SEGMENT_SIZE);
+        }
+        catch (IOException e)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_030: [If the persistent message store cannot be opened, including because
+            // its directory is used by another client, this function shall throw a TransportException.]
+            throw new TransportException("Could not open the persistent queue in " + directory + ": " + e.getMessage(), e);
+        }
+        this.persistentStore = persistentStore;
+
+        if (this.defaultConfig.getPersistentQueueSyncPolicy() == PersistentQueueSyncPolicy.PERIODIC)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_050: [If the sync policy is PERIODIC, this function shall force the writes
+            // of the persistent message store on the timer every PERIODIC_SYNC_INTERVAL_MILLIS, so that the last
+            // messages of a burst are forced while the device is idle.]
+            this.persistentStoreSyncTimeout = this.timer.schedule(new PersistentStoreSyncRunnable(persistentStore),
+                    PersistentMessageStore.PERIODIC_SYNC_INTERVAL_MILLIS);
+        }
+
+        //Codes_SRS_IOTHUBTRANSPORT_41_031: [This function shall queue the recovered messages of the devices of this
+        // transport in order, without callback, ahead of any new message.]
+        for (PersistentMessageStore.StoredMessage storedMessage : persistentStore.getRecoveredMessages())
+        {
+            DeviceClientConfig config = null;
+            for (DeviceClientConfig deviceClientConfig : this.deviceClientConfigs)
+            {
+                if (deviceClientConfig.getDeviceId().equals(storedMessage.getDeviceId()))
+                {
+                    config = deviceClientConfig;
+                    break;
+                }
+            }
+
+            if (config == null && storedMessage.getDeviceId() != null)
+            {
+                // Left in the store until a client of that device opens this directory again
+                continue;
+            }
+
+            Message message = storedMessage.getMessage();
+            message.setIotHubConnectionString((config == null ? this.defaultConfig : config).getIotHubConnectionString());
+            IotHubTransportPacket packet = new IotHubTransportPacket(message, null, null, null, System.currentTimeMillis());
+            packet.setPersistentHandle(storedMessage.getHandle());
+            this.waitingPacketsQueue.add(packet);
+            this.scheduleExpiry(packet);
+        }
+    }
+
+    /**
+     * Task for completing a packet whose message expired while it was waiting to be sent
+     */
+    public class MessageExpiryRunnable implements Runnable
+    {
+        final IotHubTransportPacket transportPacket;
+
+        public MessageExpiryRunnable(IotHubTransportPacket transportPacket)
+        {
+            this.transportPacket = transportPacket;
+        }
+
+        @Override
+        public void run()
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_025: [When a message expires while its packet is in the waiting queue, the
+            // packet shall be removed from the waiting queue and added to the callback queue with status MESSAGE_EXPIRED.]
+            if (waitingPacketsQueue.remove(this.transportPacket))
+            {
+                logger.LogInfo("Creating a callback for the expired message with MESSAGE_EXPIRED status, method name is %s ",
+                        logger.getMethodName());
+                this.transportPacket.setStatus(IotHubStatusCode.MESSAGE_EXPIRED);
+                addToCallbackQueue(this.transportPacket);
+            }
         }
     }
 
@@ -787,6 +1404,9 @@ public class IotHubTransport implements IotHubListener
      */
     private void handleMessageException(IotHubTransportPacket packet, TransportException transportException)
     {
+        //Codes_SRS_IOTHUBTRANSPORT_41_042: [This function shall record the failure in the send window.]
+        this.sendWindow.onRejected();
+
         packet.incrementRetryAttempt();
         if (!this.hasOperationTimedOut(packet.getStartTimeMillis()) && transportException.isRetryable())
         {
@@ -796,7 +1416,17 @@ public class IotHubTransport implements IotHubListener
                 //Codes_SRS_IOTHUBTRANSPORT_34_063: [If the provided transportException is retryable, the packet has not
                 // timed out, and the retry policy allows, this function shall schedule a task to add the provided
                 // packet to the waiting list after the amount of time determined by the retry policy.]
-                this.taskScheduler.schedule(new MessageRetryRunnable(this.waitingPacketsQueue, packet), (long) retryDecision.getDuration(), MILLISECONDS);
+                MessageRetryRunnable retryTask = new MessageRetryRunnable(this.waitingPacketsQueue, packet);
+                HashedWheelTimer.Timeout retryTimeout = this.timer.schedule(retryTask, (long) retryDecision.getDuration());
+                if (this.timer != this.ownedTimer)
+                {
+                    this.sharedTimerRetries.put(retryTask, retryTimeout);
+                    if (retryTask.hasRun)
+                    {
+                        // The retry fired before it was tracked
+                        this.sharedTimerRetries.remove(retryTask);
+                    }
+                }
                 return;
             }
         }
@@ -812,8 +1442,9 @@ public class IotHubTransport implements IotHubListener
     /**
      * Sends a single packet over the iotHubTransportConnection and handles the response
      * @param packet the packet to send
+     * @return {@code false} if the connection had no free slot for the packet, which is put back in the waiting queue
      */
-    private void sendPacket(IotHubTransportPacket packet)
+    private boolean sendPacket(IotHubTransportPacket packet)
     {
         Message message = packet.getMessage();
 
@@ -831,6 +1462,10 @@ public class IotHubTransport implements IotHubListener
                 }
             }
 
+            //Codes_SRS_IOTHUBTRANSPORT_41_020: [This function shall record the send time and the connection identifier
+            // in the packet.]
+            packet.markSent(this.connectionId);
+
             //Codes_SRS_IOTHUBTRANSPORT_34_073: [This function shall send the provided message over the saved connection
             // and save the response code.]
             IotHubStatusCode statusCode = this.iotHubTransportConnection.sendMessage(message);
@@ -865,10 +1500,24 @@ public class IotHubTransport implements IotHubListener
                 outboundPacket = packet;
             }
 
+            if (transportException instanceof SendWindowFullException)
+            {
+                //Codes_SRS_IOTHUBTRANSPORT_41_048: [If the connection has no free slot to send the message, this
+                // function shall put the packet back at the head of the waiting queue, without counting a retry or
+                // recording a failure in the send window.]
+                if (outboundPacket != null)
+                {
+                    this.waitingPacketsQueue.offerFirst(outboundPacket);
+                }
+                return false;
+            }
+
             //Codes_SRS_IOTHUBTRANSPORT_34_076: [If an exception is encountered while sending the message, this function
             // shall invoke handleMessageException with that packet.]
             this.handleMessageException(outboundPacket, transportException);
         }
+
+        return true;
     }
 
     /**
@@ -934,6 +1583,10 @@ public class IotHubTransport implements IotHubListener
                 //Tests_SRS_IOTHUBTRANSPORT_28_007: [This function shall reset currentReconnectionAttempt and reconnectionAttemptStartTimeMillis if connection status is changed to CONNECTED.]
                 this.currentReconnectionAttempt = 0;
                 this.reconnectionAttemptStartTimeMillis = 0;
+
+                //Codes_SRS_IOTHUBTRANSPORT_41_008: [This function shall signal that there is work available if
+                // the connection status is changed to CONNECTED.]
+                this.signalWorkAvailable();
             }
         }
     }
@@ -1010,10 +1663,29 @@ public class IotHubTransport implements IotHubListener
      */
     private void addToCallbackQueue(IotHubTransportPacket packet)
     {
+        //Codes_SRS_IOTHUBTRANSPORT_41_021: [This function shall record the completion time in the packet.]
+        packet.markCompleted();
+
+        //Codes_SRS_IOTHUBTRANSPORT_41_026: [This function shall cancel the expiry timeout of the packet.]
+        packet.cancelExpiryTimeout();
+
+        PersistentMessageStore persistentStore = this.persistentStore;
+        if (persistentStore != null && packet.getPersistentHandle() != IotHubTransportPacket.NO_PERSISTENT_HANDLE
+                && packet.getStatus() != IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE)
+        {
+            //Codes_SRS_IOTHUBTRANSPORT_41_029: [This function shall remove the message of the packet from the
+            // persistent message store, unless it was cancelled on close.]
+            persistentStore.acknowledge(packet.getPersistentHandle());
+        }
+
         //Codes_SRS_IOTHUBTRANSPORT_28_002: [This function shall add the packet to the callback queue if it has a callback.]
         if (packet.getCallback() != null)
         {
             this.callbackPacketsQueue.add(packet);
+
+            //Codes_SRS_IOTHUBTRANSPORT_41_009: [This function shall signal that there is work available if the packet
+            // was added to the callback queue.]
+            this.signalWorkAvailable();
         }
     }
 
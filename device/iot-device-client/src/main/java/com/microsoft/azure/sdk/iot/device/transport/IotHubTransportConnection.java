@@ -59,4 +59,11 @@ public interface IotHubTransportConnection
      * @throws TransportException if an exception occurred while sending the acknowledgement
      */
     boolean sendMessageResult(Message message, IotHubMessageResult result) throws TransportException;
+
+    /**
+     * Returns how many more messages the connection can send now without queueing them in the protocol layer, such
+     * as the link credit granted by the service, or the free in flight slots of the protocol client
+     * @return the number of messages that can be sent now, or {@link Integer#MAX_VALUE} if the protocol has no window
+     */
+    int getSendWindow();
 }
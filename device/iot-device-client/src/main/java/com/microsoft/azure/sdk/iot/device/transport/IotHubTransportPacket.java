@@ -4,6 +4,7 @@
 package com.microsoft.azure.sdk.iot.device.transport;
 
 import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubMessageTimings;
 import com.microsoft.azure.sdk.iot.device.IotHubResponseCallback;
 import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
 import com.microsoft.azure.sdk.iot.device.Message;
@@ -12,8 +13,11 @@ import com.microsoft.azure.sdk.iot.device.Message;
  * A packet containing the data needed for an IoT Hub transport to send a
  * message.
  */
-public final class IotHubTransportPacket
+public final class IotHubTransportPacket implements IotHubMessageTimings
 {
+    /** The persistent handle of a packet whose message is not persisted. */
+    public static final long NO_PERSISTENT_HANDLE = -1;
+
     private Message message;
     private IotHubEventCallback eventCallback;
     private Object callbackContext;
@@ -21,6 +25,15 @@ public final class IotHubTransportPacket
     private final long startTimeMillis;
     private int currentRetryAttempt;
 
+    /* System.nanoTime() values of the lifecycle of the packet. 0 if not reached */
+    private final long enqueueTimeNanos;
+    private long firstSendTimeNanos;
+    private long lastSendTimeNanos;
+    private long completionTimeNanos;
+    private String connectionId;
+    private HashedWheelTimer.Timeout expiryTimeout;
+    private long persistentHandle = NO_PERSISTENT_HANDLE;
+
     /**
      * Constructor.
      *
@@ -56,6 +69,9 @@ public final class IotHubTransportPacket
         this.callbackContext = callbackContext;
         this.status = status;
         this.startTimeMillis = startTimeMillis;
+
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_001: [The constructor shall save the current System.nanoTime() as the enqueue time.]
+        this.enqueueTimeNanos = System.nanoTime();
     }
 
     /**
@@ -139,4 +155,124 @@ public final class IotHubTransportPacket
         // Codes_SRS_IOTHUBTRANSPORTPACKET_34_009: [This function shall increment the saved retry attempt count by 1.]
         this.currentRetryAttempt++;
     }
+
+    /**
+     * Records that this packet is being handed to a connection.
+     *
+     * @param connectionId the identifier of the connection sending this packet.
+     */
+    public void markSent(String connectionId)
+    {
+        long now = System.nanoTime();
+
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_002: [This function shall save the current System.nanoTime() as the last
+        // send time, and as the first send time if it was not saved yet.]
+        if (this.firstSendTimeNanos == 0)
+        {
+            this.firstSendTimeNanos = now;
+        }
+
+        this.lastSendTimeNanos = now;
+
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_003: [This function shall save the provided connection id.]
+        this.connectionId = connectionId;
+    }
+
+    /**
+     * Records that the final status of this packet is known.
+     */
+    public void markCompleted()
+    {
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_004: [This function shall save the current System.nanoTime() as the completion time.]
+        this.completionTimeNanos = System.nanoTime();
+    }
+
+    /**
+     * Saves the timeout that expires this packet, to be cancelled once the packet completes.
+     *
+     * @param expiryTimeout the expiry timeout of this packet.
+     */
+    public void setExpiryTimeout(HashedWheelTimer.Timeout expiryTimeout)
+    {
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_011: [This function shall save the provided expiry timeout.]
+        this.expiryTimeout = expiryTimeout;
+    }
+
+    /**
+     * Cancels the saved expiry timeout, if any.
+     */
+    public void cancelExpiryTimeout()
+    {
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_012: [This function shall cancel the saved expiry timeout if there is one.]
+        HashedWheelTimer.Timeout timeout = this.expiryTimeout;
+        if (timeout != null)
+        {
+            timeout.cancel();
+            this.expiryTimeout = null;
+        }
+    }
+
+    /**
+     * Getter for the handle of the message of this packet in the persistent message store.
+     *
+     * @return the persistent handle, or {@link #NO_PERSISTENT_HANDLE} if the message is not persisted.
+     */
+    public long getPersistentHandle()
+    {
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_013: [This function shall return the saved persistent handle.]
+        return this.persistentHandle;
+    }
+
+    /**
+     * Setter for the handle of the message of this packet in the persistent message store.
+     *
+     * @param persistentHandle the persistent handle.
+     */
+    public void setPersistentHandle(long persistentHandle)
+    {
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_014: [This function shall save the provided persistent handle.]
+        this.persistentHandle = persistentHandle;
+    }
+
+    @Override
+    public long getEnqueueTimeNanos()
+    {
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_005: [This function shall return the saved enqueue time.]
+        return this.enqueueTimeNanos;
+    }
+
+    @Override
+    public long getFirstSendTimeNanos()
+    {
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_006: [This function shall return the saved first send time.]
+        return this.firstSendTimeNanos;
+    }
+
+    @Override
+    public long getLastSendTimeNanos()
+    {
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_007: [This function shall return the saved last send time.]
+        return this.lastSendTimeNanos;
+    }
+
+    @Override
+    public long getCompletionTimeNanos()
+    {
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_008: [This function shall return the saved completion time.]
+        return this.completionTimeNanos;
+    }
+
+    @Override
+    public int getRetryCount()
+    {
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_009: [This function shall return the saved current retry attempt.]
+        return this.currentRetryAttempt;
+    }
+
+    @Override
+    public String getConnectionId()
+    {
+        // Codes_SRS_IOTHUBTRANSPORTPACKET_41_010: [This function shall return the saved connection id.]
+        return this.connectionId;
+    }
 }
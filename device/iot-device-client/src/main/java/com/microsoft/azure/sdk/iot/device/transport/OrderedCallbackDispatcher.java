@@ -0,0 +1,136 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks on an executor while preserving, for each key, the order in which the tasks were dispatched. Tasks with
+ * the same key never run concurrently; tasks with different keys may run in parallel on the executor's threads.
+ *
+ * Keys are compared by identity, so that user objects with unusual equals implementations cannot merge or split
+ * ordering groups. A {@code null} key is a valid key of its own.
+ */
+public final class OrderedCallbackDispatcher
+{
+    private static final Object NULL_KEY = new Object();
+
+    private final Executor executor;
+    private final Map<Object, Queue<Runnable>> pendingTasks = new IdentityHashMap<>();
+    private final Object pendingTasksLock = new Object();
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructor.
+     *
+     * @param executor the executor to run the tasks on.
+     * @throws IllegalArgumentException if executor is null.
+     */
+    public OrderedCallbackDispatcher(Executor executor) throws IllegalArgumentException
+    {
+        if (executor == null)
+        {
+            // Codes_SRS_ORDEREDCALLBACKDISPATCHER_41_001: [If the provided executor is null, the constructor shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+
+        // Codes_SRS_ORDEREDCALLBACKDISPATCHER_41_002: [The constructor shall save the executor.]
+        this.executor = executor;
+    }
+
+    /**
+     * Runs the provided task on the executor after all the tasks previously dispatched with the same key.
+     *
+     * @param key the key to order the task by. Can be {@code null}.
+     * @param task the task to run.
+     * @throws IllegalArgumentException if task is null.
+     */
+    public void dispatch(Object key, Runnable task) throws IllegalArgumentException
+    {
+        if (task == null)
+        {
+            // Codes_SRS_ORDEREDCALLBACKDISPATCHER_41_003: [If the provided task is null, this function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("task cannot be null");
+        }
+
+        final Object orderingKey = (key == null) ? NULL_KEY : key;
+
+        synchronized (this.pendingTasksLock)
+        {
+            Queue<Runnable> tasks = this.pendingTasks.get(orderingKey);
+            if (tasks != null)
+            {
+                // Codes_SRS_ORDEREDCALLBACKDISPATCHER_41_004: [If tasks with the same key are pending or running, this
+                // function shall queue the task behind them.]
+                tasks.add(task);
+                return;
+            }
+
+            tasks = new ArrayDeque<>();
+            tasks.add(task);
+            this.pendingTasks.put(orderingKey, tasks);
+        }
+
+        Runnable drainer = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drain(orderingKey);
+            }
+        };
+
+        try
+        {
+            // Codes_SRS_ORDEREDCALLBACKDISPATCHER_41_005: [Otherwise, this function shall submit a task to the executor
+            // that runs the tasks with this key in order, until there are none left.]
+            this.executor.execute(drainer);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // Codes_SRS_ORDEREDCALLBACKDISPATCHER_41_006: [If the executor rejects the task, this function shall run
+            // the tasks with this key on the calling thread.]
+            logger.LogDebug("Callback executor rejected the callbacks, running them on the calling thread", e);
+            drainer.run();
+        }
+    }
+
+    private void drain(Object orderingKey)
+    {
+        while (true)
+        {
+            Runnable task;
+            synchronized (this.pendingTasksLock)
+            {
+                Queue<Runnable> tasks = this.pendingTasks.get(orderingKey);
+                task = tasks.poll();
+                if (task == null)
+                {
+                    this.pendingTasks.remove(orderingKey);
+                    return;
+                }
+            }
+
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                // Codes_SRS_ORDEREDCALLBACKDISPATCHER_41_007: [An exception thrown by a task shall not prevent the
+                // following tasks with the same key from running.]
+                logger.LogError(t.toString() + ": " + t.getMessage());
+                logger.LogDebug("Exception in dispatched callback", t);
+            }
+        }
+    }
+}
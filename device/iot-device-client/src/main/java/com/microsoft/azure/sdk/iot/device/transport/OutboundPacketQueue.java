@@ -0,0 +1,559 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.BatchMessage;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessagePriority;
+import com.microsoft.azure.sdk.iot.device.MessageType;
+import com.microsoft.azure.sdk.iot.device.OutboundQueueFullPolicy;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of packets waiting to be sent, which keeps track of the number of packets and of the total size of their
+ * bodies so that new messages can be admitted against a capacity.
+ *
+ * Packets added through {@link #offer(IotHubTransportPacket)} are always accepted, since they are packets that were
+ * already admitted and are being queued again (retries, reconnection). Only new messages go through
+ * {@link #admit(IotHubTransportPacket, int, long, OutboundQueueFullPolicy, long, Collection)}.
+ *
+ * Packets are kept in one lane per {@link MessagePriority}, first in first out within a lane. By default a packet is
+ * always taken from the highest priority lane that is not empty; with {@link #setPriorityWeights(int[])}, the lanes
+ * are served in turn instead, each taking as many packets in a row as its weight. The capacity applies to all the
+ * lanes together.
+ *
+ * The iterator works on a snapshot of the queue, in lane order, and does not support removal.
+ */
+public final class OutboundPacketQueue extends AbstractQueue<IotHubTransportPacket>
+{
+    private static final int LANE_COUNT = MessagePriority.values().length;
+
+    private final ArrayDeque<Entry>[] lanes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private int size;
+    private long totalBytes;
+
+    /* null for strict priority */
+    private int[] priorityWeights;
+    private int currentLane;
+    private int remainingCredit;
+
+    private static final class Entry
+    {
+        final IotHubTransportPacket packet;
+        final long bytes;
+        final int lane;
+
+        Entry(IotHubTransportPacket packet)
+        {
+            this.packet = packet;
+            Message message = packet.getMessage();
+            this.bytes = bodySizeOf(message);
+            this.lane = laneOf(message);
+        }
+    }
+
+    /**
+     * Constructor. The queue starts with strict priority.
+     */
+    @SuppressWarnings("unchecked")
+    public OutboundPacketQueue()
+    {
+        this.lanes = new ArrayDeque[LANE_COUNT];
+        for (int i = 0; i < LANE_COUNT; i++)
+        {
+            this.lanes[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Sets how the priority lanes share the sending.
+     *
+     * @param priorityWeights the number of packets each lane sends in a row, indexed by {@link MessagePriority}
+     *                        ordinal, or {@code null} or an empty array for strict priority.
+     * @throws IllegalArgumentException if priorityWeights does not have a positive weight for each lane.
+     */
+    public void setPriorityWeights(int[] priorityWeights) throws IllegalArgumentException
+    {
+        if (priorityWeights != null && priorityWeights.length != 0)
+        {
+            if (priorityWeights.length != LANE_COUNT)
+            {
+                // Codes_SRS_OUTBOUNDPACKETQUEUE_41_012: [If the weights are neither null nor empty and do not have
+                // one positive weight per priority, this function shall throw an IllegalArgumentException.]
+                throw new IllegalArgumentException("priorityWeights must have one weight per priority");
+            }
+
+            for (int weight : priorityWeights)
+            {
+                if (weight < 1)
+                {
+                    throw new IllegalArgumentException("priorityWeights must be positive");
+                }
+            }
+        }
+
+        lock.lock();
+        try
+        {
+            // Codes_SRS_OUTBOUNDPACKETQUEUE_41_013: [This function shall save a copy of the weights, and use strict
+            // priority if they are null or empty.]
+            this.priorityWeights = (priorityWeights == null || priorityWeights.length == 0) ? null : priorityWeights.clone();
+            // the first turn goes to the highest priority lane
+            this.currentLane = LANE_COUNT - 1;
+            this.remainingCredit = 0;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a new packet to the queue if it fits within the provided capacity, applying the provided policy otherwise.
+     *
+     * @param packet the packet to add.
+     * @param maxMessages the maximum number of packets in the queue, or 0 for no limit.
+     * @param maxBytes the maximum total size of the message bodies in the queue, or 0 for no limit.
+     * @param policy what to do when the packet does not fit. {@code null} rejects the packet.
+     * @param blockTimeoutMillis how long to wait for room in the queue when the policy is
+     *                           {@link OutboundQueueFullPolicy#BLOCK}.
+     * @param droppedPackets collects the packets removed from the queue to make room for the new one. If the new
+     *                       packet was not admitted, it is not added to this collection.
+     * @return {@code true} if the packet was added to the queue, {@code false} otherwise.
+     * @throws InterruptedException if the thread is interrupted while waiting for room in the queue.
+     * @throws IllegalArgumentException if packet or droppedPackets is null.
+     */
+    public boolean admit(IotHubTransportPacket packet, int maxMessages, long maxBytes, OutboundQueueFullPolicy policy,
+                         long blockTimeoutMillis, Collection<IotHubTransportPacket> droppedPackets)
+            throws InterruptedException, IllegalArgumentException
+    {
+        if (packet == null || droppedPackets == null)
+        {
+            // Codes_SRS_OUTBOUNDPACKETQUEUE_41_001: [If the packet or the droppedPackets collection is null, this
+            // function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("packet and droppedPackets cannot be null");
+        }
+
+        Entry entry = new Entry(packet);
+
+        lock.lockInterruptibly();
+        try
+        {
+            if (this.hasRoomFor(entry, maxMessages, maxBytes))
+            {
+                // Codes_SRS_OUTBOUNDPACKETQUEUE_41_002: [If the packet fits within the provided capacity, this function
+                // shall add it to the queue and return true.]
+                this.addLast(entry);
+                return true;
+            }
+
+            if (policy == null)
+            {
+                policy = OutboundQueueFullPolicy.REJECT;
+            }
+
+            switch (policy)
+            {
+                case BLOCK:
+                {
+                    // Codes_SRS_OUTBOUNDPACKETQUEUE_41_003: [If the policy is BLOCK, this function shall wait up to
+                    // blockTimeoutMillis for room in the queue, and shall return false if there still is none.]
+                    long remainingNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+                    while (!this.hasRoomFor(entry, maxMessages, maxBytes))
+                    {
+                        if (remainingNanos <= 0 || this.size == 0)
+                        {
+                            return false;
+                        }
+
+                        remainingNanos = this.notFull.awaitNanos(remainingNanos);
+                    }
+
+                    this.addLast(entry);
+                    return true;
+                }
+                case DROP_EXPIRED_FIRST:
+                {
+                    // Codes_SRS_OUTBOUNDPACKETQUEUE_41_004: [If the policy is DROP_EXPIRED_FIRST, this function shall
+                    // remove expired packets from the queue, then the oldest packets, until the new packet fits.]
+                    for (int lane = LANE_COUNT - 1; lane >= 0 && !this.hasRoomFor(entry, maxMessages, maxBytes); lane--)
+                    {
+                        Iterator<Entry> iterator = this.lanes[lane].iterator();
+                        while (iterator.hasNext() && !this.hasRoomFor(entry, maxMessages, maxBytes))
+                        {
+                            Entry queued = iterator.next();
+                            if (queued.packet.getMessage() != null && queued.packet.getMessage().isExpired())
+                            {
+                                iterator.remove();
+                                this.size--;
+                                this.totalBytes -= queued.bytes;
+                                droppedPackets.add(queued.packet);
+                            }
+                        }
+                    }
+
+                    return this.dropOldestAndAdd(entry, maxMessages, maxBytes, droppedPackets);
+                }
+                case DROP_OLDEST:
+                {
+                    // Codes_SRS_OUTBOUNDPACKETQUEUE_41_005: [If the policy is DROP_OLDEST, this function shall remove
+                    // the oldest packets from the queue until the new packet fits, starting with the lowest priority
+                    // lane and never removing packets of a higher priority than the new packet.]
+                    return this.dropOldestAndAdd(entry, maxMessages, maxBytes, droppedPackets);
+                }
+                case REJECT:
+                default:
+                {
+                    // Codes_SRS_OUTBOUNDPACKETQUEUE_41_006: [If the policy is REJECT, this function shall return false.]
+                    return false;
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for the total size, in bytes, of the bodies of the messages in the queue.
+     *
+     * @return the total size of the queued message bodies.
+     */
+    public long getTotalBytes()
+    {
+        lock.lock();
+        try
+        {
+            // Codes_SRS_OUTBOUNDPACKETQUEUE_41_007: [This function shall return the total size of the bodies of the
+            // queued messages.]
+            return this.totalBytes;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(IotHubTransportPacket packet)
+    {
+        if (packet == null)
+        {
+            // Codes_SRS_OUTBOUNDPACKETQUEUE_41_008: [If the packet is null, this function shall throw a NullPointerException.]
+            throw new NullPointerException("packet cannot be null");
+        }
+
+        Entry entry = new Entry(packet);
+        lock.lock();
+        try
+        {
+            // Codes_SRS_OUTBOUNDPACKETQUEUE_41_009: [This function shall add the packet to the queue regardless of
+            // its capacity and return true.]
+            this.addLast(entry);
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts a packet taken from the queue back at the head of its lane, so that it is the next packet of that lane
+     * to be sent. Like {@link #offer(IotHubTransportPacket)}, this ignores the capacity of the queue.
+     *
+     * @param packet the packet to put back.
+     * @throws NullPointerException if packet is null.
+     */
+    public void offerFirst(IotHubTransportPacket packet)
+    {
+        if (packet == null)
+        {
+            // Codes_SRS_OUTBOUNDPACKETQUEUE_41_008: [If the packet is null, this function shall throw a NullPointerException.]
+            throw new NullPointerException("packet cannot be null");
+        }
+
+        Entry entry = new Entry(packet);
+        lock.lock();
+        try
+        {
+            // Codes_SRS_OUTBOUNDPACKETQUEUE_41_016: [This function shall add the packet at the head of its lane
+            // regardless of the capacity of the queue, and give back the turn it took from its lane.]
+            this.lanes[entry.lane].addFirst(entry);
+            this.size++;
+            this.totalBytes += entry.bytes;
+            if (this.priorityWeights != null && entry.lane == this.currentLane)
+            {
+                this.remainingCredit++;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public IotHubTransportPacket poll()
+    {
+        lock.lock();
+        try
+        {
+            // Codes_SRS_OUTBOUNDPACKETQUEUE_41_010: [This function shall remove and return the oldest packet of the
+            // next lane to serve, or return null if the queue is empty, and shall wake up callers waiting for room in
+            // the queue.]
+            int lane = this.nextLane();
+            if (lane < 0)
+            {
+                return null;
+            }
+
+            if (this.priorityWeights != null)
+            {
+                // Codes_SRS_OUTBOUNDPACKETQUEUE_41_014: [With weighted priority, each lane shall be served in turn for
+                // as many packets in a row as its weight, skipping empty lanes.]
+                if (lane != this.currentLane || this.remainingCredit == 0)
+                {
+                    this.currentLane = lane;
+                    this.remainingCredit = this.priorityWeights[lane];
+                }
+
+                this.remainingCredit--;
+            }
+
+            Entry entry = this.lanes[lane].pollFirst();
+            this.size--;
+            this.totalBytes -= entry.bytes;
+            this.notFull.signalAll();
+            return entry.packet;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object packet)
+    {
+        lock.lock();
+        try
+        {
+            // Codes_SRS_OUTBOUNDPACKETQUEUE_41_011: [This function shall remove the provided packet from the queue,
+            // compared by identity, and return true if it was queued, and shall wake up callers waiting for room in the queue.]
+            for (ArrayDeque<Entry> lane : this.lanes)
+            {
+                Iterator<Entry> iterator = lane.iterator();
+                while (iterator.hasNext())
+                {
+                    Entry entry = iterator.next();
+                    if (entry.packet == packet)
+                    {
+                        iterator.remove();
+                        this.size--;
+                        this.totalBytes -= entry.bytes;
+                        this.notFull.signalAll();
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public IotHubTransportPacket peek()
+    {
+        lock.lock();
+        try
+        {
+            int lane = this.nextLane();
+            return (lane < 0) ? null : this.lanes[lane].peekFirst().packet;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        lock.lock();
+        try
+        {
+            return this.size;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<IotHubTransportPacket> iterator()
+    {
+        List<IotHubTransportPacket> snapshot;
+        lock.lock();
+        try
+        {
+            snapshot = new ArrayList<>(this.size);
+            for (ArrayDeque<Entry> lane : this.lanes)
+            {
+                for (Entry entry : lane)
+                {
+                    snapshot.add(entry.packet);
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        final Iterator<IotHubTransportPacket> snapshotIterator = snapshot.iterator();
+        return new Iterator<IotHubTransportPacket>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return snapshotIterator.hasNext();
+            }
+
+            @Override
+            public IotHubTransportPacket next()
+            {
+                return snapshotIterator.next();
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException("Packets cannot be removed through the iterator");
+            }
+        };
+    }
+
+    private boolean hasRoomFor(Entry entry, int maxMessages, long maxBytes)
+    {
+        return (maxMessages <= 0 || this.size < maxMessages)
+                && (maxBytes <= 0 || this.totalBytes + entry.bytes <= maxBytes);
+    }
+
+    private boolean dropOldestAndAdd(Entry entry, int maxMessages, long maxBytes, Collection<IotHubTransportPacket> droppedPackets)
+    {
+        for (int lane = LANE_COUNT - 1; lane >= entry.lane && !this.hasRoomFor(entry, maxMessages, maxBytes); lane--)
+        {
+            while (!this.hasRoomFor(entry, maxMessages, maxBytes) && !this.lanes[lane].isEmpty())
+            {
+                Entry oldest = this.lanes[lane].pollFirst();
+                this.size--;
+                this.totalBytes -= oldest.bytes;
+                droppedPackets.add(oldest.packet);
+            }
+        }
+
+        if (!this.hasRoomFor(entry, maxMessages, maxBytes))
+        {
+            // the packet alone is larger than the capacity, or the rest of the queue has a higher priority
+            return false;
+        }
+
+        this.addLast(entry);
+        return true;
+    }
+
+    private void addLast(Entry entry)
+    {
+        this.lanes[entry.lane].addLast(entry);
+        this.size++;
+        this.totalBytes += entry.bytes;
+    }
+
+    // Returns the lane the next packet is taken from, or -1 if the queue is empty
+    private int nextLane()
+    {
+        if (this.priorityWeights == null)
+        {
+            for (int lane = 0; lane < LANE_COUNT; lane++)
+            {
+                if (!this.lanes[lane].isEmpty())
+                {
+                    return lane;
+                }
+            }
+
+            return -1;
+        }
+
+        int start = (this.remainingCredit > 0) ? this.currentLane : this.currentLane + 1;
+        for (int i = 0; i < LANE_COUNT; i++)
+        {
+            int lane = (start + i) % LANE_COUNT;
+            if (!this.lanes[lane].isEmpty())
+            {
+                return lane;
+            }
+        }
+
+        return -1;
+    }
+
+    private static long bodySizeOf(Message message)
+    {
+        if (message instanceof BatchMessage)
+        {
+            //Codes_SRS_OUTBOUNDPACKETQUEUE_41_015: [The size of a batch shall be the total size of the bodies of its messages.]
+            long size = 0;
+            for (Message nestedMessage : ((BatchMessage) message).getNestedMessages())
+            {
+                size += bodySizeOf(nestedMessage);
+            }
+            return size;
+        }
+
+        // Read the size from the body buffer, so that a body sharing part of a buffer is not copied when queued
+        ByteBuffer body = message == null ? null : message.getBodyBuffer();
+        return (body == null) ? 0 : body.remaining();
+    }
+
+    private static int laneOf(Message message)
+    {
+        if (message == null)
+        {
+            return MessagePriority.NORMAL.ordinal();
+        }
+
+        if (message.getPriority() != null)
+        {
+            return message.getPriority().ordinal();
+        }
+
+        MessageType messageType = message.getMessageType();
+        if (messageType == MessageType.DEVICE_TWIN || messageType == MessageType.DEVICE_METHODS)
+        {
+            return MessagePriority.HIGH.ordinal();
+        }
+
+        return MessagePriority.NORMAL.ordinal();
+    }
+}
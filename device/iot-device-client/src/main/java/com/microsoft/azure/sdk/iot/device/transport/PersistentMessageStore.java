@@ -0,0 +1,724 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageDeliveryMode;
+import com.microsoft.azure.sdk.iot.device.MessagePriority;
+import com.microsoft.azure.sdk.iot.device.MessageProperty;
+import com.microsoft.azure.sdk.iot.device.MessageType;
+import com.microsoft.azure.sdk.iot.device.PersistentQueueSyncPolicy;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Durable store for outgoing messages, so that messages not yet acknowledged by the service survive a restart of the
+ * process.
+ *
+ * Messages are appended to a log split into fixed size segment files, which are memory mapped so that an append is a
+ * sequential memory copy. Each record is {@code [state][length][crc32][payload]}; the state byte is written last, so a
+ * record torn by a crash is ignored on recovery. Acknowledging a message marks its record in place, and a segment file
+ * is deleted once all its records are acknowledged.
+ *
+ * When and how often writes are forced to the device is set by the {@link PersistentQueueSyncPolicy}. Under
+ * {@link PersistentQueueSyncPolicy#PERIODIC}, the owner of the store calls {@link #sync()} every
+ * {@link #PERIODIC_SYNC_INTERVAL_MILLIS}, so that the last writes of a burst are forced even if no write follows.
+ *
+ * A directory holds the store of a single client: the store locks the directory while it is open, and fails to open
+ * on a directory already locked by another store, in this process or in another one.
+ */
+public final class PersistentMessageStore implements Closeable
+{
+    /** The default size of a segment file, which is also the maximum size of a stored message. */
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    /** How often the writes are forced under {@link PersistentQueueSyncPolicy#PERIODIC}. */
+    public static final long PERIODIC_SYNC_INTERVAL_MILLIS = 1000;
+
+    private static final String SEGMENT_FILE_SUFFIX = ".seg";
+    private static final String LOCK_FILE_NAME = "store.lock";
+
+    // A zero state byte marks the end of the written records, since segment files are created zero filled
+    private static final byte STATE_PENDING = 1;
+    private static final byte STATE_ACKNOWLEDGED = 2;
+    private static final int HEADER_SIZE = 9;
+
+    // Version 1 records lack the to, user id, delivery acknowledgement, priority and delivery mode of the message
+    private static final byte FORMAT_VERSION_1 = 1;
+    private static final byte FORMAT_VERSION = 2;
+
+    private final File directory;
+    private final PersistentQueueSyncPolicy syncPolicy;
+    private final int segmentSize;
+
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final List<StoredMessage> recoveredMessages = new ArrayList<>();
+    private Segment activeSegment;
+    private int nextSegmentIndex;
+    private long lastSyncMillis;
+    private boolean isClosed;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * A message recovered from the store.
+     */
+    public static final class StoredMessage
+    {
+        private final long handle;
+        private final String deviceId;
+        private final Message message;
+
+        private StoredMessage(long handle, String deviceId, Message message)
+        {
+            this.handle = handle;
+            this.deviceId = deviceId;
+            this.message = message;
+        }
+
+        /**
+         * @return the handle to acknowledge the message with.
+         */
+        public long getHandle()
+        {
+            return this.handle;
+        }
+
+        /**
+         * @return the id of the device that sent the message, or {@code null} if it was not known.
+         */
+        public String getDeviceId()
+        {
+            return this.deviceId;
+        }
+
+        /**
+         * @return the recovered message.
+         */
+        public Message getMessage()
+        {
+            return this.message;
+        }
+    }
+
+    private static final class Segment
+    {
+        final int index;
+        final File file;
+        final RandomAccessFile randomAccessFile;
+        final MappedByteBuffer buffer;
+        int writePosition;
+        int pendingCount;
+        boolean hasUnsyncedWrites;
+
+        Segment(int index, File file, int size) throws IOException
+        {
+            this.index = index;
+            this.file = file;
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            try
+            {
+                if (this.randomAccessFile.length() < size)
+                {
+                    this.randomAccessFile.setLength(size);
+                }
+
+                this.buffer = this.randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.randomAccessFile.length());
+            }
+            catch (IOException e)
+            {
+                this.randomAccessFile.close();
+                throw e;
+            }
+        }
+
+        void close()
+        {
+            try
+            {
+                this.randomAccessFile.close();
+            }
+            catch (IOException e)
+            {
+                // nothing more can be done with this segment
+            }
+        }
+    }
+
+    /**
+     * Opens the store in the provided directory, creating the directory if needed, and recovers the messages that were
+     * not acknowledged.
+     *
+     * @param directory the directory holding the segment files.
+     * @param syncPolicy when writes are forced to the storage device.
+     * @param segmentSize the size of a segment file, which is also the maximum size of a stored message.
+     * @throws IOException if the directory or a segment file cannot be opened, or if the directory is locked by
+     * another store.
+     * @throws IllegalArgumentException if directory or syncPolicy is null, or segmentSize is too small.
+     */
+    public PersistentMessageStore(File directory, PersistentQueueSyncPolicy syncPolicy, int segmentSize)
+            throws IOException, IllegalArgumentException
+    {
+        if (directory == null || syncPolicy == null || segmentSize <= HEADER_SIZE)
+        {
+            // Codes_SRS_PERSISTENTMESSAGESTORE_41_001: [If directory or syncPolicy is null, or segmentSize is not larger
+            // than a record header, the constructor shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("directory and syncPolicy cannot be null, and segmentSize must be larger than " + HEADER_SIZE);
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            // Codes_SRS_PERSISTENTMESSAGESTORE_41_002: [If the directory does not exist and cannot be created, the
+            // constructor shall throw an IOException.]
+            throw new IOException("Could not create the directory " + directory);
+        }
+
+        this.directory = directory;
+        this.syncPolicy = syncPolicy;
+        this.segmentSize = segmentSize;
+
+        // Codes_SRS_PERSISTENTMESSAGESTORE_41_014: [If the directory is locked by another store, in this process or
+        // in another one, the constructor shall throw an IOException.]
+        this.lockFile = new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw");
+        FileLock lock;
+        try
+        {
+            lock = this.lockFile.getChannel().tryLock();
+        }
+        catch (OverlappingFileLockException e)
+        {
+            lock = null;
+        }
+        catch (IOException e)
+        {
+            this.lockFile.close();
+            throw e;
+        }
+
+        if (lock == null)
+        {
+            this.lockFile.close();
+            throw new IOException("The persistent queue directory " + directory + " is already used by another client");
+        }
+        this.lock = lock;
+
+        try
+        {
+            // Codes_SRS_PERSISTENTMESSAGESTORE_41_003: [The constructor shall read the segment files of the directory
+            // in order and recover the messages that were not acknowledged, ignoring a torn last record.]
+            this.recover();
+        }
+        catch (IOException e)
+        {
+            this.closeSegments();
+            this.releaseLock();
+            throw e;
+        }
+
+        this.lastSyncMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Getter for the messages that were not acknowledged when the store was opened, in the order they were appended.
+     *
+     * @return the recovered messages.
+     */
+    public synchronized List<StoredMessage> getRecoveredMessages()
+    {
+        // Codes_SRS_PERSISTENTMESSAGESTORE_41_004: [This function shall return the recovered messages in the order
+        // they were appended.]
+        return new ArrayList<>(this.recoveredMessages);
+    }
+
+    /**
+     * Appends a message to the store.
+     *
+     * @param message the message to store.
+     * @param deviceId the id of the device sending the message. Can be {@code null}.
+     * @return the handle to acknowledge the message with.
+     * @throws IOException if the message cannot be written, or is larger than a segment.
+     * @throws IllegalArgumentException if message is null.
+     */
+    public synchronized long append(Message message, String deviceId) throws IOException, IllegalArgumentException
+    {
+        if (message == null)
+        {
+            // Codes_SRS_PERSISTENTMESSAGESTORE_41_005: [If the message is null, this function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("message cannot be null");
+        }
+
+        if (this.isClosed)
+        {
+            // Codes_SRS_PERSISTENTMESSAGESTORE_41_006: [If the store is closed, this function shall throw an IOException.]
+            throw new IOException("The persistent message store is closed");
+        }
+
+        byte[] payload = encode(message, deviceId);
+        int recordSize = HEADER_SIZE + payload.length;
+        if (recordSize > this.segmentSize)
+        {
+            // Codes_SRS_PERSISTENTMESSAGESTORE_41_007: [If the message does not fit in a segment, this function shall
+            // throw an IOException.]
+            throw new IOException("The message is too large for the persistent message store");
+        }
+
+        if (this.activeSegment == null || this.activeSegment.writePosition + recordSize > this.activeSegment.buffer.capacity())
+        {
+            // Codes_SRS_PERSISTENTMESSAGESTORE_41_008: [If the message does not fit in the active segment, this
+            // function shall start a new segment file.]
+            this.rollSegment();
+        }
+
+        // Codes_SRS_PERSISTENTMESSAGESTORE_41_009: [This function shall write the record at the end of the active
+        // segment, writing its state last, and return its handle.]
+        Segment segment = this.activeSegment;
+        int position = segment.writePosition;
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        segment.buffer.putInt(position + 1, payload.length);
+        segment.buffer.putInt(position + 5, (int) crc.getValue());
+        ByteBuffer payloadView = segment.buffer.duplicate();
+        payloadView.position(position + HEADER_SIZE);
+        payloadView.put(payload);
+        segment.buffer.put(position, STATE_PENDING);
+
+        segment.writePosition = position + recordSize;
+        segment.pendingCount++;
+
+        this.syncIfNeeded(segment);
+
+        return toHandle(segment.index, position);
+    }
+
+    /**
+     * Marks a stored message as acknowledged, so that it is not recovered anymore. Segment files whose messages are all
+     * acknowledged are deleted.
+     *
+     * @param handle the handle returned when the message was appended or recovered.
+     */
+    public synchronized void acknowledge(long handle)
+    {
+        if (this.isClosed || handle < 0)
+        {
+            return;
+        }
+
+        Segment segment = this.segments.get(segmentIndexOf(handle));
+        int position = positionOf(handle);
+        if (segment == null || position + HEADER_SIZE > segment.buffer.capacity() || segment.buffer.get(position) != STATE_PENDING)
+        {
+            // Codes_SRS_PERSISTENTMESSAGESTORE_41_010: [If the handle does not designate a pending message, this
+            // function shall do nothing.]
+            return;
+        }
+
+        // Codes_SRS_PERSISTENTMESSAGESTORE_41_011: [This function shall mark the record as acknowledged in place.]
+        segment.buffer.put(position, STATE_ACKNOWLEDGED);
+        segment.pendingCount--;
+
+        if (segment.pendingCount == 0 && segment != this.activeSegment)
+        {
+            // Codes_SRS_PERSISTENTMESSAGESTORE_41_012: [If all the records of a segment other than the active one are
+            // acknowledged, this function shall delete the segment file.]
+            this.deleteSegment(segment);
+        }
+        else
+        {
+            this.syncIfNeeded(segment);
+        }
+    }
+
+    /**
+     * Forces the writes made since the last sync to the storage device, unless the sync policy is
+     * {@link PersistentQueueSyncPolicy#NONE}.
+     */
+    public synchronized void sync()
+    {
+        if (this.isClosed || this.syncPolicy == PersistentQueueSyncPolicy.NONE)
+        {
+            return;
+        }
+
+        // Codes_SRS_PERSISTENTMESSAGESTORE_41_015: [This function shall force the segments written since their last
+        // sync, unless the sync policy is NONE.]
+        for (Segment segment : this.segments.values())
+        {
+            if (segment.hasUnsyncedWrites)
+            {
+                segment.buffer.force();
+                segment.hasUnsyncedWrites = false;
+            }
+        }
+
+        this.lastSyncMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Closes the store, forcing its writes to the storage device unless the sync policy is
+     * {@link PersistentQueueSyncPolicy#NONE}. Messages that were not acknowledged are recovered when the store is
+     * opened again.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (this.isClosed)
+        {
+            return;
+        }
+
+        // Codes_SRS_PERSISTENTMESSAGESTORE_41_013: [This function shall force the writes unless the sync policy is
+        // NONE, and release the segment files and the lock of the directory.]
+        if (this.syncPolicy != PersistentQueueSyncPolicy.NONE)
+        {
+            for (Segment segment : this.segments.values())
+            {
+                segment.buffer.force();
+            }
+        }
+
+        this.closeSegments();
+        this.releaseLock();
+        this.isClosed = true;
+    }
+
+    private void recover() throws IOException
+    {
+        File[] files = this.directory.listFiles();
+        SortedMap<Integer, File> segmentFiles = new TreeMap<>();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                String name = file.getName();
+                if (file.isFile() && name.endsWith(SEGMENT_FILE_SUFFIX))
+                {
+                    try
+                    {
+                        segmentFiles.put(Integer.parseInt(name.substring(0, name.length() - SEGMENT_FILE_SUFFIX.length())), file);
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        logger.LogWarn("Ignoring unexpected file %s in the persistent message store, method name is %s ", name, logger.getMethodName());
+                    }
+                }
+            }
+        }
+
+        // Segment files are never reused, since a file that could not be deleted may still hold old records
+        this.nextSegmentIndex = segmentFiles.isEmpty() ? 0 : segmentFiles.lastKey() + 1;
+
+        for (Map.Entry<Integer, File> entry : segmentFiles.entrySet())
+        {
+            Segment segment = new Segment(entry.getKey(), entry.getValue(), this.segmentSize);
+            this.recoverSegment(segment);
+
+            if (segment.pendingCount == 0)
+            {
+                this.deleteSegment(segment);
+            }
+            else
+            {
+                this.segments.put(segment.index, segment);
+            }
+        }
+
+        // New messages go to a new segment, so that segments recovered from disk can be deleted once acknowledged and
+        // so that nothing is written after a torn record
+        this.activeSegment = null;
+    }
+
+    private void recoverSegment(Segment segment)
+    {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.capacity())
+        {
+            byte state = buffer.get(position);
+            if (state != STATE_PENDING && state != STATE_ACKNOWLEDGED)
+            {
+                break;
+            }
+
+            int length = buffer.getInt(position + 1);
+            if (length < 0 || length > buffer.capacity() - position - HEADER_SIZE)
+            {
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            ByteBuffer payloadView = buffer.duplicate();
+            payloadView.position(position + HEADER_SIZE);
+            payloadView.get(payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + 5))
+            {
+                break;
+            }
+
+            if (state == STATE_PENDING)
+            {
+                try
+                {
+                    this.recoveredMessages.add(decode(toHandle(segment.index, position), payload));
+                    segment.pendingCount++;
+                }
+                catch (IOException | IllegalArgumentException e)
+                {
+                    logger.LogWarn("Dropping unreadable record from the persistent message store, method name is %s ", logger.getMethodName());
+                    buffer.put(position, STATE_ACKNOWLEDGED);
+                }
+            }
+
+            position += HEADER_SIZE + length;
+        }
+
+        segment.writePosition = position;
+    }
+
+    private void rollSegment() throws IOException
+    {
+        Segment previous = this.activeSegment;
+        int index = this.nextSegmentIndex++;
+        Segment segment = new Segment(index, new File(this.directory, String.format("%010d%s", index, SEGMENT_FILE_SUFFIX)), this.segmentSize);
+        this.segments.put(index, segment);
+        this.activeSegment = segment;
+
+        if (previous != null)
+        {
+            if (previous.pendingCount == 0)
+            {
+                this.deleteSegment(previous);
+            }
+            else if (this.syncPolicy != PersistentQueueSyncPolicy.NONE)
+            {
+                previous.buffer.force();
+                previous.hasUnsyncedWrites = false;
+            }
+        }
+    }
+
+    private void deleteSegment(Segment segment)
+    {
+        this.segments.remove(segment.index);
+        segment.close();
+
+        // The file may still be mapped until the buffer is garbage collected. On systems that do not allow deleting a
+        // mapped file, the file is left behind with all its records acknowledged and deleted on the next recovery.
+        if (!segment.file.delete())
+        {
+            logger.LogDebug("Could not delete persistent message store segment %s, method name is %s ", segment.file.getName(), logger.getMethodName());
+        }
+    }
+
+    private void syncIfNeeded(Segment segment)
+    {
+        if (this.syncPolicy == PersistentQueueSyncPolicy.ALWAYS)
+        {
+            segment.buffer.force();
+        }
+        else if (this.syncPolicy == PersistentQueueSyncPolicy.PERIODIC)
+        {
+            segment.hasUnsyncedWrites = true;
+            if (System.currentTimeMillis() - this.lastSyncMillis >= PERIODIC_SYNC_INTERVAL_MILLIS)
+            {
+                this.sync();
+            }
+        }
+    }
+
+    private void releaseLock()
+    {
+        try
+        {
+            this.lock.release();
+        }
+        catch (IOException e)
+        {
+            // the lock is released anyway when its file is closed
+        }
+
+        try
+        {
+            this.lockFile.close();
+        }
+        catch (IOException e)
+        {
+            logger.LogDebug("Could not close the lock file of the persistent message store, method name is %s ", logger.getMethodName());
+        }
+    }
+
+    private void closeSegments()
+    {
+        for (Segment segment : this.segments.values())
+        {
+            segment.close();
+        }
+
+        this.segments.clear();
+        this.activeSegment = null;
+    }
+
+    private static long toHandle(int segmentIndex, int position)
+    {
+        return ((long) segmentIndex << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    private static int segmentIndexOf(long handle)
+    {
+        return (int) (handle >>> 32);
+    }
+
+    private static int positionOf(long handle)
+    {
+        return (int) handle;
+    }
+
+    private static byte[] encode(Message message, String deviceId) throws IOException
+    {
+        byte[] body = message.getBytes();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + (body == null ? 0 : body.length));
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeByte(FORMAT_VERSION);
+        writeNullableString(output, deviceId);
+        writeNullableString(output, message.getMessageId());
+        writeNullableString(output, message.getCorrelationId());
+        output.writeLong(message.getExpiryTime());
+        writeNullableString(output, message.getMessageType() == null ? null : message.getMessageType().name());
+        writeNullableString(output, message.getTo());
+        writeNullableString(output, message.getUserId());
+        writeNullableString(output, message.getDeliveryAcknowledgement());
+        writeNullableString(output, message.getPriority() == null ? null : message.getPriority().name());
+        writeNullableString(output, message.getDeliveryMode() == null ? null : message.getDeliveryMode().name());
+
+        MessageProperty[] properties = message.getProperties();
+        output.writeInt(properties.length);
+        for (MessageProperty property : properties)
+        {
+            output.writeUTF(property.getName());
+            output.writeUTF(property.getValue());
+        }
+
+        if (body == null)
+        {
+            output.writeInt(-1);
+        }
+        else
+        {
+            output.writeInt(body.length);
+            output.write(body);
+        }
+
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static StoredMessage decode(long handle, byte[] payload) throws IOException
+    {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+
+        byte version = input.readByte();
+        if (version != FORMAT_VERSION && version != FORMAT_VERSION_1)
+        {
+            throw new IOException("Unknown record format");
+        }
+
+        String deviceId = readNullableString(input);
+        String messageId = readNullableString(input);
+        String correlationId = readNullableString(input);
+        long expiryTime = input.readLong();
+        String messageType = readNullableString(input);
+        String to = null;
+        String userId = null;
+        String deliveryAcknowledgement = null;
+        String priority = null;
+        String deliveryMode = null;
+        if (version != FORMAT_VERSION_1)
+        {
+            to = readNullableString(input);
+            userId = readNullableString(input);
+            deliveryAcknowledgement = readNullableString(input);
+            priority = readNullableString(input);
+            deliveryMode = readNullableString(input);
+        }
+
+        int propertyCount = input.readInt();
+        String[] propertyNames = new String[propertyCount];
+        String[] propertyValues = new String[propertyCount];
+        for (int i = 0; i < propertyCount; i++)
+        {
+            propertyNames[i] = input.readUTF();
+            propertyValues[i] = input.readUTF();
+        }
+
+        int bodyLength = input.readInt();
+        Message message;
+        if (bodyLength < 0)
+        {
+            message = new Message();
+        }
+        else
+        {
+            byte[] body = new byte[bodyLength];
+            input.readFully(body);
+            message = new Message(body);
+        }
+
+        message.setMessageId(messageId);
+        message.setCorrelationId(correlationId);
+        if (expiryTime != 0)
+        {
+            message.setAbsoluteExpiryTime(expiryTime);
+        }
+        if (messageType != null)
+        {
+            message.setMessageType(MessageType.valueOf(messageType));
+        }
+        message.setTo(to);
+        message.setUserId(userId);
+        message.setDeliveryAcknowledgement(deliveryAcknowledgement);
+        if (priority != null)
+        {
+            message.setPriority(MessagePriority.valueOf(priority));
+        }
+        if (deliveryMode != null)
+        {
+            message.setDeliveryMode(MessageDeliveryMode.valueOf(deliveryMode));
+        }
+        for (int i = 0; i < propertyCount; i++)
+        {
+            message.setProperty(propertyNames[i], propertyValues[i]);
+        }
+
+        return new StoredMessage(handle, deviceId, message);
+    }
+
+    private static void writeNullableString(DataOutputStream output, String value) throws IOException
+    {
+        output.writeBoolean(value != null);
+        if (value != null)
+        {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream input) throws IOException
+    {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+}
@@ -0,0 +1,126 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+/**
+ * Decides how many messages the transport hands to its connection at a time, so that fast links are kept busy and
+ * slow links do not build a queue in the protocol layer.
+ *
+ * The window limits the number of messages sent but not acknowledged yet. It grows by one message for each message
+ * acknowledged about as fast as the fastest acknowledgement seen, which doubles it every round trip while the link
+ * keeps up. Once acknowledgements slow down, messages are queuing somewhere on the way, and the window shrinks by a
+ * quarter; if messages are rejected, by half. It shrinks at most once per window of acknowledgements, so that one
+ * congested round trip only counts once. The window never exceeds the ceiling, nor goes under one message.
+ */
+public final class SendWindow
+{
+    /* The window before any acknowledgement, which is the number of messages the transport used to send per tick */
+    static final int INITIAL_LIMIT = 10;
+
+    /* Acknowledgements slower than this many times the fastest one mean that the link is congested */
+    private static final int LATENCY_TOLERANCE = 2;
+    private static final double CONGESTION_DECREASE_FACTOR = 0.75;
+    private static final double REJECTION_DECREASE_FACTOR = 0.5;
+
+    /* The fastest acknowledgement is forgotten every this many acknowledgements, to follow route changes */
+    private static final int MIN_LATENCY_SAMPLES = 1000;
+
+    private double limit = INITIAL_LIMIT;
+    private int ceiling = Integer.MAX_VALUE;
+    private long minLatencyNanos = Long.MAX_VALUE;
+    private int latencySamples;
+    private int acksSinceDecrease = INITIAL_LIMIT;
+
+    /**
+     * Returns how many messages can be sent now.
+     *
+     * @param ceiling the maximum number of messages in flight. Values under 1 count as 1.
+     * @param inFlightCount the number of messages sent and not acknowledged yet.
+     * @param transportWindow the number of messages the connection can take now without queueing them, such as the
+     *                        AMQP link credit or the free MQTT in flight slots.
+     * @return the number of messages to send, 0 if the window is full.
+     */
+    public synchronized int getBudget(int ceiling, int inFlightCount, int transportWindow)
+    {
+        // Codes_SRS_SENDWINDOW_41_001: [This function shall cap the window to the provided ceiling, or to 1 if the
+        // ceiling is lower.]
+        this.ceiling = Math.max(1, ceiling);
+        this.limit = Math.min(this.limit, this.ceiling);
+
+        // Codes_SRS_SENDWINDOW_41_002: [This function shall return the room left in the window once the in flight
+        // messages are counted, bounded by the transport window, and never negative.]
+        return Math.max(0, Math.min((int) this.limit - inFlightCount, transportWindow));
+    }
+
+    /**
+     * Records that a message was acknowledged.
+     *
+     * @param latencyNanos the time between sending the message and receiving its acknowledgement.
+     */
+    public synchronized void onAcknowledged(long latencyNanos)
+    {
+        if (this.latencySamples++ >= MIN_LATENCY_SAMPLES)
+        {
+            this.latencySamples = 0;
+            this.minLatencyNanos = Long.MAX_VALUE;
+        }
+
+        this.minLatencyNanos = Math.min(this.minLatencyNanos, Math.max(0, latencyNanos));
+
+        if (latencyNanos <= this.minLatencyNanos * LATENCY_TOLERANCE)
+        {
+            // Codes_SRS_SENDWINDOW_41_003: [If the latency is at most twice the lowest latency seen, this function
+            // shall grow the window by one message, up to the ceiling.]
+            this.limit = Math.min(this.limit + 1, this.ceiling);
+            this.countAcknowledgement();
+        }
+        else
+        {
+            // Codes_SRS_SENDWINDOW_41_004: [Otherwise this function shall shrink the window by a quarter, unless it
+            // already shrank during the last window of acknowledgements.]
+            this.decrease(CONGESTION_DECREASE_FACTOR);
+        }
+    }
+
+    /**
+     * Records that a message was rejected or throttled by the service, or failed in the connection.
+     */
+    public synchronized void onRejected()
+    {
+        // Codes_SRS_SENDWINDOW_41_005: [This function shall halve the window, unless it already shrank during the
+        // last window of acknowledgements.]
+        this.decrease(REJECTION_DECREASE_FACTOR);
+    }
+
+    /**
+     * Getter for the number of messages that can be in flight at the same time.
+     *
+     * @return the current window.
+     */
+    public synchronized int getLimit()
+    {
+        return (int) this.limit;
+    }
+
+    private void decrease(double factor)
+    {
+        if (this.acksSinceDecrease >= (int) this.limit)
+        {
+            this.limit = Math.max(1, this.limit * factor);
+            this.acksSinceDecrease = 0;
+        }
+        else
+        {
+            this.countAcknowledgement();
+        }
+    }
+
+    private void countAcknowledgement()
+    {
+        if (this.acksSinceDecrease < Integer.MAX_VALUE)
+        {
+            this.acksSinceDecrease++;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+
+import java.nio.BufferOverflowException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Proton message in the AMQP batched message format: the envelope sections of the batch followed by one Data section
+ * per message, each holding the AMQP encoding of that message. The delivery carrying it must have the message format
+ * {@link #BATCH_MESSAGE_FORMAT}.
+ */
+final class AmqpsBatchMessage extends MessageImpl
+{
+    static final int BATCH_MESSAGE_FORMAT = 0x80013700;
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final List<MessageImpl> dataSections = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param messages the Proton messages of the batch, in order.
+     */
+    AmqpsBatchMessage(List<MessageImpl> messages)
+    {
+        for (MessageImpl message : messages)
+        {
+            // Codes_SRS_AMQPSBATCHMESSAGE_41_001: [The constructor shall encode each message into a Data section.]
+            MessageImpl dataSection = new MessageImpl();
+            dataSection.setBody(new Data(new Binary(encode(message))));
+            this.dataSections.add(dataSection);
+        }
+    }
+
+    /**
+     * Encodes the envelope of the batch followed by the Data sections of its messages.
+     *
+     * @throws BufferOverflowException if the batch does not fit in the provided length.
+     */
+    @Override
+    public int encode(byte[] data, int offset, int length) throws BufferOverflowException
+    {
+        // Codes_SRS_AMQPSBATCHMESSAGE_41_002: [This function shall encode the envelope of the batch followed by the
+        // Data section of each message, and return the encoded length.]
+        int encodedLength = super.encode(data, offset, length);
+        for (MessageImpl dataSection : this.dataSections)
+        {
+            encodedLength += dataSection.encode(data, offset + encodedLength, length - encodedLength);
+        }
+
+        return encodedLength;
+    }
+
+    private static byte[] encode(MessageImpl message)
+    {
+        byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+        while (true)
+        {
+            try
+            {
+                int length = message.encode(buffer, 0, buffer.length);
+                byte[] encoded = new byte[length];
+                System.arraycopy(buffer, 0, encoded, 0, length);
+                return encoded;
+            }
+            catch (BufferOverflowException e)
+            {
+                buffer = new byte[buffer.length * 2];
+            }
+        }
+    }
+}
@@ -2,12 +2,15 @@ package com.microsoft.azure.sdk.iot.device.transport.amqps;
 
 import com.microsoft.azure.sdk.iot.device.CustomLogger;
 
+import java.util.concurrent.Executor;
+
 public final class AmqpsDeviceAuthenticationCBSSendTask implements Runnable
 {
     private final static String THREAD_NAME = "azure-iot-sdk-AmqpsDeviceAuthenticationCBSSendTask";
     private final CustomLogger logger = new CustomLogger(this.getClass());
 
     private AmqpsDeviceAuthenticationCBS amqpsDeviceAuthenticationCBS;
+    private volatile Executor executor;
 
     /**
      * Task runner for CBS authentication.
@@ -28,6 +31,16 @@ public final class AmqpsDeviceAuthenticationCBSSendTask implements Runnable
         this.amqpsDeviceAuthenticationCBS = amqpsDeviceAuthenticationCBS;
     }
 
+    /**
+     * Sets the executor to send the authentication messages on, instead of the thread running this task.
+     *
+     * @param executor the executor to send on, or null to send on the thread running this task.
+     */
+    void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
     /**
      * The function to run.
      */
@@ -36,6 +49,28 @@ public final class AmqpsDeviceAuthenticationCBSSendTask implements Runnable
     {
         Thread.currentThread().setName(THREAD_NAME);
 
+        Executor executor = this.executor;
+        if (executor == null)
+        {
+            this.send();
+        }
+        else
+        {
+            // Codes_SRS_AMQPSDEVICEAUTHENTICATIONCBSSENDTASK_41_001: [If an executor is set, the function shall
+            // call the amqpsDeviceAuthenticationCBS.sendAuthenticationMessages on that executor.]
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    send();
+                }
+            });
+        }
+    }
+
+    private void send()
+    {
         try
         {
             // Codes_SRS_AMQPSDEVICEAUTHENTICATIONCBSSENDTASK_12_003: [The function shall call the amqpsDeviceAuthenticationCBS.sendAuthenticationMessages.]
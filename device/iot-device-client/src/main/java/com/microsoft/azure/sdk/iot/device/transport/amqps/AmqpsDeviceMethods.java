@@ -315,11 +315,11 @@ public final class AmqpsDeviceMethods extends AmqpsDeviceOperations
         outgoingMessage.setProperties(properties);
 
         // Codes_SRS_AMQPSDEVICEMETHODS_12_032: [The function shall copy the user properties to Proton message application properties excluding the reserved property names.]
-        int propertiesLength = deviceMethodMessage.getProperties().length;
-        Map<String, Object> userProperties = new HashMap<>(propertiesLength);
-        if (propertiesLength > 0)
+        MessageProperty[] messageProperties = deviceMethodMessage.getProperties();
+        Map<String, Object> userProperties = new HashMap<>(messageProperties.length);
+        if (messageProperties.length > 0)
         {
-            for(MessageProperty messageProperty : deviceMethodMessage.getProperties())
+            for(MessageProperty messageProperty : messageProperties)
             {
                 if (!MessageProperty.RESERVED_PROPERTY_NAMES.contains(messageProperty.getName()))
                 {
@@ -33,6 +33,8 @@ public class AmqpsDeviceOperations
     protected static final String USER_ID_KEY = "userId";
     protected static final String AMQPS_APP_PROPERTY_PREFIX = "iothub-app-";
 
+    protected static final int DEFAULT_MESSAGE_FORMAT = 0;
+
     protected AmqpsDeviceOperationLinkState amqpsSendLinkState = AmqpsDeviceOperationLinkState.UNKNOWN;
     protected AmqpsDeviceOperationLinkState amqpsRecvLinkState = AmqpsDeviceOperationLinkState.UNKNOWN;
 
@@ -262,6 +264,23 @@ public class AmqpsDeviceOperations
      * @throws IllegalArgumentException if deliveryTag's length is 0
      */
     protected synchronized AmqpsSendReturnValue sendMessageAndGetDeliveryHash(MessageType messageType, byte[] msgData, int offset, int length, byte[] deliveryTag) throws IllegalStateException, IllegalArgumentException
+    {
+        return this.sendMessageAndGetDeliveryHash(messageType, msgData, offset, length, deliveryTag, DEFAULT_MESSAGE_FORMAT);
+    }
+
+    /**
+     * Sends the given message with the given AMQP message format and returns with the delivery hash
+     * @param messageType The message operation type.
+     * @param msgData The binary array of the bytes to send
+     * @param offset The start offset to copy the bytes from
+     * @param length The number of bytes to be send related to the offset
+     * @param deliveryTag The unique identfier of the delivery
+     * @param messageFormat The message format of the delivery
+     * @return delivery tag
+     * @throws IllegalStateException if sender link has not been initialized
+     * @throws IllegalArgumentException if deliveryTag's length is 0
+     */
+    protected synchronized AmqpsSendReturnValue sendMessageAndGetDeliveryHash(MessageType messageType, byte[] msgData, int offset, int length, byte[] deliveryTag, int messageFormat) throws IllegalStateException, IllegalArgumentException
     {
         // Codes_SRS_AMQPSDEVICEOPERATIONS_12_019: [The function shall throw IllegalStateException if the sender link is not initialized.]
         if (this.senderLink == null)
@@ -277,6 +296,11 @@ public class AmqpsDeviceOperations
 
         // Codes_SRS_AMQPSDEVICEOPERATIONS_12_021: [The function shall create a Delivery object using the sender link and the deliveryTag.]
         Delivery delivery = this.senderLink.delivery(deliveryTag);
+        if (messageFormat != DEFAULT_MESSAGE_FORMAT)
+        {
+            // Codes_SRS_AMQPSDEVICEOPERATIONS_41_001: [The function shall set the message format of the delivery if it is not the default one.]
+            delivery.setMessageFormat(messageFormat);
+        }
         try
         {
             // Codes_SRS_AMQPSDEVICEOPERATIONS_12_022: [The function shall try to send the message data using the sender link with the offset and length argument.]
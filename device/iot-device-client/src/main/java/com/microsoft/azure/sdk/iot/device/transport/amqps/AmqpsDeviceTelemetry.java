@@ -14,7 +14,9 @@ import org.apache.qpid.proton.amqp.messaging.Section;
 import org.apache.qpid.proton.message.impl.MessageImpl;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public final class AmqpsDeviceTelemetry extends AmqpsDeviceOperations
@@ -177,7 +179,24 @@ public final class AmqpsDeviceTelemetry extends AmqpsDeviceOperations
     @Override
     protected AmqpsConvertToProtonReturnValue convertToProton(Message message)
     {
-        if ((message.getMessageType() == null) || (message.getMessageType() == MessageType.DEVICE_TELEMETRY))
+        if (message instanceof BatchMessage)
+        {
+            // Codes_SRS_AMQPSDEVICETELEMETRY_41_001: [If the message is a batch, the function shall convert each of its
+            // messages and return a batched Proton message holding them, with the message id of the batch.]
+            List<MessageImpl> protonMessages = new ArrayList<>();
+            for (Message nestedMessage : ((BatchMessage) message).getNestedMessages())
+            {
+                protonMessages.add(iotHubMessageToProtonMessage(nestedMessage));
+            }
+
+            AmqpsBatchMessage protonMessage = new AmqpsBatchMessage(protonMessages);
+            Properties properties = new Properties();
+            properties.setMessageId(message.getMessageId());
+            protonMessage.setProperties(properties);
+
+            return new AmqpsConvertToProtonReturnValue(protonMessage, MessageType.DEVICE_TELEMETRY);
+        }
+        else if ((message.getMessageType() == null) || (message.getMessageType() == MessageType.DEVICE_TELEMETRY))
         {
             // Codes_SRS_AMQPSDEVICETELEMETRY_12_015: [The function shall create a new Proton message using the IoTHubMessage body.]
             // Codes_SRS_AMQPSDEVICETELEMETRY_12_016: [The function shall copy the correlationId, messageId properties to the Proton message properties.]
@@ -294,23 +313,40 @@ public final class AmqpsDeviceTelemetry extends AmqpsDeviceOperations
         outgoingMessage.setProperties(properties);
 
         // Codes_SRS_AMQPSDEVICETELEMETRY_12_017: [The function shall copy the user properties to Proton message application properties excluding the reserved property names.]
-        if (message.getProperties().length > 0)
+        MessageTemplate template = message.getTemplate();
+        if (template != null)
         {
-            Map<String, Object> userProperties = new HashMap<>(message.getProperties().length);
-            for(MessageProperty messageProperty : message.getProperties())
+            // Codes_SRS_AMQPSDEVICETELEMETRY_41_003: [If the message is attached to a template, the function shall use the application properties prepared by the template.]
+            if (!template.getApplicationProperties().isEmpty())
             {
-                if (!MessageProperty.RESERVED_PROPERTY_NAMES.contains(messageProperty.getName()))
+                outgoingMessage.setApplicationProperties(new ApplicationProperties(template.getApplicationProperties()));
+            }
+        }
+        else
+        {
+            MessageProperty[] messageProperties = message.getProperties();
+            if (messageProperties.length > 0)
+            {
+                Map<String, Object> userProperties = new HashMap<>(messageProperties.length);
+                for(MessageProperty messageProperty : messageProperties)
                 {
-                    userProperties.put(messageProperty.getName(), messageProperty.getValue());
+                    if (!MessageProperty.RESERVED_PROPERTY_NAMES.contains(messageProperty.getName()))
+                    {
+                        userProperties.put(messageProperty.getName(), messageProperty.getValue());
+                    }
                 }
-            }
 
-            ApplicationProperties applicationProperties = new ApplicationProperties(userProperties);
-            outgoingMessage.setApplicationProperties(applicationProperties);
+                ApplicationProperties applicationProperties = new ApplicationProperties(userProperties);
+                outgoingMessage.setApplicationProperties(applicationProperties);
+            }
         }
 
         // Codes_SRS_AMQPSDEVICETELEMETRY_12_023: [The function shall set the proton message body using the IotHubTransportMessage body.]
-        Binary binary = new Binary(message.getBytes());
+        // Codes_SRS_AMQPSDEVICETELEMETRY_41_002: [If the body is backed by an array, the proton message body shall share it instead of copying it.]
+        ByteBuffer body = message.getBodyBuffer();
+        Binary binary = (body != null && body.hasArray())
+                ? new Binary(body.array(), body.arrayOffset() + body.position(), body.remaining())
+                : new Binary(message.getBytes());
         Section section = new Data(binary);
         outgoingMessage.setBody(section);
         return outgoingMessage;
@@ -384,11 +384,11 @@ public final class AmqpsDeviceTwin extends AmqpsDeviceOperations
         outgoingMessage.setProperties(properties);
 
         // Codes_SRS_AMQPSDEVICETWIN_12_032: [The function shall copy the user properties to Proton message application properties excluding the reserved property names.]
-        int propertiesLength = deviceTwinMessage.getProperties().length;
-        Map<String, Object> userProperties = new HashMap<>(propertiesLength);
-        if (propertiesLength > 0)
+        MessageProperty[] messageProperties = deviceTwinMessage.getProperties();
+        Map<String, Object> userProperties = new HashMap<>(messageProperties.length);
+        if (messageProperties.length > 0)
         {
-            for(MessageProperty messageProperty : deviceTwinMessage.getProperties())
+            for(MessageProperty messageProperty : messageProperties)
             {
                 if (!MessageProperty.RESERVED_PROPERTY_NAMES.contains(messageProperty.getName()))
                 {
@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * An AMQPS IotHub connection between a device and an IoTHub. This class contains functionality for sending/receiving
@@ -36,9 +37,9 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
 {
     private static final int MAX_WAIT_TO_OPEN_CLOSE_CONNECTION = 90*1000; // 90 second timeout
     private static final int MAX_WAIT_TO_TERMINATE_EXECUTOR = 30;
-    private IotHubConnectionStatus state;
+    private volatile IotHubConnectionStatus state;
 
-    private int linkCredit = -1;
+    private volatile int linkCredit = -1;
     /** The {@link Delivery} tag. */
     private static final String WEB_SOCKET_PATH = "/$iothub/websocket";
     private static final String WEB_SOCKET_SUB_PROTOCOL = "AMQPWSB10";
@@ -55,14 +56,42 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
     private final Map<Integer, com.microsoft.azure.sdk.iot.device.Message> inProgressMessages = new ConcurrentHashMap<>();
     private final Map<com.microsoft.azure.sdk.iot.device.Message, AmqpsMessage> sendAckMessages = new ConcurrentHashMap<>();
 
+    /* The work handed to the reactor thread, which is the only thread allowed to call into Proton */
+    private final Queue<ReactorTask> reactorTasks = new ConcurrentLinkedQueue<>();
+
+    /* Set by closeAsync until the Proton objects are closed, so that they are closed exactly once */
+    private final AtomicBoolean isProtonClosePending = new AtomicBoolean();
+
+    /* Hands the CBS sends of the session manager to the reactor thread */
+    private final Executor reactorExecutor = new Executor()
+    {
+        @Override
+        public void execute(final Runnable command)
+        {
+            // CBS messages not sent while the reactor is not running stay queued until the next period
+            runOnReactor(new ReactorTask()
+            {
+                @Override
+                public boolean run()
+                {
+                    command.run();
+                    return true;
+                }
+            });
+        }
+    };
+
     private IotHubListener listener;
 
     private ExecutorService executorService;
+    /* True if the reactor runs on the connection executor of a client runtime, which must not be shut down */
+    private boolean isExecutorServiceShared;
+    private Future<?> reactorFuture;
 
     private CountDownLatch openLatch;
     private CountDownLatch closeLatch;
 
-    private Reactor reactor;
+    private volatile Reactor reactor;
 
     private CustomLogger logger;
 
@@ -143,6 +172,10 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_12_001: [The constructor shall initialize the AmqpsSessionManager member variable with the given config.]
         this.amqpsSessionManager = new AmqpsSessionManager(this.deviceClientConfig);
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_41_014: [The constructor shall have the AmqpsSessionManager send its CBS
+        // messages on the reactor thread.]
+        this.amqpsSessionManager.setCBSSendExecutor(this.reactorExecutor);
     }
 
     /**
@@ -251,12 +284,24 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
 
         if (executorService == null)
         {
-            executorService = Executors.newFixedThreadPool(1);
+            ClientRuntime clientRuntime = this.deviceClientConfig.getClientRuntime();
+            if (clientRuntime != null)
+            {
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_41_001: [If the config has a client runtime, the reactor shall run on
+                // the connection executor of the runtime.]
+                executorService = clientRuntime.getConnectionExecutor();
+                isExecutorServiceShared = true;
+            }
+            else
+            {
+                executorService = Executors.newFixedThreadPool(1);
+                isExecutorServiceShared = false;
+            }
         }
 
         IotHubReactor iotHubReactor = new IotHubReactor(reactor);
         ReactorRunner reactorRunner = new ReactorRunner(iotHubReactor, this.listener);
-        executorService.submit(reactorRunner);
+        reactorFuture = executorService.submit(reactorRunner);
 
         logger.LogInfo("Reactor is assigned to executor service, method name is %s ", logger.getMethodName());
     }
@@ -324,7 +369,19 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             throw new TransportException("Waited too long for the connection to close.", e);
         }
 
-        if (this.executorService != null)
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_41_015: [If the reactor ended, or did not end in time, without running the
+        // queued close, the function shall close the Proton objects on the calling thread.]
+        this.closeProtonIfPending();
+
+        if (this.executorService != null && this.isExecutorServiceShared)
+        {
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_41_002: [If the reactor runs on the connection executor of a client
+            // runtime, the function shall wait for the reactor to end, and cancel it if it does not end in time,
+            // instead of shutting the executor down.]
+            this.executorService = null;
+            this.awaitReactorEnd();
+        }
+        else if (this.executorService != null)
         {
             logger.LogInfo("Shutdown of executor service has started, method name is %s ", logger.getMethodName());
             this.executorService.shutdown();
@@ -360,7 +417,8 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
 
     /**
      * Private helper for close.
-     * Closes the AmqpsSessionManager, the connection and stops the Proton reactor.
+     * Closes the AmqpsSessionManager, the connection and stops the Proton reactor, on the reactor thread if the
+     * reactor is running.
      */
     private void closeAsync()
     {
@@ -369,6 +427,38 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_012: [The function shall set the status of the AMQPS connection to DISCONNECTED.]
         this.state = IotHubConnectionStatus.DISCONNECTED;
 
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_41_013: [If the reactor is running, the function shall close the Proton
+        // objects and stop the reactor on the reactor thread. Otherwise it shall close them on the calling thread.]
+        this.isProtonClosePending.set(true);
+        boolean isQueued = this.runOnReactor(new ReactorTask()
+        {
+            @Override
+            public boolean run()
+            {
+                closeProtonIfPending();
+                return true;
+            }
+        });
+
+        if (!isQueued)
+        {
+            this.closeProtonIfPending();
+        }
+
+        logger.LogDebug("Exited from method %s", logger.getMethodName());
+    }
+
+    /**
+     * Closes the AmqpsSessionManager, the connection and stops the Proton reactor, unless already done since the
+     * last call to closeAsync.
+     */
+    private void closeProtonIfPending()
+    {
+        if (!this.isProtonClosePending.compareAndSet(true, false))
+        {
+            return;
+        }
+
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_013: [The function shall closeNow the AmqpsSessionManager and the AMQP connection.]
         this.amqpsSessionManager.closeNow();
 
@@ -378,18 +468,18 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         }
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_34_014: [If this object's proton reactor is not null, this function shall stop the Proton reactor.]
-        if (this.reactor != null)
+        Reactor reactor = this.reactor;
+        if (reactor != null)
         {
-            this.reactor.stop();
+            reactor.stop();
         }
 
         logger.LogInfo("Proton reactor has been stopped, method name is %s ", logger.getMethodName());
-
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
     }
 
     /**
      * Creates a binary message using the given content and messageId. Sends the created message using the sender link.
+     * Must be called on the reactor thread.
      *
      * @param message The message to be sent.
      * @param messageType the type of the message being sent
@@ -397,7 +487,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
      * @throws TransportException if send message fails
      * @return An {@link Integer} representing the hash of the message, or -1 if the connection is closed.
      */
-    private synchronized Integer sendMessage(Message message, MessageType messageType, IotHubConnectionString iotHubConnectionString) throws TransportException
+    private Integer sendMessage(Message message, MessageType messageType, IotHubConnectionString iotHubConnectionString) throws TransportException
     {
         logger.LogDebug("Entered in method %s", logger.getMethodName());
 
@@ -458,9 +548,31 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         // Codes_SRS_AMQPSIOTHUBCONNECTION_12_012: [The function shall set the reactor member variable to null.]
         this.reactor = null;
 
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_41_008: [The function shall drop the tasks not run yet, as the transport
+        // sends again the messages in progress once it reconnects, and the service delivers again the messages not
+        // acknowledged.]
+        this.reactorTasks.clear();
+
         logger.LogDebug("Exited from method %s", logger.getMethodName());
     }
 
+    /**
+     * Event handler for the reactor quiesced event, raised on the reactor thread each time the reactor runs out of
+     * events, before it waits for I/O. Runs the tasks queued by the other threads: sends, acknowledgements, CBS sends
+     * and close.
+     * @param event Proton Event object
+     */
+    @Override
+    public void onReactorQuiesced(Event event)
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_41_009: [The function shall run the queued tasks in order, and wake up the
+        // reactor if any handed frames to Proton, so that they are written without waiting for the reactor timeout.]
+        if (this.runReactorTasks())
+        {
+            event.getReactor().wakeup();
+        }
+    }
+
     /**
      * Event handler for the connection init event
      * @param event The Proton Event object.
@@ -661,6 +773,13 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         this.linkCredit = event.getLink().getCredit();
         logger.LogDebug("The link credit value is %s, method name is %s", this.linkCredit, logger.getMethodName());
 
+        if (this.linkCredit > 0)
+        {
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_41_010: [If the link has credit, the event handler shall notify the
+            // listener that the send window opened.]
+            this.listener.onSendWindowOpened();
+        }
+
         logger.LogDebug("Exited from method %s", logger.getMethodName());
     }
 
@@ -771,6 +890,132 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         return this.amqpsSessionManager.convertFromProton(amqpsMessage, deviceClientConfig);
     }
 
+    /**
+     * Queues a task for the reactor thread, and wakes up the reactor.
+     * @param task the task to run
+     * @return false if the reactor is not running, in which case the task is not queued
+     */
+    private boolean runOnReactor(ReactorTask task)
+    {
+        Reactor reactor = this.reactor;
+        if (reactor == null)
+        {
+            return false;
+        }
+
+        this.reactorTasks.add(task);
+        try
+        {
+            reactor.wakeup();
+        }
+        catch (RuntimeException e)
+        {
+            // the reactor is stopping, and drops the task
+            logger.LogError(e);
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs the queued tasks. Must be called on the reactor thread.
+     * @return true if any task handed frames to Proton
+     */
+    private boolean runReactorTasks()
+    {
+        boolean hasFrames = false;
+        ReactorTask task;
+        while ((task = this.reactorTasks.poll()) != null)
+        {
+            hasFrames |= task.run();
+        }
+
+        return hasFrames;
+    }
+
+    /**
+     * Work queued for the reactor thread, the only thread allowed to call into Proton.
+     */
+    private interface ReactorTask
+    {
+        /**
+         * Runs the task on the reactor thread.
+         * @return true if the task handed frames to Proton
+         */
+        boolean run();
+    }
+
+    /**
+     * A message queued for the reactor thread, with its Proton conversion.
+     */
+    private final class SendTask implements ReactorTask
+    {
+        private final com.microsoft.azure.sdk.iot.device.Message message;
+        private final Message messageImpl;
+        private final MessageType messageType;
+
+        private SendTask(com.microsoft.azure.sdk.iot.device.Message message, AmqpsConvertToProtonReturnValue amqpsConvertToProtonReturnValue)
+        {
+            this.message = message;
+            this.messageImpl = amqpsConvertToProtonReturnValue.getMessageImpl();
+            this.messageType = amqpsConvertToProtonReturnValue.getMessageType();
+        }
+
+        @Override
+        public boolean run()
+        {
+            TransportException sendException;
+            try
+            {
+                // Codes_SRS_AMQPSTRANSPORT_34_077: [The function shall attempt to send the Proton message to IoTHub using the underlying AMQPS connection.]
+                Integer sendHash = sendMessage(this.messageImpl, this.messageType, this.message.getIotHubConnectionString());
+                if (sendHash != -1)
+                {
+                    // Codes_SRS_AMQPSTRANSPORT_34_078: [If the sent message hash is valid, it shall be added to the in progress map.]
+                    inProgressMessages.put(sendHash, this.message);
+
+                    // Codes_SRS_AMQPSIOTHUBCONNECTION_41_011: [If the message is handed to Proton, the function shall
+                    // decrement the saved link credit, as it is only refreshed on link flow events.]
+                    linkCredit--;
+                    return true;
+                }
+
+                // Codes_SRS_AMQPSTRANSPORT_34_079: [If the sent message hash is -1, the listener shall be notified of a retriable ProtocolException.]
+                sendException = new ProtocolException("Send failure");
+                sendException.setRetryable(true);
+            }
+            catch (TransportException e)
+            {
+                sendException = e;
+            }
+
+            listener.onMessageSent(this.message, sendException);
+            return false;
+        }
+    }
+
+    /**
+     * An acknowledgement of a received message queued for the reactor thread.
+     */
+    private static final class AcknowledgeTask implements ReactorTask
+    {
+        private final AmqpsMessage amqpsMessage;
+        private final AmqpsMessage.ACK_TYPE ackType;
+
+        private AcknowledgeTask(AmqpsMessage amqpsMessage, AmqpsMessage.ACK_TYPE ackType)
+        {
+            this.amqpsMessage = amqpsMessage;
+            this.ackType = ackType;
+        }
+
+        @Override
+        public boolean run()
+        {
+            this.amqpsMessage.acknowledge(this.ackType);
+            return true;
+        }
+    }
+
     /**
      * Class which runs the reactor.
      */
@@ -934,6 +1179,13 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         this.listener = listener;
     }
 
+    /**
+     * Queues a message to be sent by the reactor thread, and wakes up the reactor.
+     * @param message the message to send
+     * @return OK once the message is queued. The listener is notified once the service acknowledges the message, or
+     * if the reactor cannot send it.
+     * @throws TransportException if the connection is closed or has no link credit
+     */
     @Override
     public IotHubStatusCode sendMessage(com.microsoft.azure.sdk.iot.device.Message message) throws TransportException
     {
@@ -945,29 +1197,29 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             throw new IllegalStateException("No handler found for message conversion!");
         }
 
-        // Codes_SRS_AMQPSTRANSPORT_34_077: [The function shall attempt to send the Proton message to IoTHub using the underlying AMQPS connection.]
-        Integer sendHash = this.sendMessage(amqpsConvertToProtonReturnValue.getMessageImpl(), amqpsConvertToProtonReturnValue.getMessageType(), message.getIotHubConnectionString());
-
-        if (sendHash != -1)
-        {
-            // Codes_SRS_AMQPSTRANSPORT_34_078: [If the sent message hash is valid, it shall be added to the in progress map and this function shall return OK.]
-            this.inProgressMessages.put(sendHash, message);
-            return IotHubStatusCode.OK;
-        }
-        else
+        Reactor reactor = this.reactor;
+        if (this.state == IotHubConnectionStatus.DISCONNECTED || this.linkCredit <= 0 || reactor == null)
         {
-            // Codes_SRS_AMQPSTRANSPORT_34_079: [If the sent message hash is -1, this function shall throw a retriable ProtocolException.]
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_41_006: [If the connection is DISCONNECTED or has no link credit, this
+            // function shall throw a retriable ProtocolException.]
             ProtocolException protocolException = new ProtocolException("Send failure");
             protocolException.setRetryable(true);
             throw protocolException;
         }
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_41_007: [The function shall queue the Proton message for the reactor thread,
+        // wake up the reactor and return OK. Proton is not thread safe, so it is only called on the reactor thread.]
+        // If the reactor stops meanwhile, the message is sent again once the transport reconnects
+        this.runOnReactor(new SendTask(message, amqpsConvertToProtonReturnValue));
+
+        return IotHubStatusCode.OK;
     }
 
     /**
-     * Sends the Ack for the provided message with the result
+     * Queues the Ack for the provided message with the result, to be sent by the reactor thread
      * @param message the message to acknowledge
      * @param result the result to attach to the ack (COMPLETE, ABANDON, or REJECT)
-     * @return true if the ack was sent successfully, and false otherwise
+     * @return true if the ack was queued successfully, and false otherwise
      */
     @Override
     public boolean sendMessageResult(com.microsoft.azure.sdk.iot.device.Message message, IotHubMessageResult result)
@@ -981,29 +1233,37 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         if (this.sendAckMessages.containsKey(message))
         {
             AmqpsMessage amqpsMessage = sendAckMessages.get(message);
+            AmqpsMessage.ACK_TYPE ackType;
 
             switch (result)
             {
                 case ABANDON:
                     // Codes_SRS_AMQPSTRANSPORT_34_068: [If the provided message is saved in the saved map of messages
                     // to acknowledge, and if the provided result is ABANDON, this function shall send the amqp ack with ABANDON.]
-                    amqpsMessage.acknowledge(AmqpsMessage.ACK_TYPE.ABANDON);
+                    ackType = AmqpsMessage.ACK_TYPE.ABANDON;
                     break;
                 case REJECT:
                     // Codes_SRS_AMQPSTRANSPORT_34_069: [If the provided message is saved in the saved map of messages
                     // to acknowledge, and if the provided result is REJECT, this function shall send the amqp ack with REJECT.]
-                    amqpsMessage.acknowledge(AmqpsMessage.ACK_TYPE.REJECT);
+                    ackType = AmqpsMessage.ACK_TYPE.REJECT;
                     break;
                 case COMPLETE:
                     // Codes_SRS_AMQPSTRANSPORT_34_070: [If the provided message is saved in the saved map of messages
                     // to acknowledge, and if the provided result is COMPLETE, this function shall send the amqp ack with COMPLETE.]
-                    amqpsMessage.acknowledge(AmqpsMessage.ACK_TYPE.COMPLETE);
+                    ackType = AmqpsMessage.ACK_TYPE.COMPLETE;
                     break;
                 default:
                     logger.LogError("Invalid IoT Hub message result (%s), method name is %s ", result.name(), logger.getMethodName());
                     return false;
             }
 
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_41_012: [The function shall queue the ack for the reactor thread, since
+            // Proton is not thread safe, and return false if the reactor is not running.]
+            if (!this.runOnReactor(new AcknowledgeTask(amqpsMessage, ackType)))
+            {
+                return false;
+            }
+
             // Codes_SRS_AMQPSTRANSPORT_34_071: [If the amqp message is acknowledged, this function shall remove it from the saved map of messages to acknowledge and return true.]
             this.sendAckMessages.remove(message);
             return true;
@@ -1013,12 +1273,75 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         return false;
     }
 
+    /**
+     * Returns the link credit last granted by the service, less the messages sent since
+     * @return the number of messages the service accepts now, or 0 if the connection is not open
+     */
+    @Override
+    public int getSendWindow()
+    {
+        if (this.state != IotHubConnectionStatus.CONNECTED)
+        {
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_41_004: [If this object is not CONNECTED, this function shall return 0.]
+            return 0;
+        }
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_41_005: [This function shall return the link credit saved on the last link
+        // flow event less the messages sent since, or 0 if it is negative.]
+        return Math.max(0, this.linkCredit);
+    }
+
+    /**
+     * Waits for the reactor running on a shared executor to end, cancelling it if it does not end in time.
+     *
+     * @throws TransportException if the wait is interrupted.
+     */
+    private void awaitReactorEnd() throws TransportException
+    {
+        Future<?> reactorFuture = this.reactorFuture;
+        this.reactorFuture = null;
+        if (reactorFuture == null)
+        {
+            return;
+        }
+
+        try
+        {
+            reactorFuture.get(MAX_WAIT_TO_TERMINATE_EXECUTOR, TimeUnit.SECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            logger.LogInfo("Reactor did not end, cancelling it");
+            reactorFuture.cancel(true);
+        }
+        catch (ExecutionException | CancellationException e)
+        {
+            // The reactor runner reports its own failures to the listener
+            logger.LogDebug("Reactor ended with an exception", e);
+        }
+        catch (InterruptedException e)
+        {
+            logger.LogError(e);
+            reactorFuture.cancel(true);
+            throw new TransportException("Waited too long for the connection to close.", e);
+        }
+    }
+
     /**
      * Schedules a thread to start the reconnection process for AMQP
      * @param throwable the reason why the reconnection needs to take place, for reporting purposes
      */
     private void scheduleReconnection(Throwable throwable)
     {
+        ClientRuntime clientRuntime = this.deviceClientConfig.getClientRuntime();
+        if (clientRuntime != null)
+        {
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_41_003: [If the config has a client runtime, the reconnection shall run
+            // on the connection executor of the runtime.]
+            clientRuntime.getConnectionExecutor().submit(new ReconnectionTask(throwable, this.listener));
+            return;
+        }
+
         ScheduledExecutorService reconnectThread = Executors.newScheduledThreadPool(1);
         reconnectThread.schedule(new ReconnectionTask(throwable, this.listener), 0, TimeUnit.MILLISECONDS);
     }
@@ -9,6 +9,7 @@ import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class AmqpsSessionDeviceOperation
@@ -27,6 +28,8 @@ public class AmqpsSessionDeviceOperation
     private long tokenRenewalPeriodInMillisecSecs = 4000; //45*60*100;
 
     private ScheduledExecutorService taskSchedulerTokenRenewal;
+    /* Renewal scheduled on the scheduler of a client runtime, which must not be shut down */
+    private ScheduledFuture<?> sharedTokenRenewalFuture;
     private AmqpsDeviceAuthenticationCBSTokenRenewalTask tokenRenewalTask = null;
 
     private static final int MAX_WAIT_TO_AUTHENTICATE = 10*1000;
@@ -315,6 +318,13 @@ public class AmqpsSessionDeviceOperation
                 // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_017: [The function shall set the delivery tag for the sender.]
                 byte[] deliveryTag = String.valueOf(this.nextTag++).getBytes();
 
+                if (message instanceof AmqpsBatchMessage)
+                {
+                    // Codes_SRS_AMQPSESSIONDEVICEOPERATION_41_001: [If the message is a batch, the function shall send
+                    // it on the telemetry link with the batched message format and return the delivery hash.]
+                    return this.sendBatchMessageAndGetDeliveryHash(msgData, length, deliveryTag);
+                }
+
                 // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_018: [The function shall call sendMessageAndGetDeliveryHash on all device operation objects.]
                 // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_019: [The function shall return the delivery hash.]
                 return this.sendMessageAndGetDeliveryHash(messageType, msgData, 0, length, deliveryTag);
@@ -361,6 +371,24 @@ public class AmqpsSessionDeviceOperation
         return deliveryHash;
     }
 
+    private Integer sendBatchMessageAndGetDeliveryHash(byte[] msgData, int length, byte[] deliveryTag) throws IllegalStateException, IllegalArgumentException
+    {
+        for (int i = 0; i < this.amqpsDeviceOperationsList.size(); i++)
+        {
+            AmqpsDeviceOperations amqpsDeviceOperations = this.amqpsDeviceOperationsList.get(i);
+            if (amqpsDeviceOperations instanceof AmqpsDeviceTelemetry)
+            {
+                AmqpsSendReturnValue amqpsSendReturnValue = amqpsDeviceOperations.sendMessageAndGetDeliveryHash(MessageType.DEVICE_TELEMETRY, msgData, 0, length, deliveryTag, AmqpsBatchMessage.BATCH_MESSAGE_FORMAT);
+                if (amqpsSendReturnValue.isDeliverySuccessful())
+                {
+                    return amqpsSendReturnValue.getDeliveryHash();
+                }
+            }
+        }
+
+        return -1;
+    }
+
     /**
      * Delegate the onDelivery call to device operation objects.
      * Loop through the device operation list and find the receiver 
@@ -519,12 +547,22 @@ public class AmqpsSessionDeviceOperation
         if (renewalPeriod > 0)
         {
             shutDownScheduler();
+
+            this.tokenRenewalPeriodInMillisecSecs = renewalPeriod;
+            ClientRuntime clientRuntime = this.deviceClientConfig.getClientRuntime();
+            if (clientRuntime != null)
+            {
+                // Codes_SRS_AMQPSESSIONDEVICEOPERATION_41_002: [If the config has a client runtime, the token renewal
+                // shall be scheduled on the scheduler of the runtime.]
+                this.sharedTokenRenewalFuture = clientRuntime.getScheduler().scheduleAtFixedRate(this.tokenRenewalTask, 0, tokenRenewalPeriodInMillisecSecs, TimeUnit.MILLISECONDS);
+                return true;
+            }
+
             if (this.taskSchedulerTokenRenewal == null)
             {
                 this.taskSchedulerTokenRenewal = Executors.newScheduledThreadPool(1);
             }
 
-            this.tokenRenewalPeriodInMillisecSecs = renewalPeriod;
             this.taskSchedulerTokenRenewal.scheduleAtFixedRate(this.tokenRenewalTask, 0, tokenRenewalPeriodInMillisecSecs, TimeUnit.MILLISECONDS);
 
             return true;
@@ -537,6 +575,12 @@ public class AmqpsSessionDeviceOperation
      */
     private void shutDownScheduler()
     {
+        if (this.sharedTokenRenewalFuture != null)
+        {
+            this.sharedTokenRenewalFuture.cancel(false);
+            this.sharedTokenRenewalFuture = null;
+        }
+
         if (this.taskSchedulerTokenRenewal  != null)
         {
             taskSchedulerTokenRenewal.shutdown(); // Disable new tasks from being submitted
@@ -1,5 +1,6 @@
 package com.microsoft.azure.sdk.iot.device.transport.amqps;
 
+import com.microsoft.azure.sdk.iot.device.ClientRuntime;
 import com.microsoft.azure.sdk.iot.device.CustomLogger;
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.IotHubConnectionString;
@@ -25,6 +26,8 @@ public class AmqpsSessionManager
 
     private long SEND_PERIOD_MILLISECONDS = 300;
     private ScheduledExecutorService taskSchedulerCBSSend;
+    /* CBS send task scheduled on the scheduler of a client runtime, which must not be shut down */
+    private ScheduledFuture<?> sharedCBSSendFuture;
     private AmqpsDeviceAuthenticationCBSSendTask cbsAuthSendTask = null;
 
     private static final int MAX_WAIT_TO_AUTHENTICATE_MS = 10*1000;
@@ -61,8 +64,18 @@ public class AmqpsSessionManager
 
                 // Codes_SRS_AMQPSESSIONMANAGER_12_006: [The constructor shall create and start a scheduler for AmqpsDeviceAuthenticationCBSTokenRenewalTask if the authentication type is CBS.]
                 this.cbsAuthSendTask = new AmqpsDeviceAuthenticationCBSSendTask((AmqpsDeviceAuthenticationCBS) this.amqpsDeviceAuthentication);
-                this.taskSchedulerCBSSend = Executors.newScheduledThreadPool(2);
-                this.taskSchedulerCBSSend.scheduleAtFixedRate(this.cbsAuthSendTask, 0, SEND_PERIOD_MILLISECONDS, TimeUnit.MILLISECONDS);
+                if (this.deviceClientConfig.getClientRuntime() != null)
+                {
+                    // Codes_SRS_AMQPSESSIONMANAGER_41_001: [If the config has a client runtime, the constructor shall
+                    // schedule the AmqpsDeviceAuthenticationCBSSendTask on the scheduler of the runtime.]
+                    this.sharedCBSSendFuture = this.deviceClientConfig.getClientRuntime().getScheduler()
+                            .scheduleAtFixedRate(this.cbsAuthSendTask, 0, SEND_PERIOD_MILLISECONDS, TimeUnit.MILLISECONDS);
+                }
+                else
+                {
+                    this.taskSchedulerCBSSend = Executors.newScheduledThreadPool(2);
+                    this.taskSchedulerCBSSend.scheduleAtFixedRate(this.cbsAuthSendTask, 0, SEND_PERIOD_MILLISECONDS, TimeUnit.MILLISECONDS);
+                }
 
                 break;
             case X509_CERTIFICATE:
@@ -74,6 +87,21 @@ public class AmqpsSessionManager
         this.addDeviceOperationSession(this.deviceClientConfig);
     }
 
+    /**
+     * Sets the executor the periodic CBS send task hands the authentication messages to, so that they are sent on
+     * the thread that owns the Proton connection.
+     *
+     * @param executor the executor to send the CBS messages on.
+     */
+    void setCBSSendExecutor(Executor executor)
+    {
+        // Codes_SRS_AMQPSESSIONMANAGER_41_002: [If the authentication type is CBS, the function shall set the executor of the CBS send task.]
+        if (this.cbsAuthSendTask != null)
+        {
+            this.cbsAuthSendTask.setExecutor(executor);
+        }
+    }
+
     /**
      * Register the given device to the manager.
      *
@@ -538,6 +566,12 @@ public class AmqpsSessionManager
      */
     private void shutDownScheduler()
     {
+        if (this.sharedCBSSendFuture != null)
+        {
+            this.sharedCBSSendFuture.cancel(false);
+            this.sharedCBSSendFuture = null;
+        }
+
         if (this.taskSchedulerCBSSend != null)
         {
             this.taskSchedulerCBSSend.shutdown(); // Disable new tasks from being submitted
@@ -181,6 +181,30 @@ public class HttpsConnection
      * body is written to the request.
      */
     public void writeOutput(byte[] body) throws TransportException
+    {
+        if (this.acceptsBody(body))
+        {
+            // Codes_SRS_HTTPSCONNECTION_11_009: [The function shall save the body to be sent with the request.]
+            this.body = Arrays.copyOf(body, body.length);
+        }
+    }
+
+    /**
+     * Saves the body to be sent with the request without copying it. The body must not be modified until the request
+     * is sent.
+     *
+     * @param body the request body.
+     */
+    void writeOutputWithoutCopy(byte[] body)
+    {
+        if (this.acceptsBody(body))
+        {
+            // Codes_SRS_HTTPSCONNECTION_41_001: [The function shall save the body to be sent with the request without copying it.]
+            this.body = body;
+        }
+    }
+
+    private boolean acceptsBody(byte[] body)
     {
         // Codes_SRS_HTTPSCONNECTION_11_010: [The function shall throw an IllegalArgumentException if the request does not currently use method POST or PUT and the body is non-empty.]
         HttpsMethod method = HttpsMethod.valueOf(
@@ -193,12 +217,11 @@ public class HttpsConnection
                         "Cannot write a body to a request that "
                         + "is not a POST or a PUT request.");
             }
+
+            return false;
         }
-        else
-        {
-            // Codes_SRS_HTTPSCONNECTION_11_009: [The function shall save the body to be sent with the request.]
-            this.body = Arrays.copyOf(body, body.length);
-        }
+
+        return true;
     }
 
     /**
@@ -5,6 +5,7 @@ package com.microsoft.azure.sdk.iot.device.transport.https;
 
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.exceptions.IotHubServiceException;
+import com.microsoft.azure.sdk.iot.device.exceptions.IotHubSizeExceededException;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.net.*;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubListener;
@@ -64,7 +65,7 @@ public class HttpsIotHubConnection implements IotHubTransportConnection
     }
 
     /**
-     * Sends an event message.
+     * Sends an event message. A {@link BatchMessage} is sent as a single batch request.
      *
      * @param message the event message.
      *
@@ -76,7 +77,22 @@ public class HttpsIotHubConnection implements IotHubTransportConnection
     {
         synchronized (HTTPS_CONNECTION_LOCK)
         {
-            HttpsMessage httpsMessage = HttpsSingleMessage.parseHttpsMessage(message);
+            HttpsMessage httpsMessage;
+            byte[] body;
+            if (message instanceof BatchMessage)
+            {
+                //Codes_SRS_HTTPSIOTHUBCONNECTION_41_001: [If the message is a batch, the function shall send its
+                // messages in a single request with a batch body and the batch content type.]
+                httpsMessage = buildBatchMessage((BatchMessage) message);
+                body = httpsMessage.getBody();
+            }
+            else
+            {
+                // the parsed message already holds its own copy of the body
+                HttpsSingleMessage httpsSingleMessage = HttpsSingleMessage.parseHttpsMessage(message);
+                httpsMessage = httpsSingleMessage;
+                body = httpsSingleMessage.getBodyWithoutCopy();
+            }
 
             String iotHubHostname = this.config.getIotHubHostname();
             String deviceId = this.config.getDeviceId();
@@ -88,7 +104,7 @@ public class HttpsIotHubConnection implements IotHubTransportConnection
 
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_003: [The function shall send a POST request.]
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_004: [The function shall set the request body to the message body.]
-            HttpsRequest request = new HttpsRequest(eventUrl, HttpsMethod.POST, httpsMessage.getBody());
+            HttpsRequest request = new HttpsRequest(eventUrl, HttpsMethod.POST, body);
 
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_005: [The function shall write each message property as a request header.]
             for (MessageProperty property : httpsMessage.getProperties())
@@ -116,7 +132,9 @@ public class HttpsIotHubConnection implements IotHubTransportConnection
 
             IotHubStatusCode status = IotHubStatusCode.getIotHubStatusCode(response.getStatus());
 
-            IotHubTransportMessage transportMessage = new IotHubTransportMessage(message.getBytes(), message.getMessageType(), message.getMessageId(), message.getCorrelationId(), message.getProperties());
+            // The batch itself is reported, as it has no body of its own
+            Message transportMessage = message instanceof BatchMessage ? message :
+                    new IotHubTransportMessage(message.getBytes(), message.getMessageType(), message.getMessageId(), message.getCorrelationId(), message.getProperties());
             if (status == IotHubStatusCode.OK || status == IotHubStatusCode.OK_EMPTY)
             {
                 //Codes_SRS_HTTPSIOTHUBCONNECTION_34_067: [If the response from the service is OK or OK_EMPTY, this function shall notify its listener that a message was sent with no exception.]
@@ -132,6 +150,26 @@ public class HttpsIotHubConnection implements IotHubTransportConnection
         }
     }
 
+    private static HttpsBatchMessage buildBatchMessage(BatchMessage batchMessage) throws TransportException
+    {
+        HttpsBatchMessage httpsBatchMessage = new HttpsBatchMessage();
+        try
+        {
+            for (Message message : batchMessage.getNestedMessages())
+            {
+                httpsBatchMessage.addMessage(HttpsSingleMessage.parseHttpsMessage(message));
+            }
+        }
+        catch (IotHubSizeExceededException e)
+        {
+            //Codes_SRS_HTTPSIOTHUBCONNECTION_41_002: [If the batch exceeds the maximum size of a request, the function
+            // shall throw the exception mapped to REQUEST_ENTITY_TOO_LARGE.]
+            throw IotHubStatusCode.getConnectionStatusException(IotHubStatusCode.REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+        }
+
+        return httpsBatchMessage;
+    }
+
     /**
      * Sends an generic https message.
      *
@@ -396,6 +434,17 @@ public class HttpsIotHubConnection implements IotHubTransportConnection
         }
     }
 
+    /**
+     * Messages are sent over HTTPS one request at a time, so the protocol has no window of its own
+     * @return {@link Integer#MAX_VALUE}
+     */
+    @Override
+    public int getSendWindow()
+    {
+        //Codes_SRS_HTTPSIOTHUBCONNECTION_41_003: [This function shall return Integer.MAX_VALUE.]
+        return Integer.MAX_VALUE;
+    }
+
     private HttpsResponse sendRequest(HttpsRequest request) throws TransportException
     {
         request.setReadTimeoutMillis(this.config.getReadTimeoutMillis());
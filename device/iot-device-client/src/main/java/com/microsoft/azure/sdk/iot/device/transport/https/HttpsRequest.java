@@ -26,7 +26,8 @@ public class HttpsRequest
      * @param url the URL for the request.
      * @param method the HTTPS request method (i.e. GET).
      * @param body the request body. Must be an array of size 0 if the request
-     * method is GET or DELETE.
+     * method is GET or DELETE. The body is not copied, and must not be modified
+     * until the request is sent.
      *
      * @throws TransportException if an Exception occurs in setting up the HTTPS
      * connection.
@@ -41,7 +42,7 @@ public class HttpsRequest
         this.connection = new HttpsConnection(url, method);
         this.connection.setRequestHeader("User-Agent", TransportUtils.JAVA_DEVICE_CLIENT_IDENTIFIER + TransportUtils.CLIENT_VERSION);
         // Codes_SRS_HTTPSREQUEST_11_002: [The function shall write the body to the connection.]
-        this.connection.writeOutput(body);
+        this.connection.writeOutputWithoutCopy(body);
     }
 
     /**
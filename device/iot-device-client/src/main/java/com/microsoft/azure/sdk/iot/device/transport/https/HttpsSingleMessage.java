@@ -78,8 +78,8 @@ public final class HttpsSingleMessage implements HttpsMessage
     {
         // Codes_SRS_HTTPSSINGLEMESSAGE_11_001: [The parsed HttpsSingleMessage shall have a copy of the original message body as its body.]
         // Codes_SRS_HTTPSSINGLEMESSAGE_21_016: [The parsed HttpsSingleMessage shall have a copy of the original message body as its body.]
-        byte[] msgBody = message.getBytes();
-        httpsMsg.body = Arrays.copyOf(msgBody, msgBody.length);
+        // getBytes already returns a copy of the body
+        httpsMsg.body = message.getBytes();
 
         // Codes_SRS_HTTPSSINGLEMESSAGE_11_003: [The parsed HttpsSingleMessage shall add the prefix 'iothub-app-' to each of the message properties.]
         // Codes_SRS_HTTPSSINGLEMESSAGE_21_018: [The parsed HttpsSingleMessage shall add the prefix 'iothub-app-' to each of the message properties.]
@@ -214,6 +214,17 @@ public final class HttpsSingleMessage implements HttpsMessage
         return Arrays.copyOf(this.body, this.body.length);
     }
 
+    /**
+     * Returns the message body without copying it, for the request that sends it. The body must not be modified.
+     *
+     * @return the message body.
+     */
+    byte[] getBodyWithoutCopy()
+    {
+        // Codes_SRS_HTTPSSINGLEMESSAGE_41_001: [The function shall return the message body without copying it.]
+        return this.body;
+    }
+
     /**
      * Returns the message body as a string. The body is encoded using charset
      * UTF-8.
@@ -4,7 +4,7 @@
 package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
 import com.microsoft.azure.sdk.iot.device.Message;
-import com.microsoft.azure.sdk.iot.device.MessageType;
+import com.microsoft.azure.sdk.iot.device.exceptions.SendWindowFullException;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubListener;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
@@ -13,11 +13,6 @@ import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.eclipse.paho.client.mqttv3.*;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
-import java.nio.charset.StandardCharsets;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 abstract public class Mqtt implements MqttCallback
@@ -27,30 +22,56 @@ abstract public class Mqtt implements MqttCallback
     ConcurrentLinkedQueue<Pair<String, byte[]>> allReceivedMessages;
     Object mqttLock;
 
-    private static Map<Integer, Message> unacknowledgedSentMessages = new ConcurrentHashMap<>();
-
     // SAS token expiration check on retry
     private boolean userSpecifiedSASTokenExpiredOnRetry = false;
 
+    /* If true, arrivals are handed to the message listener on the Paho callback thread instead of being queued */
+    private boolean directDispatch;
+
     /* Each property is separated by & and all system properties start with an encoded $ (except for iothub-ack) */
     final static char MESSAGE_PROPERTY_SEPARATOR = '&';
     private final static String MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_ENCODED = "%24";
     private final static char MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_DECODED = '$';
     final static char MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR = '=';
-    private final static int PROPERTY_KEY_INDEX = 0;
-    private final static int PROPERTY_VALUE_INDEX = 1;
 
     /* The system property keys expected in a message */
     //This may be common with amqp as well
-    private final static String ABSOLUTE_EXPIRY_TIME = MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_DECODED + ".exp";
+    final static String ABSOLUTE_EXPIRY_TIME = MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_DECODED + ".exp";
     final static String CORRELATION_ID = MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_DECODED + ".cid";
     final static String MESSAGE_ID = MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_DECODED + ".mid";
     final static String TO = MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_DECODED + ".to";
     final static String USER_ID = MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_DECODED + ".uid";
-    private final static String IOTHUB_ACK = "iothub-ack";
+    final static String IOTHUB_ACK = "iothub-ack";
 
     private IotHubListener listener;
 
+    /* Completes the QoS 0 publishes, which Paho never acknowledges, once they are written to the connection */
+    private final IMqttActionListener writeListener = new IMqttActionListener()
+    {
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken)
+        {
+            if (Mqtt.this.listener != null)
+            {
+                //Codes_SRS_Mqtt_41_006: [Once a QoS 0 message is written to the connection, the listener shall be notified that it was sent.]
+                Mqtt.this.listener.onMessageSent((Message) asyncActionToken.getUserContext(), null);
+            }
+        }
+
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable throwable)
+        {
+            if (Mqtt.this.listener != null)
+            {
+                //Codes_SRS_Mqtt_41_007: [If a QoS 0 message cannot be written to the connection, the listener shall be notified of the derived TransportException.]
+                TransportException transportException = (throwable instanceof MqttException)
+                        ? PahoExceptionTranslator.convertToMqttException((MqttException) throwable, "Unable to publish message")
+                        : new TransportException(throwable);
+                Mqtt.this.listener.onMessageSent((Message) asyncActionToken.getUserContext(), transportException);
+            }
+        }
+    };
+
     /**
      * Constructor to instantiate mqtt broker connection.
      * @param mqttConnection the connection to use
@@ -75,6 +96,19 @@ abstract public class Mqtt implements MqttCallback
         this.messageListener = messageListener;
     }
 
+    /**
+     * Setter for the direct dispatch of arrivals. Only the client set as the callback of the connection receives the
+     * arrivals.
+     *
+     * @param directDispatch if true, each arrival is handed with its topic and payload to the message listener,
+     * instead of being added to the received messages queue.
+     */
+    void setDirectDispatch(boolean directDispatch)
+    {
+        //Codes_SRS_Mqtt_41_008: [The function shall save whether the arrivals are dispatched directly.]
+        this.directDispatch = directDispatch;
+    }
+
     /**
      * Method to connect to mqtt broker connection.
      *
@@ -140,14 +174,48 @@ abstract public class Mqtt implements MqttCallback
     }
 
     /**
-     * Method to publish to mqtt broker connection.
+     * Returns how many more messages can be published before the limit of messages in flight of Paho is reached.
+     *
+     * @return the number of free in flight slots, or 0 if the connection is not open.
+     */
+    protected int getFreeInFlightCount()
+    {
+        MqttAsyncClient mqttAsyncClient = this.mqttConnection.getMqttAsyncClient();
+        if (mqttAsyncClient == null)
+        {
+            //Codes_SRS_Mqtt_41_001: [If the connection is not open, the function shall return 0.]
+            return 0;
+        }
+
+        //Codes_SRS_Mqtt_41_002: [The function shall return the number of in flight slots not used by pending delivery tokens.]
+        return Math.max(0, this.mqttConnection.getMaxInFlightCount() - mqttAsyncClient.getPendingDeliveryTokens().length);
+    }
+
+    /**
+     * Method to publish to mqtt broker connection with QoS 1.
      *
      * @param publishTopic the topic to publish on mqtt broker connection.
      * @param message the message to publish.
-     * @throws TransportException if sas token has expired, if connection hasn't been established yet, or if Paho throws
-     * for any other reason
+     * @throws TransportException if sas token has expired, if connection hasn't been established yet, if the in flight
+     * window is full, or if Paho throws for any other reason
      */
     protected void publish(String publishTopic, Message message) throws TransportException
+    {
+        this.publish(publishTopic, message, MqttConnection.QOS);
+    }
+
+    /**
+     * Method to publish to mqtt broker connection with the given QoS. A QoS 1 message is sent once the broker
+     * acknowledges it, while a QoS 0 message is sent as soon as it is written to the connection, without taking an in
+     * flight slot until its acknowledgement.
+     *
+     * @param publishTopic the topic to publish on mqtt broker connection.
+     * @param message the message to publish.
+     * @param qos the QoS to publish with, either 0 or 1.
+     * @throws TransportException if sas token has expired, if connection hasn't been established yet, if the in flight
+     * window is full, or if Paho throws for any other reason
+     */
+    protected void publish(String publishTopic, Message message, int qos) throws TransportException
     {
         synchronized (this.mqttLock)
         {
@@ -174,7 +242,7 @@ abstract public class Mqtt implements MqttCallback
                     throw transportException;
                 }
 
-                if (message == null || publishTopic == null || publishTopic.length() == 0 || message.getBytes() == null)
+                if (message == null || publishTopic == null || publishTopic.length() == 0 || message.getBodyBuffer() == null)
                 {
                     //Codes_SRS_Mqtt_25_013: [If the either publishTopic is null or empty or if payload is null, the function shall throw an IllegalArgumentException.]
                     throw new IllegalArgumentException("Cannot publish on null or empty publish topic");
@@ -182,44 +250,34 @@ abstract public class Mqtt implements MqttCallback
 
                 byte[] payload = message.getBytes();
 
-                while (this.mqttConnection.getMqttAsyncClient().getPendingDeliveryTokens().length >= MqttConnection.MAX_IN_FLIGHT_COUNT)
+                if (this.mqttConnection.getMqttAsyncClient().getPendingDeliveryTokens().length >= this.mqttConnection.getMaxInFlightCount())
                 {
-                    //Codes_SRS_Mqtt_25_048: [publish shall check for pending publish tokens by calling getPendingDeliveryTokens. And if there are pending tokens publish shall sleep until the number of pending tokens are less than 10 as per paho limitations]
-                    Thread.sleep(10);
-
-                    if (this.mqttConnection.getMqttAsyncClient() == null)
-                    {
-                        TransportException transportException = new TransportException("Connection was lost while waiting for mqtt deliveries to finish");
-                        transportException.setRetryable(true);
-                        throw transportException;
-                    }
-
-                    if (!this.mqttConnection.getMqttAsyncClient().isConnected())
-                    {
-                        //Codes_SRS_Mqtt_25_012: [If the MQTT connection is closed, the function shall throw a ProtocolException.]
-                        TransportException transportException = new TransportException("Cannot publish when mqtt client is holding 10 tokens and is disconnected");
-                        transportException.setRetryable(true);
-                        throw transportException;
-                    }
+                    //Codes_SRS_Mqtt_25_048: [If the in flight window of the connection is full, publish shall throw a SendWindowFullException instead of waiting for a slot.]
+                    throw new SendWindowFullException("Cannot publish while the mqtt in flight window is full");
                 }
 
                 MqttMessage mqttMessage = (payload.length == 0) ? new MqttMessage() : new MqttMessage(payload);
 
-                mqttMessage.setQos(MqttConnection.QOS);
+                mqttMessage.setQos(qos);
+
+                if (qos == 0)
+                {
+                    //Codes_SRS_Mqtt_41_005: [If the QoS is 0, the function shall publish the message without tracking it, and notify the listener once it is written to the connection.]
+                    this.mqttConnection.getMqttAsyncClient().publish(publishTopic, mqttMessage, message, this.writeListener);
+                    return;
+                }
 
                 //Codes_SRS_Mqtt_25_014: [The function shall publish message payload on the publishTopic specified to the IoT Hub given in the configuration.]
                 IMqttDeliveryToken publishToken = this.mqttConnection.getMqttAsyncClient().publish(publishTopic, mqttMessage);
-                this.unacknowledgedSentMessages.put(publishToken.getMessageId(), message);
+
+                //Codes_SRS_Mqtt_41_004: [The function shall track the published message in the messages in flight of its connection.]
+                this.mqttConnection.getInFlightMessages().put(publishToken.getMessageId(), message);
             }
             catch (MqttException e)
             {
                 //Codes_SRS_Mqtt_25_047: [If the Mqtt Client Async throws MqttException, the function shall throw a ProtocolException with the message.]
                 throw PahoExceptionTranslator.convertToMqttException(e, "Unable to publish message on topic : " + publishTopic);
             }
-            catch (InterruptedException e)
-            {
-                throw new TransportException("Interrupted, Unable to publish message on topic : " + publishTopic, e);
-            }
         }
     }
 
@@ -350,6 +408,13 @@ abstract public class Mqtt implements MqttCallback
     @Override
     public void messageArrived(String topic, MqttMessage mqttMessage)
     {
+        if (this.directDispatch && this.messageListener != null)
+        {
+            //Codes_SRS_Mqtt_41_009: [If the arrivals are dispatched directly, this function shall hand the message id, topic and payload to the saved listener without adding them to the received messages queue.]
+            this.messageListener.onMessageArrived(mqttMessage.getId(), topic, mqttMessage.getPayload());
+            return;
+        }
+
         //Codes_SRS_Mqtt_25_030: [The payload of the message and the topic is added to the received messages queue .]
         this.mqttConnection.getAllReceivedMessages().add(new MutablePair<>(topic, mqttMessage.getPayload()));
 
@@ -367,13 +432,12 @@ abstract public class Mqtt implements MqttCallback
     @Override
     public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken)
     {
-        if (this.listener != null)
+        //Codes_SRS_Mqtt_41_003: [The function shall release the in flight slot of the delivered message.]
+        Message deliveredMessage = this.mqttConnection.getInFlightMessages().remove(iMqttDeliveryToken.getMessageId());
+        if (this.listener != null && deliveredMessage != null)
         {
-            if (this.unacknowledgedSentMessages.containsKey(iMqttDeliveryToken.getMessageId()))
-            {
-                //Codes_SRS_Mqtt_34_042: [If this object has a saved listener, that listener shall be notified of the successfully delivered message.]
-                this.listener.onMessageSent(this.unacknowledgedSentMessages.get(iMqttDeliveryToken.getMessageId()), null);
-            }
+            //Codes_SRS_Mqtt_34_042: [If this object has a saved listener, that listener shall be notified of the successfully delivered message.]
+            this.listener.onMessageSent(deliveredMessage, null);
         }
     }
 
@@ -396,88 +460,46 @@ abstract public class Mqtt implements MqttCallback
     }
 
     /**
-     * Converts the provided data and topic string into an instance of Message
-     * @param data the payload from the topic
-     * @param topic the topic string for this message
-     * @return a new instance of Message containing the payload and all the properties in the topic string
+     * Converts a message that arrived on one of the topics of this client, without going through the received
+     * messages queue.
+     *
+     * @param topic the topic the message arrived on.
+     * @param data the payload of the message.
+     * @return the message, or null if the topic does not carry a message this client handles.
+     * @throws TransportException if the topic or payload cannot be converted into a message.
      */
-    private IotHubTransportMessage constructMessage(byte[] data, String topic)
+    IotHubTransportMessage parseMessage(String topic, byte[] data) throws TransportException
     {
-        //Codes_SRS_Mqtt_25_024: [This method shall construct new Message with the bytes obtained from parsePayload and return the message.]
-        IotHubTransportMessage message = new IotHubTransportMessage(data, MessageType.DEVICE_TELEMETRY);
-
-        int propertiesStringStartingIndex = topic.indexOf(MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_ENCODED);
-        if (propertiesStringStartingIndex != -1)
+        if (data == null)
         {
-            String propertiesString = topic.substring(propertiesStringStartingIndex);
-
-            //Codes_SRS_Mqtt_34_041: [This method shall call assignPropertiesToMessage so that all properties from the topic string can be assigned to the message]
-            assignPropertiesToMessage(message, propertiesString);
+            //Codes_SRS_Mqtt_41_010: [If the payload is null, the function shall throw a TransportException.]
+            throw new TransportException("Data cannot be null when topic is non-null");
         }
 
-        return message;
+        try
+        {
+            //Codes_SRS_Mqtt_41_011: [The function shall construct a message from the payload that decodes the properties of the topic when they are first read.]
+            return constructMessage(data, topic);
+        }
+        catch (IllegalArgumentException e)
+        {
+            //Codes_SRS_Mqtt_41_012: [If the properties of the topic are malformed, the function shall throw a TransportException.]
+            throw new TransportException(e);
+        }
     }
 
     /**
-     * Takes propertiesString and parses it for all the properties it holds and then assigns them to the provided message
-     * @param propertiesString the string to parse containing all the properties
-     * @param message the message to add the parsed properties to
+     * Converts the provided data and topic string into an instance of Message
+     * @param data the payload from the topic
+     * @param topic the topic string for this message
+     * @return a new instance of Message containing the payload, that decodes the properties in the topic string when
+     * they are first read
      * @throws IllegalArgumentException if a property's key and value are not separated by the '=' symbol
-     * @throws IllegalStateException if the property for expiry time is present, but the value cannot be parsed as a Long
-     * */
-    private void assignPropertiesToMessage(Message message, String propertiesString) throws IllegalStateException, IllegalArgumentException
+     */
+    static IotHubTransportMessage constructMessage(byte[] data, String topic) throws IllegalArgumentException
     {
-        //Codes_SRS_Mqtt_34_054: [A message may have 0 to many custom properties]
-        //expected format is <key>=<value><MESSAGE_PROPERTY_SEPARATOR><key>=<value><MESSAGE_PROPERTY_SEPARATOR>...
-        for (String propertyString : propertiesString.split(String.valueOf(MESSAGE_PROPERTY_SEPARATOR)))
-        {
-            if (propertyString.contains("="))
-            {
-                //Expected format is <key>=<value> where both key and value may be encoded
-                String key = propertyString.split("=")[PROPERTY_KEY_INDEX];
-                String value = propertyString.split("=")[PROPERTY_VALUE_INDEX];
-                try
-                {
-                    //Codes_SRS_Mqtt_34_053: [A property's key and value may include unusual characters such as &, %, $]
-                    key = URLDecoder.decode(key, StandardCharsets.UTF_8.name());
-                    value = URLDecoder.decode(value, StandardCharsets.UTF_8.name());
-                }
-                catch (UnsupportedEncodingException e)
-                {
-                    // should never happen, since the encoding is hard-coded.
-                    throw new IllegalStateException(e);
-                }
-
-                //Some properties are reserved system properties and must be saved in the message differently
-                switch (key)
-                {
-                    case TO:
-                        //do nothing
-                        break;
-                    case MESSAGE_ID:
-                        message.setMessageId(value);
-                        break;
-                    case IOTHUB_ACK:
-                        //do nothing
-                        break;
-                    case CORRELATION_ID:
-                        message.setCorrelationId(value);
-                        break;
-                    case USER_ID:
-                        //do nothing
-                        break;
-                    case ABSOLUTE_EXPIRY_TIME:
-                        //do nothing
-                        break;
-                    default:
-                        message.setProperty(key, value);
-                }
-            }
-            else
-            {
-                //Codes_SRS_Mqtt_34_051: [If a topic string's property's key and value are not separated by the '=' symbol, an IllegalArgumentException shall be thrown]
-                throw new IllegalArgumentException("Unexpected property string provided. Expected '=' symbol between key and value of the property in string: " + propertyString);
-            }
-        }
+        //Codes_SRS_Mqtt_25_024: [This method shall construct new Message with the bytes obtained from parsePayload and return the message.]
+        //Codes_SRS_Mqtt_34_041: [This method shall keep the properties string of the topic in the message, to be decoded when the properties are first read.]
+        return new MqttReceivedMessage(data, topic, topic.indexOf(MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_ENCODED));
     }
 }
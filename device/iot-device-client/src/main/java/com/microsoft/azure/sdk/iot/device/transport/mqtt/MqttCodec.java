@@ -0,0 +1,469 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.exceptions.ProtocolException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes and decodes the MQTT 3.1.1 packets used to talk to IoT Hub: CONNECT, CONNACK, PUBLISH with QoS 0 and 1,
+ * PUBACK, SUBSCRIBE, SUBACK, PINGREQ, PINGRESP and DISCONNECT.
+ *
+ * <p>The encoders return buffers ready to be read. {@link #decode(ByteBuffer)} reads one packet at a time from a
+ * buffer of received bytes, and leaves the buffer untouched while the packet is incomplete.</p>
+ */
+public final class MqttCodec
+{
+    /* The packet types, as found in the high nibble of the first byte of a packet */
+    public static final int CONNECT = 1;
+    public static final int CONNACK = 2;
+    public static final int PUBLISH = 3;
+    public static final int PUBACK = 4;
+    public static final int SUBSCRIBE = 8;
+    public static final int SUBACK = 9;
+    public static final int PINGREQ = 12;
+    public static final int PINGRESP = 13;
+    public static final int DISCONNECT = 14;
+
+    /* The SUBACK return code of a refused subscription */
+    public static final int SUBSCRIBE_FAILURE = 0x80;
+
+    private static final byte[] PROTOCOL_NAME = {0, 4, 'M', 'Q', 'T', 'T'};
+    private static final byte PROTOCOL_LEVEL = 4;
+
+    private static final int CONNECT_FLAG_USER_NAME = 0x80;
+    private static final int CONNECT_FLAG_PASSWORD = 0x40;
+    private static final int CONNECT_FLAG_CLEAN_SESSION = 0x02;
+
+    /* SUBSCRIBE must set the reserved flags to 0010 */
+    private static final int SUBSCRIBE_FLAGS = 0x02;
+
+    private static final int MAX_REMAINING_LENGTH = 268435455;
+    private static final int MAX_REMAINING_LENGTH_BYTES = 4;
+    private static final int MAX_STRING_LENGTH = 65535;
+    private static final int MAX_MESSAGE_ID = 65535;
+
+    /**
+     * A decoded packet. The fields that do not apply to the type of the packet are 0 or {@code null}.
+     */
+    public static final class Packet
+    {
+        private final int type;
+        private final int qos;
+        private final int messageId;
+        private final String topic;
+        private final byte[] payload;
+        private final int returnCode;
+
+        private Packet(int type, int qos, int messageId, String topic, byte[] payload, int returnCode)
+        {
+            this.type = type;
+            this.qos = qos;
+            this.messageId = messageId;
+            this.topic = topic;
+            this.payload = payload;
+            this.returnCode = returnCode;
+        }
+
+        /**
+         * @return the type of the packet.
+         */
+        public int getType()
+        {
+            return this.type;
+        }
+
+        /**
+         * @return the QoS of a PUBLISH.
+         */
+        public int getQos()
+        {
+            return this.qos;
+        }
+
+        /**
+         * @return the message id of a PUBLISH with QoS 1, a PUBACK or a SUBACK.
+         */
+        public int getMessageId()
+        {
+            return this.messageId;
+        }
+
+        /**
+         * @return the topic of a PUBLISH.
+         */
+        public String getTopic()
+        {
+            return this.topic;
+        }
+
+        /**
+         * @return the payload of a PUBLISH.
+         */
+        public byte[] getPayload()
+        {
+            return this.payload;
+        }
+
+        /**
+         * @return the return code of a CONNACK, or the return code of the first subscription of a SUBACK.
+         */
+        public int getReturnCode()
+        {
+            return this.returnCode;
+        }
+    }
+
+    private MqttCodec()
+    {
+    }
+
+    /**
+     * Encodes a CONNECT packet.
+     *
+     * @param clientId the client identifier. Cannot be {@code null}.
+     * @param userName the user name, or {@code null} for none.
+     * @param password the password, or {@code null} for none.
+     * @param keepAliveSeconds the keep alive interval, between 0 and 65535.
+     * @param cleanSession whether the service shall discard the previous session of the client.
+     * @return the packet.
+     * @throws IllegalArgumentException if the client identifier is {@code null}, or a field is too long.
+     */
+    public static ByteBuffer encodeConnect(String clientId, String userName, String password, int keepAliveSeconds, boolean cleanSession) throws IllegalArgumentException
+    {
+        if (clientId == null)
+        {
+            //Codes_SRS_MQTTCODEC_41_001: [If the client identifier is null, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("clientId cannot be null");
+        }
+
+        byte[] clientIdBytes = encodeString(clientId);
+        byte[] userNameBytes = (userName == null) ? null : encodeString(userName);
+        byte[] passwordBytes = (password == null || password.isEmpty()) ? null : encodeString(password);
+
+        int flags = cleanSession ? CONNECT_FLAG_CLEAN_SESSION : 0;
+        int remainingLength = PROTOCOL_NAME.length + 4 + clientIdBytes.length;
+        if (userNameBytes != null)
+        {
+            flags |= CONNECT_FLAG_USER_NAME;
+            remainingLength += userNameBytes.length;
+        }
+        if (passwordBytes != null)
+        {
+            flags |= CONNECT_FLAG_PASSWORD;
+            remainingLength += passwordBytes.length;
+        }
+
+        //Codes_SRS_MQTTCODEC_41_002: [The function shall encode a CONNECT packet of protocol level 4 with the client identifier, and the user name and password that are provided.]
+        ByteBuffer buffer = allocate(CONNECT << 4, remainingLength);
+        buffer.put(PROTOCOL_NAME);
+        buffer.put(PROTOCOL_LEVEL);
+        buffer.put((byte) flags);
+        buffer.putShort((short) keepAliveSeconds);
+        buffer.put(clientIdBytes);
+        if (userNameBytes != null)
+        {
+            buffer.put(userNameBytes);
+        }
+        if (passwordBytes != null)
+        {
+            buffer.put(passwordBytes);
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes a PUBLISH packet.
+     *
+     * @param topic the topic to publish on. Cannot be {@code null}.
+     * @param payload the payload, between its position and its limit. Cannot be {@code null}. Its position is left
+     *                unchanged.
+     * @param qos the QoS, 0 or 1.
+     * @param messageId the message id, between 1 and 65535, ignored for QoS 0.
+     * @return the packet.
+     * @throws IllegalArgumentException if the topic or payload is {@code null}, the QoS is neither 0 nor 1, or the
+     * message id is out of range.
+     */
+    public static ByteBuffer encodePublish(String topic, ByteBuffer payload, int qos, int messageId) throws IllegalArgumentException
+    {
+        if (topic == null || payload == null)
+        {
+            //Codes_SRS_MQTTCODEC_41_003: [If the topic or the payload is null, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("topic and payload cannot be null");
+        }
+
+        if (qos != 0 && qos != 1)
+        {
+            //Codes_SRS_MQTTCODEC_41_004: [If the QoS is neither 0 nor 1, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("Only QoS 0 and 1 are supported");
+        }
+
+        if (qos == 1)
+        {
+            checkMessageId(messageId);
+        }
+
+        //Codes_SRS_MQTTCODEC_41_005: [The function shall encode a PUBLISH packet with the topic and payload, and the message id if the QoS is 1.]
+        byte[] topicBytes = encodeString(topic);
+        int remainingLength = topicBytes.length + (qos == 1 ? 2 : 0) + payload.remaining();
+        ByteBuffer buffer = allocate((PUBLISH << 4) | (qos << 1), remainingLength);
+        buffer.put(topicBytes);
+        if (qos == 1)
+        {
+            buffer.putShort((short) messageId);
+        }
+        buffer.put(payload.duplicate());
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes a PUBACK packet.
+     *
+     * @param messageId the message id of the acknowledged PUBLISH, between 1 and 65535.
+     * @return the packet.
+     * @throws IllegalArgumentException if the message id is out of range.
+     */
+    public static ByteBuffer encodePubAck(int messageId) throws IllegalArgumentException
+    {
+        checkMessageId(messageId);
+
+        //Codes_SRS_MQTTCODEC_41_006: [The function shall encode a PUBACK packet with the message id.]
+        ByteBuffer buffer = allocate(PUBACK << 4, 2);
+        buffer.putShort((short) messageId);
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes a SUBSCRIBE packet for a single topic filter.
+     *
+     * @param messageId the message id, between 1 and 65535.
+     * @param topicFilter the topic filter. Cannot be {@code null}.
+     * @param qos the maximum QoS of the subscription, 0 or 1.
+     * @return the packet.
+     * @throws IllegalArgumentException if the topic filter is {@code null}, the QoS is neither 0 nor 1, or the message
+     * id is out of range.
+     */
+    public static ByteBuffer encodeSubscribe(int messageId, String topicFilter, int qos) throws IllegalArgumentException
+    {
+        if (topicFilter == null)
+        {
+            //Codes_SRS_MQTTCODEC_41_007: [If the topic filter is null or the QoS is neither 0 nor 1, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("topicFilter cannot be null");
+        }
+
+        if (qos != 0 && qos != 1)
+        {
+            //Codes_SRS_MQTTCODEC_41_007: [If the topic filter is null or the QoS is neither 0 nor 1, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("Only QoS 0 and 1 are supported");
+        }
+
+        checkMessageId(messageId);
+
+        //Codes_SRS_MQTTCODEC_41_008: [The function shall encode a SUBSCRIBE packet with the message id, the topic filter and the QoS.]
+        byte[] topicFilterBytes = encodeString(topicFilter);
+        ByteBuffer buffer = allocate((SUBSCRIBE << 4) | SUBSCRIBE_FLAGS, 2 + topicFilterBytes.length + 1);
+        buffer.putShort((short) messageId);
+        buffer.put(topicFilterBytes);
+        buffer.put((byte) qos);
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes a PINGREQ packet.
+     *
+     * @return the packet.
+     */
+    public static ByteBuffer encodePingRequest()
+    {
+        //Codes_SRS_MQTTCODEC_41_009: [The function shall encode a PINGREQ packet.]
+        return ByteBuffer.wrap(new byte[]{(byte) (PINGREQ << 4), 0});
+    }
+
+    /**
+     * Encodes a DISCONNECT packet.
+     *
+     * @return the packet.
+     */
+    public static ByteBuffer encodeDisconnect()
+    {
+        //Codes_SRS_MQTTCODEC_41_010: [The function shall encode a DISCONNECT packet.]
+        return ByteBuffer.wrap(new byte[]{(byte) (DISCONNECT << 4), 0});
+    }
+
+    /**
+     * Decodes the packet at the position of the buffer, and moves the position after it.
+     *
+     * @param buffer the received bytes, ready to be read.
+     * @return the packet, or {@code null} if the buffer does not hold a whole packet yet. The position of the buffer
+     * is then left unchanged.
+     * @throws ProtocolException if the packet is malformed, or is not a packet a client receives from IoT Hub.
+     */
+    public static Packet decode(ByteBuffer buffer) throws ProtocolException
+    {
+        int start = buffer.position();
+        if (buffer.remaining() < 2)
+        {
+            //Codes_SRS_MQTTCODEC_41_011: [If the buffer does not hold a whole packet, the function shall return null and leave the buffer unchanged.]
+            return null;
+        }
+
+        int header = buffer.get() & 0xFF;
+        int remainingLength = 0;
+        int multiplier = 1;
+        for (int i = 0; ; i++)
+        {
+            if (i == MAX_REMAINING_LENGTH_BYTES)
+            {
+                //Codes_SRS_MQTTCODEC_41_012: [If the packet is malformed or has an unexpected type, the function shall throw a ProtocolException.]
+                throw new ProtocolException("Malformed remaining length");
+            }
+
+            if (!buffer.hasRemaining())
+            {
+                buffer.position(start);
+                return null;
+            }
+
+            int digit = buffer.get() & 0xFF;
+            remainingLength += (digit & 0x7F) * multiplier;
+            multiplier *= 128;
+            if ((digit & 0x80) == 0)
+            {
+                break;
+            }
+        }
+
+        if (buffer.remaining() < remainingLength)
+        {
+            buffer.position(start);
+            return null;
+        }
+
+        int end = buffer.position() + remainingLength;
+        int type = header >>> 4;
+        Packet packet;
+        switch (type)
+        {
+            case CONNACK:
+                checkLength(remainingLength, 2);
+                buffer.get();
+                //Codes_SRS_MQTTCODEC_41_013: [The function shall decode the return code of a CONNACK.]
+                packet = new Packet(CONNACK, 0, 0, null, null, buffer.get() & 0xFF);
+                break;
+            case PUBLISH:
+            {
+                int qos = (header >>> 1) & 0x03;
+                if (qos > 1)
+                {
+                    throw new ProtocolException("Only QoS 0 and 1 are supported");
+                }
+
+                checkLength(remainingLength, 2);
+                int topicLength = buffer.getShort() & 0xFFFF;
+                checkLength(remainingLength, 2 + topicLength + (qos == 1 ? 2 : 0));
+                byte[] topicBytes = new byte[topicLength];
+                buffer.get(topicBytes);
+                int messageId = (qos == 1) ? (buffer.getShort() & 0xFFFF) : 0;
+                byte[] payload = new byte[end - buffer.position()];
+                buffer.get(payload);
+
+                //Codes_SRS_MQTTCODEC_41_014: [The function shall decode the QoS, topic, message id and payload of a PUBLISH.]
+                packet = new Packet(PUBLISH, qos, messageId, new String(topicBytes, StandardCharsets.UTF_8), payload, 0);
+                break;
+            }
+            case PUBACK:
+                checkLength(remainingLength, 2);
+                //Codes_SRS_MQTTCODEC_41_015: [The function shall decode the message id of a PUBACK.]
+                packet = new Packet(PUBACK, 0, buffer.getShort() & 0xFFFF, null, null, 0);
+                break;
+            case SUBACK:
+            {
+                checkLength(remainingLength, 3);
+                int messageId = buffer.getShort() & 0xFFFF;
+                //Codes_SRS_MQTTCODEC_41_016: [The function shall decode the message id and the first return code of a SUBACK.]
+                packet = new Packet(SUBACK, 0, messageId, null, null, buffer.get() & 0xFF);
+                break;
+            }
+            case PINGRESP:
+                packet = new Packet(PINGRESP, 0, 0, null, null, 0);
+                break;
+            default:
+                //Codes_SRS_MQTTCODEC_41_012: [If the packet is malformed or has an unexpected type, the function shall throw a ProtocolException.]
+                throw new ProtocolException("Unexpected MQTT packet type " + type);
+        }
+
+        // skips the fields the client does not use, such as the return codes of the other subscriptions of a SUBACK
+        buffer.position(end);
+        return packet;
+    }
+
+    private static void checkLength(int remainingLength, int expectedLength) throws ProtocolException
+    {
+        if (remainingLength < expectedLength)
+        {
+            //Codes_SRS_MQTTCODEC_41_012: [If the packet is malformed or has an unexpected type, the function shall throw a ProtocolException.]
+            throw new ProtocolException("Malformed MQTT packet");
+        }
+    }
+
+    private static void checkMessageId(int messageId) throws IllegalArgumentException
+    {
+        if (messageId < 1 || messageId > MAX_MESSAGE_ID)
+        {
+            throw new IllegalArgumentException("The message id must be between 1 and " + MAX_MESSAGE_ID);
+        }
+    }
+
+    private static byte[] encodeString(String value) throws IllegalArgumentException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_LENGTH)
+        {
+            throw new IllegalArgumentException("MQTT strings cannot be longer than " + MAX_STRING_LENGTH + " bytes");
+        }
+
+        byte[] encoded = new byte[bytes.length + 2];
+        encoded[0] = (byte) (bytes.length >>> 8);
+        encoded[1] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, encoded, 2, bytes.length);
+        return encoded;
+    }
+
+    private static ByteBuffer allocate(int header, int remainingLength) throws IllegalArgumentException
+    {
+        if (remainingLength > MAX_REMAINING_LENGTH)
+        {
+            throw new IllegalArgumentException("MQTT packets cannot be longer than " + MAX_REMAINING_LENGTH + " bytes");
+        }
+
+        int lengthBytes = 1;
+        for (int length = remainingLength; length > 127; length /= 128)
+        {
+            lengthBytes++;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(1 + lengthBytes + remainingLength);
+        buffer.put((byte) header);
+        int length = remainingLength;
+        do
+        {
+            int digit = length % 128;
+            length /= 128;
+            buffer.put((byte) (length > 0 ? digit | 0x80 : digit));
+        }
+        while (length > 0);
+
+        return buffer;
+    }
+}
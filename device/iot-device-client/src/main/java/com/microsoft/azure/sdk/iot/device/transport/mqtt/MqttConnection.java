@@ -22,6 +22,8 @@ public class MqttConnection
     private ConcurrentLinkedQueue<Pair<String, byte[]>> allReceivedMessages;
     private Object mqttLock;
     private MqttCallback mqttCallback;
+    private int maxInFlightCount = MAX_IN_FLIGHT_COUNT;
+    private MqttInFlightMessages inFlightMessages;
 
     //mqtt connection options
     private static final int KEEP_ALIVE_INTERVAL = 230;
@@ -30,7 +32,7 @@ public class MqttConnection
     static final int QOS = 1;
     static final int MAX_WAIT_TIME = 1000;
 
-    // paho mqtt only supports 10 messages in flight at the same time
+    // paho mqtt allows 10 messages in flight at the same time unless configured otherwise
     static final int MAX_IN_FLIGHT_COUNT = 10;
 
     /**
@@ -76,6 +78,9 @@ public class MqttConnection
         //Codes_SRS_MQTTCONNECTION_25_003: [The constructor shall create lock, queue for this MqttConnection.]
         this.allReceivedMessages = new ConcurrentLinkedQueue<>();
         this.mqttLock = new Object();
+
+        //Codes_SRS_MQTTCONNECTION_41_004: [The constructor shall create the table of the messages in flight on this MqttConnection, sized for the in flight window.]
+        this.inFlightMessages = new MqttInFlightMessages(this.maxInFlightCount);
     }
 
     /**
@@ -89,6 +94,7 @@ public class MqttConnection
         this.connectionOptions.setKeepAliveInterval(KEEP_ALIVE_INTERVAL);
         this.connectionOptions.setCleanSession(SET_CLEAN_SESSION);
         this.connectionOptions.setMqttVersion(MQTT_VERSION);
+        this.connectionOptions.setMaxInflight(this.maxInFlightCount);
         this.connectionOptions.setUserName(userName);
         this.connectionOptions.setSocketFactory(iotHubSSLContext.getSocketFactory());
 
@@ -98,6 +104,46 @@ public class MqttConnection
         }
     }
 
+    /**
+     * Setter for the maximum number of publishes waiting for their acknowledgement. Only takes effect on the next
+     * connect.
+     * @param maxInFlightCount the in flight window
+     * @throws IllegalArgumentException if maxInFlightCount is less than 1
+     */
+    void setMaxInFlightCount(int maxInFlightCount) throws IllegalArgumentException
+    {
+        if (maxInFlightCount < 1)
+        {
+            //Codes_SRS_MQTTCONNECTION_41_001: [This method shall throw IllegalArgumentException if maxInFlightCount is less than 1.]
+            throw new IllegalArgumentException("maxInFlightCount must be at least 1");
+        }
+
+        //Codes_SRS_MQTTCONNECTION_41_002: [This method shall save the in flight window, set it in the connection options and size the table of the messages in flight for it.]
+        this.maxInFlightCount = maxInFlightCount;
+        this.connectionOptions.setMaxInflight(maxInFlightCount);
+        this.inFlightMessages = new MqttInFlightMessages(maxInFlightCount);
+    }
+
+    /**
+     * Getter for the maximum number of publishes waiting for their acknowledgement
+     * @return the in flight window
+     */
+    int getMaxInFlightCount()
+    {
+        //Codes_SRS_MQTTCONNECTION_41_003: [Getter for the in flight window.]
+        return this.maxInFlightCount;
+    }
+
+    /**
+     * Getter for the messages published on this connection and waiting for their acknowledgement
+     * @return the messages in flight, by MQTT message id
+     */
+    MqttInFlightMessages getInFlightMessages()
+    {
+        //Codes_SRS_MQTTCONNECTION_41_005: [Getter for the table of the messages in flight.]
+        return this.inFlightMessages;
+    }
+
     /**
      * Callback to trigger onto if any of the Paho API's triggers callback
      * @param mqttCallback callback to be set
@@ -160,6 +206,9 @@ public class MqttConnection
             // close on that object.]
             this.mqttAsyncClient.close();
         }
+
+        //Codes_SRS_MQTTCONNECTION_41_006: [This function shall forget the messages in flight, since their message ids are only valid on the closed connection.]
+        this.inFlightMessages.clear();
     }
 
     /**
@@ -8,33 +8,34 @@ import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
+import com.microsoft.azure.sdk.iot.device.transport.HashedWheelTimer;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class MqttDeviceMethod extends Mqtt
 {
+    /* The number of method requests that can wait for their response at the same time */
+    private static final int MAX_PENDING_REQUESTS = 1000;
+
     private String subscribeTopic;
     private String responseTopic;
-    private final Map<String, DeviceOperations> requestMap = new HashMap<>();
+    private final MqttPendingRequests requestMap = new MqttPendingRequests(MAX_PENDING_REQUESTS);
     private boolean isStarted = false;
     private final CustomLogger logger = new CustomLogger(this.getClass());
 
-    private final String POUND = "#";
-    private final String BACKSLASH = "/";
-    private final String QUESTION = "?";
+    private static final String POUND = "#";
+    private static final String BACKSLASH = "/";
+    private static final String QUESTION = "?";
 
-    private final String METHOD = "$iothub/methods/";
-    private final String POST = METHOD + "POST";
-    private final String RES = METHOD + "res";
-    private final String REQ_ID = QUESTION + "$rid=";
+    private static final String METHOD = "$iothub/methods/";
+    private static final String POST = METHOD + "POST";
+    private static final String RES = METHOD + "res";
+    private static final String REQ_ID = QUESTION + "$rid=";
 
     //Placement for $iothub/methods/POST/{method name}/?$rid={request id}
-    private final int POST_TOKEN = 2;
-    private final int METHOD_TOKEN = 3;
-    private final int REQID_TOKEN = 4;
+    private static final int POST_TOKEN = 2;
+    private static final int METHOD_TOKEN = 3;
+    private static final int REQID_TOKEN = 4;
 
     public MqttDeviceMethod(MqttConnection mqttConnection) throws TransportException
     {
@@ -62,9 +63,31 @@ public class MqttDeviceMethod extends Mqtt
         if (!requestMap.isEmpty())
         {
             logger.LogInfo("Pending %d responses to be sent to IotHub yet unsubscribed %s", requestMap.size(), logger.getMethodName());
+            requestMap.clear();
         }
     }
 
+    /**
+     * Gives a deadline to each method request received from now on. The requests that are not responded to before
+     * their deadline are forgotten, since the service no longer waits for their response.
+     *
+     * @param timer the timer on which the deadlines are scheduled.
+     * @param timeoutMillis the time a request waits for its response.
+     * @throws IllegalArgumentException if the timer is null or the timeout is not positive.
+     */
+    void setRequestTimeout(HashedWheelTimer timer, long timeoutMillis) throws IllegalArgumentException
+    {
+        //Codes_SRS_MqttDeviceMethod_41_001: [The function shall schedule the deadline of each request received from now on on the timer, and forget the requests that time out.]
+        this.requestMap.setTimeout(timer, timeoutMillis, new MqttPendingRequests.ExpiryListener()
+        {
+            @Override
+            public void onRequestExpired(String requestId, DeviceOperations operation)
+            {
+                logger.LogInfo("Method request %s timed out without a response, method name is %s ", requestId, logger.getMethodName());
+            }
+        });
+    }
+
     /**
      * Sends the provided device method message over the mqtt connection
      *
@@ -74,7 +97,7 @@ public class MqttDeviceMethod extends Mqtt
      */
     public void send(final IotHubTransportMessage message) throws TransportException, IllegalArgumentException
     {
-        if (message == null || message.getBytes() == null)
+        if (message == null || message.getBodyBuffer() == null)
         {
             //Codes_SRS_MqttDeviceMethod_25_016: [send method shall throw an exception if the message is null.]
             throw new IllegalArgumentException("Message cannot be null");
@@ -107,9 +130,10 @@ public class MqttDeviceMethod extends Mqtt
                     throw new IllegalArgumentException("Request id cannot be null or empty");
                 }
 
-                if (requestMap.containsKey(message.getRequestId()))
+                DeviceOperations operation = requestMap.remove(message.getRequestId());
+                if (operation != null)
                 {
-                    switch (requestMap.remove(message.getRequestId()))
+                    switch (operation)
                     {
                         case DEVICE_OPERATION_METHOD_RECEIVE_REQUEST:
                             break;
@@ -123,14 +147,8 @@ public class MqttDeviceMethod extends Mqtt
                     throwMethodsTransportException("Sending a response for the method that was never invoked");
                 }
 
-                String topic = this.responseTopic + BACKSLASH +
-                        message.getStatus() +
-                        BACKSLASH +
-                        REQ_ID +
-                        message.getRequestId();
-
                 //Codes_SRS_MqttDeviceMethod_25_022: [send method shall build the publish topic of the format mentioned in spec ($iothub/methods/res/{status}/?$rid={request id}) and publish if the operation is of type DEVICE_OPERATION_METHOD_SEND_RESPONSE.]
-                this.publish(topic, message);
+                this.publish(buildResponseTopic(message), message);
                 break;
             }
             default:
@@ -167,39 +185,7 @@ public class MqttDeviceMethod extends Mqtt
                             //remove this message from the queue as this is the correct handler
                             allReceivedMessages.poll();
 
-                            // Case for $iothub/methods/POST/{method name}/?$rid={request id}
-                            TopicParser topicParser = new TopicParser(topic);
-
-                            if (data != null && data.length > 0)
-                            {
-                                message = new IotHubTransportMessage(data, MessageType.DEVICE_METHODS);
-                            }
-                            else
-                            {
-                                message = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_METHODS);
-                            }
-
-                            message.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_UNKNOWN);
-
-                            //Codes_SRS_MqttDeviceMethod_25_028: [If the topic is of type post topic then this method shall parse further for method name and set it for the message by calling setMethodName for the message]
-                            String methodName = topicParser.getMethodName(METHOD_TOKEN);
-                            message.setMethodName(methodName);
-
-                            String reqId = topicParser.getRequestId(REQID_TOKEN);
-                            if (reqId != null)
-                            {
-                                //Codes_SRS_MqttDeviceMethod_25_030: [If the topic is of type post topic then this method shall parse further to look for request id which if found is set by calling setRequestId]
-                                message.setRequestId(reqId);
-
-                                //Codes_SRS_MqttDeviceMethod_25_032: [If the topic is of type post topic and if method name and request id has been successfully parsed then this method shall set operation type as DEVICE_OPERATION_METHOD_RECEIVE_REQUEST ]
-                                message.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
-                                requestMap.put(reqId, DeviceOperations.DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
-                            }
-                            else
-                            {
-                                //Codes_SRS_MqttDeviceMethod_25_031: [If request id is not found or is null then receive shall throw TransportException]
-                                throwMethodsTransportException("Request ID cannot be null");
-                            }
+                            message = this.parseMessage(topic, data);
                         }
                     }
                 }
@@ -209,14 +195,106 @@ public class MqttDeviceMethod extends Mqtt
         }
     }
 
-    private void throwMethodsTransportException(String message) throws TransportException
+    /**
+     * Converts a message that arrived on a method topic, without going through the received messages queue.
+     *
+     * @param topic the topic the message arrived on, starting with the method topic prefix.
+     * @param data the payload of the message.
+     * @return the method request, or null if the topic is not a method request topic.
+     * @throws TransportException if the request id of the method request is missing
+     */
+    @Override
+    IotHubTransportMessage parseMessage(String topic, byte[] data) throws TransportException
+    {
+        synchronized (this.mqttLock)
+        {
+            return parseMessage(topic, data, this.requestMap);
+        }
+    }
+
+    /**
+     * Builds the topic the response to a method request is published on.
+     *
+     * @param message the method response, with the status and the request id of the request.
+     * @return the publish topic of the response.
+     */
+    static String buildResponseTopic(IotHubTransportMessage message)
+    {
+        return RES + BACKSLASH +
+                message.getStatus() +
+                BACKSLASH +
+                REQ_ID +
+                message.getRequestId();
+    }
+
+    /**
+     * Converts a message that arrived on a method topic, saving the request until it is responded to.
+     *
+     * @param topic the topic the message arrived on, starting with the method topic prefix.
+     * @param data the payload of the message.
+     * @param requestMap the requests waiting for their response.
+     * @return the method request, or null if the topic is not a method request topic.
+     * @throws TransportException if the request id of the method request is missing, or too many requests wait for
+     * their response
+     */
+    static IotHubTransportMessage parseMessage(String topic, byte[] data, MqttPendingRequests requestMap) throws TransportException
+    {
+        if (topic.length() <= POST.length() || !topic.startsWith(POST))
+        {
+            return null;
+        }
+
+        IotHubTransportMessage message;
+
+        // Case for $iothub/methods/POST/{method name}/?$rid={request id}
+        TopicParser topicParser = new TopicParser(topic);
+
+        if (data != null && data.length > 0)
+        {
+            message = new IotHubTransportMessage(data, MessageType.DEVICE_METHODS);
+        }
+        else
+        {
+            message = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_METHODS);
+        }
+
+        message.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_UNKNOWN);
+
+        //Codes_SRS_MqttDeviceMethod_25_028: [If the topic is of type post topic then this method shall parse further for method name and set it for the message by calling setMethodName for the message]
+        String methodName = topicParser.getMethodName(METHOD_TOKEN);
+        message.setMethodName(methodName);
+
+        String reqId = topicParser.getRequestId(REQID_TOKEN);
+        if (reqId != null)
+        {
+            //Codes_SRS_MqttDeviceMethod_25_030: [If the topic is of type post topic then this method shall parse further to look for request id which if found is set by calling setRequestId]
+            message.setRequestId(reqId);
+
+            //Codes_SRS_MqttDeviceMethod_25_032: [If the topic is of type post topic and if method name and request id has been successfully parsed then this method shall set operation type as DEVICE_OPERATION_METHOD_RECEIVE_REQUEST ]
+            message.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
+            if (!requestMap.put(reqId, DeviceOperations.DEVICE_OPERATION_METHOD_RECEIVE_REQUEST))
+            {
+                //Codes_SRS_MqttDeviceMethod_41_002: [If too many requests wait for their response, this method shall throw TransportException.]
+                throwMethodsTransportException("Too many method requests are waiting for a response");
+            }
+        }
+        else
+        {
+            //Codes_SRS_MqttDeviceMethod_25_031: [If request id is not found or is null then receive shall throw TransportException]
+            throwMethodsTransportException("Request ID cannot be null");
+        }
+
+        return message;
+    }
+
+    private static void throwMethodsTransportException(String message) throws TransportException
     {
         TransportException transportException = new TransportException(message);
         transportException.setIotHubService(TransportException.IotHubService.METHODS);
         throw transportException;
     }
 
-    private void throwMethodsTransportException(Exception e) throws TransportException
+    private static void throwMethodsTransportException(Exception e) throws TransportException
     {
         TransportException transportException = new TransportException(e);
         transportException.setIotHubService(TransportException.IotHubService.METHODS);
@@ -9,46 +9,50 @@ import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.exceptions.IotHubServiceException;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
+import com.microsoft.azure.sdk.iot.device.transport.HashedWheelTimer;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.regex.Pattern;
 
 public class MqttDeviceTwin extends Mqtt
 {
+    /* The number of twin requests that can wait for their response at the same time */
+    private static final int MAX_PENDING_REQUESTS = 1000;
+    /* The status of the responses that complete the requests that timed out */
+    private static final String REQUEST_TIMEOUT_STATUS = "408";
+
     private String subscribeTopic;
-    private final Map<String, DeviceOperations> requestMap = new HashMap<>();
+    private final MqttPendingRequests requestMap = new MqttPendingRequests(MAX_PENDING_REQUESTS);
     private boolean isStarted = false;
     private final CustomLogger logger = new CustomLogger(this.getClass());
 
-    private final String BACKSLASH = "/";
-    private final String AND = "&";
-    private final String QUESTION = "?";
-    private final String POUND = "#";
-
-    private final String TWIN = "$iothub/twin";
-    private final String GET = TWIN + BACKSLASH + "GET";
-    private final String RES = TWIN + BACKSLASH + "res";
-    private final String PATCH = TWIN + BACKSLASH + "PATCH";
-    private final String PROPERTIES = "properties";
-    private final String DESIRED = "desired";
-    private final String REPORTED = "reported";
-    private final String REQ_ID = QUESTION + "$rid=";
-    private final String VERSION = "$version=";
+    private static final String BACKSLASH = "/";
+    private static final String AND = "&";
+    private static final String QUESTION = "?";
+    private static final String POUND = "#";
+
+    private static final String TWIN = "$iothub/twin";
+    private static final String GET = TWIN + BACKSLASH + "GET";
+    private static final String RES = TWIN + BACKSLASH + "res";
+    private static final String PATCH = TWIN + BACKSLASH + "PATCH";
+    private static final String PROPERTIES = "properties";
+    private static final String DESIRED = "desired";
+    private static final String REPORTED = "reported";
+    private static final String REQ_ID = QUESTION + "$rid=";
+    private static final String VERSION = "$version=";
 
     //Placement in $iothub/twin/res/{status}/?$rid={request id}&$version={new version}
-    private final int RES_TOKEN = 2;
-    private final int STATUS_TOKEN = 3;
-    private final int REQID_TOKEN = 4;
-    private final int VERSION_TOKEN = 4;
+    private static final int RES_TOKEN = 2;
+    private static final int STATUS_TOKEN = 3;
+    private static final int REQID_TOKEN = 4;
+    private static final int VERSION_TOKEN = 4;
 
     //Placement for $iothub/twin/PATCH/properties/desired/?$version={new version}
-    private final int PATCH_TOKEN = 2;
-    private final int PROPERTIES_TOKEN = 3;
-    private final int DESIRED_TOKEN = 4;
-    private final int PATCH_VERSION_TOKEN = 5;
+    private static final int PATCH_TOKEN = 2;
+    private static final int PROPERTIES_TOKEN = 3;
+    private static final int DESIRED_TOKEN = 4;
+    private static final int PATCH_VERSION_TOKEN = 5;
 
     public MqttDeviceTwin(MqttConnection mqttConnection) throws TransportException
     {
@@ -76,10 +80,56 @@ public class MqttDeviceTwin extends Mqtt
         if (!requestMap.isEmpty())
         {
             logger.LogInfo("Pending %d responses from IotHub yet unsubscribed %s", requestMap.size(), logger.getMethodName());
+            requestMap.clear();
         }
     }
 
-    private String buildTopic(final IotHubTransportMessage message) throws TransportException
+    /**
+     * Gives a deadline to each get and update reported properties request sent from now on. The requests that get no
+     * response before their deadline are completed with a response of status 408.
+     *
+     * @param timer the timer on which the deadlines are scheduled.
+     * @param timeoutMillis the time a request waits for its response.
+     * @param messageListener the listener the responses of the timed out requests are handed to.
+     * @throws IllegalArgumentException if the timer or the listener is null, or the timeout is not positive.
+     */
+    void setRequestTimeout(HashedWheelTimer timer, long timeoutMillis, final MqttMessageListener messageListener) throws IllegalArgumentException
+    {
+        if (messageListener == null)
+        {
+            //Codes_SRS_MQTTDEVICETWIN_41_001: [If the listener is null, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("messageListener cannot be null");
+        }
+
+        //Codes_SRS_MQTTDEVICETWIN_41_002: [The function shall schedule the deadline of each request sent from now on on the timer.]
+        this.requestMap.setTimeout(timer, timeoutMillis, new MqttPendingRequests.ExpiryListener()
+        {
+            @Override
+            public void onRequestExpired(String requestId, DeviceOperations operation)
+            {
+                //Codes_SRS_MQTTDEVICETWIN_41_003: [Once a request times out, the listener shall be handed an empty response with status 408, the request id and the response operation of the request.]
+                IotHubTransportMessage response = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+                response.setRequestId(requestId);
+                response.setStatus(REQUEST_TIMEOUT_STATUS);
+                response.setDeviceOperationType(operation == DeviceOperations.DEVICE_OPERATION_TWIN_GET_REQUEST
+                        ? DeviceOperations.DEVICE_OPERATION_TWIN_GET_RESPONSE
+                        : DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+
+                logger.LogInfo("Twin request %s timed out without a response, method name is %s ", requestId, logger.getMethodName());
+                messageListener.onRequestTimedOut(response);
+            }
+        });
+    }
+
+    /**
+     * Builds the topic a twin request is published on.
+     *
+     * @param message the twin request.
+     * @return the publish topic of the request.
+     * @throws IllegalArgumentException if a get or update reported properties request has no request id.
+     * @throws UnsupportedOperationException if the operation of the message is not a twin request.
+     */
+    static String buildTopic(final IotHubTransportMessage message)
     {
         StringBuilder topic = new StringBuilder();
         switch (message.getDeviceOperationType())
@@ -177,7 +227,7 @@ public class MqttDeviceTwin extends Mqtt
      */
     public void send(final IotHubTransportMessage message) throws TransportException
     {
-        if (message == null || message.getBytes() == null)
+        if (message == null || message.getBodyBuffer() == null)
         {
             //Codes_SRS_MQTTDEVICETWIN_25_021: [send method shall throw an IllegalArgumentException if the message is null.]
             throw new IllegalArgumentException("Message cannot be null");
@@ -195,7 +245,21 @@ public class MqttDeviceTwin extends Mqtt
         }
 
         String publishTopic = buildTopic(message);
-        requestMap.put(message.getRequestId(), message.getDeviceOperationType());
+
+        // Only the get and update reported properties requests get a response with their request id
+        DeviceOperations operation = message.getDeviceOperationType();
+        if (operation == DeviceOperations.DEVICE_OPERATION_TWIN_GET_REQUEST
+                || operation == DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST)
+        {
+            if (!requestMap.put(message.getRequestId(), operation))
+            {
+                //Codes_SRS_MQTTDEVICETWIN_41_004: [If too many requests wait for their response, send method shall throw a retryable TransportException.]
+                TransportException transportException = new TransportException("Too many twin requests are waiting for a response");
+                transportException.setIotHubService(TransportException.IotHubService.TWIN);
+                transportException.setRetryable(true);
+                throw transportException;
+            }
+        }
         
         //Codes_SRS_MqttMessaging_25_024: [send method shall publish a message to the IOT Hub on the publish topic by calling method publish().]
         if (message.getDeviceOperationType() == DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST)
@@ -215,12 +279,21 @@ public class MqttDeviceTwin extends Mqtt
         }
         else
         {
-            //Codes_SRS_MQTTDEVICETWIN_25_031: [send method shall publish a message to the IOT Hub on the respective publish topic by calling method publish().]
-            this.publish(publishTopic, message);
+            try
+            {
+                //Codes_SRS_MQTTDEVICETWIN_25_031: [send method shall publish a message to the IOT Hub on the respective publish topic by calling method publish().]
+                this.publish(publishTopic, message);
+            }
+            catch (TransportException e)
+            {
+                //Codes_SRS_MQTTDEVICETWIN_41_005: [If the request cannot be published, send method shall forget the request before rethrowing the exception.]
+                requestMap.remove(message.getRequestId());
+                throw e;
+            }
         }
     }
 
-    private String getStatus(String token) throws TransportException
+    private static String getStatus(String token) throws TransportException
     {
         String status = null;
 
@@ -231,13 +304,13 @@ public class MqttDeviceTwin extends Mqtt
         else
         {
             //Codes_SRS_MQTTDEVICETWIN_25_039: [If the topic is of type response topic and if status is either a non 3 digit number or not found then receive shall throw TransportException]
-            this.throwDeviceTwinTransportException("Status could not be parsed");
+            throwDeviceTwinTransportException("Status could not be parsed");
         }
 
         return status;
     }
 
-    private String getRequestId(String token)
+    private static String getRequestId(String token)
     {
         String reqId = null;
 
@@ -257,7 +330,7 @@ public class MqttDeviceTwin extends Mqtt
         return reqId;
     }
 
-    private String getVersion(String token)
+    private static String getVersion(String token)
     {
         String version = null;
 
@@ -295,106 +368,7 @@ public class MqttDeviceTwin extends Mqtt
                         //remove this message from the queue as this is the correct handler
                         allReceivedMessages.poll();
 
-                        if (topic.length() > RES.length() && topic.startsWith(RES))
-                        {
-                            // Tokenize on backslash
-                            String[] topicTokens = topic.split(Pattern.quote("/"));
-                            if (data != null && data.length > 0)
-                            {
-                                //Codes_SRS_MQTTDEVICETWIN_25_044: [If the topic is of type response then this method shall set data and operation type as DEVICE_OPERATION_TWIN_GET_RESPONSE if data is not null]
-                                messsage = new IotHubTransportMessage(data, MessageType.DEVICE_TWIN);
-                                messsage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_UNKNOWN);
-                            }
-                            else
-                            {
-                                // Case for $iothub/twin/res/{status}/?$rid={request id}
-                                //Codes_SRS_MQTTDEVICETWIN_25_045: [If the topic is of type response then this method shall set empty data and operation type as DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE if data is null or empty]
-                                messsage = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN); // empty body
-                                messsage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_UNKNOWN);
-
-                            }
-
-                            // Case for $iothub/twin/res/{status}/?$rid={request id}&$version={new version}
-                            if (topicTokens.length > STATUS_TOKEN)
-                            {
-                                //Codes_SRS_MQTTDEVICETWIN_25_038: [If the topic is of type response topic then this method shall parse further for status and set it for the message by calling setStatus for the message]
-                                messsage.setStatus(getStatus(topicTokens[STATUS_TOKEN]));
-                            }
-                            else
-                            {
-                                this.throwDeviceTwinTransportException(new IotHubServiceException("Message received without status"));
-                            }
-
-                            if (topicTokens.length > REQID_TOKEN)
-                            {
-                                //Codes_SRS_MQTTDEVICETWIN_25_040: [If the topic is of type response topic then this method shall parse further to look for request id which if found is set by calling setRequestId]
-                                String requestId = getRequestId(topicTokens[REQID_TOKEN]);
-                                messsage.setRequestId(requestId);
-                                if (requestMap.containsKey(requestId))
-                                {
-                                    switch (requestMap.remove(requestId))
-                                    {
-                                        case DEVICE_OPERATION_TWIN_GET_REQUEST:
-                                            messsage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_GET_RESPONSE);
-                                            break;
-                                        case DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST:
-                                            messsage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
-                                            break;
-                                        default:
-                                            messsage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_UNKNOWN);
-                                    }
-                                }
-                                else
-                                {
-                                    this.throwDeviceTwinTransportException(new UnsupportedOperationException("Request Id is mandatory"));
-                                }
-                            }
-
-                            if (topicTokens.length > VERSION_TOKEN)
-                            {
-                                //Codes_SRS_MQTTDEVICETWIN_25_041: [If the topic is of type response topic then this method shall parse further to look for version which if found is set by calling setVersion]
-                                messsage.setVersion(getVersion(topicTokens[VERSION_TOKEN]));
-                            }
-                        }
-                        else if (topic.length() > PATCH.length() && topic.startsWith(PATCH))
-                        {
-                            if (topic.startsWith(PATCH + BACKSLASH + PROPERTIES + BACKSLASH + DESIRED))
-                            {
-                                if (data != null)
-                                {
-                                    //Codes_SRS_MQTTDEVICETWIN_25_046: [If the topic is of type patch for desired properties then this method shall set the data and operation type as DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE if data is not null or empty]
-                                    messsage = new IotHubTransportMessage(data, MessageType.DEVICE_TWIN);
-                                    messsage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE);
-                                }
-                                else
-                                {
-                                    
-                                    //Codes_SRS_MQTTDEVICETWIN_25_047: [If the topic is of type patch for desired properties then this method shall throw TransportException if data is null or empty]
-                                    this.throwDeviceTwinTransportException(new UnsupportedOperationException());
-                                }
-
-                                // Case for $iothub/twin/PATCH/properties/desired/?$version={new version}
-                                // Tokenize on backslash
-                                String[] topicTokens = topic.split(Pattern.quote("/"));
-                                if (topicTokens.length > PATCH_VERSION_TOKEN)
-                                {
-                                    //Codes_SRS_MQTTDEVICETWIN_25_042: [If the topic is of type patch for desired properties then this method shall parse further to look for version which if found is set by calling setVersion]
-                                    messsage.setVersion(getVersion(topicTokens[PATCH_VERSION_TOKEN]));
-                                }
-
-                                logger.LogInfo("Message received on DT " + messsage.getDeviceOperationType());
-                            }
-                            else
-                            {
-                                //Codes_SRS_MQTTDEVICETWIN_25_043: [If the topic is not of type response for desired properties then this method shall throw TransportException]
-                                this.throwDeviceTwinTransportException(new UnsupportedOperationException());
-                            }
-                        }
-                        else
-                        {
-                            //Codes_SRS_MQTTDEVICETWIN_25_037: [This method shall parse topic to look for only either twin response topic or twin patch topic and thorw TransportException other wise.]
-                            this.throwDeviceTwinTransportException(new UnsupportedOperationException());
-                        }
+                        messsage = this.parseMessage(topic, data);
                     }
                 }
             }
@@ -404,14 +378,155 @@ public class MqttDeviceTwin extends Mqtt
         }
     }
 
-    private void throwDeviceTwinTransportException(String message) throws TransportException
+    /**
+     * Converts a message that arrived on a twin topic, without going through the received messages queue.
+     *
+     * @param topic the topic the message arrived on, starting with the twin topic prefix.
+     * @param data the payload of the message.
+     * @return the twin message.
+     * @throws TransportException if the topic is not a twin response or desired properties patch topic, or misses
+     * the status or request id of a response
+     */
+    @Override
+    IotHubTransportMessage parseMessage(String topic, byte[] data) throws TransportException
+    {
+        synchronized (this.mqttLock)
+        {
+            IotHubTransportMessage message = parseMessage(topic, data, this.requestMap);
+            if (message.getDeviceOperationType() == DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE)
+            {
+                logger.LogInfo("Message received on DT " + message.getDeviceOperationType());
+            }
+
+            return message;
+        }
+    }
+
+    /**
+     * Converts a message that arrived on a twin topic, completing the request it responds to.
+     *
+     * @param topic the topic the message arrived on, starting with the twin topic prefix.
+     * @param data the payload of the message.
+     * @param requestMap the requests waiting for their response.
+     * @return the twin message.
+     * @throws TransportException if the topic is not a twin response or desired properties patch topic, or misses
+     * the status or request id of a response
+     */
+    static IotHubTransportMessage parseMessage(String topic, byte[] data, MqttPendingRequests requestMap) throws TransportException
+    {
+        IotHubTransportMessage messsage = null;
+
+        if (topic.length() > RES.length() && topic.startsWith(RES))
+        {
+            // Tokenize on backslash
+            String[] topicTokens = topic.split(Pattern.quote("/"));
+            if (data != null && data.length > 0)
+            {
+                //Codes_SRS_MQTTDEVICETWIN_25_044: [If the topic is of type response then this method shall set data and operation type as DEVICE_OPERATION_TWIN_GET_RESPONSE if data is not null]
+                messsage = new IotHubTransportMessage(data, MessageType.DEVICE_TWIN);
+                messsage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_UNKNOWN);
+            }
+            else
+            {
+                // Case for $iothub/twin/res/{status}/?$rid={request id}
+                //Codes_SRS_MQTTDEVICETWIN_25_045: [If the topic is of type response then this method shall set empty data and operation type as DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE if data is null or empty]
+                messsage = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN); // empty body
+                messsage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_UNKNOWN);
+
+            }
+
+            // Case for $iothub/twin/res/{status}/?$rid={request id}&$version={new version}
+            if (topicTokens.length > STATUS_TOKEN)
+            {
+                //Codes_SRS_MQTTDEVICETWIN_25_038: [If the topic is of type response topic then this method shall parse further for status and set it for the message by calling setStatus for the message]
+                messsage.setStatus(getStatus(topicTokens[STATUS_TOKEN]));
+            }
+            else
+            {
+                throwDeviceTwinTransportException(new IotHubServiceException("Message received without status"));
+            }
+
+            if (topicTokens.length > REQID_TOKEN)
+            {
+                //Codes_SRS_MQTTDEVICETWIN_25_040: [If the topic is of type response topic then this method shall parse further to look for request id which if found is set by calling setRequestId]
+                String requestId = getRequestId(topicTokens[REQID_TOKEN]);
+                messsage.setRequestId(requestId);
+                DeviceOperations operation = requestMap.remove(requestId);
+                if (operation != null)
+                {
+                    switch (operation)
+                    {
+                        case DEVICE_OPERATION_TWIN_GET_REQUEST:
+                            messsage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_GET_RESPONSE);
+                            break;
+                        case DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST:
+                            messsage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+                            break;
+                        default:
+                            messsage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_UNKNOWN);
+                    }
+                }
+                else
+                {
+                    throwDeviceTwinTransportException(new UnsupportedOperationException("Request Id is mandatory"));
+                }
+            }
+
+            if (topicTokens.length > VERSION_TOKEN)
+            {
+                //Codes_SRS_MQTTDEVICETWIN_25_041: [If the topic is of type response topic then this method shall parse further to look for version which if found is set by calling setVersion]
+                messsage.setVersion(getVersion(topicTokens[VERSION_TOKEN]));
+            }
+        }
+        else if (topic.length() > PATCH.length() && topic.startsWith(PATCH))
+        {
+            if (topic.startsWith(PATCH + BACKSLASH + PROPERTIES + BACKSLASH + DESIRED))
+            {
+                if (data != null)
+                {
+                    //Codes_SRS_MQTTDEVICETWIN_25_046: [If the topic is of type patch for desired properties then this method shall set the data and operation type as DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE if data is not null or empty]
+                    messsage = new IotHubTransportMessage(data, MessageType.DEVICE_TWIN);
+                    messsage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE);
+                }
+                else
+                {
+                    
+                    //Codes_SRS_MQTTDEVICETWIN_25_047: [If the topic is of type patch for desired properties then this method shall throw TransportException if data is null or empty]
+                    throwDeviceTwinTransportException(new UnsupportedOperationException());
+                }
+
+                // Case for $iothub/twin/PATCH/properties/desired/?$version={new version}
+                // Tokenize on backslash
+                String[] topicTokens = topic.split(Pattern.quote("/"));
+                if (topicTokens.length > PATCH_VERSION_TOKEN)
+                {
+                    //Codes_SRS_MQTTDEVICETWIN_25_042: [If the topic is of type patch for desired properties then this method shall parse further to look for version which if found is set by calling setVersion]
+                    messsage.setVersion(getVersion(topicTokens[PATCH_VERSION_TOKEN]));
+                }
+            }
+            else
+            {
+                //Codes_SRS_MQTTDEVICETWIN_25_043: [If the topic is not of type response for desired properties then this method shall throw TransportException]
+                throwDeviceTwinTransportException(new UnsupportedOperationException());
+            }
+        }
+        else
+        {
+            //Codes_SRS_MQTTDEVICETWIN_25_037: [This method shall parse topic to look for only either twin response topic or twin patch topic and thorw TransportException other wise.]
+            throwDeviceTwinTransportException(new UnsupportedOperationException());
+        }
+
+        return messsage;
+    }
+
+    private static void throwDeviceTwinTransportException(String message) throws TransportException
     {
         TransportException transportException = new TransportException(message);
         transportException.setIotHubService(TransportException.IotHubService.TWIN);
         throw transportException;
     }
 
-    private void throwDeviceTwinTransportException(Exception e) throws TransportException
+    private static void throwDeviceTwinTransportException(Exception e) throws TransportException
     {
         TransportException transportException = new TransportException(e);
         transportException.setIotHubService(TransportException.IotHubService.TWIN);
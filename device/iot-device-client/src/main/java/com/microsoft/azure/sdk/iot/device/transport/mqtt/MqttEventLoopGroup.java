@@ -0,0 +1,284 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of threads, each multiplexing the non-blocking MQTT connections assigned to it with a selector, so
+ * that a gateway can keep thousands of device connections open with a few threads.
+ *
+ * <p>Connections are assigned to the threads round robin. All the network I/O of a connection runs on its thread,
+ * so the work done there must never block.</p>
+ */
+public final class MqttEventLoopGroup implements Closeable
+{
+    private static final String THREAD_NAME_PREFIX = "azure-iot-sdk-MqttEventLoop-";
+
+    /* How often the connections are given the time, to send their keep alive pings */
+    private static final long TICK_MILLIS = 1000;
+
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    /**
+     * A connection served by an event loop.
+     */
+    interface Channel
+    {
+        /**
+         * Called on the event loop when the channel of the connection is ready for the operations it registered for.
+         *
+         * @param key the selection key of the channel.
+         * @throws Exception if the connection failed. The connection is then handed to {@link #onFailure(Throwable)}.
+         */
+        void onReady(SelectionKey key) throws Exception;
+
+        /**
+         * Called on the event loop about once per second.
+         *
+         * @param nowNanos the current {@link System#nanoTime()}.
+         */
+        void onTick(long nowNanos);
+
+        /**
+         * Called on the event loop when the connection failed, or the event loop is closed.
+         *
+         * @param throwable the reason of the failure.
+         */
+        void onFailure(Throwable throwable);
+    }
+
+    /**
+     * One thread of the group, with the selector of its connections.
+     */
+    static final class EventLoop implements Runnable
+    {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private final CustomLogger logger = new CustomLogger(this.getClass());
+        private volatile boolean isClosed;
+
+        private EventLoop(String threadName) throws IOException
+        {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, threadName);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Runs the task on the event loop, after the I/O that is ready.
+         *
+         * @param task the task to run. It must not block.
+         */
+        void execute(Runnable task)
+        {
+            this.tasks.add(task);
+            this.selector.wakeup();
+        }
+
+        /**
+         * @return {@code true} if the calling thread is the thread of this event loop.
+         */
+        boolean inEventLoop()
+        {
+            return Thread.currentThread() == this.thread;
+        }
+
+        /**
+         * Registers a channel with the selector of this event loop. Must be called on the event loop.
+         *
+         * @param selectableChannel the non-blocking channel of the connection.
+         * @param channel the connection, notified when the channel is ready.
+         * @return the selection key of the channel, with no interest operations.
+         * @throws ClosedChannelException if the channel is closed.
+         */
+        SelectionKey register(SelectableChannel selectableChannel, Channel channel) throws ClosedChannelException
+        {
+            return selectableChannel.register(this.selector, 0, channel);
+        }
+
+        @Override
+        public void run()
+        {
+            long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+            long lastTickNanos = System.nanoTime();
+            while (!this.isClosed)
+            {
+                try
+                {
+                    this.selector.select(TICK_MILLIS);
+
+                    Iterator<SelectionKey> selectedKeys = this.selector.selectedKeys().iterator();
+                    while (selectedKeys.hasNext())
+                    {
+                        SelectionKey key = selectedKeys.next();
+                        selectedKeys.remove();
+
+                        Channel channel = (Channel) key.attachment();
+                        try
+                        {
+                            if (key.isValid())
+                            {
+                                channel.onReady(key);
+                            }
+                        }
+                        catch (Exception e)
+                        {
+                            channel.onFailure(e);
+                        }
+                    }
+
+                    this.runTasks();
+
+                    long nowNanos = System.nanoTime();
+                    if (nowNanos - lastTickNanos >= tickNanos)
+                    {
+                        lastTickNanos = nowNanos;
+                        for (SelectionKey key : new ArrayList<>(this.selector.keys()))
+                        {
+                            if (key.isValid())
+                            {
+                                ((Channel) key.attachment()).onTick(nowNanos);
+                            }
+                        }
+                    }
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    this.logger.LogError(e);
+                }
+            }
+
+            // The connections still open can no longer be served
+            for (SelectionKey key : new ArrayList<>(this.selector.keys()))
+            {
+                ((Channel) key.attachment()).onFailure(new IOException("The MQTT event loop is closed"));
+            }
+
+            this.runTasks();
+
+            try
+            {
+                this.selector.close();
+            }
+            catch (IOException e)
+            {
+                this.logger.LogError(e);
+            }
+        }
+
+        private void runTasks()
+        {
+            Runnable task;
+            while ((task = this.tasks.poll()) != null)
+            {
+                try
+                {
+                    task.run();
+                }
+                catch (RuntimeException e)
+                {
+                    this.logger.LogError(e);
+                }
+            }
+        }
+
+        private void close()
+        {
+            this.isClosed = true;
+            this.selector.wakeup();
+        }
+    }
+
+    /**
+     * Constructor. Opens the selectors and starts the threads.
+     *
+     * @param threadCount the number of threads. Must be at least 1.
+     * @throws IllegalArgumentException if threadCount is less than 1.
+     * @throws IOException if a selector cannot be opened.
+     */
+    public MqttEventLoopGroup(int threadCount) throws IllegalArgumentException, IOException
+    {
+        if (threadCount < 1)
+        {
+            //Codes_SRS_MQTTEVENTLOOPGROUP_41_001: [The constructor shall throw an IllegalArgumentException if threadCount is less than 1.]
+            throw new IllegalArgumentException("threadCount must be at least 1");
+        }
+
+        //Codes_SRS_MQTTEVENTLOOPGROUP_41_002: [The constructor shall start threadCount event loops, each with its own selector.]
+        List<EventLoop> eventLoops = new ArrayList<>(threadCount);
+        try
+        {
+            for (int i = 0; i < threadCount; i++)
+            {
+                eventLoops.add(new EventLoop(THREAD_NAME_PREFIX + i));
+            }
+        }
+        catch (IOException e)
+        {
+            for (EventLoop eventLoop : eventLoops)
+            {
+                eventLoop.selector.close();
+            }
+
+            throw e;
+        }
+
+        this.eventLoops = eventLoops.toArray(new EventLoop[threadCount]);
+        for (EventLoop eventLoop : this.eventLoops)
+        {
+            eventLoop.thread.start();
+        }
+    }
+
+    /**
+     * Getter for the event loop of the next connection.
+     *
+     * @return the event loops of the group, one after the other.
+     */
+    EventLoop next()
+    {
+        //Codes_SRS_MQTTEVENTLOOPGROUP_41_003: [The function shall return the event loops of the group round robin.]
+        return this.eventLoops[(this.nextIndex.getAndIncrement() & Integer.MAX_VALUE) % this.eventLoops.length];
+    }
+
+    /**
+     * Getter for the number of threads of the group.
+     *
+     * @return the number of event loops.
+     */
+    public int getThreadCount()
+    {
+        return this.eventLoops.length;
+    }
+
+    /**
+     * Stops the threads of the group. The connections still open are failed, as if the network was lost.
+     */
+    @Override
+    public void close()
+    {
+        //Codes_SRS_MQTTEVENTLOOPGROUP_41_004: [The function shall stop all the event loops, failing the connections they still serve.]
+        for (EventLoop eventLoop : this.eventLoops)
+        {
+            eventLoop.close();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.Message;
+
+/**
+ * The messages published on one MQTT connection and waiting for their acknowledgement, by MQTT message id.
+ *
+ * <p>Message ids are only unique within a connection, so each connection keeps its own table. The table is an open
+ * addressing hash table on primitive keys, sized for the in flight window of the connection, so that tracking a
+ * publish allocates nothing. It grows if more messages than expected are in flight.</p>
+ */
+public final class MqttInFlightMessages
+{
+    private static final int NO_KEY = 0;
+
+    private int[] keys;
+    private Message[] values;
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedCount the number of messages expected to be in flight at the same time. Must be at least 1.
+     * @throws IllegalArgumentException if expectedCount is less than 1.
+     */
+    public MqttInFlightMessages(int expectedCount) throws IllegalArgumentException
+    {
+        if (expectedCount < 1)
+        {
+            //Codes_SRS_MQTTINFLIGHTMESSAGES_41_001: [The constructor shall throw an IllegalArgumentException if expectedCount is less than 1.]
+            throw new IllegalArgumentException("expectedCount must be at least 1");
+        }
+
+        //Codes_SRS_MQTTINFLIGHTMESSAGES_41_002: [The constructor shall create a table that holds expectedCount messages without growing.]
+        int capacity = Integer.highestOneBit(expectedCount * 2 - 1) << 1;
+        this.keys = new int[capacity];
+        this.values = new Message[capacity];
+    }
+
+    /**
+     * Saves the message published with the given MQTT message id, replacing any message saved with the same id.
+     *
+     * @param messageId the MQTT message id, between 1 and 65535.
+     * @param message the message. Cannot be {@code null}.
+     * @throws IllegalArgumentException if the message id is 0 or the message is {@code null}.
+     */
+    public synchronized void put(int messageId, Message message) throws IllegalArgumentException
+    {
+        if (messageId == NO_KEY || message == null)
+        {
+            //Codes_SRS_MQTTINFLIGHTMESSAGES_41_003: [If the message id is 0 or the message is null, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("The message id cannot be 0 and the message cannot be null");
+        }
+
+        if (2 * (this.size + 1) > this.keys.length)
+        {
+            //Codes_SRS_MQTTINFLIGHTMESSAGES_41_004: [If the table is half full, the function shall double its capacity.]
+            this.resize(this.keys.length * 2);
+        }
+
+        //Codes_SRS_MQTTINFLIGHTMESSAGES_41_005: [The function shall save the message under the message id.]
+        int index = this.indexOf(messageId);
+        if (this.keys[index] == NO_KEY)
+        {
+            this.keys[index] = messageId;
+            this.size++;
+        }
+
+        this.values[index] = message;
+    }
+
+    /**
+     * Removes the message published with the given MQTT message id.
+     *
+     * @param messageId the MQTT message id.
+     * @return the message, or {@code null} if no message was saved with that id.
+     */
+    public synchronized Message remove(int messageId)
+    {
+        if (messageId == NO_KEY)
+        {
+            return null;
+        }
+
+        int index = this.indexOf(messageId);
+        if (this.keys[index] == NO_KEY)
+        {
+            //Codes_SRS_MQTTINFLIGHTMESSAGES_41_006: [If no message was saved with the message id, the function shall return null.]
+            return null;
+        }
+
+        //Codes_SRS_MQTTINFLIGHTMESSAGES_41_007: [The function shall remove and return the message saved with the message id.]
+        Message message = this.values[index];
+        this.keys[index] = NO_KEY;
+        this.values[index] = null;
+        this.size--;
+
+        // Move back the entries that probed past the removed one, so that lookups never stop on the hole
+        int mask = this.keys.length - 1;
+        int hole = index;
+        for (int i = (index + 1) & mask; this.keys[i] != NO_KEY; i = (i + 1) & mask)
+        {
+            int home = hash(this.keys[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask))
+            {
+                this.keys[hole] = this.keys[i];
+                this.values[hole] = this.values[i];
+                this.keys[i] = NO_KEY;
+                this.values[i] = null;
+                hole = i;
+            }
+        }
+
+        return message;
+    }
+
+    /**
+     * Removes all the messages.
+     */
+    public synchronized void clear()
+    {
+        //Codes_SRS_MQTTINFLIGHTMESSAGES_41_008: [The function shall remove all the messages.]
+        for (int i = 0; i < this.keys.length; i++)
+        {
+            this.keys[i] = NO_KEY;
+            this.values[i] = null;
+        }
+
+        this.size = 0;
+    }
+
+    /**
+     * Getter for the number of messages in flight.
+     *
+     * @return the number of messages saved.
+     */
+    public synchronized int size()
+    {
+        //Codes_SRS_MQTTINFLIGHTMESSAGES_41_009: [The function shall return the number of messages saved.]
+        return this.size;
+    }
+
+    /**
+     * Returns the slot holding the key, or the empty slot where it would be inserted.
+     */
+    private int indexOf(int messageId)
+    {
+        int mask = this.keys.length - 1;
+        int index = hash(messageId) & mask;
+        while (this.keys[index] != NO_KEY && this.keys[index] != messageId)
+        {
+            index = (index + 1) & mask;
+        }
+
+        return index;
+    }
+
+    private void resize(int capacity)
+    {
+        int[] oldKeys = this.keys;
+        Message[] oldValues = this.values;
+        this.keys = new int[capacity];
+        this.values = new Message[capacity];
+
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != NO_KEY)
+            {
+                int index = this.indexOf(oldKeys[i]);
+                this.keys[index] = oldKeys[i];
+                this.values[index] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Paho hands out consecutive message ids, which already spread over the slots. The multiplication only breaks up
+     * other patterns.
+     */
+    private static int hash(int messageId)
+    {
+        return messageId * 0x9E3779B9 >>> 16 ^ messageId;
+    }
+}
@@ -43,6 +43,21 @@ public class MqttIotHubConnection implements IotHubTransportConnection, MqttMess
 
     private static final String TWIN_API_VERSION = "api-version=2016-11-14";
 
+    /* Prefixes classifying the arrivals between the clients when they are dispatched directly */
+    private static final String TWIN_TOPIC_PREFIX = "$iothub/twin/";
+    private static final String METHODS_TOPIC_PREFIX = "$iothub/methods/";
+
+    /* The longest time the service waits for the response to a method request */
+    private static final long METHOD_REQUEST_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    /* The message id of the responses built for the timed out requests, which are not acknowledged to the service */
+    private static final int NO_ACKNOWLEDGEMENT_MESSAGE_ID = -1;
+
+    /* Schedules the deadlines of the twin and method requests when the config has no client runtime */
+    private static final long TIMER_TICK_MILLIS = 100;
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
+    private final HashedWheelTimer ownedTimer = new HashedWheelTimer(TIMER_TICK_MILLIS, TIMER_TICKS_PER_WHEEL);
+
     private IotHubListener listener;
 
     private CustomLogger logger;
@@ -168,12 +183,24 @@ public class MqttIotHubConnection implements IotHubTransportConnection, MqttMess
                             this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword, sslContext);
                 }
 
+                //Codes_SRS_MQTTIOTHUBCONNECTION_41_003: [The function shall set the in flight window of the connection from the config.]
+                this.mqttConnection.setMaxInFlightCount(this.config.getMqttMaxInFlightCount());
+
                 //Codes_SRS_MQTTIOTHUBCONNECTION_34_030: [This function shall instantiate this object's MqttMessaging object with this object as the listener.]
                 this.deviceMessaging = new MqttMessaging(mqttConnection, this.config.getDeviceId(), this.listener, this);
+                //Codes_SRS_MQTTIOTHUBCONNECTION_41_004: [The function shall set the default telemetry delivery mode of the messaging client from the config.]
+                this.deviceMessaging.setDefaultDeliveryMode(this.config.getTelemetryDeliveryMode());
+                //Codes_SRS_MQTTIOTHUBCONNECTION_41_005: [The function shall set whether the arrivals are dispatched directly from the config.]
+                this.deviceMessaging.setDirectDispatch(this.config.isMqttDirectDispatch());
                 this.mqttConnection.setMqttCallback(this.deviceMessaging);
                 this.deviceMethod = new MqttDeviceMethod(mqttConnection);
                 this.deviceTwin = new MqttDeviceTwin(mqttConnection);
 
+                //Codes_SRS_MQTTIOTHUBCONNECTION_41_008: [The function shall give the twin requests a deadline of the operation timeout of the config and the method requests a deadline of 5 minutes, on the timer of the client runtime of the config if it has one.]
+                HashedWheelTimer requestTimer = (this.config.getClientRuntime() != null) ? this.config.getClientRuntime().getTimer() : this.ownedTimer;
+                this.deviceTwin.setRequestTimeout(requestTimer, this.config.getOperationTimeout(), this);
+                this.deviceMethod.setRequestTimeout(requestTimer, METHOD_REQUEST_TIMEOUT_MILLIS);
+
                 this.deviceMessaging.start();
                 this.state = IotHubConnectionStatus.CONNECTED;
             }
@@ -232,6 +259,9 @@ public class MqttIotHubConnection implements IotHubTransportConnection, MqttMess
                 this.deviceMessaging = null;
             }
 
+            //Codes_SRS_MQTTIOTHUBCONNECTION_41_009: [The function shall stop the timer of the request deadlines if the connection owns it.]
+            this.ownedTimer.stop();
+
             this.state = IotHubConnectionStatus.DISCONNECTED;
         }
         catch (TransportException e)
@@ -257,11 +287,11 @@ public class MqttIotHubConnection implements IotHubTransportConnection, MqttMess
         {
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_010: [If the message is null or empty,
             // the function shall return status code BAD_FORMAT.]
-            if (message == null || message.getBytes() == null ||
+            if (message == null || message.getBodyBuffer() == null ||
                     (
                             (message.getMessageType() != MessageType.DEVICE_TWIN
                                     && message.getMessageType() != MessageType.DEVICE_METHODS)
-                                    && message.getBytes().length == 0))
+                                    && !message.getBodyBuffer().hasRemaining()))
             {
                 return IotHubStatusCode.BAD_FORMAT;
             }
@@ -362,11 +392,11 @@ public class MqttIotHubConnection implements IotHubTransportConnection, MqttMess
         {
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_010: [If the message is null or empty,
             // the function shall return status code BAD_FORMAT.]
-            if (message == null || message.getBytes() == null ||
+            if (message == null || message.getBodyBuffer() == null ||
                     (
                             (message.getMessageType() != DEVICE_TWIN
                                     && message.getMessageType() != DEVICE_METHODS)
-                                    && message.getBytes().length == 0))
+                                    && !message.getBodyBuffer().hasRemaining()))
             {
                 return IotHubStatusCode.BAD_FORMAT;
             }
@@ -432,7 +462,12 @@ public class MqttIotHubConnection implements IotHubTransportConnection, MqttMess
         }
 
         boolean ackSent;
-        if (message.getMessageType() == DEVICE_METHODS)
+        if (messageId == NO_ACKNOWLEDGEMENT_MESSAGE_ID)
+        {
+            //Codes_SRS_MQTTIOTHUBCONNECTION_41_010: [If the provided message is the response built for a timed out request, this function shall not send an ack.]
+            ackSent = true;
+        }
+        else if (message.getMessageType() == DEVICE_METHODS)
         {
             //Codes_SRS_MQTTIOTHUBCONNECTION_34_053: [If the provided message has message type DEVICE_METHODS, this function shall invoke the methods client to send the ack and return the result.]
             this.deviceMethod.start();
@@ -459,6 +494,23 @@ public class MqttIotHubConnection implements IotHubTransportConnection, MqttMess
         return ackSent;
     }
 
+    /**
+     * Returns the number of free in flight slots of the telemetry client
+     * @return the number of messages that can be published without waiting, or 0 if the connection is not open
+     */
+    @Override
+    public int getSendWindow()
+    {
+        if (this.deviceMessaging == null)
+        {
+            //Codes_SRS_MQTTIOTHUBCONNECTION_41_001: [If the connection is not open, this function shall return 0.]
+            return 0;
+        }
+
+        //Codes_SRS_MQTTIOTHUBCONNECTION_41_002: [This function shall return the number of free in flight slots of the telemetry client.]
+        return this.deviceMessaging.getFreeInFlightCount();
+    }
+
     @Override
     public void onMessageArrived(int messageId)
     {
@@ -475,6 +527,54 @@ public class MqttIotHubConnection implements IotHubTransportConnection, MqttMess
             this.logger.LogError(e);
         }
 
+        this.handleReceivedMessage(transportMessage, messageId);
+    }
+
+    @Override
+    public void onMessageArrived(int messageId, String topic, byte[] payload)
+    {
+        IotHubTransportMessage transportMessage = null;
+        try
+        {
+            //Codes_SRS_MQTTIOTHUBCONNECTION_41_006: [This function shall convert the arrival with the methods client if the topic starts with the methods prefix, with the twin client if it starts with the twin prefix, and with the messaging client otherwise.]
+            if (topic.startsWith(METHODS_TOPIC_PREFIX))
+            {
+                transportMessage = this.deviceMethod.parseMessage(topic, payload);
+            }
+            else if (topic.startsWith(TWIN_TOPIC_PREFIX))
+            {
+                transportMessage = this.deviceTwin.parseMessage(topic, payload);
+            }
+            else
+            {
+                transportMessage = this.deviceMessaging.parseMessage(topic, payload);
+            }
+        }
+        catch (TransportException e)
+        {
+            this.listener.onMessageReceived(null, new TransportException("Failed to receive message from service", e));
+            this.logger.LogInfo("Encountered exception while receiving message from Iot Hub over MQTT");
+            this.logger.LogError(e);
+        }
+
+        //Codes_SRS_MQTTIOTHUBCONNECTION_41_007: [This function shall hand the converted message to its listener the same way as a queued arrival.]
+        this.handleReceivedMessage(transportMessage, messageId);
+    }
+
+    @Override
+    public void onRequestTimedOut(IotHubTransportMessage response)
+    {
+        //Codes_SRS_MQTTIOTHUBCONNECTION_41_011: [This function shall hand the response to its listener the same way as an arrival, without a message id to acknowledge.]
+        this.handleReceivedMessage(response, NO_ACKNOWLEDGEMENT_MESSAGE_ID);
+    }
+
+    /**
+     * Saves a received message to be acknowledged, sets its callback and notifies the listener
+     * @param transportMessage the received message, or null if the arrival could not be converted
+     * @param messageId the MQTT message id of the arrival
+     */
+    private void handleReceivedMessage(IotHubTransportMessage transportMessage, int messageId)
+    {
         if (transportMessage == null)
         {
             //Ack is not sent to service for this message because we cannot interpret the message. Service will likely re-send
@@ -5,7 +5,27 @@
 
 package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
+
 public interface MqttMessageListener
 {
     public void onMessageArrived(int messageId);
+
+    /**
+     * Called on the Paho callback thread for each arrival when the arrivals are dispatched directly, instead of
+     * {@link #onMessageArrived(int)} once the arrival is queued.
+     *
+     * @param messageId the MQTT message id of the arrival.
+     * @param topic the topic the message arrived on.
+     * @param payload the payload of the message.
+     */
+    public void onMessageArrived(int messageId, String topic, byte[] payload);
+
+    /**
+     * Called on the timer thread with the response that completes a request the service did not respond to in time.
+     * The response has no MQTT message id and is not acknowledged to the service.
+     *
+     * @param response the response built for the timed out request.
+     */
+    public void onRequestTimedOut(IotHubTransportMessage response);
 }
@@ -4,7 +4,9 @@
 package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
 import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageDeliveryMode;
 import com.microsoft.azure.sdk.iot.device.MessageProperty;
+import com.microsoft.azure.sdk.iot.device.MessageTemplate;
 import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubListener;
@@ -15,6 +17,9 @@ public class MqttMessaging extends Mqtt
     private String publishTopic;
     private String parseTopic;
 
+    /* Delivery mode of the messages that do not set their own */
+    private MessageDeliveryMode defaultDeliveryMode = MessageDeliveryMode.AT_LEAST_ONCE;
+
     public MqttMessaging(MqttConnection mqttConnection, String deviceId, IotHubListener listener, MqttMessageListener messageListener) throws TransportException
     {
         //Codes_SRS_MqttMessaging_25_002: [The constructor shall use the configuration to instantiate super class and passing the parameters.]
@@ -47,6 +52,24 @@ public class MqttMessaging extends Mqtt
        this.disconnect();
     }
 
+    /**
+     * Setter for the delivery mode of the telemetry messages that do not set their own
+     *
+     * @param defaultDeliveryMode the default delivery mode. Cannot be {@code null}.
+     * @throws IllegalArgumentException if defaultDeliveryMode is {@code null}.
+     */
+    void setDefaultDeliveryMode(MessageDeliveryMode defaultDeliveryMode) throws IllegalArgumentException
+    {
+        if (defaultDeliveryMode == null)
+        {
+            //Codes_SRS_MqttMessaging_41_002: [If the default delivery mode is null, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("The default delivery mode cannot be null");
+        }
+
+        //Codes_SRS_MqttMessaging_41_003: [The function shall save the default delivery mode.]
+        this.defaultDeliveryMode = defaultDeliveryMode;
+    }
+
     /**
      * Sends the provided telemetry message over the mqtt connection
      *
@@ -55,14 +78,33 @@ public class MqttMessaging extends Mqtt
      */
     public void send(Message message) throws TransportException
     {
-        if (message == null || message.getBytes() == null)
+        if (message == null || message.getBodyBuffer() == null)
         {
             //Codes_SRS_MqttMessaging_25_025: [send method shall throw an IllegalArgumentException if the message is null.]
             throw new IllegalArgumentException("Message cannot be null");
         }
 
+        String messagePublishTopic = buildTopic(this.publishTopic, message);
+
+        //Codes_SRS_MqttMessaging_41_004: [send method shall publish with QoS 0 if the delivery mode of the message, or the default delivery mode if the message has none, is AT_MOST_ONCE.]
+        MessageDeliveryMode deliveryMode = (message.getDeliveryMode() == null) ? this.defaultDeliveryMode : message.getDeliveryMode();
+        int qos = (deliveryMode == MessageDeliveryMode.AT_MOST_ONCE) ? 0 : MqttConnection.QOS;
+
+        //Codes_SRS_MqttMessaging_25_024: [send method shall publish a message to the IOT Hub on the publish topic by calling method publish().]
+        this.publish(messagePublishTopic, message, qos);
+    }
+
+    /**
+     * Builds the topic a telemetry message is published on, carrying the system and custom properties of the message.
+     *
+     * @param publishTopic the telemetry topic of the device.
+     * @param message the message to publish.
+     * @return the publish topic of the message.
+     */
+    static String buildTopic(String publishTopic, Message message)
+    {
         StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append(this.publishTopic);
+        stringBuilder.append(publishTopic);
 
         boolean separatorNeeded = false;
 
@@ -121,25 +163,40 @@ public class MqttMessaging extends Mqtt
             separatorNeeded = true;
         }
 
-        for (MessageProperty property : message.getProperties())
+        MessageTemplate template = message.getTemplate();
+        if (template != null)
         {
-            if (separatorNeeded)
+            //Codes_SRS_MqttMessaging_41_001: [If the message is attached to a template, this method shall append the properties as already encoded by the template.]
+            String propertiesQueryString = template.getPropertiesQueryString();
+            if (!propertiesQueryString.isEmpty())
             {
-                stringBuilder.append(MESSAGE_PROPERTY_SEPARATOR);
+                if (separatorNeeded)
+                {
+                    stringBuilder.append(MESSAGE_PROPERTY_SEPARATOR);
+                }
+
+                stringBuilder.append(propertiesQueryString);
             }
+        }
+        else
+        {
+            for (MessageProperty property : message.getProperties())
+            {
+                if (separatorNeeded)
+                {
+                    stringBuilder.append(MESSAGE_PROPERTY_SEPARATOR);
+                }
 
-            //Codes_SRS_MqttMessaging_34_026: [This method shall append each custom property's name and value to the publishTopic before publishing.]
-            stringBuilder.append(property.getName());
-            stringBuilder.append(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR);
-            stringBuilder.append(property.getValue());
+                //Codes_SRS_MqttMessaging_34_026: [This method shall append each custom property's name and value to the publishTopic before publishing.]
+                stringBuilder.append(property.getName());
+                stringBuilder.append(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR);
+                stringBuilder.append(property.getValue());
 
-            separatorNeeded = true;
+                separatorNeeded = true;
+            }
         }
 
-        String messagePublishTopic = stringBuilder.toString();
-
-        //Codes_SRS_MqttMessaging_25_024: [send method shall publish a message to the IOT Hub on the publish topic by calling method publish().]
-        this.publish(messagePublishTopic, message);
+        return stringBuilder.toString();
     }
 
     private void throwTelemetryTransportException(Exception e) throws TransportException
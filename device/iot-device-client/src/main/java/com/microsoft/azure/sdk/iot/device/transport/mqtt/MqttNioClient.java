@@ -0,0 +1,880 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import com.microsoft.azure.sdk.iot.device.exceptions.ProtocolException;
+import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.exceptions.*;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_TASK;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_WRAP;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+
+/**
+ * An MQTT 3.1.1 client over TLS on a non-blocking socket, served by an {@link MqttEventLoopGroup} event loop.
+ *
+ * <p>Publishes, acknowledgements and subscriptions are queued from any thread and written by the event loop, which
+ * also hands the received packets to the callback. The callback runs on the event loop and must not block.</p>
+ */
+final class MqttNioClient implements MqttEventLoopGroup.Channel
+{
+    /**
+     * Notified, on the event loop, of what happens on the connection.
+     */
+    interface Callback
+    {
+        void onPublishReceived(int messageId, String topic, byte[] payload);
+
+        void onPublishAcknowledged(int messageId);
+
+        /**
+         * Called once a publish queued with a context is written to the connection, or cannot be written.
+         *
+         * @param context the context of the publish.
+         * @param throwable {@code null} if the publish was written, or the reason it was not.
+         */
+        void onPublishWritten(Object context, Throwable throwable);
+
+        void onConnectionLost(Throwable throwable);
+    }
+
+    // same keep alive as the Paho connections
+    private static final int KEEP_ALIVE_SECONDS = 230;
+    private static final long KEEP_ALIVE_NANOS = TimeUnit.SECONDS.toNanos(KEEP_ALIVE_SECONDS);
+
+    /* Time to wait for a subscription to be acknowledged, and for the disconnect to be written */
+    private static final long SUBSCRIBE_TIMEOUT_MILLIS = MqttConnection.MAX_WAIT_TIME;
+    private static final long DISCONNECT_TIMEOUT_MILLIS = MqttConnection.MAX_WAIT_TIME;
+
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    private final MqttEventLoopGroup.EventLoop eventLoop;
+    private final String hostName;
+    private final int port;
+    private final SSLContext sslContext;
+    private final Callback callback;
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /* The packets waiting to be written, queued from any thread */
+    private final Queue<Write> writes = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean isFlushScheduled = new AtomicBoolean();
+    private final Runnable flushTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            isFlushScheduled.set(false);
+            if (isClosed)
+            {
+                failWrites(new IOException("The MQTT connection is closed"));
+                return;
+            }
+
+            try
+            {
+                pump();
+            }
+            catch (Exception e)
+            {
+                onFailure(e);
+            }
+        }
+    };
+
+    private final AtomicInteger lastMessageId = new AtomicInteger();
+    private final Map<Integer, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final CountDownLatch connectLatch = new CountDownLatch(1);
+    private volatile TransportException connectException;
+    private volatile boolean isConnected;
+    private volatile boolean isClosed;
+
+    // The state below is only used on the event loop
+    private SocketChannel socketChannel;
+    private SelectionKey selectionKey;
+    private SSLEngine sslEngine;
+    private ByteBuffer netIn;
+    private ByteBuffer appIn;
+    private ByteBuffer netOut;
+    private ByteBuffer connectPacket;
+    private boolean isHandshakeStarted;
+    private boolean isHandshakeFinished;
+    private long lastReadNanos;
+    private long lastWriteNanos;
+    private boolean isPingOutstanding;
+    private long pingSentNanos;
+
+    /* The packets wrapped into netOut, whose contexts are notified once netOut is drained */
+    private final List<Write> wrappedWrites = new ArrayList<>();
+
+    private static final class Write
+    {
+        private final ByteBuffer packet;
+        private final Object context;
+
+        private Write(ByteBuffer packet, Object context)
+        {
+            this.packet = packet;
+            this.context = context;
+        }
+    }
+
+    private static final class Subscription
+    {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile int returnCode = MqttCodec.SUBSCRIBE_FAILURE;
+    }
+
+    /**
+     * Constructor. The connection is opened by {@link #connect(String, String, String, long)}.
+     *
+     * @param eventLoop the event loop serving the connection.
+     * @param hostName the host name of the IoT Hub.
+     * @param port the MQTT port of the IoT Hub.
+     * @param sslContext the TLS context of the connection.
+     * @param callback the callback of the connection.
+     */
+    MqttNioClient(MqttEventLoopGroup.EventLoop eventLoop, String hostName, int port, SSLContext sslContext, Callback callback)
+    {
+        this.eventLoop = eventLoop;
+        this.hostName = hostName;
+        this.port = port;
+        this.sslContext = sslContext;
+        this.callback = callback;
+    }
+
+    /**
+     * Opens the TLS connection and sends the CONNECT packet, and waits for the CONNACK.
+     *
+     * @param clientId the MQTT client id.
+     * @param userName the MQTT user name.
+     * @param password the MQTT password, or {@code null} for none.
+     * @param timeoutMillis the time to wait for the connection to be accepted.
+     * @throws TransportException if the connection cannot be opened, or is refused by the service.
+     */
+    void connect(String clientId, String userName, String password, long timeoutMillis) throws TransportException
+    {
+        this.connectPacket = MqttCodec.encodeConnect(clientId, userName, password, KEEP_ALIVE_SECONDS, false);
+
+        final InetSocketAddress address = new InetSocketAddress(this.hostName, this.port);
+        if (address.isUnresolved())
+        {
+            ProtocolException protocolException = new ProtocolException("Unable to resolve the host name " + this.hostName);
+            protocolException.setRetryable(true);
+            throw protocolException;
+        }
+
+        this.eventLoop.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    startConnect(address);
+                }
+                catch (Exception e)
+                {
+                    onFailure(e);
+                }
+            }
+        });
+
+        try
+        {
+            if (!this.connectLatch.await(timeoutMillis, TimeUnit.MILLISECONDS))
+            {
+                this.close();
+                ProtocolException protocolException = new ProtocolException("Timed out establishing the MQTT connection");
+                protocolException.setRetryable(true);
+                throw protocolException;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            this.close();
+            ProtocolException protocolException = new ProtocolException("Interrupted while establishing the MQTT connection", e);
+            protocolException.setRetryable(true);
+            throw protocolException;
+        }
+
+        if (this.connectException != null)
+        {
+            throw this.connectException;
+        }
+    }
+
+    /**
+     * @return {@code true} once the connection is accepted, and until it is lost or closed.
+     */
+    boolean isConnected()
+    {
+        return this.isConnected && !this.isClosed;
+    }
+
+    /**
+     * Allocates the message id of a publish or subscription.
+     *
+     * @return a message id between 1 and 65535.
+     */
+    int nextMessageId()
+    {
+        int messageId;
+        do
+        {
+            messageId = this.lastMessageId.incrementAndGet() & 0xFFFF;
+        }
+        while (messageId == 0);
+
+        return messageId;
+    }
+
+    /**
+     * Queues a publish. A QoS 1 publish is acknowledged through {@link Callback#onPublishAcknowledged(int)}.
+     *
+     * @param topic the topic to publish on.
+     * @param payload the payload, between its position and its limit. It is copied into the packet.
+     * @param qos the QoS, 0 or 1.
+     * @param messageId the message id of a QoS 1 publish, from {@link #nextMessageId()}.
+     * @param context the context handed to {@link Callback#onPublishWritten(Object, Throwable)} once the publish is
+     *                written, or {@code null} not to be notified.
+     * @throws TransportException if the connection is not open.
+     */
+    void publish(String topic, ByteBuffer payload, int qos, int messageId, Object context) throws TransportException
+    {
+        this.checkConnected("Cannot publish when mqtt client is disconnected");
+        this.write(MqttCodec.encodePublish(topic, payload, qos, messageId), context);
+    }
+
+    /**
+     * Subscribes to a topic filter with QoS 1, and waits for the subscription to be acknowledged.
+     *
+     * @param topicFilter the topic filter.
+     * @throws TransportException if the connection is not open, or the subscription is refused or not acknowledged
+     * in time.
+     */
+    void subscribe(String topicFilter) throws TransportException
+    {
+        this.checkConnected("Cannot subscribe when mqtt client is disconnected");
+
+        int messageId = this.nextMessageId();
+        Subscription subscription = new Subscription();
+        this.subscriptions.put(messageId, subscription);
+        this.write(MqttCodec.encodeSubscribe(messageId, topicFilter, MqttConnection.QOS), null);
+
+        try
+        {
+            if (!subscription.latch.await(SUBSCRIBE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+            {
+                this.subscriptions.remove(messageId);
+                ProtocolException protocolException = new ProtocolException("Timed out subscribing to topic :" + topicFilter);
+                protocolException.setRetryable(true);
+                throw protocolException;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            this.subscriptions.remove(messageId);
+            ProtocolException protocolException = new ProtocolException("Interrupted while subscribing to topic :" + topicFilter, e);
+            protocolException.setRetryable(true);
+            throw protocolException;
+        }
+
+        this.checkConnected("Unable to subscribe to topic :" + topicFilter);
+        if (subscription.returnCode == MqttCodec.SUBSCRIBE_FAILURE)
+        {
+            throw new ProtocolException("Unable to subscribe to topic :" + topicFilter);
+        }
+    }
+
+    /**
+     * Queues the PUBACK of a QoS 1 publish received from the service.
+     *
+     * @param messageId the message id of the publish. Publishes received with QoS 0 have the message id 0, and are
+     *                  not acknowledged.
+     * @throws TransportException if the connection is not open.
+     */
+    void acknowledge(int messageId) throws TransportException
+    {
+        this.checkConnected("Cannot acknowledge when mqtt client is disconnected");
+        if (messageId > 0)
+        {
+            this.write(MqttCodec.encodePubAck(messageId), null);
+        }
+    }
+
+    /**
+     * Sends a DISCONNECT if the connection is open, and closes the connection without notifying the callback that it
+     * is lost.
+     */
+    void disconnect()
+    {
+        if (this.isClosed)
+        {
+            return;
+        }
+
+        if (this.isConnected)
+        {
+            this.writes.add(new Write(MqttCodec.encodeDisconnect(), null));
+        }
+
+        this.close();
+    }
+
+    private void close()
+    {
+        final CountDownLatch closeLatch = new CountDownLatch(1);
+        Runnable closeTask = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    if (!isClosed && isHandshakeFinished)
+                    {
+                        // writes what is queued, such as the DISCONNECT, as far as the socket takes it
+                        pump();
+                    }
+                }
+                catch (Exception e)
+                {
+                    logger.LogError(e);
+                }
+                finally
+                {
+                    closeChannel(new IOException("The MQTT connection is closed"));
+                    closeLatch.countDown();
+                }
+            }
+        };
+
+        if (this.eventLoop.inEventLoop())
+        {
+            closeTask.run();
+            return;
+        }
+
+        this.eventLoop.execute(closeTask);
+        try
+        {
+            closeLatch.await(DISCONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        // if the event loop is late, it closes the connection once it runs the task
+        this.isConnected = false;
+    }
+
+    @Override
+    public void onReady(SelectionKey key) throws Exception
+    {
+        if (key.isConnectable())
+        {
+            if (!this.socketChannel.finishConnect())
+            {
+                return;
+            }
+
+            this.startHandshake();
+        }
+
+        if (key.isReadable())
+        {
+            int readCount = this.socketChannel.read(this.netIn);
+            if (readCount < 0)
+            {
+                throw new EOFException("The MQTT connection was closed by the service");
+            }
+
+            if (readCount > 0)
+            {
+                this.lastReadNanos = System.nanoTime();
+                this.isPingOutstanding = false;
+            }
+        }
+
+        this.pump();
+    }
+
+    @Override
+    public void onTick(long nowNanos)
+    {
+        if (!this.isConnected || this.isClosed)
+        {
+            return;
+        }
+
+        // Like Paho, ping once either direction is idle for the keep alive interval: a device publishing at most once
+        // writes often but may never read, and only the answer to a ping tells that the service still hears it
+        if (this.isPingOutstanding)
+        {
+            if (nowNanos - this.pingSentNanos >= KEEP_ALIVE_NANOS)
+            {
+                this.onFailure(new IOException("No packet received from the service within the keep alive interval"));
+            }
+        }
+        else if (nowNanos - this.lastReadNanos >= KEEP_ALIVE_NANOS || nowNanos - this.lastWriteNanos >= KEEP_ALIVE_NANOS)
+        {
+            this.isPingOutstanding = true;
+            this.pingSentNanos = nowNanos;
+            this.lastWriteNanos = nowNanos;
+            this.write(MqttCodec.encodePingRequest(), null);
+        }
+    }
+
+    @Override
+    public void onFailure(Throwable throwable)
+    {
+        if (this.isClosed)
+        {
+            return;
+        }
+
+        boolean wasConnected = this.isConnected;
+        this.closeChannel(throwable);
+
+        if (wasConnected)
+        {
+            this.callback.onConnectionLost(throwable);
+        }
+    }
+
+    private void startConnect(InetSocketAddress address) throws IOException, TransportException
+    {
+        if (this.isClosed)
+        {
+            return;
+        }
+
+        this.sslEngine = this.sslContext.createSSLEngine(this.hostName, this.port);
+        this.sslEngine.setUseClientMode(true);
+        SSLParameters sslParameters = this.sslEngine.getSSLParameters();
+        sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+        this.sslEngine.setSSLParameters(sslParameters);
+
+        int packetBufferSize = this.sslEngine.getSession().getPacketBufferSize();
+        this.netIn = ByteBuffer.allocate(packetBufferSize);
+        this.netOut = ByteBuffer.allocate(packetBufferSize);
+        this.appIn = ByteBuffer.allocate(this.sslEngine.getSession().getApplicationBufferSize());
+
+        this.socketChannel = SocketChannel.open();
+        this.socketChannel.configureBlocking(false);
+        this.socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        this.selectionKey = this.eventLoop.register(this.socketChannel, this);
+
+        if (this.socketChannel.connect(address))
+        {
+            this.startHandshake();
+            this.pump();
+        }
+        else
+        {
+            this.selectionKey.interestOps(SelectionKey.OP_CONNECT);
+        }
+    }
+
+    private void startHandshake() throws SSLException
+    {
+        this.lastReadNanos = System.nanoTime();
+        this.lastWriteNanos = this.lastReadNanos;
+        this.isPingOutstanding = false;
+        this.sslEngine.beginHandshake();
+        this.isHandshakeStarted = true;
+    }
+
+    /**
+     * Moves the bytes between the socket, the TLS engine and the MQTT packets, until no more progress can be made.
+     */
+    private void pump() throws IOException, TransportException
+    {
+        if (!this.isHandshakeStarted)
+        {
+            return;
+        }
+
+        boolean isProgressing = true;
+        while (isProgressing && !this.isClosed)
+        {
+            this.runDelegatedTasks();
+
+            boolean hasUnwrapped = this.unwrap();
+            if (this.isClosed)
+            {
+                // the received packets closed the connection
+                return;
+            }
+
+            boolean hasWrapped = this.wrap();
+            this.flush();
+
+            if (!this.isHandshakeFinished && this.sslEngine.getHandshakeStatus() == NOT_HANDSHAKING)
+            {
+                this.isHandshakeFinished = true;
+                this.writes.add(new Write(this.connectPacket, null));
+                hasWrapped = true;
+            }
+
+            isProgressing = hasUnwrapped || hasWrapped;
+        }
+
+        if (!this.isClosed && this.selectionKey.isValid())
+        {
+            this.selectionKey.interestOps(this.netOut.position() > 0
+                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                    : SelectionKey.OP_READ);
+        }
+    }
+
+    private boolean unwrap() throws IOException, TransportException
+    {
+        boolean hasUnwrapped = false;
+        boolean isUnderflow = false;
+
+        this.netIn.flip();
+        try
+        {
+            while (this.netIn.hasRemaining() && this.sslEngine.getHandshakeStatus() != NEED_WRAP)
+            {
+                SSLEngineResult result = this.sslEngine.unwrap(this.netIn, this.appIn);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW)
+                {
+                    this.appIn = enlarge(this.appIn, this.sslEngine.getSession().getApplicationBufferSize());
+                    continue;
+                }
+
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW)
+                {
+                    isUnderflow = true;
+                    break;
+                }
+
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+                {
+                    throw new EOFException("The TLS session was closed by the service");
+                }
+
+                if (result.getHandshakeStatus() == NEED_TASK)
+                {
+                    this.runDelegatedTasks();
+                }
+
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0)
+                {
+                    break;
+                }
+
+                hasUnwrapped = true;
+            }
+        }
+        finally
+        {
+            this.netIn.compact();
+        }
+
+        if (isUnderflow && !this.netIn.hasRemaining())
+        {
+            // a TLS record is larger than the buffer
+            this.netIn = enlarge(this.netIn, this.sslEngine.getSession().getPacketBufferSize());
+        }
+
+        if (hasUnwrapped)
+        {
+            this.decodePackets();
+        }
+
+        return hasUnwrapped;
+    }
+
+    private boolean wrap() throws IOException
+    {
+        boolean hasWrapped = false;
+        while (true)
+        {
+            ByteBuffer source;
+            Write write = null;
+            if (this.sslEngine.getHandshakeStatus() == NEED_WRAP)
+            {
+                source = EMPTY_BUFFER;
+            }
+            else if (this.isHandshakeFinished && this.sslEngine.getHandshakeStatus() == NOT_HANDSHAKING && (write = this.writes.peek()) != null)
+            {
+                source = write.packet;
+            }
+            else
+            {
+                return hasWrapped;
+            }
+
+            SSLEngineResult result = this.sslEngine.wrap(source, this.netOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW)
+            {
+                if (this.netOut.position() > 0)
+                {
+                    // netOut is full, flush it first
+                    return hasWrapped;
+                }
+
+                this.netOut = enlarge(this.netOut, this.sslEngine.getSession().getPacketBufferSize());
+                continue;
+            }
+
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+            {
+                throw new SSLException("The TLS session is closed");
+            }
+
+            if (result.getHandshakeStatus() == NEED_TASK)
+            {
+                this.runDelegatedTasks();
+            }
+
+            if (write != null && !write.packet.hasRemaining())
+            {
+                this.writes.poll();
+                this.wrappedWrites.add(write);
+            }
+
+            if (result.bytesConsumed() == 0 && result.bytesProduced() == 0)
+            {
+                return hasWrapped;
+            }
+
+            hasWrapped = true;
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        if (this.netOut.position() > 0)
+        {
+            this.netOut.flip();
+            try
+            {
+                if (this.socketChannel.write(this.netOut) > 0)
+                {
+                    this.lastWriteNanos = System.nanoTime();
+                }
+            }
+            finally
+            {
+                this.netOut.compact();
+            }
+        }
+
+        if (this.netOut.position() == 0 && !this.wrappedWrites.isEmpty())
+        {
+            List<Write> writtenWrites = new ArrayList<>(this.wrappedWrites);
+            this.wrappedWrites.clear();
+            for (Write write : writtenWrites)
+            {
+                if (write.context != null)
+                {
+                    this.callback.onPublishWritten(write.context, null);
+                }
+            }
+        }
+    }
+
+    private void decodePackets() throws TransportException
+    {
+        this.appIn.flip();
+        try
+        {
+            MqttCodec.Packet packet;
+            while (!this.isClosed && (packet = MqttCodec.decode(this.appIn)) != null)
+            {
+                this.handlePacket(packet);
+            }
+        }
+        finally
+        {
+            this.appIn.compact();
+        }
+    }
+
+    private void handlePacket(MqttCodec.Packet packet)
+    {
+        switch (packet.getType())
+        {
+            case MqttCodec.CONNACK:
+                if (packet.getReturnCode() == 0)
+                {
+                    this.isConnected = true;
+                    this.connectLatch.countDown();
+                }
+                else
+                {
+                    this.connectException = connectionRefused(packet.getReturnCode());
+                    this.closeChannel(this.connectException);
+                }
+                break;
+            case MqttCodec.PUBLISH:
+                this.callback.onPublishReceived(packet.getMessageId(), packet.getTopic(), packet.getPayload());
+                break;
+            case MqttCodec.PUBACK:
+                this.callback.onPublishAcknowledged(packet.getMessageId());
+                break;
+            case MqttCodec.SUBACK:
+                Subscription subscription = this.subscriptions.remove(packet.getMessageId());
+                if (subscription != null)
+                {
+                    subscription.returnCode = packet.getReturnCode();
+                    subscription.latch.countDown();
+                }
+                break;
+            default:
+                // PINGRESP only tells that the connection is alive
+        }
+    }
+
+    private void write(ByteBuffer packet, Object context)
+    {
+        this.writes.add(new Write(packet, context));
+        if (this.isFlushScheduled.compareAndSet(false, true))
+        {
+            this.eventLoop.execute(this.flushTask);
+        }
+    }
+
+    private void checkConnected(String errorMessage) throws TransportException
+    {
+        if (!this.isConnected())
+        {
+            TransportException transportException = new TransportException(errorMessage);
+            transportException.setRetryable(true);
+            throw transportException;
+        }
+    }
+
+    private void runDelegatedTasks()
+    {
+        Runnable task;
+        while ((task = this.sslEngine.getDelegatedTask()) != null)
+        {
+            task.run();
+        }
+    }
+
+    private void closeChannel(Throwable throwable)
+    {
+        if (this.isClosed)
+        {
+            return;
+        }
+
+        this.isClosed = true;
+        this.isConnected = false;
+
+        if (this.selectionKey != null)
+        {
+            this.selectionKey.cancel();
+        }
+
+        if (this.socketChannel != null)
+        {
+            try
+            {
+                this.socketChannel.close();
+            }
+            catch (IOException e)
+            {
+                this.logger.LogError(e);
+            }
+        }
+
+        if (this.connectException == null && this.connectLatch.getCount() > 0)
+        {
+            ProtocolException protocolException = new ProtocolException("Unable to establish MQTT connection", throwable);
+            protocolException.setRetryable(true);
+            this.connectException = protocolException;
+        }
+        this.connectLatch.countDown();
+
+        for (Subscription subscription : this.subscriptions.values())
+        {
+            subscription.latch.countDown();
+        }
+        this.subscriptions.clear();
+
+        for (Write write : this.wrappedWrites)
+        {
+            if (write.context != null)
+            {
+                this.callback.onPublishWritten(write.context, throwable);
+            }
+        }
+        this.wrappedWrites.clear();
+        this.failWrites(throwable);
+    }
+
+    private void failWrites(Throwable throwable)
+    {
+        Write write;
+        while ((write = this.writes.poll()) != null)
+        {
+            if (write.context != null)
+            {
+                this.callback.onPublishWritten(write.context, throwable);
+            }
+        }
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minimumGrowth)
+    {
+        ByteBuffer enlarged = ByteBuffer.allocate(buffer.capacity() + Math.max(minimumGrowth, buffer.capacity()));
+        buffer.flip();
+        enlarged.put(buffer);
+        return enlarged;
+    }
+
+    private static TransportException connectionRefused(int returnCode)
+    {
+        String errorMessage = "Unable to establish MQTT connection";
+        switch (returnCode)
+        {
+            case 1:
+                return new MqttRejectedProtocolVersionException(errorMessage);
+            case 2:
+                return new MqttIdentifierRejectedException(errorMessage);
+            case 3:
+                return new MqttServerUnavailableException(errorMessage);
+            case 4:
+                return new MqttBadUsernameOrPasswordException(errorMessage);
+            case 5:
+                return new MqttUnauthorizedException(errorMessage);
+            default:
+                return new MqttUnexpectedErrorException(errorMessage);
+        }
+    }
+}
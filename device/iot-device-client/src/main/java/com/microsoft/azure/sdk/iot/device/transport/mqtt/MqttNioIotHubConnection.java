@@ -0,0 +1,691 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
+import com.microsoft.azure.sdk.iot.device.exceptions.ProtocolException;
+import com.microsoft.azure.sdk.iot.device.exceptions.SendWindowFullException;
+import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
+import com.microsoft.azure.sdk.iot.device.transport.*;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.microsoft.azure.sdk.iot.device.MessageType.DEVICE_METHODS;
+import static com.microsoft.azure.sdk.iot.device.MessageType.DEVICE_TWIN;
+
+/**
+ * An MQTT connection to IoT Hub on a non-blocking socket, served by the event loops of an {@link MqttEventLoopGroup}
+ * instead of the threads Paho starts for each connection. It carries telemetry, cloud to device messages, twin and
+ * methods over the same topics as {@link MqttIotHubConnection}.
+ *
+ * <p>The connections of the clients sharing a {@link ClientRuntime} share the event loops of the runtime. A
+ * connection of a client without a runtime has an event loop of its own.</p>
+ */
+public class MqttNioIotHubConnection implements IotHubTransportConnection, MqttNioClient.Callback
+{
+    /** The MQTT connection lock. */
+    private final Object MQTT_CONNECTION_LOCK = new Object();
+
+    private final DeviceClientConfig config;
+    private volatile IotHubConnectionStatus state = IotHubConnectionStatus.DISCONNECTED;
+
+    private static final int SSL_PORT = 8883;
+    private static final String TWIN_API_VERSION = "api-version=2016-11-14";
+
+    // same as the Paho default connection timeout
+    private static final long CONNECT_TIMEOUT_MILLIS = 30 * 1000;
+
+    /* The topics of the service */
+    private static final String TWIN_TOPIC_PREFIX = "$iothub/twin/";
+    private static final String METHODS_TOPIC_PREFIX = "$iothub/methods/";
+    private static final String TWIN_RESPONSE_TOPIC = TWIN_TOPIC_PREFIX + "res/#";
+    private static final String TWIN_DESIRED_PROPERTIES_TOPIC = TWIN_TOPIC_PREFIX + "PATCH/properties/desired/#";
+    private static final String METHODS_REQUEST_TOPIC = METHODS_TOPIC_PREFIX + "POST/#";
+
+    /* The number of twin or method requests that can wait for their response at the same time */
+    private static final int MAX_PENDING_REQUESTS = 1000;
+    /* The longest time the service waits for the response to a method request */
+    private static final long METHOD_REQUEST_TIMEOUT_MILLIS = 5 * 60 * 1000;
+    /* The status of the responses that complete the twin requests that timed out */
+    private static final String REQUEST_TIMEOUT_STATUS = "408";
+    /* The message id of the responses built for the timed out requests, which are not acknowledged to the service */
+    private static final int NO_ACKNOWLEDGEMENT_MESSAGE_ID = -1;
+
+    /* Schedules the deadlines of the twin and method requests when the config has no client runtime */
+    private static final long TIMER_TICK_MILLIS = 100;
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
+
+    private static final String CONNECTION_LOST_THREAD_NAME = "azure-iot-sdk-MqttConnectionLost";
+
+    private final String telemetryTopic;
+    private final String cloudToDeviceTopic;
+
+    private final MqttPendingRequests twinRequests = new MqttPendingRequests(MAX_PENDING_REQUESTS);
+    private final MqttPendingRequests methodRequests = new MqttPendingRequests(MAX_PENDING_REQUESTS);
+    private final Map<IotHubTransportMessage, Integer> receivedMessagesToAcknowledge = new ConcurrentHashMap<>();
+
+    private volatile MqttNioClient client;
+    private volatile MqttInFlightMessages inFlightMessages;
+    private volatile int maxInFlightCount;
+    private MessageDeliveryMode defaultDeliveryMode;
+    private boolean isTwinResponseSubscribed;
+
+    /* The event loop and timer of the connection when the config has no client runtime */
+    private MqttEventLoopGroup ownedEventLoopGroup;
+    private HashedWheelTimer ownedTimer;
+
+    private IotHubListener listener;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructs an instance from the given {@link DeviceClientConfig}
+     * object.
+     *
+     * @param config the client configuration.
+     * @throws IllegalArgumentException if the configuration misses the host name, device id, hub name or credentials.
+     */
+    public MqttNioIotHubConnection(DeviceClientConfig config) throws IllegalArgumentException
+    {
+        //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_001: [The constructor shall throw an IllegalArgumentException if the config is null, misses the host name, device id or hub name, or has no device key, shared access token or x509 certificate.]
+        if (config == null)
+        {
+            throw new IllegalArgumentException("The DeviceClientConfig cannot be null.");
+        }
+        if (config.getIotHubHostname() == null || config.getIotHubHostname().length() == 0)
+        {
+            throw new IllegalArgumentException("hostName cannot be null or empty.");
+        }
+        if (config.getDeviceId() == null || config.getDeviceId().length() == 0)
+        {
+            throw new IllegalArgumentException("deviceID cannot be null or empty.");
+        }
+        if (config.getIotHubName() == null || config.getIotHubName().length() == 0)
+        {
+            throw new IllegalArgumentException("hubName cannot be null or empty.");
+        }
+        if (config.getAuthenticationType() == DeviceClientConfig.AuthType.SAS_TOKEN)
+        {
+            if (config.getIotHubConnectionString().getSharedAccessKey() == null || config.getIotHubConnectionString().getSharedAccessKey().isEmpty())
+            {
+                if (config.getSasTokenAuthentication().getCurrentSasToken() == null || config.getSasTokenAuthentication().getCurrentSasToken().isEmpty())
+                {
+                    throw new IllegalArgumentException("Must have a deviceKey, a shared access token, or x509 certificate saved.");
+                }
+            }
+        }
+
+        //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_002: [The constructor shall save the configuration and build the telemetry and cloud to device topics of the device.]
+        this.config = config;
+        this.telemetryTopic = "devices/" + config.getDeviceId() + "/messages/events/";
+        this.cloudToDeviceTopic = "devices/" + config.getDeviceId() + "/messages/devicebound/#";
+    }
+
+    /**
+     * Establishes a connection for the device and IoT Hub given in the client
+     * configuration. If the connection is already open, the function shall do
+     * nothing.
+     *
+     * @throws TransportException if a connection could not to be established.
+     */
+    @Override
+    public void open(Queue<DeviceClientConfig> deviceClientConfigs) throws TransportException
+    {
+        if (deviceClientConfigs.size() > 1)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_003: [If the list of device client configuration objects is larger than 1, this function shall throw an UnsupportedOperationException.]
+            throw new UnsupportedOperationException("Mqtt does not support Multiplexing");
+        }
+
+        synchronized (MQTT_CONNECTION_LOCK)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_004: [If the connection is already open, the function shall do nothing.]
+            if (this.state == IotHubConnectionStatus.CONNECTED)
+            {
+                return;
+            }
+
+            try
+            {
+                String password = null;
+                SSLContext sslContext = null;
+                if (this.config.getAuthenticationType() == DeviceClientConfig.AuthType.SAS_TOKEN)
+                {
+                    password = this.config.getSasTokenAuthentication().getRenewedSasToken();
+                    sslContext = this.config.getSasTokenAuthentication().getSSLContext();
+                }
+                else if (this.config.getAuthenticationType() == DeviceClientConfig.AuthType.X509_CERTIFICATE)
+                {
+                    sslContext = this.config.getX509Authentication().getSSLContext();
+                }
+
+                //URLEncoder follows HTML spec for encoding urls, which includes substituting space characters with '+'
+                // We want "%20" for spaces, not '+', however, so replace them manually
+                String clientIdentifier = "DeviceClientType=" + URLEncoder.encode(TransportUtils.USER_AGENT_STRING, "UTF-8").replaceAll("\\+", "%20");
+                String userName = this.config.getIotHubHostname() + "/" + this.config.getDeviceId() + "/" + TWIN_API_VERSION + "&" + clientIdentifier;
+
+                //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_005: [The function shall serve the connection on the event loops and timer of the client runtime of the config if it has one, and on an event loop and timer of its own otherwise.]
+                MqttEventLoopGroup eventLoopGroup;
+                HashedWheelTimer requestTimer;
+                ClientRuntime clientRuntime = this.config.getClientRuntime();
+                if (clientRuntime != null)
+                {
+                    eventLoopGroup = clientRuntime.getMqttEventLoopGroup();
+                    requestTimer = clientRuntime.getTimer();
+                }
+                else
+                {
+                    this.ownedEventLoopGroup = new MqttEventLoopGroup(1);
+                    this.ownedTimer = new HashedWheelTimer(TIMER_TICK_MILLIS, TIMER_TICKS_PER_WHEEL);
+                    eventLoopGroup = this.ownedEventLoopGroup;
+                    requestTimer = this.ownedTimer;
+                }
+
+                //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_006: [The function shall give the twin requests a deadline of the operation timeout of the config and the method requests a deadline of 5 minutes.]
+                this.twinRequests.setTimeout(requestTimer, this.config.getOperationTimeout(), new MqttPendingRequests.ExpiryListener()
+                {
+                    @Override
+                    public void onRequestExpired(String requestId, DeviceOperations operation)
+                    {
+                        onTwinRequestExpired(requestId, operation);
+                    }
+                });
+                this.methodRequests.setTimeout(requestTimer, METHOD_REQUEST_TIMEOUT_MILLIS, new MqttPendingRequests.ExpiryListener()
+                {
+                    @Override
+                    public void onRequestExpired(String requestId, DeviceOperations operation)
+                    {
+                        logger.LogInfo("Method request %s timed out without a response, method name is %s ", requestId, logger.getMethodName());
+                    }
+                });
+
+                //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_007: [The function shall take the in flight window and the default telemetry delivery mode from the config.]
+                this.maxInFlightCount = this.config.getMqttMaxInFlightCount();
+                this.inFlightMessages = new MqttInFlightMessages(this.maxInFlightCount);
+                this.defaultDeliveryMode = this.config.getTelemetryDeliveryMode();
+                this.isTwinResponseSubscribed = false;
+
+                //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_008: [The function shall connect to ssl://<hostName>:8883 with the device id as client id, and subscribe to the cloud to device topic of the device.]
+                this.client = new MqttNioClient(eventLoopGroup.next(), this.config.getIotHubHostname(), SSL_PORT, sslContext, this);
+                this.client.connect(this.config.getDeviceId(), userName, password, CONNECT_TIMEOUT_MILLIS);
+                this.client.subscribe(this.cloudToDeviceTopic);
+
+                this.state = IotHubConnectionStatus.CONNECTED;
+            }
+            catch (IOException e)
+            {
+                //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_009: [If the connection cannot be established, the function shall release its resources and throw a TransportException.]
+                this.release();
+                throw new TransportException(e);
+            }
+            catch (TransportException e)
+            {
+                //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_009: [If the connection cannot be established, the function shall release its resources and throw a TransportException.]
+                this.release();
+                throw e;
+            }
+
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_010: [Once the connection is established, the function shall notify its listener.]
+            if (this.listener != null)
+            {
+                this.listener.onConnectionEstablished();
+            }
+        }
+    }
+
+    /**
+     * Closes the connection. After the connection is closed, it is no longer usable.
+     * If the connection is already closed, the function shall do nothing.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (MQTT_CONNECTION_LOCK)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_011: [If the connection is closed, the function shall do nothing.]
+            if (this.state == IotHubConnectionStatus.DISCONNECTED)
+            {
+                return;
+            }
+
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_012: [The function shall disconnect, forget the requests and messages in flight, and stop the event loop and timer it owns.]
+            this.release();
+            this.state = IotHubConnectionStatus.DISCONNECTED;
+        }
+    }
+
+    @Override
+    public void setListener(IotHubListener listener) throws IllegalArgumentException
+    {
+        if (listener == null)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_013: [If the provided listener object is null, this function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("listener cannot be null");
+        }
+
+        //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_014: [This function shall save the provided listener object.]
+        this.listener = listener;
+    }
+
+    /**
+     * Sends an event message.
+     *
+     * @param message the event message.
+     *
+     * @return the status code from sending the event message.
+     *
+     * @throws TransportException if the message cannot be sent
+     */
+    @Override
+    public IotHubStatusCode sendMessage(Message message) throws TransportException
+    {
+        synchronized (MQTT_CONNECTION_LOCK)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_015: [If the message is null or empty, the function shall return status code BAD_FORMAT.]
+            if (message == null || message.getBodyBuffer() == null ||
+                    (
+                            (message.getMessageType() != DEVICE_TWIN
+                                    && message.getMessageType() != DEVICE_METHODS)
+                                    && !message.getBodyBuffer().hasRemaining()))
+            {
+                return IotHubStatusCode.BAD_FORMAT;
+            }
+
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_016: [If the connection is closed, the function shall throw an IllegalStateException.]
+            if (this.state == IotHubConnectionStatus.DISCONNECTED)
+            {
+                throw new IllegalStateException("Cannot send event using a closed MQTT connection");
+            }
+
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_017: [The function shall send the method, twin and telemetry messages on the same topics as MqttIotHubConnection, and return OK_EMPTY.]
+            if (message.getMessageType() == DEVICE_METHODS)
+            {
+                this.sendMethodMessage((IotHubTransportMessage) message);
+            }
+            else if (message.getMessageType() == DEVICE_TWIN)
+            {
+                this.sendTwinMessage((IotHubTransportMessage) message);
+            }
+            else
+            {
+                this.sendTelemetryMessage(message);
+            }
+
+            return IotHubStatusCode.OK_EMPTY;
+        }
+    }
+
+    /**
+     * Sends an ACK to the service for the provided message
+     * @param message the message to acknowledge to the service
+     * @param result Ignored. The only ack that can be sent in MQTT is COMPLETE
+     * @return true if the ACK was queued successfully
+     * @throws TransportException if the ACK could not be sent successfully
+     */
+    @Override
+    public boolean sendMessageResult(Message message, IotHubMessageResult result) throws TransportException
+    {
+        if (message == null || result == null)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_018: [If the provided message or result is null, this function shall throw a TransportException.]
+            throw new TransportException(new IllegalArgumentException("message and result must be non-null"));
+        }
+
+        Integer messageId = this.receivedMessagesToAcknowledge.get(message);
+        if (messageId == null)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_019: [If this object has not received the provided message from the service, this function shall throw a TransportException.]
+            throw new TransportException(new IllegalArgumentException("Provided message cannot be acknowledged because it was already acknowledged or was never received from service"));
+        }
+
+        if (messageId != NO_ACKNOWLEDGEMENT_MESSAGE_ID)
+        {
+            MqttNioClient client = this.client;
+            if (client == null)
+            {
+                TransportException transportException = new TransportException("Cannot acknowledge when mqtt client is disconnected");
+                transportException.setRetryable(true);
+                throw transportException;
+            }
+
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_020: [This function shall queue the PUBACK of the provided message, unless it is the response built for a timed out request.]
+            client.acknowledge(messageId);
+        }
+
+        //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_021: [This function shall remove the provided message from the saved map of messages to acknowledge and return true.]
+        this.receivedMessagesToAcknowledge.remove(message);
+        return true;
+    }
+
+    /**
+     * Returns the number of free in flight slots of the connection
+     * @return the number of messages that can be published without waiting, or 0 if the connection is not open
+     */
+    @Override
+    public int getSendWindow()
+    {
+        MqttInFlightMessages inFlightMessages = this.inFlightMessages;
+        if (this.client == null || inFlightMessages == null)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_022: [If the connection is not open, this function shall return 0.]
+            return 0;
+        }
+
+        //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_023: [This function shall return the number of free in flight slots of the connection.]
+        return Math.max(0, this.maxInFlightCount - inFlightMessages.size());
+    }
+
+    @Override
+    public void onPublishReceived(int messageId, String topic, byte[] payload)
+    {
+        IotHubTransportMessage transportMessage = null;
+        try
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_024: [This function shall convert the arrival as a method request if the topic starts with the methods prefix, as a twin message if it starts with the twin prefix, and as a cloud to device message otherwise.]
+            if (topic.startsWith(METHODS_TOPIC_PREFIX))
+            {
+                transportMessage = MqttDeviceMethod.parseMessage(topic, payload, this.methodRequests);
+            }
+            else if (topic.startsWith(TWIN_TOPIC_PREFIX))
+            {
+                transportMessage = MqttDeviceTwin.parseMessage(topic, payload, this.twinRequests);
+            }
+            else
+            {
+                transportMessage = Mqtt.constructMessage(payload, topic);
+            }
+        }
+        catch (TransportException | IllegalArgumentException e)
+        {
+            this.listener.onMessageReceived(null, new TransportException("Failed to receive message from service", e));
+            this.logger.LogInfo("Encountered exception while receiving message from Iot Hub over MQTT");
+            this.logger.LogError(e);
+        }
+
+        this.handleReceivedMessage(transportMessage, messageId);
+    }
+
+    @Override
+    public void onPublishAcknowledged(int messageId)
+    {
+        //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_025: [This function shall release the in flight slot of the acknowledged message and notify the listener that it was sent.]
+        MqttInFlightMessages inFlightMessages = this.inFlightMessages;
+        Message deliveredMessage = (inFlightMessages == null) ? null : inFlightMessages.remove(messageId);
+        if (this.listener != null && deliveredMessage != null)
+        {
+            this.listener.onMessageSent(deliveredMessage, null);
+        }
+    }
+
+    @Override
+    public void onPublishWritten(Object context, Throwable throwable)
+    {
+        if (this.listener == null)
+        {
+            return;
+        }
+
+        if (throwable == null)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_026: [Once a QoS 0 message is written to the connection, the listener shall be notified that it was sent.]
+            this.listener.onMessageSent((Message) context, null);
+        }
+        else
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_027: [If a QoS 0 message cannot be written to the connection, the listener shall be notified of a retryable ProtocolException.]
+            ProtocolException protocolException = new ProtocolException("Unable to publish message", throwable);
+            protocolException.setRetryable(true);
+            this.listener.onMessageSent((Message) context, protocolException);
+        }
+    }
+
+    @Override
+    public void onConnectionLost(Throwable throwable)
+    {
+        if (this.listener == null)
+        {
+            return;
+        }
+
+        final ProtocolException protocolException = new ProtocolException("Mqtt connection lost", throwable);
+        protocolException.setRetryable(true);
+        Runnable notification = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                listener.onConnectionLost(protocolException);
+            }
+        };
+
+        //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_028: [This function shall notify the listener of a retryable ProtocolException off the event loop, on the worker executor of the client runtime if the config has one, since the listener reconnects on the calling thread.]
+        ClientRuntime clientRuntime = this.config.getClientRuntime();
+        if (clientRuntime != null)
+        {
+            try
+            {
+                clientRuntime.getWorkerExecutor().execute(notification);
+                return;
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the runtime is closing, its executor no longer takes tasks
+                this.logger.LogError(e);
+            }
+        }
+
+        new Thread(notification, CONNECTION_LOST_THREAD_NAME).start();
+    }
+
+    private void sendTelemetryMessage(Message message) throws TransportException
+    {
+        String publishTopic = MqttMessaging.buildTopic(this.telemetryTopic, message);
+
+        MessageDeliveryMode deliveryMode = (message.getDeliveryMode() == null) ? this.defaultDeliveryMode : message.getDeliveryMode();
+        if (deliveryMode == MessageDeliveryMode.AT_MOST_ONCE)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_029: [The function shall publish the telemetry messages with QoS 0 if their delivery mode, or the default delivery mode if they have none, is AT_MOST_ONCE, and with QoS 1 otherwise.]
+            this.client.publish(publishTopic, message.getBodyBuffer(), 0, 0, message);
+        }
+        else
+        {
+            this.publish(publishTopic, message);
+        }
+    }
+
+    private void sendTwinMessage(IotHubTransportMessage message) throws TransportException
+    {
+        if (!this.isTwinResponseSubscribed)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_030: [Before the first twin message, the function shall subscribe to the twin response topic.]
+            this.client.subscribe(TWIN_RESPONSE_TOPIC);
+            this.isTwinResponseSubscribed = true;
+        }
+
+        String publishTopic = MqttDeviceTwin.buildTopic(message);
+
+        DeviceOperations operation = message.getDeviceOperationType();
+        if (operation == DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_031: [The function shall subscribe to the desired properties topic for a desired properties subscription.]
+            this.client.subscribe(TWIN_DESIRED_PROPERTIES_TOPIC);
+            return;
+        }
+
+        // Only the get and update reported properties requests get a response with their request id
+        if (operation == DeviceOperations.DEVICE_OPERATION_TWIN_GET_REQUEST
+                || operation == DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST)
+        {
+            if (!this.twinRequests.put(message.getRequestId(), operation))
+            {
+                //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_032: [If too many twin requests wait for their response, the function shall throw a retryable TransportException.]
+                TransportException transportException = new TransportException("Too many twin requests are waiting for a response");
+                transportException.setIotHubService(TransportException.IotHubService.TWIN);
+                transportException.setRetryable(true);
+                throw transportException;
+            }
+        }
+
+        try
+        {
+            this.publish(publishTopic, message);
+        }
+        catch (TransportException e)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_033: [If a twin request cannot be published, the function shall forget the request before rethrowing the exception.]
+            this.twinRequests.remove(message.getRequestId());
+            throw e;
+        }
+    }
+
+    private void sendMethodMessage(IotHubTransportMessage message) throws TransportException
+    {
+        switch (message.getDeviceOperationType())
+        {
+            case DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST:
+                //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_034: [The function shall subscribe to the method request topic for a method subscription.]
+                this.client.subscribe(METHODS_REQUEST_TOPIC);
+                break;
+            case DEVICE_OPERATION_METHOD_SEND_RESPONSE:
+                if (message.getRequestId() == null || message.getRequestId().isEmpty())
+                {
+                    throw new IllegalArgumentException("Request id cannot be null or empty");
+                }
+
+                if (this.methodRequests.remove(message.getRequestId()) == null)
+                {
+                    //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_035: [The function shall throw a TransportException for a method response to a request it did not receive, and publish the response on the method response topic otherwise.]
+                    throwMethodsTransportException("Sending a response for the method that was never invoked");
+                }
+
+                this.publish(MqttDeviceMethod.buildResponseTopic(message), message);
+                break;
+            default:
+                throwMethodsTransportException("Mismatched device method operation");
+        }
+    }
+
+    /**
+     * Publishes a message with QoS 1 and tracks it until it is acknowledged.
+     */
+    private void publish(String publishTopic, Message message) throws TransportException
+    {
+        if (this.inFlightMessages.size() >= this.maxInFlightCount)
+        {
+            //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_036: [If the in flight window of the connection is full, the function shall throw a SendWindowFullException instead of waiting for a slot.]
+            throw new SendWindowFullException("Cannot publish while the mqtt in flight window is full");
+        }
+
+        // the message is tracked before it is written, since its acknowledgement can arrive at any time after that
+        int messageId = this.client.nextMessageId();
+        this.inFlightMessages.put(messageId, message);
+        try
+        {
+            this.client.publish(publishTopic, message.getBodyBuffer(), MqttConnection.QOS, messageId, null);
+        }
+        catch (TransportException e)
+        {
+            this.inFlightMessages.remove(messageId);
+            throw e;
+        }
+    }
+
+    private void onTwinRequestExpired(String requestId, DeviceOperations operation)
+    {
+        //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_037: [Once a twin request times out, the listener shall be handed an empty response with status 408, the request id and the response operation of the request, that is not acknowledged to the service.]
+        IotHubTransportMessage response = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+        response.setRequestId(requestId);
+        response.setStatus(REQUEST_TIMEOUT_STATUS);
+        response.setDeviceOperationType(operation == DeviceOperations.DEVICE_OPERATION_TWIN_GET_REQUEST
+                ? DeviceOperations.DEVICE_OPERATION_TWIN_GET_RESPONSE
+                : DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+
+        this.logger.LogInfo("Twin request %s timed out without a response, method name is %s ", requestId, this.logger.getMethodName());
+        this.handleReceivedMessage(response, NO_ACKNOWLEDGEMENT_MESSAGE_ID);
+    }
+
+    /**
+     * Saves a received message to be acknowledged, sets its callback and notifies the listener
+     * @param transportMessage the received message, or null if the arrival could not be converted
+     * @param messageId the MQTT message id of the arrival
+     */
+    private void handleReceivedMessage(IotHubTransportMessage transportMessage, int messageId)
+    {
+        if (transportMessage == null)
+        {
+            //Ack is not sent to service for this message because we cannot interpret the message. Service will likely re-send
+            this.listener.onMessageReceived(null, new TransportException("Message sent from service could not be parsed"));
+            this.logger.LogInfo("Message arrived from IoT Hub that could not be parsed. That message has been ignored.");
+            return;
+        }
+
+        //Codes_SRS_MQTTNIOIOTHUBCONNECTION_41_038: [This function shall save the received message with its message id to be acknowledged, set its callback and context from the config and notify the listener.]
+        this.receivedMessagesToAcknowledge.put(transportMessage, messageId);
+
+        switch (transportMessage.getMessageType())
+        {
+            case DEVICE_TWIN:
+                transportMessage.setMessageCallback(this.config.getDeviceTwinMessageCallback());
+                transportMessage.setMessageCallbackContext(this.config.getDeviceTwinMessageContext());
+                break;
+            case DEVICE_METHODS:
+                transportMessage.setMessageCallback(this.config.getDeviceMethodsMessageCallback());
+                transportMessage.setMessageCallbackContext(this.config.getDeviceMethodsMessageContext());
+                break;
+            case DEVICE_TELEMETRY:
+                transportMessage.setMessageCallback(this.config.getDeviceTelemetryMessageCallback());
+                transportMessage.setMessageCallbackContext(this.config.getDeviceTelemetryMessageContext());
+                break;
+            default:
+                //do nothing
+        }
+
+        this.listener.onMessageReceived(transportMessage, null);
+    }
+
+    /**
+     * Disconnects the client and releases what the connection owns.
+     */
+    private void release()
+    {
+        if (this.client != null)
+        {
+            this.client.disconnect();
+            this.client = null;
+        }
+
+        this.twinRequests.clear();
+        this.methodRequests.clear();
+        if (this.inFlightMessages != null)
+        {
+            this.inFlightMessages.clear();
+        }
+
+        if (this.ownedEventLoopGroup != null)
+        {
+            this.ownedEventLoopGroup.close();
+            this.ownedEventLoopGroup = null;
+        }
+
+        if (this.ownedTimer != null)
+        {
+            this.ownedTimer.stop();
+            this.ownedTimer = null;
+        }
+    }
+
+    private static void throwMethodsTransportException(String message) throws TransportException
+    {
+        TransportException transportException = new TransportException(message);
+        transportException.setIotHubService(TransportException.IotHubService.METHODS);
+        throw transportException;
+    }
+}
@@ -0,0 +1,217 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
+import com.microsoft.azure.sdk.iot.device.transport.HashedWheelTimer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The twin or method requests of one MQTT connection that wait for their response, by request id.
+ *
+ * <p>The table can be used from several threads at once, so that requests can be pipelined. It holds at most a fixed
+ * number of requests. Once a timer is set, each request gets a deadline, and the requests still waiting at their
+ * deadline are removed and handed to the expiry listener.</p>
+ */
+public final class MqttPendingRequests
+{
+    /**
+     * Notified of the requests that got no response before their deadline.
+     */
+    public interface ExpiryListener
+    {
+        /**
+         * Called on the timer thread once the request is removed from the table.
+         *
+         * @param requestId the id of the request.
+         * @param operation the operation of the request.
+         */
+        void onRequestExpired(String requestId, DeviceOperations operation);
+    }
+
+    private final Map<String, PendingRequest> requests = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger();
+    private final int maxCount;
+
+    private volatile HashedWheelTimer timer;
+    private volatile long timeoutMillis;
+    private volatile ExpiryListener expiryListener;
+
+    private final class PendingRequest implements Runnable
+    {
+        private final String requestId;
+        private final DeviceOperations operation;
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        private PendingRequest(String requestId, DeviceOperations operation)
+        {
+            this.requestId = requestId;
+            this.operation = operation;
+        }
+
+        @Override
+        public void run()
+        {
+            // A response may have removed the request, or a new request may have replaced it, since the timeout fired
+            if (requests.remove(this.requestId, this))
+            {
+                count.decrementAndGet();
+
+                ExpiryListener listener = expiryListener;
+                if (listener != null)
+                {
+                    //Codes_SRS_MQTTPENDINGREQUESTS_41_010: [Once the deadline of a request has passed, the request shall be removed and the expiry listener notified with its id and operation.]
+                    listener.onRequestExpired(this.requestId, this.operation);
+                }
+            }
+        }
+
+        private void cancelTimeout()
+        {
+            HashedWheelTimer.Timeout timeout = this.timeout;
+            if (timeout != null)
+            {
+                timeout.cancel();
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxCount the number of requests the table holds at most. Must be at least 1.
+     * @throws IllegalArgumentException if maxCount is less than 1.
+     */
+    public MqttPendingRequests(int maxCount) throws IllegalArgumentException
+    {
+        if (maxCount < 1)
+        {
+            //Codes_SRS_MQTTPENDINGREQUESTS_41_001: [The constructor shall throw an IllegalArgumentException if maxCount is less than 1.]
+            throw new IllegalArgumentException("maxCount must be at least 1");
+        }
+
+        //Codes_SRS_MQTTPENDINGREQUESTS_41_002: [The constructor shall create an empty table that never expires its requests.]
+        this.maxCount = maxCount;
+    }
+
+    /**
+     * Sets the timer on which the deadlines of the requests saved from now on are scheduled.
+     *
+     * @param timer the timer. Cannot be {@code null}.
+     * @param timeoutMillis the time a request waits for its response. Must be positive.
+     * @param expiryListener the listener notified of the expired requests, or {@code null} to only remove them.
+     * @throws IllegalArgumentException if the timer is {@code null} or the timeout is not positive.
+     */
+    public void setTimeout(HashedWheelTimer timer, long timeoutMillis, ExpiryListener expiryListener) throws IllegalArgumentException
+    {
+        if (timer == null || timeoutMillis <= 0)
+        {
+            //Codes_SRS_MQTTPENDINGREQUESTS_41_003: [If the timer is null or the timeout is not positive, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("The timer cannot be null and the timeout must be positive");
+        }
+
+        //Codes_SRS_MQTTPENDINGREQUESTS_41_004: [The function shall save the timer, the timeout and the expiry listener.]
+        this.timeoutMillis = timeoutMillis;
+        this.expiryListener = expiryListener;
+        this.timer = timer;
+    }
+
+    /**
+     * Saves a request waiting for its response, replacing any request saved with the same id.
+     *
+     * @param requestId the id of the request. Cannot be {@code null}.
+     * @param operation the operation of the request. Cannot be {@code null}.
+     * @return {@code true} if the request was saved, {@code false} if the table is full.
+     * @throws IllegalArgumentException if the request id or the operation is {@code null}.
+     */
+    public boolean put(String requestId, DeviceOperations operation) throws IllegalArgumentException
+    {
+        if (requestId == null || operation == null)
+        {
+            //Codes_SRS_MQTTPENDINGREQUESTS_41_005: [If the request id or the operation is null, the function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("The request id and the operation cannot be null");
+        }
+
+        // Replacing a request does not take a new place in the table
+        if (this.count.incrementAndGet() > this.maxCount && !this.requests.containsKey(requestId))
+        {
+            //Codes_SRS_MQTTPENDINGREQUESTS_41_006: [If the table holds maxCount requests, the function shall not save the request and shall return false.]
+            this.count.decrementAndGet();
+            return false;
+        }
+
+        //Codes_SRS_MQTTPENDINGREQUESTS_41_007: [The function shall save the request under its id and return true.]
+        PendingRequest request = new PendingRequest(requestId, operation);
+        PendingRequest previous = this.requests.put(requestId, request);
+        if (previous != null)
+        {
+            previous.cancelTimeout();
+            this.count.decrementAndGet();
+        }
+
+        HashedWheelTimer timer = this.timer;
+        if (timer != null)
+        {
+            //Codes_SRS_MQTTPENDINGREQUESTS_41_008: [If a timer is set, the function shall schedule the deadline of the request on it.]
+            request.timeout = timer.schedule(request, this.timeoutMillis);
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes the request with the given id, once its response arrived.
+     *
+     * @param requestId the id of the request.
+     * @return the operation of the request, or {@code null} if no request is waiting with that id.
+     */
+    public DeviceOperations remove(String requestId)
+    {
+        PendingRequest request = (requestId == null) ? null : this.requests.remove(requestId);
+        if (request == null)
+        {
+            //Codes_SRS_MQTTPENDINGREQUESTS_41_009: [If no request is waiting with the id, the function shall return null.]
+            return null;
+        }
+
+        //Codes_SRS_MQTTPENDINGREQUESTS_41_011: [The function shall remove the request, cancel its deadline and return its operation.]
+        this.count.decrementAndGet();
+        request.cancelTimeout();
+        return request.operation;
+    }
+
+    /**
+     * Removes all the requests without notifying the expiry listener.
+     */
+    public void clear()
+    {
+        //Codes_SRS_MQTTPENDINGREQUESTS_41_012: [The function shall remove all the requests and cancel their deadlines.]
+        for (String requestId : this.requests.keySet())
+        {
+            this.remove(requestId);
+        }
+    }
+
+    /**
+     * Getter for the number of requests waiting for their response.
+     *
+     * @return the number of requests saved.
+     */
+    public int size()
+    {
+        //Codes_SRS_MQTTPENDINGREQUESTS_41_013: [The function shall return the number of requests saved.]
+        return this.requests.size();
+    }
+
+    /**
+     * @return {@code true} if no request is waiting for its response.
+     */
+    public boolean isEmpty()
+    {
+        return this.requests.isEmpty();
+    }
+}
@@ -0,0 +1,280 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.MessageProperty;
+import com.microsoft.azure.sdk.iot.device.MessageType;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Message received on an MQTT topic, that keeps the raw topic and decodes the properties it carries only when they
+ * are first read.
+ *
+ * <p>The properties are expected in the form {@code <key>=<value>&<key>=<value>...}, where both key and value may
+ * be URL encoded. The message id and correlation id are looked up directly in the topic without decoding the other
+ * properties.</p>
+ */
+final class MqttReceivedMessage extends IotHubTransportMessage
+{
+    private static final String MESSAGE_ID_ENCODED = "%24.mid";
+    private static final String CORRELATION_ID_ENCODED = "%24.cid";
+
+    private final String topic;
+    private final int propertiesStart;
+
+    private boolean propertiesDecoded;
+    private boolean messageIdResolved;
+    private boolean correlationIdResolved;
+
+    /**
+     * Constructor.
+     *
+     * @param data the payload of the message.
+     * @param topic the topic the message was received on.
+     * @param propertiesStart the index in the topic of the first property, or -1 if the topic has no properties.
+     * @throws IllegalArgumentException if a property's key and value are not separated by the '=' symbol.
+     */
+    MqttReceivedMessage(byte[] data, String topic, int propertiesStart) throws IllegalArgumentException
+    {
+        super(data, MessageType.DEVICE_TELEMETRY);
+        this.topic = topic;
+        this.propertiesStart = propertiesStart;
+
+        if (propertiesStart < 0)
+        {
+            this.propertiesDecoded = true;
+            this.messageIdResolved = true;
+            this.correlationIdResolved = true;
+        }
+        else
+        {
+            //Codes_SRS_Mqtt_34_051: [If a topic string's property's key and value are not separated by the '=' symbol, an IllegalArgumentException shall be thrown]
+            this.checkProperties();
+        }
+    }
+
+    @Override
+    public String getProperty(String name)
+    {
+        //Codes_SRS_MQTTRECEIVEDMESSAGE_41_001: [The function shall decode the properties of the topic the first time a property is read or written.]
+        this.decodeProperties();
+        return super.getProperty(name);
+    }
+
+    @Override
+    public void setProperty(String name, String value)
+    {
+        //Codes_SRS_MQTTRECEIVEDMESSAGE_41_001: [The function shall decode the properties of the topic the first time a property is read or written.]
+        this.decodeProperties();
+        super.setProperty(name, value);
+    }
+
+    @Override
+    public MessageProperty[] getProperties()
+    {
+        //Codes_SRS_MQTTRECEIVEDMESSAGE_41_001: [The function shall decode the properties of the topic the first time a property is read or written.]
+        this.decodeProperties();
+        return super.getProperties();
+    }
+
+    @Override
+    public String getMessageId()
+    {
+        if (!this.messageIdResolved)
+        {
+            //Codes_SRS_MQTTRECEIVEDMESSAGE_41_002: [The function shall look up the message id in the topic without decoding the other properties.]
+            String messageId = this.findSystemProperty(MESSAGE_ID_ENCODED, Mqtt.MESSAGE_ID);
+            if (messageId != null)
+            {
+                super.setMessageId(messageId);
+            }
+
+            this.messageIdResolved = true;
+        }
+
+        return super.getMessageId();
+    }
+
+    @Override
+    public void setMessageId(String messageId)
+    {
+        this.messageIdResolved = true;
+        super.setMessageId(messageId);
+    }
+
+    @Override
+    public String getCorrelationId()
+    {
+        if (!this.correlationIdResolved)
+        {
+            //Codes_SRS_MQTTRECEIVEDMESSAGE_41_003: [The function shall look up the correlation id in the topic without decoding the other properties.]
+            String correlationId = this.findSystemProperty(CORRELATION_ID_ENCODED, Mqtt.CORRELATION_ID);
+            if (correlationId != null)
+            {
+                super.setCorrelationId(correlationId);
+            }
+
+            this.correlationIdResolved = true;
+        }
+
+        return super.getCorrelationId();
+    }
+
+    @Override
+    public void setCorrelationId(String correlationId)
+    {
+        this.correlationIdResolved = true;
+        super.setCorrelationId(correlationId);
+    }
+
+    /**
+     * Checks that every property of the topic has a key and a value separated by '=', without allocating.
+     *
+     * @throws IllegalArgumentException if a property's key and value are not separated by the '=' symbol.
+     */
+    private void checkProperties() throws IllegalArgumentException
+    {
+        int start = this.propertiesStart;
+        while (start < this.topic.length())
+        {
+            int end = this.endOfProperty(start);
+            if (this.indexOfKeyValueSeparator(start, end) < 0)
+            {
+                throw new IllegalArgumentException("Unexpected property string provided. Expected '=' symbol between key and value of the property in string: " + this.topic.substring(start, end));
+            }
+
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Decodes all the properties of the topic in a single pass, once, and assigns them to the message. The system
+     * properties other than the message id and correlation id are ignored.
+     */
+    private void decodeProperties()
+    {
+        if (this.propertiesDecoded)
+        {
+            return;
+        }
+
+        this.propertiesDecoded = true;
+
+        //Codes_SRS_Mqtt_34_054: [A message may have 0 to many custom properties]
+        int start = this.propertiesStart;
+        while (start < this.topic.length())
+        {
+            int end = this.endOfProperty(start);
+            int separator = this.indexOfKeyValueSeparator(start, end);
+
+            //Codes_SRS_Mqtt_34_053: [A property's key and value may include unusual characters such as &, %, $]
+            String key = decode(this.topic, start, separator);
+            String value = decode(this.topic, separator + 1, end);
+
+            //Some properties are reserved system properties and must be saved in the message differently
+            switch (key)
+            {
+                case Mqtt.MESSAGE_ID:
+                    if (!this.messageIdResolved)
+                    {
+                        this.setMessageId(value);
+                    }
+                    break;
+                case Mqtt.CORRELATION_ID:
+                    if (!this.correlationIdResolved)
+                    {
+                        this.setCorrelationId(value);
+                    }
+                    break;
+                case Mqtt.TO:
+                case Mqtt.USER_ID:
+                case Mqtt.ABSOLUTE_EXPIRY_TIME:
+                case Mqtt.IOTHUB_ACK:
+                    //do nothing
+                    break;
+                default:
+                    super.setProperty(key, value);
+            }
+
+            start = end + 1;
+        }
+
+        this.messageIdResolved = true;
+        this.correlationIdResolved = true;
+    }
+
+    /**
+     * Finds the value of a system property in the topic, comparing keys in place so that only the returned value is
+     * allocated.
+     *
+     * @param encodedKey the key as it appears in the topic.
+     * @param decodedKey the key once decoded.
+     * @return the decoded value, or null if the topic does not carry the property.
+     */
+    private String findSystemProperty(String encodedKey, String decodedKey)
+    {
+        int start = this.propertiesStart;
+        while (start < this.topic.length())
+        {
+            int end = this.endOfProperty(start);
+            int separator = this.indexOfKeyValueSeparator(start, end);
+            int keyLength = separator - start;
+
+            if ((keyLength == encodedKey.length() && this.topic.regionMatches(true, start, encodedKey, 0, keyLength))
+                    || (keyLength == decodedKey.length() && this.topic.regionMatches(start, decodedKey, 0, keyLength)))
+            {
+                return decode(this.topic, separator + 1, end);
+            }
+
+            start = end + 1;
+        }
+
+        return null;
+    }
+
+    private int endOfProperty(int start)
+    {
+        int end = this.topic.indexOf(Mqtt.MESSAGE_PROPERTY_SEPARATOR, start);
+        return (end < 0) ? this.topic.length() : end;
+    }
+
+    private int indexOfKeyValueSeparator(int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (this.topic.charAt(i) == Mqtt.MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * URL decodes a region of the topic. Regions without escaped characters, the common case, are only copied.
+     */
+    private static String decode(String topic, int start, int end)
+    {
+        String region = topic.substring(start, end);
+        if (region.indexOf('%') < 0 && region.indexOf('+') < 0)
+        {
+            return region;
+        }
+
+        try
+        {
+            return URLDecoder.decode(region, StandardCharsets.UTF_8.name());
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // should never happen, since the encoding is hard-coded.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.BatchMessage;
+import com.microsoft.azure.sdk.iot.device.IotHubConnectionString;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageType;
+import mockit.Mocked;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for BatchMessage.
+ */
+public class BatchMessageTest
+{
+    @Mocked
+    IotHubConnectionString mockIotHubConnectionString;
+
+    // Tests_SRS_BATCHMESSAGE_41_001: [If messages is null or empty, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForNullMessages()
+    {
+        //act
+        new BatchMessage(null);
+    }
+
+    // Tests_SRS_BATCHMESSAGE_41_001: [If messages is null or empty, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForEmptyMessages()
+    {
+        //act
+        new BatchMessage(Collections.<Message>emptyList());
+    }
+
+    // Tests_SRS_BATCHMESSAGE_41_002: [If any of the messages is null, a batch or not a telemetry message,
+    // the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForNullMessage()
+    {
+        //act
+        new BatchMessage(Arrays.asList(new Message("body"), null));
+    }
+
+    // Tests_SRS_BATCHMESSAGE_41_002: [If any of the messages is null, a batch or not a telemetry message,
+    // the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForNestedBatch()
+    {
+        //arrange
+        Message batchMessage = new BatchMessage(Collections.singletonList(new Message("body")));
+
+        //act
+        new BatchMessage(Collections.singletonList(batchMessage));
+    }
+
+    // Tests_SRS_BATCHMESSAGE_41_002: [If any of the messages is null, a batch or not a telemetry message,
+    // the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForNonTelemetryMessage()
+    {
+        //arrange
+        Message twinMessage = new Message("body");
+        twinMessage.setMessageType(MessageType.DEVICE_TWIN);
+
+        //act
+        new BatchMessage(Collections.singletonList(twinMessage));
+    }
+
+    // Tests_SRS_BATCHMESSAGE_41_003: [The constructor shall save a copy of the messages and set the message type
+    // of the batch to DEVICE_TELEMETRY.]
+    // Tests_SRS_BATCHMESSAGE_41_004: [This function shall return the messages of the batch in order.]
+    @Test
+    public void constructorCopiesMessagesInOrder()
+    {
+        //arrange
+        Message first = new Message("first");
+        Message second = new Message("second");
+        List<Message> messages = new ArrayList<>(Arrays.asList(first, second));
+
+        //act
+        BatchMessage batchMessage = new BatchMessage(messages);
+        messages.clear();
+
+        //assert
+        assertEquals(Arrays.asList(first, second), batchMessage.getNestedMessages());
+        assertEquals(MessageType.DEVICE_TELEMETRY, batchMessage.getMessageType());
+    }
+
+    // Tests_SRS_BATCHMESSAGE_41_004: [This function shall return the messages of the batch in order.]
+    @Test (expected = UnsupportedOperationException.class)
+    public void getNestedMessagesIsUnmodifiable()
+    {
+        //arrange
+        BatchMessage batchMessage = new BatchMessage(Collections.singletonList(new Message("body")));
+
+        //act
+        batchMessage.getNestedMessages().add(new Message("other"));
+    }
+
+    // Tests_SRS_BATCHMESSAGE_41_005: [This function shall set the connection string of the batch and of each of
+    // its messages.]
+    @Test
+    public void setIotHubConnectionStringSetsNestedMessages()
+    {
+        //arrange
+        Message first = new Message("first");
+        Message second = new Message("second");
+        BatchMessage batchMessage = new BatchMessage(Arrays.asList(first, second));
+
+        //act
+        batchMessage.setIotHubConnectionString(mockIotHubConnectionString);
+
+        //assert
+        assertEquals(mockIotHubConnectionString, batchMessage.getIotHubConnectionString());
+        assertEquals(mockIotHubConnectionString, first.getIotHubConnectionString());
+        assertEquals(mockIotHubConnectionString, second.getIotHubConnectionString());
+    }
+}
@@ -0,0 +1,140 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.ClientRuntime;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttEventLoopGroup;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ClientRuntime.
+ */
+public class ClientRuntimeTest
+{
+    // Tests_SRS_CLIENTRUNTIME_41_001: [The constructor shall save the provided executors, and create the ones
+    // not provided: a scheduler and a worker pool of one thread per core, and a cached connection thread pool.]
+    @Test
+    public void constructorCreatesExecutors()
+    {
+        //act
+        ClientRuntime clientRuntime = new ClientRuntime();
+
+        //assert
+        assertNotNull(clientRuntime.getScheduler());
+        assertNotNull(clientRuntime.getWorkerExecutor());
+        assertNotNull(clientRuntime.getConnectionExecutor());
+        assertNotNull(clientRuntime.getTimer());
+        assertNotSame(clientRuntime.getWorkerExecutor(), clientRuntime.getFileUploadExecutor());
+        clientRuntime.close();
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_41_004: [The constructor shall create a file upload pool of at most 10 threads,
+    // whose idle threads end.]
+    @Test
+    public void constructorCreatesBoundedFileUploadExecutor()
+    {
+        //act
+        ClientRuntime clientRuntime = new ClientRuntime(null, Executors.newSingleThreadExecutor(), null);
+
+        //assert
+        ThreadPoolExecutor fileUploadExecutor = (ThreadPoolExecutor) clientRuntime.getFileUploadExecutor();
+        assertEquals(10, fileUploadExecutor.getMaximumPoolSize());
+        assertTrue(fileUploadExecutor.allowsCoreThreadTimeOut());
+        assertNotSame(clientRuntime.getWorkerExecutor(), fileUploadExecutor);
+        clientRuntime.getWorkerExecutor().shutdown();
+        clientRuntime.close();
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_41_001: [The constructor shall save the provided executors, and create the ones
+    // not provided: a scheduler and a worker pool of one thread per core, and a cached connection thread pool.]
+    @Test
+    public void constructorSavesProvidedExecutors()
+    {
+        //arrange
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService workerExecutor = Executors.newSingleThreadExecutor();
+
+        //act
+        ClientRuntime clientRuntime = new ClientRuntime(scheduler, workerExecutor, null);
+
+        //assert
+        assertSame(scheduler, clientRuntime.getScheduler());
+        assertSame(workerExecutor, clientRuntime.getWorkerExecutor());
+        assertNotNull(clientRuntime.getConnectionExecutor());
+        clientRuntime.close();
+        scheduler.shutdown();
+        workerExecutor.shutdown();
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_41_002: [This function shall shut down the executors created by the runtime, and
+    // stop the timer.]
+    @Test
+    public void closeShutsDownOwnedExecutorsOnly()
+    {
+        //arrange
+        ExecutorService connectionExecutor = Executors.newCachedThreadPool();
+        ClientRuntime clientRuntime = new ClientRuntime(null, null, connectionExecutor);
+        clientRuntime.getTimer().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        }, 60000);
+
+        //act
+        clientRuntime.close();
+
+        //assert
+        assertTrue(clientRuntime.getScheduler().isShutdown());
+        assertTrue(clientRuntime.getWorkerExecutor().isShutdown());
+        assertTrue(clientRuntime.getFileUploadExecutor().isShutdown());
+        assertFalse(connectionExecutor.isShutdown());
+        assertEquals(0, clientRuntime.getTimer().getPendingTimeouts());
+        connectionExecutor.shutdown();
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_41_003: [This function shall create the MQTT event loop group on its first call,
+    // with one event loop per core, and return the same group afterwards.]
+    @Test
+    public void getMqttEventLoopGroupCreatesGroupOnce() throws IOException
+    {
+        //arrange
+        ClientRuntime clientRuntime = new ClientRuntime();
+
+        try
+        {
+            //act
+            MqttEventLoopGroup first = clientRuntime.getMqttEventLoopGroup();
+            MqttEventLoopGroup second = clientRuntime.getMqttEventLoopGroup();
+
+            //assert
+            assertSame(first, second);
+            assertEquals(Runtime.getRuntime().availableProcessors(), first.getThreadCount());
+        }
+        finally
+        {
+            clientRuntime.close();
+        }
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void getMqttEventLoopGroupThrowsOnceClosed() throws IOException
+    {
+        //arrange
+        ClientRuntime clientRuntime = new ClientRuntime();
+        clientRuntime.close();
+
+        //act
+        clientRuntime.getMqttEventLoopGroup();
+    }
+}
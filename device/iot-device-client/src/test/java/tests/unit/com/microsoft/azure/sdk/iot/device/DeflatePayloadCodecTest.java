@@ -0,0 +1,135 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.DeflatePayloadCodec;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for DeflatePayloadCodec.
+ */
+public class DeflatePayloadCodecTest
+{
+    private static byte[] newBody(int samples)
+    {
+        StringBuilder body = new StringBuilder("{\"temperature\":[");
+        for (int i = 0; i < samples; i++)
+        {
+            body.append(i == 0 ? "" : ",").append(20 + (i % 7) / 10.0);
+        }
+        return body.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = stream.read(buffer)) != -1)
+        {
+            output.write(buffer, 0, read);
+        }
+        stream.close();
+        return output.toByteArray();
+    }
+
+    // Tests_SRS_DEFLATEPAYLOADCODEC_41_003: [This function shall return the content encoding the codec was
+    // created with.]
+    @Test
+    public void getContentEncodingReturnsEncoding()
+    {
+        //act - assert
+        assertEquals("gzip", new DeflatePayloadCodec(DeflatePayloadCodec.GZIP).getContentEncoding());
+        assertEquals("deflate", new DeflatePayloadCodec(DeflatePayloadCodec.DEFLATE, 9).getContentEncoding());
+    }
+
+    // Tests_SRS_DEFLATEPAYLOADCODEC_41_001: [If the content encoding is not gzip or deflate, the constructor
+    // shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnUnsupportedEncoding()
+    {
+        //act
+        new DeflatePayloadCodec("br");
+    }
+
+    // Tests_SRS_DEFLATEPAYLOADCODEC_41_002: [If the level is not between -1 and 9, the constructor shall
+    // throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnInvalidLevel()
+    {
+        //act
+        new DeflatePayloadCodec(DeflatePayloadCodec.GZIP, 10);
+    }
+
+    // Tests_SRS_DEFLATEPAYLOADCODEC_41_004: [If the body is null, this function shall throw an
+    // IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void encodeThrowsOnNullBody()
+    {
+        //act
+        new DeflatePayloadCodec(DeflatePayloadCodec.GZIP).encode(null);
+    }
+
+    // Tests_SRS_DEFLATEPAYLOADCODEC_41_005: [This function shall compress the body with a pooled deflater and
+    // output buffer, creating them if none is free, and return them to the pool once done.]
+    // Tests_SRS_DEFLATEPAYLOADCODEC_41_006: [This function shall return the body compressed in the format of
+    // the content encoding.]
+    @Test
+    public void encodeGzipReusesCompressorAcrossBodies() throws IOException
+    {
+        //arrange
+        DeflatePayloadCodec codec = new DeflatePayloadCodec(DeflatePayloadCodec.GZIP);
+        byte[] largeBody = newBody(5000);
+        byte[] smallBody = newBody(10);
+
+        //act
+        byte[] encodedLargeBody = codec.encode(largeBody);
+        byte[] encodedSmallBody = codec.encode(smallBody);
+
+        //assert
+        assertTrue(encodedLargeBody.length < largeBody.length / 5);
+        assertArrayEquals(largeBody, readAll(new GZIPInputStream(new ByteArrayInputStream(encodedLargeBody))));
+        assertArrayEquals(smallBody, readAll(new GZIPInputStream(new ByteArrayInputStream(encodedSmallBody))));
+    }
+
+    // Tests_SRS_DEFLATEPAYLOADCODEC_41_006: [This function shall return the body compressed in the format of
+    // the content encoding.]
+    @Test
+    public void encodeDeflateReturnsZlibFormat() throws IOException
+    {
+        //arrange
+        DeflatePayloadCodec codec = new DeflatePayloadCodec(DeflatePayloadCodec.DEFLATE);
+        byte[] body = newBody(1000);
+
+        //act
+        byte[] firstEncodedBody = codec.encode(body);
+        byte[] secondEncodedBody = codec.encode(body);
+
+        //assert
+        assertArrayEquals(firstEncodedBody, secondEncodedBody);
+        assertArrayEquals(body, readAll(new InflaterInputStream(new ByteArrayInputStream(firstEncodedBody))));
+    }
+
+    // Tests_SRS_DEFLATEPAYLOADCODEC_41_006: [This function shall return the body compressed in the format of
+    // the content encoding.]
+    @Test
+    public void encodeEmptyBody() throws IOException
+    {
+        //act
+        byte[] encodedBody = new DeflatePayloadCodec(DeflatePayloadCodec.GZIP).encode(new byte[0]);
+
+        //assert
+        assertEquals(0, readAll(new GZIPInputStream(new ByteArrayInputStream(encodedBody))).length);
+    }
+}
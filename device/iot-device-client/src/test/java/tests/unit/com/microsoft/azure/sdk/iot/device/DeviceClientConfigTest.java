@@ -3,9 +3,14 @@
 
 package tests.unit.com.microsoft.azure.sdk.iot.device;
 
+import com.microsoft.azure.sdk.iot.device.ClientRuntime;
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.IotHubConnectionString;
 import com.microsoft.azure.sdk.iot.device.MessageCallback;
+import com.microsoft.azure.sdk.iot.device.MessageDeliveryMode;
+import com.microsoft.azure.sdk.iot.device.OutboundQueueFullPolicy;
+import com.microsoft.azure.sdk.iot.device.PayloadCodec;
+import com.microsoft.azure.sdk.iot.device.PersistentQueueSyncPolicy;
 import com.microsoft.azure.sdk.iot.device.auth.*;
 import com.microsoft.azure.sdk.iot.device.transport.ExponentialBackoffWithJitter;
 import com.microsoft.azure.sdk.iot.device.transport.RetryPolicy;
@@ -23,6 +28,7 @@ import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.concurrent.ExecutorService;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.*;
@@ -770,4 +776,374 @@ public class DeviceClientConfigTest
         //assert
         assertEquals(expectedOperationTimeout, actual);
     }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_001: [The function shall return true if the event driven transport is enabled, false otherwise.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_002: [The function shall save useEventDrivenTransport.]
+    @Test
+    public void setUseEventDrivenTransportSets() throws URISyntaxException, IOException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+        final IotHubConnectionString iotHubConnectionString =
+                Deencapsulation.newInstance(IotHubConnectionString.class,
+                        new Class[] {String.class, String.class, String.class, String.class},
+                        iotHubHostname,
+                        deviceId,
+                        deviceKey,
+                        sharedAccessToken);
+
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, iotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertFalse(config.isUseEventDrivenTransport());
+
+        config.setUseEventDrivenTransport(true);
+
+        assertTrue(config.isUseEventDrivenTransport());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_003: [The function shall return the saved maximum number of queued outgoing messages.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_005: [The function shall save the maximum number of queued outgoing messages.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_006: [The function shall return the saved maximum size of the queued outgoing messages.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_008: [The function shall save the maximum size of the queued outgoing messages.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_009: [The function shall return the saved outbound queue full policy.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_011: [The function shall save the outbound queue full policy.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_012: [The function shall return the saved outbound queue block timeout.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_014: [The function shall save the outbound queue block timeout.]
+    @Test
+    public void setOutboundQueueSettingsSets() throws URISyntaxException, IOException
+    {
+        final IotHubConnectionString iotHubConnectionString =
+                Deencapsulation.newInstance(IotHubConnectionString.class,
+                        new Class[] {String.class, String.class, String.class, String.class},
+                        "test.iothubhostname",
+                        "test-deviceid",
+                        "test-devicekey",
+                        null);
+
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, iotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertEquals(0, config.getOutboundQueueMaxMessages());
+        assertEquals(0, config.getOutboundQueueMaxBytes());
+        assertEquals(OutboundQueueFullPolicy.REJECT, config.getOutboundQueueFullPolicy());
+        assertEquals(10000, config.getOutboundQueueBlockTimeoutMillis());
+
+        config.setOutboundQueueMaxMessages(100);
+        config.setOutboundQueueMaxBytes(4096);
+        config.setOutboundQueueFullPolicy(OutboundQueueFullPolicy.DROP_OLDEST);
+        config.setOutboundQueueBlockTimeoutMillis(500);
+
+        assertEquals(100, config.getOutboundQueueMaxMessages());
+        assertEquals(4096, config.getOutboundQueueMaxBytes());
+        assertEquals(OutboundQueueFullPolicy.DROP_OLDEST, config.getOutboundQueueFullPolicy());
+        assertEquals(500, config.getOutboundQueueBlockTimeoutMillis());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_004: [If the provided value is negative, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOutboundQueueMaxMessagesNegativeThrows()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        config.setOutboundQueueMaxMessages(-1);
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_007: [If the provided value is negative, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOutboundQueueMaxBytesNegativeThrows()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        config.setOutboundQueueMaxBytes(-1);
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_010: [If the provided policy is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOutboundQueueFullPolicyNullThrows()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        config.setOutboundQueueFullPolicy(null);
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_013: [If the provided value is negative, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOutboundQueueBlockTimeoutNegativeThrows()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        config.setOutboundQueueBlockTimeoutMillis(-1);
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_015: [The function shall return the saved receive batch size.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_017: [The function shall save the receive batch size.]
+    @Test
+    public void setReceiveBatchSizeSets()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertEquals(10, config.getReceiveBatchSize());
+
+        config.setReceiveBatchSize(50);
+
+        assertEquals(50, config.getReceiveBatchSize());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_016: [If the provided value is less than 1, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setReceiveBatchSizeZeroThrows()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        config.setReceiveBatchSize(0);
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_018: [The function shall return the saved callback executor.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_019: [The function shall save the callback executor and reset the callback
+    // thread pool size to 0.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_020: [The function shall return the saved callback thread pool size.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_022: [The function shall save the callback thread pool size and clear the
+    // callback executor.]
+    @Test
+    public void setCallbackExecutorAndPoolSizeOverrideEachOther(@Mocked final ExecutorService mockExecutorService)
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertNull(config.getCallbackExecutor());
+        assertEquals(0, config.getCallbackThreadPoolSize());
+
+        config.setCallbackThreadPoolSize(4);
+        assertEquals(4, config.getCallbackThreadPoolSize());
+        assertNull(config.getCallbackExecutor());
+
+        config.setCallbackExecutor(mockExecutorService);
+        assertEquals(mockExecutorService, config.getCallbackExecutor());
+        assertEquals(0, config.getCallbackThreadPoolSize());
+
+        config.setCallbackThreadPoolSize(2);
+        assertEquals(2, config.getCallbackThreadPoolSize());
+        assertNull(config.getCallbackExecutor());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_021: [If the provided value is negative, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setCallbackThreadPoolSizeNegativeThrows()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        config.setCallbackThreadPoolSize(-1);
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_023: [The function shall return the saved persistent queue directory.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_024: [The function shall save the persistent queue directory.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_025: [The function shall return the saved persistent queue sync policy.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_027: [The function shall save the persistent queue sync policy.]
+    @Test
+    public void setPersistentQueueSettingsSets()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertNull(config.getPersistentQueueDirectory());
+        assertEquals(PersistentQueueSyncPolicy.NONE, config.getPersistentQueueSyncPolicy());
+
+        config.setPersistentQueueDirectory("queue");
+        config.setPersistentQueueSyncPolicy(PersistentQueueSyncPolicy.ALWAYS);
+
+        assertEquals("queue", config.getPersistentQueueDirectory());
+        assertEquals(PersistentQueueSyncPolicy.ALWAYS, config.getPersistentQueueSyncPolicy());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_026: [If the provided policy is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setPersistentQueueSyncPolicyNullThrows()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        config.setPersistentQueueSyncPolicy(null);
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_028: [The function shall return a copy of the saved priority weights.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_030: [The function shall save a copy of the priority weights.]
+    @Test
+    public void setOutboundQueuePriorityWeightsSets()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertNull(config.getOutboundQueuePriorityWeights());
+        int[] weights = {4, 2, 1};
+
+        config.setOutboundQueuePriorityWeights(weights);
+        weights[0] = 8;
+
+        assertArrayEquals(new int[] {4, 2, 1}, config.getOutboundQueuePriorityWeights());
+        config.setOutboundQueuePriorityWeights(null);
+        assertNull(config.getOutboundQueuePriorityWeights());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_029: [If the provided weights are not null and do not have one
+    // positive weight per priority, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOutboundQueuePriorityWeightsNegativeThrows()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        config.setOutboundQueuePriorityWeights(new int[] {4, -1, 1});
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_031: [The function shall return the saved client runtime.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_032: [The function shall save the client runtime.]
+    @Test
+    public void setClientRuntimeSets(@Mocked final ClientRuntime mockClientRuntime)
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertNull(config.getClientRuntime());
+
+        config.setClientRuntime(mockClientRuntime);
+
+        assertEquals(mockClientRuntime, config.getClientRuntime());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_033: [The function shall return the saved send window ceiling.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_035: [The function shall save the send window ceiling.]
+    @Test
+    public void setSendWindowCeilingSets()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertEquals(1000, config.getSendWindowCeiling());
+
+        config.setSendWindowCeiling(50);
+
+        assertEquals(50, config.getSendWindowCeiling());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_034: [If the provided value is less than 1, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setSendWindowCeilingZeroThrows()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        config.setSendWindowCeiling(0);
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_044: [The function shall return the saved MQTT in flight window.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_046: [The function shall save the MQTT in flight window.]
+    @Test
+    public void setMqttMaxInFlightCountSets()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertEquals(10, config.getMqttMaxInFlightCount());
+
+        config.setMqttMaxInFlightCount(100);
+
+        assertEquals(100, config.getMqttMaxInFlightCount());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_045: [If the provided value is less than 1, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setMqttMaxInFlightCountZeroThrows()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        config.setMqttMaxInFlightCount(0);
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_047: [The function shall return the saved telemetry delivery mode.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_049: [The function shall save the telemetry delivery mode.]
+    @Test
+    public void setTelemetryDeliveryModeSets()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertEquals(MessageDeliveryMode.AT_LEAST_ONCE, config.getTelemetryDeliveryMode());
+
+        config.setTelemetryDeliveryMode(MessageDeliveryMode.AT_MOST_ONCE);
+
+        assertEquals(MessageDeliveryMode.AT_MOST_ONCE, config.getTelemetryDeliveryMode());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_048: [If the provided value is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setTelemetryDeliveryModeNullThrows()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        config.setTelemetryDeliveryMode(null);
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_050: [The function shall return the saved MQTT direct dispatch flag.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_051: [The function shall save the MQTT direct dispatch flag.]
+    @Test
+    public void setMqttDirectDispatchSets()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertFalse(config.isMqttDirectDispatch());
+
+        config.setMqttDirectDispatch(true);
+
+        assertTrue(config.isMqttDirectDispatch());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_052: [The function shall return the saved MQTT event loop flag.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_053: [The function shall save the MQTT event loop flag.]
+    @Test
+    public void setMqttEventLoopSets()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertFalse(config.isMqttEventLoop());
+
+        config.setMqttEventLoop(true);
+
+        assertTrue(config.isMqttEventLoop());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_036: [The function shall return the saved reported properties coalescing interval.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_038: [The function shall save the reported properties coalescing interval.]
+    @Test
+    public void setReportedPropertiesCoalescingIntervalSets()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertEquals(0, config.getReportedPropertiesCoalescingIntervalMillis());
+
+        config.setReportedPropertiesCoalescingIntervalMillis(500);
+
+        assertEquals(500, config.getReportedPropertiesCoalescingIntervalMillis());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_037: [If the provided value is negative, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setReportedPropertiesCoalescingIntervalNegativeThrows()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        config.setReportedPropertiesCoalescingIntervalMillis(-1);
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_039: [The function shall return the saved payload codec.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_040: [The function shall save the payload codec.]
+    @Test
+    public void setPayloadCodecSets(@Mocked final PayloadCodec mockPayloadCodec)
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertNull(config.getPayloadCodec());
+
+        config.setPayloadCodec(mockPayloadCodec);
+
+        assertEquals(mockPayloadCodec, config.getPayloadCodec());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_041: [The function shall return the saved payload compression threshold.]
+    //Tests_SRS_DEVICECLIENTCONFIG_41_043: [The function shall save the payload compression threshold.]
+    @Test
+    public void setPayloadCompressionThresholdSets()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertEquals(1024, config.getPayloadCompressionThreshold());
+
+        config.setPayloadCompressionThreshold(0);
+
+        assertEquals(0, config.getPayloadCompressionThreshold());
+    }
+
+    //Tests_SRS_DEVICECLIENTCONFIG_41_042: [If the provided value is negative, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setPayloadCompressionThresholdNegativeThrows()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        config.setPayloadCompressionThreshold(-1);
+    }
 }
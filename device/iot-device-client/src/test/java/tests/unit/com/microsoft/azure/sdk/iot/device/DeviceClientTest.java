@@ -21,11 +21,18 @@ import java.io.IOError;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 
 /**
@@ -844,6 +851,55 @@ public class DeviceClientTest
         };
     }
 
+    // Tests_SRS_DEVICECLIENT_41_022: [The function shall build a BatchMessage from the messages, which throws an
+    // IllegalArgumentException if they cannot be batched.]
+    // Tests_SRS_DEVICECLIENT_41_023: [The function shall call deviceIO.sendEventAsync with the batch message and
+    // the client's connection string.]
+    @Test
+    public void sendEventBatchAsyncSendsBatchMessage(
+            @Mocked final BatchMessage mockBatchMessage,
+            @Mocked final IotHubBatchEventCallback mockCallback)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final Collection<Message> messages = Arrays.asList(new Message("first"), new Message("second"));
+        final Map<String, Object> context = new HashMap<>();
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.AMQPS);
+        Deencapsulation.setField(client, "config", mockConfig);
+        client.open();
+
+        // act
+        client.sendEventBatchAsync(messages, mockCallback, context);
+
+        // assert
+        new Verifications()
+        {
+            {
+                new BatchMessage(messages);
+                times = 1;
+                mockDeviceIO.sendEventAsync((BatchMessage) any, mockCallback, context, (IotHubConnectionString) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_022: [The function shall build a BatchMessage from the messages, which throws an
+    // IllegalArgumentException if they cannot be batched.]
+    @Test (expected = IllegalArgumentException.class)
+    public void sendEventBatchAsyncThrowsForEmptyBatch() throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.HTTPS);
+        client.open();
+
+        // act
+        client.sendEventBatchAsync(new ArrayList<Message>(), null, null);
+    }
+
     // Tests_SRS_DEVICECLIENT_11_013: [The function shall set the message callback, with its associated context.]
     // Tests_SRS_DEVICECLIENT_12_001: [The function shall call deviceIO.sendEventAsync with the client's config parameter to enable multiplexing.]
     @Test
@@ -2832,6 +2888,41 @@ public class DeviceClientTest
         };
     }
 
+    // Tests_SRS_DEVICECLIENT_41_049: [If the device twin is started, the close shall cancel its reported
+    // properties patches in flight or waiting to be sent.]
+    @Test
+    public void closeNowClosesDeviceTwin(@Mocked final DeviceTwin mockedDeviceTwin,
+                                         @Mocked final IotHubEventCallback mockedStatusCB,
+                                         @Mocked final PropertyCallBack mockedPropertyCB) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        // act
+        client.closeNow();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockedDeviceTwin.close();
+                times = 1;
+            }
+        };
+    }
+
     /* Tests_SRS_DEVICECLIENT_21_054: [If the fileUpload is not null, the closeNow shall call closeNow on fileUpload.] */
     @Test
     public void closeNowClosesFileUploadSucceeds(@Mocked final FileUpload mockedFileUpload,
@@ -3391,4 +3482,1124 @@ public class DeviceClientTest
             }
         };
     }
+
+    // Tests_SRS_DEVICECLIENT_41_001: ["SetEventDrivenTransport" - true to drain the transport on demand instead of periodically.]
+    @Test
+    public void setOptionSetEventDrivenTransportSetsConfig() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetEventDrivenTransport", true);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setUseEventDrivenTransport(true);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_002: ["SetEventDrivenTransport" needs to have value type boolean.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionSetEventDrivenTransportWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetEventDrivenTransport", "true");
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_003: ["SetEventDrivenTransport" shall throw if the transportClient or deviceIO already open.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionSetEventDrivenTransportDeviceIOOpenedThrows() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetEventDrivenTransport", true);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_003: ["SetEventDrivenTransport" shall throw if the transportClient or deviceIO already open.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionWithTransportClientSetEventDrivenTransportTransportOpenedThrows() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockTransportClient, "getTransportClientState");
+                result = TransportClient.TransportClientState.OPENED;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, mockTransportClient);
+
+        // act
+        client.setOption("SetEventDrivenTransport", true);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_004: [The outbound queue options shall be saved in the config, and shall apply
+    // to the next messages sent.]
+    @Test
+    public void setOptionOutboundQueueOptionsSetConfig() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetOutboundQueueMaxMessages", 100);
+        client.setOption("SetOutboundQueueMaxBytes", 4096L);
+        client.setOption("SetOutboundQueueFullPolicy", OutboundQueueFullPolicy.BLOCK);
+        client.setOption("SetOutboundQueueBlockTimeout", 500L);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setOutboundQueueMaxMessages(100);
+                times = 1;
+                mockConfig.setOutboundQueueMaxBytes(4096L);
+                times = 1;
+                mockConfig.setOutboundQueueFullPolicy(OutboundQueueFullPolicy.BLOCK);
+                times = 1;
+                mockConfig.setOutboundQueueBlockTimeoutMillis(500L);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_005: ["SetOutboundQueueMaxMessages" needs to have value type integer.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionOutboundQueueMaxMessagesWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetOutboundQueueMaxMessages", 100L);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_006: ["SetOutboundQueueMaxBytes" needs to have value type long.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionOutboundQueueMaxBytesWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetOutboundQueueMaxBytes", 4096);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_007: ["SetOutboundQueueFullPolicy" needs to have value type OutboundQueueFullPolicy.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionOutboundQueueFullPolicyWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetOutboundQueueFullPolicy", "BLOCK");
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_008: ["SetOutboundQueueBlockTimeout" needs to have value type long.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionOutboundQueueBlockTimeoutWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetOutboundQueueBlockTimeout", 500);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_010: [The function shall return the outbound queue size of the deviceIO.]
+    // Tests_SRS_DEVICECLIENT_41_011: [The function shall return the outbound queue size in bytes of the deviceIO.]
+    @Test
+    public void getOutboundQueueSizeReturnsDeviceIOOccupancy() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getOutboundQueueSize();
+                result = 5;
+                mockDeviceIO.getOutboundQueueSizeInBytes();
+                result = 500L;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        int size = client.getOutboundQueueSize();
+        long sizeInBytes = client.getOutboundQueueSizeInBytes();
+
+        // assert
+        assertEquals(5, size);
+        assertEquals(500L, sizeInBytes);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_009: [If the deviceIO is not set, the function shall throw an IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void getOutboundQueueSizeWithoutDeviceIOThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "deviceIO", null);
+
+        // act
+        client.getOutboundQueueSize();
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_012: ["SetReceiveBatchSize" - maximum number of received messages handled at a time.]
+    @Test
+    public void setOptionSetReceiveBatchSizeSetsConfig() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetReceiveBatchSize", 50);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setReceiveBatchSize(50);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_013: ["SetReceiveBatchSize" needs to have value type integer.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionSetReceiveBatchSizeWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetReceiveBatchSize", 50L);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_014: ["SetCallbackExecutor" - where the callbacks of sent messages run.]
+    // Tests_SRS_DEVICECLIENT_41_015: ["SetCallbackExecutor" needs to have value type ExecutorService or integer.]
+    @Test
+    public void setOptionSetCallbackExecutorSetsConfig(@Mocked final ExecutorService mockExecutorService) throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetCallbackExecutor", mockExecutorService);
+        client.setOption("SetCallbackExecutor", 4);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setCallbackExecutor(mockExecutorService);
+                times = 1;
+                mockConfig.setCallbackThreadPoolSize(4);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_015: ["SetCallbackExecutor" needs to have value type ExecutorService or integer.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionSetCallbackExecutorWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetCallbackExecutor", 4L);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_016: ["SetCallbackExecutor" shall throw if the transportClient or deviceIO already open.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionSetCallbackExecutorDeviceIOOpenedThrows() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetCallbackExecutor", 4);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_018: ["SetPersistentQueueDirectory" needs to have value type String.]
+    // Tests_SRS_DEVICECLIENT_41_019: ["SetPersistentQueueSyncPolicy" needs to have value type PersistentQueueSyncPolicy.]
+    @Test
+    public void setOptionPersistentQueueSetsConfig() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetPersistentQueueDirectory", "queue");
+        client.setOption("SetPersistentQueueSyncPolicy", PersistentQueueSyncPolicy.PERIODIC);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setPersistentQueueDirectory("queue");
+                times = 1;
+                mockConfig.setPersistentQueueSyncPolicy(PersistentQueueSyncPolicy.PERIODIC);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_019: ["SetPersistentQueueSyncPolicy" needs to have value type PersistentQueueSyncPolicy.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionPersistentQueueSyncPolicyWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetPersistentQueueSyncPolicy", "ALWAYS");
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_017: ["SetPersistentQueueDirectory" and "SetPersistentQueueSyncPolicy" shall
+    // throw if the transportClient or deviceIO already open.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionPersistentQueueDirectoryDeviceIOOpenedThrows() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetPersistentQueueDirectory", "queue");
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_020: ["SetOutboundQueuePriorityWeights" - how the priority lanes share the
+    // sending. Shall throw if the transportClient or deviceIO already open.]
+    // Tests_SRS_DEVICECLIENT_41_021: ["SetOutboundQueuePriorityWeights" needs to have value type int[].]
+    @Test
+    public void setOptionOutboundQueuePriorityWeightsSetsConfig() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+        final int[] weights = {4, 2, 1};
+
+        // act
+        client.setOption("SetOutboundQueuePriorityWeights", weights);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setOutboundQueuePriorityWeights(weights);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_021: ["SetOutboundQueuePriorityWeights" needs to have value type int[].]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionOutboundQueuePriorityWeightsWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetOutboundQueuePriorityWeights", new long[] {4, 2, 1});
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_020: ["SetOutboundQueuePriorityWeights" - how the priority lanes share the
+    // sending. Shall throw if the transportClient or deviceIO already open.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionOutboundQueuePriorityWeightsDeviceIOOpenedThrows() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetOutboundQueuePriorityWeights", new int[] {4, 2, 1});
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_024: [The function shall send the message with a new future as its callback, and
+    // return that future.]
+    @Test
+    public void sendEventAsyncWithoutCallbackReturnsFutureCompletedByTransport(
+            @Mocked final Message mockMessage)
+            throws IOException, URISyntaxException, InterruptedException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.AMQPS);
+        Deencapsulation.setField(client, "config", mockConfig);
+        client.open();
+
+        // act
+        final IotHubStatusFuture future = client.sendEventAsync(mockMessage);
+
+        // assert
+        assertFalse(future.isDone());
+        new Verifications()
+        {
+            {
+                mockDeviceIO.sendEventAsync(mockMessage, future, null, (IotHubConnectionString) any);
+                times = 1;
+            }
+        };
+        future.execute(IotHubStatusCode.OK_EMPTY, null);
+        assertEquals(IotHubStatusCode.OK_EMPTY, future.get());
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_025: [The function shall get the twin by calling getDeviceTwin on the twin
+    // object with a new future, and return that future.]
+    @Test
+    public void getDeviceTwinAsyncCallsTwinWithFuture(@Mocked final DeviceTwin mockedDeviceTwin,
+                                                      @Mocked final IotHubEventCallback mockedStatusCB,
+                                                      @Mocked final PropertyCallBack mockedPropertyCB) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        // act
+        final IotHubStatusFuture future = client.getDeviceTwinAsync();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockedDeviceTwin.getDeviceTwin(future);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_027: [The function shall send the reported properties by calling
+    // updateReportedProperties on the twin object with a new future, and return that future.]
+    @Test
+    public void sendReportedPropertiesAsyncCallsTwinWithFuture(@Mocked final DeviceTwin mockedDeviceTwin,
+                                                               @Mocked final IotHubEventCallback mockedStatusCB,
+                                                               @Mocked final PropertyCallBack mockedPropertyCB) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final Set<Property> reportedProperties = new HashSet<>();
+        reportedProperties.add(new Property("prop", "value"));
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.AMQPS);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        // act
+        final IotHubStatusFuture future = client.sendReportedPropertiesAsync(reportedProperties);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockedDeviceTwin.updateReportedProperties(reportedProperties, null, future);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_026: [If reportedProperties is null or empty, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void sendReportedPropertiesAsyncThrowsIfEmpty(@Mocked final DeviceTwin mockedDeviceTwin,
+                                                         @Mocked final IotHubEventCallback mockedStatusCB,
+                                                         @Mocked final PropertyCallBack mockedPropertyCB) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.AMQPS);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        // act
+        client.sendReportedPropertiesAsync(new HashSet<Property>());
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_028: [The function shall upload the stream with a new future as its callback, and
+    // return that future.]
+    @Test
+    public void uploadToBlobAsyncWithoutCallbackReturnsFuture(@Mocked final FileUpload mockedFileUpload,
+                                                             @Mocked final InputStream mockInputStream) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final String destinationBlobName = "valid/blob/name.txt";
+        final long streamLength = 100;
+        deviceClientInstanceExpectation(connString, IotHubClientProtocol.AMQPS);
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.newInstance(FileUpload.class, mockConfig);
+                result = mockedFileUpload;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.AMQPS);
+
+        // act
+        final IotHubStatusFuture future = client.uploadToBlobAsync(destinationBlobName, mockInputStream, streamLength);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockedFileUpload.uploadToBlobAsync(destinationBlobName, mockInputStream, streamLength, future, null);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_029: ["SetClientRuntime" - the threads shared with other clients. Shall
+    // throw if the transportClient or deviceIO already open.]
+    // Tests_SRS_DEVICECLIENT_41_030: ["SetClientRuntime" needs to have value type ClientRuntime.]
+    @Test
+    public void setOptionClientRuntimeSetsConfig(@Mocked final ClientRuntime mockClientRuntime) throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetClientRuntime", mockClientRuntime);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setClientRuntime(mockClientRuntime);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_030: ["SetClientRuntime" needs to have value type ClientRuntime.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionClientRuntimeWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetClientRuntime", 4);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_029: ["SetClientRuntime" - the threads shared with other clients. Shall
+    // throw if the transportClient or deviceIO already open.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionClientRuntimeThrowsIfOpen(@Mocked final ClientRuntime mockClientRuntime) throws URISyntaxException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        Deencapsulation.setField(client, "deviceIO", mockDeviceIO);
+
+        // act
+        client.setOption("SetClientRuntime", mockClientRuntime);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_031: ["SetSendWindowCeiling" - maximum number of messages sent and not
+    // acknowledged yet.]
+    @Test
+    public void setOptionSetSendWindowCeilingSetsConfig() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.AMQPS);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetSendWindowCeiling", 200);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setSendWindowCeiling(200);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_032: ["SetSendWindowCeiling" needs to have value type integer.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionSetSendWindowCeilingWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.AMQPS);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetSendWindowCeiling", "200");
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_041: ["SetMqttMaxInFlight" - maximum number of MQTT publishes waiting for their
+    // acknowledgement. Shall throw if the transportClient or deviceIO already open.]
+    @Test
+    public void setOptionSetMqttMaxInFlightSetsConfig() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetMqttMaxInFlight", 100);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setMqttMaxInFlightCount(100);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_042: ["SetMqttMaxInFlight" needs to have value type integer.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionSetMqttMaxInFlightWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetMqttMaxInFlight", "100");
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_043: ["SetTelemetryDeliveryMode" - delivery mode of the telemetry messages
+    // that do not set their own. Shall throw if the transportClient or deviceIO already open.]
+    @Test
+    public void setOptionSetTelemetryDeliveryModeSetsConfig() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetTelemetryDeliveryMode", MessageDeliveryMode.AT_MOST_ONCE);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setTelemetryDeliveryMode(MessageDeliveryMode.AT_MOST_ONCE);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_044: ["SetTelemetryDeliveryMode" needs to have value type MessageDeliveryMode.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionSetTelemetryDeliveryModeWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetTelemetryDeliveryMode", "AT_MOST_ONCE");
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_045: ["SetMqttDirectDispatch" - whether MQTT arrivals are handed to their
+    // callbacks as soon as they arrive. Shall throw if the transportClient or deviceIO already open.]
+    @Test
+    public void setOptionSetMqttDirectDispatchSetsConfig() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetMqttDirectDispatch", true);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setMqttDirectDispatch(true);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_046: ["SetMqttDirectDispatch" needs to have value type boolean.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionSetMqttDirectDispatchWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetMqttDirectDispatch", "true");
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_047: ["SetMqttEventLoop" - whether the MQTT connection is served by a
+    // shared event loop. Shall throw if the transportClient or deviceIO already open.]
+    @Test
+    public void setOptionSetMqttEventLoopSetsConfig() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetMqttEventLoop", true);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setMqttEventLoop(true);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_048: ["SetMqttEventLoop" needs to have value type boolean.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionSetMqttEventLoopWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetMqttEventLoop", 1);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_033: ["SetReportedPropertiesCoalescingInterval" - minimum time between two
+    // patches of reported properties.]
+    @Test
+    public void setOptionSetReportedPropertiesCoalescingIntervalSetsConfig() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetReportedPropertiesCoalescingInterval", 500L);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setReportedPropertiesCoalescingIntervalMillis(500L);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_034: ["SetReportedPropertiesCoalescingInterval" needs to have value type long.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionSetReportedPropertiesCoalescingIntervalWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetReportedPropertiesCoalescingInterval", 500);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_039: [If a payload codec is set, the sendEventAsync shall encode the body of the message with it before sending it.]
+    @Test
+    public void sendEventAsyncEncodesBodyWithPayloadCodec(@Mocked final IotHubEventCallback mockCallback)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final PayloadCodec payloadCodec = new DeflatePayloadCodec(DeflatePayloadCodec.GZIP);
+        final byte[] body = new byte[2048];
+        final Message message = new Message(body);
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getPayloadCodec();
+                result = payloadCodec;
+                mockConfig.getPayloadCompressionThreshold();
+                result = 1024;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.HTTPS);
+        Deencapsulation.setField(client, "config", mockConfig);
+        client.open();
+
+        // act
+        client.sendEventAsync(message, mockCallback, null);
+
+        // assert
+        assertEquals("gzip", message.getProperty(PayloadCodec.CONTENT_ENCODING_PROPERTY));
+        assertArrayEquals(payloadCodec.encode(body), message.getBytes());
+        new Verifications()
+        {
+            {
+                mockDeviceIO.sendEventAsync(message, mockCallback, null, (IotHubConnectionString) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_040: [If a payload codec is set, the function shall encode the body of each
+    // message of the batch with it.]
+    @Test
+    public void sendEventBatchAsyncEncodesBodiesWithPayloadCodec() throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final Message largeMessage = new Message(new byte[2048]);
+        final Message smallMessage = new Message(new byte[16]);
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getPayloadCodec();
+                result = new DeflatePayloadCodec(DeflatePayloadCodec.DEFLATE);
+                mockConfig.getPayloadCompressionThreshold();
+                result = 1024;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.HTTPS);
+        Deencapsulation.setField(client, "config", mockConfig);
+        client.open();
+
+        // act
+        client.sendEventBatchAsync(Arrays.asList(largeMessage, smallMessage), null, null);
+
+        // assert
+        assertEquals("deflate", largeMessage.getProperty(PayloadCodec.CONTENT_ENCODING_PROPERTY));
+        assertNull(smallMessage.getProperty(PayloadCodec.CONTENT_ENCODING_PROPERTY));
+        assertEquals(16, smallMessage.getBytes().length);
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_035: ["SetPayloadCodec" - codec of the telemetry message bodies.]
+    @Test
+    public void setOptionSetPayloadCodecSetsConfig(@Mocked final PayloadCodec mockPayloadCodec) throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetPayloadCodec", mockPayloadCodec);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setPayloadCodec(mockPayloadCodec);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_036: ["SetPayloadCodec" needs to have value type PayloadCodec.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionSetPayloadCodecWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetPayloadCodec", "gzip");
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_037: ["SetPayloadCompressionThreshold" - minimum length of the encoded
+    // telemetry message bodies.]
+    @Test
+    public void setOptionSetPayloadCompressionThresholdSetsConfig() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetPayloadCompressionThreshold", 256);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setPayloadCompressionThreshold(256);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_41_038: ["SetPayloadCompressionThreshold" needs to have value type integer.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionSetPayloadCompressionThresholdWrongTypeThrows() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        // act
+        client.setOption("SetPayloadCompressionThreshold", 256L);
+    }
 }
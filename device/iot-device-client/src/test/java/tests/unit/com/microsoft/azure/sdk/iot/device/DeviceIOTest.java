@@ -6,6 +6,7 @@ package tests.unit.com.microsoft.azure.sdk.iot.device;
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.exceptions.DeviceClientException;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubEventDrivenTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
@@ -19,8 +20,11 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
@@ -41,6 +45,9 @@ public class DeviceIOTest
     @Mocked
     IotHubReceiveTask mockIotHubReceiveTask;
 
+    @Mocked
+    IotHubEventDrivenTask mockIotHubEventDrivenTask;
+
     @Mocked
     IotHubTransport mockedTransport;
 
@@ -95,6 +102,8 @@ public class DeviceIOTest
                 result = mockIotHubSendTask;
                 new IotHubReceiveTask(transport);
                 result = mockIotHubReceiveTask;
+                mockConfig.getClientRuntime();
+                result = null;
                 executors.newScheduledThreadPool(2);
                 result = scheduledExecutorService;
             }
@@ -323,6 +332,8 @@ public class DeviceIOTest
                 result = mockIotHubSendTask;
                 new IotHubReceiveTask(mockedTransport);
                 result = mockIotHubReceiveTask;
+                mockConfig.getClientRuntime();
+                result = null;
                 mockExecutors.newScheduledThreadPool(2);
                 result = mockScheduler;
             }
@@ -669,6 +680,8 @@ public class DeviceIOTest
                 result = mockIotHubSendTask;
                 new IotHubReceiveTask(mockedTransport);
                 result = mockIotHubReceiveTask;
+                mockConfig.getClientRuntime();
+                result = null;
                 mockExecutors.newScheduledThreadPool(2);
                 result = mockScheduler;
             }
@@ -786,6 +799,8 @@ public class DeviceIOTest
                 result = mockIotHubSendTask;
                 new IotHubReceiveTask(mockedTransport);
                 result = mockIotHubReceiveTask;
+                mockConfig.getClientRuntime();
+                result = null;
                 mockExecutors.newScheduledThreadPool(2);
                 result = mockScheduler;
             }
@@ -952,4 +967,323 @@ public class DeviceIOTest
             }
         };
     }
+
+    /* Tests_SRS_DEVICE_IO_41_001: [If the config uses the event driven transport, the open shall create a single
+     * event driven task that sends messages and invokes callbacks whenever the transport signals work, set it
+     * on the transport and signal it once for the messages queued before the open.] */
+    @Test
+    public void openWithEventDrivenTransportStartsEventDrivenTask() throws IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIO();
+        Deencapsulation.setField(deviceIO, "protocol", IotHubClientProtocol.AMQPS);
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isUseEventDrivenTransport();
+                result = true;
+                new IotHubEventDrivenTask(mockedTransport, true, mockScheduler, mockScheduler);
+                result = mockIotHubEventDrivenTask;
+                mockConfig.getClientRuntime();
+                result = null;
+                mockExecutors.newScheduledThreadPool(2);
+                result = mockScheduler;
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "open");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockedTransport.setEventDrivenTask(mockIotHubEventDrivenTask);
+                times = 1;
+                mockIotHubEventDrivenTask.signalWorkAvailable();
+                times = 1;
+                mockScheduler.scheduleAtFixedRate((Runnable) any, anyLong, anyLong, (TimeUnit) any);
+                times = 0;
+            }
+        };
+        assertEquals("OPEN", Deencapsulation.getField(deviceIO, "state").toString());
+    }
+
+    /* Tests_SRS_DEVICE_IO_41_002: [If the config uses the event driven transport and the protocol is HTTPS,
+     * the open shall schedule receive tasks to run every receivePeriodInMilliseconds milliseconds.] */
+    @Test
+    public void openWithEventDrivenTransportOverHttpsSchedulesReceiveTask() throws IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIO();
+        Deencapsulation.setField(deviceIO, "protocol", IotHubClientProtocol.HTTPS);
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isUseEventDrivenTransport();
+                result = true;
+                new IotHubEventDrivenTask(mockedTransport, false, mockScheduler, mockScheduler);
+                result = mockIotHubEventDrivenTask;
+                new IotHubReceiveTask(mockedTransport);
+                result = mockIotHubReceiveTask;
+                mockConfig.getClientRuntime();
+                result = null;
+                mockExecutors.newScheduledThreadPool(2);
+                result = mockScheduler;
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "open");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockedTransport.setEventDrivenTask(mockIotHubEventDrivenTask);
+                times = 1;
+                mockIotHubEventDrivenTask.signalWorkAvailable();
+                times = 1;
+                mockScheduler.scheduleAtFixedRate(mockIotHubReceiveTask,
+                        0, RECEIVE_PERIOD_MILLIS_AMQPS,
+                        TimeUnit.MILLISECONDS);
+                times = 1;
+                new IotHubSendTask((IotHubTransport) any);
+                times = 0;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_41_003: [The close shall stop the event driven task if there is one, and remove it
+     * from the transport.] */
+    @Test
+    public void closeStopsEventDrivenTask() throws IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIO();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isUseEventDrivenTransport();
+                result = true;
+                new IotHubEventDrivenTask(mockedTransport, anyBoolean, (Executor) any, (ScheduledExecutorService) any);
+                result = mockIotHubEventDrivenTask;
+                mockConfig.getClientRuntime();
+                result = null;
+                mockExecutors.newScheduledThreadPool(2);
+                result = mockScheduler;
+            }
+        };
+        Deencapsulation.invoke(deviceIO, "open");
+
+        // act
+        Deencapsulation.invoke(deviceIO, "close");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockIotHubEventDrivenTask.stop();
+                times = 1;
+                mockedTransport.setEventDrivenTask(null);
+                times = 1;
+                mockScheduler.shutdown();
+                times = 1;
+            }
+        };
+        assertNull(Deencapsulation.getField(deviceIO, "eventDrivenTask"));
+    }
+
+    /* Tests_SRS_DEVICE_IO_41_004: [If the event driven task is running, the setSendPeriodInMilliseconds shall not schedule any send task.] */
+    @Test
+    public void setSendPeriodInMillisecondsWithEventDrivenTransportDoesNotSchedule() throws IOException
+    {
+        // arrange
+        final long interval = 1234L;
+        final Object deviceIO = newDeviceIO();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isUseEventDrivenTransport();
+                result = true;
+                new IotHubEventDrivenTask(mockedTransport, anyBoolean, (Executor) any, (ScheduledExecutorService) any);
+                result = mockIotHubEventDrivenTask;
+                mockConfig.getClientRuntime();
+                result = null;
+                mockExecutors.newScheduledThreadPool(2);
+                result = mockScheduler;
+            }
+        };
+        Deencapsulation.invoke(deviceIO, "open");
+
+        // act
+        Deencapsulation.invoke(deviceIO, "setSendPeriodInMilliseconds",  interval);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockScheduler.scheduleAtFixedRate((Runnable) any, anyLong, anyLong, (TimeUnit) any);
+                times = 0;
+            }
+        };
+        assertEquals(interval, Deencapsulation.getField(deviceIO, "sendPeriodInMilliseconds"));
+    }
+
+    /* Tests_SRS_DEVICE_IO_41_005: [The getOutboundQueueSize shall return the number of messages waiting in the transport to be sent.] */
+    /* Tests_SRS_DEVICE_IO_41_006: [The getOutboundQueueSizeInBytes shall return the total size of the messages waiting in the transport to be sent.] */
+    @Test
+    public void getOutboundQueueSizeReturnsTransportOccupancy()
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIO();
+        new NonStrictExpectations()
+        {
+            {
+                mockedTransport.getOutboundQueueSize();
+                result = 3;
+                mockedTransport.getOutboundQueueSizeInBytes();
+                result = 300L;
+            }
+        };
+
+        // act
+        int size = Deencapsulation.invoke(deviceIO, "getOutboundQueueSize");
+        long sizeInBytes = Deencapsulation.invoke(deviceIO, "getOutboundQueueSizeInBytes");
+
+        // assert
+        assertEquals(3, size);
+        assertEquals(300L, sizeInBytes);
+    }
+
+    /* Tests_SRS_DEVICE_IO_41_007: [If the config has a client runtime, the open shall schedule the tasks on the
+     * scheduler of the runtime, and run the event driven task on its worker executor.] */
+    @Test
+    public void openWithClientRuntimeSchedulesTasksOnRuntimeAndCloseCancelsThem(
+            @Mocked final ClientRuntime mockClientRuntime,
+            @Mocked final ScheduledFuture<?> mockTaskFuture) throws IOException
+    {
+        // arrange
+        final DeviceIO deviceIO = newDeviceIO();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getClientRuntime();
+                result = mockClientRuntime;
+                mockClientRuntime.getScheduler();
+                result = mockScheduler;
+                mockScheduler.scheduleAtFixedRate((Runnable) any, anyLong, anyLong, TimeUnit.MILLISECONDS);
+                result = mockTaskFuture;
+            }
+        };
+        Deencapsulation.invoke(deviceIO, "open");
+
+        // act
+        Deencapsulation.invoke(deviceIO, "close");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockExecutors.newScheduledThreadPool(anyInt);
+                times = 0;
+                mockScheduler.scheduleAtFixedRate((Runnable) any, anyLong, anyLong, TimeUnit.MILLISECONDS);
+                times = 2;
+                mockTaskFuture.cancel(false);
+                times = 2;
+                mockScheduler.shutdown();
+                times = 0;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_41_007: [If the config has a client runtime, the open shall schedule the tasks on the
+     * scheduler of the runtime, and run the event driven task on its worker executor.] */
+    @Test
+    public void openWithClientRuntimeRunsEventDrivenTaskOnWorkerExecutor(
+            @Mocked final ClientRuntime mockClientRuntime,
+            @Mocked final ExecutorService mockWorkerExecutor) throws IOException
+    {
+        // arrange
+        final DeviceIO deviceIO = newDeviceIO();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isUseEventDrivenTransport();
+                result = true;
+                mockConfig.getClientRuntime();
+                result = mockClientRuntime;
+                mockClientRuntime.getScheduler();
+                result = mockScheduler;
+                mockClientRuntime.getWorkerExecutor();
+                result = mockWorkerExecutor;
+                new IotHubEventDrivenTask(mockedTransport, anyBoolean, (Executor) any, (ScheduledExecutorService) any);
+                result = mockIotHubEventDrivenTask;
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "open");
+
+        // assert
+        new Verifications()
+        {
+            {
+                new IotHubEventDrivenTask(mockedTransport, anyBoolean, mockWorkerExecutor, mockScheduler);
+                times = 1;
+                mockIotHubEventDrivenTask.signalWorkAvailable();
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_41_008: [If the task is null, the schedule shall throw IllegalArgumentException.] */
+    @Test (expected = IllegalArgumentException.class)
+    public void scheduleNullTaskThrows()
+    {
+        // arrange
+        final DeviceIO deviceIO = newDeviceIO();
+
+        // act
+        deviceIO.schedule(null, 100);
+    }
+
+    /* Tests_SRS_DEVICE_IO_41_009: [If the connection is closed, the schedule shall return null.] */
+    @Test
+    public void scheduleReturnsNullIfClosed(@Mocked final Runnable mockTask)
+    {
+        // arrange
+        final DeviceIO deviceIO = newDeviceIO();
+
+        // act
+        ScheduledFuture<?> taskFuture = deviceIO.schedule(mockTask, 100);
+
+        // assert
+        assertNull(taskFuture);
+    }
+
+    /* Tests_SRS_DEVICE_IO_41_010: [The schedule shall run the task once after the delay on the task scheduler.] */
+    @Test
+    public void scheduleRunsTaskOnTaskScheduler(
+            @Mocked final Runnable mockTask,
+            @Mocked final ScheduledFuture<?> mockTaskFuture) throws IOException
+    {
+        // arrange
+        final DeviceIO deviceIO = newDeviceIO();
+        openDeviceIO(deviceIO, mockedTransport, mockExecutors, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockScheduler.schedule(mockTask, 100, TimeUnit.MILLISECONDS);
+                result = mockTaskFuture;
+            }
+        };
+
+        // act
+        ScheduledFuture<?> taskFuture = deviceIO.schedule(mockTask, 100);
+
+        // assert
+        assertEquals(mockTaskFuture, taskFuture);
+    }
 }
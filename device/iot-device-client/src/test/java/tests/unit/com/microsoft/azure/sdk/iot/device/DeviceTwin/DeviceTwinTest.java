@@ -12,9 +12,12 @@ import mockit.*;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentSkipListMap;
 
@@ -26,6 +29,8 @@ import static org.junit.Assert.*;
  */
 public class DeviceTwinTest
 {
+    private static final long OPERATION_TIMEOUT_MILLIS = 240000L;
+
     @Mocked
     DeviceIO mockedDeviceIO;
 
@@ -1322,4 +1327,439 @@ public class DeviceTwinTest
 
         // assert
     }
+
+    /*
+     **Tests_SRS_DEVICETWIN_41_003: [**If a future is provided, this method shall save it until the response to the request, and pass it as context of the sendEventAsync call.**]**
+     */
+    @Test
+    public void getDeviceTwinWithFutureSavesFutureAndPassesItAsContext()
+    {
+        // arrange
+        final IotHubStatusFuture future = new IotHubStatusFuture();
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+
+        // act
+        testTwin.getDeviceTwin(future);
+
+        // assert
+        Map<String, IotHubStatusFuture> pendingOperations = Deencapsulation.getField(testTwin, "pendingOperations");
+        assertEquals(2, pendingOperations.size());
+        assertTrue(pendingOperations.containsValue(future));
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((IotHubTransportMessage) any, (IotHubEventCallback) any, future, (IotHubConnectionString) any);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_41_001: [**If the response answers a request sent with a future, the future shall be completed with the status instead of calling the user status callback.**]**
+     */
+    @Test
+    public void getDeviceTwinResponseByRequestIdCompletesFuture(
+            @Mocked final TwinState mockedTwinState,
+            @Mocked final TwinCollection mockedTwinCollection) throws Exception
+    {
+        // arrange
+        final byte[] body = {};
+        IotHubStatusFuture future = new IotHubStatusFuture();
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        testTwin.getDeviceTwin(future);
+
+        final IotHubTransportMessage testMessage = new IotHubTransportMessage(body, MessageType.DEVICE_TWIN);
+        testMessage.setStatus(String.valueOf(200));
+        testMessage.setRequestId("0");
+        testMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_GET_RESPONSE);
+
+        // act
+        deviceTwinResponseMessageCallback.execute(testMessage, null);
+
+        // assert
+        assertEquals(IotHubStatusCode.OK, future.get());
+        Map<String, IotHubStatusFuture> pendingOperations = Deencapsulation.getField(testTwin, "pendingOperations");
+        assertTrue(pendingOperations.isEmpty());
+        new Verifications()
+        {
+            {
+                TwinState.createFromPropertiesJson(anyString);
+                times = 1;
+                mockedStatusCB.execute((IotHubStatusCode) any, any);
+                times = 0;
+            }
+        };
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_41_001: [**If the response answers a request sent with a future, the future shall be completed with the status instead of calling the user status callback.**]**
+     */
+    @Test
+    public void updateReportedPropResponseByCorrelationIdCompletesFuture() throws Exception
+    {
+        // arrange
+        final byte[] body = {};
+        IotHubStatusFuture future = new IotHubStatusFuture();
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        HashSet<Property> reportedProperties = new HashSet<>();
+        reportedProperties.add(new Property("prop", "value"));
+        testTwin.updateReportedProperties(reportedProperties, null, future);
+        Map<String, IotHubStatusFuture> pendingOperations = Deencapsulation.getField(testTwin, "pendingOperations");
+        String correlationId = null;
+        for (String key : pendingOperations.keySet())
+        {
+            if (!key.equals("0"))
+            {
+                correlationId = key;
+            }
+        }
+
+        final IotHubTransportMessage testMessage = new IotHubTransportMessage(body, MessageType.DEVICE_TWIN);
+        testMessage.setStatus(String.valueOf(400));
+        testMessage.setCorrelationId(correlationId);
+        testMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+
+        // act
+        deviceTwinResponseMessageCallback.execute(testMessage, null);
+
+        // assert
+        assertEquals(IotHubStatusCode.BAD_FORMAT, future.get());
+        assertTrue(pendingOperations.isEmpty());
+        new Verifications()
+        {
+            {
+                mockedStatusCB.execute((IotHubStatusCode) any, any);
+                times = 0;
+            }
+        };
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_41_002: [**If a request sent with a future fails, the future shall be completed with the failure status instead of calling the user status callback.**]**
+     */
+    @Test
+    public void requestFailureCompletesFuture() throws Exception
+    {
+        // arrange
+        IotHubStatusFuture future = new IotHubStatusFuture();
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        IotHubEventCallback deviceTwinRequestMessageCallback = Deencapsulation.newInnerInstance("deviceTwinRequestMessageCallback", testTwin);
+        testTwin.getDeviceTwin(future);
+
+        // act
+        deviceTwinRequestMessageCallback.execute(IotHubStatusCode.ERROR, future);
+
+        // assert
+        assertEquals(IotHubStatusCode.ERROR, future.get());
+        Map<String, IotHubStatusFuture> pendingOperations = Deencapsulation.getField(testTwin, "pendingOperations");
+        assertTrue(pendingOperations.isEmpty());
+        new Verifications()
+        {
+            {
+                mockedStatusCB.execute((IotHubStatusCode) any, any);
+                times = 0;
+            }
+        };
+    }
+
+    private static IotHubTransportMessage reportedPropertiesResponse(IotHubTransportMessage request, int status)
+    {
+        IotHubTransportMessage response = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+        response.setStatus(String.valueOf(status));
+        response.setRequestId(request.getRequestId());
+        response.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+        return response;
+    }
+
+    private List<IotHubTransportMessage> captureSentMessages()
+    {
+        final List<IotHubTransportMessage> sentMessages = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync(withCapture(sentMessages), (IotHubEventCallback) any, any, (IotHubConnectionString) any);
+            }
+        };
+        return sentMessages;
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_41_004: [**If coalescing is configured and no version is provided, this method shall merge the properties into the pending patch, the last update of a property winning, and flush the pending patch.**]**
+     **Tests_SRS_DEVICETWIN_41_006: [**When the patch completes, the future of each merged update shall be completed, or the user status callback called for each merged update without a future, with the status of the patch, and the updates merged in the meantime shall be flushed.**]**
+     */
+    @Test
+    public void updateReportedPropCoalescesUpdatesWhilePatchInFlight() throws Exception
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getReportedPropertiesCoalescingIntervalMillis();
+                result = 1000L;
+                mockedDeviceIO.schedule((Runnable) any, anyLong);
+                result = null;
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        Map<String, Object> nestedX = new HashMap<>();
+        nestedX.put("x", 1);
+        Map<String, Object> nestedY = new HashMap<>();
+        nestedY.put("y", 2);
+        HashSet<Property> firstUpdate = new HashSet<>();
+        firstUpdate.add(new Property("a", 1));
+        HashSet<Property> secondUpdate = new HashSet<>();
+        secondUpdate.add(new Property("a", 2));
+        secondUpdate.add(new Property("b", nestedX));
+        HashSet<Property> thirdUpdate = new HashSet<>();
+        thirdUpdate.add(new Property("b", nestedY));
+        IotHubStatusFuture firstFuture = new IotHubStatusFuture();
+        IotHubStatusFuture thirdFuture = new IotHubStatusFuture();
+
+        // act
+        testTwin.updateReportedProperties(firstUpdate, null, firstFuture);
+        testTwin.updateReportedProperties(secondUpdate);
+        testTwin.updateReportedProperties(thirdUpdate, null, thirdFuture);
+
+        // assert
+        List<IotHubTransportMessage> sentMessages = captureSentMessages();
+        assertEquals(1, sentMessages.size());
+        assertFalse(thirdFuture.isDone());
+
+        // act
+        deviceTwinResponseMessageCallback.execute(reportedPropertiesResponse(sentMessages.get(0), 200), null);
+
+        // assert
+        assertEquals(IotHubStatusCode.OK, firstFuture.get());
+        sentMessages = captureSentMessages();
+        assertEquals(2, sentMessages.size());
+        TwinCollection expectedPatch = new TwinCollection();
+        Map<String, Object> expectedNested = new HashMap<>();
+        expectedNested.put("x", 1);
+        expectedNested.put("y", 2);
+        expectedPatch.put("a", 2);
+        expectedPatch.put("b", expectedNested);
+        assertEquals(expectedPatch.toJsonElement().toString(), new String(sentMessages.get(1).getBytes()));
+
+        // act
+        deviceTwinResponseMessageCallback.execute(reportedPropertiesResponse(sentMessages.get(1), 200), null);
+
+        // assert
+        assertEquals(IotHubStatusCode.OK, thirdFuture.get());
+        new Verifications()
+        {
+            {
+                mockedStatusCB.execute(IotHubStatusCode.OK, null);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_41_005: [**If the last patch was sent less than the coalescing interval ago, the pending patch shall be sent at the end of the interval.**]**
+     */
+    @Test
+    public void updateReportedPropSchedulesPatchWithinInterval() throws Exception
+    {
+        // arrange
+        final List<Runnable> scheduledFlushes = new ArrayList<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getReportedPropertiesCoalescingIntervalMillis();
+                result = 60000L;
+                mockedConfig.getOperationTimeout();
+                result = OPERATION_TIMEOUT_MILLIS;
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        HashSet<Property> reportedProperties = new HashSet<>();
+        reportedProperties.add(new Property("prop", "value"));
+        testTwin.updateReportedProperties(reportedProperties);
+        deviceTwinResponseMessageCallback.execute(reportedPropertiesResponse(captureSentMessages().get(0), 200), null);
+
+        // act
+        testTwin.updateReportedProperties(reportedProperties);
+        testTwin.updateReportedProperties(reportedProperties);
+
+        // assert
+        assertEquals(1, captureSentMessages().size());
+        final List<Runnable> scheduledTasks = new ArrayList<>();
+        final List<Long> scheduledDelays = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.schedule(withCapture(scheduledTasks), withCapture(scheduledDelays));
+            }
+        };
+        for (int i = 0; i < scheduledTasks.size(); i++)
+        {
+            // the other tasks are the timeouts of the patches
+            if (scheduledDelays.get(i) != OPERATION_TIMEOUT_MILLIS)
+            {
+                scheduledFlushes.add(scheduledTasks.get(i));
+            }
+        }
+        assertEquals(1, scheduledFlushes.size());
+
+        // act
+        long lastPatchNanos = Deencapsulation.getField(testTwin, "lastReportedPropertiesPatchNanos");
+        Deencapsulation.setField(testTwin, "lastReportedPropertiesPatchNanos", lastPatchNanos - 60000000000L);
+        scheduledFlushes.get(0).run();
+
+        // assert
+        assertEquals(2, captureSentMessages().size());
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_41_007: [**If the patch cannot be sent, the merged updates shall be completed with ERROR.**]**
+     */
+    @Test
+    public void updateReportedPropCompletesMergedUpdatesWithErrorIfPatchCannotBeSent() throws Exception
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getReportedPropertiesCoalescingIntervalMillis();
+                result = 1000L;
+                mockedDeviceIO.sendEventAsync((IotHubTransportMessage) any, (IotHubEventCallback) any, any, (IotHubConnectionString) any);
+                result = new IllegalStateException();
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        HashSet<Property> reportedProperties = new HashSet<>();
+        reportedProperties.add(new Property("prop", "value"));
+        IotHubStatusFuture future = new IotHubStatusFuture();
+
+        // act
+        testTwin.updateReportedProperties(reportedProperties, null, future);
+
+        // assert
+        assertEquals(IotHubStatusCode.ERROR, future.get());
+        assertFalse((boolean) Deencapsulation.getField(testTwin, "isReportedPropertiesPatchInFlight"));
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_41_004: [**If coalescing is configured and no version is provided, this method shall merge the properties into the pending patch, the last update of a property winning, and flush the pending patch.**]**
+     */
+    @Test
+    public void updateReportedPropDoesNotChangeNestedPropertiesOfUser() throws Exception
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getReportedPropertiesCoalescingIntervalMillis();
+                result = 1000L;
+                mockedDeviceIO.schedule((Runnable) any, anyLong);
+                result = null;
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        testTwin.updateReportedProperties(new HashSet<>(Collections.singleton(new Property("a", 1))));
+        Map<String, Object> nestedX = new HashMap<>();
+        nestedX.put("x", 1);
+        Map<String, Object> nestedY = new HashMap<>();
+        nestedY.put("y", 2);
+
+        // act
+        testTwin.updateReportedProperties(new HashSet<>(Collections.singleton(new Property("b", nestedX))));
+        testTwin.updateReportedProperties(new HashSet<>(Collections.singleton(new Property("b", nestedY))));
+
+        // assert
+        assertEquals(1, nestedX.size());
+        assertEquals(1, nestedX.get("x"));
+        assertEquals(1, nestedY.size());
+        TwinCollection pendingPatch = Deencapsulation.getField(testTwin, "pendingReportedProperties");
+        assertEquals(2, ((Map<?, ?>) pendingPatch.get("b")).size());
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_41_008: [**If the patch gets no response within the operation timeout, the merged updates shall be completed with MESSAGE_EXPIRED.**]**
+     */
+    @Test
+    public void updateReportedPropExpiresPatchWithoutResponse() throws Exception
+    {
+        // arrange
+        final List<Runnable> scheduledTimeouts = new ArrayList<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getReportedPropertiesCoalescingIntervalMillis();
+                result = 1000L;
+                mockedConfig.getOperationTimeout();
+                result = OPERATION_TIMEOUT_MILLIS;
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        IotHubStatusFuture firstFuture = new IotHubStatusFuture();
+        IotHubStatusFuture secondFuture = new IotHubStatusFuture();
+        testTwin.updateReportedProperties(new HashSet<>(Collections.singleton(new Property("a", 1))), null, firstFuture);
+        testTwin.updateReportedProperties(new HashSet<>(Collections.singleton(new Property("a", 2))), null, secondFuture);
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.schedule(withCapture(scheduledTimeouts), OPERATION_TIMEOUT_MILLIS);
+                times = 1;
+            }
+        };
+
+        // act
+        scheduledTimeouts.get(0).run();
+
+        // assert
+        assertEquals(IotHubStatusCode.MESSAGE_EXPIRED, firstFuture.get());
+        assertFalse(secondFuture.isDone());
+        Deencapsulation.setField(testTwin, "lastReportedPropertiesPatchNanos", 0L);
+        testTwin.updateReportedProperties(new HashSet<>(Collections.singleton(new Property("a", 3))));
+        assertEquals(2, captureSentMessages().size());
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_41_009: [**This method shall drop the pending patch and clear the patch in flight, so that the updates made after the client is opened again are sent.**]**
+     **Tests_SRS_DEVICETWIN_41_010: [**This method shall complete the updates merged into the dropped patch and the patch in flight with MESSAGE_CANCELLED_ONCLOSE.**]**
+     */
+    @Test
+    public void closeCancelsReportedPropertiesPatches() throws Exception
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getReportedPropertiesCoalescingIntervalMillis();
+                result = 1000L;
+                mockedDeviceIO.schedule((Runnable) any, anyLong);
+                result = null;
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        IotHubStatusFuture inFlightFuture = new IotHubStatusFuture();
+        IotHubStatusFuture pendingFuture = new IotHubStatusFuture();
+        testTwin.updateReportedProperties(new HashSet<>(Collections.singleton(new Property("a", 1))), null, inFlightFuture);
+        testTwin.updateReportedProperties(new HashSet<>(Collections.singleton(new Property("a", 2))), null, pendingFuture);
+
+        // act
+        testTwin.close();
+
+        // assert
+        assertEquals(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, inFlightFuture.get());
+        assertEquals(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, pendingFuture.get());
+        assertFalse((boolean) Deencapsulation.getField(testTwin, "isReportedPropertiesPatchInFlight"));
+        assertNull(Deencapsulation.getField(testTwin, "pendingReportedProperties"));
+        assertEquals(1, captureSentMessages().size());
+    }
 }
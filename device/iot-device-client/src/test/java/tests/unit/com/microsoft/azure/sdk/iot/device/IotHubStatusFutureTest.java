@@ -0,0 +1,192 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import com.microsoft.azure.sdk.iot.device.IotHubStatusFuture;
+import mockit.Mocked;
+import mockit.Verifications;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for IotHubStatusFuture.
+ */
+public class IotHubStatusFutureTest
+{
+    @Mocked
+    IotHubEventCallback mockCallback;
+
+    // Tests_SRS_IOTHUBSTATUSFUTURE_41_001: [If the future is not done, this function shall complete it with the
+    // provided status, wake the waiting threads and run the completion callbacks. Otherwise it shall do nothing.]
+    @Test
+    public void executeCompletesWithFirstStatusOnly() throws InterruptedException
+    {
+        //arrange
+        IotHubStatusFuture future = new IotHubStatusFuture();
+
+        //act
+        future.execute(IotHubStatusCode.OK_EMPTY, null);
+        future.execute(IotHubStatusCode.ERROR, null);
+
+        //assert
+        assertTrue(future.isDone());
+        assertFalse(future.isCancelled());
+        assertEquals(IotHubStatusCode.OK_EMPTY, future.get());
+    }
+
+    // Tests_SRS_IOTHUBSTATUSFUTURE_41_001: [If the future is not done, this function shall complete it with the
+    // provided status, wake the waiting threads and run the completion callbacks. Otherwise it shall do nothing.]
+    @Test
+    public void executeWakesWaitingThread() throws InterruptedException
+    {
+        //arrange
+        final IotHubStatusFuture future = new IotHubStatusFuture();
+        final IotHubStatusCode[] actualStatus = new IotHubStatusCode[1];
+        Thread waiter = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    actualStatus[0] = future.get();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiter.start();
+
+        //act
+        future.execute(IotHubStatusCode.OK, null);
+        waiter.join(5000);
+
+        //assert
+        assertFalse(waiter.isAlive());
+        assertEquals(IotHubStatusCode.OK, actualStatus[0]);
+    }
+
+    // Tests_SRS_IOTHUBSTATUSFUTURE_41_002: [If the callback is null, this function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void whenCompleteThrowsForNullCallback()
+    {
+        //act
+        new IotHubStatusFuture().whenComplete(null, null);
+    }
+
+    // Tests_SRS_IOTHUBSTATUSFUTURE_41_003: [If the future is not done, this function shall save the
+    // callback to run it on completion.]
+    @Test
+    public void whenCompleteRunsCallbackOnCompletion()
+    {
+        //arrange
+        final Object context = new Object();
+        IotHubStatusFuture future = new IotHubStatusFuture();
+
+        //act
+        future.whenComplete(mockCallback, context);
+        future.execute(IotHubStatusCode.MESSAGE_EXPIRED, null);
+        future.execute(IotHubStatusCode.OK, null);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockCallback.execute(IotHubStatusCode.MESSAGE_EXPIRED, context);
+                times = 1;
+                mockCallback.execute(IotHubStatusCode.OK, any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSTATUSFUTURE_41_004: [If the future is done, this function shall run the callback with the
+    // status and context.]
+    @Test
+    public void whenCompleteRunsCallbackImmediatelyIfDone()
+    {
+        //arrange
+        final Object context = new Object();
+        IotHubStatusFuture future = new IotHubStatusFuture();
+        future.execute(IotHubStatusCode.OK, null);
+
+        //act
+        future.whenComplete(mockCallback, context);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockCallback.execute(IotHubStatusCode.OK, context);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSTATUSFUTURE_41_005: [If the future is not done, this function shall complete it as
+    // cancelled and return true. Otherwise it shall return false.]
+    // Tests_SRS_IOTHUBSTATUSFUTURE_41_006: [This function shall wait until the future is done and return the
+    // status, or throw a CancellationException if it was cancelled.]
+    @Test (expected = CancellationException.class)
+    public void cancelCompletesAsCancelled() throws InterruptedException
+    {
+        //arrange
+        IotHubStatusFuture future = new IotHubStatusFuture();
+
+        //act
+        assertTrue(future.cancel(false));
+
+        //assert
+        assertTrue(future.isDone());
+        assertTrue(future.isCancelled());
+        assertFalse(future.cancel(false));
+        future.execute(IotHubStatusCode.OK, null);
+        future.get();
+    }
+
+    // Tests_SRS_IOTHUBSTATUSFUTURE_41_005: [If the future is not done, this function shall complete it as
+    // cancelled and return true. Otherwise it shall return false.]
+    @Test
+    public void cancelReturnsFalseIfDone()
+    {
+        //arrange
+        IotHubStatusFuture future = new IotHubStatusFuture();
+        future.execute(IotHubStatusCode.OK, null);
+
+        //act - assert
+        assertFalse(future.cancel(true));
+        assertFalse(future.isCancelled());
+    }
+
+    // Tests_SRS_IOTHUBSTATUSFUTURE_41_007: [If the future is not done within the timeout, this function
+    // shall throw a TimeoutException.]
+    @Test (expected = TimeoutException.class)
+    public void getWithTimeoutThrowsIfNotDone() throws InterruptedException, TimeoutException
+    {
+        //act
+        new IotHubStatusFuture().get(10, TimeUnit.MILLISECONDS);
+    }
+
+    // Tests_SRS_IOTHUBSTATUSFUTURE_41_006: [This function shall wait until the future is done and return the
+    // status, or throw a CancellationException if it was cancelled.]
+    @Test
+    public void getWithTimeoutReturnsStatusIfDone() throws InterruptedException, TimeoutException
+    {
+        //arrange
+        IotHubStatusFuture future = new IotHubStatusFuture();
+        future.execute(IotHubStatusCode.THROTTLED, null);
+
+        //act - assert
+        assertEquals(IotHubStatusCode.THROTTLED, future.get(0, TimeUnit.MILLISECONDS));
+    }
+}
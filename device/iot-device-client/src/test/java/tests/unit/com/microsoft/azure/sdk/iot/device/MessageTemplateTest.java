@@ -0,0 +1,129 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageDeliveryMode;
+import com.microsoft.azure.sdk.iot.device.MessagePriority;
+import com.microsoft.azure.sdk.iot.device.MessageProperty;
+import com.microsoft.azure.sdk.iot.device.MessageTemplate;
+import com.microsoft.azure.sdk.iot.device.MessageType;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MessageTemplate.
+ * 100% methods, 100% lines covered
+ */
+public class MessageTemplateTest
+{
+    // Tests_SRS_MESSAGETEMPLATE_41_001: [If the prototype is null, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullPrototype()
+    {
+        //act
+        new MessageTemplate(null);
+    }
+
+    // Tests_SRS_MESSAGETEMPLATE_41_002: [The constructor shall save a copy of the properties of the prototype, its priority, its delivery mode and its message type.]
+    // Tests_SRS_MESSAGETEMPLATE_41_007: [The function shall return a copy of the properties of the template.]
+    @Test
+    public void constructorCopiesPrototypeProperties()
+    {
+        //arrange
+        Message prototype = new Message();
+        prototype.setProperty("schema", "v1");
+
+        //act
+        MessageTemplate template = new MessageTemplate(prototype);
+        prototype.setProperty("schema", "v2");
+        template.getProperties()[0] = new MessageProperty("region", "west");
+
+        //assert
+        MessageProperty[] properties = template.getProperties();
+        assertEquals(1, properties.length);
+        assertEquals("schema", properties[0].getName());
+        assertEquals("v1", properties[0].getValue());
+    }
+
+    // Tests_SRS_MESSAGETEMPLATE_41_003: [The constructor shall encode the properties as a query string of name=value pairs separated by '&'.]
+    // Tests_SRS_MESSAGETEMPLATE_41_008: [The function shall return the encoded properties.]
+    @Test
+    public void constructorEncodesPropertiesAsQueryString()
+    {
+        //arrange
+        Message prototype = new Message();
+        prototype.setProperty("schema", "v1");
+        prototype.setProperty("region", "west");
+
+        //act
+        MessageTemplate template = new MessageTemplate(prototype);
+
+        //assert
+        assertEquals("schema=v1&region=west", template.getPropertiesQueryString());
+        assertEquals("", new MessageTemplate(new Message()).getPropertiesQueryString());
+    }
+
+    // Tests_SRS_MESSAGETEMPLATE_41_004: [The constructor shall save the properties that are not reserved property names in an unmodifiable map.]
+    // Tests_SRS_MESSAGETEMPLATE_41_009: [The function shall return the unmodifiable map of the properties that are not reserved.]
+    @Test (expected = UnsupportedOperationException.class)
+    public void getApplicationPropertiesReturnsUnmodifiableMap()
+    {
+        //arrange
+        Message prototype = new Message();
+        prototype.setProperty("schema", "v1");
+        MessageTemplate template = new MessageTemplate(prototype);
+
+        //act
+        Map<String, Object> applicationProperties = template.getApplicationProperties();
+
+        //assert
+        assertEquals(1, applicationProperties.size());
+        assertEquals("v1", applicationProperties.get("schema"));
+        applicationProperties.put("region", "west");
+    }
+
+    // Tests_SRS_MESSAGETEMPLATE_41_005: [If the body is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void newMessageThrowsOnNullBody()
+    {
+        //arrange
+        MessageTemplate template = new MessageTemplate(new Message());
+
+        //act
+        template.newMessage((byte[]) null);
+    }
+
+    // Tests_SRS_MESSAGETEMPLATE_41_006: [The function shall return a new message with the given body, attached to this template.]
+    @Test
+    public void newMessageCreatesMessagesAttachedToTemplate()
+    {
+        //arrange
+        Message prototype = new Message();
+        prototype.setProperty("schema", "v1");
+        prototype.setPriority(MessagePriority.HIGH);
+        prototype.setDeliveryMode(MessageDeliveryMode.AT_MOST_ONCE);
+        prototype.setMessageType(MessageType.DEVICE_TELEMETRY);
+        MessageTemplate template = new MessageTemplate(prototype);
+
+        //act
+        Message message1 = template.newMessage("body1".getBytes());
+        Message message2 = template.newMessage(ByteBuffer.wrap("body2".getBytes()));
+
+        //assert
+        assertSame(template, message1.getTemplate());
+        assertSame(template, message2.getTemplate());
+        assertArrayEquals("body1".getBytes(), message1.getBytes());
+        assertArrayEquals("body2".getBytes(), message2.getBytes());
+        assertEquals("v1", message1.getProperty("schema"));
+        assertEquals(MessagePriority.HIGH, message1.getPriority());
+        assertEquals(MessageDeliveryMode.AT_MOST_ONCE, message2.getDeliveryMode());
+        assertEquals(MessageType.DEVICE_TELEMETRY, message2.getMessageType());
+        assertNotEquals(message1.getMessageId(), message2.getMessageId());
+    }
+}
@@ -3,17 +3,25 @@
 
 package tests.unit.com.microsoft.azure.sdk.iot.device;
 
+import com.microsoft.azure.sdk.iot.device.DeflatePayloadCodec;
 import com.microsoft.azure.sdk.iot.device.IotHubConnectionString;
 import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageDeliveryMode;
+import com.microsoft.azure.sdk.iot.device.MessagePriority;
 import com.microsoft.azure.sdk.iot.device.MessageProperty;
+import com.microsoft.azure.sdk.iot.device.MessageTemplate;
 import com.microsoft.azure.sdk.iot.device.MessageType;
+import com.microsoft.azure.sdk.iot.device.PayloadCodec;
 import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
@@ -282,6 +290,58 @@ public class MessageTest
         assertFalse(msg.isExpired());
     }
 
+    // Tests_SRS_MESSAGE_41_002: [The function shall return the message's priority.]
+    // Tests_SRS_MESSAGE_41_003: [The function shall set the message's priority.]
+    @Test
+    public void setPrioritySetsPriority()
+    {
+        Message msg = new Message("body");
+        assertNull(msg.getPriority());
+
+        msg.setPriority(MessagePriority.LOW);
+        assertEquals(MessagePriority.LOW, msg.getPriority());
+    }
+
+    // Tests_SRS_MESSAGE_41_011: [The function shall return the message's delivery mode.]
+    // Tests_SRS_MESSAGE_41_012: [The function shall set the message's delivery mode.]
+    @Test
+    public void setDeliveryModeSetsDeliveryMode()
+    {
+        Message msg = new Message("body");
+        assertNull(msg.getDeliveryMode());
+
+        msg.setDeliveryMode(MessageDeliveryMode.AT_MOST_ONCE);
+        assertEquals(MessageDeliveryMode.AT_MOST_ONCE, msg.getDeliveryMode());
+    }
+
+    // Tests_SRS_MESSAGE_41_013: [The function shall set the message's To value.]
+    // Tests_SRS_MESSAGE_41_014: [The function shall set the message's DeliveryAcknowledgement.]
+    // Tests_SRS_MESSAGE_41_015: [The function shall set the message's user ID.]
+    @Test
+    public void setSystemPropertiesSetsSystemProperties()
+    {
+        Message msg = new Message("body");
+
+        msg.setTo("to");
+        msg.setDeliveryAcknowledgement("full");
+        msg.setUserId("user");
+
+        assertEquals("to", msg.getTo());
+        assertEquals("full", msg.getDeliveryAcknowledgement());
+        assertEquals("user", msg.getUserId());
+    }
+
+    // Tests_SRS_MESSAGE_41_001: [The function shall return the message's expiry time.]
+    @Test
+    public void getExpiryTimeReturnsExpiryTime()
+    {
+        Message msg = new Message("body");
+        assertEquals(0L, msg.getExpiryTime());
+
+        msg.setAbsoluteExpiryTime(1234L);
+        assertEquals(1234L, msg.getExpiryTime());
+    }
+
     // Tests_SRS_MESSAGE_34_038: [If the provided absolute expiry time is negative, an IllegalArgumentException shall be thrown.]
     @Test (expected = IllegalArgumentException.class)
     public void setAbsoluteTimeWithNegativeTimeThrowsIllegalArgumentException()
@@ -338,4 +398,183 @@ public class MessageTest
         assertNull(msg.getUserId());
         assertNull(msg.getDeliveryAcknowledgement());
     }
-}
\ No newline at end of file
+
+    // Tests_SRS_MESSAGE_41_018: [The function shall replace the body by the encoded body, set the content
+    // encoding property to the encoding of the codec, and return true.]
+    @Test
+    public void encodeBodyReplacesBodyAndSetsContentEncoding()
+    {
+        final byte[] body = new byte[2048];
+        Message msg = new Message(body);
+        PayloadCodec codec = new DeflatePayloadCodec(DeflatePayloadCodec.GZIP);
+
+        boolean isEncoded = Deencapsulation.invoke(msg, "encodeBody", codec, 1024);
+
+        assertTrue(isEncoded);
+        assertArrayEquals(codec.encode(body), msg.getBytes());
+        assertEquals("gzip", msg.getProperty(PayloadCodec.CONTENT_ENCODING_PROPERTY));
+    }
+
+    // Tests_SRS_MESSAGE_41_016: [If the body is shorter than minimumLength, or the message already has a content
+    // encoding, the function shall leave the message unchanged and return false.]
+    @Test
+    public void encodeBodyLeavesShortOrEncodedBodies()
+    {
+        final byte[] body = new byte[2048];
+        Message shortMsg = new Message(new byte[100]);
+        Message encodedMsg = new Message(body);
+        encodedMsg.setProperty(PayloadCodec.CONTENT_ENCODING_PROPERTY, "br");
+        PayloadCodec codec = new DeflatePayloadCodec(DeflatePayloadCodec.GZIP);
+
+        boolean isShortEncoded = Deencapsulation.invoke(shortMsg, "encodeBody", codec, 1024);
+        boolean isEncodedEncoded = Deencapsulation.invoke(encodedMsg, "encodeBody", codec, 1024);
+
+        assertFalse(isShortEncoded);
+        assertFalse(isEncodedEncoded);
+        assertNull(shortMsg.getProperty(PayloadCodec.CONTENT_ENCODING_PROPERTY));
+        assertArrayEquals(body, encodedMsg.getBytes());
+    }
+
+    // Tests_SRS_MESSAGE_41_017: [If the encoded body is not shorter than the body, the function shall leave
+    // the message unchanged and return false.]
+    @Test
+    public void encodeBodyLeavesIncompressibleBodies()
+    {
+        final byte[] body = new byte[2048];
+        new Random(1).nextBytes(body);
+        Message msg = new Message(body);
+
+        boolean isEncoded = Deencapsulation.invoke(msg, "encodeBody", new DeflatePayloadCodec(DeflatePayloadCodec.GZIP), 0);
+
+        assertFalse(isEncoded);
+        assertArrayEquals(body, msg.getBytes());
+        assertNull(msg.getProperty(PayloadCodec.CONTENT_ENCODING_PROPERTY));
+    }
+
+    // Tests_SRS_MESSAGE_41_004: [If the message body is null, the constructor shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsNullBodyBuffer()
+    {
+        new Message((ByteBuffer) null);
+    }
+
+    // Tests_SRS_MESSAGE_41_005: [The constructor shall save the content of the buffer between its position and its limit, without copying it.]
+    // Tests_SRS_MESSAGE_41_007: [The function shall return a new buffer sharing the content of the body, or null if the message has no body.]
+    @Test
+    public void constructorSharesBufferRegion()
+    {
+        final byte[] payload = { 1, 2, 3, 4, 5 };
+        ByteBuffer buffer = ByteBuffer.wrap(payload, 1, 3);
+
+        Message msg = new Message(buffer);
+        ByteBuffer body = msg.getBodyBuffer();
+
+        assertEquals(1, buffer.position());
+        assertEquals(4, buffer.limit());
+        assertSame(payload, body.array());
+        assertEquals(3, body.remaining());
+        assertEquals(2, body.get(0));
+        assertNull(new Message().getBodyBuffer());
+    }
+
+    // Tests_SRS_MESSAGE_11_002: [The function shall return the message body.]
+    @Test
+    public void getBytesReturnsCopyOfBody()
+    {
+        final byte[] body = { 1, 2, 3 };
+        Message msg = new Message(body);
+
+        byte[] testBody = msg.getBytes();
+        testBody[0] = 5;
+
+        assertNotSame(body, testBody);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, msg.getBytes());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, body);
+    }
+
+    // Tests_SRS_MESSAGE_11_002: [The function shall return the message body.]
+    @Test
+    public void getBytesCopiesPartialAndDirectBodies()
+    {
+        final byte[] payload = { 1, 2, 3, 4, 5 };
+        ByteBuffer direct = ByteBuffer.allocateDirect(3);
+        direct.put(payload, 2, 3);
+        direct.flip();
+        Message partialMsg = new Message(ByteBuffer.wrap(payload, 1, 3));
+        Message directMsg = new Message(direct);
+
+        byte[] partialBody = partialMsg.getBytes();
+        byte[] directBody = directMsg.getBytes();
+
+        assertArrayEquals(new byte[] { 2, 3, 4 }, partialBody);
+        assertArrayEquals(new byte[] { 3, 4, 5 }, directBody);
+        assertEquals(0, direct.position());
+        assertSame(payload, partialMsg.getBodyBuffer().array());
+    }
+
+    // Tests_SRS_MESSAGE_11_026: [The function shall set the message property to the given value.]
+    // Tests_SRS_MESSAGE_11_033: [The function shall return a copy of the message properties.]
+    @Test
+    public void setPropertyReplacesExistingPropertyInPlace()
+    {
+        //arrange
+        Message msg = new Message(new byte[0]);
+        for (int i = 0; i < 6; i++)
+        {
+            msg.setProperty("name" + i, "value" + i);
+        }
+
+        //act
+        msg.setProperty("NAME2", "replaced");
+
+        //assert
+        MessageProperty[] properties = msg.getProperties();
+        assertEquals(6, properties.length);
+        assertEquals("NAME2", properties[2].getName());
+        assertEquals("replaced", properties[2].getValue());
+        assertEquals("replaced", msg.getProperty("name2"));
+        assertEquals("value5", properties[5].getValue());
+    }
+
+    // Tests_SRS_MESSAGE_41_008: [The message id and correlation id shall be initialized to distinct random version 4 UUIDs.]
+    @Test
+    public void constructorInitializesRandomVersion4Ids()
+    {
+        //act
+        Message msg1 = new Message(new byte[0]);
+        Message msg2 = new Message(new byte[0]);
+
+        //assert
+        UUID messageId = UUID.fromString(msg1.getMessageId());
+        UUID correlationId = UUID.fromString(msg1.getCorrelationId());
+        assertEquals(4, messageId.version());
+        assertEquals(2, messageId.variant());
+        assertEquals(4, correlationId.version());
+        assertEquals(2, correlationId.variant());
+        assertNotEquals(msg1.getMessageId(), msg1.getCorrelationId());
+        assertNotEquals(msg1.getMessageId(), msg2.getMessageId());
+    }
+
+    // Tests_SRS_MESSAGE_41_009: [If the message was created from a template, the function shall detach the message from the template without changing the template.]
+    // Tests_SRS_MESSAGE_41_010: [The function shall return the template the message was created from, or null if the message was not created from a template or was detached from it.]
+    @Test
+    public void setPropertyDetachesMessageFromTemplate()
+    {
+        //arrange
+        Message prototype = new Message();
+        prototype.setProperty("schema", "v1");
+        MessageTemplate template = new MessageTemplate(prototype);
+        Message msg = template.newMessage(new byte[0]);
+        assertSame(template, msg.getTemplate());
+
+        //act
+        msg.setProperty("schema", "v2");
+
+        //assert
+        assertNull(msg.getTemplate());
+        assertEquals("v2", msg.getProperty("schema"));
+        assertEquals("v1", template.getProperties()[0].getValue());
+        assertEquals("schema=v1", template.getPropertiesQueryString());
+        assertNull(new Message(new byte[0]).getTemplate());
+    }
+}
@@ -8,6 +8,7 @@ import com.microsoft.azure.sdk.iot.device.ResponseMessage;
 import mockit.Deencapsulation;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -29,7 +30,7 @@ public class ResponseMessageTest
 
         // assert
         assertEquals(status, Deencapsulation.getField(msg, "status"));
-        assertEquals(body, Deencapsulation.getField(msg, "body"));
+        assertArrayEquals(body, msg.getBytes());
     }
 
     /* Tests_SRS_RESPONSEMESSAGE_21_002: [If the message body is null, the constructor shall throw an IllegalArgumentException thrown by base constructor.] */
@@ -424,4 +424,45 @@ public class TransportClientTest
             }
         };
     }
+
+    // Tests_SRS_TRANSPORTCLIENT_41_001: [If the `clientRuntime` is null, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsIfClientRuntimeNull()
+    {
+        // act
+        new TransportClient(IotHubClientProtocol.AMQPS, null);
+    }
+
+    // Tests_SRS_TRANSPORTCLIENT_41_002: [The constructor shall store the provided client runtime.]
+    // Tests_SRS_TRANSPORTCLIENT_41_003: [If the transport client has a client runtime, the function shall set
+    // it on each device client configuration.]
+    @Test
+    public void openSetsClientRuntimeOnDeviceClients(@Mocked final ClientRuntime mockClientRuntime) throws IOException
+    {
+        // arrange
+        final TransportClient transportClient = new TransportClient(IotHubClientProtocol.AMQPS, mockClientRuntime);
+        Deencapsulation.invoke(transportClient, "registerDeviceClient", mockDeviceClient);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceClient.getConfig();
+                result = mockDeviceClientConfig;
+            }
+        };
+
+        // act
+        transportClient.open();
+
+        // assert
+        assertEquals(mockClientRuntime, Deencapsulation.getField(transportClient, "clientRuntime"));
+        new Verifications()
+        {
+            {
+                mockDeviceClientConfig.setClientRuntime(mockClientRuntime);
+                times = 1;
+            }
+        };
+    }
 }
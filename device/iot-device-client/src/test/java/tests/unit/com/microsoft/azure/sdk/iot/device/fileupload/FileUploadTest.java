@@ -3,6 +3,7 @@
 
 package tests.unit.com.microsoft.azure.sdk.iot.device.fileupload;
 
+import com.microsoft.azure.sdk.iot.device.ClientRuntime;
 import com.microsoft.azure.sdk.iot.device.CustomLogger;
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
@@ -22,11 +23,13 @@ import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ScheduledExecutorService;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 /**
@@ -66,6 +69,8 @@ public class FileUploadTest
             {
                 new HttpsTransportManager(mockConfig);
                 result = mockHttpsTransportManager;
+                mockConfig.getClientRuntime();
+                result = null;
                 Executors.newScheduledThreadPool(10);
                 result = mockScheduler;
             }
@@ -92,6 +97,8 @@ public class FileUploadTest
             {
                 new HttpsTransportManager(mockConfig);
                 result = mockHttpsTransportManager;
+                mockConfig.getClientRuntime();
+                result = null;
                 Executors.newScheduledThreadPool(10);
                 result = mockScheduler;
             }
@@ -143,6 +150,8 @@ public class FileUploadTest
             {
                 new HttpsTransportManager(mockConfig);
                 result = mockHttpsTransportManager;
+                mockConfig.getClientRuntime();
+                result = null;
                 Executors.newScheduledThreadPool(10);
                 result = new IllegalArgumentException();
                 times = 1;
@@ -334,6 +343,8 @@ public class FileUploadTest
             {
                 new HttpsTransportManager(mockConfig);
                 result = mockHttpsTransportManager;
+                mockConfig.getClientRuntime();
+                result = null;
                 Executors.newScheduledThreadPool(10);
                 result = mockScheduler;
                 Deencapsulation.invoke(mockFileUploadInProgress, "isCancelled");
@@ -356,6 +367,52 @@ public class FileUploadTest
         };
     }
 
+    /* Tests_SRS_FILEUPLOAD_41_001: [If the config has a client runtime, the constructor shall execute the uploads on the file upload executor of the runtime.] */
+    /* Tests_SRS_FILEUPLOAD_41_002: [If the uploads run on the file upload executor of a client runtime, the closeNow shall cancel the pending uploads of this client instead of shutting it down.] */
+    @Test
+    public void closeNowWithClientRuntimeCancelsOnlyItsOwnUploads(
+            @Mocked final ClientRuntime mockClientRuntime,
+            @Mocked final ExecutorService mockFileUploadExecutor) throws IOException
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                new HttpsTransportManager(mockConfig);
+                result = mockHttpsTransportManager;
+                mockConfig.getClientRuntime();
+                result = mockClientRuntime;
+                mockClientRuntime.getFileUploadExecutor();
+                result = mockFileUploadExecutor;
+            }
+        };
+        FileUpload fileUpload = new FileUpload(mockConfig);
+        FileUpload otherFileUpload = new FileUpload(mockConfig);
+        fileUpload.uploadToBlobAsync("blob", mockInputStream, 100, mockIotHubEventCallback, context);
+        otherFileUpload.uploadToBlobAsync("otherBlob", mockInputStream, 100, mockIotHubEventCallback, context);
+
+        // act
+        fileUpload.closeNow();
+
+        // assert
+        assertEquals(1, ((Queue<?>) Deencapsulation.getField(fileUpload, "fileUploadInProgressesSet")).size());
+        assertEquals(1, ((Queue<?>) Deencapsulation.getField(otherFileUpload, "fileUploadInProgressesSet")).size());
+        new Verifications()
+        {
+            {
+                mockClientRuntime.getWorkerExecutor();
+                times = 0;
+                mockFileUploadExecutor.submit((Runnable) any);
+                times = 2;
+                Deencapsulation.invoke(mockFileUploadInProgress, "cancel");
+                times = 1;
+                mockFileUploadExecutor.shutdownNow();
+                times = 0;
+            }
+        };
+    }
+
     /* Tests_SRS_FILEUPLOAD_21_014: [The constructor shall create an Event callback `fileUploadStatusCallBack` to receive the upload status.] */
     /* Tests_SRS_FILEUPLOAD_21_019: [The FileUploadStatusCallBack shall implements the `IotHubEventCallback` as result of the FileUploadTask.] */
     /* Tests_SRS_FILEUPLOAD_21_020: [The FileUploadStatusCallBack shall call the `statusCallback` reporting the received status.] */
@@ -0,0 +1,179 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.HashedWheelTimer;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for HashedWheelTimer. */
+public class HashedWheelTimerTest
+{
+    private static final Runnable NO_OP = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+        }
+    };
+
+    // Tests_SRS_HASHEDWHEELTIMER_41_001: [If tickMillis or ticksPerWheel is not positive, or ticksPerWheel is
+    // above 2^30, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForNonPositiveTick()
+    {
+        //act
+        new HashedWheelTimer(0, 8);
+    }
+
+    // Tests_SRS_HASHEDWHEELTIMER_41_001: [If tickMillis or ticksPerWheel is not positive, or ticksPerWheel is
+    // above 2^30, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForNonPositiveTicksPerWheel()
+    {
+        //act
+        new HashedWheelTimer(10, 0);
+    }
+
+    // Tests_SRS_HASHEDWHEELTIMER_41_002: [The constructor shall create a wheel of ticksPerWheel buckets rounded up to a power of 2.]
+    @Test
+    public void constructorRoundsWheelSizeToPowerOfTwo()
+    {
+        //act
+        HashedWheelTimer timer = new HashedWheelTimer(10, 100);
+
+        //assert
+        Object[] wheel = Deencapsulation.getField(timer, "wheel");
+        assertEquals(128, wheel.length);
+    }
+
+    // Tests_SRS_HASHEDWHEELTIMER_41_003: [If the task is null, this function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void scheduleThrowsForNullTask()
+    {
+        //act
+        new HashedWheelTimer(10, 8).schedule(null, 10);
+    }
+
+    // Tests_SRS_HASHEDWHEELTIMER_41_004: [This function shall add a timeout for the task to the bucket of its
+    // deadline tick, and start the worker thread if it is not running.]
+    // Tests_SRS_HASHEDWHEELTIMER_41_008: [On each tick, the worker shall remove the timeouts of the current
+    // bucket whose deadline has been reached, and run their tasks.]
+    @Test
+    public void scheduleRunsTaskAfterDelay() throws InterruptedException
+    {
+        //arrange
+        HashedWheelTimer timer = new HashedWheelTimer(5, 4);
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        //act
+        timer.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        }, 50);
+
+        //assert
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+        assertEquals(0, timer.getPendingTimeouts());
+        timer.stop();
+    }
+
+    // Tests_SRS_HASHEDWHEELTIMER_41_005: [If the timeout is pending, this function shall remove it from
+    // the wheel and return true. Otherwise it shall return false.]
+    // Tests_SRS_HASHEDWHEELTIMER_41_006: [This function shall return the number of pending timeouts.]
+    @Test
+    public void cancelRemovesPendingTimeout()
+    {
+        //arrange
+        HashedWheelTimer timer = new HashedWheelTimer(10, 8);
+        HashedWheelTimer.Timeout first = timer.schedule(NO_OP, 60000);
+        HashedWheelTimer.Timeout second = timer.schedule(NO_OP, 60000);
+
+        //act
+        boolean isCancelled = first.cancel();
+        boolean isCancelledAgain = first.cancel();
+
+        //assert
+        assertTrue(isCancelled);
+        assertFalse(isCancelledAgain);
+        assertEquals(1, timer.getPendingTimeouts());
+        assertTrue(second.cancel());
+        assertEquals(0, timer.getPendingTimeouts());
+        timer.stop();
+    }
+
+    // Tests_SRS_HASHEDWHEELTIMER_41_007: [This function shall remove all the pending timeouts, stop the worker
+    // thread and return the removed timeouts.]
+    @Test
+    public void stopReturnsPendingTimeoutsAndTimerCanBeReused() throws InterruptedException
+    {
+        //arrange
+        HashedWheelTimer timer = new HashedWheelTimer(10, 8);
+        HashedWheelTimer.Timeout timeout = timer.schedule(NO_OP, 60000);
+
+        //act
+        List<HashedWheelTimer.Timeout> unprocessed = timer.stop();
+
+        //assert
+        assertEquals(1, unprocessed.size());
+        assertSame(NO_OP, unprocessed.get(0).getTask());
+        assertFalse(timeout.cancel());
+        assertEquals(0, timer.getPendingTimeouts());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        timer.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        }, 0);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        timer.stop();
+    }
+
+    // Tests_SRS_HASHEDWHEELTIMER_41_009: [An exception thrown by a task shall not stop the worker.]
+    @Test
+    public void taskExceptionDoesNotStopWorker() throws InterruptedException
+    {
+        //arrange
+        HashedWheelTimer timer = new HashedWheelTimer(5, 8);
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        //act
+        timer.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                throw new IllegalStateException("test");
+            }
+        }, 0);
+        timer.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        }, 40);
+
+        //assert
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        timer.stop();
+    }
+}
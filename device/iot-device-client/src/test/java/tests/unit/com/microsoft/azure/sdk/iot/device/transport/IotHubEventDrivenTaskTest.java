@@ -0,0 +1,282 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.exceptions.DeviceClientException;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubEventDrivenTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
+import mockit.Deencapsulation;
+import mockit.Delegate;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for IotHubEventDrivenTask. */
+public class IotHubEventDrivenTaskTest
+{
+    @Mocked
+    IotHubTransport mockTransport;
+
+    @Mocked
+    Executor mockExecutor;
+
+    @Mocked
+    ScheduledExecutorService mockScheduler;
+
+    // Tests_SRS_IOTHUBEVENTDRIVENTASK_41_001: [If the provided transport, executor or scheduler is null, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForNullTransport()
+    {
+        new IotHubEventDrivenTask(null, true, mockExecutor, mockScheduler);
+    }
+
+    // Tests_SRS_IOTHUBEVENTDRIVENTASK_41_001: [If the provided transport, executor or scheduler is null, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForNullExecutor()
+    {
+        new IotHubEventDrivenTask(mockTransport, true, null, mockScheduler);
+    }
+
+    // Tests_SRS_IOTHUBEVENTDRIVENTASK_41_001: [If the provided transport, executor or scheduler is null, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForNullScheduler()
+    {
+        new IotHubEventDrivenTask(mockTransport, true, mockExecutor, null);
+    }
+
+    // Tests_SRS_IOTHUBEVENTDRIVENTASK_41_002: [The constructor shall save the transport, the handleReceivedMessages flag, the executor and the scheduler.]
+    @Test
+    public void constructorSavesTransportAndFlag()
+    {
+        IotHubEventDrivenTask task = new IotHubEventDrivenTask(mockTransport, true, mockExecutor, mockScheduler);
+
+        assertEquals(mockTransport, Deencapsulation.getField(task, "transport"));
+        assertTrue((boolean) Deencapsulation.getField(task, "handleReceivedMessages"));
+        assertEquals(mockExecutor, Deencapsulation.getField(task, "executor"));
+        assertEquals(mockScheduler, Deencapsulation.getField(task, "scheduler"));
+    }
+
+    // Tests_SRS_IOTHUBEVENTDRIVENTASK_41_004: [The function shall send queued messages, invoke queued
+    // callbacks and, if configured to, handle received messages until the transport has no more pending work.]
+    @Test
+    public void runDrainsTransportUntilNoPendingWork() throws DeviceClientException
+    {
+        final IotHubEventDrivenTask task = new IotHubEventDrivenTask(mockTransport, true, mockExecutor, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.hasPendingWork();
+                returns(true, false);
+            }
+        };
+
+        task.run();
+
+        new Verifications()
+        {
+            {
+                mockTransport.sendMessages();
+                times = 2;
+                mockTransport.invokeCallbacks();
+                times = 2;
+                mockTransport.handleMessage();
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBEVENTDRIVENTASK_41_004: [The function shall send queued messages, invoke queued
+    // callbacks and, if configured to, handle received messages until the transport has no more pending work.]
+    @Test
+    public void runDoesNotHandleReceivedMessagesIfNotConfiguredTo() throws DeviceClientException
+    {
+        final IotHubEventDrivenTask task = new IotHubEventDrivenTask(mockTransport, false, mockExecutor, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.hasPendingWork();
+                result = false;
+            }
+        };
+
+        task.run();
+
+        new Verifications()
+        {
+            {
+                mockTransport.invokeCallbacks();
+                times = 1;
+                mockTransport.handleMessage();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBEVENTDRIVENTASK_41_009: [If work is signalled while the function drains the transport, the
+    // function shall drain it again before returning, unless another run was scheduled meanwhile.]
+    @Test
+    public void runDrainsAgainIfWorkSignalledWhileRunning() throws DeviceClientException
+    {
+        final IotHubEventDrivenTask task = new IotHubEventDrivenTask(mockTransport, true, mockExecutor, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.hasPendingWork();
+                result = false;
+                mockTransport.sendMessages();
+                result = new Delegate()
+                {
+                    int callCount = 0;
+
+                    @SuppressWarnings("unused")
+                    void sendMessages()
+                    {
+                        if (++callCount == 1)
+                        {
+                            task.signalWorkAvailable();
+                        }
+                    }
+                };
+            }
+        };
+
+        task.signalWorkAvailable();
+        task.run();
+
+        AtomicBoolean isScheduled = Deencapsulation.getField(task, "isScheduled");
+        assertFalse(isScheduled.get());
+        new Verifications()
+        {
+            {
+                mockTransport.sendMessages();
+                times = 2;
+                mockExecutor.execute(task);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBEVENTDRIVENTASK_41_006: [The function shall not crash because of any error or exception
+    // thrown by the transport, and shall retry any pending work after RETRY_AFTER_FAILURE_MILLIS.]
+    @Test
+    public void runDoesNotCrashFromThrowableAndRetriesAfterDelay() throws DeviceClientException
+    {
+        final IotHubEventDrivenTask task = new IotHubEventDrivenTask(mockTransport, true, mockExecutor, mockScheduler);
+        final long retryAfterFailureMillis = Deencapsulation.getField(task, "RETRY_AFTER_FAILURE_MILLIS");
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.sendMessages();
+                result = new RuntimeException("Test that the task does not crash.");
+            }
+        };
+
+        task.run();
+
+        new Verifications()
+        {
+            {
+                mockScheduler.schedule((Runnable) any, retryAfterFailureMillis, TimeUnit.MILLISECONDS);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBEVENTDRIVENTASK_41_008: [If no run is scheduled, the function shall submit a single run
+    // of this task to the executor.]
+    @Test
+    public void signalWorkAvailableSubmitsSingleRun()
+    {
+        final IotHubEventDrivenTask task = new IotHubEventDrivenTask(mockTransport, true, mockExecutor, mockScheduler);
+
+        task.signalWorkAvailable();
+        task.signalWorkAvailable();
+
+        new Verifications()
+        {
+            {
+                mockExecutor.execute(task);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBEVENTDRIVENTASK_41_008: [If no run is scheduled, the function shall submit a single run
+    // of this task to the executor.]
+    @Test
+    public void signalWorkAvailableSubmitsAgainOnceRunReturns()
+    {
+        final IotHubEventDrivenTask task = new IotHubEventDrivenTask(mockTransport, true, mockExecutor, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.hasPendingWork();
+                result = false;
+            }
+        };
+
+        task.signalWorkAvailable();
+        task.run();
+        task.signalWorkAvailable();
+
+        new Verifications()
+        {
+            {
+                mockExecutor.execute(task);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBEVENTDRIVENTASK_41_008: [If no run is scheduled, the function shall submit a single run
+    // of this task to the executor.]
+    @Test
+    public void signalWorkAvailableDoesNotStayScheduledIfExecutorRejects()
+    {
+        final IotHubEventDrivenTask task = new IotHubEventDrivenTask(mockTransport, true, mockExecutor, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockExecutor.execute(task);
+                result = new RejectedExecutionException();
+            }
+        };
+
+        task.signalWorkAvailable();
+
+        AtomicBoolean isScheduled = Deencapsulation.getField(task, "isScheduled");
+        assertFalse(isScheduled.get());
+    }
+
+    // Tests_SRS_IOTHUBEVENTDRIVENTASK_41_007: [The function shall mark this task as stopped, so that it is not scheduled anymore.]
+    // Tests_SRS_IOTHUBEVENTDRIVENTASK_41_010: [If the task is stopped, the function shall do nothing.]
+    @Test
+    public void stopStopsTaskFromBeingScheduled()
+    {
+        final IotHubEventDrivenTask task = new IotHubEventDrivenTask(mockTransport, true, mockExecutor, mockScheduler);
+
+        task.stop();
+        task.signalWorkAvailable();
+
+        assertTrue((boolean) Deencapsulation.getField(task, "isStopped"));
+        new Verifications()
+        {
+            {
+                mockExecutor.execute((Runnable) any);
+                times = 0;
+            }
+        };
+    }
+}
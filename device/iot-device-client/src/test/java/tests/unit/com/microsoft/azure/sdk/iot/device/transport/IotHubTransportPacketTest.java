@@ -7,9 +7,11 @@ import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
 import com.microsoft.azure.sdk.iot.device.IotHubResponseCallback;
 import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
 import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.transport.HashedWheelTimer;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportPacket;
 import mockit.Deencapsulation;
 import mockit.Mocked;
+import mockit.Verifications;
 import org.junit.Test;
 
 import java.util.HashMap;
@@ -20,7 +22,9 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.everyItem;
 import static org.hamcrest.Matchers.isIn;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Unit tests for IotHubTransportPacket.
@@ -200,4 +204,117 @@ public class IotHubTransportPacketTest
         //act
         new IotHubTransportPacket(mockMsg, mockCallback, new Object(), IotHubStatusCode.OK_EMPTY, -1);
     }
+
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_001: [The constructor shall save the current System.nanoTime() as the enqueue time.]
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_005: [This function shall return the saved enqueue time.]
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_006: [This function shall return the saved first send time.]
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_007: [This function shall return the saved last send time.]
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_008: [This function shall return the saved completion time.]
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_010: [This function shall return the saved connection id.]
+    @Test
+    public void constructorSavesEnqueueTimeOnly()
+    {
+        //arrange
+        long before = System.nanoTime();
+
+        //act
+        IotHubTransportPacket packet = new IotHubTransportPacket(mockMsg, mockCallback, null, null, 10);
+
+        //assert
+        assertTrue(packet.getEnqueueTimeNanos() - before >= 0);
+        assertEquals(0, packet.getFirstSendTimeNanos());
+        assertEquals(0, packet.getLastSendTimeNanos());
+        assertEquals(0, packet.getCompletionTimeNanos());
+        assertNull(packet.getConnectionId());
+    }
+
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_002: [This function shall save the current System.nanoTime() as the last
+    // send time, and as the first send time if it was not saved yet.]
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_003: [This function shall save the provided connection id.]
+    @Test
+    public void markSentSavesSendTimesAndConnectionId() throws InterruptedException
+    {
+        //arrange
+        IotHubTransportPacket packet = new IotHubTransportPacket(mockMsg, mockCallback, null, null, 10);
+
+        //act
+        packet.markSent("MQTT-1");
+        long firstSendTime = packet.getFirstSendTimeNanos();
+        Thread.sleep(1);
+        packet.markSent("MQTT-2");
+
+        //assert
+        assertTrue(firstSendTime - packet.getEnqueueTimeNanos() >= 0);
+        assertEquals(firstSendTime, packet.getFirstSendTimeNanos());
+        assertTrue(packet.getLastSendTimeNanos() - firstSendTime > 0);
+        assertEquals("MQTT-2", packet.getConnectionId());
+    }
+
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_004: [This function shall save the current System.nanoTime() as the completion time.]
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_009: [This function shall return the saved current retry attempt.]
+    @Test
+    public void markCompletedSavesCompletionTime()
+    {
+        //arrange
+        IotHubTransportPacket packet = new IotHubTransportPacket(mockMsg, mockCallback, null, null, 10);
+        packet.markSent("AMQPS-1");
+        packet.incrementRetryAttempt();
+
+        //act
+        packet.markCompleted();
+
+        //assert
+        assertTrue(packet.getCompletionTimeNanos() - packet.getLastSendTimeNanos() >= 0);
+        assertEquals(1, packet.getRetryCount());
+    }
+
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_011: [This function shall save the provided expiry timeout.]
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_012: [This function shall cancel the saved expiry timeout if there is one.]
+    @Test
+    public void cancelExpiryTimeoutCancelsSavedTimeoutOnce(@Mocked final HashedWheelTimer.Timeout mockTimeout)
+    {
+        //arrange
+        IotHubTransportPacket packet = new IotHubTransportPacket(mockMsg, mockCallback, null, null, 10);
+        packet.setExpiryTimeout(mockTimeout);
+
+        //act
+        packet.cancelExpiryTimeout();
+        packet.cancelExpiryTimeout();
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockTimeout.cancel();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_012: [This function shall cancel the saved expiry timeout if there is one.]
+    @Test
+    public void cancelExpiryTimeoutWithoutTimeoutDoesNothing()
+    {
+        //arrange
+        IotHubTransportPacket packet = new IotHubTransportPacket(mockMsg, mockCallback, null, null, 10);
+
+        //act
+        packet.cancelExpiryTimeout();
+    }
+
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_013: [This function shall return the saved persistent handle.]
+    // Tests_SRS_IOTHUBTRANSPORTPACKET_41_014: [This function shall save the provided persistent handle.]
+    @Test
+    public void setPersistentHandleSetsHandle()
+    {
+        //arrange
+        IotHubTransportPacket packet = new IotHubTransportPacket(mockMsg, mockCallback, null, null, 10);
+        assertEquals(IotHubTransportPacket.NO_PERSISTENT_HANDLE, packet.getPersistentHandle());
+
+        //act
+        packet.setPersistentHandle(42L);
+
+        //assert
+        assertEquals(42L, packet.getPersistentHandle());
+    }
 }
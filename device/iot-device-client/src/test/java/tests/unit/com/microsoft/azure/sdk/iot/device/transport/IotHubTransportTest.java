@@ -6,6 +6,7 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.exceptions.DeviceClientException;
 import com.microsoft.azure.sdk.iot.device.exceptions.IotHubServiceException;
+import com.microsoft.azure.sdk.iot.device.exceptions.SendWindowFullException;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.exceptions.UnauthorizedException;
 import com.microsoft.azure.sdk.iot.device.transport.*;
@@ -13,16 +14,21 @@ import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.exceptions.AmqpUnauthorizedAccessException;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttIotHubConnection;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.exceptions.MqttUnauthorizedException;
 import mockit.*;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import static com.microsoft.azure.sdk.iot.device.IotHubConnectionStatusChangeReason.*;
 import static com.microsoft.azure.sdk.iot.device.transport.IotHubConnectionStatus.*;
@@ -72,6 +78,9 @@ public class IotHubTransportTest
     @Mocked
     MqttIotHubConnection mockedMqttIotHubConnection;
 
+    @Mocked
+    MqttNioIotHubConnection mockedMqttNioIotHubConnection;
+
     @Mocked
     IotHubConnectionStateCallback mockedIotHubConnectionStateCallback;
 
@@ -91,7 +100,10 @@ public class IotHubTransportTest
     MessageCallback mockedMessageCallback;
 
     @Mocked
-    ScheduledExecutorService mockedTaskScheduler;
+    HashedWheelTimer mockedTimer;
+
+    @Mocked
+    IotHubConnectionString mockedIotHubConnectionString;
 
     @Mocked
     IotHubTransport.MessageRetryRunnable mockedMessageRetryRunnable;
@@ -99,6 +111,9 @@ public class IotHubTransportTest
     @Mocked
     IotHubServiceException mockedIothubServiceException;
 
+    @Mocked
+    IotHubEventDrivenTask mockedEventDrivenTask;
+
     //Tests_SRS_IOTHUBTRANSPORT_34_001: [The constructor shall save the default config.]
     //Tests_SRS_IOTHUBTRANSPORT_34_003: [The constructor shall set the connection status as DISCONNECTED and the current retry attempt to 0.]
     @Test
@@ -267,6 +282,155 @@ public class IotHubTransportTest
         assertEquals(mockedTransportMessage, receivedMessagesQueue.poll());
     }
 
+    //Tests_SRS_IOTHUBTRANSPORT_41_043: [If MQTT arrivals are dispatched directly, this function shall
+    // execute the callback of the message and acknowledge it on the calling thread.]
+    @Test
+    public void onMessageReceivedDispatchesDirectlyOverMqtt() throws TransportException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        final Object context = new Object();
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.isMqttDirectDispatch();
+                result = true;
+                mockedConfig.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+                mockedTransportMessage.getMessageCallback();
+                result = mockedMessageCallback;
+                mockedTransportMessage.getMessageCallbackContext();
+                result = context;
+                mockedMessageCallback.execute(mockedTransportMessage, context);
+                result = IotHubMessageResult.COMPLETE;
+            }
+        };
+
+        //act
+        transport.onMessageReceived(mockedTransportMessage, null);
+
+        //assert
+        Queue<IotHubTransportPacket> receivedMessagesQueue = Deencapsulation.getField(transport, "receivedMessagesQueue");
+        assertTrue(receivedMessagesQueue.isEmpty());
+        new Verifications()
+        {
+            {
+                mockedMessageCallback.execute(mockedTransportMessage, context);
+                times = 1;
+                mockedIotHubTransportConnection.sendMessageResult(mockedTransportMessage, IotHubMessageResult.COMPLETE);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_043: [If MQTT arrivals are dispatched directly, this function shall
+    // execute the callback of the message and acknowledge it on the calling thread.]
+    @Test
+    public void onMessageReceivedQueuesOverAmqpsEvenIfMqttDirectDispatch()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.isMqttDirectDispatch();
+                result = true;
+                mockedConfig.getProtocol();
+                result = IotHubClientProtocol.AMQPS;
+            }
+        };
+
+        //act
+        transport.onMessageReceived(mockedTransportMessage, null);
+
+        //assert
+        Queue<IotHubTransportPacket> receivedMessagesQueue = Deencapsulation.getField(transport, "receivedMessagesQueue");
+        assertEquals(1, receivedMessagesQueue.size());
+        new Verifications()
+        {
+            {
+                mockedMessageCallback.execute((Message) any, any);
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_044: [If the dispatched message cannot be acknowledged, this function shall
+    // log the exception and signal that there is work available, so that the receive task acknowledges it.]
+    @Test
+    public void onMessageReceivedDirectDispatchRequeuesIfAckFails() throws TransportException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        transport.setEventDrivenTask(mockedEventDrivenTask);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.isMqttDirectDispatch();
+                result = true;
+                mockedConfig.getProtocol();
+                result = IotHubClientProtocol.MQTT_WS;
+                mockedTransportMessage.getMessageCallback();
+                result = mockedMessageCallback;
+                mockedMessageCallback.execute(mockedTransportMessage, any);
+                result = IotHubMessageResult.COMPLETE;
+                mockedIotHubTransportConnection.sendMessageResult(mockedTransportMessage, IotHubMessageResult.COMPLETE);
+                result = mockedTransportException;
+            }
+        };
+
+        //act
+        transport.onMessageReceived(mockedTransportMessage, null);
+
+        //assert
+        Queue<IotHubTransportPacket> receivedMessagesQueue = Deencapsulation.getField(transport, "receivedMessagesQueue");
+        assertEquals(1, receivedMessagesQueue.size());
+        new Verifications()
+        {
+            {
+                mockedEventDrivenTask.signalWorkAvailable();
+                minTimes = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_045: [If the callback of the dispatched message throws, this function shall
+    // log the exception.]
+    @Test
+    public void onMessageReceivedDirectDispatchDoesNotThrowIfCallbackThrows()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.isMqttDirectDispatch();
+                result = true;
+                mockedConfig.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+                mockedTransportMessage.getMessageCallback();
+                result = mockedMessageCallback;
+                mockedMessageCallback.execute(mockedTransportMessage, any);
+                result = new IllegalStateException();
+            }
+        };
+
+        //act
+        transport.onMessageReceived(mockedTransportMessage, null);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedLogger.LogError((Throwable) any);
+                times = 1;
+            }
+        };
+    }
+
     //Tests_SRS_IOTHUBTRANSPORT_34_010: [If this function is called with a null message and a non-null throwable, this function shall log that exception.]
     @Test
     public void onMessageReceivedWithOnlyExceptionOnlyLogsException()
@@ -549,7 +713,7 @@ public class IotHubTransportTest
     public void closeMovesAllWaitingAndInProgressMessagesToCallbackQueueWithStatusMessageCancelledOnClose() throws DeviceClientException
     {
         //arrange
-        final Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        final Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
         final Map<String, IotHubTransportPacket> inProgressPackets = new ConcurrentHashMap<>();
         final Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
         waitingPacketsQueue.add(mockedPacket);
@@ -563,7 +727,6 @@ public class IotHubTransportTest
         Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
         Deencapsulation.setField(transport, "inProgressPackets", inProgressPackets);
         Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
-        Deencapsulation.setField(transport, "taskScheduler", mockedScheduledExecutorService);
         Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
 
         new Expectations(IotHubTransport.class)
@@ -611,7 +774,7 @@ public class IotHubTransportTest
     public void closeWhenDisconnectedDoesNothing() throws DeviceClientException
     {
         //arrange
-        final Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        final Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
         final Map<String, IotHubTransportPacket> inProgressPackets = new ConcurrentHashMap<>();
         final Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
         final IotHubTransport transport = new IotHubTransport(mockedConfig);
@@ -619,7 +782,6 @@ public class IotHubTransportTest
         Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
         Deencapsulation.setField(transport, "inProgressPackets", inProgressPackets);
         Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
-        Deencapsulation.setField(transport, "taskScheduler", mockedScheduledExecutorService);
         Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
 
         new Expectations(IotHubTransport.class)
@@ -852,6 +1014,48 @@ public class IotHubTransportTest
         };
     }
 
+    //Tests_SRS_IOTHUBTRANSPORT_41_046: [If the default config's protocol is MQTT and its MQTT event loop flag is set, this function shall set this object's iotHubTransportConnection to a new MqttNioIotHubConnection object.]
+    @Test
+    public void openConnectionWithMqttEventLoop() throws TransportException
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        final Queue<DeviceClientConfig> configs = new ConcurrentLinkedQueue<>();
+        configs.add(mockedConfig);
+        Deencapsulation.setField(transport, "deviceClientConfigs", configs);
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                mockedConfig.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+
+                mockedConfig.isMqttEventLoop();
+                result = true;
+
+                new MqttNioIotHubConnection(mockedConfig);
+                result = mockedMqttNioIotHubConnection;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "openConnection");
+
+        //assert
+        new Verifications()
+        {
+            {
+                new MqttIotHubConnection((DeviceClientConfig) any);
+                times = 0;
+
+                mockedMqttNioIotHubConnection.setListener(transport);
+                times = 1;
+
+                mockedMqttNioIotHubConnection.open(configs);
+                times = 1;
+            }
+        };
+    }
+
     //Tests_SRS_IOTHUBTRANSPORT_34_037: [If the default config's protocol is AMQPS or AMQPS_WS, this function shall set this object's iotHubTransportConnection to a new AmqpsIotHubConnection object.]
     @Test
     public void openConnectionWithAmqps() throws TransportException
@@ -929,7 +1133,7 @@ public class IotHubTransportTest
     public void isEmptyReturnsTrueIfAllQueuesEmpty()
     {
         //arrange
-        final Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        final Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
         final Map<String, IotHubTransportPacket> inProgressPackets = new ConcurrentHashMap<>();
         final Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
         final IotHubTransport transport = new IotHubTransport(mockedConfig);
@@ -949,7 +1153,7 @@ public class IotHubTransportTest
     public void isEmptyReturnsFalseIfWaitingQueueNotEmpty()
     {
         //arrange
-        final Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        final Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
         final Map<String, IotHubTransportPacket> inProgressPackets = new ConcurrentHashMap<>();
         final Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
         waitingPacketsQueue.add(mockedPacket);
@@ -971,7 +1175,7 @@ public class IotHubTransportTest
     public void isEmptyReturnsFalseIfInProgressMapNotEmpty()
     {
         //arrange
-        final Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        final Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
         final Map<String, IotHubTransportPacket> inProgressPackets = new ConcurrentHashMap<>();
         final Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
         inProgressPackets.put("asdf", mockedPacket);
@@ -993,7 +1197,7 @@ public class IotHubTransportTest
     public void isEmptyReturnsFalseIfCallbackQueueNotEmpty()
     {
         //arrange
-        final Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        final Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
         final Map<String, IotHubTransportPacket> inProgressPackets = new ConcurrentHashMap<>();
         final Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
         callbackPacketsQueue.add(mockedPacket);
@@ -1092,7 +1296,7 @@ public class IotHubTransportTest
         //arrange
         IotHubTransport transport = new IotHubTransport(mockedConfig);
         Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
-        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
         Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
 
         new NonStrictExpectations()
@@ -1117,7 +1321,7 @@ public class IotHubTransportTest
         //arrange
         IotHubTransport transport = new IotHubTransport(mockedConfig);
         Deencapsulation.setField(transport, "connectionStatus", DISCONNECTED);
-        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
         waitingPacketsQueue.add(mockedPacket);
         Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
 
@@ -1129,15 +1333,18 @@ public class IotHubTransportTest
     }
 
     //Tests_SRS_IOTHUBTRANSPORT_34_044: [This function continue to dequeue packets saved in the waiting
-    // queue and send them until connection status isn't CONNECTED or until 10 messages have been sent]
+    // queue and send them until connection status isn't CONNECTED or until the send budget is spent]
+    //Tests_SRS_IOTHUBTRANSPORT_41_040: [This function shall send at most as many packets as the send window
+    // allows, given the configured ceiling, the packets in progress and the window of the connection.]
     @Test
     public void sendMessagesSendsMessages()
     {
         //arrange
         final IotHubTransport transport = new IotHubTransport(mockedConfig);
-        final int MAX_MESSAGES_TO_SEND_PER_THREAD = Deencapsulation.getField(transport, "MAX_MESSAGES_TO_SEND_PER_THREAD");
+        final int MAX_MESSAGES_TO_SEND_PER_THREAD = 5;
         Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
-        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
         for (int i = 0; i < MAX_MESSAGES_TO_SEND_PER_THREAD + 1; i++)
         {
             waitingPacketsQueue.add(mockedPacket);
@@ -1148,7 +1355,12 @@ public class IotHubTransportTest
         new Expectations(IotHubTransport.class)
         {
             {
+                mockedConfig.getSendWindowCeiling();
+                result = MAX_MESSAGES_TO_SEND_PER_THREAD;
+                mockedIotHubTransportConnection.getSendWindow();
+                result = Integer.MAX_VALUE;
                 Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+                result = true;
             }
         };
 
@@ -1587,7 +1799,6 @@ public class IotHubTransportTest
         final IotHubTransport transport = new IotHubTransport(mockedConfig);
         final long expectedDelay = 0;
         final long duration = 0;
-        Deencapsulation.setField(transport, "taskScheduler", mockedTaskScheduler);
         new Expectations(IotHubTransport.class)
         {
             {
@@ -1621,7 +1832,7 @@ public class IotHubTransportTest
                 mockedPacket.incrementRetryAttempt();
                 times = 1;
 
-                mockedTaskScheduler.schedule((IotHubTransport.MessageRetryRunnable) any, expectedDelay, TimeUnit.MILLISECONDS);
+                mockedTimer.schedule((IotHubTransport.MessageRetryRunnable) any, expectedDelay);
                 times = 1;
             }
         };
@@ -1635,7 +1846,6 @@ public class IotHubTransportTest
         //arrange
         final IotHubTransport transport = new IotHubTransport(mockedConfig);
         final long expectedDelay = 0;
-        Deencapsulation.setField(transport, "taskScheduler", mockedTaskScheduler);
         new NonStrictExpectations(IotHubTransport.class)
         {
             {
@@ -1672,7 +1882,7 @@ public class IotHubTransportTest
                 mockedPacket.setStatus(mockedStatus);
                 times = 1;
 
-                mockedTaskScheduler.schedule((IotHubTransport.MessageRetryRunnable) any, expectedDelay, TimeUnit.MILLISECONDS);
+                mockedTimer.schedule((IotHubTransport.MessageRetryRunnable) any, expectedDelay);
                 times = 0;
             }
         };
@@ -1686,7 +1896,6 @@ public class IotHubTransportTest
         //arrange
         final IotHubTransport transport = new IotHubTransport(mockedConfig);
         final long expectedDelay = 0;
-        Deencapsulation.setField(transport, "taskScheduler", mockedTaskScheduler);
         new NonStrictExpectations(IotHubTransport.class)
         {
             {
@@ -1723,7 +1932,7 @@ public class IotHubTransportTest
                 mockedPacket.setStatus(mockedStatus);
                 times = 1;
 
-                mockedTaskScheduler.schedule((IotHubTransport.MessageRetryRunnable) any, expectedDelay, TimeUnit.MILLISECONDS);
+                mockedTimer.schedule((IotHubTransport.MessageRetryRunnable) any, expectedDelay);
                 times = 0;
             }
         };
@@ -1737,7 +1946,6 @@ public class IotHubTransportTest
         //arrange
         final IotHubTransport transport = new IotHubTransport(mockedConfig);
         final long expectedDelay = 0;
-        Deencapsulation.setField(transport, "taskScheduler", mockedTaskScheduler);
         new NonStrictExpectations(IotHubTransport.class)
         {
             {
@@ -1774,7 +1982,7 @@ public class IotHubTransportTest
                 mockedPacket.setStatus(mockedStatus);
                 times = 1;
 
-                mockedTaskScheduler.schedule((IotHubTransport.MessageRetryRunnable) any, expectedDelay, TimeUnit.MILLISECONDS);
+                mockedTimer.schedule((IotHubTransport.MessageRetryRunnable) any, expectedDelay);
                 times = 0;
             }
         };
@@ -2718,4 +2926,1729 @@ public class IotHubTransportTest
             }
         };
     }
-}
\ No newline at end of file
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_001: [If this function is called with a non-null message and a null
+    // exception, this function shall signal that there is work available.]
+    @Test
+    public void onMessageReceivedSignalsWork() throws InterruptedException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        transport.setEventDrivenTask(mockedEventDrivenTask);
+
+        //act
+        transport.onMessageReceived(mockedTransportMessage, null);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedEventDrivenTask.signalWorkAvailable();
+                minTimes = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_002: [This function shall signal that there is work available.]
+    @Test
+    public void addMessageSignalsWork()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        transport.setEventDrivenTask(mockedEventDrivenTask);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+
+        //act
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedEventDrivenTask.signalWorkAvailable();
+                minTimes = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_003: [This function shall stop dequeueing packets once the waiting queue is empty.]
+    @Test
+    public void sendMessagesStopsWhenWaitingQueueIsEmpty()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getSendWindowCeiling();
+                result = 10;
+                mockedIotHubTransportConnection.getSendWindow();
+                result = Integer.MAX_VALUE;
+            }
+        };
+        final Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
+        waitingPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+                result = true;
+            }
+        };
+
+        //act
+        transport.sendMessages();
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+                times = 1;
+            }
+        };
+        assertTrue(waitingPacketsQueue.isEmpty());
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_004: [This function shall return true if the callback queue is not empty, or if
+    // the connection status is CONNECTED and either the waiting queue is not empty and the send window is open or,
+    // if not using HTTPS, the received messages queue is not empty.]
+    @Test
+    public void hasPendingWorkReturnsTrueIfCallbacksQueuedWhileDisconnected()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        callbackPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        Deencapsulation.setField(transport, "connectionStatus", DISCONNECTED_RETRYING);
+
+        //act
+        boolean hasPendingWork = transport.hasPendingWork();
+
+        //assert
+        assertTrue(hasPendingWork);
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_004: [This function shall return true if the callback queue is not empty, or if
+    // the connection status is CONNECTED and either the waiting queue is not empty and the send window is open or,
+    // if not using HTTPS, the received messages queue is not empty.]
+    @Test
+    public void hasPendingWorkReturnsFalseForWaitingPacketsWhileDisconnected()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
+        waitingPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        Deencapsulation.setField(transport, "connectionStatus", DISCONNECTED_RETRYING);
+
+        //act
+        boolean hasPendingWork = transport.hasPendingWork();
+
+        //assert
+        assertFalse(hasPendingWork);
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_004: [This function shall return true if the callback queue is not empty, or if
+    // the connection status is CONNECTED and either the waiting queue is not empty and the send window is open or,
+    // if not using HTTPS, the received messages queue is not empty.]
+    @Test
+    public void hasPendingWorkReturnsTrueForWaitingPacketsWhileConnected()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
+        waitingPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getSendWindowCeiling();
+                result = 10;
+                mockedIotHubTransportConnection.getSendWindow();
+                result = 1;
+            }
+        };
+
+        //act
+        boolean hasPendingWork = transport.hasPendingWork();
+
+        //assert
+        assertTrue(hasPendingWork);
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_004: [This function shall return true if the callback queue is not empty, or if
+    // the connection status is CONNECTED and either the waiting queue is not empty and the send window is open or,
+    // if not using HTTPS, the received messages queue is not empty.]
+    @Test
+    public void hasPendingWorkIgnoresReceivedMessagesOverHttps()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportMessage> receivedMessagesQueue = new ConcurrentLinkedQueue<>();
+        receivedMessagesQueue.add(mockedTransportMessage);
+        Deencapsulation.setField(transport, "receivedMessagesQueue", receivedMessagesQueue);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedHttpsIotHubConnection);
+
+        //act
+        boolean hasPendingWork = transport.hasPendingWork();
+
+        //assert
+        assertFalse(hasPendingWork);
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_004: [This function shall return true if the callback queue is not empty, or if
+    // the connection status is CONNECTED and either the waiting queue is not empty and the send window is open or,
+    // if not using HTTPS, the received messages queue is not empty.]
+    @Test
+    public void hasPendingWorkReturnsTrueForReceivedMessagesOverMqtt()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportMessage> receivedMessagesQueue = new ConcurrentLinkedQueue<>();
+        receivedMessagesQueue.add(mockedTransportMessage);
+        Deencapsulation.setField(transport, "receivedMessagesQueue", receivedMessagesQueue);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedMqttIotHubConnection);
+
+        //act
+        boolean hasPendingWork = transport.hasPendingWork();
+
+        //assert
+        assertTrue(hasPendingWork);
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_049: [This function shall signal the transport worker that there is work
+    // available, so that the packets waiting for the send window are sent.]
+    @Test
+    public void onSendWindowOpenedSignalsWork()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        transport.setEventDrivenTask(mockedEventDrivenTask);
+
+        //act
+        transport.onSendWindowOpened();
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedEventDrivenTask.signalWorkAvailable();
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_005: [This function shall save the provided event driven task.]
+    //Tests_SRS_IOTHUBTRANSPORT_41_007: [This function shall signal the saved event driven task, if any, that
+    // there is work available.]
+    @Test
+    public void signalWorkAvailableSignalsEventDrivenTask()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        transport.setEventDrivenTask(mockedEventDrivenTask);
+
+        //act
+        transport.signalWorkAvailable();
+
+        //assert
+        assertEquals(mockedEventDrivenTask, Deencapsulation.getField(transport, "eventDrivenTask"));
+        new Verifications()
+        {
+            {
+                mockedEventDrivenTask.signalWorkAvailable();
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_007: [This function shall signal the saved event driven task, if any, that
+    // there is work available.]
+    @Test
+    public void signalWorkAvailableDoesNothingWithoutEventDrivenTask()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        transport.setEventDrivenTask(mockedEventDrivenTask);
+        transport.setEventDrivenTask(null);
+
+        //act
+        transport.signalWorkAvailable();
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedEventDrivenTask.signalWorkAvailable();
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_008: [This function shall signal that there is work available if
+    // the connection status is changed to CONNECTED.]
+    @Test
+    public void updateStatusToConnectedSignalsWork()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        transport.setEventDrivenTask(mockedEventDrivenTask);
+        Deencapsulation.setField(transport, "connectionStatus", DISCONNECTED_RETRYING);
+
+        //act
+        Deencapsulation.invoke(transport, "updateStatus",
+                new Class[] {IotHubConnectionStatus.class, IotHubConnectionStatusChangeReason.class, Throwable.class},
+                CONNECTED, CONNECTION_OK, null);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedEventDrivenTask.signalWorkAvailable();
+                minTimes = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_009: [This function shall signal that there is work available if the packet
+    // was added to the callback queue.]
+    @Test
+    public void addToCallbackQueueSignalsWork()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        transport.setEventDrivenTask(mockedEventDrivenTask);
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getCallback();
+                result = mockedEventCallback;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "addToCallbackQueue", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedEventDrivenTask.signalWorkAvailable();
+                minTimes = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_010: [This function shall admit the packet to the waiting queue according to the
+    // outbound queue capacity and policy of the default config.]
+    //Tests_SRS_IOTHUBTRANSPORT_41_012: [If the packet was not admitted to the waiting queue, this function
+    // shall add it to the callback queue with status MESSAGE_CANCELLED_QUEUE_FULL.]
+    @Test
+    public void addMessageRejectsMessageWhenQueueFull()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
+        waitingPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getOutboundQueueMaxMessages();
+                result = 1;
+                mockedConfig.getOutboundQueueFullPolicy();
+                result = OutboundQueueFullPolicy.REJECT;
+                mockedPacket.getCallback();
+                result = mockedEventCallback;
+            }
+        };
+
+        //act
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //assert
+        assertEquals(1, waitingPacketsQueue.size());
+        assertEquals(1, callbackPacketsQueue.size());
+        new Verifications()
+        {
+            {
+                mockedPacket.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_011: [Packets dropped from the waiting queue to make room for the new packet
+    // shall be added to the callback queue with status MESSAGE_EXPIRED if their message expired, and
+    // MESSAGE_CANCELLED_QUEUE_FULL otherwise.]
+    @Test
+    public void addMessageDropsOldestMessageWhenQueueFull()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
+        waitingPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getOutboundQueueMaxMessages();
+                result = 1;
+                mockedConfig.getOutboundQueueFullPolicy();
+                result = OutboundQueueFullPolicy.DROP_OLDEST;
+                mockedPacket.getCallback();
+                result = mockedEventCallback;
+                mockedPacket.getMessage();
+                result = mockedMessage;
+                mockedMessage.isExpired();
+                result = false;
+            }
+        };
+
+        //act
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //assert
+        assertEquals(1, waitingPacketsQueue.size());
+        assertEquals(1, callbackPacketsQueue.size());
+        new Verifications()
+        {
+            {
+                mockedPacket.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_013: [This function shall return the number of packets in the waiting queue.]
+    //Tests_SRS_IOTHUBTRANSPORT_41_014: [This function shall return the total size of the packets in the waiting queue.]
+    @Test
+    public void getOutboundQueueSizeReturnsWaitingQueueOccupancy()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getMessage();
+                result = mockedMessage;
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.allocate(12);
+            }
+        };
+        waitingPacketsQueue.add(mockedPacket);
+        waitingPacketsQueue.add(mockedPacket);
+
+        //act
+        int size = transport.getOutboundQueueSize();
+        long sizeInBytes = transport.getOutboundQueueSizeInBytes();
+
+        //assert
+        assertEquals(2, size);
+        assertEquals(24, sizeInBytes);
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_015: [This function shall handle up to the receive batch size of the default
+    // config received messages, and at least one, stopping early if the received messages queue is empty or if
+    // the connection status is no longer CONNECTED.]
+    @Test
+    public void handleMessageAcknowledgesUpToReceiveBatchSizeMessages() throws DeviceClientException
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportMessage> receivedMessagesQueue = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < 5; i++)
+        {
+            receivedMessagesQueue.add(mockedTransportMessage);
+        }
+        Deencapsulation.setField(transport, "receivedMessagesQueue", receivedMessagesQueue);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getReceiveBatchSize();
+                result = 3;
+            }
+        };
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                Deencapsulation.invoke(transport, "acknowledgeReceivedMessage", mockedTransportMessage);
+            }
+        };
+
+        //act
+        transport.handleMessage();
+
+        //assert
+        assertEquals(2, receivedMessagesQueue.size());
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(transport, "acknowledgeReceivedMessage", mockedTransportMessage);
+                times = 3;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_015: [This function shall handle up to the receive batch size of the default
+    // config received messages, and at least one, stopping early if the received messages queue is empty or if
+    // the connection status is no longer CONNECTED.]
+    @Test
+    public void handleMessageStopsWhenReceivedMessagesQueueIsEmpty() throws DeviceClientException
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportMessage> receivedMessagesQueue = new ConcurrentLinkedQueue<>();
+        receivedMessagesQueue.add(mockedTransportMessage);
+        receivedMessagesQueue.add(mockedTransportMessage);
+        Deencapsulation.setField(transport, "receivedMessagesQueue", receivedMessagesQueue);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getReceiveBatchSize();
+                result = 10;
+            }
+        };
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                Deencapsulation.invoke(transport, "acknowledgeReceivedMessage", mockedTransportMessage);
+            }
+        };
+
+        //act
+        transport.handleMessage();
+
+        //assert
+        assertTrue(receivedMessagesQueue.isEmpty());
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(transport, "acknowledgeReceivedMessage", mockedTransportMessage);
+                times = 2;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_016: [If a callback executor is configured, this function shall dispatch
+    // each callback to it, preserving the order of the callbacks that share the same context.]
+    @Test
+    public void invokeCallbacksDispatchesCallbacksIfCallbackExecutorConfigured()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        callbackPacketsQueue.add(mockedPacket);
+        callbackPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        final List<Runnable> dispatchedTasks = new ArrayList<>();
+        Deencapsulation.setField(transport, "callbackDispatcher", new OrderedCallbackDispatcher(new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                dispatchedTasks.add(command);
+            }
+        }));
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getCallback();
+                result = mockedEventCallback;
+
+                mockedPacket.getContext();
+                result = context;
+
+                mockedPacket.getStatus();
+                result = mockedStatus;
+            }
+        };
+
+        //act
+        transport.invokeCallbacks();
+
+        //assert
+        assertTrue(callbackPacketsQueue.isEmpty());
+        assertEquals(1, dispatchedTasks.size());
+        new Verifications()
+        {
+            {
+                mockedEventCallback.execute(mockedStatus, context);
+                times = 0;
+            }
+        };
+
+        dispatchedTasks.get(0).run();
+        new Verifications()
+        {
+            {
+                mockedEventCallback.execute(mockedStatus, context);
+                times = 2;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_017: [This function shall dispatch callbacks to the executor supplied in the
+    // default config if any, or else to a new pool of the configured size if it is greater than 0, or else
+    // invoke them inline.]
+    @Test
+    public void createCallbackDispatcherCreatesPoolOfConfiguredSize()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getCallbackExecutor();
+                result = null;
+                mockedConfig.getCallbackThreadPoolSize();
+                result = 2;
+                mockedConfig.getClientRuntime();
+                result = null;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "createCallbackDispatcher");
+
+        //assert
+        ExecutorService ownedCallbackExecutor = Deencapsulation.getField(transport, "ownedCallbackExecutor");
+        assertNotNull(ownedCallbackExecutor);
+        assertNotNull(Deencapsulation.getField(transport, "callbackDispatcher"));
+        ownedCallbackExecutor.shutdown();
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_017: [This function shall dispatch callbacks to the executor supplied in the
+    // default config if any, or else to a new pool of the configured size if it is greater than 0, or else
+    // invoke them inline.]
+    @Test
+    public void createCallbackDispatcherUsesSuppliedExecutor()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getCallbackExecutor();
+                result = mockedScheduledExecutorService;
+                mockedConfig.getCallbackThreadPoolSize();
+                result = 2;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "createCallbackDispatcher");
+
+        //assert
+        assertNull(Deencapsulation.getField(transport, "ownedCallbackExecutor"));
+        assertNotNull(Deencapsulation.getField(transport, "callbackDispatcher"));
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_017: [This function shall dispatch callbacks to the executor supplied in the
+    // default config if any, or else to a new pool of the configured size if it is greater than 0, or else
+    // invoke them inline.]
+    @Test
+    public void createCallbackDispatcherInvokesInlineByDefault()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getCallbackExecutor();
+                result = null;
+                mockedConfig.getCallbackThreadPoolSize();
+                result = 0;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "createCallbackDispatcher");
+
+        //assert
+        assertNull(Deencapsulation.getField(transport, "ownedCallbackExecutor"));
+        assertNull(Deencapsulation.getField(transport, "callbackDispatcher"));
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_018: [This function shall shut down the callback executor created by this
+    // transport, letting the callbacks already dispatched run.]
+    @Test
+    public void closeShutsDownOwnedCallbackExecutor() throws DeviceClientException
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        ExecutorService ownedCallbackExecutor = Executors.newSingleThreadExecutor();
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
+        Deencapsulation.setField(transport, "ownedCallbackExecutor", ownedCallbackExecutor);
+
+        //act
+        transport.close(CLIENT_CLOSE, null);
+
+        //assert
+        assertTrue(ownedCallbackExecutor.isShutdown());
+        assertNull(Deencapsulation.getField(transport, "ownedCallbackExecutor"));
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_019: [This function shall give the new connection an identifier made of the
+    // protocol and of a counter unique in the process.]
+    @Test
+    public void openConnectionGivesEachConnectionNewId() throws TransportException
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        final Queue<DeviceClientConfig> configs = new ConcurrentLinkedQueue<>();
+        configs.add(mockedConfig);
+        Deencapsulation.setField(transport, "deviceClientConfigs", configs);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+
+                new MqttIotHubConnection(mockedConfig);
+                result = mockedMqttIotHubConnection;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "openConnection");
+        String firstConnectionId = Deencapsulation.getField(transport, "connectionId");
+        Deencapsulation.invoke(transport, "openConnection");
+        String secondConnectionId = Deencapsulation.getField(transport, "connectionId");
+
+        //assert
+        assertTrue(firstConnectionId.startsWith("MQTT-"));
+        assertTrue(secondConnectionId.startsWith("MQTT-"));
+        assertFalse(firstConnectionId.equals(secondConnectionId));
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_020: [This function shall record the send time and the connection identifier
+    // in the packet.]
+    @Test
+    public void sendPacketMarksPacketSent() throws TransportException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedHttpsIotHubConnection);
+        Deencapsulation.setField(transport, "connectionId", "HTTPS-1");
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getMessage();
+                result = mockedTransportMessage;
+
+                mockedHttpsIotHubConnection.sendMessage((Message) any);
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "sendPacket", mockedPacket);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedPacket.markSent("HTTPS-1");
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_021: [This function shall record the completion time in the packet.]
+    @Test
+    public void addToCallbackQueueMarksPacketCompleted()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+
+        //act
+        Deencapsulation.invoke(transport, "addToCallbackQueue", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedPacket.markCompleted();
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_022: [If the callback accepts timings, it shall be executed with the status,
+    // the packet timings and the context.]
+    @Test
+    public void invokeCallbacksPassesTimingsToCallbackWithTimings(@Mocked final IotHubEventCallbackWithTimings mockedCallbackWithTimings)
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        callbackPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getCallback();
+                result = mockedCallbackWithTimings;
+
+                mockedPacket.getContext();
+                result = context;
+
+                mockedPacket.getStatus();
+                result = mockedStatus;
+            }
+        };
+
+        //act
+        transport.invokeCallbacks();
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedCallbackWithTimings.execute(mockedStatus, mockedPacket, context);
+                times = 1;
+
+                mockedCallbackWithTimings.execute(mockedStatus, context);
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_023: [This function shall stop the timer, and add the packets whose retry was
+    // scheduled to the callback queue with status MESSAGE_CANCELLED_ONCLOSE.]
+    @Test
+    public void closeCancelsScheduledRetries(final @Mocked HashedWheelTimer.Timeout mockedTimeout) throws DeviceClientException
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
+        Deencapsulation.setField(mockedMessageRetryRunnable, "transportPacket", mockedPacket);
+        new NonStrictExpectations(IotHubTransport.class)
+        {
+            {
+                mockedTimer.stop();
+                result = Collections.singletonList(mockedTimeout);
+                mockedTimeout.getTask();
+                result = mockedMessageRetryRunnable;
+                Deencapsulation.invoke(transport, "invokeCallbacks");
+            }
+        };
+
+        //act
+        transport.close(CLIENT_CLOSE, null);
+
+        //assert
+        assertEquals(1, callbackPacketsQueue.size());
+        assertEquals(mockedPacket, callbackPacketsQueue.poll());
+        new Verifications()
+        {
+            {
+                mockedPacket.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_024: [If the packet was admitted and its message has an expiry time, this
+    // function shall schedule the expiry of the packet at that time.]
+    @Test
+    public void addMessageSchedulesExpiry(final @Mocked HashedWheelTimer.Timeout mockedTimeout)
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getExpiryTime();
+                result = System.currentTimeMillis() + 60000;
+                mockedTimer.schedule((IotHubTransport.MessageExpiryRunnable) any, anyLong);
+                result = mockedTimeout;
+            }
+        };
+
+        //act
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //assert
+        new Verifications()
+        {
+            {
+                long delay;
+                mockedTimer.schedule((IotHubTransport.MessageExpiryRunnable) any, delay = withCapture());
+                times = 1;
+                assertTrue(delay > 0 && delay <= 60000);
+
+                mockedPacket.setExpiryTimeout(mockedTimeout);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_024: [If the packet was admitted and its message has an expiry time, this
+    // function shall schedule the expiry of the packet at that time.]
+    @Test
+    public void addMessageDoesNotScheduleExpiryForMessagesWithoutExpiryTime()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getExpiryTime();
+                result = 0L;
+            }
+        };
+
+        //act
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedTimer.schedule((Runnable) any, anyLong);
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_025: [When a message expires while its packet is in the waiting queue, the
+    // packet shall be removed from the waiting queue and added to the callback queue with status MESSAGE_EXPIRED.]
+    @Test
+    public void messageExpiryRunnableCompletesWaitingPacket()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
+        waitingPacketsQueue.add(mockedPacket);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getCallback();
+                result = mockedEventCallback;
+            }
+        };
+
+        //act
+        transport.new MessageExpiryRunnable(mockedPacket).run();
+
+        //assert
+        assertTrue(waitingPacketsQueue.isEmpty());
+        assertEquals(mockedPacket, callbackPacketsQueue.poll());
+        new Verifications()
+        {
+            {
+                mockedPacket.setStatus(IotHubStatusCode.MESSAGE_EXPIRED);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_025: [When a message expires while its packet is in the waiting queue, the
+    // packet shall be removed from the waiting queue and added to the callback queue with status MESSAGE_EXPIRED.]
+    @Test
+    public void messageExpiryRunnableIgnoresPacketNoLongerWaiting()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "waitingPacketsQueue", new OutboundPacketQueue());
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+
+        //act
+        transport.new MessageExpiryRunnable(mockedPacket).run();
+
+        //assert
+        assertTrue(callbackPacketsQueue.isEmpty());
+        new Verifications()
+        {
+            {
+                mockedPacket.setStatus((IotHubStatusCode) any);
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_026: [This function shall cancel the expiry timeout of the packet.]
+    @Test
+    public void addToCallbackQueueCancelsExpiryTimeout()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+
+        //act
+        Deencapsulation.invoke(transport, "addToCallbackQueue", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedPacket.cancelExpiryTimeout();
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_028: [If a persistent message store is open, this function shall persist
+    // telemetry messages before queueing them.]
+    @Test
+    public void addMessagePersistsTelemetry(final @Mocked PersistentMessageStore mockedStore) throws IOException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "persistentStore", mockedStore);
+        new NonStrictExpectations()
+        {
+            {
+                mockedStore.append(mockedMessage, anyString);
+                result = 5L;
+            }
+        };
+
+        //act
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedPacket.setPersistentHandle(5L);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_029: [This function shall remove the message of the packet from the
+    // persistent message store, unless it was cancelled on close.]
+    @Test
+    public void addToCallbackQueueAcknowledgesPersistedPacket(final @Mocked PersistentMessageStore mockedStore)
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "persistentStore", mockedStore);
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getPersistentHandle();
+                result = 5L;
+                mockedPacket.getStatus();
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "addToCallbackQueue", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedStore.acknowledge(5L);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_029: [This function shall remove the message of the packet from the
+    // persistent message store, unless it was cancelled on close.]
+    @Test
+    public void addToCallbackQueueKeepsPacketsCancelledOnClosePersisted(final @Mocked PersistentMessageStore mockedStore)
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "persistentStore", mockedStore);
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getPersistentHandle();
+                result = 5L;
+                mockedPacket.getStatus();
+                result = IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "addToCallbackQueue", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedStore.acknowledge(anyLong);
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_031: [This function shall queue the recovered messages of the devices of this
+    // transport in order, without callback, ahead of any new message.]
+    @Test
+    public void openPersistentStoreQueuesRecoveredMessagesOfItsDevices(final @Mocked PersistentMessageStore mockedStore,
+                                                                        final @Mocked PersistentMessageStore.StoredMessage mockedOwnMessage,
+                                                                        final @Mocked PersistentMessageStore.StoredMessage mockedOtherMessage)
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        Deencapsulation.setField(transport, "deviceClientConfigs", new LinkedList<>(Collections.singletonList(mockedConfig)));
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getPersistentQueueDirectory();
+                result = "queue";
+                mockedConfig.getDeviceId();
+                result = "device1";
+                mockedConfig.getIotHubConnectionString();
+                result = mockedIotHubConnectionString;
+                mockedStore.getRecoveredMessages();
+                result = Arrays.asList(mockedOwnMessage, mockedOtherMessage);
+                mockedOwnMessage.getDeviceId();
+                result = "device1";
+                mockedOwnMessage.getHandle();
+                result = 7L;
+                mockedOwnMessage.getMessage();
+                result = mockedMessage;
+                mockedOtherMessage.getDeviceId();
+                result = "device2";
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "openPersistentStore");
+
+        //assert
+        assertEquals(1, waitingPacketsQueue.size());
+        assertNotNull(Deencapsulation.getField(transport, "persistentStore"));
+        new Verifications()
+        {
+            {
+                mockedMessage.setIotHubConnectionString(mockedIotHubConnectionString);
+                times = 1;
+                new IotHubTransportPacket(mockedMessage, null, null, null, anyLong);
+                times = 1;
+                mockedPacket.setPersistentHandle(7L);
+                times = 1;
+                mockedOtherMessage.getMessage();
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_050: [If the sync policy is PERIODIC, this function shall force the writes
+    // of the persistent message store on the timer every PERIODIC_SYNC_INTERVAL_MILLIS, so that the last
+    // messages of a burst are forced while the device is idle.]
+    @Test
+    public void openPersistentStoreSchedulesPeriodicSync(final @Mocked PersistentMessageStore mockedStore,
+                                                         final @Mocked HashedWheelTimer.Timeout mockedTimeout)
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "timer", mockedTimer);
+        Deencapsulation.setField(transport, "deviceClientConfigs", new LinkedList<>(Collections.singletonList(mockedConfig)));
+        final List<Runnable> scheduledTasks = new ArrayList<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getPersistentQueueDirectory();
+                result = "queue";
+                mockedConfig.getPersistentQueueSyncPolicy();
+                result = PersistentQueueSyncPolicy.PERIODIC;
+                mockedStore.getRecoveredMessages();
+                result = new ArrayList<>();
+                mockedTimer.schedule(withCapture(scheduledTasks), PersistentMessageStore.PERIODIC_SYNC_INTERVAL_MILLIS);
+                result = mockedTimeout;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "openPersistentStore");
+        scheduledTasks.get(0).run();
+
+        //assert
+        assertEquals(2, scheduledTasks.size());
+        assertSame(scheduledTasks.get(0), scheduledTasks.get(1));
+        new Verifications()
+        {
+            {
+                mockedStore.sync();
+                times = 1;
+            }
+        };
+
+        // once the store is closed, the task neither syncs it nor schedules itself again
+        Deencapsulation.setField(transport, "persistentStore", null);
+        scheduledTasks.get(0).run();
+        assertEquals(2, scheduledTasks.size());
+        new Verifications()
+        {
+            {
+                mockedStore.sync();
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_030: [If the persistent message store cannot be opened, including because
+    // its directory is used by another client, this function shall throw a TransportException.]
+    @Test (expected = TransportException.class)
+    public void openPersistentStoreThrowsIfStoreCannotBeOpened(final @Mocked PersistentMessageStore mockedStore) throws Throwable
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getPersistentQueueDirectory();
+                result = "queue";
+                new PersistentMessageStore((File) any, (PersistentQueueSyncPolicy) any, anyInt);
+                result = new IOException();
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "openPersistentStore");
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_027: [This function shall close the persistent message store, keeping the
+    // messages cancelled on close persisted, and stop forcing its writes periodically.]
+    @Test
+    public void closeClosesPersistentStore(final @Mocked PersistentMessageStore mockedStore,
+                                           final @Mocked HashedWheelTimer.Timeout mockedTimeout) throws DeviceClientException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
+        Deencapsulation.setField(transport, "persistentStore", mockedStore);
+        Deencapsulation.setField(transport, "persistentStoreSyncTimeout", mockedTimeout);
+
+        //act
+        transport.close(CLIENT_CLOSE, null);
+
+        //assert
+        assertNull(Deencapsulation.getField(transport, "persistentStore"));
+        assertNull(Deencapsulation.getField(transport, "persistentStoreSyncTimeout"));
+        new Verifications()
+        {
+            {
+                mockedTimeout.cancel();
+                times = 1;
+                mockedStore.close();
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_032: [This function shall apply the outbound queue priority weights of the
+    // default config to the waiting queue.]
+    @Test
+    public void openAppliesPriorityWeights() throws DeviceClientException
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", DISCONNECTED);
+        Collection<DeviceClientConfig> configs = new ArrayList<>();
+        configs.add(mockedConfig);
+        new NonStrictExpectations(IotHubTransport.class)
+        {
+            {
+                Deencapsulation.invoke(transport, "isSasTokenExpired");
+                result = false;
+                Deencapsulation.invoke(transport, "openConnection");
+                mockedConfig.getOutboundQueuePriorityWeights();
+                result = new int[] {4, 2, 1};
+                mockedConfig.getPersistentQueueDirectory();
+                result = null;
+            }
+        };
+
+        //act
+        transport.open(configs);
+
+        //assert
+        Object waitingPacketsQueue = Deencapsulation.getField(transport, "waitingPacketsQueue");
+        int[] priorityWeights = Deencapsulation.getField(waitingPacketsQueue, "priorityWeights");
+        assertTrue(Arrays.equals(new int[] {4, 2, 1}, priorityWeights));
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_033: [If the message is a batch and the protocol has no batched send, this
+    // function shall add each message of the batch on its own, so they are pipelined on the connection.]
+    @Test
+    public void addMessageSplitsBatchForMqtt(final @Mocked BatchMessage mockedBatchMessage)
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+                mockedBatchMessage.getNestedMessages();
+                result = Arrays.asList(mockedMessage, mockedMessage);
+            }
+        };
+
+        //act
+        transport.addMessage(mockedBatchMessage, mockedEventCallback, context);
+
+        //assert
+        assertEquals(2, waitingPacketsQueue.size());
+        new Verifications()
+        {
+            {
+                new IotHubTransportPacket(mockedMessage, mockedEventCallback, context, null, anyLong);
+                times = 2;
+                new IotHubTransportPacket(mockedBatchMessage, mockedEventCallback, context, null, anyLong);
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_033: [If the message is a batch and the protocol has no batched send, this
+    // function shall add each message of the batch on its own, so they are pipelined on the connection.]
+    @Test
+    public void addMessageKeepsBatchForHttps(final @Mocked BatchMessage mockedBatchMessage)
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+
+        //act
+        transport.addMessage(mockedBatchMessage, mockedEventCallback, context);
+
+        //assert
+        assertEquals(1, waitingPacketsQueue.size());
+        new Verifications()
+        {
+            {
+                new IotHubTransportPacket(mockedBatchMessage, mockedEventCallback, context, null, anyLong);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_034: [If the message of the packet is a batch, its callback shall be
+    // executed once per message of the batch, in order, with that message and the status of the batch.]
+    //Tests_SRS_IOTHUBTRANSPORT_41_051: [If the callback is a batch callback, it shall be executed with the
+    // message, the status and the context.]
+    @Test
+    public void invokeCallbacksInvokesCallbackPerBatchedMessage(final @Mocked BatchMessage mockedBatchMessage,
+                                                                 final @Mocked IotHubBatchEventCallback mockedBatchCallback,
+                                                                 final @Injectable Message firstMessage,
+                                                                 final @Injectable Message secondMessage)
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        callbackPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getMessage();
+                result = mockedBatchMessage;
+                mockedBatchMessage.getNestedMessages();
+                result = Arrays.asList(firstMessage, secondMessage);
+                mockedPacket.getCallback();
+                result = mockedBatchCallback;
+                mockedPacket.getContext();
+                result = context;
+                mockedPacket.getStatus();
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+
+        //act
+        transport.invokeCallbacks();
+
+        //assert
+        new VerificationsInOrder()
+        {
+            {
+                mockedBatchCallback.execute(firstMessage, IotHubStatusCode.OK_EMPTY, context);
+                times = 1;
+                mockedBatchCallback.execute(secondMessage, IotHubStatusCode.OK_EMPTY, context);
+                times = 1;
+            }
+        };
+        new Verifications()
+        {
+            {
+                mockedBatchCallback.execute((IotHubStatusCode) any, any);
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_051: [If the callback is a batch callback, it shall be executed with the
+    // message, the status and the context.]
+    @Test
+    public void batchCallbackReportsEachMqttMessageWhenItCompletes(final @Mocked IotHubBatchEventCallback mockedBatchCallback,
+                                                                   final @Injectable Message firstMessage,
+                                                                   final @Injectable Message secondMessage,
+                                                                   final @Injectable IotHubTransportPacket firstPacket,
+                                                                   final @Injectable IotHubTransportPacket secondPacket)
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        final Map<String, IotHubTransportPacket> inProgressPackets = new ConcurrentHashMap<>();
+        inProgressPackets.put("1", firstPacket);
+        inProgressPackets.put("2", secondPacket);
+        Deencapsulation.setField(transport, "inProgressPackets", inProgressPackets);
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+                mockedConfig.getOperationTimeout();
+                result = Long.MAX_VALUE;
+                mockedConfig.getRetryPolicy();
+                result = mockedRetryPolicy;
+                mockedRetryPolicy.getRetryDecision(anyInt, (TransportException) any);
+                result = mockedRetryDecision;
+                mockedRetryDecision.shouldRetry();
+                result = true;
+                mockedTransportException.isRetryable();
+                result = true;
+
+                firstMessage.getMessageId();
+                result = "1";
+                secondMessage.getMessageId();
+                result = "2";
+                firstPacket.getMessage();
+                result = firstMessage;
+                secondPacket.getMessage();
+                result = secondMessage;
+                firstPacket.getStartTimeMillis();
+                result = System.currentTimeMillis();
+                firstPacket.getCallback();
+                result = mockedBatchCallback;
+                secondPacket.getCallback();
+                result = mockedBatchCallback;
+                firstPacket.getContext();
+                result = context;
+                secondPacket.getContext();
+                result = context;
+                firstPacket.getStatus();
+                result = IotHubStatusCode.OK_EMPTY;
+                secondPacket.getStatus();
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+
+        //act
+        // the first message of the batch fails and is scheduled for a retry, while the second one succeeds
+        transport.onMessageSent(firstMessage, mockedTransportException);
+        transport.onMessageSent(secondMessage, null);
+        transport.invokeCallbacks();
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedTimer.schedule((Runnable) any, anyLong);
+                times = 1;
+                mockedBatchCallback.execute(secondMessage, IotHubStatusCode.OK_EMPTY, context);
+                times = 1;
+                mockedBatchCallback.execute(firstMessage, (IotHubStatusCode) any, any);
+                times = 0;
+            }
+        };
+
+        //act
+        // the retry of the first message succeeds
+        inProgressPackets.put("1", firstPacket);
+        transport.onMessageSent(firstMessage, null);
+        transport.invokeCallbacks();
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedBatchCallback.execute(firstMessage, IotHubStatusCode.OK_EMPTY, context);
+                times = 1;
+                mockedBatchCallback.execute(secondMessage, IotHubStatusCode.OK_EMPTY, context);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_038: [If there was a packet in the inProgressPackets queue tied to the
+    // provided message, and the provided throwable is null, this function shall record the time since the
+    // packet was last sent as an acknowledgement latency of the send window.]
+    //Tests_SRS_IOTHUBTRANSPORT_41_039: [This function shall signal that there is work available, since the send
+    // window has room for one more message.]
+    @Test
+    public void onMessageSentGrowsSendWindowAndSignalsWork()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        transport.setEventDrivenTask(mockedEventDrivenTask);
+        final String messageId = "1234";
+        final Map<String, IotHubTransportPacket> inProgressPackets = new ConcurrentHashMap<>();
+        inProgressPackets.put(messageId, mockedPacket);
+        Deencapsulation.setField(transport, "inProgressPackets", inProgressPackets);
+        SendWindow sendWindow = Deencapsulation.getField(transport, "sendWindow");
+        final int initialLimit = sendWindow.getLimit();
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getMessageId();
+                result = messageId;
+                mockedPacket.getLastSendTimeNanos();
+                result = System.nanoTime();
+            }
+        };
+
+        //act
+        transport.onMessageSent(mockedMessage, null);
+
+        //assert
+        assertEquals(initialLimit + 1, sendWindow.getLimit());
+        new Verifications()
+        {
+            {
+                mockedEventDrivenTask.signalWorkAvailable();
+                minTimes = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_042: [This function shall record the failure in the send window.]
+    @Test
+    public void handleMessageExceptionShrinksSendWindow()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        SendWindow sendWindow = Deencapsulation.getField(transport, "sendWindow");
+        final int initialLimit = sendWindow.getLimit();
+        new NonStrictExpectations()
+        {
+            {
+                mockedTransportException.isRetryable();
+                result = false;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "handleMessageException", mockedPacket, mockedTransportException);
+
+        //assert
+        assertEquals(initialLimit / 2, sendWindow.getLimit());
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_040: [This function shall send at most as many packets as the send window
+    // allows, given the configured ceiling, the packets in progress and the window of the connection.]
+    @Test
+    public void sendMessagesSendsNoMoreThanConnectionWindow()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
+        for (int i = 0; i < 5; i++)
+        {
+            waitingPacketsQueue.add(mockedPacket);
+        }
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                mockedConfig.getSendWindowCeiling();
+                result = 1000;
+                mockedIotHubTransportConnection.getSendWindow();
+                result = 2;
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+                result = true;
+            }
+        };
+
+        //act
+        transport.sendMessages();
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+                times = 2;
+            }
+        };
+        assertEquals(3, waitingPacketsQueue.size());
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_040: [This function shall send at most as many packets as the send window
+    // allows, given the configured ceiling, the packets in progress and the window of the connection.]
+    @Test
+    public void sendMessagesSendsNothingWhileSendWindowIsFull()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
+        waitingPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        Map<String, IotHubTransportPacket> inProgressPackets = Deencapsulation.getField(transport, "inProgressPackets");
+        inProgressPackets.put("1", mockedPacket);
+        inProgressPackets.put("2", mockedPacket);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getSendWindowCeiling();
+                result = 2;
+                mockedIotHubTransportConnection.getSendWindow();
+                result = Integer.MAX_VALUE;
+            }
+        };
+
+        //act
+        transport.sendMessages();
+
+        //assert
+        assertEquals(1, waitingPacketsQueue.size());
+        assertFalse(transport.hasPendingWork());
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_048: [If the connection has no free slot to send the message, this
+    // function shall put the packet back at the head of the waiting queue, without counting a retry or
+    // recording a failure in the send window.]
+    @Test
+    public void sendPacketPutsPacketBackIfConnectionWindowIsFull() throws TransportException
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Map<String, IotHubTransportPacket> inProgressMessages = new HashMap<>();
+        OutboundPacketQueue waitingPacketsQueue = new OutboundPacketQueue();
+        Deencapsulation.setField(transport, "inProgressPackets", inProgressMessages);
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
+        SendWindow sendWindow = Deencapsulation.getField(transport, "sendWindow");
+        int initialLimit = sendWindow.getLimit();
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getMessage();
+                result = mockedTransportMessage;
+                mockedTransportMessage.isMessageAckNeeded((IotHubClientProtocol) any);
+                result = true;
+                mockedIotHubTransportConnection.sendMessage((Message) any);
+                result = new SendWindowFullException("full");
+            }
+        };
+
+        //act
+        boolean isSent = Deencapsulation.invoke(transport, "sendPacket", mockedPacket);
+
+        //assert
+        assertFalse(isSent);
+        assertEquals(0, inProgressMessages.size());
+        assertEquals(1, waitingPacketsQueue.size());
+        assertEquals(initialLimit, sendWindow.getLimit());
+        new Verifications()
+        {
+            {
+                mockedPacket.incrementRetryAttempt();
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_41_047: [This function shall stop dequeueing packets once the connection
+    // has no free slot to send a packet.]
+    @Test
+    public void sendMessagesStopsWhenConnectionHasNoFreeSlot()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedIotHubTransportConnection);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new OutboundPacketQueue();
+        for (int i = 0; i < 3; i++)
+        {
+            waitingPacketsQueue.add(mockedPacket);
+        }
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                mockedConfig.getSendWindowCeiling();
+                result = 1000;
+                mockedIotHubTransportConnection.getSendWindow();
+                result = Integer.MAX_VALUE;
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+                result = false;
+            }
+        };
+
+        //act
+        transport.sendMessages();
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+                times = 1;
+            }
+        };
+        assertEquals(2, waitingPacketsQueue.size());
+    }
+}
@@ -0,0 +1,219 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.OrderedCallbackDispatcher;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for OrderedCallbackDispatcher. */
+public class OrderedCallbackDispatcherTest
+{
+    /* Executor that only runs its tasks when asked to */
+    private static class ManualExecutor implements Executor
+    {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command)
+        {
+            tasks.add(command);
+        }
+
+        void runAll()
+        {
+            while (!tasks.isEmpty())
+            {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static Runnable record(final List<String> events, final String event)
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                events.add(event);
+            }
+        };
+    }
+
+    // Tests_SRS_ORDEREDCALLBACKDISPATCHER_41_001: [If the provided executor is null, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForNullExecutor()
+    {
+        //act
+        new OrderedCallbackDispatcher(null);
+    }
+
+    // Tests_SRS_ORDEREDCALLBACKDISPATCHER_41_003: [If the provided task is null, this function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void dispatchThrowsForNullTask()
+    {
+        //arrange
+        OrderedCallbackDispatcher dispatcher = new OrderedCallbackDispatcher(new ManualExecutor());
+
+        //act
+        dispatcher.dispatch(new Object(), null);
+    }
+
+    // Tests_SRS_ORDEREDCALLBACKDISPATCHER_41_002: [The constructor shall save the executor.]
+    // Tests_SRS_ORDEREDCALLBACKDISPATCHER_41_004: [If tasks with the same key are pending or running, this
+    // function shall queue the task behind them.]
+    // Tests_SRS_ORDEREDCALLBACKDISPATCHER_41_005: [Otherwise, this function shall submit a task to the executor
+    // that runs the tasks with this key in order, until there are none left.]
+    @Test
+    public void dispatchSubmitsOneDrainerPerKey()
+    {
+        //arrange
+        ManualExecutor executor = new ManualExecutor();
+        OrderedCallbackDispatcher dispatcher = new OrderedCallbackDispatcher(executor);
+        List<String> events = new ArrayList<>();
+        Object key1 = new Object();
+        Object key2 = new Object();
+
+        //act
+        dispatcher.dispatch(key1, record(events, "1a"));
+        dispatcher.dispatch(key2, record(events, "2a"));
+        dispatcher.dispatch(key1, record(events, "1b"));
+        dispatcher.dispatch(null, record(events, "null"));
+
+        //assert
+        assertEquals(3, executor.tasks.size());
+        executor.runAll();
+        assertEquals(4, events.size());
+        assertTrue(events.indexOf("1a") < events.indexOf("1b"));
+        assertTrue(events.contains("2a"));
+        assertTrue(events.contains("null"));
+    }
+
+    // Tests_SRS_ORDEREDCALLBACKDISPATCHER_41_005: [Otherwise, this function shall submit a task to the executor
+    // that runs the tasks with this key in order, until there are none left.]
+    @Test
+    public void dispatchSubmitsNewDrainerOnceKeyIsDrained()
+    {
+        //arrange
+        ManualExecutor executor = new ManualExecutor();
+        OrderedCallbackDispatcher dispatcher = new OrderedCallbackDispatcher(executor);
+        List<String> events = new ArrayList<>();
+        Object key = new Object();
+        dispatcher.dispatch(key, record(events, "a"));
+        executor.runAll();
+
+        //act
+        dispatcher.dispatch(key, record(events, "b"));
+
+        //assert
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(2, events.size());
+    }
+
+    // Tests_SRS_ORDEREDCALLBACKDISPATCHER_41_006: [If the executor rejects the task, this function shall run
+    // the tasks with this key on the calling thread.]
+    @Test
+    public void dispatchRunsInlineIfExecutorRejects()
+    {
+        //arrange
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        OrderedCallbackDispatcher dispatcher = new OrderedCallbackDispatcher(executor);
+        List<String> events = new ArrayList<>();
+
+        //act
+        dispatcher.dispatch(new Object(), record(events, "a"));
+
+        //assert
+        assertEquals(1, events.size());
+    }
+
+    // Tests_SRS_ORDEREDCALLBACKDISPATCHER_41_007: [An exception thrown by a task shall not prevent the
+    // following tasks with the same key from running.]
+    @Test
+    public void drainContinuesAfterTaskThrows()
+    {
+        //arrange
+        ManualExecutor executor = new ManualExecutor();
+        OrderedCallbackDispatcher dispatcher = new OrderedCallbackDispatcher(executor);
+        List<String> events = new ArrayList<>();
+        Object key = new Object();
+        dispatcher.dispatch(key, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                throw new RejectedExecutionException("callback failure");
+            }
+        });
+        dispatcher.dispatch(key, record(events, "b"));
+
+        //act
+        executor.runAll();
+
+        //assert
+        assertEquals(1, events.size());
+    }
+
+    // Tests_SRS_ORDEREDCALLBACKDISPATCHER_41_004: [If tasks with the same key are pending or running, this
+    // function shall queue the task behind them.]
+    @Test
+    public void dispatchPreservesOrderPerKeyOnThreadPool() throws InterruptedException
+    {
+        //arrange
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        OrderedCallbackDispatcher dispatcher = new OrderedCallbackDispatcher(executor);
+        final int tasksPerKey = 200;
+        final Object[] keys = {new Object(), new Object(), new Object()};
+        final List<List<Integer>> results = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(keys.length * tasksPerKey);
+        for (int k = 0; k < keys.length; k++)
+        {
+            results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+
+        //act
+        for (int i = 0; i < tasksPerKey; i++)
+        {
+            for (int k = 0; k < keys.length; k++)
+            {
+                final int value = i;
+                final List<Integer> result = results.get(k);
+                dispatcher.dispatch(keys[k], new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        result.add(value);
+                        done.countDown();
+                    }
+                });
+            }
+        }
+
+        //assert
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        for (List<Integer> result : results)
+        {
+            for (int i = 0; i < tasksPerKey; i++)
+            {
+                assertEquals(i, (int) result.get(i));
+            }
+        }
+    }
+}
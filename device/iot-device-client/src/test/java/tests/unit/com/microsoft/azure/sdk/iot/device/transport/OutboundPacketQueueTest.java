@@ -0,0 +1,509 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.BatchMessage;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessagePriority;
+import com.microsoft.azure.sdk.iot.device.MessageType;
+import com.microsoft.azure.sdk.iot.device.OutboundQueueFullPolicy;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportPacket;
+import com.microsoft.azure.sdk.iot.device.transport.OutboundPacketQueue;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for OutboundPacketQueue. */
+public class OutboundPacketQueueTest
+{
+    private static IotHubTransportPacket createPacket(int bodySize)
+    {
+        return new IotHubTransportPacket(new Message(new byte[bodySize]), null, null, null, System.currentTimeMillis());
+    }
+
+    private static IotHubTransportPacket createExpiredPacket(int bodySize)
+    {
+        Message message = new Message(new byte[bodySize]);
+        Deencapsulation.setField(message, "expiryTime", 1L);
+        return new IotHubTransportPacket(message, null, null, null, System.currentTimeMillis());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_001: [If the packet or the droppedPackets collection is null, this
+    // function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void admitThrowsForNullPacket() throws InterruptedException
+    {
+        //act
+        new OutboundPacketQueue().admit(null, 0, 0, OutboundQueueFullPolicy.REJECT, 0, new ArrayList<IotHubTransportPacket>());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_001: [If the packet or the droppedPackets collection is null, this
+    // function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void admitThrowsForNullDroppedPackets() throws InterruptedException
+    {
+        //act
+        new OutboundPacketQueue().admit(createPacket(1), 0, 0, OutboundQueueFullPolicy.REJECT, 0, null);
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_002: [If the packet fits within the provided capacity, this function
+    // shall add it to the queue and return true.]
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_007: [This function shall return the total size of the bodies of the
+    // queued messages.]
+    @Test
+    public void admitAddsPacketsWithoutLimit() throws InterruptedException
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        List<IotHubTransportPacket> droppedPackets = new ArrayList<>();
+
+        //act
+        for (int i = 0; i < 100; i++)
+        {
+            assertTrue(queue.admit(createPacket(10), 0, 0, OutboundQueueFullPolicy.REJECT, 0, droppedPackets));
+        }
+
+        //assert
+        assertEquals(100, queue.size());
+        assertEquals(1000, queue.getTotalBytes());
+        assertTrue(droppedPackets.isEmpty());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_006: [If the policy is REJECT, this function shall return false.]
+    @Test
+    public void admitRejectsWhenMessageCountReached() throws InterruptedException
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        List<IotHubTransportPacket> droppedPackets = new ArrayList<>();
+        queue.admit(createPacket(10), 1, 0, OutboundQueueFullPolicy.REJECT, 0, droppedPackets);
+
+        //act
+        boolean isAdmitted = queue.admit(createPacket(10), 1, 0, OutboundQueueFullPolicy.REJECT, 0, droppedPackets);
+
+        //assert
+        assertFalse(isAdmitted);
+        assertEquals(1, queue.size());
+        assertTrue(droppedPackets.isEmpty());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_006: [If the policy is REJECT, this function shall return false.]
+    @Test
+    public void admitRejectsWhenByteCountReached() throws InterruptedException
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        List<IotHubTransportPacket> droppedPackets = new ArrayList<>();
+        queue.admit(createPacket(10), 0, 15, OutboundQueueFullPolicy.REJECT, 0, droppedPackets);
+
+        //act
+        boolean isAdmitted = queue.admit(createPacket(10), 0, 15, null, 0, droppedPackets);
+
+        //assert
+        assertFalse(isAdmitted);
+        assertEquals(10, queue.getTotalBytes());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_005: [If the policy is DROP_OLDEST, this function shall remove
+    // the oldest packets from the queue until the new packet fits, starting with the lowest priority
+    // lane and never removing packets of a higher priority than the new packet.]
+    @Test
+    public void admitDropsOldestPackets() throws InterruptedException
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        List<IotHubTransportPacket> droppedPackets = new ArrayList<>();
+        IotHubTransportPacket oldest = createPacket(10);
+        IotHubTransportPacket second = createPacket(10);
+        IotHubTransportPacket newest = createPacket(15);
+        queue.admit(oldest, 0, 25, OutboundQueueFullPolicy.DROP_OLDEST, 0, droppedPackets);
+        queue.admit(second, 0, 25, OutboundQueueFullPolicy.DROP_OLDEST, 0, droppedPackets);
+
+        //act
+        boolean isAdmitted = queue.admit(newest, 0, 25, OutboundQueueFullPolicy.DROP_OLDEST, 0, droppedPackets);
+
+        //assert
+        assertTrue(isAdmitted);
+        assertEquals(1, droppedPackets.size());
+        assertSame(oldest, droppedPackets.get(0));
+        assertSame(second, queue.poll());
+        assertSame(newest, queue.poll());
+        assertEquals(0, queue.getTotalBytes());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_005: [If the policy is DROP_OLDEST, this function shall remove
+    // the oldest packets from the queue until the new packet fits, starting with the lowest priority
+    // lane and never removing packets of a higher priority than the new packet.]
+    @Test
+    public void admitDoesNotAdmitPacketLargerThanCapacity() throws InterruptedException
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        List<IotHubTransportPacket> droppedPackets = new ArrayList<>();
+
+        //act
+        boolean isAdmitted = queue.admit(createPacket(30), 0, 25, OutboundQueueFullPolicy.DROP_OLDEST, 0, droppedPackets);
+
+        //assert
+        assertFalse(isAdmitted);
+        assertTrue(queue.isEmpty());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_004: [If the policy is DROP_EXPIRED_FIRST, this function shall
+    // remove expired packets from the queue, then the oldest packets, until the new packet fits.]
+    @Test
+    public void admitDropsExpiredPacketsFirst() throws InterruptedException
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        List<IotHubTransportPacket> droppedPackets = new ArrayList<>();
+        IotHubTransportPacket oldest = createPacket(10);
+        IotHubTransportPacket expired = createExpiredPacket(10);
+        IotHubTransportPacket newest = createPacket(10);
+        queue.admit(oldest, 2, 0, OutboundQueueFullPolicy.DROP_EXPIRED_FIRST, 0, droppedPackets);
+        queue.admit(expired, 2, 0, OutboundQueueFullPolicy.DROP_EXPIRED_FIRST, 0, droppedPackets);
+
+        //act
+        boolean isAdmitted = queue.admit(newest, 2, 0, OutboundQueueFullPolicy.DROP_EXPIRED_FIRST, 0, droppedPackets);
+
+        //assert
+        assertTrue(isAdmitted);
+        assertEquals(1, droppedPackets.size());
+        assertSame(expired, droppedPackets.get(0));
+        assertSame(oldest, queue.poll());
+        assertSame(newest, queue.poll());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_004: [If the policy is DROP_EXPIRED_FIRST, this function shall
+    // remove expired packets from the queue, then the oldest packets, until the new packet fits.]
+    @Test
+    public void admitDropsOldestIfNoPacketExpired() throws InterruptedException
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        List<IotHubTransportPacket> droppedPackets = new ArrayList<>();
+        IotHubTransportPacket oldest = createPacket(10);
+        queue.admit(oldest, 1, 0, OutboundQueueFullPolicy.DROP_EXPIRED_FIRST, 0, droppedPackets);
+
+        //act
+        boolean isAdmitted = queue.admit(createPacket(10), 1, 0, OutboundQueueFullPolicy.DROP_EXPIRED_FIRST, 0, droppedPackets);
+
+        //assert
+        assertTrue(isAdmitted);
+        assertSame(oldest, droppedPackets.get(0));
+        assertEquals(1, queue.size());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_003: [If the policy is BLOCK, this function shall wait up to
+    // blockTimeoutMillis for room in the queue, and shall return false if there still is none.]
+    @Test
+    public void admitBlocksUntilTimeout() throws InterruptedException
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        List<IotHubTransportPacket> droppedPackets = new ArrayList<>();
+        queue.admit(createPacket(10), 1, 0, OutboundQueueFullPolicy.BLOCK, 0, droppedPackets);
+
+        //act
+        boolean isAdmitted = queue.admit(createPacket(10), 1, 0, OutboundQueueFullPolicy.BLOCK, 10, droppedPackets);
+
+        //assert
+        assertFalse(isAdmitted);
+        assertEquals(1, queue.size());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_003: [If the policy is BLOCK, this function shall wait up to
+    // blockTimeoutMillis for room in the queue, and shall return false if there still is none.]
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_010: [This function shall remove and return the oldest packet of the
+    // next lane to serve, or return null if the queue is empty, and shall wake up callers waiting for room in
+    // the queue.]
+    @Test
+    public void admitBlocksUntilPacketPolled() throws InterruptedException
+    {
+        //arrange
+        final OutboundPacketQueue queue = new OutboundPacketQueue();
+        final List<IotHubTransportPacket> droppedPackets = new ArrayList<>();
+        final IotHubTransportPacket newest = createPacket(10);
+        final boolean[] isAdmitted = new boolean[1];
+        queue.admit(createPacket(10), 1, 0, OutboundQueueFullPolicy.BLOCK, 0, droppedPackets);
+        Thread sender = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    isAdmitted[0] = queue.admit(newest, 1, 0, OutboundQueueFullPolicy.BLOCK, 10000, droppedPackets);
+                }
+                catch (InterruptedException e)
+                {
+                    isAdmitted[0] = false;
+                }
+            }
+        });
+        sender.start();
+
+        //act
+        queue.poll();
+        sender.join(10000);
+
+        //assert
+        assertFalse(sender.isAlive());
+        assertTrue(isAdmitted[0]);
+        assertSame(newest, queue.peek());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_008: [If the packet is null, this function shall throw a NullPointerException.]
+    @Test (expected = NullPointerException.class)
+    public void offerThrowsForNullPacket()
+    {
+        //act
+        new OutboundPacketQueue().offer(null);
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_009: [This function shall add the packet to the queue regardless of
+    // its capacity and return true.]
+    @Test
+    public void offerIgnoresCapacity() throws InterruptedException
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        List<IotHubTransportPacket> droppedPackets = new ArrayList<>();
+        queue.admit(createPacket(10), 1, 0, OutboundQueueFullPolicy.REJECT, 0, droppedPackets);
+
+        //act
+        boolean isAdded = queue.offer(createPacket(10));
+
+        //assert
+        assertTrue(isAdded);
+        assertEquals(2, queue.size());
+        assertEquals(20, queue.getTotalBytes());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_010: [This function shall remove and return the oldest packet of the
+    // next lane to serve, or return null if the queue is empty, and shall wake up callers waiting for room in
+    // the queue.]
+    @Test
+    public void pollReturnsNullIfEmpty()
+    {
+        //act
+        IotHubTransportPacket packet = new OutboundPacketQueue().poll();
+
+        //assert
+        assertNull(packet);
+    }
+
+    @Test (expected = UnsupportedOperationException.class)
+    public void iteratorDoesNotSupportRemove()
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        queue.add(createPacket(10));
+        Iterator<IotHubTransportPacket> iterator = queue.iterator();
+        iterator.next();
+
+        //act
+        iterator.remove();
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_011: [This function shall remove the provided packet from the queue,
+    // compared by identity, and return true if it was queued, and shall wake up callers waiting for room in the queue.]
+    @Test
+    public void removeRemovesPacketAndUpdatesSize()
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        IotHubTransportPacket first = createPacket(3);
+        IotHubTransportPacket second = createPacket(5);
+        queue.add(first);
+        queue.add(second);
+
+        //act
+        boolean isRemoved = queue.remove(first);
+        boolean isRemovedAgain = queue.remove(first);
+
+        //assert
+        assertTrue(isRemoved);
+        assertFalse(isRemovedAgain);
+        assertEquals(1, queue.size());
+        assertEquals(5, queue.getTotalBytes());
+        assertSame(second, queue.peek());
+    }
+
+    private static IotHubTransportPacket createPacket(MessageType messageType, MessagePriority priority)
+    {
+        Message message = new Message(new byte[1]);
+        message.setMessageType(messageType);
+        message.setPriority(priority);
+        return new IotHubTransportPacket(message, null, null, null, System.currentTimeMillis());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_010: [This function shall remove and return the oldest packet of the
+    // next lane to serve, or return null if the queue is empty, and shall wake up callers waiting for room in
+    // the queue.]
+    @Test
+    public void pollUsesStrictPriorityByDefault()
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        IotHubTransportPacket telemetry = createPacket(MessageType.DEVICE_TELEMETRY, null);
+        IotHubTransportPacket bulk = createPacket(MessageType.DEVICE_TELEMETRY, MessagePriority.LOW);
+        IotHubTransportPacket twin = createPacket(MessageType.DEVICE_TWIN, null);
+        IotHubTransportPacket method = createPacket(MessageType.DEVICE_METHODS, null);
+        IotHubTransportPacket urgentTelemetry = createPacket(MessageType.DEVICE_TELEMETRY, MessagePriority.HIGH);
+        queue.add(bulk);
+        queue.add(telemetry);
+        queue.add(twin);
+        queue.add(method);
+        queue.add(urgentTelemetry);
+
+        //act
+        //assert
+        assertSame(twin, queue.peek());
+        assertSame(twin, queue.poll());
+        assertSame(method, queue.poll());
+        assertSame(urgentTelemetry, queue.poll());
+        assertSame(telemetry, queue.poll());
+        assertSame(bulk, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_013: [This function shall save a copy of the weights, and use strict
+    // priority if they are null or empty.]
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_014: [With weighted priority, each lane shall be served in turn for
+    // as many packets in a row as its weight, skipping empty lanes.]
+    @Test
+    public void pollServesLanesByWeight()
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        queue.setPriorityWeights(new int[] {2, 1, 1});
+        List<IotHubTransportPacket> twins = new ArrayList<>();
+        List<IotHubTransportPacket> telemetry = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+        {
+            twins.add(createPacket(MessageType.DEVICE_TWIN, null));
+            telemetry.add(createPacket(MessageType.DEVICE_TELEMETRY, null));
+            queue.add(twins.get(i));
+            queue.add(telemetry.get(i));
+        }
+
+        //act
+        //assert
+        assertSame(twins.get(0), queue.poll());
+        assertSame(twins.get(1), queue.poll());
+        assertSame(telemetry.get(0), queue.poll());
+        assertSame(twins.get(2), queue.poll());
+        assertSame(twins.get(3), queue.poll());
+        assertSame(telemetry.get(1), queue.poll());
+        assertSame(telemetry.get(2), queue.poll());
+        assertSame(telemetry.get(3), queue.poll());
+        assertNull(queue.poll());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_016: [This function shall add the packet at the head of its lane
+    // regardless of the capacity of the queue, and give back the turn it took from its lane.]
+    @Test
+    public void offerFirstPutsPacketBackAtHeadOfItsTurn()
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        queue.setPriorityWeights(new int[] {2, 1, 1});
+        List<IotHubTransportPacket> twins = new ArrayList<>();
+        IotHubTransportPacket telemetry = createPacket(MessageType.DEVICE_TELEMETRY, null);
+        for (int i = 0; i < 2; i++)
+        {
+            twins.add(createPacket(MessageType.DEVICE_TWIN, null));
+            queue.add(twins.get(i));
+        }
+        queue.add(telemetry);
+        IotHubTransportPacket packet = queue.poll();
+
+        //act
+        queue.offerFirst(packet);
+
+        //assert
+        assertEquals(3, queue.size());
+        assertSame(twins.get(0), queue.poll());
+        assertSame(twins.get(1), queue.poll());
+        assertSame(telemetry, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_008: [If the packet is null, this function shall throw a NullPointerException.]
+    @Test (expected = NullPointerException.class)
+    public void offerFirstThrowsForNullPacket()
+    {
+        //act
+        new OutboundPacketQueue().offerFirst(null);
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_012: [If the weights are neither null nor empty and do not have
+    // one positive weight per priority, this function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setPriorityWeightsThrowsForMissingWeight()
+    {
+        //act
+        new OutboundPacketQueue().setPriorityWeights(new int[] {2, 1});
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_012: [If the weights are neither null nor empty and do not have
+    // one positive weight per priority, this function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setPriorityWeightsThrowsForZeroWeight()
+    {
+        //act
+        new OutboundPacketQueue().setPriorityWeights(new int[] {2, 0, 1});
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_005: [If the policy is DROP_OLDEST, this function shall remove
+    // the oldest packets from the queue until the new packet fits, starting with the lowest priority
+    // lane and never removing packets of a higher priority than the new packet.]
+    @Test
+    public void admitDropsLowerPriorityPacketsOnly() throws InterruptedException
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        List<IotHubTransportPacket> droppedPackets = new ArrayList<>();
+        IotHubTransportPacket twin = createPacket(MessageType.DEVICE_TWIN, null);
+        IotHubTransportPacket telemetry = createPacket(MessageType.DEVICE_TELEMETRY, null);
+        queue.add(twin);
+        queue.add(telemetry);
+
+        //act
+        boolean isMethodAdmitted = queue.admit(createPacket(MessageType.DEVICE_METHODS, null), 2, 0, OutboundQueueFullPolicy.DROP_OLDEST, 0, droppedPackets);
+        boolean isTelemetryAdmitted = queue.admit(createPacket(MessageType.DEVICE_TELEMETRY, null), 2, 0, OutboundQueueFullPolicy.DROP_OLDEST, 0, droppedPackets);
+
+        //assert
+        assertTrue(isMethodAdmitted);
+        assertFalse(isTelemetryAdmitted);
+        assertEquals(1, droppedPackets.size());
+        assertSame(telemetry, droppedPackets.get(0));
+        assertSame(twin, queue.poll());
+    }
+
+    // Tests_SRS_OUTBOUNDPACKETQUEUE_41_015: [The size of a batch shall be the total size of the bodies of its messages.]
+    @Test
+    public void batchSizeIsTotalSizeOfItsMessages() throws InterruptedException
+    {
+        //arrange
+        OutboundPacketQueue queue = new OutboundPacketQueue();
+        BatchMessage batchMessage = new BatchMessage(Arrays.asList(new Message(new byte[10]), new Message(new byte[20])));
+        IotHubTransportPacket packet = new IotHubTransportPacket(batchMessage, null, null, null, System.currentTimeMillis());
+
+        //act
+        queue.admit(packet, 0, 0, OutboundQueueFullPolicy.REJECT, 0, new ArrayList<IotHubTransportPacket>());
+
+        //assert
+        assertEquals(1, queue.size());
+        assertEquals(30, queue.getTotalBytes());
+        assertFalse(queue.admit(createPacket(1), 0, 30, OutboundQueueFullPolicy.REJECT, 0, new ArrayList<IotHubTransportPacket>()));
+    }
+}
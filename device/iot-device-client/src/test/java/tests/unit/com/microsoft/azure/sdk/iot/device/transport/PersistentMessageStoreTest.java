@@ -0,0 +1,327 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageDeliveryMode;
+import com.microsoft.azure.sdk.iot.device.MessagePriority;
+import com.microsoft.azure.sdk.iot.device.MessageType;
+import com.microsoft.azure.sdk.iot.device.PersistentQueueSyncPolicy;
+import com.microsoft.azure.sdk.iot.device.transport.PersistentMessageStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for PersistentMessageStore. */
+public class PersistentMessageStoreTest
+{
+    private static final int SEGMENT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static int countSegmentFiles(File directory)
+    {
+        File[] files = directory.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(".seg");
+            }
+        });
+        return files == null ? 0 : files.length;
+    }
+
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_001: [If directory or syncPolicy is null, or segmentSize is not larger
+    // than a record header, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForNullDirectory() throws IOException
+    {
+        //act
+        new PersistentMessageStore(null, PersistentQueueSyncPolicy.NONE, SEGMENT_SIZE);
+    }
+
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_001: [If directory or syncPolicy is null, or segmentSize is not larger
+    // than a record header, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForNullSyncPolicy() throws IOException
+    {
+        //act
+        new PersistentMessageStore(temporaryFolder.getRoot(), null, SEGMENT_SIZE);
+    }
+
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_002: [If the directory does not exist and cannot be created, the
+    // constructor shall throw an IOException.]
+    @Test (expected = IOException.class)
+    public void constructorThrowsIfDirectoryIsAFile() throws IOException
+    {
+        //act
+        new PersistentMessageStore(temporaryFolder.newFile("notADirectory"), PersistentQueueSyncPolicy.NONE, SEGMENT_SIZE);
+    }
+
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_003: [The constructor shall read the segment files of the directory
+    // in order and recover the messages that were not acknowledged, ignoring a torn last record.]
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_004: [This function shall return the recovered messages in the order
+    // they were appended.]
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_009: [This function shall write the record at the end of the active
+    // segment, writing its state last, and return its handle.]
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_011: [This function shall mark the record as acknowledged in place.]
+    @Test
+    public void recoversUnacknowledgedMessagesInOrder() throws IOException
+    {
+        //arrange
+        File directory = temporaryFolder.newFolder();
+        PersistentMessageStore store = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.ALWAYS, SEGMENT_SIZE);
+        Message first = new Message("first");
+        first.setMessageId("id1");
+        first.setCorrelationId("correlation1");
+        first.setAbsoluteExpiryTime(Long.MAX_VALUE);
+        first.setMessageType(MessageType.DEVICE_TELEMETRY);
+        first.setProperty("key", "value");
+        long firstHandle = store.append(first, "device1");
+        long secondHandle = store.append(new Message("second"), "device1");
+        store.append(new Message("third"), null);
+
+        //act
+        store.acknowledge(secondHandle);
+        store.close();
+        PersistentMessageStore reopened = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.ALWAYS, SEGMENT_SIZE);
+        List<PersistentMessageStore.StoredMessage> recovered = reopened.getRecoveredMessages();
+
+        //assert
+        assertEquals(2, recovered.size());
+        PersistentMessageStore.StoredMessage recoveredFirst = recovered.get(0);
+        assertEquals(firstHandle, recoveredFirst.getHandle());
+        assertEquals("device1", recoveredFirst.getDeviceId());
+        assertArrayEquals("first".getBytes(), recoveredFirst.getMessage().getBytes());
+        assertEquals("id1", recoveredFirst.getMessage().getMessageId());
+        assertEquals("correlation1", recoveredFirst.getMessage().getCorrelationId());
+        assertEquals(Long.MAX_VALUE, recoveredFirst.getMessage().getExpiryTime());
+        assertEquals(MessageType.DEVICE_TELEMETRY, recoveredFirst.getMessage().getMessageType());
+        assertEquals("value", recoveredFirst.getMessage().getProperty("key"));
+        assertNull(recovered.get(1).getDeviceId());
+        assertArrayEquals("third".getBytes(), recovered.get(1).getMessage().getBytes());
+        reopened.close();
+    }
+
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_003: [The constructor shall read the segment files of the directory
+    // in order and recover the messages that were not acknowledged, ignoring a torn last record.]
+    @Test
+    public void recoveredMessageRoundTripsAllFields() throws IOException
+    {
+        //arrange
+        File directory = temporaryFolder.newFolder();
+        PersistentMessageStore store = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.ALWAYS, SEGMENT_SIZE);
+        Message message = new Message("body");
+        message.setMessageId("id");
+        message.setCorrelationId("correlation");
+        message.setTo("/devices/device1/messages/events");
+        message.setUserId("user");
+        message.setDeliveryAcknowledgement("full");
+        message.setAbsoluteExpiryTime(Long.MAX_VALUE);
+        message.setMessageType(MessageType.DEVICE_TELEMETRY);
+        message.setPriority(MessagePriority.HIGH);
+        message.setDeliveryMode(MessageDeliveryMode.AT_MOST_ONCE);
+        message.setProperty("key1", "value1");
+        message.setProperty("key2", "value2");
+        store.append(message, "device1");
+        store.close();
+
+        //act
+        PersistentMessageStore reopened = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.ALWAYS, SEGMENT_SIZE);
+        Message recovered = reopened.getRecoveredMessages().get(0).getMessage();
+
+        //assert
+        assertArrayEquals(message.getBytes(), recovered.getBytes());
+        assertEquals(message.getMessageId(), recovered.getMessageId());
+        assertEquals(message.getCorrelationId(), recovered.getCorrelationId());
+        assertEquals(message.getTo(), recovered.getTo());
+        assertEquals(message.getUserId(), recovered.getUserId());
+        assertEquals(message.getDeliveryAcknowledgement(), recovered.getDeliveryAcknowledgement());
+        assertEquals(message.getExpiryTime(), recovered.getExpiryTime());
+        assertEquals(message.getMessageType(), recovered.getMessageType());
+        assertEquals(message.getPriority(), recovered.getPriority());
+        assertEquals(message.getDeliveryMode(), recovered.getDeliveryMode());
+        assertEquals(message.getProperties().length, recovered.getProperties().length);
+        for (int i = 0; i < message.getProperties().length; i++)
+        {
+            assertEquals(message.getProperties()[i].getName(), recovered.getProperties()[i].getName());
+            assertEquals(message.getProperties()[i].getValue(), recovered.getProperties()[i].getValue());
+        }
+        assertEquals(message.getIotHubConnectionString(), recovered.getIotHubConnectionString());
+        reopened.close();
+    }
+
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_003: [The constructor shall read the segment files of the directory
+    // in order and recover the messages that were not acknowledged, ignoring a torn last record.]
+    @Test
+    public void recoveryIgnoresTornRecord() throws IOException
+    {
+        //arrange
+        File directory = temporaryFolder.newFolder();
+        PersistentMessageStore store = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.NONE, SEGMENT_SIZE);
+        store.append(new Message("kept"), null);
+        long tornHandle = store.append(new Message("torn"), null);
+        store.close();
+
+        // corrupt the payload of the last record, as if the process stopped while writing it
+        File segmentFile = directory.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile, "rw"))
+        {
+            file.seek((int) tornHandle + 12);
+            file.write(0x7F);
+        }
+
+        //act
+        PersistentMessageStore reopened = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.NONE, SEGMENT_SIZE);
+
+        //assert
+        List<PersistentMessageStore.StoredMessage> recovered = reopened.getRecoveredMessages();
+        assertEquals(1, recovered.size());
+        assertArrayEquals("kept".getBytes(), recovered.get(0).getMessage().getBytes());
+        reopened.close();
+    }
+
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_008: [If the message does not fit in the active segment, this
+    // function shall start a new segment file.]
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_012: [If all the records of a segment other than the active one are
+    // acknowledged, this function shall delete the segment file.]
+    @Test
+    public void rollsAndDeletesAcknowledgedSegments() throws IOException
+    {
+        //arrange
+        File directory = temporaryFolder.newFolder();
+        PersistentMessageStore store = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.PERIODIC, SEGMENT_SIZE);
+        long firstHandle = store.append(new Message(new byte[600]), null);
+
+        //act
+        long secondHandle = store.append(new Message(new byte[600]), null);
+
+        //assert
+        assertEquals(2, countSegmentFiles(directory));
+        store.acknowledge(firstHandle);
+        assertEquals(1, countSegmentFiles(directory));
+        store.acknowledge(secondHandle);
+        assertEquals(1, countSegmentFiles(directory));
+        store.close();
+
+        PersistentMessageStore reopened = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.PERIODIC, SEGMENT_SIZE);
+        assertTrue(reopened.getRecoveredMessages().isEmpty());
+        assertEquals(0, countSegmentFiles(directory));
+        reopened.close();
+    }
+
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_014: [If the directory is locked by another store, in this process or
+    // in another one, the constructor shall throw an IOException.]
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_013: [This function shall force the writes unless the sync policy is
+    // NONE, and release the segment files and the lock of the directory.]
+    @Test
+    public void constructorThrowsIfDirectoryIsLockedUntilClosed() throws IOException
+    {
+        //arrange
+        File directory = temporaryFolder.newFolder();
+        PersistentMessageStore store = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.NONE, SEGMENT_SIZE);
+        store.append(new Message("body"), "device1");
+        boolean exceptionThrown = false;
+
+        //act
+        try
+        {
+            new PersistentMessageStore(directory, PersistentQueueSyncPolicy.NONE, SEGMENT_SIZE);
+        }
+        catch (IOException e)
+        {
+            exceptionThrown = true;
+        }
+
+        //assert
+        assertTrue(exceptionThrown);
+        store.close();
+        PersistentMessageStore reopened = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.NONE, SEGMENT_SIZE);
+        assertEquals(1, reopened.getRecoveredMessages().size());
+        reopened.close();
+    }
+
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_015: [This function shall force the segments written since their last
+    // sync, unless the sync policy is NONE.]
+    @Test
+    public void syncKeepsRecordsAndDoesNothingOnceClosed() throws IOException
+    {
+        //arrange
+        File directory = temporaryFolder.newFolder();
+        PersistentMessageStore store = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.PERIODIC, SEGMENT_SIZE);
+        store.append(new Message("body"), null);
+
+        //act
+        store.sync();
+        store.close();
+        store.sync();
+
+        //assert
+        PersistentMessageStore reopened = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.PERIODIC, SEGMENT_SIZE);
+        assertEquals(1, reopened.getRecoveredMessages().size());
+        reopened.close();
+    }
+
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_010: [If the handle does not designate a pending message, this
+    // function shall do nothing.]
+    @Test
+    public void acknowledgeTwiceDoesNothing() throws IOException
+    {
+        //arrange
+        File directory = temporaryFolder.newFolder();
+        PersistentMessageStore store = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.NONE, SEGMENT_SIZE);
+        long handle = store.append(new Message("body"), null);
+        store.append(new Message("body"), null);
+
+        //act
+        store.acknowledge(handle);
+        store.acknowledge(handle);
+        store.acknowledge(-1);
+        store.close();
+
+        //assert
+        PersistentMessageStore reopened = new PersistentMessageStore(directory, PersistentQueueSyncPolicy.NONE, SEGMENT_SIZE);
+        assertEquals(1, reopened.getRecoveredMessages().size());
+        reopened.close();
+    }
+
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_005: [If the message is null, this function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void appendThrowsForNullMessage() throws IOException
+    {
+        //act
+        new PersistentMessageStore(temporaryFolder.newFolder(), PersistentQueueSyncPolicy.NONE, SEGMENT_SIZE).append(null, null);
+    }
+
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_006: [If the store is closed, this function shall throw an IOException.]
+    @Test (expected = IOException.class)
+    public void appendThrowsIfClosed() throws IOException
+    {
+        //arrange
+        PersistentMessageStore store = new PersistentMessageStore(temporaryFolder.newFolder(), PersistentQueueSyncPolicy.ALWAYS, SEGMENT_SIZE);
+        store.close();
+
+        //act
+        store.append(new Message("body"), null);
+    }
+
+    // Tests_SRS_PERSISTENTMESSAGESTORE_41_007: [If the message does not fit in a segment, this function shall
+    // throw an IOException.]
+    @Test (expected = IOException.class)
+    public void appendThrowsForMessageLargerThanSegment() throws IOException
+    {
+        //act
+        new PersistentMessageStore(temporaryFolder.newFolder(), PersistentQueueSyncPolicy.NONE, SEGMENT_SIZE).append(new Message(new byte[SEGMENT_SIZE]), null);
+    }
+}
@@ -0,0 +1,120 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.SendWindow;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for SendWindow. */
+public class SendWindowTest
+{
+    private static final long LATENCY_NANOS = 1000000;
+    private static final int UNLIMITED = Integer.MAX_VALUE;
+
+    // Tests_SRS_SENDWINDOW_41_002: [This function shall return the room left in the window once the in flight
+    // messages are counted, bounded by the transport window, and never negative.]
+    @Test
+    public void getBudgetReturnsRoomLeftInWindow()
+    {
+        //arrange
+        SendWindow sendWindow = new SendWindow();
+
+        //act - assert
+        assertEquals(10, sendWindow.getBudget(1000, 0, UNLIMITED));
+        assertEquals(4, sendWindow.getBudget(1000, 6, UNLIMITED));
+        assertEquals(3, sendWindow.getBudget(1000, 6, 3));
+        assertEquals(0, sendWindow.getBudget(1000, 12, UNLIMITED));
+        assertEquals(0, sendWindow.getBudget(1000, 0, 0));
+    }
+
+    // Tests_SRS_SENDWINDOW_41_001: [This function shall cap the window to the provided ceiling, or to 1 if the
+    // ceiling is lower.]
+    @Test
+    public void getBudgetCapsWindowToCeiling()
+    {
+        //arrange
+        SendWindow sendWindow = new SendWindow();
+
+        //act - assert
+        assertEquals(4, sendWindow.getBudget(4, 0, UNLIMITED));
+        assertEquals(4, sendWindow.getLimit());
+        assertEquals(1, sendWindow.getBudget(0, 0, UNLIMITED));
+        assertEquals(1, sendWindow.getLimit());
+    }
+
+    // Tests_SRS_SENDWINDOW_41_003: [If the latency is at most twice the lowest latency seen, this function
+    // shall grow the window by one message, up to the ceiling.]
+    @Test
+    public void onAcknowledgedGrowsWindowUpToCeiling()
+    {
+        //arrange
+        SendWindow sendWindow = new SendWindow();
+        sendWindow.getBudget(15, 0, UNLIMITED);
+
+        //act
+        for (int i = 0; i < 10; i++)
+        {
+            sendWindow.onAcknowledged(LATENCY_NANOS);
+        }
+
+        //assert
+        assertEquals(15, sendWindow.getLimit());
+        assertEquals(15, sendWindow.getBudget(15, 0, UNLIMITED));
+    }
+
+    // Tests_SRS_SENDWINDOW_41_004: [Otherwise this function shall shrink the window by a quarter, unless it
+    // already shrank during the last window of acknowledgements.]
+    @Test
+    public void onAcknowledgedShrinksWindowOncePerWindowOfSlowAcknowledgements()
+    {
+        //arrange
+        SendWindow sendWindow = new SendWindow();
+        sendWindow.getBudget(1000, 0, UNLIMITED);
+        sendWindow.onAcknowledged(LATENCY_NANOS);
+        assertEquals(11, sendWindow.getLimit());
+
+        //act
+        sendWindow.onAcknowledged(3 * LATENCY_NANOS);
+        sendWindow.onAcknowledged(3 * LATENCY_NANOS);
+
+        //assert
+        assertEquals(8, sendWindow.getLimit());
+
+        //act
+        for (int i = 0; i < 8; i++)
+        {
+            sendWindow.onAcknowledged(3 * LATENCY_NANOS);
+        }
+
+        //assert
+        assertEquals(6, sendWindow.getLimit());
+    }
+
+    // Tests_SRS_SENDWINDOW_41_005: [This function shall halve the window, unless it already shrank during the
+    // last window of acknowledgements.]
+    @Test
+    public void onRejectedHalvesWindowDownToOne()
+    {
+        //arrange
+        SendWindow sendWindow = new SendWindow();
+
+        //act
+        sendWindow.onRejected();
+
+        //assert
+        assertEquals(5, sendWindow.getLimit());
+
+        //act
+        for (int i = 0; i < 20; i++)
+        {
+            sendWindow.onRejected();
+        }
+
+        //assert
+        assertEquals(1, sendWindow.getLimit());
+        assertEquals(1, sendWindow.getBudget(1000, 0, UNLIMITED));
+    }
+}
@@ -8,6 +8,11 @@ import mockit.Mocked;
 import mockit.Verifications;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -58,4 +63,47 @@ public class AmqpsDeviceAuthenticationCBSSendTaskTest
             }
         };
     }
+
+    // Tests_SRS_AMQPSDEVICEAUTHENTICATIONCBSSENDTASK_41_001: [If an executor is set, the function shall
+    // call the amqpsDeviceAuthenticationCBS.sendAuthenticationMessages on that executor.]
+    @Test
+    public void runSendsOnExecutor() throws IllegalArgumentException
+    {
+        // arrange
+        final List<Runnable> executed = new ArrayList<>();
+        AmqpsDeviceAuthenticationCBSSendTask amqpsSessionManagerTask = new AmqpsDeviceAuthenticationCBSSendTask(mockAmqpsDeviceAuthenticationCBS);
+        Deencapsulation.invoke(amqpsSessionManagerTask, "setExecutor", new Class[] {Executor.class}, new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                executed.add(command);
+            }
+        });
+
+        // act
+        amqpsSessionManagerTask.run();
+
+        // assert
+        assertEquals(1, executed.size());
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsDeviceAuthenticationCBS, "sendAuthenticationMessages");
+                times = 0;
+            }
+        };
+
+        // act
+        executed.get(0).run();
+
+        // assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsDeviceAuthenticationCBS, "sendAuthenticationMessages");
+                times = 1;
+            }
+        };
+    }
 }
@@ -822,7 +822,7 @@ public class AmqpsDeviceMethodsTest
                 result = null;
 
                 mockIotHubTransportMessage.getProperties();
-                times = 2;
+                times = 1;
                 result = properties;
                 mockMessageProperty.getName();
                 times = 2;
@@ -889,7 +889,7 @@ public class AmqpsDeviceMethodsTest
                 result = null;
 
                 mockIotHubTransportMessage.getProperties();
-                times = 2;
+                times = 1;
                 result = properties;
                 mockMessageProperty.getName();
                 times = 2;
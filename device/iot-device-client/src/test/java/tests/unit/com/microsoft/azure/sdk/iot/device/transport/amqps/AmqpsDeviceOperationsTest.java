@@ -968,4 +968,68 @@ public class AmqpsDeviceOperationsTest
         //assert
         assertTrue(receiverLinkAddress.equals("xxx"));
     }
+
+    // Tests_SRS_AMQPSDEVICEOPERATIONS_41_001: [The function shall set the message format of the delivery if it is not the default one.]
+    @Test
+    public void sendMessageAndGetDeliveryHashSetsMessageFormat()
+    {
+        //arrange
+        AmqpsDeviceOperations amqpsDeviceOperations = Deencapsulation.newInstance(AmqpsDeviceOperations.class);
+        final byte[] msgData = new byte[1];
+        final byte[] deliveryTag = new byte[1];
+        final int messageFormat = 0x80013700;
+        Deencapsulation.setField(amqpsDeviceOperations, "senderLink", mockSender);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockSender.delivery(deliveryTag);
+                result = mockDelivery;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(amqpsDeviceOperations, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_TELEMETRY, msgData, 0, 1, deliveryTag, messageFormat);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockDelivery.setMessageFormat(messageFormat);
+                times = 1;
+                mockSender.send(msgData, 0, 1);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSDEVICEOPERATIONS_41_001: [The function shall set the message format of the delivery if it is not the default one.]
+    @Test
+    public void sendMessageAndGetDeliveryHashKeepsDefaultMessageFormat()
+    {
+        //arrange
+        AmqpsDeviceOperations amqpsDeviceOperations = Deencapsulation.newInstance(AmqpsDeviceOperations.class);
+        final byte[] deliveryTag = new byte[1];
+        Deencapsulation.setField(amqpsDeviceOperations, "senderLink", mockSender);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockSender.delivery(deliveryTag);
+                result = mockDelivery;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(amqpsDeviceOperations, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_TELEMETRY, new byte[1], 0, 1, deliveryTag);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockDelivery.setMessageFormat(anyInt);
+                times = 0;
+            }
+        };
+    }
 }
@@ -10,10 +10,14 @@ import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import mockit.Verifications;
+import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Binary;
 import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
 import org.apache.qpid.proton.amqp.messaging.Data;
 import org.apache.qpid.proton.amqp.messaging.Properties;
+import org.apache.qpid.proton.codec.AMQPDefinedTypes;
+import org.apache.qpid.proton.codec.DecoderImpl;
+import org.apache.qpid.proton.codec.EncoderImpl;
 import org.apache.qpid.proton.engine.Delivery;
 import org.apache.qpid.proton.engine.Receiver;
 import org.apache.qpid.proton.engine.Sender;
@@ -23,6 +27,8 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -461,6 +467,8 @@ public class AmqpsDeviceTelemetryTest
                 result = messageId;
                 mockMessage.getCorrelationId();
                 result = correlationId;
+                mockMessage.getTemplate();
+                result = null;
                 mockMessage.getProperties();
                 result = iotHubMessageProperties;
                 new ApplicationProperties(userProperties);
@@ -577,6 +585,100 @@ public class AmqpsDeviceTelemetryTest
             }
         };
     }
-}
 
+    // Tests_SRS_AMQPSDEVICETELEMETRY_41_001: [If the message is a batch, the function shall convert each of its
+    // messages and return a batched Proton message holding them, with the message id of the batch.]
+    // Tests_SRS_AMQPSBATCHMESSAGE_41_001: [The constructor shall encode each message into a Data section.]
+    // Tests_SRS_AMQPSBATCHMESSAGE_41_002: [This function shall encode the envelope of the batch followed by the
+    // Data section of each message, and return the encoded length.]
+    @Test
+    public void convertToProtonEncodesBatchAsDataSections()
+    {
+        //arrange
+        Message first = new Message("first");
+        Message second = new Message("second");
+        BatchMessage batchMessage = new BatchMessage(Arrays.asList(first, second));
+        AmqpsDeviceTelemetry amqpsDeviceTelemetry = Deencapsulation.newInstance(AmqpsDeviceTelemetry.class, mockDeviceClientConfig);
+
+        //act
+        AmqpsConvertToProtonReturnValue amqpsConvertToProtonReturnValue = Deencapsulation.invoke(amqpsDeviceTelemetry, "convertToProton", batchMessage);
+
+        //assert
+        assertEquals(MessageType.DEVICE_TELEMETRY, Deencapsulation.invoke(amqpsConvertToProtonReturnValue, "getMessageType"));
+        MessageImpl protonMessage = Deencapsulation.invoke(amqpsConvertToProtonReturnValue, "getMessageImpl");
+        byte[] buffer = new byte[1024];
+        int length = protonMessage.encode(buffer, 0, buffer.length);
+
+        DecoderImpl decoder = new DecoderImpl();
+        AMQPDefinedTypes.registerAllTypes(decoder, new EncoderImpl(decoder));
+        decoder.setByteBuffer(ByteBuffer.wrap(buffer, 0, length));
+        assertEquals(batchMessage.getMessageId(), ((Properties) decoder.readObject()).getMessageId());
+        for (Message nestedMessage : Arrays.asList(first, second))
+        {
+            Binary encodedMessage = ((Data) decoder.readObject()).getValue();
+            MessageImpl decodedMessage = (MessageImpl) Proton.message();
+            decodedMessage.decode(encodedMessage.getArray(), encodedMessage.getArrayOffset(), encodedMessage.getLength());
+            assertEquals(nestedMessage.getMessageId(), decodedMessage.getMessageId());
+            assertArrayEquals(nestedMessage.getBytes(), ((Data) decodedMessage.getBody()).getValue().getArray());
+        }
+        assertFalse(decoder.getByteBuffer().hasRemaining());
+    }
+
+    // Tests_SRS_AMQPSDEVICETELEMETRY_41_002: [If the body is backed by an array, the proton message body shall share it instead of copying it.]
+    @Test
+    public void iotHubMessageToProtonMessageSharesBodyRegion()
+    {
+        //arrange
+        byte[] payload = "headerBODYtrailer".getBytes();
+        ByteBuffer region = ByteBuffer.wrap(payload, 6, 4);
+        Message message = new Message(region);
+        AmqpsDeviceTelemetry amqpsDeviceTelemetry = Deencapsulation.newInstance(AmqpsDeviceTelemetry.class, mockDeviceClientConfig);
+
+        //act
+        MessageImpl protonMessage = Deencapsulation.invoke(amqpsDeviceTelemetry, "iotHubMessageToProtonMessage", message);
+
+        //assert
+        Binary body = ((Data) protonMessage.getBody()).getValue();
+        assertSame(payload, body.getArray());
+        assertEquals(6, body.getArrayOffset());
+        assertEquals(4, body.getLength());
+    }
+
+    // Tests_SRS_AMQPSDEVICETELEMETRY_12_023: [The function shall set the proton message body using the IotHubTransportMessage body.]
+    @Test
+    public void iotHubMessageToProtonMessageCopiesDirectBody()
+    {
+        //arrange
+        ByteBuffer direct = ByteBuffer.allocateDirect(4);
+        direct.put("BODY".getBytes());
+        direct.flip();
+        Message message = new Message(direct);
+        AmqpsDeviceTelemetry amqpsDeviceTelemetry = Deencapsulation.newInstance(AmqpsDeviceTelemetry.class, mockDeviceClientConfig);
+
+        //act
+        MessageImpl protonMessage = Deencapsulation.invoke(amqpsDeviceTelemetry, "iotHubMessageToProtonMessage", message);
+
+        //assert
+        Binary body = ((Data) protonMessage.getBody()).getValue();
+        assertEquals(new Binary("BODY".getBytes()), body);
+    }
 
+    // Tests_SRS_AMQPSDEVICETELEMETRY_41_003: [If the message is attached to a template, the function shall use the application properties prepared by the template.]
+    @Test
+    public void iotHubMessageToProtonMessageUsesTemplateApplicationProperties()
+    {
+        //arrange
+        Message prototype = new Message();
+        prototype.setProperty("schema", "v1");
+        MessageTemplate template = new MessageTemplate(prototype);
+        Message message = template.newMessage("BODY".getBytes());
+        AmqpsDeviceTelemetry amqpsDeviceTelemetry = Deencapsulation.newInstance(AmqpsDeviceTelemetry.class, mockDeviceClientConfig);
+
+        //act
+        MessageImpl protonMessage = Deencapsulation.invoke(amqpsDeviceTelemetry, "iotHubMessageToProtonMessage", message);
+
+        //assert
+        assertSame(template.getApplicationProperties(), protonMessage.getApplicationProperties().getValue());
+        assertEquals(message.getMessageId(), protonMessage.getMessageId());
+    }
+}
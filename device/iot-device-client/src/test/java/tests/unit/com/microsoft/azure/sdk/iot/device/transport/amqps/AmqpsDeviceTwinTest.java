@@ -1436,7 +1436,7 @@ public class AmqpsDeviceTwinTest
                 result = null;
 
                 mockIotHubTransportMessage.getProperties();
-                times = 2;
+                times = 1;
                 result = properties;
                 mockMessageProperty.getName();
                 times = 2;
@@ -955,6 +955,141 @@ public class AmqpsIotHubConnectionTest {
         };
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_013: [If the reactor is running, the function shall close the Proton
+    // objects and stop the reactor on the reactor thread. Otherwise it shall close them on the calling thread.]
+    @Test
+    public void closeAsyncClosesProtonOnReactorThread() throws TransportException
+    {
+        //arrange
+        baseExpectations();
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
+        Deencapsulation.setField(connection, "connection", mockConnection);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getReactor();
+                result = mockReactor;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(connection, "closeAsync");
+
+        //assert
+        IotHubConnectionStatus actualState = Deencapsulation.getField(connection, "state");
+        assertEquals(IotHubConnectionStatus.DISCONNECTED, actualState);
+        new Verifications()
+        {
+            {
+                mockConnection.close();
+                times = 0;
+                mockReactor.stop();
+                times = 0;
+            }
+        };
+
+        //act
+        connection.onReactorQuiesced(mockEvent);
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "closeNow");
+                times = 1;
+                mockConnection.close();
+                times = 1;
+                mockReactor.stop();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_015: [If the reactor ended, or did not end in time, without running the
+    // queued close, the function shall close the Proton objects on the calling thread.]
+    @Test
+    public void closeClosesProtonIfReactorDidNotRunTheClose() throws TransportException
+    {
+        //arrange
+        baseExpectations();
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        this.setLatches(connection);
+        Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
+        Deencapsulation.setField(connection, "connection", mockConnection);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getReactor();
+                result = mockReactor;
+            }
+        };
+
+        //act
+        connection.close();
+        connection.onReactorQuiesced(mockEvent);
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "closeNow");
+                times = 1;
+                mockConnection.close();
+                times = 1;
+                mockReactor.stop();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_014: [The constructor shall have the AmqpsSessionManager send its CBS
+    // messages on the reactor thread.]
+    @Test
+    public void constructorSendsCBSMessagesOnReactorThread(@Mocked final Runnable mockCBSSend) throws TransportException
+    {
+        //arrange
+        baseExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getReactor();
+                result = mockReactor;
+            }
+        };
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        final Executor reactorExecutor = Deencapsulation.getField(connection, "reactorExecutor");
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+
+        //act
+        reactorExecutor.execute(mockCBSSend);
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "setCBSSendExecutor", new Class[] {Executor.class}, reactorExecutor);
+                times = 1;
+                mockCBSSend.run();
+                times = 0;
+            }
+        };
+
+        //act
+        connection.onReactorQuiesced(mockEvent);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockCBSSend.run();
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_12_005: [The function shall throw IOException if the executor shutdown is interrupted.]
     @Test (expected = InterruptedException.class)
     public void closeThrowsIfShutdownThrows() throws TransportException
@@ -1137,6 +1272,8 @@ public class AmqpsIotHubConnectionTest {
 
     // Tests_SRS_AMQPSIOTHUBCONNECTION_12_011: [The function shall call countdown on close latch and open latch.]
     // Test_SRS_AMQPSIOTHUBCONNECTION_12_008: [The function shall set the reactor member variable to null.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_008: [The function shall drop the messages not handed to Proton yet, as
+    // the transport sends again the messages in progress once it reconnects.]
     @Test
     public void onReactorFinalNoReconnect() throws TransportException
     {
@@ -1165,8 +1302,12 @@ public class AmqpsIotHubConnectionTest {
             }
         };
 
+        Queue<Object> reactorTasks = Deencapsulation.getField(connection, "reactorTasks");
+        reactorTasks.add(new Object());
+
         connection.onReactorFinal(mockEvent);
 
+        assertTrue(reactorTasks.isEmpty());
         Reactor reactor = Deencapsulation.getField(connection, "reactor");
         assertEquals(null, reactor);
         IotHubConnectionStatus state = Deencapsulation.getField(connection, "state");
@@ -1780,6 +1921,8 @@ public class AmqpsIotHubConnectionTest {
     }
 
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_040: [The event handler shall save the remaining link credit.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_010: [If the link has credit, the event handler shall notify the
+    // listener that the send window opened.]
     @Test
     public void onLinkFlow() throws TransportException
     {
@@ -1796,6 +1939,7 @@ public class AmqpsIotHubConnectionTest {
         };
 
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        connection.setListener(mockedIotHubListener);
         connection.onLinkFlow(mockEvent);
 
         Integer expectedLinkCredit = 100;
@@ -1810,6 +1954,38 @@ public class AmqpsIotHubConnectionTest {
                 times = 1;
                 mockSender.getCredit();
                 times = 1;
+                mockedIotHubListener.onSendWindowOpened();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_010: [If the link has credit, the event handler shall notify the
+    // listener that the send window opened.]
+    @Test
+    public void onLinkFlowDoesNotNotifyListenerWithoutCredit() throws TransportException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getCredit();
+                result = 0;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        connection.setListener(mockedIotHubListener);
+        connection.onLinkFlow(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockedIotHubListener.onSendWindowOpened();
+                times = 0;
             }
         };
     }
@@ -2043,9 +2219,18 @@ public class AmqpsIotHubConnectionTest {
         Map<com.microsoft.azure.sdk.iot.device.Message, AmqpsMessage> sendAckMessages = new ConcurrentHashMap<>();
         sendAckMessages.put(mockedTransportMessage, mockAmqpsMessage);
         Deencapsulation.setField(connection, "sendAckMessages", sendAckMessages);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getReactor();
+                result = mockReactor;
+            }
+        };
 
         //act
         boolean result = connection.sendMessageResult(mockedTransportMessage, IotHubMessageResult.COMPLETE);
+        connection.onReactorQuiesced(mockEvent);
 
         //assert
         assertTrue(result);
@@ -2074,9 +2259,18 @@ public class AmqpsIotHubConnectionTest {
         Map<com.microsoft.azure.sdk.iot.device.Message, AmqpsMessage> sendAckMessages = new ConcurrentHashMap<>();
         sendAckMessages.put(mockedTransportMessage, mockAmqpsMessage);
         Deencapsulation.setField(connection, "sendAckMessages", sendAckMessages);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getReactor();
+                result = mockReactor;
+            }
+        };
 
         //act
         boolean result = connection.sendMessageResult(mockedTransportMessage, IotHubMessageResult.REJECT);
+        connection.onReactorQuiesced(mockEvent);
 
         //assert
         new Verifications()
@@ -2103,9 +2297,18 @@ public class AmqpsIotHubConnectionTest {
         Map<com.microsoft.azure.sdk.iot.device.Message, AmqpsMessage> sendAckMessages = new ConcurrentHashMap<>();
         sendAckMessages.put(mockedTransportMessage, mockAmqpsMessage);
         Deencapsulation.setField(connection, "sendAckMessages", sendAckMessages);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getReactor();
+                result = mockReactor;
+            }
+        };
 
         //act
         boolean result = connection.sendMessageResult(mockedTransportMessage, IotHubMessageResult.ABANDON);
+        connection.onReactorQuiesced(mockEvent);
 
         //assert
         new Verifications()
@@ -2121,6 +2324,66 @@ public class AmqpsIotHubConnectionTest {
         };
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_012: [The function shall queue the ack for the reactor thread, since
+    // Proton is not thread safe, and return false if the reactor is not running.]
+    @Test
+    public void sendMessageResultAcknowledgesOnReactorThread() throws TransportException
+    {
+        //arrange
+        baseExpectations();
+        AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
+        Map<com.microsoft.azure.sdk.iot.device.Message, AmqpsMessage> sendAckMessages = new ConcurrentHashMap<>();
+        sendAckMessages.put(mockedTransportMessage, mockAmqpsMessage);
+        Deencapsulation.setField(connection, "sendAckMessages", sendAckMessages);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+
+        //act
+        boolean result = connection.sendMessageResult(mockedTransportMessage, IotHubMessageResult.COMPLETE);
+
+        //assert
+        assertTrue(result);
+        Queue<?> reactorTasks = Deencapsulation.getField(connection, "reactorTasks");
+        assertEquals(1, reactorTasks.size());
+        new Verifications()
+        {
+            {
+                mockReactor.wakeup();
+                times = 1;
+                mockAmqpsMessage.acknowledge((AmqpsMessage.ACK_TYPE) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_012: [The function shall queue the ack for the reactor thread, since
+    // Proton is not thread safe, and return false if the reactor is not running.]
+    @Test
+    public void sendMessageResultReturnsFalseIfReactorNotRunning() throws TransportException
+    {
+        //arrange
+        baseExpectations();
+        AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
+        Map<com.microsoft.azure.sdk.iot.device.Message, AmqpsMessage> sendAckMessages = new ConcurrentHashMap<>();
+        sendAckMessages.put(mockedTransportMessage, mockAmqpsMessage);
+        Deencapsulation.setField(connection, "sendAckMessages", sendAckMessages);
+
+        //act
+        boolean result = connection.sendMessageResult(mockedTransportMessage, IotHubMessageResult.COMPLETE);
+
+        //assert
+        assertFalse(result);
+        assertTrue(sendAckMessages.containsKey(mockedTransportMessage));
+        new Verifications()
+        {
+            {
+                mockAmqpsMessage.acknowledge((AmqpsMessage.ACK_TYPE) any);
+                times = 0;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSTRANSPORT_34_072: [If the provided message is not saved in the saved map of messages to acknowledge, this function shall return false.]
     @Test
     public void sendMessageResultReturnsFalseIfNoAssociatedAmqpsMessage() throws TransportException
@@ -2274,8 +2537,14 @@ public class AmqpsIotHubConnectionTest {
         connection.sendMessage(mockedTransportMessage);
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_007: [The function shall queue the Proton message for the reactor thread,
+    // wake up the reactor and return OK. Proton is not thread safe, so it is only called on the reactor thread.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_009: [The function shall send the queued messages in order, and wake up
+    // the reactor if it sent any, so that their frames are written without waiting for the reactor timeout.]
     // Tests_SRS_AMQPSTRANSPORT_34_077: [The function shall attempt to send the Proton message to IoTHub using the underlying AMQPS connection.]
-    // Tests_SRS_AMQPSTRANSPORT_34_078: [If the sent message hash is valid, it shall be added to the in progress map and this function shall return OK.]
+    // Tests_SRS_AMQPSTRANSPORT_34_078: [If the sent message hash is valid, it shall be added to the in progress map.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_011: [If the message is handed to Proton, the function shall
+    // decrement the saved link credit, as it is only refreshed on link flow events.]
     @Test
     public void sendMessageGetsHash() throws TransportException
     {
@@ -2285,6 +2554,8 @@ public class AmqpsIotHubConnectionTest {
         AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
         Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
         Deencapsulation.setField(connection, "linkCredit", 20);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        connection.setListener(mockedIotHubListener);
         new NonStrictExpectations()
         {
             {
@@ -2302,6 +2573,9 @@ public class AmqpsIotHubConnectionTest {
 
                 Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessage", new Class[] {Message.class, MessageType.class, IotHubConnectionString.class}, mockedMessageImpl, MessageType.DEVICE_TWIN, mockConnectionString);
                 result = expectedHash;
+
+                mockEvent.getReactor();
+                result = mockReactor;
             }
         };
 
@@ -2310,13 +2584,87 @@ public class AmqpsIotHubConnectionTest {
 
         //assert
         Map<Integer, com.microsoft.azure.sdk.iot.device.Message> inProgressMessages = Deencapsulation.getField(connection, "inProgressMessages");
-        assertTrue(inProgressMessages.containsKey(expectedHash));
         assertEquals(IotHubStatusCode.OK, actualStatusCode);
+        assertTrue(inProgressMessages.isEmpty());
+        new Verifications()
+        {
+            {
+                mockReactor.wakeup();
+                times = 1;
+            }
+        };
+
+        //act
+        connection.onReactorQuiesced(mockEvent);
+
+        //assert
+        assertTrue(inProgressMessages.containsKey(expectedHash));
+        assertEquals(19, connection.getSendWindow());
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessage", new Class[] {Message.class, MessageType.class, IotHubConnectionString.class}, mockedMessageImpl, MessageType.DEVICE_TWIN, mockConnectionString);
+                times = 1;
+
+                mockReactor.wakeup();
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_006: [If the connection is DISCONNECTED or has no link credit, this
+    // function shall throw a retriable ProtocolException.]
+    @Test
+    public void sendMessageThrowsIfNoLinkCredit() throws TransportException
+    {
+        //arrange
+        baseExpectations();
+        AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
+        Deencapsulation.setField(connection, "linkCredit", 0);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "convertToProton", mockIoTMessage);
+                result = mockedAmqpsConvertToProtonReturnValue;
+
+                new ProtocolException(anyString);
+                result = mockedProtocolException;
+            }
+        };
+
+        boolean exceptionThrown = false;
+
+        //act
+        try
+        {
+            connection.sendMessage(mockIoTMessage);
+        }
+        catch (ProtocolException e)
+        {
+            exceptionThrown = true;
+        }
+
+        //assert
+        assertTrue(exceptionThrown);
+        Queue<?> reactorTasks = Deencapsulation.getField(connection, "reactorTasks");
+        assertTrue(reactorTasks.isEmpty());
+        new Verifications()
+        {
+            {
+                mockedProtocolException.setRetryable(true);
+                times = 1;
+
+                mockReactor.wakeup();
+                times = 0;
+            }
+        };
     }
 
-    // Tests_SRS_AMQPSTRANSPORT_34_079: [If the sent message hash is -1, this function shall throw a retriable ProtocolException.]
+    // Tests_SRS_AMQPSTRANSPORT_34_079: [If the sent message hash is -1, the listener shall be notified of a retriable ProtocolException.]
     @Test
-    public void sendMessageThrowsForNegativeHash() throws TransportException
+    public void sendMessageNotifiesListenerForNegativeHash() throws TransportException
     {
         //arrange
         baseExpectations();
@@ -2324,6 +2672,8 @@ public class AmqpsIotHubConnectionTest {
         AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
         Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
         Deencapsulation.setField(connection, "linkCredit", 20);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        connection.setListener(mockedIotHubListener);
         new NonStrictExpectations()
         {
             {
@@ -2346,26 +2696,26 @@ public class AmqpsIotHubConnectionTest {
                 result = mockedProtocolException;
             }
         };
-
-        boolean exceptionThrown = false;
+        connection.sendMessage(mockIoTMessage);
 
         //act
-        try
-        {
-            connection.sendMessage(mockIoTMessage);
-        }
-        catch (ProtocolException e)
-        {
-            exceptionThrown = true;
-        }
+        connection.onReactorQuiesced(mockEvent);
 
         //assert
-        assertTrue(exceptionThrown);
+        Map<Integer, com.microsoft.azure.sdk.iot.device.Message> inProgressMessages = Deencapsulation.getField(connection, "inProgressMessages");
+        assertTrue(inProgressMessages.isEmpty());
         new Verifications()
         {
             {
                 mockedProtocolException.setRetryable(true);
                 times = 1;
+
+                mockedIotHubListener.onMessageSent(mockIoTMessage, mockedProtocolException);
+                times = 1;
+
+                // nothing was handed to Proton, so there is nothing to flush
+                mockReactor.wakeup();
+                times = 1;
             }
         };
     }
@@ -2395,4 +2745,35 @@ public class AmqpsIotHubConnectionTest {
         Deencapsulation.setField(connection, "openLatch", mockOpenLatch);
         Deencapsulation.setField(connection, "closeLatch", mockCloseLatch);
     }
-}
\ No newline at end of file
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_005: [This function shall return the link credit saved on the last link
+    // flow event less the messages sent since, or 0 if it is negative.]
+    @Test
+    public void getSendWindowReturnsLinkCredit() throws TransportException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+
+        Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
+        Deencapsulation.setField(connection, "linkCredit", 100);
+        assertEquals(100, connection.getSendWindow());
+
+        Deencapsulation.setField(connection, "linkCredit", -1);
+        assertEquals(0, connection.getSendWindow());
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_41_004: [If this object is not CONNECTED, this function shall return 0.]
+    @Test
+    public void getSendWindowReturnsZeroIfNotConnected() throws TransportException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+
+        Deencapsulation.setField(connection, "state", IotHubConnectionStatus.DISCONNECTED);
+        Deencapsulation.setField(connection, "linkCredit", 100);
+
+        assertEquals(0, connection.getSendWindow());
+    }
+}
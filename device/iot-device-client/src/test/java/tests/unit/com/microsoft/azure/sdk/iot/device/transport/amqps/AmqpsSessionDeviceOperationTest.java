@@ -178,6 +178,8 @@ public class AmqpsSessionDeviceOperationTest
 
                 new AmqpsDeviceAuthenticationCBSTokenRenewalTask((AmqpsSessionDeviceOperation)any);
                 result = mockAmqpsDeviceAuthenticationCBSTokenRenewalTask;
+                mockDeviceClientConfig.getClientRuntime();
+                result = null;
                 mockExecutors.newScheduledThreadPool(1);
                 result = mockScheduledExecutorService;
                 mockScheduledExecutorService.scheduleAtFixedRate(mockAmqpsDeviceAuthenticationCBSTokenRenewalTask, 0, expectedRenewalTimeMillisecs, TimeUnit.MILLISECONDS);
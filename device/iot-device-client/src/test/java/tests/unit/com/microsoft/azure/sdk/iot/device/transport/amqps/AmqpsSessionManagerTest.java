@@ -10,6 +10,7 @@ import org.junit.Test;
 
 import javax.net.ssl.SSLContext;
 import java.util.ArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -161,6 +162,34 @@ public class AmqpsSessionManagerTest
         };
     }
 
+    // Tests_SRS_AMQPSESSIONMANAGER_41_002: [If the authentication type is CBS, the function shall set the executor of the CBS send task.]
+    @Test
+    public void setCBSSendExecutorSetsExecutorOfCBSSendTask(@Mocked final AmqpsDeviceAuthenticationCBSSendTask mockCBSSendTask,
+                                                            @Mocked final Executor mockExecutor) throws TransportException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceClientConfig.getAuthenticationType();
+                result = DeviceClientConfig.AuthType.SAS_TOKEN;
+            }
+        };
+        AmqpsSessionManager amqpsSessionManager = new AmqpsSessionManager(mockDeviceClientConfig);
+
+        // act
+        Deencapsulation.invoke(amqpsSessionManager, "setCBSSendExecutor", new Class[] {Executor.class}, mockExecutor);
+
+        // assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockCBSSendTask, "setExecutor", new Class[] {Executor.class}, mockExecutor);
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSESSIONMANAGER_12_008: [The function shall throw IllegalArgumentException if the deviceClientConfig parameter is null.]
     @Test (expected = IllegalArgumentException.class)
     public void addDeviceOperationSessionThrowsIfDeviceClientIsNull() throws IllegalArgumentException, TransportException
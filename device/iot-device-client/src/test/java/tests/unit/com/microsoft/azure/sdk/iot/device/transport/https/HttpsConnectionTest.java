@@ -186,6 +186,30 @@ public class HttpsConnectionTest
         };
     }
 
+    // Tests_SRS_HTTPSCONNECTION_41_001: [The function shall save the body to be sent with the request without copying it.]
+    @Test
+    public void writeOutputWithoutCopySavesBodyWithoutCopy() throws IOException, TransportException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.POST;
+        final byte[] body = { 1, 2, 3 };
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+
+        Deencapsulation.invoke(conn, "writeOutputWithoutCopy", body);
+
+        assertSame(body, Deencapsulation.getField(conn, "body"));
+    }
+
     // Tests_SRS_HTTPSCONNECTION_11_005: [The function shall throw a TransportException if the connection could not be established, or the server responded with a bad status code.]
     @Test(expected = TransportException.class)
     public void connectThrowsIoExceptionIfCannotConnect() throws IOException, TransportException
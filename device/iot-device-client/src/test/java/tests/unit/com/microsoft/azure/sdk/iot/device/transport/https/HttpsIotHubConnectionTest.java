@@ -5,6 +5,7 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
 
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.exceptions.IotHubServiceException;
+import com.microsoft.azure.sdk.iot.device.exceptions.IotHubSizeExceededException;
 import com.microsoft.azure.sdk.iot.device.exceptions.ProtocolException;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.net.*;
@@ -21,6 +22,7 @@ import org.junit.Test;
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -136,7 +138,7 @@ public class HttpsIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBody();
+                Deencapsulation.invoke(mockMsg, "getBodyWithoutCopy");
                 result = body;
             }
         };
@@ -1918,4 +1920,86 @@ public class HttpsIotHubConnectionTest
         connection.open(null);
         connection.close();
     }
-}
\ No newline at end of file
+
+    // Tests_SRS_HTTPSIOTHUBCONNECTION_41_001: [If the message is a batch, the function shall send its
+    // messages in a single request with a batch body and the batch content type.]
+    @Test
+    public void sendEventSendsBatchInSingleRequest(
+            @Mocked final IotHubEventUri mockUri,
+            @Mocked final BatchMessage mockBatchMessage,
+            @Mocked final HttpsBatchMessage mockHttpsBatchMessage) throws TransportException, IotHubSizeExceededException
+    {
+        final byte[] batchBody = "[]".getBytes();
+        final String batchContentType = "application/vnd.microsoft.iothub.json";
+        new NonStrictExpectations()
+        {
+            {
+                mockBatchMessage.getNestedMessages();
+                result = Arrays.asList(mockedMessage, mockedMessage);
+                new HttpsBatchMessage();
+                result = mockHttpsBatchMessage;
+                mockHttpsBatchMessage.getBody();
+                result = batchBody;
+                mockHttpsBatchMessage.getContentType();
+                result = batchContentType;
+                new HttpsRequest((URL) any, HttpsMethod.POST, batchBody);
+                result = mockRequest;
+                mockRequest.send();
+                result = mockResponse;
+                mockResponse.getStatus();
+                result = 204;
+            }
+        };
+
+        HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+        conn.setListener(mockedListener);
+        conn.sendMessage(mockBatchMessage);
+
+        new Verifications()
+        {
+            {
+                mockHttpsBatchMessage.addMessage((HttpsSingleMessage) any);
+                times = 2;
+                new HttpsRequest((URL) any, HttpsMethod.POST, batchBody);
+                times = 1;
+                mockRequest.setHeaderField(withMatch("(?i)content-type"), batchContentType);
+                times = 1;
+                mockedListener.onMessageSent(mockBatchMessage, null);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSIOTHUBCONNECTION_41_002: [If the batch exceeds the maximum size of a request, the function
+    // shall throw the exception mapped to REQUEST_ENTITY_TOO_LARGE.]
+    @Test (expected = TransportException.class)
+    public void sendEventThrowsIfBatchTooLarge(
+            @Mocked final BatchMessage mockBatchMessage,
+            @Mocked final HttpsBatchMessage mockHttpsBatchMessage) throws TransportException, IotHubSizeExceededException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockBatchMessage.getNestedMessages();
+                result = Arrays.asList(mockedMessage);
+                new HttpsBatchMessage();
+                result = mockHttpsBatchMessage;
+                mockHttpsBatchMessage.addMessage((HttpsSingleMessage) any);
+                result = new IotHubSizeExceededException("too large");
+            }
+        };
+
+        HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+        conn.setListener(mockedListener);
+        conn.sendMessage(mockBatchMessage);
+    }
+
+    //Tests_SRS_HTTPSIOTHUBCONNECTION_41_003: [This function shall return Integer.MAX_VALUE.]
+    @Test
+    public void getSendWindowReturnsMaxValue()
+    {
+        HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+
+        assertEquals(Integer.MAX_VALUE, conn.getSendWindow());
+    }
+}
@@ -75,8 +75,8 @@ public class HttpsRequestTest
         new Verifications()
         {
             {
-                new HttpsConnection(mockUrl, (HttpsMethod) any)
-                        .writeOutput(expectedBody);
+                Deencapsulation.invoke(new HttpsConnection(mockUrl, (HttpsMethod) any),
+                        "writeOutputWithoutCopy", expectedBody);
             }
         };
     }
@@ -160,7 +160,7 @@ public class HttpsRequestTest
             }
 
             @Mock
-            public void writeOutput(byte[] body)
+            void writeOutputWithoutCopy(byte[] body)
             {
 
             }
@@ -246,7 +246,7 @@ public class HttpsRequestTest
             }
 
             @Mock
-            public void writeOutput(byte[] body)
+            void writeOutputWithoutCopy(byte[] body)
             {
 
             }
@@ -312,7 +312,7 @@ public class HttpsRequestTest
             }
 
             @Mock
-            public void writeOutput(byte[] body)
+            void writeOutputWithoutCopy(byte[] body)
             {
                 this.testBody = body;
             }
@@ -7,6 +7,7 @@ import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageProperty;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsResponse;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsSingleMessage;
+import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import mockit.Verifications;
@@ -602,6 +603,29 @@ public class HttpsSingleMessageTest
         assertThat(testBody, is(expectedBody));
     }
 
+    // Tests_SRS_HTTPSSINGLEMESSAGE_41_001: [The function shall return the message body without copying it.]
+    @Test
+    public void getBodyWithoutCopyReturnsBody(
+            @Mocked final Message mockMsg,
+            @Mocked final MessageProperty mockProperty)
+    {
+        final byte[] body = { 0x61, 0x62, 0x63 };
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBytes();
+                result = body;
+                mockMsg.getProperties();
+                result = new MessageProperty[0];
+            }
+        };
+        HttpsSingleMessage httpsMsg = HttpsSingleMessage.parseHttpsMessage(mockMsg);
+
+        byte[] testBody = Deencapsulation.invoke(httpsMsg, "getBodyWithoutCopy");
+
+        assertSame(body, testBody);
+    }
+
     // Tests_SRS_HTTPSSINGLEMESSAGE_11_010: [The function shall return the message body as a string encoded using charset UTF-8.]
     @Test
     public void getBodyAsStringsReturnsUtf8Body(
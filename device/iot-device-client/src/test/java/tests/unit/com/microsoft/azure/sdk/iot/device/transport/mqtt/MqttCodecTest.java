@@ -0,0 +1,255 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.exceptions.ProtocolException;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttCodec;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MqttCodec.
+ */
+public class MqttCodecTest
+{
+    private static final String TOPIC = "devices/testDevice/messages/events/";
+    private static final byte[] PAYLOAD = "test payload".getBytes(StandardCharsets.UTF_8);
+
+    //Tests_SRS_MQTTCODEC_41_001: [If the client identifier is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void encodeConnectThrowsOnNullClientId()
+    {
+        //act
+        MqttCodec.encodeConnect(null, "userName", "password", 230, false);
+    }
+
+    //Tests_SRS_MQTTCODEC_41_002: [The function shall encode a CONNECT packet of protocol level 4 with the client identifier, and the user name and password that are provided.]
+    @Test
+    public void encodeConnectEncodesFields()
+    {
+        //act
+        ByteBuffer packet = MqttCodec.encodeConnect("device", "user", "pass", 230, false);
+
+        //assert
+        byte[] expected = new byte[]
+        {
+            0x10, 30,
+            0, 4, 'M', 'Q', 'T', 'T', 4, (byte) 0xC0, 0, (byte) 230,
+            0, 6, 'd', 'e', 'v', 'i', 'c', 'e',
+            0, 4, 'u', 's', 'e', 'r',
+            0, 4, 'p', 'a', 's', 's'
+        };
+        assertArrayEquals(expected, toArray(packet));
+    }
+
+    //Tests_SRS_MQTTCODEC_41_002: [The function shall encode a CONNECT packet of protocol level 4 with the client identifier, and the user name and password that are provided.]
+    @Test
+    public void encodeConnectOmitsMissingPassword()
+    {
+        //act
+        byte[] packet = toArray(MqttCodec.encodeConnect("device", "user", null, 230, true));
+
+        //assert
+        assertEquals(24, packet[1]);
+        assertEquals((byte) 0x82, packet[9]);
+    }
+
+    //Tests_SRS_MQTTCODEC_41_003: [If the topic or the payload is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void encodePublishThrowsOnNullTopic()
+    {
+        //act
+        MqttCodec.encodePublish(null, ByteBuffer.wrap(PAYLOAD), 1, 1);
+    }
+
+    //Tests_SRS_MQTTCODEC_41_004: [If the QoS is neither 0 nor 1, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void encodePublishThrowsOnQos2()
+    {
+        //act
+        MqttCodec.encodePublish(TOPIC, ByteBuffer.wrap(PAYLOAD), 2, 1);
+    }
+
+    //Tests_SRS_MQTTCODEC_41_005: [The function shall encode a PUBLISH packet with the topic and payload, and the message id if the QoS is 1.]
+    //Tests_SRS_MQTTCODEC_41_014: [The function shall decode the QoS, topic, message id and payload of a PUBLISH.]
+    @Test
+    public void publishRoundTrips() throws ProtocolException
+    {
+        //arrange
+        ByteBuffer buffer = MqttCodec.encodePublish(TOPIC, ByteBuffer.wrap(PAYLOAD), 1, 65535);
+
+        //act
+        MqttCodec.Packet packet = MqttCodec.decode(buffer);
+
+        //assert
+        assertEquals(MqttCodec.PUBLISH, packet.getType());
+        assertEquals(1, packet.getQos());
+        assertEquals(65535, packet.getMessageId());
+        assertEquals(TOPIC, packet.getTopic());
+        assertArrayEquals(PAYLOAD, packet.getPayload());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    //Tests_SRS_MQTTCODEC_41_005: [The function shall encode a PUBLISH packet with the topic and payload, and the message id if the QoS is 1.]
+    @Test
+    public void publishEncodesPayloadBetweenPositionAndLimit() throws ProtocolException
+    {
+        //arrange
+        ByteBuffer payload = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}, 1, 3);
+
+        //act
+        MqttCodec.Packet packet = MqttCodec.decode(MqttCodec.encodePublish(TOPIC, payload, 0, 0));
+
+        //assert
+        assertArrayEquals(new byte[]{2, 3, 4}, packet.getPayload());
+        assertEquals(1, payload.position());
+    }
+
+    //Tests_SRS_MQTTCODEC_41_005: [The function shall encode a PUBLISH packet with the topic and payload, and the message id if the QoS is 1.]
+    //Tests_SRS_MQTTCODEC_41_014: [The function shall decode the QoS, topic, message id and payload of a PUBLISH.]
+    @Test
+    public void publishWithLargePayloadRoundTrips() throws ProtocolException
+    {
+        //arrange
+        byte[] payload = new byte[200000];
+        payload[payload.length - 1] = 42;
+        ByteBuffer buffer = MqttCodec.encodePublish(TOPIC, ByteBuffer.wrap(payload), 0, 0);
+
+        //act
+        MqttCodec.Packet packet = MqttCodec.decode(buffer);
+
+        //assert
+        assertEquals(0, packet.getQos());
+        assertEquals(0, packet.getMessageId());
+        assertArrayEquals(payload, packet.getPayload());
+    }
+
+    //Tests_SRS_MQTTCODEC_41_006: [The function shall encode a PUBACK packet with the message id.]
+    //Tests_SRS_MQTTCODEC_41_015: [The function shall decode the message id of a PUBACK.]
+    @Test
+    public void pubAckRoundTrips() throws ProtocolException
+    {
+        //act
+        MqttCodec.Packet packet = MqttCodec.decode(MqttCodec.encodePubAck(258));
+
+        //assert
+        assertEquals(MqttCodec.PUBACK, packet.getType());
+        assertEquals(258, packet.getMessageId());
+    }
+
+    //Tests_SRS_MQTTCODEC_41_007: [If the topic filter is null or the QoS is neither 0 nor 1, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void encodeSubscribeThrowsOnNullTopicFilter()
+    {
+        //act
+        MqttCodec.encodeSubscribe(1, null, 1);
+    }
+
+    //Tests_SRS_MQTTCODEC_41_008: [The function shall encode a SUBSCRIBE packet with the message id, the topic filter and the QoS.]
+    @Test
+    public void encodeSubscribeEncodesFields()
+    {
+        //act
+        byte[] packet = toArray(MqttCodec.encodeSubscribe(7, "a/#", 1));
+
+        //assert
+        assertArrayEquals(new byte[]{(byte) 0x82, 8, 0, 7, 0, 3, 'a', '/', '#', 1}, packet);
+    }
+
+    //Tests_SRS_MQTTCODEC_41_009: [The function shall encode a PINGREQ packet.]
+    //Tests_SRS_MQTTCODEC_41_010: [The function shall encode a DISCONNECT packet.]
+    @Test
+    public void encodePingRequestAndDisconnect()
+    {
+        //act
+        byte[] pingRequest = toArray(MqttCodec.encodePingRequest());
+        byte[] disconnect = toArray(MqttCodec.encodeDisconnect());
+
+        //assert
+        assertArrayEquals(new byte[]{(byte) 0xC0, 0}, pingRequest);
+        assertArrayEquals(new byte[]{(byte) 0xE0, 0}, disconnect);
+    }
+
+    //Tests_SRS_MQTTCODEC_41_011: [If the buffer does not hold a whole packet, the function shall return null and leave the buffer unchanged.]
+    @Test
+    public void decodeReturnsNullOnPartialPacket() throws ProtocolException
+    {
+        //arrange
+        byte[] whole = toArray(MqttCodec.encodePublish(TOPIC, ByteBuffer.wrap(PAYLOAD), 1, 1));
+        ByteBuffer buffer = ByteBuffer.allocate(whole.length);
+        buffer.put(whole, 0, whole.length - 1);
+        buffer.flip();
+
+        //act
+        MqttCodec.Packet packet = MqttCodec.decode(buffer);
+
+        //assert
+        assertNull(packet);
+        assertEquals(0, buffer.position());
+        assertEquals(whole.length - 1, buffer.remaining());
+    }
+
+    //Tests_SRS_MQTTCODEC_41_012: [If the packet is malformed or has an unexpected type, the function shall throw a ProtocolException.]
+    @Test (expected = ProtocolException.class)
+    public void decodeThrowsOnUnexpectedType() throws ProtocolException
+    {
+        //act
+        MqttCodec.decode(MqttCodec.encodeSubscribe(1, "a/#", 1));
+    }
+
+    //Tests_SRS_MQTTCODEC_41_012: [If the packet is malformed or has an unexpected type, the function shall throw a ProtocolException.]
+    @Test (expected = ProtocolException.class)
+    public void decodeThrowsOnMalformedRemainingLength() throws ProtocolException
+    {
+        //act
+        MqttCodec.decode(ByteBuffer.wrap(new byte[]{0x30, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0}));
+    }
+
+    //Tests_SRS_MQTTCODEC_41_012: [If the packet is malformed or has an unexpected type, the function shall throw a ProtocolException.]
+    @Test (expected = ProtocolException.class)
+    public void decodeThrowsOnShortConnAck() throws ProtocolException
+    {
+        //act
+        MqttCodec.decode(ByteBuffer.wrap(new byte[]{0x20, 1, 0}));
+    }
+
+    //Tests_SRS_MQTTCODEC_41_013: [The function shall decode the return code of a CONNACK.]
+    //Tests_SRS_MQTTCODEC_41_016: [The function shall decode the message id and the first return code of a SUBACK.]
+    @Test
+    public void decodeReadsConsecutivePackets() throws ProtocolException
+    {
+        //arrange
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]
+        {
+            0x20, 2, 0, 5,
+            (byte) 0x90, 4, 0, 9, 1, 0,
+            (byte) 0xD0, 0
+        });
+
+        //act
+        MqttCodec.Packet connAck = MqttCodec.decode(buffer);
+        MqttCodec.Packet subAck = MqttCodec.decode(buffer);
+        MqttCodec.Packet pingResponse = MqttCodec.decode(buffer);
+
+        //assert
+        assertEquals(MqttCodec.CONNACK, connAck.getType());
+        assertEquals(5, connAck.getReturnCode());
+        assertEquals(MqttCodec.SUBACK, subAck.getType());
+        assertEquals(9, subAck.getMessageId());
+        assertEquals(1, subAck.getReturnCode());
+        assertEquals(MqttCodec.PINGRESP, pingResponse.getType());
+        assertNull(MqttCodec.decode(buffer));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
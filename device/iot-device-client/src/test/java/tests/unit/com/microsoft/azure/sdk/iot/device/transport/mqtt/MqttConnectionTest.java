@@ -5,9 +5,11 @@
 
 package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
+import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.exceptions.ProtocolException;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInFlightMessages;
 import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
@@ -235,6 +237,66 @@ public class MqttConnectionTest
         assertNotNull(mqttConnectOptions);
     }
 
+    //Tests_SRS_MQTTCONNECTION_41_002: [This method shall save the in flight window and set it in the connection options.]
+    //Tests_SRS_MQTTCONNECTION_41_003: [Getter for the in flight window.]
+    @Test
+    public void setMaxInFlightCountSetsConnectionOptions() throws Exception
+    {
+        //arrange
+        baseConstructorExpectations();
+        final MqttConnection mqttConnection = Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext);
+
+        //act
+        Deencapsulation.invoke(mqttConnection, "setMaxInFlightCount", 100);
+
+        //assert
+        assertEquals(100, (int) Deencapsulation.invoke(mqttConnection, "getMaxInFlightCount"));
+        new Verifications()
+        {
+            {
+                mockMqttConnectionOptions.setMaxInflight(10);
+                times = 1;
+                mockMqttConnectionOptions.setMaxInflight(100);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTCONNECTION_41_004: [The constructor shall create the table of the messages in flight on this MqttConnection, sized for the in flight window.]
+    //Tests_SRS_MQTTCONNECTION_41_005: [Getter for the table of the messages in flight.]
+    //Tests_SRS_MQTTCONNECTION_41_006: [This function shall forget the messages in flight, since their message ids are only valid on the closed connection.]
+    @Test
+    public void closeClearsInFlightMessagesOfThisConnectionOnly() throws Exception
+    {
+        //arrange
+        baseConstructorExpectations();
+        final MqttConnection mqttConnection = Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext);
+        final MqttConnection otherMqttConnection = Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext);
+        MqttInFlightMessages inFlightMessages = Deencapsulation.invoke(mqttConnection, "getInFlightMessages");
+        MqttInFlightMessages otherInFlightMessages = Deencapsulation.invoke(otherMqttConnection, "getInFlightMessages");
+        inFlightMessages.put(1, new Message());
+        otherInFlightMessages.put(1, new Message());
+
+        //act
+        Deencapsulation.invoke(mqttConnection, "close");
+
+        //assert
+        assertNotSame(inFlightMessages, otherInFlightMessages);
+        assertEquals(0, inFlightMessages.size());
+        assertEquals(1, otherInFlightMessages.size());
+    }
+
+    //Tests_SRS_MQTTCONNECTION_41_001: [This method shall throw IllegalArgumentException if maxInFlightCount is less than 1.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setMaxInFlightCountThrowsIfLessThanOne() throws Exception
+    {
+        //arrange
+        final MqttConnection mqttConnection = Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext);
+
+        //act
+        Deencapsulation.invoke(mqttConnection, "setMaxInFlightCount", 0);
+    }
+
     //Tests_SRS_MQTTCONNECTION_25_011: [Setter for the MqttAsyncClient which can be null.]
     @Test
     public void setMqttAsyncClientSucceeds() throws Exception
@@ -9,10 +9,12 @@ import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.exceptions.ProtocolException;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.exceptions.IotHubServiceException;
+import com.microsoft.azure.sdk.iot.device.transport.HashedWheelTimer;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.Mqtt;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttDeviceMethod;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttPendingRequests;
 import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
@@ -22,8 +24,6 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Test;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -158,7 +158,7 @@ public class MqttDeviceMethodTest
         testMessage.setRequestId("ReqId");
         testMessage.setStatus("testStatus");
         final MqttDeviceMethod testMethod = new MqttDeviceMethod(mockedMqttConnection);
-        Map<String, DeviceOperations> testRequestMap = new HashMap<>();
+        MqttPendingRequests testRequestMap = new MqttPendingRequests(10);
         testRequestMap.put("ReqId", DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
         Deencapsulation.setField(testMethod, "requestMap", testRequestMap);
         testMethod.start();
@@ -283,7 +283,7 @@ public class MqttDeviceMethodTest
         testMessage.setRequestId("ReqId");
         testMessage.setStatus("testStatus");
         MqttDeviceMethod testMethod = new MqttDeviceMethod(mockedMqttConnection);
-        Map<String, DeviceOperations> testRequestMap = new HashMap<>();
+        MqttPendingRequests testRequestMap = new MqttPendingRequests(10);
         testRequestMap.put("ReqId", DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST);
         Deencapsulation.setField(testMethod, "requestMap", testRequestMap);
         testMethod.start();
@@ -363,6 +363,71 @@ public class MqttDeviceMethodTest
         assertNull(actualMessage);
     }
 
+    //Tests_SRS_MqttDeviceMethod_34_027: [This method shall parse message to look for Post topic ($iothub/methods/POST/) and return null other wise.]
+    //Tests_SRS_MqttDeviceMethod_25_028: [If the topic is of type post topic then this method shall parse further for method name and set it for the message by calling setMethodName for the message]
+    @Test
+    public void parseMessageParsesPostTopicWithoutQueue() throws TransportException
+    {
+        //arrange
+        byte[] actualPayload = "TestPayload".getBytes();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockedMqttConnection);
+        Deencapsulation.setField(testMethod, "mqttLock", new Object());
+
+        //act
+        IotHubTransportMessage postMessage = Deencapsulation.invoke(testMethod, "parseMessage", "$iothub/methods/POST/testMethod/?$rid=10", actualPayload);
+        IotHubTransportMessage otherMessage = Deencapsulation.invoke(testMethod, "parseMessage", new Class[] {String.class, byte[].class}, "$iothub/methods/Not_POST/testMethod/?$rid=10", actualPayload);
+
+        //assert
+        assertEquals("testMethod", postMessage.getMethodName());
+        assertEquals("10", postMessage.getRequestId());
+        assertEquals(DeviceOperations.DEVICE_OPERATION_METHOD_RECEIVE_REQUEST, postMessage.getDeviceOperationType());
+        assertNull(otherMessage);
+    }
+
+    //Tests_SRS_MqttDeviceMethod_41_002: [If too many requests wait for their response, this method shall throw TransportException.]
+    @Test (expected = TransportException.class)
+    public void parseMessageThrowsIfTooManyRequestsArePending() throws TransportException
+    {
+        //arrange
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockedMqttConnection);
+        Deencapsulation.setField(testMethod, "mqttLock", new Object());
+        MqttPendingRequests requestMap = new MqttPendingRequests(1);
+        requestMap.put("9", DeviceOperations.DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
+        Deencapsulation.setField(testMethod, "requestMap", requestMap);
+
+        //act
+        Deencapsulation.invoke(testMethod, "parseMessage", "$iothub/methods/POST/testMethod/?$rid=10", "TestPayload".getBytes());
+    }
+
+    //Tests_SRS_MqttDeviceMethod_41_001: [The function shall schedule the deadline of each request received from now on on the timer, and forget the requests that time out.]
+    @Test
+    public void timedOutRequestIsForgotten() throws TransportException, InterruptedException
+    {
+        //arrange
+        HashedWheelTimer timer = new HashedWheelTimer(1, 8);
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockedMqttConnection);
+        Deencapsulation.setField(testMethod, "mqttLock", new Object());
+        Deencapsulation.invoke(testMethod, "setRequestTimeout", new Class[] {HashedWheelTimer.class, long.class}, timer, 1L);
+        MqttPendingRequests requestMap = Deencapsulation.getField(testMethod, "requestMap");
+
+        try
+        {
+            //act
+            Deencapsulation.invoke(testMethod, "parseMessage", "$iothub/methods/POST/testMethod/?$rid=10", "TestPayload".getBytes());
+            for (int i = 0; i < 1000 && !requestMap.isEmpty(); i++)
+            {
+                Thread.sleep(10);
+            }
+
+            //assert
+            assertTrue(requestMap.isEmpty());
+        }
+        finally
+        {
+            timer.stop();
+        }
+    }
+
     // Tests_SRS_MQTTDEVICEMETHOD_25_029: [**If method name not found or is null then receive shall throw TransportException **]**
     @Test (expected = TransportException.class)
     public void receiveThrowsIfMethodNameCouldNotBeParsed() throws TransportException
@@ -8,19 +8,25 @@ import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.exceptions.IotHubServiceException;
+import com.microsoft.azure.sdk.iot.device.transport.HashedWheelTimer;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.Mqtt;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttDeviceTwin;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttMessageListener;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttPendingRequests;
 import mockit.*;
 import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.junit.Test;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
 import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations.*;
 import static org.junit.Assert.*;
@@ -135,8 +141,8 @@ public class MqttDeviceTwinTest
         new NonStrictExpectations()
         {
             {
-                mockMessage.getBytes();
-                result = actualPayload;
+                mockMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(actualPayload);
                 mockMessage.getMessageType();
                 result = MessageType.DEVICE_TWIN;
                 mockMessage.getDeviceOperationType();
@@ -153,7 +159,7 @@ public class MqttDeviceTwinTest
         new Verifications()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBodyBuffer();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, mockMessage);
                 times = 1;
@@ -176,8 +182,8 @@ public class MqttDeviceTwinTest
             new NonStrictExpectations()
             {
                 {
-                    mockMessage.getBytes();
-                    result = actualPayload;
+                    mockMessage.getBodyBuffer();
+                    result = ByteBuffer.wrap(actualPayload);
                     mockMessage.getMessageType();
                     result = MessageType.DEVICE_TWIN;
                     mockMessage.getDeviceOperationType();
@@ -196,7 +202,7 @@ public class MqttDeviceTwinTest
             new Verifications()
             {
                 {
-                    mockMessage.getBytes();
+                    mockMessage.getBodyBuffer();
                     times = 1;
                     Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload, mockMessage);
                     times = 0;
@@ -219,8 +225,8 @@ public class MqttDeviceTwinTest
         new NonStrictExpectations()
         {
             {
-                mockMessage.getBytes();
-                result = actualPayload;
+                mockMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(actualPayload);
                 mockMessage.getMessageType();
                 result = MessageType.DEVICE_TWIN;
                 mockMessage.getDeviceOperationType();
@@ -239,7 +245,7 @@ public class MqttDeviceTwinTest
         new Verifications()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBodyBuffer();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, mockMessage);
                 times = 1;
@@ -262,8 +268,8 @@ public class MqttDeviceTwinTest
             new NonStrictExpectations()
             {
                 {
-                    mockMessage.getBytes();
-                    result = actualPayload;
+                    mockMessage.getBodyBuffer();
+                    result = ByteBuffer.wrap(actualPayload);
                     mockMessage.getMessageType();
                     result = MessageType.DEVICE_TWIN;
                     mockMessage.getDeviceOperationType();
@@ -282,7 +288,7 @@ public class MqttDeviceTwinTest
             new Verifications()
             {
                 {
-                    mockMessage.getBytes();
+                    mockMessage.getBodyBuffer();
                     times = 1;
                     Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload, mockMessage);
                     times = 0;
@@ -305,8 +311,8 @@ public class MqttDeviceTwinTest
         new NonStrictExpectations()
         {
             {
-                mockMessage.getBytes();
-                result = actualPayload;
+                mockMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(actualPayload);
                 mockMessage.getMessageType();
                 result = MessageType.DEVICE_TWIN;
                 mockMessage.getDeviceOperationType();
@@ -323,7 +329,7 @@ public class MqttDeviceTwinTest
         new Verifications()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBodyBuffer();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "subscribe", expectedTopic);
                 times = 1;
@@ -345,8 +351,8 @@ public class MqttDeviceTwinTest
         new NonStrictExpectations()
         {
             {
-                mockMessage.getBytes();
-                result = actualPayload;
+                mockMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(actualPayload);
                 mockMessage.getMessageType();
                 result = MessageType.DEVICE_TWIN;
                 mockMessage.getDeviceOperationType();
@@ -366,7 +372,7 @@ public class MqttDeviceTwinTest
         new Verifications()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBodyBuffer();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "subscribe", anyString);
                 times = 0;
@@ -397,8 +403,8 @@ public class MqttDeviceTwinTest
                 result = DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST;
                 mockMessage.getVersion();
                 result = mockVersion;
-                mockMessage.getBytes();
-                result = actualPayload;
+                mockMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(actualPayload);
             }
         };
 
@@ -409,7 +415,7 @@ public class MqttDeviceTwinTest
         new Verifications()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBodyBuffer();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "subscribe", expectedSubscribeTopic);
                 times = 1;
@@ -439,7 +445,7 @@ public class MqttDeviceTwinTest
             new Verifications()
             {
                 {
-                    mockMessage.getBytes();
+                    mockMessage.getBodyBuffer();
                     times = 0;
                     Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload, mockMessage);
                     times = 0;
@@ -460,8 +466,8 @@ public class MqttDeviceTwinTest
             new NonStrictExpectations()
             {
                 {
-                    mockMessage.getBytes();
-                    result = actualPayload;
+                    mockMessage.getBodyBuffer();
+                    result = ByteBuffer.wrap(actualPayload);
                     mockMessage.getMessageType();
                     result = MessageType.DEVICE_TWIN;
                     mockMessage.getDeviceOperationType();
@@ -479,7 +485,7 @@ public class MqttDeviceTwinTest
             new Verifications()
             {
                 {
-                    mockMessage.getBytes();
+                    mockMessage.getBodyBuffer();
                     times = 1;
                     Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, mockMessage);
                     times = 1;
@@ -507,7 +513,7 @@ public class MqttDeviceTwinTest
             Queue<Pair<String, byte[]>> testAllReceivedMessages = new ConcurrentLinkedQueue<>();
             testAllReceivedMessages.add(new MutablePair<>(insertTopic, actualPayload));
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
+            MqttPendingRequests requestMap = new MqttPendingRequests(10);
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
 
@@ -547,7 +553,7 @@ public class MqttDeviceTwinTest
             testAllReceivedMessages.add(new MutablePair<>(insertTopic, actualPayload));
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
 
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
+            MqttPendingRequests requestMap = new MqttPendingRequests(10);
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST);
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
 
@@ -679,7 +685,7 @@ public class MqttDeviceTwinTest
             Deencapsulation.setField(testTwin, "mqttLock", new Object());
 
 
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
+            MqttPendingRequests requestMap = new MqttPendingRequests(10);
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
 
@@ -714,7 +720,7 @@ public class MqttDeviceTwinTest
             testAllReceivedMessages.add(new MutablePair<>(insertTopic, actualPayload));
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
 
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
+            MqttPendingRequests requestMap = new MqttPendingRequests(10);
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
             Deencapsulation.setField(testTwin, "mqttLock", new Object());
@@ -753,7 +759,7 @@ public class MqttDeviceTwinTest
             testAllReceivedMessages.add(new MutablePair<>(insertTopic, actualPayload));
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
 
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
+            MqttPendingRequests requestMap = new MqttPendingRequests(10);
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
 
@@ -792,7 +798,7 @@ public class MqttDeviceTwinTest
             Queue<Pair<String, byte[]>> testAllReceivedMessages = new ConcurrentLinkedQueue<>();
             testAllReceivedMessages.add(new MutablePair<>(insertTopic, actualPayload));
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
+            MqttPendingRequests requestMap = new MqttPendingRequests(10);
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
 
@@ -830,7 +836,7 @@ public class MqttDeviceTwinTest
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
             Deencapsulation.setField(testTwin, "mqttLock", new Object());
 
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
+            MqttPendingRequests requestMap = new MqttPendingRequests(10);
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
 
@@ -880,7 +886,7 @@ public class MqttDeviceTwinTest
             testAllReceivedMessages.add(new MutablePair<>(insertTopic, actualPayload));
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
 
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
+            MqttPendingRequests requestMap = new MqttPendingRequests(10);
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST);
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
             Deencapsulation.setField(testTwin, "mqttLock", new Object());
@@ -1110,4 +1116,141 @@ public class MqttDeviceTwinTest
             assertNull(receivedMessage);
         }
     }
+
+    //Tests_SRS_MQTTDEVICETWIN_41_004: [If too many requests wait for their response, send method shall throw a retryable TransportException.]
+    @Test
+    public void sendThrowsRetryableExceptionIfTooManyRequestsArePending(@Mocked final Mqtt mockMqtt) throws TransportException
+    {
+        //arrange
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockedMqttConnection);
+        testTwin.start();
+        MqttPendingRequests requestMap = new MqttPendingRequests(1);
+        requestMap.put("other", DEVICE_OPERATION_TWIN_GET_REQUEST);
+        Deencapsulation.setField(testTwin, "requestMap", requestMap);
+        IotHubTransportMessage message = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+        message.setDeviceOperationType(DEVICE_OPERATION_TWIN_GET_REQUEST);
+        message.setRequestId(mockReqId);
+
+        //act
+        try
+        {
+            testTwin.send(message);
+            fail("send should have thrown");
+        }
+        catch (TransportException e)
+        {
+            //assert
+            assertTrue(e.isRetryable());
+            assertEquals(TransportException.IotHubService.TWIN, e.getIotHubService());
+        }
+
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, Message.class}, anyString, any);
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTDEVICETWIN_41_005: [If the request cannot be published, send method shall forget the request before rethrowing the exception.]
+    @Test
+    public void sendForgetsRequestIfPublishFails(@Mocked final MqttAsyncClient mockMqttAsyncClient) throws TransportException
+    {
+        //arrange
+        baseConstructorExpectation();
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "getMqttAsyncClient");
+                result = mockMqttAsyncClient;
+                mockMqttAsyncClient.isConnected();
+                returns(true, false);
+            }
+        };
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockedMqttConnection);
+        testTwin.start();
+        IotHubTransportMessage message = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+        message.setDeviceOperationType(DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST);
+        message.setRequestId(mockReqId);
+
+        //act
+        try
+        {
+            testTwin.send(message);
+            fail("send should have thrown");
+        }
+        catch (TransportException e)
+        {
+            //assert
+            MqttPendingRequests requestMap = Deencapsulation.getField(testTwin, "requestMap");
+            assertTrue(requestMap.isEmpty());
+        }
+    }
+
+    //Tests_SRS_MQTTDEVICETWIN_41_001: [If the listener is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setRequestTimeoutThrowsOnNullListener(@Mocked final Mqtt mockMqtt) throws TransportException
+    {
+        //arrange
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockedMqttConnection);
+
+        //act
+        Deencapsulation.invoke(testTwin, "setRequestTimeout", new Class[] {HashedWheelTimer.class, long.class, MqttMessageListener.class}, new HashedWheelTimer(1, 8), 1L, null);
+    }
+
+    //Tests_SRS_MQTTDEVICETWIN_41_002: [The function shall schedule the deadline of each request sent from now on on the timer.]
+    //Tests_SRS_MQTTDEVICETWIN_41_003: [Once a request times out, the listener shall be handed an empty response with status 408, the request id and the response operation of the request.]
+    @Test
+    public void timedOutRequestIsCompletedWithTimeoutStatus(@Mocked final Mqtt mockMqtt) throws TransportException, InterruptedException
+    {
+        //arrange
+        final BlockingQueue<IotHubTransportMessage> responses = new LinkedBlockingQueue<>();
+        MqttMessageListener listener = new MqttMessageListener()
+        {
+            @Override
+            public void onMessageArrived(int messageId)
+            {
+            }
+
+            @Override
+            public void onMessageArrived(int messageId, String topic, byte[] payload)
+            {
+            }
+
+            @Override
+            public void onRequestTimedOut(IotHubTransportMessage response)
+            {
+                responses.add(response);
+            }
+        };
+        HashedWheelTimer timer = new HashedWheelTimer(1, 8);
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockedMqttConnection);
+        testTwin.start();
+        Deencapsulation.invoke(testTwin, "setRequestTimeout", new Class[] {HashedWheelTimer.class, long.class, MqttMessageListener.class}, timer, 1L, listener);
+        IotHubTransportMessage message = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+        message.setDeviceOperationType(DEVICE_OPERATION_TWIN_GET_REQUEST);
+        message.setRequestId(mockReqId);
+
+        try
+        {
+            //act
+            testTwin.send(message);
+            IotHubTransportMessage response = responses.poll(10, TimeUnit.SECONDS);
+
+            //assert
+            assertNotNull(response);
+            assertEquals(MessageType.DEVICE_TWIN, response.getMessageType());
+            assertEquals(DeviceOperations.DEVICE_OPERATION_TWIN_GET_RESPONSE, response.getDeviceOperationType());
+            assertEquals(mockReqId, response.getRequestId());
+            assertEquals("408", response.getStatus());
+            assertEquals(0, response.getBytes().length);
+            MqttPendingRequests requestMap = Deencapsulation.getField(testTwin, "requestMap");
+            assertTrue(requestMap.isEmpty());
+        }
+        finally
+        {
+            timer.stop();
+        }
+    }
 }
\ No newline at end of file
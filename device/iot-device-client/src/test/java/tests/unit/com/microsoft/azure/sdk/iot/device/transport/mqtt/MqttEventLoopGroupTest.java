@@ -0,0 +1,70 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttEventLoopGroup;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MqttEventLoopGroup.
+ */
+public class MqttEventLoopGroupTest
+{
+    //Tests_SRS_MQTTEVENTLOOPGROUP_41_001: [The constructor shall throw an IllegalArgumentException if threadCount is less than 1.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsIfThreadCountLessThanOne() throws IOException
+    {
+        //act
+        new MqttEventLoopGroup(0);
+    }
+
+    //Tests_SRS_MQTTEVENTLOOPGROUP_41_002: [The constructor shall start threadCount event loops, each with its own selector.]
+    //Tests_SRS_MQTTEVENTLOOPGROUP_41_003: [The function shall return the event loops of the group round robin.]
+    @Test
+    public void nextReturnsEventLoopsRoundRobin() throws IOException
+    {
+        //arrange
+        MqttEventLoopGroup eventLoopGroup = new MqttEventLoopGroup(2);
+
+        try
+        {
+            //act
+            Object first = Deencapsulation.invoke(eventLoopGroup, "next");
+            Object second = Deencapsulation.invoke(eventLoopGroup, "next");
+            Object third = Deencapsulation.invoke(eventLoopGroup, "next");
+
+            //assert
+            assertEquals(2, eventLoopGroup.getThreadCount());
+            assertNotSame(first, second);
+            assertSame(first, third);
+        }
+        finally
+        {
+            eventLoopGroup.close();
+        }
+    }
+
+    //Tests_SRS_MQTTEVENTLOOPGROUP_41_004: [The function shall stop all the event loops, failing the connections they still serve.]
+    @Test
+    public void closeStopsThreads() throws IOException, InterruptedException
+    {
+        //arrange
+        MqttEventLoopGroup eventLoopGroup = new MqttEventLoopGroup(1);
+        Object eventLoop = Deencapsulation.invoke(eventLoopGroup, "next");
+        Thread thread = Deencapsulation.getField(eventLoop, "thread");
+        assertTrue(thread.isDaemon());
+
+        //act
+        eventLoopGroup.close();
+        thread.join(10000);
+
+        //assert
+        assertFalse(thread.isAlive());
+    }
+}
@@ -0,0 +1,152 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInFlightMessages;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MqttInFlightMessages.
+ * 100% methods, 100% lines covered
+ */
+public class MqttInFlightMessagesTest
+{
+    //Tests_SRS_MQTTINFLIGHTMESSAGES_41_001: [The constructor shall throw an IllegalArgumentException if expectedCount is less than 1.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsIfExpectedCountLessThanOne()
+    {
+        //act
+        new MqttInFlightMessages(0);
+    }
+
+    //Tests_SRS_MQTTINFLIGHTMESSAGES_41_002: [The constructor shall create a table that holds expectedCount messages without growing.]
+    @Test
+    public void constructorSizesTableForExpectedCount()
+    {
+        //arrange
+        MqttInFlightMessages inFlightMessages = new MqttInFlightMessages(10);
+        int[] keys = Deencapsulation.getField(inFlightMessages, "keys");
+
+        //act
+        for (int messageId = 1; messageId <= 10; messageId++)
+        {
+            inFlightMessages.put(messageId, new Message());
+        }
+
+        //assert
+        assertSame(keys, Deencapsulation.getField(inFlightMessages, "keys"));
+        assertEquals(10, inFlightMessages.size());
+    }
+
+    //Tests_SRS_MQTTINFLIGHTMESSAGES_41_003: [If the message id is 0 or the message is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void putThrowsOnZeroMessageId()
+    {
+        //act
+        new MqttInFlightMessages(10).put(0, new Message());
+    }
+
+    //Tests_SRS_MQTTINFLIGHTMESSAGES_41_003: [If the message id is 0 or the message is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void putThrowsOnNullMessage()
+    {
+        //act
+        new MqttInFlightMessages(10).put(1, null);
+    }
+
+    //Tests_SRS_MQTTINFLIGHTMESSAGES_41_004: [If the table is half full, the function shall double its capacity.]
+    //Tests_SRS_MQTTINFLIGHTMESSAGES_41_005: [The function shall save the message under the message id.]
+    //Tests_SRS_MQTTINFLIGHTMESSAGES_41_007: [The function shall remove and return the message saved with the message id.]
+    @Test
+    public void putGrowsTableAndKeepsMessages()
+    {
+        //arrange
+        MqttInFlightMessages inFlightMessages = new MqttInFlightMessages(1);
+        Message[] messages = new Message[100];
+
+        //act
+        for (int i = 0; i < messages.length; i++)
+        {
+            messages[i] = new Message();
+            inFlightMessages.put(65535 - i, messages[i]);
+        }
+
+        //assert
+        assertEquals(messages.length, inFlightMessages.size());
+        for (int i = 0; i < messages.length; i++)
+        {
+            assertSame(messages[i], inFlightMessages.remove(65535 - i));
+        }
+        assertEquals(0, inFlightMessages.size());
+    }
+
+    //Tests_SRS_MQTTINFLIGHTMESSAGES_41_005: [The function shall save the message under the message id.]
+    @Test
+    public void putReplacesMessageWithSameId()
+    {
+        //arrange
+        MqttInFlightMessages inFlightMessages = new MqttInFlightMessages(10);
+        Message secondMessage = new Message();
+        inFlightMessages.put(7, new Message());
+
+        //act
+        inFlightMessages.put(7, secondMessage);
+
+        //assert
+        assertEquals(1, inFlightMessages.size());
+        assertSame(secondMessage, inFlightMessages.remove(7));
+    }
+
+    //Tests_SRS_MQTTINFLIGHTMESSAGES_41_006: [If no message was saved with the message id, the function shall return null.]
+    //Tests_SRS_MQTTINFLIGHTMESSAGES_41_007: [The function shall remove and return the message saved with the message id.]
+    @Test
+    public void removeKeepsOtherMessagesReachable()
+    {
+        //arrange
+        MqttInFlightMessages inFlightMessages = new MqttInFlightMessages(64);
+        Message[] messages = new Message[64];
+        for (int i = 0; i < messages.length; i++)
+        {
+            messages[i] = new Message();
+            inFlightMessages.put(i + 1, messages[i]);
+        }
+
+        //act
+        for (int i = 0; i < messages.length; i += 2)
+        {
+            assertSame(messages[i], inFlightMessages.remove(i + 1));
+        }
+
+        //assert
+        assertNull(inFlightMessages.remove(1));
+        assertNull(inFlightMessages.remove(0));
+        for (int i = 1; i < messages.length; i += 2)
+        {
+            assertSame(messages[i], inFlightMessages.remove(i + 1));
+        }
+        assertEquals(0, inFlightMessages.size());
+    }
+
+    //Tests_SRS_MQTTINFLIGHTMESSAGES_41_008: [The function shall remove all the messages.]
+    //Tests_SRS_MQTTINFLIGHTMESSAGES_41_009: [The function shall return the number of messages saved.]
+    @Test
+    public void clearRemovesAllMessages()
+    {
+        //arrange
+        MqttInFlightMessages inFlightMessages = new MqttInFlightMessages(10);
+        inFlightMessages.put(1, new Message());
+        inFlightMessages.put(2, new Message());
+
+        //act
+        inFlightMessages.clear();
+
+        //assert
+        assertEquals(0, inFlightMessages.size());
+        assertNull(inFlightMessages.remove(1));
+    }
+}
@@ -9,6 +9,7 @@ import com.microsoft.azure.sdk.iot.device.exceptions.IotHubServiceException;
 import com.microsoft.azure.sdk.iot.device.exceptions.ProtocolException;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.net.IotHubUri;
+import com.microsoft.azure.sdk.iot.device.transport.HashedWheelTimer;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubConnectionStatus;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubListener;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
@@ -20,6 +21,7 @@ import org.junit.Test;
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
@@ -270,6 +272,10 @@ public class MqttIotHubConnectionTest
     // Tests_SRS_MQTTIOTHUBCONNECTION_15_004: [The function shall establish an MQTT connection with an IoT Hub
     // using the provided host name, user name, device ID, and sas token.]
     // Tests_SRS_MQTTIOTHUBCONNECTION_25_019: [The function shall establish an MQTT connection with a server uri as ssl://<hostName>:8883 if websocket was not enabled.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_41_003: [The function shall set the in flight window of the connection from the config.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_41_004: [The function shall set the default telemetry delivery mode of the messaging client from the config.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_41_005: [The function shall set whether the arrivals are dispatched directly from the config.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_41_008: [The function shall give the twin requests a deadline of the operation timeout of the config and the method requests a deadline of 5 minutes, on the timer of the client runtime of the config if it has one.]
     @Test
     public void openEstablishesConnectionUsingCorrectConfig() throws IOException, TransportException
     {
@@ -286,10 +292,18 @@ public class MqttIotHubConnectionTest
                 result = expectedSasToken;
                 mockConfig.isUseWebsocket();
                 result = false;
+                mockConfig.getMqttMaxInFlightCount();
+                result = 100;
+                mockConfig.getTelemetryDeliveryMode();
+                result = MessageDeliveryMode.AT_MOST_ONCE;
+                mockConfig.isMqttDirectDispatch();
+                result = true;
+                mockConfig.getOperationTimeout();
+                result = 1000L;
             }
         };
 
-        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        final MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
         connection.open(mockedQueue);
 
         final String actualIotHubUserName = Deencapsulation.getField(connection, "iotHubUserName");
@@ -310,6 +324,16 @@ public class MqttIotHubConnectionTest
             {
                 Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, serverUri, deviceId, any, any, any);
                 times = 1;
+                Deencapsulation.invoke(mockedMqttConnection, "setMaxInFlightCount", 100);
+                times = 1;
+                Deencapsulation.invoke(mockDeviceMessaging, "setDefaultDeliveryMode", MessageDeliveryMode.AT_MOST_ONCE);
+                times = 1;
+                Deencapsulation.invoke(mockDeviceMessaging, "setDirectDispatch", true);
+                times = 1;
+                Deencapsulation.invoke(mockDeviceTwin, "setRequestTimeout", new Class[] {HashedWheelTimer.class, long.class, MqttMessageListener.class}, any, 1000L, connection);
+                times = 1;
+                Deencapsulation.invoke(mockDeviceMethod, "setRequestTimeout", new Class[] {HashedWheelTimer.class, long.class}, any, 5 * 60 * 1000L);
+                times = 1;
             }
         };
     }
@@ -440,12 +464,15 @@ public class MqttIotHubConnectionTest
             {
                 Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, any, any, any, any, mockSslContext);
                 result = mockedMqttConnection;
+                Deencapsulation.invoke(mockedMqttConnection, "setMaxInFlightCount", 10);
             }
         };
 
         new NonStrictExpectations()
         {
             {
+                mockConfig.getMqttMaxInFlightCount();
+                result = 10;
                 mockConfig.getAuthenticationType();
                 result = DeviceClientConfig.AuthType.SAS_TOKEN;
                 mockConfig.getSasTokenAuthentication().getRenewedSasToken();
@@ -498,12 +525,15 @@ public class MqttIotHubConnectionTest
             {
                 Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, any, any, any, any, mockSslContext);
                 result = mockedMqttConnection;
+                Deencapsulation.invoke(mockedMqttConnection, "setMaxInFlightCount", 10);
             }
         };
 
         new NonStrictExpectations()
         {
             {
+                mockConfig.getMqttMaxInFlightCount();
+                result = 10;
                 mockConfig.getAuthenticationType();
                 result = DeviceClientConfig.AuthType.SAS_TOKEN;
                 mockConfig.getSasTokenAuthentication().getRenewedSasToken();
@@ -715,8 +745,8 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
-                result = msgBody;
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(msgBody);
                 mockDeviceMessaging.send(mockedMessage);
             }
         };
@@ -759,11 +789,11 @@ public class MqttIotHubConnectionTest
         baseExpectations();
         openExpectations();
 
-        final byte[] msgBody = null;
+        final ByteBuffer msgBody = null;
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBodyBuffer();
                 result = msgBody;
             }
         };
@@ -785,8 +815,8 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
-                result = new byte[0];
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(new byte[0]);
             }
         };
 
@@ -807,8 +837,8 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
-                result = msgBody;
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(msgBody);
             }
         };
 
@@ -826,8 +856,8 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
-                result = msgBody;
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(msgBody);
             }
         };
 
@@ -847,8 +877,8 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockDeviceTwinMsg.getBytes();
-                result = msgBody;
+                mockDeviceTwinMsg.getBodyBuffer();
+                result = ByteBuffer.wrap(msgBody);
                 mockDeviceTwinMsg.getMessageType();
                 result = MessageType.DEVICE_TWIN;
 
@@ -886,8 +916,8 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockDeviceMethodMsg.getBytes();
-                result = msgBody;
+                mockDeviceMethodMsg.getBodyBuffer();
+                result = ByteBuffer.wrap(msgBody);
                 mockDeviceMethodMsg.getMessageType();
                 result = MessageType.DEVICE_METHODS;
 
@@ -1306,6 +1336,53 @@ public class MqttIotHubConnectionTest
         };
     }
 
+    //Tests_SRS_MQTTIOTHUBCONNECTION_41_011: [This function shall hand the response to its listener the same way as an arrival, without a message id to acknowledge.]
+    //Tests_SRS_MQTTIOTHUBCONNECTION_41_010: [If the provided message is the response built for a timed out request, this function shall not send an ack.]
+    @Test
+    public void onRequestTimedOutHandsResponseToListenerWithoutAck() throws TransportException, IOException
+    {
+        //arrange
+        final Object callbackContext = new Object();
+        baseExpectations();
+        openExpectations();
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.setListener(mockedIotHubListener);
+        connection.open(mockedQueue);
+        new NonStrictExpectations()
+        {
+            {
+                mockedTransportMessage.getMessageType();
+                result = MessageType.DEVICE_TWIN;
+                mockConfig.getDeviceTwinMessageCallback();
+                result = mockedMessageCallback;
+                mockConfig.getDeviceTwinMessageContext();
+                result = callbackContext;
+            }
+        };
+
+        //act
+        connection.onRequestTimedOut(mockedTransportMessage);
+        boolean sendMessageResult = connection.sendMessageResult(mockedTransportMessage, IotHubMessageResult.COMPLETE);
+
+        //assert
+        assertTrue(sendMessageResult);
+        new Verifications()
+        {
+            {
+                mockedTransportMessage.setMessageCallback(mockedMessageCallback);
+                times = 1;
+                mockedTransportMessage.setMessageCallbackContext(callbackContext);
+                times = 1;
+                mockedIotHubListener.onMessageReceived(mockedTransportMessage, null);
+                times = 1;
+                Deencapsulation.invoke(mockDeviceTwin, "sendMessageAcknowledgement", anyInt);
+                times = 0;
+            }
+        };
+        Map<IotHubTransportMessage, Integer> receivedMessagesToAcknowledge = Deencapsulation.getField(connection, "receivedMessagesToAcknowledge");
+        assertTrue(receivedMessagesToAcknowledge.isEmpty());
+    }
+
     //Tests_SRS_MQTTIOTHUBCONNECTION_34_055: [If the provided message has message type other than DEVICE_METHODS and DEVICE_TWIN, this function shall invoke the telemetry client to send the ack and return the result.]
     @Test
     public void sendMessageResultForTelemetry() throws TransportException, IOException
@@ -1358,6 +1435,127 @@ public class MqttIotHubConnectionTest
         };
     }
 
+    //Tests_SRS_MQTTIOTHUBCONNECTION_41_006: [This function shall convert the arrival with the methods client if the topic starts with the methods prefix, with the twin client if it starts with the twin prefix, and with the messaging client otherwise.]
+    //Tests_SRS_MQTTIOTHUBCONNECTION_41_007: [This function shall hand the converted message to its listener the same way as a queued arrival.]
+    @Test
+    public void onMessageArrivedWithTopicDispatchesMethodDirectly() throws TransportException, IOException
+    {
+        //arrange
+        final int expectedMessageId = 2000;
+        final String topic = "$iothub/methods/POST/testMethod/?$rid=10";
+        final byte[] payload = new byte[] {1, 2};
+        final Object callbackContext = new Object();
+        baseExpectations();
+        openExpectations();
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.setListener(mockedIotHubListener);
+        connection.open(mockedQueue);
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockDeviceMethod, "parseMessage", topic, payload);
+                result = mockedTransportMessage;
+                mockedTransportMessage.getMessageType();
+                result = MessageType.DEVICE_METHODS;
+                mockConfig.getDeviceMethodsMessageCallback();
+                result = mockedMessageCallback;
+                mockConfig.getDeviceMethodsMessageContext();
+                result = callbackContext;
+            }
+        };
+
+        //act
+        connection.onMessageArrived(expectedMessageId, topic, payload);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockDeviceMethod.receive();
+                times = 0;
+                Deencapsulation.invoke(mockDeviceTwin, "parseMessage", new Class[] {String.class, byte[].class}, anyString, (byte[]) any);
+                times = 0;
+                Deencapsulation.invoke(mockDeviceMessaging, "parseMessage", new Class[] {String.class, byte[].class}, anyString, (byte[]) any);
+                times = 0;
+                mockedTransportMessage.setMessageCallback(mockedMessageCallback);
+                times = 1;
+                mockedTransportMessage.setMessageCallbackContext(callbackContext);
+                times = 1;
+                mockedIotHubListener.onMessageReceived(mockedTransportMessage, null);
+                times = 1;
+            }
+        };
+        Map<IotHubTransportMessage, Integer> receivedMessagesToAcknowledge = Deencapsulation.getField(connection, "receivedMessagesToAcknowledge");
+        assertEquals(expectedMessageId, (int) receivedMessagesToAcknowledge.get(mockedTransportMessage));
+    }
+
+    //Tests_SRS_MQTTIOTHUBCONNECTION_41_006: [This function shall convert the arrival with the methods client if the topic starts with the methods prefix, with the twin client if it starts with the twin prefix, and with the messaging client otherwise.]
+    @Test
+    public void onMessageArrivedWithTopicDispatchesTwinAndTelemetryDirectly() throws TransportException, IOException
+    {
+        //arrange
+        final String twinTopic = "$iothub/twin/res/200/?$rid=1";
+        final String telemetryTopic = "devices/deviceId/messages/devicebound/%24.mid=1";
+        final byte[] payload = new byte[] {1, 2};
+        baseExpectations();
+        openExpectations();
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.setListener(mockedIotHubListener);
+        connection.open(mockedQueue);
+
+        //act
+        connection.onMessageArrived(1, twinTopic, payload);
+        connection.onMessageArrived(2, telemetryTopic, payload);
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockDeviceTwin, "parseMessage", twinTopic, payload);
+                times = 1;
+                Deencapsulation.invoke(mockDeviceMessaging, "parseMessage", telemetryTopic, payload);
+                times = 1;
+                Deencapsulation.invoke(mockDeviceMethod, "parseMessage", new Class[] {String.class, byte[].class}, anyString, (byte[]) any);
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTIOTHUBCONNECTION_41_006: [This function shall convert the arrival with the methods client if the topic starts with the methods prefix, with the twin client if it starts with the twin prefix, and with the messaging client otherwise.]
+    @Test
+    public void onMessageArrivedWithTopicNotifiesListenerIfParsingFails() throws TransportException, IOException
+    {
+        //arrange
+        final String topic = "$iothub/twin/unknown";
+        final byte[] payload = new byte[] {1, 2};
+        baseExpectations();
+        openExpectations();
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.setListener(mockedIotHubListener);
+        connection.open(mockedQueue);
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockDeviceTwin, "parseMessage", topic, payload);
+                result = mockedTransportException;
+            }
+        };
+
+        //act
+        connection.onMessageArrived(1, topic, payload);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedIotHubListener.onMessageReceived(null, (TransportException) any);
+                times = 2;
+            }
+        };
+        Map<IotHubTransportMessage, Integer> receivedMessagesToAcknowledge = Deencapsulation.getField(connection, "receivedMessagesToAcknowledge");
+        assertTrue(receivedMessagesToAcknowledge.isEmpty());
+    }
+
     //Tests_SRS_MQTTIOTHUBCONNECTION_34_058: [This function shall attempt to receive a message.]
     //Tests_SRS_MQTTIOTHUBCONNECTION_34_060: [If a transport message is successfully received, and the message has a type of DEVICE_TWIN, this function shall set the callback and callback context of this object from the saved values in config for methods.]
     //Tests_SRS_MQTTIOTHUBCONNECTION_34_063: [If a transport message is successfully received, this function shall notify its listener that a message was received and provide the received message.]
@@ -1534,4 +1732,43 @@ public class MqttIotHubConnectionTest
             }
         };
     }
+
+    //Tests_SRS_MQTTIOTHUBCONNECTION_41_002: [This function shall return the number of free in flight slots of the telemetry client.]
+    @Test
+    public void getSendWindowReturnsFreeInFlightCount() throws TransportException, IOException
+    {
+        //arrange
+        baseExpectations();
+        openExpectations();
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open(mockedQueue);
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockDeviceMessaging, "getFreeInFlightCount");
+                result = 4;
+            }
+        };
+
+        //act
+        int sendWindow = connection.getSendWindow();
+
+        //assert
+        assertEquals(4, sendWindow);
+    }
+
+    //Tests_SRS_MQTTIOTHUBCONNECTION_41_001: [If the connection is not open, this function shall return 0.]
+    @Test
+    public void getSendWindowReturnsZeroIfNotOpen() throws TransportException
+    {
+        //arrange
+        baseExpectations();
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+
+        //act
+        int sendWindow = connection.getSendWindow();
+
+        //assert
+        assertEquals(0, sendWindow);
+    }
 }
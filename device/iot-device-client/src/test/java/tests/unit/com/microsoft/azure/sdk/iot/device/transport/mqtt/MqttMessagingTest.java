@@ -5,7 +5,9 @@
 package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
 import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageDeliveryMode;
 import com.microsoft.azure.sdk.iot.device.MessageProperty;
+import com.microsoft.azure.sdk.iot.device.MessageTemplate;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubListener;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.Mqtt;
@@ -15,6 +17,7 @@ import mockit.*;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -231,9 +234,11 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
-                result = messageBody;
-                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, Message.class}, anyString, (Message) any);
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockedMessage.getTemplate();
+                result = null;
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, Message.class, int.class}, anyString, (Message) any, anyInt);
             }
         };
 
@@ -244,9 +249,9 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBodyBuffer();
                 times = 1;
-                Deencapsulation.invoke(mockMqtt, "publish", new Class[]{String.class, Message.class}, anyString, mockedMessage);
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[]{String.class, Message.class, int.class}, anyString, mockedMessage, 1);
                 times = 1;
             }
         };
@@ -261,8 +266,8 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
-                result = messageBody;
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
             }
         };
 
@@ -272,7 +277,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBodyBuffer();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, new byte[1]);
                 times = 1;
@@ -293,7 +298,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBodyBuffer();
                 times = 0;
                 Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, new byte[1]);
                 times = 0;
@@ -318,8 +323,10 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
-                result = messageBody;
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockedMessage.getTemplate();
+                result = null;
                 mockedMessage.getProperties();
                 result = messageProperties;
             }
@@ -335,7 +342,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithCustomProperties, mockedMessage);
+                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithCustomProperties, mockedMessage, 1);
                 times = 1;
             }
         };
@@ -353,8 +360,10 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
-                result = messageBody;
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockedMessage.getTemplate();
+                result = null;
                 mockedMessage.getProperties();
                 result = messageProperties;
                 mockedMessage.getMessageId();
@@ -371,7 +380,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithMessageId, mockedMessage);
+                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithMessageId, mockedMessage, 1);
                 times = 1;
             }
         };
@@ -389,8 +398,10 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
-                result = messageBody;
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockedMessage.getTemplate();
+                result = null;
                 mockedMessage.getProperties();
                 result = messageProperties;
                 mockedMessage.getCorrelationId();
@@ -407,7 +418,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithCorrelationId, mockedMessage);
+                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithCorrelationId, mockedMessage, 1);
                 times = 1;
             }
         };
@@ -425,8 +436,10 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
-                result = messageBody;
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockedMessage.getTemplate();
+                result = null;
                 mockedMessage.getProperties();
                 result = messageProperties;
                 mockedMessage.getUserId();
@@ -443,7 +456,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithUserId, mockedMessage);
+                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithUserId, mockedMessage, 1);
                 times = 1;
             }
         };
@@ -461,8 +474,10 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
-                result = messageBody;
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockedMessage.getTemplate();
+                result = null;
                 mockedMessage.getProperties();
                 result = messageProperties;
                 mockedMessage.getTo();
@@ -479,7 +494,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithTo, mockedMessage);
+                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithTo, mockedMessage, 1);
                 times = 1;
             }
         };
@@ -510,8 +525,8 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
-                result = messageBody;
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
                 mockedMessage.getMessageId();
                 result = messageId;
                 mockedMessage.getCorrelationId();
@@ -520,6 +535,8 @@ public class MqttMessagingTest
                 result = userId;
                 mockedMessage.getTo();
                 result = to;
+                mockedMessage.getTemplate();
+                result = null;
                 mockedMessage.getProperties();
                 result = messageProperties;
             }
@@ -535,7 +552,127 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithAllSystemAndCustomProperties,  mockedMessage);
+                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithAllSystemAndCustomProperties,  mockedMessage, 1);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MqttMessaging_41_001: [If the message is attached to a template, this method shall append the properties as already encoded by the template.]
+    @Test
+    public void sendAppendsPropertiesEncodedByTemplate(@Mocked final Mqtt mockMqtt, @Mocked final MessageTemplate mockedTemplate) throws TransportException
+    {
+        //arrange
+        final byte[] messageBody = {0x61, 0x62, 0x63};
+        final String messageId = "test-message-id";
+        final String encodedProperties = "key1=value1&key2=value2";
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockedMessage.getMessageId();
+                result = messageId;
+                mockedMessage.getTemplate();
+                result = mockedTemplate;
+                mockedTemplate.getPropertiesQueryString();
+                result = encodedProperties;
+            }
+        };
+
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedIotHubListener, null);
+        final String publishTopic = String.format("devices/%s/messages/events/$.mid=%s&%s", CLIENT_ID, messageId, encodedProperties);
+
+        //act
+        testMqttMessaging.send(mockedMessage);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedMessage.getProperties();
+                times = 0;
+                Deencapsulation.invoke(mockMqtt, "publish", publishTopic, mockedMessage, 1);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MqttMessaging_41_002: [If the default delivery mode is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setDefaultDeliveryModeThrowsOnNull() throws TransportException
+    {
+        //arrange
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedIotHubListener, null);
+
+        //act
+        Deencapsulation.invoke(testMqttMessaging, "setDefaultDeliveryMode", new Class[] {MessageDeliveryMode.class}, (MessageDeliveryMode) null);
+    }
+
+    //Tests_SRS_MqttMessaging_41_003: [The function shall save the default delivery mode.]
+    //Tests_SRS_MqttMessaging_41_004: [send method shall publish with QoS 0 if the delivery mode of the message, or the default delivery mode if the message has none, is AT_MOST_ONCE.]
+    @Test
+    public void sendPublishesWithQos0IfDefaultDeliveryModeIsAtMostOnce(@Mocked final Mqtt mockMqtt) throws TransportException
+    {
+        //arrange
+        final byte[] messageBody = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockedMessage.getTemplate();
+                result = null;
+                mockedMessage.getDeliveryMode();
+                result = null;
+            }
+        };
+
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedIotHubListener, null);
+        Deencapsulation.invoke(testMqttMessaging, "setDefaultDeliveryMode", MessageDeliveryMode.AT_MOST_ONCE);
+
+        //act
+        testMqttMessaging.send(mockedMessage);
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, Message.class, int.class}, anyString, mockedMessage, 0);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MqttMessaging_41_004: [send method shall publish with QoS 0 if the delivery mode of the message, or the default delivery mode if the message has none, is AT_MOST_ONCE.]
+    @Test
+    public void sendPublishesWithQos1IfMessageDeliveryModeIsAtLeastOnce(@Mocked final Mqtt mockMqtt) throws TransportException
+    {
+        //arrange
+        final byte[] messageBody = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockedMessage.getTemplate();
+                result = null;
+                mockedMessage.getDeliveryMode();
+                result = MessageDeliveryMode.AT_LEAST_ONCE;
+            }
+        };
+
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedIotHubListener, null);
+        Deencapsulation.invoke(testMqttMessaging, "setDefaultDeliveryMode", MessageDeliveryMode.AT_MOST_ONCE);
+
+        //act
+        testMqttMessaging.send(mockedMessage);
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, Message.class, int.class}, anyString, mockedMessage, 1);
                 times = 1;
             }
         };
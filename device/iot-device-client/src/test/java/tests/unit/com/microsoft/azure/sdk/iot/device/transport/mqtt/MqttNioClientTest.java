@@ -0,0 +1,106 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttCodec;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttEventLoopGroup;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the keep alive of MqttNioClient. The network side is covered by MqttCodecTest.
+ */
+public class MqttNioClientTest
+{
+    private static final String MQTT_NIO_CLIENT_CLASS = "com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioClient";
+    private static final long KEEP_ALIVE_NANOS = TimeUnit.SECONDS.toNanos(230);
+
+    private static Object createConnectedClient(MqttEventLoopGroup eventLoopGroup) throws ClassNotFoundException
+    {
+        Object eventLoop = Deencapsulation.invoke(eventLoopGroup, "next");
+        Object client = Deencapsulation.newInstance(MQTT_NIO_CLIENT_CLASS,
+                new Class<?>[]{eventLoop.getClass(), String.class, int.class, SSLContext.class, Class.forName(MQTT_NIO_CLIENT_CLASS + "$Callback")},
+                eventLoop, "test.host.name", 8883, null, null);
+        Deencapsulation.setField(client, "isConnected", true);
+
+        // keeps the queued packets in the queue, as there is no socket to write them to
+        ((AtomicBoolean) Deencapsulation.getField(client, "isFlushScheduled")).set(true);
+        return client;
+    }
+
+    @Test
+    public void onTickPingsWhenOnlyWriting() throws Exception
+    {
+        //arrange
+        MqttEventLoopGroup eventLoopGroup = new MqttEventLoopGroup(1);
+        try
+        {
+            Object client = createConnectedClient(eventLoopGroup);
+            long startNanos = System.nanoTime();
+            Deencapsulation.setField(client, "lastReadNanos", startNanos);
+            Queue<?> writes = Deencapsulation.getField(client, "writes");
+
+            //act
+            // publishes at most once keep writing, but nothing is read back
+            for (long nowNanos = startNanos; nowNanos <= startNanos + 2 * KEEP_ALIVE_NANOS; nowNanos += KEEP_ALIVE_NANOS / 4)
+            {
+                Deencapsulation.setField(client, "lastWriteNanos", nowNanos);
+                Deencapsulation.invoke(client, "onTick", nowNanos);
+
+                if (!writes.isEmpty())
+                {
+                    break;
+                }
+            }
+
+            //assert
+            assertEquals(1, writes.size());
+            ByteBuffer packet = Deencapsulation.getField(writes.peek(), "packet");
+            assertEquals(MqttCodec.encodePingRequest(), packet);
+            assertFalse((Boolean) Deencapsulation.getField(client, "isClosed"));
+            assertTrue((Boolean) Deencapsulation.invoke(client, "isConnected"));
+        }
+        finally
+        {
+            eventLoopGroup.close();
+        }
+    }
+
+    @Test
+    public void onTickDoesNotPingAgainWhilePingOutstanding() throws Exception
+    {
+        //arrange
+        MqttEventLoopGroup eventLoopGroup = new MqttEventLoopGroup(1);
+        try
+        {
+            Object client = createConnectedClient(eventLoopGroup);
+            long startNanos = System.nanoTime();
+            Deencapsulation.setField(client, "lastReadNanos", startNanos);
+            Deencapsulation.setField(client, "lastWriteNanos", startNanos);
+            Queue<?> writes = Deencapsulation.getField(client, "writes");
+            Deencapsulation.invoke(client, "onTick", startNanos + KEEP_ALIVE_NANOS);
+            assertEquals(1, writes.size());
+
+            //act
+            Deencapsulation.setField(client, "lastWriteNanos", startNanos + KEEP_ALIVE_NANOS);
+            Deencapsulation.invoke(client, "onTick", startNanos + KEEP_ALIVE_NANOS + KEEP_ALIVE_NANOS / 2);
+
+            //assert
+            assertEquals(1, writes.size());
+            assertFalse((Boolean) Deencapsulation.getField(client, "isClosed"));
+        }
+        finally
+        {
+            eventLoopGroup.close();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.exceptions.ProtocolException;
+import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubListener;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInFlightMessages;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioIotHubConnection;
+import mockit.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MqttNioIotHubConnection. The network side is covered by MqttCodecTest.
+ */
+public class MqttNioIotHubConnectionTest
+{
+    private static final String IOT_HUB_HOST_NAME = "test.host.name";
+    private static final String HUB_NAME = "test.iothub";
+    private static final String DEVICE_ID = "test-deviceId";
+    private static final String DEVICE_KEY = "test-devicekey?&test";
+
+    @Mocked
+    private DeviceClientConfig mockConfig;
+
+    @Mocked
+    private MessageCallback mockedMessageCallback;
+
+    private final RecordingListener listener = new RecordingListener();
+
+    private static final class RecordingListener implements IotHubListener
+    {
+        private final BlockingQueue<Object[]> sent = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Object[]> received = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Throwable> lost = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onMessageSent(Message message, Throwable e)
+        {
+            this.sent.add(new Object[]{message, e});
+        }
+
+        @Override
+        public void onMessageReceived(IotHubTransportMessage transportMessage, Throwable e)
+        {
+            this.received.add(new Object[]{transportMessage, e});
+        }
+
+        @Override
+        public void onConnectionLost(Throwable e)
+        {
+            this.lost.add(e);
+        }
+
+        @Override
+        public void onConnectionEstablished()
+        {
+        }
+
+        @Override
+        public void onSendWindowOpened()
+        {
+        }
+    }
+
+    private void baseExpectations()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getIotHubHostname();
+                result = IOT_HUB_HOST_NAME;
+                mockConfig.getIotHubName();
+                result = HUB_NAME;
+                mockConfig.getDeviceId();
+                result = DEVICE_ID;
+                mockConfig.getIotHubConnectionString().getSharedAccessKey();
+                result = DEVICE_KEY;
+                mockConfig.getClientRuntime();
+                result = null;
+            }
+        };
+    }
+
+    private MqttNioIotHubConnection createConnection()
+    {
+        baseExpectations();
+        MqttNioIotHubConnection connection = new MqttNioIotHubConnection(mockConfig);
+        connection.setListener(this.listener);
+        return connection;
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_001: [The constructor shall throw an IllegalArgumentException if the config is null, misses the host name, device id or hub name, or has no device key, shared access token or x509 certificate.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullConfig()
+    {
+        //act
+        new MqttNioIotHubConnection(null);
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_001: [The constructor shall throw an IllegalArgumentException if the config is null, misses the host name, device id or hub name, or has no device key, shared access token or x509 certificate.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnEmptyDeviceId()
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getIotHubHostname();
+                result = IOT_HUB_HOST_NAME;
+                mockConfig.getDeviceId();
+                result = "";
+            }
+        };
+
+        //act
+        new MqttNioIotHubConnection(mockConfig);
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_002: [The constructor shall save the configuration and build the telemetry and cloud to device topics of the device.]
+    @Test
+    public void constructorBuildsTopics()
+    {
+        //act
+        MqttNioIotHubConnection connection = createConnection();
+
+        //assert
+        assertEquals("devices/" + DEVICE_ID + "/messages/events/", Deencapsulation.getField(connection, "telemetryTopic"));
+        assertEquals("devices/" + DEVICE_ID + "/messages/devicebound/#", Deencapsulation.getField(connection, "cloudToDeviceTopic"));
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_013: [If the provided listener object is null, this function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setListenerThrowsOnNull()
+    {
+        //act
+        createConnection().setListener(null);
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_015: [If the message is null or empty, the function shall return status code BAD_FORMAT.]
+    @Test
+    public void sendMessageReturnsBadFormatForNullMessage() throws TransportException
+    {
+        //act
+        IotHubStatusCode statusCode = createConnection().sendMessage(null);
+
+        //assert
+        assertEquals(IotHubStatusCode.BAD_FORMAT, statusCode);
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_016: [If the connection is closed, the function shall throw an IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void sendMessageThrowsWhenClosed() throws TransportException
+    {
+        //act
+        createConnection().sendMessage(new Message("body"));
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_011: [If the connection is closed, the function shall do nothing.]
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_022: [If the connection is not open, this function shall return 0.]
+    @Test
+    public void closedConnectionHasNoSendWindow()
+    {
+        //arrange
+        MqttNioIotHubConnection connection = createConnection();
+
+        //act
+        connection.close();
+
+        //assert
+        assertEquals(0, connection.getSendWindow());
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_018: [If the provided message or result is null, this function shall throw a TransportException.]
+    @Test (expected = TransportException.class)
+    public void sendMessageResultThrowsOnNullResult() throws TransportException
+    {
+        //act
+        createConnection().sendMessageResult(new Message("body"), null);
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_019: [If this object has not received the provided message from the service, this function shall throw a TransportException.]
+    @Test (expected = TransportException.class)
+    public void sendMessageResultThrowsForUnknownMessage() throws TransportException
+    {
+        //act
+        createConnection().sendMessageResult(new Message("body"), IotHubMessageResult.COMPLETE);
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_024: [This function shall convert the arrival as a method request if the topic starts with the methods prefix, as a twin message if it starts with the twin prefix, and as a cloud to device message otherwise.]
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_038: [This function shall save the received message with its message id to be acknowledged, set its callback and context from the config and notify the listener.]
+    @Test
+    public void onPublishReceivedHandsCloudToDeviceMessageToListener()
+    {
+        //arrange
+        MqttNioIotHubConnection connection = createConnection();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getDeviceTelemetryMessageCallback();
+                result = mockedMessageCallback;
+            }
+        };
+
+        //act
+        connection.onPublishReceived(12, "devices/" + DEVICE_ID + "/messages/devicebound/%24.to=%2Fdevices%2F" + DEVICE_ID + "%2Fmessages%2FdeviceBound&prop=value",
+                "body".getBytes(StandardCharsets.UTF_8));
+
+        //assert
+        Object[] arrival = this.listener.received.poll();
+        assertNotNull(arrival);
+        assertNull(arrival[1]);
+        IotHubTransportMessage message = (IotHubTransportMessage) arrival[0];
+        assertEquals(MessageType.DEVICE_TELEMETRY, message.getMessageType());
+        assertEquals("value", message.getProperty("prop"));
+        assertEquals(mockedMessageCallback, message.getMessageCallback());
+        Map<IotHubTransportMessage, Integer> receivedMessagesToAcknowledge = Deencapsulation.getField(connection, "receivedMessagesToAcknowledge");
+        assertEquals(12, (int) receivedMessagesToAcknowledge.get(message));
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_024: [This function shall convert the arrival as a method request if the topic starts with the methods prefix, as a twin message if it starts with the twin prefix, and as a cloud to device message otherwise.]
+    @Test
+    public void onPublishReceivedHandsMethodRequestToListener()
+    {
+        //arrange
+        MqttNioIotHubConnection connection = createConnection();
+
+        //act
+        connection.onPublishReceived(3, "$iothub/methods/POST/testMethod/?$rid=10", "{}".getBytes(StandardCharsets.UTF_8));
+
+        //assert
+        Object[] arrival = this.listener.received.poll();
+        assertNotNull(arrival);
+        IotHubTransportMessage message = (IotHubTransportMessage) arrival[0];
+        assertEquals(MessageType.DEVICE_METHODS, message.getMessageType());
+        assertEquals("testMethod", message.getMethodName());
+        assertEquals("10", message.getRequestId());
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_021: [This function shall remove the provided message from the saved map of messages to acknowledge and return true.]
+    @Test
+    public void sendMessageResultForUnacknowledgedResponseReturnsTrue() throws TransportException
+    {
+        //arrange
+        MqttNioIotHubConnection connection = createConnection();
+        IotHubTransportMessage message = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+        Map<IotHubTransportMessage, Integer> receivedMessagesToAcknowledge = Deencapsulation.getField(connection, "receivedMessagesToAcknowledge");
+        receivedMessagesToAcknowledge.put(message, -1);
+
+        //act
+        boolean result = connection.sendMessageResult(message, IotHubMessageResult.COMPLETE);
+
+        //assert
+        assertTrue(result);
+        assertTrue(receivedMessagesToAcknowledge.isEmpty());
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_025: [This function shall release the in flight slot of the acknowledged message and notify the listener that it was sent.]
+    @Test
+    public void onPublishAcknowledgedNotifiesListenerOnce()
+    {
+        //arrange
+        MqttNioIotHubConnection connection = createConnection();
+        Message message = new Message("body");
+        MqttInFlightMessages inFlightMessages = new MqttInFlightMessages(10);
+        inFlightMessages.put(5, message);
+        Deencapsulation.setField(connection, "inFlightMessages", inFlightMessages);
+
+        //act
+        connection.onPublishAcknowledged(5);
+        connection.onPublishAcknowledged(5);
+
+        //assert
+        Object[] sent = this.listener.sent.poll();
+        assertSame(message, sent[0]);
+        assertNull(sent[1]);
+        assertTrue(this.listener.sent.isEmpty());
+        assertEquals(0, inFlightMessages.size());
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_026: [Once a QoS 0 message is written to the connection, the listener shall be notified that it was sent.]
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_027: [If a QoS 0 message cannot be written to the connection, the listener shall be notified of a retryable ProtocolException.]
+    @Test
+    public void onPublishWrittenNotifiesListener()
+    {
+        //arrange
+        MqttNioIotHubConnection connection = createConnection();
+        Message written = new Message("written");
+        Message failed = new Message("failed");
+
+        //act
+        connection.onPublishWritten(written, null);
+        connection.onPublishWritten(failed, new IOException("closed"));
+
+        //assert
+        Object[] first = this.listener.sent.poll();
+        assertSame(written, first[0]);
+        assertNull(first[1]);
+        Object[] second = this.listener.sent.poll();
+        assertSame(failed, second[0]);
+        assertTrue(second[1] instanceof ProtocolException);
+        assertTrue(((ProtocolException) second[1]).isRetryable());
+    }
+
+    //Tests_SRS_MQTTNIOIOTHUBCONNECTION_41_028: [This function shall notify the listener of a retryable ProtocolException off the event loop, on the worker executor of the client runtime if the config has one, since the listener reconnects on the calling thread.]
+    @Test
+    public void onConnectionLostNotifiesListenerOnAnotherThread() throws InterruptedException
+    {
+        //arrange
+        MqttNioIotHubConnection connection = createConnection();
+
+        //act
+        connection.onConnectionLost(new IOException("lost"));
+
+        //assert
+        Throwable lost = this.listener.lost.poll(10, TimeUnit.SECONDS);
+        assertTrue(lost instanceof ProtocolException);
+        assertTrue(((ProtocolException) lost).isRetryable());
+    }
+}
@@ -0,0 +1,277 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
+import com.microsoft.azure.sdk.iot.device.transport.HashedWheelTimer;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttPendingRequests;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MqttPendingRequests.
+ * 100% methods, 100% lines covered
+ */
+public class MqttPendingRequestsTest
+{
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_001: [The constructor shall throw an IllegalArgumentException if maxCount is less than 1.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsIfMaxCountLessThanOne()
+    {
+        //act
+        new MqttPendingRequests(0);
+    }
+
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_002: [The constructor shall create an empty table that never expires its requests.]
+    @Test
+    public void constructorCreatesEmptyTable()
+    {
+        //act
+        MqttPendingRequests pendingRequests = new MqttPendingRequests(10);
+
+        //assert
+        assertTrue(pendingRequests.isEmpty());
+        assertEquals(0, pendingRequests.size());
+    }
+
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_003: [If the timer is null or the timeout is not positive, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setTimeoutThrowsOnNullTimer()
+    {
+        //act
+        new MqttPendingRequests(10).setTimeout(null, 1000, null);
+    }
+
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_003: [If the timer is null or the timeout is not positive, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setTimeoutThrowsOnZeroTimeout()
+    {
+        //act
+        new MqttPendingRequests(10).setTimeout(new HashedWheelTimer(1, 8), 0, null);
+    }
+
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_005: [If the request id or the operation is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void putThrowsOnNullRequestId()
+    {
+        //act
+        new MqttPendingRequests(10).put(null, DEVICE_OPERATION_TWIN_GET_REQUEST);
+    }
+
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_005: [If the request id or the operation is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void putThrowsOnNullOperation()
+    {
+        //act
+        new MqttPendingRequests(10).put("1", null);
+    }
+
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_006: [If the table holds maxCount requests, the function shall not save the request and shall return false.]
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_007: [The function shall save the request under its id and return true.]
+    @Test
+    public void putRejectsRequestsOnceFull()
+    {
+        //arrange
+        MqttPendingRequests pendingRequests = new MqttPendingRequests(2);
+
+        //act
+        boolean first = pendingRequests.put("1", DEVICE_OPERATION_TWIN_GET_REQUEST);
+        boolean second = pendingRequests.put("2", DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST);
+        boolean third = pendingRequests.put("3", DEVICE_OPERATION_TWIN_GET_REQUEST);
+
+        //assert
+        assertTrue(first);
+        assertTrue(second);
+        assertFalse(third);
+        assertEquals(2, pendingRequests.size());
+        assertNull(pendingRequests.remove("3"));
+        assertNotNull(pendingRequests.remove("1"));
+        assertTrue(pendingRequests.put("3", DEVICE_OPERATION_TWIN_GET_REQUEST));
+    }
+
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_007: [The function shall save the request under its id and return true.]
+    @Test
+    public void putReplacesRequestWithSameId()
+    {
+        //arrange
+        MqttPendingRequests pendingRequests = new MqttPendingRequests(1);
+        pendingRequests.put("1", DEVICE_OPERATION_TWIN_GET_REQUEST);
+
+        //act
+        boolean replaced = pendingRequests.put("1", DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST);
+
+        //assert
+        assertTrue(replaced);
+        assertEquals(1, pendingRequests.size());
+        assertEquals(DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST, pendingRequests.remove("1"));
+    }
+
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_009: [If no request is waiting with the id, the function shall return null.]
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_011: [The function shall remove the request, cancel its deadline and return its operation.]
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_013: [The function shall return the number of requests saved.]
+    @Test
+    public void removeReturnsOperationOnce()
+    {
+        //arrange
+        MqttPendingRequests pendingRequests = new MqttPendingRequests(10);
+        pendingRequests.put("1", DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
+
+        //act
+        DeviceOperations first = pendingRequests.remove("1");
+        DeviceOperations second = pendingRequests.remove("1");
+
+        //assert
+        assertEquals(DEVICE_OPERATION_METHOD_RECEIVE_REQUEST, first);
+        assertNull(second);
+        assertNull(pendingRequests.remove(null));
+        assertEquals(0, pendingRequests.size());
+    }
+
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_004: [The function shall save the timer, the timeout and the expiry listener.]
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_008: [If a timer is set, the function shall schedule the deadline of the request on it.]
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_010: [Once the deadline of a request has passed, the request shall be removed and the expiry listener notified with its id and operation.]
+    @Test
+    public void expiredRequestIsRemovedAndNotified() throws InterruptedException
+    {
+        //arrange
+        final BlockingQueue<String> expired = new LinkedBlockingQueue<>();
+        HashedWheelTimer timer = new HashedWheelTimer(1, 8);
+        MqttPendingRequests pendingRequests = new MqttPendingRequests(10);
+        pendingRequests.setTimeout(timer, 1, new MqttPendingRequests.ExpiryListener()
+        {
+            @Override
+            public void onRequestExpired(String requestId, DeviceOperations operation)
+            {
+                expired.add(requestId + ":" + operation);
+            }
+        });
+
+        try
+        {
+            //act
+            pendingRequests.put("1", DEVICE_OPERATION_TWIN_GET_REQUEST);
+            String expiredRequest = expired.poll(10, TimeUnit.SECONDS);
+
+            //assert
+            assertEquals("1:" + DEVICE_OPERATION_TWIN_GET_REQUEST, expiredRequest);
+            assertTrue(pendingRequests.isEmpty());
+            assertTrue(pendingRequests.put("2", DEVICE_OPERATION_TWIN_GET_REQUEST));
+        }
+        finally
+        {
+            timer.stop();
+        }
+    }
+
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_011: [The function shall remove the request, cancel its deadline and return its operation.]
+    @Test
+    public void removeCancelsDeadline()
+    {
+        //arrange
+        HashedWheelTimer timer = new HashedWheelTimer(1000, 8);
+        MqttPendingRequests pendingRequests = new MqttPendingRequests(10);
+        pendingRequests.setTimeout(timer, 60000, null);
+        pendingRequests.put("1", DEVICE_OPERATION_TWIN_GET_REQUEST);
+        pendingRequests.put("1", DEVICE_OPERATION_TWIN_GET_REQUEST);
+        assertEquals(1, timer.getPendingTimeouts());
+
+        try
+        {
+            //act
+            pendingRequests.remove("1");
+
+            //assert
+            assertEquals(0, timer.getPendingTimeouts());
+        }
+        finally
+        {
+            timer.stop();
+        }
+    }
+
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_012: [The function shall remove all the requests and cancel their deadlines.]
+    @Test
+    public void clearRemovesAllRequests()
+    {
+        //arrange
+        HashedWheelTimer timer = new HashedWheelTimer(1000, 8);
+        MqttPendingRequests pendingRequests = new MqttPendingRequests(10);
+        pendingRequests.setTimeout(timer, 60000, null);
+        pendingRequests.put("1", DEVICE_OPERATION_TWIN_GET_REQUEST);
+        pendingRequests.put("2", DEVICE_OPERATION_TWIN_GET_REQUEST);
+
+        try
+        {
+            //act
+            pendingRequests.clear();
+
+            //assert
+            assertTrue(pendingRequests.isEmpty());
+            assertEquals(0, timer.getPendingTimeouts());
+            assertNull(pendingRequests.remove("1"));
+        }
+        finally
+        {
+            timer.stop();
+        }
+    }
+
+    //Tests_SRS_MQTTPENDINGREQUESTS_41_006: [If the table holds maxCount requests, the function shall not save the request and shall return false.]
+    @Test
+    public void concurrentPutsNeverExceedMaxCount() throws InterruptedException
+    {
+        //arrange
+        final int threadCount = 8;
+        final MqttPendingRequests pendingRequests = new MqttPendingRequests(100);
+        final AtomicInteger saved = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++)
+        {
+            final int thread = t;
+            new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int i = 0; i < 50; i++)
+                        {
+                            if (pendingRequests.put(thread + "-" + i, DEVICE_OPERATION_TWIN_GET_REQUEST))
+                            {
+                                saved.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        //act
+        start.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        //assert
+        assertEquals(100, saved.get());
+        assertEquals(100, pendingRequests.size());
+    }
+}
@@ -6,6 +6,7 @@ import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
 import com.microsoft.azure.sdk.iot.device.exceptions.ProtocolException;
+import com.microsoft.azure.sdk.iot.device.exceptions.SendWindowFullException;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubListener;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.*;
@@ -17,8 +18,6 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -135,6 +134,10 @@ public class MqttTest
                 result = new ConcurrentLinkedQueue<>();
                 Deencapsulation.invoke(mockedMqttConnection, "getMqttLock");
                 result = new Object();
+                Deencapsulation.invoke(mockedMqttConnection, "getMaxInFlightCount");
+                result = 10;
+                Deencapsulation.invoke(mockedMqttConnection, "getInFlightMessages");
+                result = new MqttInFlightMessages(10);
             }
         };
     }
@@ -179,8 +182,10 @@ public class MqttTest
                 result = true;
                 new MqttMessage(payload);
                 result = mockMqttMessage;
-                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage);
+                mockMqttAsyncClient.publish(anyString, mockMqttMessage);
                 result = mockMqttDeliveryToken;
+                mockMqttDeliveryToken.getMessageId();
+                result = 1;
             }
         };
     }
@@ -547,10 +552,10 @@ public class MqttTest
     }
 
     /*
-    **Tests_SRS_Mqtt_25_012: [If the MQTT connection is closed, the function shall throw a TransportException.]
+    **Tests_SRS_Mqtt_25_048: [If the in flight window of the connection is full, publish shall throw a SendWindowFullException instead of waiting for a slot.]
     */
-    @Test (expected = TransportException.class)
-    public void publishFailsWhenConnectionBrokenWhilePublishing(final @Mocked Message mockedMessage) throws TransportException
+    @Test
+    public void publishThrowsSendWindowFullExceptionWhenInFlightWindowIsFull(final @Mocked Message mockedMessage) throws TransportException, MqttException
     {
         //arrange
         baseConstructorExpectations();
@@ -558,23 +563,41 @@ public class MqttTest
         final IMqttDeliveryToken[] testTokens = {mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken,
                 mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken,
                 mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken,
-                mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken
+                mockMqttDeliveryToken
         };
         new NonStrictExpectations()
         {
             {
+                mockedMessage.getBytes();
+                result = payload;
                 mockMqttAsyncClient.isConnected();
                 result = true;
                 mockMqttAsyncClient.getPendingDeliveryTokens();
                 result = testTokens;
-                mockMqttAsyncClient.isConnected();
-                result = false;
             }
         };
         Mqtt mockMqtt = instantiateMqtt(true);
+        boolean isRetryable = false;
 
         //act
-        Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, mockedMessage);
+        try
+        {
+            Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, mockedMessage);
+        }
+        catch (Exception e)
+        {
+            isRetryable = e instanceof SendWindowFullException && ((TransportException) e).isRetryable();
+        }
+
+        //assert
+        assertTrue(isRetryable);
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.publish(anyString, (MqttMessage) any);
+                times = 0;
+            }
+        };
     }
 
 
@@ -988,6 +1011,102 @@ public class MqttTest
         Message receivedMessage = mockMqtt.receive();
     }
 
+    //Tests_SRS_Mqtt_41_008: [The function shall save whether the arrivals are dispatched directly.]
+    //Tests_SRS_Mqtt_41_009: [If the arrivals are dispatched directly, this function shall hand the message id, topic and payload to the saved listener without adding them to the received messages queue.]
+    @Test
+    public void messageArrivedDispatchesDirectly() throws TransportException
+    {
+        //arrange
+        final byte[] actualPayload = {0x61, 0x62, 0x63};
+        baseConstructorExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttMessage.getPayload();
+                result = actualPayload;
+                mockMqttMessage.getId();
+                result = 7;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "setDirectDispatch", true);
+
+        //act
+        mockMqtt.messageArrived(MOCK_PARSE_TOPIC, mockMqttMessage);
+
+        //assert
+        Queue<Pair<String, byte[]>> actualQueue = Deencapsulation.getField(mockMqtt, "allReceivedMessages");
+        assertTrue(actualQueue.isEmpty());
+        new Verifications()
+        {
+            {
+                mockedMessageListener.onMessageArrived(7, MOCK_PARSE_TOPIC, actualPayload);
+                times = 1;
+                mockedMessageListener.onMessageArrived(anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_Mqtt_41_011: [The function shall construct a message from the payload that decodes the properties of the topic when they are first read.]
+    @Test
+    public void parseMessageConstructsMessage() throws TransportException
+    {
+        //arrange
+        baseConstructorExpectations();
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        Message receivedMessage = Deencapsulation.invoke(mockMqtt, "parseMessage", MOCK_PARSE_TOPIC, EXPECTED_PAYLOAD);
+
+        //assert
+        assertArrayEquals(EXPECTED_PAYLOAD, receivedMessage.getBytes());
+        assertEquals(expectedMessage.getMessageId(), receivedMessage.getMessageId());
+        assertEquals("value1", receivedMessage.getProperty("property1"));
+    }
+
+    //Tests_SRS_Mqtt_41_010: [If the payload is null, the function shall throw a TransportException.]
+    @Test
+    public void parseMessageThrowsOnNullPayload() throws TransportException
+    {
+        //arrange
+        baseConstructorExpectations();
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        try
+        {
+            Deencapsulation.invoke(mockMqtt, "parseMessage", new Class[] {String.class, byte[].class}, MOCK_PARSE_TOPIC, null);
+            fail("parseMessage should have thrown");
+        }
+        catch (Exception e)
+        {
+            //assert
+            assertTrue(e instanceof TransportException);
+        }
+    }
+
+    //Tests_SRS_Mqtt_41_012: [If the properties of the topic are malformed, the function shall throw a TransportException.]
+    @Test
+    public void parseMessageThrowsOnMalformedProperties() throws TransportException
+    {
+        //arrange
+        baseConstructorExpectations();
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        try
+        {
+            Deencapsulation.invoke(mockMqtt, "parseMessage", "devices/deviceID/messages/devicebound/%24.mid", EXPECTED_PAYLOAD);
+            fail("parseMessage should have thrown");
+        }
+        catch (Exception e)
+        {
+            //assert
+            assertTrue(e instanceof TransportException);
+        }
+    }
+
     //Tests_SRS_Mqtt_25_030: [The payload of the message and the topic is added to the received messages queue .]
     //Tests_SRS_Mqtt_34_045: [If there is a saved listener, this function shall notify that listener that a message arrived.]
     @Test
@@ -1211,6 +1330,51 @@ public class MqttTest
         assertEquals("=", receivedMessage.getProperties()[3].getValue());
     }
 
+    // Tests_SRS_MQTTRECEIVEDMESSAGE_41_001: [The function shall decode the properties of the topic the first time a property is read or written.]
+    // Tests_SRS_MQTTRECEIVEDMESSAGE_41_002: [The function shall look up the message id in the topic without decoding the other properties.]
+    // Tests_SRS_MQTTRECEIVEDMESSAGE_41_003: [The function shall look up the correlation id in the topic without decoding the other properties.]
+    @Test
+    public void receiveDecodesPropertiesLazily() throws TransportException, MqttException
+    {
+        //arrange
+        final byte[] payload = {0x61, 0x62, 0x63};
+        final String topic = "devices/deviceID/messages/devicebound/%24.mid=69ea4caf-d83e-454b-81f2-caafda4c81c8&%24.cid=169c34b3-99b0-49f9-b0f6-8fa9d2c99345&iothub-ack=full&property1=%24";
+        baseConstructorExpectations();
+        baseConnectExpectation();
+        new MockUp<MqttMessaging>()
+        {
+            @Mock
+            Pair<String, byte[]> peekMessage()
+            {
+                return new MutablePair<>(topic, payload);
+            }
+        };
+
+        final Mqtt mockMqtt = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedIotHubListener, null);
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+            }
+        };
+
+        Deencapsulation.invoke(mockMqtt, "connect");
+
+        //act
+        Message receivedMessage = mockMqtt.receive();
+        String messageId = receivedMessage.getMessageId();
+        receivedMessage.setCorrelationId("overridden");
+        boolean decodedBeforePropertyRead = Deencapsulation.getField(receivedMessage, "propertiesDecoded");
+
+        //assert
+        assertFalse(decodedBeforePropertyRead);
+        assertEquals("69ea4caf-d83e-454b-81f2-caafda4c81c8", messageId);
+        assertEquals("$", receivedMessage.getProperty("property1"));
+        assertEquals(1, receivedMessage.getProperties().length);
+        assertEquals("overridden", receivedMessage.getCorrelationId());
+    }
+
     //Tests_SRS_Mqtt_34_037: [If the provided throwable is an instance of MqttException, this function shall derive the associated TransportException and notify the listeners of that derived exception.]
     @Test
     public void connectionDropFiresCallbackWithMqttException() throws TransportException
@@ -1234,6 +1398,7 @@ public class MqttTest
     }
 
     //Tests_SRS_Mqtt_34_042: [If this object has a saved listener, that listener shall be notified of the successfully delivered message.]
+    //Tests_SRS_Mqtt_41_003: [The function shall release the in flight slot of the delivered message.]
     @Test
     public void deliveryCompleteNotifiesListener() throws TransportException, MqttException
     {
@@ -1242,18 +1407,19 @@ public class MqttTest
         baseConstructorExpectations();
         final Message otherMessage = new Message();
         final Message expectedMessage = new Message();
-        Mqtt mockMqtt = instantiateMqtt(true, mockedIotHubListener);
-        Map<Integer, Message> unacknowledgedMessages = new HashMap<>();
-        unacknowledgedMessages.put(12, otherMessage);
-        unacknowledgedMessages.put(expectedMessageId, expectedMessage);
-        Deencapsulation.setField(mockMqtt, "unacknowledgedSentMessages", unacknowledgedMessages);
+        final MqttInFlightMessages inFlightMessages = new MqttInFlightMessages(10);
+        inFlightMessages.put(12, otherMessage);
+        inFlightMessages.put(expectedMessageId, expectedMessage);
         new NonStrictExpectations()
         {
             {
+                Deencapsulation.invoke(mockedMqttConnection, "getInFlightMessages");
+                result = inFlightMessages;
                 mockMqttDeliveryToken.getMessageId();
                 result = expectedMessageId;
             }
         };
+        Mqtt mockMqtt = instantiateMqtt(true, mockedIotHubListener);
 
         //act
         mockMqtt.deliveryComplete(mockMqttDeliveryToken);
@@ -1268,6 +1434,105 @@ public class MqttTest
                 times = 0;
             }
         };
+        assertNull(inFlightMessages.remove(expectedMessageId));
+        assertEquals(otherMessage, inFlightMessages.remove(12));
+    }
+
+    //Tests_SRS_Mqtt_41_005: [If the QoS is 0, the function shall publish the message without tracking it, and notify the listener once it is written to the connection.]
+    @Test
+    public void publishWithQos0DoesNotTrackMessage(final @Mocked Message mockedMessage) throws TransportException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        basePublishExpectations(mockedMessage);
+        final MqttInFlightMessages inFlightMessages = new MqttInFlightMessages(10);
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "getInFlightMessages");
+                result = inFlightMessages;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true, mockedIotHubListener);
+
+        //act
+        Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, mockedMessage, 0);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockMqttMessage.setQos(0);
+                times = 1;
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, mockedMessage, (IMqttActionListener) any);
+                times = 1;
+                mockMqttAsyncClient.publish(anyString, mockMqttMessage);
+                times = 0;
+                mockedIotHubListener.onMessageSent((Message) any, (TransportException) any);
+                times = 0;
+            }
+        };
+        assertEquals(0, inFlightMessages.size());
+    }
+
+    //Tests_SRS_Mqtt_41_006: [Once a QoS 0 message is written to the connection, the listener shall be notified that it was sent.]
+    @Test
+    public void qos0PublishWrittenNotifiesListener(final @Mocked Message mockedMessage) throws TransportException
+    {
+        //arrange
+        baseConstructorExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttToken.getUserContext();
+                result = mockedMessage;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true, mockedIotHubListener);
+        IMqttActionListener writeListener = Deencapsulation.getField(mockMqtt, "writeListener");
+
+        //act
+        writeListener.onSuccess(mockMqttToken);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedIotHubListener.onMessageSent(mockedMessage, null);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_Mqtt_41_007: [If a QoS 0 message cannot be written to the connection, the listener shall be notified of the derived TransportException.]
+    @Test
+    public void qos0PublishFailureNotifiesListenerWithException(final @Mocked Message mockedMessage) throws TransportException
+    {
+        //arrange
+        baseConstructorExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttToken.getUserContext();
+                result = mockedMessage;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true, mockedIotHubListener);
+        IMqttActionListener writeListener = Deencapsulation.getField(mockMqtt, "writeListener");
+
+        //act
+        writeListener.onFailure(mockMqttToken, new IOException());
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedIotHubListener.onMessageSent(mockedMessage, (TransportException) any);
+                times = 1;
+                mockedIotHubListener.onMessageSent(mockedMessage, null);
+                times = 0;
+            }
+        };
     }
 
     //Tests_SRS_Mqtt_34_043: [This function shall invoke the saved mqttConnection object to send the message acknowledgement for the provided messageId and return that result.]
@@ -1340,4 +1605,55 @@ public class MqttTest
         //act
         Deencapsulation.invoke(mockMqtt, "connect");
     }
-}
\ No newline at end of file
+
+    /*
+    **Tests_SRS_Mqtt_41_002: [The function shall return the number of in flight slots not used by pending delivery tokens.]
+    */
+    @Test
+    public void getFreeInFlightCountReturnsUnusedSlots() throws TransportException
+    {
+        //arrange
+        baseConstructorExpectations();
+        final IMqttDeliveryToken[] testTokens = {mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken};
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "getMqttAsyncClient");
+                result = mockMqttAsyncClient;
+                mockMqttAsyncClient.getPendingDeliveryTokens();
+                result = testTokens;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        int freeInFlightCount = Deencapsulation.invoke(mockMqtt, "getFreeInFlightCount");
+
+        //assert
+        assertEquals(7, freeInFlightCount);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_41_001: [If the connection is not open, the function shall return 0.]
+    */
+    @Test
+    public void getFreeInFlightCountReturnsZeroIfNotOpen() throws TransportException
+    {
+        //arrange
+        baseConstructorExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "getMqttAsyncClient");
+                result = null;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        int freeInFlightCount = Deencapsulation.invoke(mockMqtt, "getFreeInFlightCount");
+
+        //assert
+        assertEquals(0, freeInFlightCount);
+    }
+}
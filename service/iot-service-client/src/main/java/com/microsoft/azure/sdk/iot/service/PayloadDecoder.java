@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes the bodies of the telemetry messages encoded by the payload codec of the device client. The device client
+ * records the encoding of an encoded body in the "content-encoding" application property of the message, which
+ * back-end consumers read along with the body, for example from the Event Hub compatible endpoint.
+ */
+public class PayloadDecoder
+{
+    /** The application property holding the content encoding of an encoded message body. */
+    public static final String CONTENT_ENCODING_PROPERTY = "content-encoding";
+
+    /** The content encoding of bodies compressed in the gzip format. */
+    public static final String GZIP = "gzip";
+
+    /** The content encoding of bodies compressed in the zlib format. */
+    public static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Decodes a message body with the content encoding found in the application properties of the message.
+     *
+     * @param body the body of the message.
+     * @param applicationProperties the application properties of the message. Can be {@code null}.
+     * @return the decoded body, or the body itself if it is not encoded.
+     * @throws IllegalArgumentException if the body is null or the content encoding is not supported.
+     * @throws IOException if the body is not valid for its content encoding.
+     */
+    public static byte[] decode(byte[] body, Map<String, ?> applicationProperties) throws IllegalArgumentException, IOException
+    {
+        Object contentEncoding = (applicationProperties == null) ? null : applicationProperties.get(CONTENT_ENCODING_PROPERTY);
+
+        // Codes_SRS_SERVICE_SDK_JAVA_PAYLOADDECODER_41_001: [The function shall decode the body with the content encoding found in the application properties.]
+        return decode(body, (contentEncoding == null) ? null : contentEncoding.toString());
+    }
+
+    /**
+     * Decodes a message body.
+     *
+     * @param body the body of the message.
+     * @param contentEncoding the content encoding of the body, {@link #GZIP} or {@link #DEFLATE}. Can be
+     *                        {@code null} if the body is not encoded.
+     * @return the decoded body, or the body itself if the content encoding is {@code null}.
+     * @throws IllegalArgumentException if the body is null or the content encoding is not supported.
+     * @throws IOException if the body is not valid for its content encoding.
+     */
+    public static byte[] decode(byte[] body, String contentEncoding) throws IllegalArgumentException, IOException
+    {
+        if (body == null)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_PAYLOADDECODER_41_002: [The function shall throw IllegalArgumentException if the body is null.]
+            throw new IllegalArgumentException("body cannot be null");
+        }
+
+        if (contentEncoding == null)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_PAYLOADDECODER_41_003: [The function shall return the body if the content encoding is null.]
+            return body;
+        }
+
+        InputStream decodedStream;
+        if (GZIP.equalsIgnoreCase(contentEncoding))
+        {
+            decodedStream = new GZIPInputStream(new ByteArrayInputStream(body));
+        }
+        else if (DEFLATE.equalsIgnoreCase(contentEncoding))
+        {
+            decodedStream = new InflaterInputStream(new ByteArrayInputStream(body));
+        }
+        else
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_PAYLOADDECODER_41_004: [The function shall throw IllegalArgumentException if the content encoding is not gzip or deflate.]
+            throw new IllegalArgumentException("Unsupported content encoding " + contentEncoding);
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_PAYLOADDECODER_41_005: [The function shall return the body decompressed in the format of the content encoding.]
+        try
+        {
+            ByteArrayOutputStream decodedBody = new ByteArrayOutputStream(body.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = decodedStream.read(buffer)) != -1)
+            {
+                decodedBody.write(buffer, 0, read);
+            }
+            return decodedBody.toByteArray();
+        }
+        finally
+        {
+            decodedStream.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package tests.unit.com.microsoft.azure.sdk.iot.service;
+
+import com.microsoft.azure.sdk.iot.service.PayloadDecoder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for PayloadDecoder
+ */
+public class PayloadDecoderTest
+{
+    private static final byte[] BODY = "{\"temperature\":[20.1,20.2,20.1,20.3,20.2,20.1]}".getBytes(StandardCharsets.UTF_8);
+
+    private static byte[] gzip(byte[] body) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GZIPOutputStream gzipStream = new GZIPOutputStream(output);
+        gzipStream.write(body);
+        gzipStream.close();
+        return output.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] body) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DeflaterOutputStream deflateStream = new DeflaterOutputStream(output);
+        deflateStream.write(body);
+        deflateStream.close();
+        return output.toByteArray();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_PAYLOADDECODER_41_005: [The function shall return the body decompressed in the format of the content encoding.]
+    @Test
+    public void decodeGzipBody() throws IOException
+    {
+        // Act
+        byte[] result = PayloadDecoder.decode(gzip(BODY), "gzip");
+        // Assert
+        assertArrayEquals(BODY, result);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_PAYLOADDECODER_41_005: [The function shall return the body decompressed in the format of the content encoding.]
+    @Test
+    public void decodeDeflateBody() throws IOException
+    {
+        // Act
+        byte[] result = PayloadDecoder.decode(deflate(BODY), "deflate");
+        // Assert
+        assertArrayEquals(BODY, result);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_PAYLOADDECODER_41_001: [The function shall decode the body with the content encoding found in the application properties.]
+    @Test
+    public void decodeWithApplicationProperties() throws IOException
+    {
+        // Arrange
+        Map<String, Object> applicationProperties = new HashMap<>();
+        applicationProperties.put("content-encoding", "gzip");
+        // Act
+        byte[] result = PayloadDecoder.decode(gzip(BODY), applicationProperties);
+        // Assert
+        assertArrayEquals(BODY, result);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_PAYLOADDECODER_41_003: [The function shall return the body if the content encoding is null.]
+    @Test
+    public void decodeReturnsBodyIfNotEncoded() throws IOException
+    {
+        // Act
+        byte[] result = PayloadDecoder.decode(BODY, new HashMap<String, Object>());
+        // Assert
+        assertSame(BODY, result);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_PAYLOADDECODER_41_002: [The function shall throw IllegalArgumentException if the body is null.]
+    @Test (expected = IllegalArgumentException.class)
+    public void decodeThrowsIfBodyNull() throws IOException
+    {
+        // Act
+        PayloadDecoder.decode(null, "gzip");
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_PAYLOADDECODER_41_004: [The function shall throw IllegalArgumentException if the content encoding is not gzip or deflate.]
+    @Test (expected = IllegalArgumentException.class)
+    public void decodeThrowsIfEncodingUnsupported() throws IOException
+    {
+        // Act
+        PayloadDecoder.decode(BODY, "br");
+    }
+}